@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.model;
+
+import gnu.trove.TLongArrayList;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A {@link DataSeries} that can copy its samples into primitive columns, without creating a {@link SeriesData} per sample.
+ * UI components that walk the same series on every frame should go through
+ * {@link RangedContinuousSeries#getSeries(TLongArrayList, TLongArrayList)}, which takes advantage of this interface when available.
+ */
+public interface ColumnarDataSeries<E> extends DataSeries<E> {
+
+  /**
+   * Appends the x values and the values of the samples within the given range to the given buffers, in x order.
+   * The samples selected are the same as the ones returned by {@link #getDataForXRange(Range)}.
+   *
+   * @throws ClassCastException if the values of this series are not integral numbers.
+   */
+  void getDataForXRange(@NotNull Range xRange, @NotNull TLongArrayList xOut, @NotNull TLongArrayList valuesOut);
+
+  /**
+   * Same as {@link #getDataForXRange(Range, TLongArrayList, TLongArrayList)}, but the data may be reduced to about {@code resolution}
+   * buckets, each contributing its minimum and maximum sample (see {@link MinMaxPyramid}). Series that cannot reduce their data return
+   * it at full resolution.
+   */
+  default void getDataForXRange(@NotNull Range xRange, int resolution, @NotNull TLongArrayList xOut, @NotNull TLongArrayList valuesOut) {
+    getDataForXRange(xRange, xOut, valuesOut);
+  }
+}
@@ -18,11 +18,14 @@ package com.android.tools.adtui.model;
 import gnu.trove.TLongArrayList;
 import org.jetbrains.annotations.NotNull;
 
-public class LongDataSeries extends BaseDataSeries<Long> {
+public class LongDataSeries extends BaseDataSeries<Long> implements ColumnarDataSeries<Long> {
 
   @NotNull
   private final TLongArrayList mY = new TLongArrayList();
 
+  @NotNull
+  private final MinMaxPyramid mPyramid = new MinMaxPyramid(mX, mY);
+
   @Override
   public void add(long x, Long y) {
     mX.add(x);
@@ -33,4 +36,20 @@ public class LongDataSeries extends BaseDataSeries<Long> {
   public Long getY(int index) {
     return mY.get(index);
   }
+
+  @Override
+  public void getDataForXRange(@NotNull Range xRange, @NotNull TLongArrayList xOut, @NotNull TLongArrayList valuesOut) {
+    getDataForXRange(xRange, Integer.MAX_VALUE, xOut, valuesOut);
+  }
+
+  @Override
+  public void getDataForXRange(@NotNull Range xRange, int resolution, @NotNull TLongArrayList xOut, @NotNull TLongArrayList valuesOut) {
+    if (size() == 0) {
+      return;
+    }
+
+    int fromIndex = getNearestXIndex((long)xRange.getMin());
+    int toIndex = getNearestXIndex((long)xRange.getMax()) + 1;
+    mPyramid.copyTo(fromIndex, toIndex, resolution, xOut, valuesOut);
+  }
 }
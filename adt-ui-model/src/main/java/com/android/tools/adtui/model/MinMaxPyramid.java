@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.model;
+
+import gnu.trove.TLongArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A level-of-detail pyramid over an append-only series of (x, y) samples, used to display a range of the series with a bounded number
+ * of points regardless of how many samples it contains.
+ *
+ * Each level groups {@link #FAN_OUT} buckets of the level below into one, and keeps the samples holding the minimum and the maximum y
+ * value of the group. Rendering those two samples per bucket preserves the peaks and the envelope of the line, which naive decimation
+ * does not. Only complete buckets are stored; the most recent samples are served from the lower levels until their bucket completes.
+ *
+ * The pyramid does not own the samples: it reads them from the lists it is given, which are expected to only grow. New samples are
+ * folded in on the next query, so the cost of maintaining the pyramid is proportional to the number of samples added. If the lists
+ * are cleared, the pyramid is rebuilt.
+ */
+public final class MinMaxPyramid {
+
+  /**
+   * Number of buckets of a level that are grouped in one bucket of the level above.
+   */
+  public static final int FAN_OUT = 4;
+
+  @NotNull private final TLongArrayList myX;
+  @NotNull private final TLongArrayList myY;
+
+  /**
+   * Levels above the raw samples, i.e. myLevels.get(0) groups {@link #FAN_OUT} samples, myLevels.get(1) groups FAN_OUT^2 samples...
+   */
+  @NotNull private final List<Level> myLevels = new ArrayList<>();
+
+  /**
+   * Number of samples folded into the pyramid, and the x value of the last one, used to detect that the lists have been reset.
+   */
+  private int mySampleCount;
+  private long myLastX;
+
+  public MinMaxPyramid(@NotNull TLongArrayList x, @NotNull TLongArrayList y) {
+    myX = x;
+    myY = y;
+  }
+
+  /**
+   * Appends to the given buffers the samples in [fromIndex, toIndex), reduced so that the range is covered by about {@code resolution}
+   * buckets, e.g. the width in pixels of the component that displays it. Each bucket contributes its minimum and maximum sample in x
+   * order, so at most 2 * resolution samples are appended, plus a few at the ends of the range which are served from finer levels.
+   * Ranges that already fit are copied as is.
+   */
+  public synchronized void copyTo(int fromIndex,
+                                  int toIndex,
+                                  int resolution,
+                                  @NotNull TLongArrayList xOut,
+                                  @NotNull TLongArrayList yOut) {
+    update();
+    toIndex = Math.min(toIndex, mySampleCount);
+    long count = toIndex - fromIndex;
+    int level = 0;
+    long bucketSize = 1;
+    while (count > 2L * resolution && level < myLevels.size() && (count + bucketSize - 1) / bucketSize > resolution) {
+      level++;
+      bucketSize *= FAN_OUT;
+    }
+    copyLevel(level, fromIndex, toIndex, xOut, yOut);
+  }
+
+  /**
+   * Returns the number of levels built above the raw samples.
+   */
+  public synchronized int getLevelCount() {
+    update();
+    return myLevels.size();
+  }
+
+  private void copyLevel(int level, int fromIndex, int toIndex, @NotNull TLongArrayList xOut, @NotNull TLongArrayList yOut) {
+    if (level == 0) {
+      for (int i = fromIndex; i < toIndex; i++) {
+        xOut.add(myX.getQuick(i));
+        yOut.add(myY.getQuick(i));
+      }
+      return;
+    }
+
+    Level buckets = myLevels.get(level - 1);
+    int bucketSize = buckets.myBucketSize;
+    int bucket = (fromIndex + bucketSize - 1) / bucketSize;
+    // Buckets straddling the ends of the range also hold samples outside of it, so the samples up to the first bucket boundary and
+    // from the last one are served from the level below instead.
+    int headEnd = Math.min(toIndex, bucket * bucketSize);
+    if (fromIndex < headEnd) {
+      copyLevel(level - 1, fromIndex, headEnd, xOut, yOut);
+    }
+
+    for (; bucket < buckets.size() && (bucket + 1) * bucketSize <= toIndex; bucket++) {
+      long minX = buckets.myMinX.getQuick(bucket);
+      long minY = buckets.myMinY.getQuick(bucket);
+      long maxX = buckets.myMaxX.getQuick(bucket);
+      long maxY = buckets.myMaxY.getQuick(bucket);
+      if (minX == maxX && minY == maxY) {
+        xOut.add(minX);
+        yOut.add(minY);
+      }
+      else if (minX <= maxX) {
+        xOut.add(minX);
+        yOut.add(minY);
+        xOut.add(maxX);
+        yOut.add(maxY);
+      }
+      else {
+        xOut.add(maxX);
+        yOut.add(maxY);
+        xOut.add(minX);
+        yOut.add(minY);
+      }
+    }
+
+    int next = Math.max(headEnd, bucket * bucketSize);
+    if (next < toIndex) {
+      copyLevel(level - 1, next, toIndex, xOut, yOut);
+    }
+  }
+
+  /**
+   * Folds the samples added since the last call into the pyramid.
+   */
+  private void update() {
+    int size = Math.min(myX.size(), myY.size());
+    if (size < mySampleCount || (mySampleCount > 0 && myX.getQuick(mySampleCount - 1) != myLastX)) {
+      myLevels.clear();
+      mySampleCount = 0;
+    }
+
+    while (mySampleCount < size) {
+      int count = ++mySampleCount;
+      // Completing a bucket may complete its parent bucket, and so on.
+      for (int level = 0; count % FAN_OUT == 0; level++) {
+        if (level == myLevels.size()) {
+          myLevels.add(new Level(level == 0 ? FAN_OUT : myLevels.get(level - 1).myBucketSize * FAN_OUT));
+        }
+        Level buckets = myLevels.get(level);
+        buckets.add(level == 0 ? null : myLevels.get(level - 1));
+        count = buckets.size();
+      }
+    }
+    if (mySampleCount > 0) {
+      myLastX = myX.getQuick(mySampleCount - 1);
+    }
+  }
+
+  private final class Level {
+    private final int myBucketSize;
+    @NotNull private final TLongArrayList myMinX = new TLongArrayList();
+    @NotNull private final TLongArrayList myMinY = new TLongArrayList();
+    @NotNull private final TLongArrayList myMaxX = new TLongArrayList();
+    @NotNull private final TLongArrayList myMaxY = new TLongArrayList();
+
+    private Level(int bucketSize) {
+      myBucketSize = bucketSize;
+    }
+
+    private int size() {
+      return myMinX.size();
+    }
+
+    /**
+     * Appends a bucket grouping the next {@link #FAN_OUT} buckets of the given level, or the next samples if it is null.
+     */
+    private void add(@Nullable Level children) {
+      int first = size() * FAN_OUT;
+      long minX = 0;
+      long minY = Long.MAX_VALUE;
+      long maxX = 0;
+      long maxY = Long.MIN_VALUE;
+      for (int i = first; i < first + FAN_OUT; i++) {
+        long childMinY = children == null ? myY.getQuick(i) : children.myMinY.getQuick(i);
+        long childMaxY = children == null ? childMinY : children.myMaxY.getQuick(i);
+        if (childMinY < minY) {
+          minY = childMinY;
+          minX = children == null ? myX.getQuick(i) : children.myMinX.getQuick(i);
+        }
+        // On ties, keep the first minimum and the last maximum so that flat stretches still span the whole bucket.
+        if (childMaxY >= maxY) {
+          maxY = childMaxY;
+          maxX = children == null ? myX.getQuick(i) : children.myMaxX.getQuick(i);
+        }
+      }
+      myMinX.add(minX);
+      myMinY.add(minY);
+      myMaxX.add(maxX);
+      myMaxY.add(maxY);
+    }
+  }
+}
@@ -16,6 +16,8 @@
 
 package com.android.tools.adtui.model;
 
+import com.intellij.util.containers.ImmutableList;
+import gnu.trove.TLongArrayList;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -36,6 +38,35 @@ public class RangedContinuousSeries extends RangedSeries<Long> {
     mLabel = label;
   }
 
+  /**
+   * Replaces the content of the given buffers with the x values and the values of the data in the current x range. Unlike
+   * {@link #getSeries()}, this does not create an object per sample when the underlying series is a {@link ColumnarDataSeries}, so
+   * callers that query the series on every frame can reuse the same buffers and avoid generating garbage.
+   */
+  public void getSeries(@NotNull TLongArrayList xOut, @NotNull TLongArrayList valuesOut) {
+    getSeries(Integer.MAX_VALUE, xOut, valuesOut);
+  }
+
+  /**
+   * Same as {@link #getSeries(TLongArrayList, TLongArrayList)}, but lets the series reduce its data to about {@code resolution} buckets,
+   * typically the width in pixels of the component displaying it. See {@link ColumnarDataSeries}.
+   */
+  public void getSeries(int resolution, @NotNull TLongArrayList xOut, @NotNull TLongArrayList valuesOut) {
+    xOut.resetQuick();
+    valuesOut.resetQuick();
+    if (mSeries instanceof ColumnarDataSeries) {
+      ((ColumnarDataSeries<Long>)mSeries).getDataForXRange(mXRange, resolution, xOut, valuesOut);
+      return;
+    }
+
+    ImmutableList<SeriesData<Long>> seriesList = getSeries();
+    for (int i = 0; i < seriesList.size(); i++) {
+      SeriesData<Long> data = seriesList.get(i);
+      xOut.add(data.x);
+      valuesOut.add(data.value);
+    }
+  }
+
   @NotNull
   public Range getYRange() {
     return mYRange;
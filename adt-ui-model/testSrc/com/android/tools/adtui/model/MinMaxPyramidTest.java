@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.model;
+
+import gnu.trove.TLongArrayList;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MinMaxPyramidTest {
+
+  @Test
+  public void testSmallRangeIsCopiedAsIs() {
+    TLongArrayList x = new TLongArrayList();
+    TLongArrayList y = new TLongArrayList();
+    MinMaxPyramid pyramid = new MinMaxPyramid(x, y);
+    for (int i = 0; i < 100; i++) {
+      x.add(i);
+      y.add(i * 2);
+    }
+
+    TLongArrayList xOut = new TLongArrayList();
+    TLongArrayList yOut = new TLongArrayList();
+    pyramid.copyTo(10, 30, 10, xOut, yOut);
+    assertEquals(20, xOut.size());
+    for (int i = 0; i < 20; i++) {
+      assertEquals(10 + i, xOut.get(i));
+      assertEquals((10 + i) * 2, yOut.get(i));
+    }
+  }
+
+  @Test
+  public void testLargeRangeKeepsPeaks() {
+    TLongArrayList x = new TLongArrayList();
+    TLongArrayList y = new TLongArrayList();
+    MinMaxPyramid pyramid = new MinMaxPyramid(x, y);
+    for (int i = 0; i < 100000; i++) {
+      x.add(i);
+      y.add(i == 54321 ? 1000 : i == 12345 ? -1000 : i % 10);
+    }
+
+    TLongArrayList xOut = new TLongArrayList();
+    TLongArrayList yOut = new TLongArrayList();
+    pyramid.copyTo(0, x.size(), 100, xOut, yOut);
+    assertTrue(xOut.size() <= 300);
+
+    long min = Long.MAX_VALUE;
+    long max = Long.MIN_VALUE;
+    for (int i = 0; i < xOut.size(); i++) {
+      if (i > 0) {
+        assertTrue(xOut.get(i - 1) < xOut.get(i));
+      }
+      assertEquals(y.get((int)xOut.get(i)), yOut.get(i));
+      min = Math.min(min, yOut.get(i));
+      max = Math.max(max, yOut.get(i));
+    }
+    assertEquals(-1000, min);
+    assertEquals(1000, max);
+  }
+
+  @Test
+  public void testSamplesOutsideOfRangeAreIgnored() {
+    TLongArrayList x = new TLongArrayList();
+    TLongArrayList y = new TLongArrayList();
+    MinMaxPyramid pyramid = new MinMaxPyramid(x, y);
+    for (int i = 0; i < 1000; i++) {
+      x.add(i);
+      y.add(i < 100 || i >= 900 ? 1000 : 0);
+    }
+
+    TLongArrayList xOut = new TLongArrayList();
+    TLongArrayList yOut = new TLongArrayList();
+    pyramid.copyTo(101, 899, 4, xOut, yOut);
+    for (int i = 0; i < xOut.size(); i++) {
+      assertTrue(xOut.get(i) >= 101 && xOut.get(i) < 899);
+      assertEquals(0, yOut.get(i));
+    }
+  }
+
+  @Test
+  public void testSamplesAddedAfterQueryAreIncluded() {
+    TLongArrayList x = new TLongArrayList();
+    TLongArrayList y = new TLongArrayList();
+    MinMaxPyramid pyramid = new MinMaxPyramid(x, y);
+    TLongArrayList xOut = new TLongArrayList();
+    TLongArrayList yOut = new TLongArrayList();
+    for (int i = 0; i < 1000; i++) {
+      x.add(i);
+      y.add(0);
+      xOut.resetQuick();
+      yOut.resetQuick();
+      pyramid.copyTo(0, x.size(), 2, xOut, yOut);
+      assertEquals(i, xOut.get(xOut.size() - 1));
+    }
+
+    x.add(1000);
+    y.add(42);
+    xOut.resetQuick();
+    yOut.resetQuick();
+    pyramid.copyTo(0, x.size(), 2, xOut, yOut);
+    assertEquals(1000, xOut.get(xOut.size() - 1));
+    assertEquals(42, yOut.get(yOut.size() - 1));
+  }
+
+  @Test
+  public void testPyramidIsRebuiltWhenListsAreCleared() {
+    TLongArrayList x = new TLongArrayList();
+    TLongArrayList y = new TLongArrayList();
+    MinMaxPyramid pyramid = new MinMaxPyramid(x, y);
+    for (int i = 0; i < 1000; i++) {
+      x.add(i);
+      y.add(i);
+    }
+    assertEquals(4, pyramid.getLevelCount());
+
+    x.clear();
+    y.clear();
+    for (int i = 0; i < 16; i++) {
+      x.add(i);
+      y.add(7);
+    }
+    assertEquals(2, pyramid.getLevelCount());
+
+    TLongArrayList xOut = new TLongArrayList();
+    TLongArrayList yOut = new TLongArrayList();
+    pyramid.copyTo(0, x.size(), 1, xOut, yOut);
+    assertEquals(2, xOut.size());
+    assertEquals(0, xOut.get(0));
+    assertEquals(15, xOut.get(1));
+    assertEquals(7, yOut.get(0));
+    assertEquals(7, yOut.get(1));
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.model;
+
+import com.intellij.util.containers.ImmutableList;
+import gnu.trove.TLongArrayList;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RangedContinuousSeriesTest {
+
+  @Test
+  public void testColumnarSeriesMatchesSeriesData() {
+    LongDataSeries data = new LongDataSeries();
+    for (int i = 0; i < 10; i++) {
+      data.add(i * 10, (long)i * i);
+    }
+    RangedContinuousSeries series = new RangedContinuousSeries("test", new Range(15, 62), new Range(0, 100), data);
+
+    TLongArrayList x = new TLongArrayList();
+    TLongArrayList y = new TLongArrayList();
+    series.getSeries(x, y);
+    assertSameData(series.getSeries(), x, y);
+    assertEquals(10, x.get(0));
+    assertEquals(60, x.get(x.size() - 1));
+  }
+
+  @Test
+  public void testSeriesDataFallback() {
+    DefaultDataSeries<Long> data = new DefaultDataSeries<>();
+    for (int i = 0; i < 10; i++) {
+      data.add(i * 10, (long)i * i);
+    }
+    RangedContinuousSeries series = new RangedContinuousSeries("test", new Range(0, 90), new Range(0, 100), data);
+
+    TLongArrayList x = new TLongArrayList();
+    TLongArrayList y = new TLongArrayList();
+    series.getSeries(x, y);
+    assertSameData(series.getSeries(), x, y);
+    assertEquals(10, x.size());
+  }
+
+  @Test
+  public void testBuffersAreReplaced() {
+    LongDataSeries data = new LongDataSeries();
+    RangedContinuousSeries series = new RangedContinuousSeries("test", new Range(0, 100), new Range(0, 100), data);
+
+    TLongArrayList x = new TLongArrayList();
+    TLongArrayList y = new TLongArrayList();
+    x.add(1);
+    y.add(2);
+    series.getSeries(x, y);
+    assertEquals(0, x.size());
+    assertEquals(0, y.size());
+
+    data.add(5, 50L);
+    series.getSeries(x, y);
+    series.getSeries(x, y);
+    assertEquals(1, x.size());
+    assertEquals(5, x.get(0));
+    assertEquals(50, y.get(0));
+  }
+
+  private static void assertSameData(ImmutableList<SeriesData<Long>> expected, TLongArrayList x, TLongArrayList y) {
+    assertEquals(expected.size(), x.size());
+    assertEquals(expected.size(), y.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).x, x.get(i));
+      assertEquals(expected.get(i).value.longValue(), y.get(i));
+    }
+  }
+}
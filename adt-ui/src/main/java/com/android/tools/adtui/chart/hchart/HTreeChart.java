@@ -96,6 +96,10 @@ public class HTreeChart<T> extends AnimatedComponent implements MouseWheelListen
     stack.addAll(mRoot.getChildren());
     while (!stack.isEmpty()) {
       HNode<T> n = stack.pop();
+      // 1. Cull node to view Range. Children are within the range of their parent, so they are culled too and are not visited.
+      if (n.getStart() > getXRange().getMax() || n.getEnd() < getXRange().getMin()) {
+        continue;
+      }
       renderHNode(g, n);
       stack.addAll(n.getChildren());
     }
@@ -104,11 +108,6 @@ public class HTreeChart<T> extends AnimatedComponent implements MouseWheelListen
   // This method is not thread-safe: It re-uses mRect.
   private void renderHNode(Graphics2D g, HNode<T> n) {
 
-    // 1. Cull node to view Range.
-    if (n.getStart() > getXRange().getMax() || n.getEnd() < getXRange().getMin()) {
-      return;
-    }
-
     // 2. Clip node.
     double leftEdge = rangeToPosition(n.getStart());
     if (leftEdge < 0) {
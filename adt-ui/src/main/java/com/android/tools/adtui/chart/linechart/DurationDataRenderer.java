@@ -19,6 +19,7 @@ import com.android.tools.adtui.Animatable;
 import com.android.tools.adtui.common.AdtUiUtils;
 import com.android.tools.adtui.model.*;
 import com.intellij.util.containers.ImmutableList;
+import gnu.trove.TLongArrayList;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -66,6 +67,8 @@ public final class DurationDataRenderer<E extends DurationData> implements Anima
   @NotNull private final List<Rectangle2D.Float> myPathCache = new ArrayList<>();
   @NotNull private final List<E> myDataCache = new ArrayList<>();
   @NotNull private final List<JLabel> myLabelCache = new ArrayList<>();
+  @NotNull private final TLongArrayList myAttachedXBuffer = new TLongArrayList();
+  @NotNull private final TLongArrayList myAttachedYBuffer = new TLongArrayList();
 
   /**
    * Cached rectangles calculated during updataData used for detecting if a DurationData label has been clicked on.
@@ -110,7 +113,9 @@ public final class DurationDataRenderer<E extends DurationData> implements Anima
     double xMax = mySeries.getXRange().getMax();
     double xLength = mySeries.getXRange().getLength();
     ImmutableList<SeriesData<E>> seriesList = mySeries.getSeries();
-    ImmutableList<SeriesData<Long>> attachedSeriesList = myAttachedLineSeries != null ? myAttachedLineSeries.getSeries() : null;
+    if (myAttachedLineSeries != null) {
+      myAttachedLineSeries.getSeries(myAttachedXBuffer, myAttachedYBuffer);
+    }
     int j = 0;
     float attachY = 1;
     for (int i = 0; i < seriesList.size(); i++) {
@@ -127,18 +132,17 @@ public final class DurationDataRenderer<E extends DurationData> implements Anima
       myClickRegionCache.add(clickRegion);
       // If the DurationData series is attached to a line series, finds the Y value on the line series closest to the current DurationData.
       // This will be used as the y position to draw the icon +/ label.
-      if (attachedSeriesList != null) {
+      if (myAttachedLineSeries != null) {
         double yMin = myAttachedLineSeries.getYRange().getMin();
         double yMax = myAttachedLineSeries.getYRange().getMax();
-        for (; j < attachedSeriesList.size(); j++) {
-          SeriesData<Long> seriesData = attachedSeriesList.get(j);
-          double attachXStart = (seriesData.x - xMin) / (xMax - xMin);
+        for (; j < myAttachedXBuffer.size(); j++) {
+          double attachXStart = (myAttachedXBuffer.getQuick(j) - xMin) / (xMax - xMin);
           if (attachXStart > xStart) {
             // find the data point on the attach series greater than the duration data's start point
             // use the last found y value.
             break;
           }
-          attachY = (float)(1 - (seriesData.value - yMin) / (yMax - yMin));
+          attachY = (float)(1 - (myAttachedYBuffer.getQuick(j) - yMin) / (yMax - yMin));
         }
       }
 
@@ -24,9 +24,8 @@ import com.android.tools.adtui.common.datareducer.DataReducer;
 import com.android.tools.adtui.common.formatter.BaseAxisFormatter;
 import com.android.tools.adtui.model.Range;
 import com.android.tools.adtui.model.RangedContinuousSeries;
-import com.android.tools.adtui.model.SeriesData;
-import com.intellij.util.containers.ImmutableList;
 import gnu.trove.TDoubleArrayList;
+import gnu.trove.TLongArrayList;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.TestOnly;
 
@@ -56,6 +55,22 @@ public class LineChart extends AnimatedComponent {
   @NotNull
   private final List<LineChartCustomRenderer> myCustomRenderers = new ArrayList<>();
 
+  /**
+   * Buffers the series data is copied into on every frame. They are reused across series and frames so that walking the data does not
+   * generate garbage.
+   */
+  @NotNull
+  private final TLongArrayList myXBuffer = new TLongArrayList();
+
+  @NotNull
+  private final TLongArrayList myYBuffer = new TLongArrayList();
+
+  /**
+   * Y coordinates of the last two series in {@link #postAnimate()}, used to stack a series on top of the previous stacked one.
+   */
+  @NotNull
+  private final TDoubleArrayList[] myStackedYBuffers = {new TDoubleArrayList(), new TDoubleArrayList()};
+
   /**
    * The color of the next line to be inserted, if not specified, is picked from {@code COLORS}
    * array of {@link LineConfig}. This field holds the color index.
@@ -153,9 +168,9 @@ public class LineChart extends AnimatedComponent {
       Range range = ranged.getYRange();
       double yMax = Double.MIN_VALUE;
 
-      ImmutableList<SeriesData<Long>> seriesList = ranged.getSeries();
-      for (int i = 0; i < seriesList.size(); i++) {
-        double value = seriesList.get(i).value;
+      ranged.getSeries(getSeriesResolution(), myXBuffer, myYBuffer);
+      for (int i = 0; i < myYBuffer.size(); i++) {
+        double value = myYBuffer.getQuick(i);
         if (yMax < value) {
           yMax = value;
         }
@@ -178,6 +193,15 @@ public class LineChart extends AnimatedComponent {
     myFirstUpdate = false;
   }
 
+  /**
+   * Returns the number of buckets the series are reduced to before being turned into paths. Each bucket contributes at most its minimum
+   * and maximum sample, so using the width of the component keeps the paths at about two points per pixel however many samples are in
+   * view, without losing the peaks.
+   */
+  private int getSeriesResolution() {
+    return Math.max(1, getWidth());
+  }
+
   /**
    * Creates a {@link LegendRenderData} instance. The configruation will be derived based on the {@link LineConfig} associated
    * with the input series used in this {@link LineChart} instance. If the series is not part of the LineChart, defaults will be chosen.
@@ -228,7 +252,8 @@ public class LineChart extends AnimatedComponent {
       final RangedContinuousSeries ranged = lineConfig.getKey();
       final LineConfig config = lineConfig.getValue();
       // Stores the y coordinates of the current series in case it's used as a stacked series
-      final TDoubleArrayList currentSeriesY = new TDoubleArrayList();
+      final TDoubleArrayList currentSeriesY = lastStackedSeriesY == myStackedYBuffers[0] ? myStackedYBuffers[1] : myStackedYBuffers[0];
+      currentSeriesY.resetQuick();
 
       Path2D path = new Path2D.Float();
 
@@ -240,12 +265,12 @@ public class LineChart extends AnimatedComponent {
       // X coordinate of the first point
       double firstXd = 0f;
 
-      List<SeriesData<Long>> seriesList = ranged.getSeries();
-      for (int i = 0; i < seriesList.size(); i++) {
+      // Stacked series are added up sample by sample, which requires them to be read at full resolution.
+      ranged.getSeries(config.isStacked() ? Integer.MAX_VALUE : getSeriesResolution(), myXBuffer, myYBuffer);
+      for (int i = 0; i < myXBuffer.size(); i++) {
         // TODO: refactor to allow different types (e.g. double)
-        SeriesData<Long> seriesData = seriesList.get(i);
-        long currX = seriesData.x;
-        long currY = seriesData.value;
+        long currX = myXBuffer.getQuick(i);
+        long currY = myYBuffer.getQuick(i);
         double xd = (currX - xMin) / (xMax - xMin);
         double yd = (currY - yMin) / (yMax - yMin);
 
@@ -70,17 +70,20 @@ public class ApkEditor extends UserDataHolderBase implements FileEditor, ApkView
   }
 
   /**
-   * Changes the editor displayed based on the path selected in the tree.
+   * Changes the editor displayed based on the paths selected in the tree.
    */
   @Override
-  public void selectionChanged(@Nullable ApkEntry entry) {
+  public void selectionChanged(@NotNull ApkEntry[] entries) {
     if (myCurrentEditor != null) {
       Disposer.dispose(myCurrentEditor);
     }
 
-    VirtualFile file = entry == null ? null : entry.getFile();
+    VirtualFile[] files = new VirtualFile[entries.length];
+    for (int i = 0; i < entries.length; i++) {
+      files[i] = entries[i].getFile();
+    }
 
-    myCurrentEditor = getEditor(file);
+    myCurrentEditor = getEditor(files);
     mySplitter.setSecondComponent(myCurrentEditor.getComponent());
   }
 
@@ -179,6 +182,21 @@ public class ApkEditor extends UserDataHolderBase implements FileEditor, ApkView
     }
   }
 
+  @NotNull
+  private ApkFileEditorComponent getEditor(@NotNull VirtualFile[] files) {
+    if (files.length > 1) {
+      // several dex files (e.g. all the dex files of a multi-dex APK) are shown together
+      for (VirtualFile file : files) {
+        if (!SdkConstants.EXT_DEX.equals(file.getExtension())) {
+          return new EmptyPanel();
+        }
+      }
+      return new DexFileViewer(files);
+    }
+
+    return getEditor(files.length == 1 ? files[0] : null);
+  }
+
   @NotNull
   private ApkFileEditorComponent getEditor(@Nullable VirtualFile file) {
     if (file == null) {
@@ -38,7 +38,9 @@ import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.zip.*;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 public class ApkParser {
   private static final ListeningExecutorService ourExecutorService = MoreExecutors.listeningDecorator(PooledThreadExecutor.INSTANCE);
@@ -74,13 +76,18 @@ public class ApkParser {
   public synchronized ListenableFuture<DefaultMutableTreeNode> constructTreeStructureWithCompressedSizes() {
     if (myTreeStructureWithCompressedSizes == null) {
       myTreeStructureWithCompressedSizes = ourExecutorService.submit(() -> {
-        // first obtain the compressed apk
-        File compressedApk = getZipCompressedApk(myApk);
+        // first estimate the compressed size of each file in the apk
+        Map<String, Long> compressedSizes;
+        try {
+          compressedSizes = CompressedSizeEstimator.getInstance().getCompressedSizes(myApk);
+        }
+        catch (IOException e) {
+          Logger.getInstance(ApkParser.class).warn(e);
+          compressedSizes = Collections.emptyMap();
+        }
 
         // then update the existing tree structure with info about size of each file in the apk when it is compressed
-        try (ZipFile zip = new ZipFile(compressedApk)) {
-          return updateTreeStructure(constructTreeStructure().get(), zip);
-        }
+        return updateTreeStructure(constructTreeStructure().get(), compressedSizes);
       });
     }
 
@@ -158,9 +165,12 @@ public class ApkParser {
 
   /**
    * Updates and returns the given tree structure with info about the compressed size of each node.
+   *
+   * @param compressedSizes the compressed size of each file, by path relative to the root of the apk
    */
   @NotNull
-  private static DefaultMutableTreeNode updateTreeStructure(@NotNull DefaultMutableTreeNode treeNode, @NotNull ZipFile compressedApk) {
+  private static DefaultMutableTreeNode updateTreeStructure(@NotNull DefaultMutableTreeNode treeNode,
+                                                            @NotNull Map<String, Long> compressedSizes) {
     long compressedSize = 0;
 
     ApkEntry entry = ApkEntry.fromNode(treeNode);
@@ -168,18 +178,18 @@ public class ApkParser {
 
     if (treeNode.getChildCount() > 0) {
       for (int i = 0; i < treeNode.getChildCount(); i++) {
-        DefaultMutableTreeNode childNode = updateTreeStructure((DefaultMutableTreeNode)treeNode.getChildAt(i), compressedApk);
+        DefaultMutableTreeNode childNode = updateTreeStructure((DefaultMutableTreeNode)treeNode.getChildAt(i), compressedSizes);
         compressedSize += ((ApkEntry)childNode.getUserObject()).getCompressedSize();
       }
     }
     else {
-      ZipEntry ze = compressedApk.getEntry(ApkFileSystem.getInstance().getRelativePath(entry.getFile()));
-      if (ze == null) {
+      Long size = compressedSizes.get(ApkFileSystem.getInstance().getRelativePath(entry.getFile()));
+      if (size == null) {
         // happens if such a relative path is not present inside the apk (e.g. zip files such as instant-run.zip are unzipped to a tempfile)
         compressedSize = -1;
       }
       else {
-        compressedSize = ze.getCompressedSize();
+        compressedSize = size;
       }
     }
 
@@ -259,60 +269,10 @@ public class ApkParser {
     return compressedFile;
   }
 
-  /**
-   * Provides a zip archive that is compressed at level 9, but still maintains archive information. This implies that it will be slightly
-   * larger than compressing using gzip (which only compresses a single file, not an archive). But having compression information per file
-   * is sometimes useful to get an approximate idea of how well each file compresses.
-   *
-   * @return the input file compressed using "zip -9" and saved in a temporary location.
-   */
-  static File getZipCompressedApk(@NotNull File apk) {
-    File compressedFile;
-    try {
-      compressedFile =
-        FileUtil.createTempFile(FileUtil.getNameWithoutExtension(apk), SdkConstants.DOT_ANDROID_PACKAGE, true);
-    }
-    catch (IOException e) {
-      return apk;
-    }
-
-    // copy entire contents of one zip file to another, where the destination zip is written to with the maximum compression level
-    try (
-      ZipInputStream zis = new ZipInputStream(new FileInputStream(apk));
-      ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(compressedFile))) {
-
-      ZipEntry ze;
-      while ((ze = zis.getNextEntry()) != null) {
-        ZipEntry compressedZe = new ZipEntry(ze.getName());
-        compressedZe.setMethod(ZipEntry.DEFLATED);
-        compressedZe.setTime(ze.getTime());
-        zos.putNextEntry(compressedZe);
-
-        byte[] buf = new byte[4096];
-        int n;
-        while ((n = zis.read(buf)) > 0) {
-          zos.write(buf, 0, n);
-        }
-      }
-    }
-    catch (IOException e) {
-      return apk;
-    }
-
-    return compressedFile;
-  }
-
   private static final class MaxGzipOutputStream extends GZIPOutputStream {
     public MaxGzipOutputStream(OutputStream out) throws IOException {
       super(out);
       def.setLevel(Deflater.BEST_COMPRESSION); // Currently, Google Play serves an APK that is compressed using gzip -9
     }
   }
-
-  private static final class MaxZipOutputStream extends ZipOutputStream {
-    public MaxZipOutputStream(OutputStream out) throws IOException {
-      super(out);
-      def.setLevel(Deflater.BEST_COMPRESSION);
-    }
-  }
 }
@@ -40,7 +40,9 @@ import javax.swing.event.TreeSelectionEvent;
 import javax.swing.event.TreeSelectionListener;
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeModel;
+import javax.swing.tree.TreePath;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
 import java.util.List;
 
 public class ApkViewPanel implements TreeSelectionListener {
@@ -58,7 +60,10 @@ public class ApkViewPanel implements TreeSelectionListener {
   private Listener myListener;
 
   public interface Listener {
-    void selectionChanged(@Nullable ApkEntry entry);
+    /**
+     * Called when the selected entries change. Several entries are selected at once e.g. to view all the dex files of an APK.
+     */
+    void selectionChanged(@NotNull ApkEntry[] entries);
 
     void selectApkAndCompare();
   }
@@ -241,9 +246,18 @@ public class ApkViewPanel implements TreeSelectionListener {
 
   @Override
   public void valueChanged(TreeSelectionEvent e) {
-    ApkEntry selectedEntry = ApkEntry.fromNode(e.getPath().getLastPathComponent());
+    TreePath[] paths = myTree.getSelectionPaths();
+    List<ApkEntry> selectedEntries = new ArrayList<>();
+    if (paths != null) {
+      for (TreePath path : paths) {
+        ApkEntry entry = ApkEntry.fromNode(path.getLastPathComponent());
+        if (entry != null) {
+          selectedEntries.add(entry);
+        }
+      }
+    }
     if (myListener != null) {
-      myListener.selectionChanged(selectedEntry);
+      myListener.selectionChanged(selectedEntries.toArray(new ApkEntry[selectedEntries.size()]));
     }
   }
 
@@ -0,0 +1,433 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.apk.viewer;
+
+import com.android.annotations.VisibleForTesting;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.ide.PooledThreadExecutor;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.*;
+
+import static com.google.common.base.Charsets.UTF_8;
+
+/**
+ * Estimates the size of each file of an APK when compressed at the maximum compression level, which gives an idea of how well each
+ * file compresses for download.
+ * <p>
+ * The APK is memory mapped and its entries are inflated and deflated again in parallel, only counting the compressed bytes. The
+ * results are cached on disk, keyed by a hash of the central directory of the APK (which holds the name, size and CRC of every
+ * entry), so opening the same APK again does not compress it again.
+ */
+final class CompressedSizeEstimator {
+  private static final Logger LOG = Logger.getInstance(CompressedSizeEstimator.class);
+
+  /** Increase when the estimation changes so old cached sizes are not reused */
+  private static final int CACHE_VERSION = 1;
+  /** Maximum number of APKs whose sizes are kept in the cache directory */
+  private static final int MAX_CACHED_APKS = 100;
+  private static final String TEMP_EXTENSION = ".tmp";
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+  private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+
+  private static CompressedSizeEstimator ourInstance;
+
+  @Nullable private final File myCacheDir;
+  @NotNull private final Executor myExecutor;
+  private final int myParallelism;
+
+  @VisibleForTesting
+  CompressedSizeEstimator(@Nullable File cacheDir, @NotNull Executor executor, int parallelism) {
+    myCacheDir = cacheDir;
+    myExecutor = executor;
+    myParallelism = parallelism;
+  }
+
+  @NotNull
+  static synchronized CompressedSizeEstimator getInstance() {
+    if (ourInstance == null) {
+      ourInstance = new CompressedSizeEstimator(new File(PathManager.getSystemPath(), "apk-analyzer-compressed-sizes"),
+                                                PooledThreadExecutor.INSTANCE, Runtime.getRuntime().availableProcessors());
+    }
+    return ourInstance;
+  }
+
+  /**
+   * Returns the compressed size of each file of the given APK, by path relative to the root of the APK
+   */
+  @NotNull
+  Map<String, Long> getCompressedSizes(@NotNull File apk) throws IOException {
+    try (FileChannel channel = FileChannel.open(apk.toPath(), StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        return computeSequentially(apk);
+      }
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+      List<Entry> entries = new ArrayList<>();
+      String key = readCentralDirectory(buffer, entries);
+      if (key == null) {
+        // Not a zip file we know how to read directly (e.g. a zip64 archive)
+        return computeSequentially(apk);
+      }
+
+      Map<String, Long> sizes = readCache(key);
+      if (sizes == null) {
+        sizes = computeInParallel(buffer, entries);
+        writeCache(key, sizes);
+      }
+      return sizes;
+    }
+  }
+
+  /**
+   * Reads the entries of the central directory of a zip file
+   *
+   * @return a hash of the central directory, or null if the zip file is not supported
+   */
+  @Nullable
+  private static String readCentralDirectory(@NotNull MappedByteBuffer buffer, @NotNull List<Entry> entries) throws IOException {
+    int end = findEndOfCentralDirectory(buffer);
+    if (end < 0) {
+      throw new ZipException("Not a zip file");
+    }
+    int count = buffer.getShort(end + 10) & 0xffff;
+    long size = buffer.getInt(end + 12) & 0xffffffffL;
+    long offset = buffer.getInt(end + 16) & 0xffffffffL;
+    if (count == 0xffff || offset == 0xffffffffL || offset + size > end) {
+      return null;
+    }
+
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    hasher.putInt(CACHE_VERSION);
+    hasher.putLong(buffer.capacity());
+    int position = (int)offset;
+    for (int i = 0; i < count; i++) {
+      if (position + CENTRAL_DIRECTORY_HEADER_SIZE > end || buffer.getInt(position) != CENTRAL_DIRECTORY_SIGNATURE) {
+        throw new ZipException("Invalid central directory");
+      }
+      int method = buffer.getShort(position + 10) & 0xffff;
+      long compressedSize = buffer.getInt(position + 20) & 0xffffffffL;
+      int nameLength = buffer.getShort(position + 28) & 0xffff;
+      int extraLength = buffer.getShort(position + 30) & 0xffff;
+      int commentLength = buffer.getShort(position + 32) & 0xffff;
+      long localHeaderOffset = buffer.getInt(position + 42) & 0xffffffffL;
+      if (compressedSize == 0xffffffffL || localHeaderOffset == 0xffffffffL) {
+        return null;
+      }
+
+      byte[] name = new byte[nameLength];
+      ((ByteBuffer)buffer.duplicate().position(position + CENTRAL_DIRECTORY_HEADER_SIZE)).get(name);
+      String path = new String(name, UTF_8);
+      if (!path.endsWith("/")) {
+        entries.add(new Entry(path, method, localHeaderOffset, compressedSize));
+      }
+
+      int length = CENTRAL_DIRECTORY_HEADER_SIZE + nameLength + extraLength + commentLength;
+      for (int j = 0; j < length; j++) {
+        hasher.putByte(buffer.get(position + j));
+      }
+      position += length;
+    }
+    return hasher.hash().toString();
+  }
+
+  private static int findEndOfCentralDirectory(@NotNull MappedByteBuffer buffer) {
+    // The end of central directory record is followed by a comment of at most 64K
+    int min = Math.max(0, buffer.capacity() - END_OF_CENTRAL_DIRECTORY_SIZE - 0xffff);
+    for (int position = buffer.capacity() - END_OF_CENTRAL_DIRECTORY_SIZE; position >= min; position--) {
+      if (buffer.getInt(position) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+        return position;
+      }
+    }
+    return -1;
+  }
+
+  @NotNull
+  private Map<String, Long> computeInParallel(@NotNull MappedByteBuffer buffer, @NotNull List<Entry> entries) throws IOException {
+    // Compress the largest entries first so the work is evenly spread between the threads
+    List<Entry> sorted = new ArrayList<>(entries);
+    sorted.sort((e1, e2) -> Long.compare(e2.myCompressedSize, e1.myCompressedSize));
+
+    AtomicInteger next = new AtomicInteger();
+    CompletableFuture<?>[] tasks = new CompletableFuture<?>[Math.max(1, Math.min(myParallelism, sorted.size()))];
+    for (int i = 0; i < tasks.length; i++) {
+      tasks[i] = CompletableFuture.runAsync(() -> {
+        EntryCompressor compressor = new EntryCompressor();
+        try {
+          for (int index = next.getAndIncrement(); index < sorted.size(); index = next.getAndIncrement()) {
+            Entry entry = sorted.get(index);
+            entry.myEstimatedSize = compressor.compress(buffer, entry);
+          }
+        }
+        catch (IOException e) {
+          throw new CompletionException(e);
+        }
+        finally {
+          compressor.dispose();
+        }
+      }, myExecutor);
+    }
+
+    try {
+      CompletableFuture.allOf(tasks).join();
+    }
+    catch (CompletionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException)e.getCause();
+      }
+      throw e;
+    }
+
+    Map<String, Long> sizes = new HashMap<>();
+    for (Entry entry : entries) {
+      if (entry.myEstimatedSize >= 0) {
+        sizes.put(entry.myPath, entry.myEstimatedSize);
+      }
+    }
+    return sizes;
+  }
+
+  /**
+   * Computes the sizes by reading the APK as a stream, for archives that can not be mapped or read directly
+   */
+  @NotNull
+  private static Map<String, Long> computeSequentially(@NotNull File apk) throws IOException {
+    Map<String, Long> sizes = new HashMap<>();
+    EntryCompressor compressor = new EntryCompressor();
+    try (ZipInputStream zis = new ZipInputStream(new BufferedInputStream(new FileInputStream(apk)))) {
+      ZipEntry ze;
+      while ((ze = zis.getNextEntry()) != null) {
+        if (!ze.isDirectory()) {
+          sizes.put(ze.getName(), compressor.compress(zis));
+        }
+      }
+    }
+    finally {
+      compressor.dispose();
+    }
+    return sizes;
+  }
+
+  @Nullable
+  private Map<String, Long> readCache(@NotNull String key) {
+    if (myCacheDir == null) {
+      return null;
+    }
+    File file = new File(myCacheDir, key);
+    if (!file.isFile()) {
+      return null;
+    }
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      int count = in.readInt();
+      Map<String, Long> sizes = new HashMap<>(count * 2);
+      for (int i = 0; i < count; i++) {
+        sizes.put(in.readUTF(), in.readLong());
+      }
+      // Keep the most recently used entries when the cache is trimmed
+      //noinspection ResultOfMethodCallIgnored
+      file.setLastModified(System.currentTimeMillis());
+      return sizes;
+    }
+    catch (IOException e) {
+      LOG.debug(e);
+      // The entry is corrupted
+      //noinspection ResultOfMethodCallIgnored
+      file.delete();
+      return null;
+    }
+  }
+
+  private void writeCache(@NotNull String key, @NotNull Map<String, Long> sizes) {
+    if (myCacheDir == null || (!myCacheDir.isDirectory() && !myCacheDir.mkdirs())) {
+      return;
+    }
+
+    File tempFile = new File(myCacheDir, key + TEMP_EXTENSION);
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+        out.writeInt(sizes.size());
+        for (Map.Entry<String, Long> entry : sizes.entrySet()) {
+          out.writeUTF(entry.getKey());
+          out.writeLong(entry.getValue());
+        }
+      }
+      Files.move(tempFile.toPath(), new File(myCacheDir, key).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    catch (IOException e) {
+      LOG.warn("Unable to cache the compressed sizes of an APK", e);
+      //noinspection ResultOfMethodCallIgnored
+      tempFile.delete();
+      return;
+    }
+
+    trimCache();
+  }
+
+  private void trimCache() {
+    File[] files = myCacheDir != null ? myCacheDir.listFiles() : null;
+    if (files == null || files.length <= MAX_CACHED_APKS) {
+      return;
+    }
+    Arrays.sort(files, (f1, f2) -> Long.compare(f2.lastModified(), f1.lastModified()));
+    for (int i = MAX_CACHED_APKS; i < files.length; i++) {
+      //noinspection ResultOfMethodCallIgnored
+      files[i].delete();
+    }
+  }
+
+  private static final class Entry {
+    @NotNull final String myPath;
+    final int myMethod;
+    final long myLocalHeaderOffset;
+    final long myCompressedSize;
+    long myEstimatedSize = -1;
+
+    Entry(@NotNull String path, int method, long localHeaderOffset, long compressedSize) {
+      myPath = path;
+      myMethod = method;
+      myLocalHeaderOffset = localHeaderOffset;
+      myCompressedSize = compressedSize;
+    }
+  }
+
+  /**
+   * Compresses entries at the maximum level, only counting the compressed bytes. Each thread uses its own instance.
+   */
+  private static final class EntryCompressor {
+    private final Inflater myInflater = new Inflater(true);
+    // The same raw deflate format as the data of a zip entry
+    private final Deflater myDeflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+    private final byte[] myInput = new byte[BUFFER_SIZE];
+    private final byte[] myInflated = new byte[BUFFER_SIZE];
+    private final byte[] myOutput = new byte[BUFFER_SIZE];
+
+    /**
+     * Returns the compressed size of the given entry of a memory mapped zip file, or -1 if its compression method is not supported
+     */
+    long compress(@NotNull MappedByteBuffer zip, @NotNull Entry entry) throws IOException {
+      if (entry.myMethod != ZipEntry.STORED && entry.myMethod != ZipEntry.DEFLATED) {
+        return -1;
+      }
+      int header = (int)entry.myLocalHeaderOffset;
+      if (header + LOCAL_HEADER_SIZE > zip.capacity() || zip.getInt(header) != LOCAL_HEADER_SIGNATURE) {
+        throw new ZipException("Invalid local header for " + entry.myPath);
+      }
+      long start = header + LOCAL_HEADER_SIZE + (zip.getShort(header + 26) & 0xffff) + (zip.getShort(header + 28) & 0xffff);
+      if (start + entry.myCompressedSize > zip.capacity()) {
+        throw new ZipException("Truncated data for " + entry.myPath);
+      }
+
+      ByteBuffer data = zip.duplicate();
+      data.position((int)start);
+      data.limit((int)(start + entry.myCompressedSize));
+
+      myDeflater.reset();
+      long size = 0;
+      if (entry.myMethod == ZipEntry.STORED) {
+        while (data.hasRemaining()) {
+          int n = Math.min(data.remaining(), myInput.length);
+          data.get(myInput, 0, n);
+          size += deflate(myInput, n);
+        }
+      }
+      else {
+        myInflater.reset();
+        try {
+          while (!myInflater.finished()) {
+            if (myInflater.needsInput()) {
+              if (!data.hasRemaining()) {
+                throw new ZipException("Truncated data for " + entry.myPath);
+              }
+              int n = Math.min(data.remaining(), myInput.length);
+              data.get(myInput, 0, n);
+              myInflater.setInput(myInput, 0, n);
+            }
+            int n = myInflater.inflate(myInflated);
+            if (n == 0 && myInflater.needsDictionary()) {
+              throw new ZipException("Invalid data for " + entry.myPath);
+            }
+            size += deflate(myInflated, n);
+          }
+        }
+        catch (DataFormatException e) {
+          throw new ZipException("Invalid data for " + entry.myPath + ": " + e.getMessage());
+        }
+      }
+      return size + finish();
+    }
+
+    /**
+     * Returns the compressed size of the rest of the given stream
+     */
+    long compress(@NotNull InputStream in) throws IOException {
+      myDeflater.reset();
+      long size = 0;
+      int n;
+      while ((n = in.read(myInput)) > 0) {
+        size += deflate(myInput, n);
+      }
+      return size + finish();
+    }
+
+    private long deflate(@NotNull byte[] input, int length) {
+      long size = 0;
+      myDeflater.setInput(input, 0, length);
+      while (!myDeflater.needsInput()) {
+        size += myDeflater.deflate(myOutput);
+      }
+      return size;
+    }
+
+    private long finish() {
+      long size = 0;
+      myDeflater.finish();
+      while (!myDeflater.finished()) {
+        size += myDeflater.deflate(myOutput);
+      }
+      return size;
+    }
+
+    void dispose() {
+      myInflater.end();
+      myDeflater.end();
+    }
+  }
+}
@@ -44,6 +44,13 @@ public class DexFileViewer implements ApkFileEditorComponent {
   private final Tree myTree;
 
   public DexFileViewer(@NotNull VirtualFile dexFile) {
+    this(new VirtualFile[]{dexFile});
+  }
+
+  /**
+   * Shows the method references of all the given dex files together
+   */
+  public DexFileViewer(@NotNull VirtualFile[] dexFiles) {
     //noinspection Convert2Lambda // we need a new instance of this disposable every time, not just a lambda method
     myDisposable = new Disposable() {
       @Override
@@ -89,7 +96,7 @@ public class DexFileViewer implements ApkFileEditorComponent {
     JComponent columnTree = builder.build();
     myLoadingPanel.add(columnTree, BorderLayout.CENTER);
 
-    DexParser dexParser = new DexParser(MoreExecutors.listeningDecorator(PooledThreadExecutor.INSTANCE), dexFile);
+    DexParser dexParser = new DexParser(MoreExecutors.listeningDecorator(PooledThreadExecutor.INSTANCE), dexFiles);
     ListenableFuture<PackageTreeNode> future = dexParser.constructMethodRefCountTree();
     Futures.addCallback(future, new FutureCallback<PackageTreeNode>() {
       @Override
@@ -109,7 +116,7 @@ public class DexFileViewer implements ApkFileEditorComponent {
       @Override
       public void onSuccess(DexParser.DexFileStats result) {
         titleComponent.setIcon(AllIcons.General.Information);
-        titleComponent.append("This dex file defines ");
+        titleComponent.append(dexFiles.length == 1 ? "This dex file defines " : "These " + dexFiles.length + " dex files define ");
         titleComponent.append(Integer.toString(result.classCount), SimpleTextAttributes.REGULAR_BOLD_ATTRIBUTES);
         titleComponent.append(" classes with ");
         titleComponent.append(Integer.toString(result.definedMethodCount), SimpleTextAttributes.REGULAR_BOLD_ATTRIBUTES);
@@ -15,9 +15,9 @@
  */
 package com.android.tools.idea.apk.viewer.dex;
 
-import com.google.common.collect.ArrayListMultimap;
+import com.google.common.base.Function;
 import com.google.common.collect.Iterables;
-import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.intellij.debugger.impl.DebuggerUtilsEx;
@@ -26,87 +26,162 @@ import org.jetbrains.annotations.NotNull;
 import org.jf.dexlib2.Opcodes;
 import org.jf.dexlib2.dexbacked.DexBackedClassDef;
 import org.jf.dexlib2.dexbacked.DexBackedDexFile;
-import org.jf.dexlib2.dexbacked.reference.DexBackedMethodReference;
-import org.jf.dexlib2.iface.reference.MethodReference;
 
 import java.io.IOException;
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Future;
-import java.util.stream.Collectors;
 
+/**
+ * Parses one or more dex files, e.g. all the dex files of a multi-dex APK. Each dex file is read, parsed and counted concurrently.
+ */
 public class DexParser {
   private final ListeningExecutorService myExecutor;
-  private final Future<DexBackedDexFile> myDexFileFuture;
+  private final List<ListenableFuture<DexBackedDexFile>> myDexFileFutures = new ArrayList<>();
 
   public DexParser(@NotNull ListeningExecutorService executorService, @NotNull VirtualFile file) {
+    this(executorService, new VirtualFile[]{file});
+  }
+
+  public DexParser(@NotNull ListeningExecutorService executorService, @NotNull VirtualFile[] files) {
     myExecutor = executorService;
-    myDexFileFuture = myExecutor.submit(() -> getDexFile(file));
+    for (VirtualFile file : files) {
+      myDexFileFutures.add(myExecutor.submit(() -> getDexFile(file)));
+    }
   }
 
   public ListenableFuture<PackageTreeNode> constructMethodRefCountTree() {
-    return myExecutor.submit(this::constructMethodRefTree);
+    // count the references of each dex file as soon as it is parsed, then merge the counts
+    List<Future<MethodRefTrie>> tries = new ArrayList<>();
+    for (ListenableFuture<DexBackedDexFile> dexFileFuture : myDexFileFutures) {
+      tries.add(Futures.transform(dexFileFuture, (Function<DexBackedDexFile, MethodRefTrie>)DexParser::countMethodRefs, myExecutor));
+    }
+    return myExecutor.submit(() -> constructMethodRefTree(tries));
   }
 
   public ListenableFuture<DexFileStats> getDexFileStats() {
-    return myExecutor.submit(this::getDexStats);
+    List<Future<DexFileStats>> stats = new ArrayList<>();
+    for (ListenableFuture<DexBackedDexFile> dexFileFuture : myDexFileFutures) {
+      stats.add(Futures.transform(dexFileFuture, (Function<DexBackedDexFile, DexFileStats>)DexParser::getDexStats, myExecutor));
+    }
+    return myExecutor.submit(() -> getDexStats(stats));
   }
 
   @NotNull
-  private PackageTreeNode constructMethodRefTree() {
-    DexBackedDexFile dexFile;
+  private static PackageTreeNode constructMethodRefTree(@NotNull List<Future<MethodRefTrie>> tries) {
+    MethodRefTrie merged = null;
     try {
-      dexFile = myDexFileFuture.get();
+      for (Future<MethodRefTrie> future : tries) {
+        MethodRefTrie trie = future.get();
+        if (merged == null) {
+          merged = trie;
+        }
+        else {
+          merged.addAll(trie);
+        }
+      }
     }
     catch (Exception e) {
       return new PackageTreeNode("Unknown", e.toString(), PackageTreeNode.NodeType.PACKAGE, null);
     }
 
-    return constructMethodRefTreeForDex(dexFile);
+    return merged != null ? merged.toTree() : new MethodRefTrie().toTree();
   }
 
   @NotNull
   static PackageTreeNode constructMethodRefTreeForDex(@NotNull DexBackedDexFile dexFile) {
-    PackageTreeNode root = new PackageTreeNode("", "root", PackageTreeNode.NodeType.PACKAGE, null);
-
-    Set<String> classesWithDefinition = dexFile.getClasses()
-      .stream()
-      .map(DexBackedClassDef::getType)
-      .collect(Collectors.toSet());
-
-    Multimap<String, MethodReference> methodsByClassName = getMethodsByClassName(dexFile);
-    for (String className : methodsByClassName.keySet()) {
-      Collection<MethodReference> methods = methodsByClassName.get(className);
-      for (MethodReference ref : methods) {
-        root.insert("", DebuggerUtilsEx.signatureToName(className), ref, classesWithDefinition.contains(className));
+    return countMethodRefs(dexFile).toTree();
+  }
+
+  /**
+   * Counts the method references of a dex file, reading the method, proto and type ids directly from the dex buffer
+   */
+  @NotNull
+  static MethodRefTrie countMethodRefs(@NotNull DexBackedDexFile dexFile) {
+    boolean[] typesWithDefinition = new boolean[dexFile.getTypeCount()];
+    for (int i = 0, n = dexFile.getClassCount(); i < n; i++) {
+      // class_def_item.class_idx
+      typesWithDefinition[dexFile.readSmallUint(dexFile.getClassDefItemOffset(i))] = true;
+    }
+
+    String[] typeNames = new String[dexFile.getTypeCount()];
+    String[] returnTypes = new String[dexFile.getProtoCount()];
+    String[] parameterLists = new String[dexFile.getProtoCount()];
+
+    MethodRefTrie trie = new MethodRefTrie();
+    for (int i = 0, m = dexFile.getMethodCount(); i < m; i++) {
+      // method_id_item: class_idx (ushort), proto_idx (ushort), name_idx (uint)
+      int methodOffset = dexFile.getMethodIdItemOffset(i);
+      int classIndex = dexFile.readUshort(methodOffset);
+      int protoIndex = dexFile.readUshort(methodOffset + 2);
+      String name = dexFile.getString(dexFile.readSmallUint(methodOffset + 4));
+
+      if (returnTypes[protoIndex] == null) {
+        formatProto(dexFile, protoIndex, typeNames, returnTypes, parameterLists);
       }
+      String method = returnTypes[protoIndex] + ' ' + name + '(' + parameterLists[protoIndex] + ')';
+      trie.add(getTypeName(dexFile, classIndex, typeNames), method, typesWithDefinition[classIndex] ? 1 : 0);
     }
+    return trie;
+  }
 
-    root.sortByCount();
-    return root;
+  private static void formatProto(@NotNull DexBackedDexFile dexFile,
+                                  int protoIndex,
+                                  @NotNull String[] typeNames,
+                                  @NotNull String[] returnTypes,
+                                  @NotNull String[] parameterLists) {
+    // proto_id_item: shorty_idx (uint), return_type_idx (uint), parameters_off (uint)
+    int protoOffset = dexFile.getProtoIdItemOffset(protoIndex);
+    returnTypes[protoIndex] = getTypeName(dexFile, dexFile.readSmallUint(protoOffset + 4), typeNames);
+
+    StringBuilder sb = new StringBuilder();
+    int parametersOffset = dexFile.readSmallUint(protoOffset + 8);
+    if (parametersOffset != 0) {
+      // type_list: size (uint), followed by the type indices (ushort)
+      int size = dexFile.readSmallUint(parametersOffset);
+      for (int i = 0; i < size; i++) {
+        if (i > 0) {
+          sb.append(", ");
+        }
+        sb.append(getTypeName(dexFile, dexFile.readUshort(parametersOffset + 4 + 2 * i), typeNames));
+      }
+    }
+    parameterLists[protoIndex] = sb.toString();
   }
 
   @NotNull
-  private static Multimap<String, MethodReference> getMethodsByClassName(@NotNull DexBackedDexFile dexFile) {
-    Multimap<String, MethodReference> methodsByClass = ArrayListMultimap.create();
-    for (int i = 0, m = dexFile.getMethodCount(); i < m; i++) {
-      MethodReference methodRef = new DexBackedMethodReference(dexFile, i);
-      methodsByClass.put(methodRef.getDefiningClass(), methodRef);
+  private static String getTypeName(@NotNull DexBackedDexFile dexFile, int typeIndex, @NotNull String[] typeNames) {
+    String name = typeNames[typeIndex];
+    if (name == null) {
+      name = DebuggerUtilsEx.signatureToName(dexFile.getType(typeIndex));
+      typeNames[typeIndex] = name;
     }
-
-    return methodsByClass;
+    return name;
   }
 
   @NotNull
-  private DexFileStats getDexStats() {
-    DexBackedDexFile dexFile;
+  private static DexFileStats getDexStats(@NotNull List<Future<DexFileStats>> stats) {
+    int classCount = 0;
+    int definedMethodCount = 0;
+    int referencedMethodCount = 0;
     try {
-      dexFile = myDexFileFuture.get();
+      for (Future<DexFileStats> future : stats) {
+        DexFileStats dexStats = future.get();
+        classCount += dexStats.classCount;
+        definedMethodCount += dexStats.definedMethodCount;
+        referencedMethodCount += dexStats.referencedMethodCount;
+      }
     }
     catch (Exception e) {
       return new DexFileStats(-1, -1, -1);
     }
 
+    return new DexFileStats(classCount, definedMethodCount, referencedMethodCount);
+  }
+
+  @NotNull
+  private static DexFileStats getDexStats(@NotNull DexBackedDexFile dexFile) {
     int definedMethodCount = 0;
     Set<? extends DexBackedClassDef> classes = dexFile.getClasses();
     for (DexBackedClassDef dexBackedClassDef : classes) {
@@ -123,7 +198,7 @@ public class DexParser {
   }
 
   @NotNull
-  static DexBackedDexFile getDexFile(@NotNull byte[] contents) {
+  public static DexBackedDexFile getDexFile(@NotNull byte[] contents) {
     return new DexBackedDexFile(new Opcodes(15), contents);
   }
 
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.apk.viewer.dex;
+
+import gnu.trove.TLongIntHashMap;
+import gnu.trove.TObjectIntHashMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Counts method references by package, class and method, without keeping an object per reference.
+ * <p>
+ * Nodes are stored in primitive columns indexed by node id, and their names are interned. A trie is filled by a single thread,
+ * but the tries of several dex files can be built concurrently and then merged with {@link #addAll(MethodRefTrie)}. The trie is
+ * only converted to {@link PackageTreeNode}s for display.
+ */
+final class MethodRefTrie {
+  private static final int ROOT = 0;
+  private static final PackageTreeNode.NodeType[] NODE_TYPES = PackageTreeNode.NodeType.values();
+
+  private int myNodeCount;
+  private int[] myParents = new int[256];
+  private int[] myNameIds = new int[256];
+  private byte[] myTypes = new byte[256];
+  private int[] myRefCounts = new int[256];
+  private int[] myDefinedCounts = new int[256];
+
+  /** Children by parent node id and name id, see {@link #childKey(int, int)} */
+  private final TLongIntHashMap myChildren = new TLongIntHashMap();
+  private final TObjectIntHashMap<String> myNameIdsByName = new TObjectIntHashMap<>();
+  private final List<String> myNames = new ArrayList<>();
+
+  MethodRefTrie() {
+    addNode(-1, intern("root"), PackageTreeNode.NodeType.PACKAGE);
+  }
+
+  /**
+   * Adds a reference to a method
+   *
+   * @param qualifiedClassName the name of the class defining the method, with packages separated by dots
+   * @param method             the formatted signature of the method
+   * @param definedMethods     1 if the class is defined in the dex file, 0 otherwise
+   */
+  void add(@NotNull String qualifiedClassName, @NotNull String method, int definedMethods) {
+    int node = ROOT;
+    increment(node, 1, definedMethods);
+
+    int start = 0;
+    for (int end = qualifiedClassName.indexOf('.'); end >= 0; start = end + 1, end = qualifiedClassName.indexOf('.', start)) {
+      node = getOrCreateChild(node, qualifiedClassName.substring(start, end), PackageTreeNode.NodeType.PACKAGE);
+      increment(node, 1, definedMethods);
+    }
+    node = getOrCreateChild(node, qualifiedClassName.substring(start), PackageTreeNode.NodeType.CLASS);
+    increment(node, 1, definedMethods);
+
+    node = getOrCreateChild(node, method, PackageTreeNode.NodeType.METHOD);
+    increment(node, 1, definedMethods);
+  }
+
+  /**
+   * Adds the counts of another trie to this one. Nodes with the same path are merged.
+   */
+  void addAll(@NotNull MethodRefTrie other) {
+    int[] nodeMap = new int[other.myNodeCount];
+    nodeMap[ROOT] = ROOT;
+    increment(ROOT, other.myRefCounts[ROOT], other.myDefinedCounts[ROOT]);
+    // Parents always have a lower id than their children
+    for (int otherNode = 1; otherNode < other.myNodeCount; otherNode++) {
+      int node = getOrCreateChild(nodeMap[other.myParents[otherNode]], other.myNames.get(other.myNameIds[otherNode]),
+                                  NODE_TYPES[other.myTypes[otherNode]]);
+      increment(node, other.myRefCounts[otherNode], other.myDefinedCounts[otherNode]);
+      nodeMap[otherNode] = node;
+    }
+  }
+
+  /**
+   * Creates the tree displayed for this trie, sorted by reference count
+   */
+  @NotNull
+  PackageTreeNode toTree() {
+    PackageTreeNode[] nodes = new PackageTreeNode[myNodeCount];
+    nodes[ROOT] = new PackageTreeNode("", "root", PackageTreeNode.NodeType.PACKAGE, null);
+    nodes[ROOT].setCounts(myRefCounts[ROOT], myDefinedCounts[ROOT]);
+    for (int node = 1; node < myNodeCount; node++) {
+      PackageTreeNode parent = nodes[myParents[node]];
+      String parentName = myParents[node] == ROOT ? "" : parent.getQualifiedName();
+      nodes[node] = new PackageTreeNode(parentName, myNames.get(myNameIds[node]), NODE_TYPES[myTypes[node]], parent);
+      nodes[node].setCounts(myRefCounts[node], myDefinedCounts[node]);
+      parent.addChild(nodes[node]);
+    }
+    nodes[ROOT].sortByCount();
+    return nodes[ROOT];
+  }
+
+  private int getOrCreateChild(int parent, @NotNull String name, @NotNull PackageTreeNode.NodeType type) {
+    int nameId = intern(name);
+    long key = childKey(parent, nameId);
+    // Node ids start at 1 for children, so 0 means there is no such child
+    int child = myChildren.get(key);
+    if (child == 0) {
+      child = addNode(parent, nameId, type);
+      myChildren.put(key, child);
+    }
+    return child;
+  }
+
+  private static long childKey(int parent, int nameId) {
+    return ((long)parent << 32) | (nameId & 0xffffffffL);
+  }
+
+  private int addNode(int parent, int nameId, @NotNull PackageTreeNode.NodeType type) {
+    if (myNodeCount == myParents.length) {
+      int capacity = myNodeCount * 2;
+      myParents = Arrays.copyOf(myParents, capacity);
+      myNameIds = Arrays.copyOf(myNameIds, capacity);
+      myTypes = Arrays.copyOf(myTypes, capacity);
+      myRefCounts = Arrays.copyOf(myRefCounts, capacity);
+      myDefinedCounts = Arrays.copyOf(myDefinedCounts, capacity);
+    }
+    int node = myNodeCount++;
+    myParents[node] = parent;
+    myNameIds[node] = nameId;
+    myTypes[node] = (byte)type.ordinal();
+    return node;
+  }
+
+  private void increment(int node, int refCount, int definedCount) {
+    myRefCounts[node] += refCount;
+    myDefinedCounts[node] += definedCount;
+  }
+
+  private int intern(@NotNull String name) {
+    int id = myNameIdsByName.get(name);
+    // TObjectIntHashMap returns 0 for missing keys, so ids are stored off by one
+    if (id == 0) {
+      myNames.add(name);
+      id = myNames.size();
+      myNameIdsByName.put(name, id);
+    }
+    return id - 1;
+  }
+}
@@ -15,17 +15,14 @@
  */
 package com.android.tools.idea.apk.viewer.dex;
 
-import com.intellij.debugger.impl.DebuggerUtilsEx;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
-import org.jf.dexlib2.iface.reference.MethodReference;
 
 import javax.swing.tree.TreeNode;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
-import java.util.stream.Collectors;
 
 public class PackageTreeNode implements TreeNode {
   public enum NodeType { PACKAGE, CLASS, METHOD };
@@ -55,86 +52,17 @@ public class PackageTreeNode implements TreeNode {
     Collections.sort(myNodes, (o1, o2) -> o2.getMethodRefCount() - o1.getMethodRefCount());
   }
 
-  public void insert(@NotNull String parentPackage, @NotNull String qcn, @NotNull MethodReference ref, boolean hasClassDefinition) {
-    int i = qcn.indexOf(".");
-    if (i < 0) {
-      insertClass(parentPackage, qcn, ref, hasClassDefinition);
-    }
-    else {
-      String segment = qcn.substring(0, i);
-      String nextSegment = qcn.substring(i + 1);
-      PackageTreeNode node = getOrCreateChild(parentPackage, segment, NodeType.PACKAGE);
-      node.insert(combine(parentPackage, segment), nextSegment, ref, hasClassDefinition);
-      myMethodReferencesCount++;
-      if (hasClassDefinition) {
-        myDefinedMethodsCount++;
-      }
-    }
-  }
-
-  private static String combine(@NotNull String parentPackage, @NotNull String childName) {
-    return parentPackage.isEmpty() ? childName : parentPackage + "." + childName;
-  }
-
-  private void insertClass(@NotNull String parentPackage,
-                           @NotNull String className,
-                           @NotNull MethodReference ref,
-                           boolean hasClassDefinition) {
-    myMethodReferencesCount++;
-    if (hasClassDefinition) {
-      myDefinedMethodsCount++;
-    }
-
-    PackageTreeNode classNode = getOrCreateChild(parentPackage, className, NodeType.CLASS);
-    classNode.insertMethod(ref, hasClassDefinition);
-  }
-
-  private void insertMethod(@NotNull MethodReference ref, boolean hasClassDefinition) {
-    myMethodReferencesCount++;
-    if (hasClassDefinition) {
-      myDefinedMethodsCount++;
-    }
-
-    PackageTreeNode methodNode = new PackageTreeNode(ref.getDefiningClass(), formatMethod(ref), NodeType.METHOD, this);
-    methodNode.myMethodReferencesCount++;
-    if (hasClassDefinition) {
-      methodNode.myDefinedMethodsCount++;
-    }
-    myNodes.add(methodNode);
-  }
-
-  private PackageTreeNode getOrCreateChild(String parentPackage, @NotNull String name, @NotNull NodeType type) {
-    for (PackageTreeNode node : myNodes) {
-      if (name.equals(node.getName())) {
-        return node;
-      }
-    }
-
-    PackageTreeNode node = new PackageTreeNode(parentPackage, name, type, this);
+  void addChild(@NotNull PackageTreeNode node) {
     myNodes.add(node);
-
-    return node;
   }
 
-  @NotNull
-  private static String formatMethod(@NotNull MethodReference ref) {
-    StringBuilder sb = new StringBuilder();
-
-    sb.append(DebuggerUtilsEx.signatureToName(ref.getReturnType()));
-    sb.append(' ');
-
-    sb.append(ref.getName());
-
-    String paramList = ref.getParameterTypes()
-      .stream()
-      .map(typeDesc -> DebuggerUtilsEx.signatureToName(typeDesc.toString()))
-      .collect(Collectors.joining(", "));
-
-    sb.append('(');
-    sb.append(paramList);
-    sb.append(')');
+  void setCounts(int methodReferencesCount, int definedMethodsCount) {
+    myMethodReferencesCount = methodReferencesCount;
+    myDefinedMethodsCount = definedMethodsCount;
+  }
 
-    return sb.toString();
+  private static String combine(@NotNull String parentPackage, @NotNull String childName) {
+    return parentPackage.isEmpty() ? childName : parentPackage + "." + childName;
   }
 
   @NotNull
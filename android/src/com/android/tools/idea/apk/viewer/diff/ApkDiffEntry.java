@@ -21,18 +21,32 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 public final class ApkDiffEntry implements ApkEntry {
+  public enum Status {
+    ADDED,
+    REMOVED,
+    MODIFIED,
+    UNCHANGED
+  }
+
   private String myName;
   @Nullable private final VirtualFile myOldFile;
   @Nullable private final VirtualFile myNewFile;
   private final long myOldSize;
   private final long myNewSize;
+  @NotNull private final Status myStatus;
 
-  ApkDiffEntry(@NotNull String name, @Nullable VirtualFile oldFile, @Nullable VirtualFile newFile, long oldSize, long newSize) {
+  ApkDiffEntry(@NotNull String name,
+               @Nullable VirtualFile oldFile,
+               @Nullable VirtualFile newFile,
+               long oldSize,
+               long newSize,
+               @NotNull Status status) {
     this.myName = name;
     this.myOldFile = oldFile;
     this.myNewFile = newFile;
     this.myOldSize = oldSize;
     this.myNewSize = newSize;
+    this.myStatus = status;
   }
 
   @Override
@@ -87,6 +101,21 @@ public final class ApkDiffEntry implements ApkEntry {
     return myNewSize;
   }
 
+  @Nullable
+  public VirtualFile getOldFile() {
+    return myOldFile;
+  }
+
+  @Nullable
+  public VirtualFile getNewFile() {
+    return myNewFile;
+  }
+
+  @NotNull
+  public Status getStatus() {
+    return myStatus;
+  }
+
   public static long getOldSize(ApkEntry apkEntry) {
     if (apkEntry instanceof ApkDiffEntry) {
       return ((ApkDiffEntry)apkEntry).getOldSize();
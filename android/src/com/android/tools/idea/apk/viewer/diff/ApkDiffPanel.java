@@ -15,32 +15,46 @@
  */
 package com.android.tools.idea.apk.viewer.diff;
 
+import com.android.SdkConstants;
 import com.android.tools.adtui.common.ColumnTreeBuilder;
 import com.android.tools.idea.apk.viewer.ApkEntry;
+import com.android.tools.idea.apk.viewer.ApkFileSystem;
 import com.android.tools.idea.apk.viewer.ApkViewPanel.FutureCallBackAdapter;
 import com.android.tools.idea.apk.viewer.ApkViewPanel.NameRenderer;
 import com.android.tools.idea.apk.viewer.ApkViewPanel.SizeRenderer;
+import com.android.tools.idea.apk.viewer.diff.ApkDiffEntry.Status;
+import com.android.tools.idea.apk.viewer.diff.DexDiff.ClassDiff;
 import com.android.tools.idea.ddms.EdtExecutor;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.ui.ColoredTreeCellRenderer;
 import com.intellij.ui.LoadingNode;
+import com.intellij.ui.SimpleTextAttributes;
 import com.intellij.ui.TreeSpeedSearch;
 import com.intellij.ui.treeStructure.Tree;
 import com.intellij.util.containers.Convertor;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.TreePath;
+import java.util.List;
 
 public class ApkDiffPanel {
+  /** Maximum number of modified classes whose method changes are listed in the tooltip of a dex file */
+  private static final int MAX_TOOLTIP_CLASSES = 20;
+
   private JPanel myContainer;
   private JScrollPane myColumnTreePane;
 
   private Tree myTree;
   private DefaultTreeModel myTreeModel;
 
+  @NotNull private DexDiff myDexDiff = DexDiff.EMPTY;
+
   public ApkDiffPanel(ApkDiffParser apkDiffParser) {
     // construct the main tree
     ListenableFuture<DefaultMutableTreeNode> treeStructureFuture = apkDiffParser.constructTreeStructure();
@@ -51,6 +65,16 @@ public class ApkDiffPanel {
       }
     };
     Futures.addCallback(treeStructureFuture, setRootNode, EdtExecutor.INSTANCE);
+
+    // the class level diff of the dex files takes longer, show it once it's available
+    FutureCallBackAdapter<DexDiff> setDexDiff = new FutureCallBackAdapter<DexDiff>() {
+      @Override
+      public void onSuccess(DexDiff result) {
+        myDexDiff = result;
+        myTree.repaint();
+      }
+    };
+    Futures.addCallback(apkDiffParser.constructDexDiff(), setDexDiff, EdtExecutor.INSTANCE);
   }
 
   private void createUIComponents() {
@@ -94,7 +118,12 @@ public class ApkDiffPanel {
                    .setName("Diff Size")
                    .setPreferredWidth(150)
                    .setHeaderAlignment(SwingConstants.TRAILING)
-                   .setRenderer(new SizeRenderer(ApkEntry::getSize)));
+                   .setRenderer(new SizeRenderer(ApkEntry::getSize)))
+      .addColumn(new ColumnTreeBuilder.ColumnBuilder()
+                   .setName("Change")
+                   .setPreferredWidth(250)
+                   .setHeaderAlignment(SwingConstants.LEADING)
+                   .setRenderer(new StatusRenderer()));
     myColumnTreePane = (JScrollPane)builder.build();
   }
 
@@ -119,4 +148,95 @@ public class ApkDiffPanel {
     myTree.setModel(myTreeModel);
   }
 
+  private class StatusRenderer extends ColoredTreeCellRenderer {
+    @Override
+    public void customizeCellRenderer(@NotNull JTree tree,
+                                      Object value,
+                                      boolean selected,
+                                      boolean expanded,
+                                      boolean leaf,
+                                      int row,
+                                      boolean hasFocus) {
+      setToolTipText(null);
+      ApkEntry entry = ApkEntry.fromNode(value);
+      if (!(entry instanceof ApkDiffEntry)) {
+        return;
+      }
+
+      Status status = ((ApkDiffEntry)entry).getStatus();
+      SimpleTextAttributes attributes =
+        status == Status.UNCHANGED ? SimpleTextAttributes.GRAY_ATTRIBUTES : SimpleTextAttributes.REGULAR_ATTRIBUTES;
+      append(StringUtil.toLowerCase(status.name()), attributes);
+
+      if (status != Status.UNCHANGED && entry.getName().endsWith(SdkConstants.DOT_DEX)) {
+        List<ClassDiff> classes = myDexDiff.getClasses(ApkFileSystem.getInstance().getRelativePath(entry.getFile()));
+        if (!classes.isEmpty()) {
+          append(" (" + getClassSummary(classes) + ")", SimpleTextAttributes.GRAY_ATTRIBUTES);
+          setToolTipText(getModifiedClassesToolTip(classes));
+        }
+      }
+    }
+
+    @NotNull
+    private String getClassSummary(@NotNull List<ClassDiff> classes) {
+      int added = 0;
+      int removed = 0;
+      int modified = 0;
+      int addedMethods = 0;
+      int removedMethods = 0;
+      int modifiedMethods = 0;
+      for (ClassDiff classDiff : classes) {
+        switch (classDiff.getStatus()) {
+          case ADDED:
+            added++;
+            break;
+          case REMOVED:
+            removed++;
+            break;
+          default:
+            modified++;
+            addedMethods += classDiff.getAddedMethods().size();
+            removedMethods += classDiff.getRemovedMethods().size();
+            modifiedMethods += classDiff.getModifiedMethods().size();
+            break;
+        }
+      }
+      String summary = String.format("classes: %1$d added, %2$d removed, %3$d modified", added, removed, modified);
+      if (modified > 0) {
+        summary += String.format("; methods of modified classes: %1$d added, %2$d removed, %3$d modified", addedMethods, removedMethods,
+                                 modifiedMethods);
+      }
+      return summary;
+    }
+
+    /**
+     * Lists the method changes of the first modified classes
+     */
+    @Nullable
+    private String getModifiedClassesToolTip(@NotNull List<ClassDiff> classes) {
+      StringBuilder sb = new StringBuilder("<html>");
+      int count = 0;
+      for (ClassDiff classDiff : classes) {
+        if (classDiff.getStatus() != Status.MODIFIED) {
+          continue;
+        }
+        if (count++ == MAX_TOOLTIP_CLASSES) {
+          sb.append("...");
+          break;
+        }
+        sb.append("<b>").append(StringUtil.escapeXml(classDiff.getName())).append("</b><br>");
+        appendMethods(sb, "+", classDiff.getAddedMethods());
+        appendMethods(sb, "-", classDiff.getRemovedMethods());
+        appendMethods(sb, "*", classDiff.getModifiedMethods());
+      }
+      return count == 0 ? null : sb.append("</html>").toString();
+    }
+
+    private void appendMethods(@NotNull StringBuilder sb, @NotNull String prefix, @NotNull List<String> methods) {
+      for (String method : methods) {
+        sb.append("&nbsp;&nbsp;").append(prefix).append(' ').append(StringUtil.escapeXml(method)).append("<br>");
+      }
+    }
+  }
+
 }
@@ -19,10 +19,13 @@ import com.android.SdkConstants;
 import com.android.annotations.VisibleForTesting;
 import com.android.tools.idea.apk.viewer.ApkFileSystem;
 import com.android.tools.idea.apk.viewer.ApkParser;
+import com.android.tools.idea.apk.viewer.diff.ApkDiffEntry.Status;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.containers.HashSet;
 import org.jetbrains.annotations.NotNull;
@@ -30,14 +33,25 @@ import org.jetbrains.annotations.Nullable;
 import org.jetbrains.ide.PooledThreadExecutor;
 
 import javax.swing.tree.DefaultMutableTreeNode;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.zip.CRC32;
 
+/**
+ * Compares two APKs. The entries are first classified from the central directories of both APKs (see {@link CentralDirectoryDiff}),
+ * so that only the entries that actually changed need to be read.
+ */
 public class ApkDiffParser {
   private static final ListeningExecutorService ourExecutorService = MoreExecutors.listeningDecorator(PooledThreadExecutor.INSTANCE);
 
   private final VirtualFile myApkRootOld;
   private final VirtualFile myApkRootNew;
 
+  private ListenableFuture<Map<String, Status>> myEntryStatuses;
   private ListenableFuture<DefaultMutableTreeNode> myTreeStructure;
+  private ListenableFuture<DexDiff> myDexDiff;
 
   public ApkDiffParser(@NotNull VirtualFile apkRootOld, @NotNull VirtualFile apkRootNew) {
     if (!apkRootOld.getFileSystem().equals(ApkFileSystem.getInstance())) {
@@ -55,15 +69,89 @@ public class ApkDiffParser {
   @NotNull
   public synchronized ListenableFuture<DefaultMutableTreeNode> constructTreeStructure() {
     if (myTreeStructure == null) {
-      myTreeStructure = ourExecutorService.submit(() -> createTreeNode(myApkRootOld, myApkRootNew));
+      myTreeStructure = ourExecutorService.submit(() -> createTreeNode(myApkRootOld, myApkRootNew, getEntryStatuses()));
     }
 
     return myTreeStructure;
   }
 
+  /**
+   * Returns the classes that differ between the dex files of both APKs
+   */
+  @NotNull
+  public synchronized ListenableFuture<DexDiff> constructDexDiff() {
+    if (myDexDiff == null) {
+      myDexDiff = ourExecutorService.submit(() -> {
+        Map<String, Status> statuses = getEntryStatuses();
+        if (statuses == null) {
+          return DexDiff.EMPTY;
+        }
+        return new DexDiffer(ourExecutorService).diff(getLocalFile(myApkRootOld), getLocalFile(myApkRootNew), statuses);
+      });
+    }
+
+    return myDexDiff;
+  }
+
+  /**
+   * Returns the status of each entry of the APKs, or null if the central directories could not be read
+   */
+  @Nullable
+  private Map<String, Status> getEntryStatuses() throws Exception {
+    synchronized (this) {
+      if (myEntryStatuses == null) {
+        myEntryStatuses = ourExecutorService.submit(() -> readEntryStatuses(myApkRootOld, myApkRootNew));
+      }
+    }
+    return myEntryStatuses.get();
+  }
+
+  /**
+   * Compares the central directories of two archives of the {@link ApkFileSystem}, which are either APKs or zip files extracted from
+   * APKs, see {@link ApkFileSystem#extractAndGetContentRoot}
+   *
+   * @return the status of each entry by its path, or null if the central directories could not be read
+   */
+  @Nullable
+  private static Map<String, Status> readEntryStatuses(@NotNull VirtualFile oldRoot, @NotNull VirtualFile newRoot) {
+    try {
+      return CentralDirectoryDiff.compare(getLocalFile(oldRoot), getLocalFile(newRoot));
+    }
+    catch (IOException e) {
+      Logger.getInstance(ApkDiffParser.class).warn("Unable to read the central directories, comparing entry contents instead", e);
+      return null;
+    }
+  }
+
+  @NotNull
+  private static File getLocalFile(@NotNull VirtualFile apkRoot) throws IOException {
+    VirtualFile localFile = ApkFileSystem.getInstance().getLocalByEntry(apkRoot);
+    if (localFile == null) {
+      throw new IOException("No local file for " + apkRoot.getPath());
+    }
+    return VfsUtilCore.virtualToIoFile(localFile);
+  }
+
+  /**
+   * Creates the tree of the entries of two APKs, classifying the entries from their central directories
+   */
   @VisibleForTesting
   @NotNull
   static DefaultMutableTreeNode createTreeNode(@Nullable VirtualFile oldFile, @Nullable VirtualFile newFile) {
+    Map<String, Status> entryStatuses = oldFile != null && newFile != null ? readEntryStatuses(oldFile, newFile) : null;
+    return createTreeNode(oldFile, newFile, entryStatuses);
+  }
+
+  /**
+   * Creates the tree of the entries of both files
+   *
+   * @param entryStatuses the status of the entries by path, or null to compare the contents of the files instead
+   */
+  @VisibleForTesting
+  @NotNull
+  static DefaultMutableTreeNode createTreeNode(@Nullable VirtualFile oldFile,
+                                               @Nullable VirtualFile newFile,
+                                               @Nullable Map<String, Status> entryStatuses) {
     if(oldFile == null && newFile == null) {
       throw new IllegalArgumentException("Both old and new files are null");
     }
@@ -75,25 +163,38 @@ public class ApkDiffParser {
 
     HashSet<String> childrenInOldFile = new HashSet<>();
     final String name = oldFile == null ? newFile.getName() : oldFile.getName();
-    if (oldFile != null) {
-      if (StringUtil.equals(oldFile.getExtension(), SdkConstants.EXT_ZIP)) {
-        VirtualFile zipRoot = ApkFileSystem.getInstance().extractAndGetContentRoot(oldFile);
-        if (zipRoot != null) {
-          oldFile = zipRoot;
-        }
+    final String path = ApkFileSystem.getInstance().getRelativePath(oldFile == null ? newFile : oldFile);
+    Status status = entryStatuses == null ? null : entryStatuses.get(path);
+    Map<String, Status> childStatuses = entryStatuses;
+    boolean isOldZip = oldFile != null && StringUtil.equals(oldFile.getExtension(), SdkConstants.EXT_ZIP);
+    boolean isNewZip = newFile != null && StringUtil.equals(newFile.getExtension(), SdkConstants.EXT_ZIP);
+    if (isOldZip || isNewZip) {
+      // the central directories of the APKs do not cover the contents of nested zip files, but their own central directories do
+      VirtualFile oldZipRoot = isOldZip ? ApkFileSystem.getInstance().extractAndGetContentRoot(oldFile) : null;
+      VirtualFile newZipRoot = isNewZip ? ApkFileSystem.getInstance().extractAndGetContentRoot(newFile) : null;
+      childStatuses = oldZipRoot != null && newZipRoot != null ? readEntryStatuses(oldZipRoot, newZipRoot) : null;
+      if (oldZipRoot != null) {
+        oldFile = oldZipRoot;
+      }
+      if (newZipRoot != null) {
+        newFile = newZipRoot;
       }
+    }
 
+    boolean childModified = false;
+    if (oldFile != null) {
       if (oldFile.isDirectory()) {
         //noinspection UnsafeVfsRecursion (no symlinks inside an APK)
         for (VirtualFile oldChild : oldFile.getChildren()) {
           VirtualFile newChild = newFile == null ? null : newFile.findChild(oldChild.getName());
           childrenInOldFile.add(oldChild.getName());
-          DefaultMutableTreeNode childNode = createTreeNode(oldChild, newChild);
+          DefaultMutableTreeNode childNode = createTreeNode(oldChild, newChild, childStatuses);
           node.add(childNode);
 
           ApkDiffEntry entry = (ApkDiffEntry)childNode.getUserObject();
           oldSize += entry.getOldSize();
           newSize += entry.getNewSize();
+          childModified |= entry.getStatus() != Status.UNCHANGED;
         }
 
         if (oldFile.getLength() > 0) {
@@ -106,13 +207,6 @@ public class ApkDiffParser {
       }
     }
     if (newFile != null) {
-      if (StringUtil.equals(newFile.getExtension(), SdkConstants.EXT_ZIP)) {
-        VirtualFile zipRoot = ApkFileSystem.getInstance().extractAndGetContentRoot(newFile);
-        if (zipRoot != null) {
-          newFile = zipRoot;
-        }
-      }
-
       if (newFile.isDirectory()) {
         //noinspection UnsafeVfsRecursion (no symlinks inside an APK)
         for (VirtualFile newChild : newFile.getChildren()) {
@@ -120,12 +214,13 @@ public class ApkDiffParser {
             continue;
           }
 
-          DefaultMutableTreeNode childNode = createTreeNode(null, newChild);
+          DefaultMutableTreeNode childNode = createTreeNode(null, newChild, childStatuses);
           node.add(childNode);
 
           ApkDiffEntry entry = (ApkDiffEntry)childNode.getUserObject();
           oldSize += entry.getOldSize();
           newSize += entry.getNewSize();
+          childModified = true;
         }
 
         if (newFile.getLength() > 0) {
@@ -138,11 +233,55 @@ public class ApkDiffParser {
       }
     }
 
-    node.setUserObject(new ApkDiffEntry(name, oldFile, newFile, oldSize, newSize));
+    if (oldFile == null) {
+      status = Status.ADDED;
+    }
+    else if (newFile == null) {
+      status = Status.REMOVED;
+    }
+    else if (childModified) {
+      status = Status.MODIFIED;
+    }
+    else if (status == null) {
+      status = hasSameContents(oldFile, newFile) ? Status.UNCHANGED : Status.MODIFIED;
+    }
+    node.setUserObject(new ApkDiffEntry(name, oldFile, newFile, oldSize, newSize, status));
 
     ApkParser.sort(node);
 
     return node;
   }
 
+  /**
+   * Compares two entries whose archives could not be compared with {@link CentralDirectoryDiff}, by their sizes and the CRC32 of
+   * their contents, which are streamed rather than both held in memory
+   */
+  private static boolean hasSameContents(@NotNull VirtualFile oldFile, @NotNull VirtualFile newFile) {
+    if (oldFile.isDirectory() || newFile.isDirectory()) {
+      // the children of directories are compared separately
+      return oldFile.isDirectory() == newFile.isDirectory();
+    }
+    if (oldFile.getLength() != newFile.getLength()) {
+      return false;
+    }
+    try {
+      return computeCrc(oldFile) == computeCrc(newFile);
+    }
+    catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static long computeCrc(@NotNull VirtualFile file) throws IOException {
+    CRC32 crc = new CRC32();
+    byte[] buffer = new byte[8192];
+    try (InputStream in = file.getInputStream()) {
+      int count;
+      while ((count = in.read(buffer)) > 0) {
+        crc.update(buffer, 0, count);
+      }
+    }
+    return crc.getValue();
+  }
+
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.apk.viewer.diff;
+
+import com.android.tools.idea.apk.viewer.diff.ApkDiffEntry.Status;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Compares the entries of two APKs using only their central directories.
+ * <p>
+ * The central directory records the CRC32 and the uncompressed size of every entry, so entries are classified without reading or
+ * inflating any of their contents. Entries with the same CRC and size are considered unchanged.
+ */
+final class CentralDirectoryDiff {
+  private CentralDirectoryDiff() {
+  }
+
+  /**
+   * Returns the status of each file entry by its path within the APK. Directory entries are not included.
+   */
+  @NotNull
+  static Map<String, Status> compare(@NotNull File oldApk, @NotNull File newApk) throws IOException {
+    Map<String, ZipEntry> oldEntries = readEntries(oldApk);
+    Map<String, ZipEntry> newEntries = readEntries(newApk);
+
+    Map<String, Status> statuses = new HashMap<>(oldEntries.size() + newEntries.size());
+    for (Map.Entry<String, ZipEntry> oldEntry : oldEntries.entrySet()) {
+      ZipEntry newEntry = newEntries.get(oldEntry.getKey());
+      Status status;
+      if (newEntry == null) {
+        status = Status.REMOVED;
+      }
+      else {
+        status = hasSameContents(oldEntry.getValue(), newEntry) ? Status.UNCHANGED : Status.MODIFIED;
+      }
+      statuses.put(oldEntry.getKey(), status);
+    }
+    for (String path : newEntries.keySet()) {
+      if (!oldEntries.containsKey(path)) {
+        statuses.put(path, Status.ADDED);
+      }
+    }
+    return statuses;
+  }
+
+  @NotNull
+  private static Map<String, ZipEntry> readEntries(@NotNull File apk) throws IOException {
+    // ZipFile only parses the central directory, entry contents are never read here
+    try (ZipFile zipFile = new ZipFile(apk)) {
+      Map<String, ZipEntry> entries = new HashMap<>(zipFile.size());
+      Enumeration<? extends ZipEntry> enumeration = zipFile.entries();
+      while (enumeration.hasMoreElements()) {
+        ZipEntry entry = enumeration.nextElement();
+        if (!entry.isDirectory()) {
+          entries.put(entry.getName(), entry);
+        }
+      }
+      return entries;
+    }
+  }
+
+  private static boolean hasSameContents(@NotNull ZipEntry oldEntry, @NotNull ZipEntry newEntry) {
+    return oldEntry.getCrc() != -1 &&
+           oldEntry.getCrc() == newEntry.getCrc() &&
+           oldEntry.getSize() == newEntry.getSize();
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.apk.viewer.diff;
+
+import com.android.tools.idea.apk.viewer.diff.ApkDiffEntry.Status;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The classes that differ between the dex files of two APKs. Classes are matched by name across all the dex files of each APK, so a
+ * class that only moved to another dex file is not reported.
+ */
+public final class DexDiff {
+  public static final DexDiff EMPTY = new DexDiff(Collections.emptyList());
+
+  private final List<ClassDiff> myClasses;
+
+  DexDiff(@NotNull List<ClassDiff> classes) {
+    myClasses = classes;
+  }
+
+  /**
+   * Returns the added, removed and modified classes, sorted by name
+   */
+  @NotNull
+  public List<ClassDiff> getClasses() {
+    return myClasses;
+  }
+
+  /**
+   * Returns the changed classes defined by the given dex entry: in the new APK for added and modified classes, in the old APK for
+   * removed classes
+   */
+  @NotNull
+  public List<ClassDiff> getClasses(@NotNull String dexPath) {
+    List<ClassDiff> classes = new ArrayList<>();
+    for (ClassDiff classDiff : myClasses) {
+      if (classDiff.getDexPath().equals(dexPath)) {
+        classes.add(classDiff);
+      }
+    }
+    return classes;
+  }
+
+  public static final class ClassDiff {
+    private final String myName;
+    private final String myDexPath;
+    private final Status myStatus;
+    private final List<String> myAddedMethods;
+    private final List<String> myRemovedMethods;
+    private final List<String> myModifiedMethods;
+
+    ClassDiff(@NotNull String name,
+              @NotNull String dexPath,
+              @NotNull Status status,
+              @NotNull List<String> addedMethods,
+              @NotNull List<String> removedMethods,
+              @NotNull List<String> modifiedMethods) {
+      myName = name;
+      myDexPath = dexPath;
+      myStatus = status;
+      myAddedMethods = addedMethods;
+      myRemovedMethods = removedMethods;
+      myModifiedMethods = modifiedMethods;
+    }
+
+    /**
+     * Returns the fully qualified name of the class
+     */
+    @NotNull
+    public String getName() {
+      return myName;
+    }
+
+    @NotNull
+    public String getDexPath() {
+      return myDexPath;
+    }
+
+    /**
+     * Returns {@link Status#ADDED}, {@link Status#REMOVED} or {@link Status#MODIFIED}
+     */
+    @NotNull
+    public Status getStatus() {
+      return myStatus;
+    }
+
+    /**
+     * Returns the signatures of the methods only defined by the new class. Always empty unless the class is modified.
+     */
+    @NotNull
+    public List<String> getAddedMethods() {
+      return myAddedMethods;
+    }
+
+    @NotNull
+    public List<String> getRemovedMethods() {
+      return myRemovedMethods;
+    }
+
+    /**
+     * Returns the signatures of the methods whose access flags, annotations or code changed
+     */
+    @NotNull
+    public List<String> getModifiedMethods() {
+      return myModifiedMethods;
+    }
+
+    @Override
+    public String toString() {
+      return myStatus + " " + myName;
+    }
+  }
+}
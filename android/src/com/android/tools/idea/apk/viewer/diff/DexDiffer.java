@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.apk.viewer.diff;
+
+import com.android.SdkConstants;
+import com.android.tools.idea.apk.viewer.dex.DexParser;
+import com.android.tools.idea.apk.viewer.diff.ApkDiffEntry.Status;
+import com.android.tools.idea.apk.viewer.diff.DexDiff.ClassDiff;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.intellij.debugger.impl.DebuggerUtilsEx;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.dexbacked.DexBackedClassDef;
+import org.jf.dexlib2.iface.*;
+import org.jf.dexlib2.iface.instruction.*;
+import org.jf.dexlib2.iface.instruction.formats.ArrayPayload;
+import org.jf.dexlib2.iface.value.EncodedValue;
+import org.jf.dexlib2.util.ReferenceUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Diffs the dex files of two APKs at the class and method level.
+ * <p>
+ * Only the dex entries whose CRC changed are parsed: a class that is in an unchanged dex file is in the same unchanged dex file of the
+ * other APK. The classes of the changed dex files are hashed in parallel chunks. Since string, type and method indices differ between
+ * dex files, instructions are hashed with their resolved references rather than their raw bytes. Debug information (line numbers and
+ * local variable names) is ignored.
+ */
+final class DexDiffer {
+  private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+  private static final int CLASSES_PER_TASK = 256;
+
+  private final ListeningExecutorService myExecutor;
+
+  DexDiffer(@NotNull ListeningExecutorService executor) {
+    myExecutor = executor;
+  }
+
+  /**
+   * Computes the class level diff of two APKs
+   *
+   * @param entryStatuses the status of each entry of the APKs, see {@link CentralDirectoryDiff#compare(File, File)}
+   */
+  @NotNull
+  DexDiff diff(@NotNull File oldApk, @NotNull File newApk, @NotNull Map<String, Status> entryStatuses) throws IOException {
+    List<String> oldDexPaths = new ArrayList<>();
+    List<String> newDexPaths = new ArrayList<>();
+    for (Map.Entry<String, Status> entry : entryStatuses.entrySet()) {
+      if (!entry.getKey().endsWith(SdkConstants.DOT_DEX) || entry.getValue() == Status.UNCHANGED) {
+        continue;
+      }
+      if (entry.getValue() != Status.ADDED) {
+        oldDexPaths.add(entry.getKey());
+      }
+      if (entry.getValue() != Status.REMOVED) {
+        newDexPaths.add(entry.getKey());
+      }
+    }
+    if (oldDexPaths.isEmpty() && newDexPaths.isEmpty()) {
+      return DexDiff.EMPTY;
+    }
+
+    // submit the chunks of both APKs before waiting for any of them
+    List<ListenableFuture<List<ClassSignature>>> oldChunks = hashClasses(oldApk, oldDexPaths);
+    List<ListenableFuture<List<ClassSignature>>> newChunks = hashClasses(newApk, newDexPaths);
+    return compare(getSignatures(oldChunks), getSignatures(newChunks));
+  }
+
+  @NotNull
+  private List<ListenableFuture<List<ClassSignature>>> hashClasses(@NotNull File apk, @NotNull List<String> dexPaths) throws IOException {
+    List<ListenableFuture<List<ClassSignature>>> chunks = new ArrayList<>();
+    if (dexPaths.isEmpty()) {
+      return chunks;
+    }
+
+    try (ZipFile zipFile = new ZipFile(apk)) {
+      for (String dexPath : dexPaths) {
+        ZipEntry entry = zipFile.getEntry(dexPath);
+        if (entry == null) {
+          throw new IOException("Missing entry " + dexPath + " in " + apk);
+        }
+        byte[] contents;
+        try (InputStream is = zipFile.getInputStream(entry)) {
+          contents = ByteStreams.toByteArray(is);
+        }
+
+        List<DexBackedClassDef> classes = new ArrayList<>(DexParser.getDexFile(contents).getClasses());
+        for (int start = 0; start < classes.size(); start += CLASSES_PER_TASK) {
+          List<DexBackedClassDef> chunk = classes.subList(start, Math.min(start + CLASSES_PER_TASK, classes.size()));
+          chunks.add(myExecutor.submit(() -> hashClasses(dexPath, chunk)));
+        }
+      }
+    }
+    return chunks;
+  }
+
+  @NotNull
+  private static Map<String, ClassSignature> getSignatures(@NotNull List<ListenableFuture<List<ClassSignature>>> chunks)
+    throws IOException {
+    Map<String, ClassSignature> signatures = new HashMap<>();
+    try {
+      for (List<ClassSignature> chunk : Futures.allAsList(chunks).get()) {
+        for (ClassSignature signature : chunk) {
+          signatures.put(signature.myType, signature);
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+    catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+    return signatures;
+  }
+
+  @NotNull
+  static DexDiff compare(@NotNull Map<String, ClassSignature> oldClasses, @NotNull Map<String, ClassSignature> newClasses) {
+    List<ClassDiff> classes = new ArrayList<>();
+    for (ClassSignature oldClass : oldClasses.values()) {
+      ClassSignature newClass = newClasses.get(oldClass.myType);
+      if (newClass == null) {
+        classes.add(createClassDiff(oldClass, Status.REMOVED));
+      }
+      else if (!oldClass.equals(newClass)) {
+        classes.add(createModifiedClassDiff(oldClass, newClass));
+      }
+    }
+    for (ClassSignature newClass : newClasses.values()) {
+      if (!oldClasses.containsKey(newClass.myType)) {
+        classes.add(createClassDiff(newClass, Status.ADDED));
+      }
+    }
+
+    classes.sort(Comparator.comparing(ClassDiff::getName));
+    return new DexDiff(classes);
+  }
+
+  @NotNull
+  private static ClassDiff createClassDiff(@NotNull ClassSignature signature, @NotNull Status status) {
+    List<String> none = Collections.emptyList();
+    return new ClassDiff(DebuggerUtilsEx.signatureToName(signature.myType), signature.myDexPath, status, none, none, none);
+  }
+
+  @NotNull
+  private static ClassDiff createModifiedClassDiff(@NotNull ClassSignature oldClass, @NotNull ClassSignature newClass) {
+    List<String> added = new ArrayList<>();
+    List<String> removed = new ArrayList<>();
+    List<String> modified = new ArrayList<>();
+    for (Map.Entry<String, Long> oldMethod : oldClass.myMethodHashes.entrySet()) {
+      Long newHash = newClass.myMethodHashes.get(oldMethod.getKey());
+      if (newHash == null) {
+        removed.add(oldMethod.getKey());
+      }
+      else if (!newHash.equals(oldMethod.getValue())) {
+        modified.add(oldMethod.getKey());
+      }
+    }
+    for (String newMethod : newClass.myMethodHashes.keySet()) {
+      if (!oldClass.myMethodHashes.containsKey(newMethod)) {
+        added.add(newMethod);
+      }
+    }
+    Collections.sort(added);
+    Collections.sort(removed);
+    Collections.sort(modified);
+    return new ClassDiff(DebuggerUtilsEx.signatureToName(newClass.myType), newClass.myDexPath, Status.MODIFIED, added, removed, modified);
+  }
+
+  @NotNull
+  static List<ClassSignature> hashClasses(@NotNull String dexPath, @NotNull Collection<? extends ClassDef> classes) {
+    List<ClassSignature> signatures = new ArrayList<>(classes.size());
+    for (ClassDef classDef : classes) {
+      signatures.add(hashClass(dexPath, classDef));
+    }
+    return signatures;
+  }
+
+  @NotNull
+  private static ClassSignature hashClass(@NotNull String dexPath, @NotNull ClassDef classDef) {
+    Hasher hasher = HASH_FUNCTION.newHasher();
+    hasher.putInt(classDef.getAccessFlags());
+    putString(hasher, classDef.getSuperclass());
+    for (String iface : classDef.getInterfaces()) {
+      putString(hasher, iface);
+    }
+    hasher.putInt(classDef.getAnnotations().hashCode());
+    for (Field field : classDef.getFields()) {
+      putString(hasher, field.getName());
+      putString(hasher, field.getType());
+      hasher.putInt(field.getAccessFlags());
+      EncodedValue initialValue = field.getInitialValue();
+      hasher.putInt(initialValue == null ? 0 : initialValue.hashCode());
+      hasher.putInt(field.getAnnotations().hashCode());
+    }
+
+    Map<String, Long> methodHashes = new HashMap<>();
+    for (Method method : classDef.getMethods()) {
+      methodHashes.put(ReferenceUtil.getMethodDescriptor(method, true), hashMethod(method));
+    }
+    return new ClassSignature(classDef.getType(), dexPath, hasher.hash().asLong(), methodHashes);
+  }
+
+  private static long hashMethod(@NotNull Method method) {
+    Hasher hasher = HASH_FUNCTION.newHasher();
+    hasher.putInt(method.getAccessFlags());
+    hasher.putInt(method.getAnnotations().hashCode());
+    for (MethodParameter parameter : method.getParameters()) {
+      hasher.putInt(parameter.getAnnotations().hashCode());
+    }
+
+    MethodImplementation implementation = method.getImplementation();
+    if (implementation != null) {
+      hasher.putInt(implementation.getRegisterCount());
+      for (Instruction instruction : implementation.getInstructions()) {
+        hashInstruction(hasher, instruction);
+      }
+      for (TryBlock<? extends ExceptionHandler> tryBlock : implementation.getTryBlocks()) {
+        hasher.putInt(tryBlock.getStartCodeAddress());
+        hasher.putInt(tryBlock.getCodeUnitCount());
+        for (ExceptionHandler handler : tryBlock.getExceptionHandlers()) {
+          putString(hasher, handler.getExceptionType());
+          hasher.putInt(handler.getHandlerCodeAddress());
+        }
+      }
+    }
+    return hasher.hash().asLong();
+  }
+
+  private static void hashInstruction(@NotNull Hasher hasher, @NotNull Instruction instruction) {
+    Opcode opcode = instruction.getOpcode();
+    if (opcode == Opcode.CONST_STRING_JUMBO) {
+      // only depends on the number of strings in the dex file
+      opcode = Opcode.CONST_STRING;
+    }
+    putString(hasher, opcode.name);
+
+    if (instruction instanceof ReferenceInstruction) {
+      putString(hasher, ReferenceUtil.getReferenceString(((ReferenceInstruction)instruction).getReference()));
+    }
+    if (instruction instanceof OneRegisterInstruction) {
+      hasher.putInt(((OneRegisterInstruction)instruction).getRegisterA());
+    }
+    if (instruction instanceof TwoRegisterInstruction) {
+      hasher.putInt(((TwoRegisterInstruction)instruction).getRegisterB());
+    }
+    if (instruction instanceof ThreeRegisterInstruction) {
+      hasher.putInt(((ThreeRegisterInstruction)instruction).getRegisterC());
+    }
+    if (instruction instanceof VariableRegisterInstruction) {
+      hasher.putInt(((VariableRegisterInstruction)instruction).getRegisterCount());
+    }
+    if (instruction instanceof FiveRegisterInstruction) {
+      FiveRegisterInstruction fiveRegisterInstruction = (FiveRegisterInstruction)instruction;
+      hasher.putInt(fiveRegisterInstruction.getRegisterC());
+      hasher.putInt(fiveRegisterInstruction.getRegisterD());
+      hasher.putInt(fiveRegisterInstruction.getRegisterE());
+      hasher.putInt(fiveRegisterInstruction.getRegisterF());
+      hasher.putInt(fiveRegisterInstruction.getRegisterG());
+    }
+    if (instruction instanceof RegisterRangeInstruction) {
+      hasher.putInt(((RegisterRangeInstruction)instruction).getStartRegister());
+    }
+    if (instruction instanceof WideLiteralInstruction) {
+      hasher.putLong(((WideLiteralInstruction)instruction).getWideLiteral());
+    }
+    if (instruction instanceof OffsetInstruction) {
+      hasher.putInt(((OffsetInstruction)instruction).getCodeOffset());
+    }
+    if (instruction instanceof SwitchPayload) {
+      for (SwitchElement element : ((SwitchPayload)instruction).getSwitchElements()) {
+        hasher.putInt(element.getKey());
+        hasher.putInt(element.getOffset());
+      }
+    }
+    if (instruction instanceof ArrayPayload) {
+      hasher.putInt(((ArrayPayload)instruction).getElementWidth());
+      for (Number element : ((ArrayPayload)instruction).getArrayElements()) {
+        hasher.putLong(element.longValue());
+      }
+    }
+  }
+
+  private static void putString(@NotNull Hasher hasher, @Nullable String s) {
+    if (s == null) {
+      hasher.putInt(-1);
+    }
+    else {
+      hasher.putInt(s.length());
+      hasher.putString(s, StandardCharsets.UTF_8);
+    }
+  }
+
+  static final class ClassSignature {
+    private final String myType;
+    private final String myDexPath;
+    /** Hash of the class declaration and its fields */
+    private final long myHash;
+    /** Hash of each method by its signature */
+    private final Map<String, Long> myMethodHashes;
+
+    ClassSignature(@NotNull String type, @NotNull String dexPath, long hash, @NotNull Map<String, Long> methodHashes) {
+      myType = type;
+      myDexPath = dexPath;
+      myHash = hash;
+      myMethodHashes = methodHashes;
+    }
+
+    /**
+     * Returns whether both classes have the same contents, regardless of the dex file defining them
+     */
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      ClassSignature that = (ClassSignature)o;
+      return myHash == that.myHash && myType.equals(that.myType) && myMethodHashes.equals(that.myMethodHashes);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(myType, myHash);
+    }
+  }
+}
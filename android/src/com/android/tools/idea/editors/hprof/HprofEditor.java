@@ -28,6 +28,7 @@ import com.android.tools.perflib.heap.analysis.ComputationProgress;
 import com.android.tools.perflib.heap.memoryanalyzer.DuplicatedStringsAnalyzerTask;
 import com.android.tools.perflib.heap.memoryanalyzer.LeakedActivityAnalyzerTask;
 import com.android.tools.perflib.heap.memoryanalyzer.MemoryAnalyzer;
+import com.android.tools.profilers.memory.hprof.SnapshotDominators;
 import com.google.common.base.Throwables;
 import com.intellij.codeHighlighting.BackgroundEditorHighlighter;
 import com.intellij.designer.DesignerEditorPanelFacade;
@@ -51,13 +52,16 @@ import javax.swing.*;
 import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.Executors;
 
 public class HprofEditor extends CaptureEditor {
   @NotNull private static final Logger LOG = Logger.getInstance(HprofEditor.class);
   @Nullable private HprofView myView;
   @Nullable private Snapshot mySnapshot;
-  private boolean myIsValid = true;
+  /** The dominator computation in progress, cancelled if the editor is closed before it completes */
+  @Nullable private volatile SnapshotDominators myDominators;
+  private volatile boolean myIsValid = true;
 
   public HprofEditor(@NotNull final Project project, @NotNull final VirtualFile file) {
     AnalyzerTask[] tasks = new AnalyzerTask[]{new LeakedActivityAnalyzerTask(), new DuplicatedStringsAnalyzerTask()};
@@ -87,7 +91,17 @@ public class HprofEditor extends CaptureEditor {
       });
       timer.start();
       try {
-        snapshot.computeDominators();
+        snapshot.prepareDominatorComputation();
+        SnapshotDominators dominators = new SnapshotDominators(snapshot);
+        myDominators = dominators;
+        if (!isValid()) {
+          dominators.cancel();
+        }
+        snapshot.doComputeDominators(dominators);
+      }
+      catch (CancellationException e) {
+        snapshot.dispose();
+        return;
       }
       catch (Throwable t) {
         showErrorWhileProcessingFile(project, indicator, t);
@@ -95,6 +109,7 @@ public class HprofEditor extends CaptureEditor {
       }
       finally {
         timer.stop();
+        myDominators = null;
       }
 
       ApplicationManager.getApplication().invokeLater(() -> {
@@ -199,6 +214,10 @@ public class HprofEditor extends CaptureEditor {
   @Override
   public void dispose() {
     myIsValid = false;
+    SnapshotDominators dominators = myDominators;
+    if (dominators != null) {
+      dominators.cancel();
+    }
     if (mySnapshot != null) {
       mySnapshot.dispose();
     }
@@ -43,7 +43,6 @@ import static com.android.SdkConstants.*;
 import static com.android.tools.idea.gradle.util.GradleUtil.*;
 import static com.android.tools.idea.gradle.util.Projects.getBaseDirPath;
 import static com.android.tools.idea.gradle.util.Projects.isGradleProjectModule;
-import static com.google.common.io.Closeables.close;
 import static com.google.common.io.Files.toByteArray;
 import static com.intellij.openapi.util.io.FileUtil.*;
 import static com.intellij.openapi.vfs.VfsUtil.findFileByIoFile;
@@ -52,8 +51,11 @@ import static com.intellij.openapi.vfs.VfsUtilCore.virtualToIoFile;
 /**
  * The Project data that needs to be persisted to check whether it is possible to reload the Project without the need of calling Gradle.
  */
-public class GradleProjectSyncData implements Serializable {
+public class GradleProjectSyncData {
   @NotNull @NonNls private static final String STATE_FILE_NAME = "gradle_project_sync_data.bin";
+  private static final int MAGIC = 0x47505344; // "GPSD"
+  // Increase the value when changing the format written by writeTo.
+  private static final int VERSION = 1;
   private static final boolean ENABLED = !Boolean.getBoolean("studio.disable.synccache");
 
   private static final Logger LOG = Logger.getInstance(GradleProjectSyncData.class);
@@ -96,9 +98,6 @@ public class GradleProjectSyncData implements Serializable {
     catch (IOException e) {
       LOG.info(String.format("Error accessing state cache for project '%1$s', sync will be needed.", project.getName()));
     }
-    catch (ClassNotFoundException e) {
-      LOG.info(String.format("Cannot recover state cache for project '%1$s', sync will be needed.", project.getName()));
-    }
     return null;
   }
 
@@ -120,27 +119,61 @@ public class GradleProjectSyncData implements Serializable {
   }
 
   @Nullable
-  private static GradleProjectSyncData doLoadFromDisk(@NotNull Project project) throws IOException, ClassNotFoundException {
-    FileInputStream fin = null;
-    try {
-      File rootDirPath = getBaseDirPath(project);
-      File dataFile = getProjectStateFile(project);
-      if (!dataFile.exists()) {
+  private static GradleProjectSyncData doLoadFromDisk(@NotNull Project project) throws IOException {
+    File rootDirPath = getBaseDirPath(project);
+    File dataFile = getProjectStateFile(project);
+    if (!dataFile.exists()) {
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(dataFile)))) {
+      GradleProjectSyncData data = readFrom(in);
+      if (data == null) {
+        LOG.info(String.format("State cache for project '%1$s' has an old format, sync will be needed.", project.getName()));
         return null;
       }
-      fin = new FileInputStream(dataFile);
-      ObjectInputStream ois = new ObjectInputStream(fin);
-      try {
-        GradleProjectSyncData data = (GradleProjectSyncData)ois.readObject();
-        data.myRootDirPath = rootDirPath;
-        return data;
-      }
-      finally {
-        close(ois, false);
-      }
+      data.myRootDirPath = rootDirPath;
+      return data;
     }
-    finally {
-      close(fin, false);
+  }
+
+  /**
+   * Reads data written by {@link #writeTo(DataOutput)}.
+   *
+   * @return the read data, or {@code null} if it was written in a different format (e.g. by an older version of the IDE.)
+   */
+  @Nullable
+  @VisibleForTesting
+  static GradleProjectSyncData readFrom(@NotNull DataInput in) throws IOException {
+    if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+      return null;
+    }
+    GradleProjectSyncData data = new GradleProjectSyncData();
+    data.myGradlePluginVersion = in.readUTF();
+    data.myLastGradleSyncTimestamp = in.readLong();
+    int checksumCount = in.readInt();
+    for (int i = 0; i < checksumCount; i++) {
+      String key = in.readUTF();
+      byte[] checksum = new byte[in.readUnsignedByte()];
+      in.readFully(checksum);
+      data.myFileChecksums.put(key, checksum);
+    }
+    return data;
+  }
+
+  /**
+   * Writes this data in a versioned binary format, which is read back by {@link #readFrom(DataInput)}.
+   */
+  @VisibleForTesting
+  void writeTo(@NotNull DataOutput out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeUTF(myGradlePluginVersion);
+    out.writeLong(myLastGradleSyncTimestamp);
+    out.writeInt(myFileChecksums.size());
+    for (Map.Entry<String, byte[]> entry : myFileChecksums.entrySet()) {
+      out.writeUTF(entry.getKey());
+      out.writeByte(entry.getValue().length);
+      out.write(entry.getValue());
     }
   }
 
@@ -256,19 +289,8 @@ public class GradleProjectSyncData implements Serializable {
    * @param file the file where to save this data.
    */
   private void saveTo(File file) throws IOException {
-    FileOutputStream fos = null;
-    try {
-      fos = new FileOutputStream(file);
-      ObjectOutputStream oos = new ObjectOutputStream(fos);
-      try {
-        oos.writeObject(this);
-      }
-      finally {
-        close(oos, false);
-      }
-    }
-    finally {
-      close(fos, false);
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      writeTo(out);
     }
   }
 
@@ -21,6 +21,7 @@ import com.android.sdklib.AndroidVersion;
 import com.android.tools.idea.gradle.AndroidGradleClassJarProvider;
 import com.android.tools.idea.gradle.InternalAndroidModelView;
 import com.android.tools.idea.gradle.project.build.PostProjectBuildTasksExecutor;
+import com.android.tools.idea.gradle.util.CompactModelCodec;
 import com.android.tools.idea.model.AndroidModel;
 import com.android.tools.idea.model.ClassJarProvider;
 import com.google.common.annotations.VisibleForTesting;
@@ -55,6 +56,7 @@ import static com.android.SdkConstants.DATA_BINDING_LIB_ARTIFACT;
 import static com.android.builder.model.AndroidProject.*;
 import static com.android.tools.idea.gradle.project.sync.idea.data.service.AndroidProjectKeys.ANDROID_MODEL;
 import static com.android.tools.idea.gradle.util.GradleUtil.*;
+import static com.android.tools.idea.gradle.util.ProxyUtil.isValidProxyObject;
 import static com.android.tools.idea.gradle.util.ProxyUtil.reproxy;
 import static com.android.tools.lint.detector.api.LintUtils.convertVersion;
 import static com.intellij.openapi.externalSystem.util.ExternalSystemApiUtil.find;
@@ -70,7 +72,7 @@ public class AndroidModuleModel implements AndroidModel, ModuleModel {
   public static final String EXPLODED_AAR = "exploded-aar";
 
   // Increase the value when adding/removing fields or when changing the serialization/deserialization mechanism.
-  private static final long serialVersionUID = 1L;
+  private static final long serialVersionUID = 2L;
 
   private static final String[] TEST_ARTIFACT_NAMES = {ARTIFACT_UNIT_TEST, ARTIFACT_ANDROID_TEST};
 
@@ -78,6 +80,8 @@ public class AndroidModuleModel implements AndroidModel, ModuleModel {
   @NotNull private String myModuleName;
   @NotNull private File myRootDirPath;
   @NotNull private AndroidProject myAndroidProject;
+  // The model read from the cache, kept encoded until it is first needed. See ensureDecoded().
+  @Nullable private transient volatile byte[] myEncodedAndroidProject;
 
   @NotNull private transient AndroidModelFeatures myFeatures;
   @Nullable private transient GradleVersion myModelVersion;
@@ -211,7 +215,7 @@ public class AndroidModuleModel implements AndroidModel, ModuleModel {
 
   @NotNull
   public List<SourceProvider> getMainSourceProviders(@NotNull String variantName) {
-    Variant variant = myVariantsByName.get(variantName);
+    Variant variant = getVariantsByName().get(variantName);
     if (variant == null) {
       getLogger().error("Unknown variant name '" + variantName + "' found in the module '" + myModuleName + "'");
       return ImmutableList.of();
@@ -272,7 +276,7 @@ public class AndroidModuleModel implements AndroidModel, ModuleModel {
     Collection<SourceProviderContainer> extraSourceProviders = getAndroidProject().getDefaultConfig().getExtraSourceProviders();
     providers.addAll(getSourceProvidersForArtifacts(extraSourceProviders, testArtifactNames));
 
-    Variant variant = myVariantsByName.get(variantName);
+    Variant variant = getVariantsByName().get(variantName);
     assert variant != null;
 
     // Collect the product flavor test source providers.
@@ -354,14 +358,14 @@ public class AndroidModuleModel implements AndroidModel, ModuleModel {
   @Override
   @NotNull
   public List<SourceProvider> getAllSourceProviders() {
-    Collection<Variant> variants = myAndroidProject.getVariants();
+    Collection<Variant> variants = getAndroidProject().getVariants();
     List<SourceProvider> providers = Lists.newArrayList();
 
     // Add main source set
     providers.add(getDefaultSourceProvider());
 
     // Add all flavors
-    Collection<ProductFlavorContainer> flavors = myAndroidProject.getProductFlavors();
+    Collection<ProductFlavorContainer> flavors = getAndroidProject().getProductFlavors();
     for (ProductFlavorContainer pfc : flavors) {
       providers.add(pfc.getSourceProvider());
     }
@@ -375,7 +379,7 @@ public class AndroidModuleModel implements AndroidModel, ModuleModel {
     }
 
     // Add all the build types
-    Collection<BuildTypeContainer> buildTypes = myAndroidProject.getBuildTypes();
+    Collection<BuildTypeContainer> buildTypes = getAndroidProject().getBuildTypes();
     for (BuildTypeContainer btc : buildTypes) {
       providers.add(btc.getSourceProvider());
     }
@@ -401,7 +405,7 @@ public class AndroidModuleModel implements AndroidModel, ModuleModel {
   @Override
   public Set<String> getAllApplicationIds() {
     Set<String> ids = Sets.newHashSet();
-    for (Variant v : myAndroidProject.getVariants()) {
+    for (Variant v : getAndroidProject().getVariants()) {
       String applicationId = v.getMergedFlavor().getApplicationId();
       if (applicationId != null) {
         ids.add(applicationId);
@@ -502,22 +506,22 @@ public class AndroidModuleModel implements AndroidModel, ModuleModel {
 
   @Nullable
   public BuildTypeContainer findBuildType(@NotNull String name) {
-    return myBuildTypesByName.get(name);
+    return getBuildTypesByName().get(name);
   }
 
   @NotNull
   public Set<String> getBuildTypes() {
-    return myBuildTypesByName.keySet();
+    return getBuildTypesByName().keySet();
   }
 
   @NotNull
   public Set<String> getProductFlavors() {
-    return myProductFlavorsByName.keySet();
+    return getProductFlavorsByName().keySet();
   }
 
   @Nullable
   public ProductFlavorContainer findProductFlavor(@NotNull String name) {
-    return myProductFlavorsByName.get(name);
+    return getProductFlavorsByName().get(name);
   }
 
   @Override
@@ -554,7 +558,7 @@ public class AndroidModuleModel implements AndroidModel, ModuleModel {
 
   @Override
   public boolean isGenerated(@NotNull VirtualFile file) {
-    VirtualFile buildFolder = findFileByIoFile(myAndroidProject.getBuildFolder(), false);
+    VirtualFile buildFolder = findFileByIoFile(getAndroidProject().getBuildFolder(), false);
     if (buildFolder != null && isAncestor(buildFolder, file, false)) {
       return true;
     }
@@ -566,9 +570,72 @@ public class AndroidModuleModel implements AndroidModel, ModuleModel {
    */
   @NotNull
   public AndroidProject getAndroidProject() {
+    ensureDecoded();
     return myAndroidProject;
   }
 
+  /**
+   * Indicates whether the imported Android-Gradle project implements all the methods of the current model interfaces. A model read
+   * from the cache is checked without being decoded, and is also reported invalid when it cannot be decoded, so that a corrupted or
+   * outdated cache is treated as missing models and triggers a full sync instead of failing when the model is first used.
+   */
+  public boolean hasValidAndroidProject() {
+    byte[] encoded = myEncodedAndroidProject;
+    if (encoded != null) {
+      return CompactModelCodec.isValid(encoded, AndroidModuleModel.class.getClassLoader());
+    }
+    return isValidProxyObject(myAndroidProject);
+  }
+
+  @NotNull
+  private Map<String, BuildTypeContainer> getBuildTypesByName() {
+    ensureDecoded();
+    return myBuildTypesByName;
+  }
+
+  @NotNull
+  private Map<String, ProductFlavorContainer> getProductFlavorsByName() {
+    ensureDecoded();
+    return myProductFlavorsByName;
+  }
+
+  @NotNull
+  private Map<String, Variant> getVariantsByName() {
+    ensureDecoded();
+    return myVariantsByName;
+  }
+
+  /**
+   * Decodes the model read from the cache, the first time it is needed. Models of all the modules of a project are read from the cache
+   * when the project is opened, but only the ones being used are decoded.
+   */
+  private void ensureDecoded() {
+    if (myEncodedAndroidProject == null) {
+      return;
+    }
+    synchronized (this) {
+      byte[] encoded = myEncodedAndroidProject;
+      if (encoded == null) {
+        return;
+      }
+      try {
+        myAndroidProject = (AndroidProject)CompactModelCodec.decode(encoded, AndroidModuleModel.class.getClassLoader());
+      }
+      catch (IOException e) {
+        // Not expected: the cache is only used after hasValidAndroidProject() checked that the model can be decoded.
+        throw new IllegalStateException("Failed to decode the cached model of module '" + myModuleName + "'", e);
+      }
+      myProxyAndroidProject = myAndroidProject;
+
+      populateBuildTypesByName();
+      populateProductFlavorsByName();
+      populateVariantsByName();
+
+      // Written last, so that other threads see the decoded state once this is null.
+      myEncodedAndroidProject = null;
+    }
+  }
+
   /**
    * A proxy object of the Android-Gradle project is created and maintained for persisting the Android model data. The same proxy object is
    * also used to visualize the model information in {@link InternalAndroidModelView}.
@@ -579,6 +646,7 @@ public class AndroidModuleModel implements AndroidModel, ModuleModel {
    */
   @NotNull
   public AndroidProject waitForAndGetProxyAndroidProject() {
+    ensureDecoded();
     waitForProxyAndroidProject();
     assert myProxyAndroidProject != null;
     return myProxyAndroidProject;
@@ -612,14 +680,14 @@ public class AndroidModuleModel implements AndroidModel, ModuleModel {
    */
   @NotNull
   public Variant getSelectedVariant() {
-    Variant selected = myVariantsByName.get(mySelectedVariantName);
+    Variant selected = getVariantsByName().get(mySelectedVariantName);
     assert selected != null;
     return selected;
   }
 
   @Nullable
   public Variant findVariantByName(@NotNull String variantName) {
-    return myVariantsByName.get(variantName);
+    return getVariantsByName().get(variantName);
   }
 
   /**
@@ -669,22 +737,22 @@ public class AndroidModuleModel implements AndroidModel, ModuleModel {
 
   @NotNull
   public Collection<String> getBuildTypeNames() {
-    return myBuildTypesByName.keySet();
+    return getBuildTypesByName().keySet();
   }
 
   @NotNull
   public Collection<String> getProductFlavorNames() {
-    return myProductFlavorsByName.keySet();
+    return getProductFlavorsByName().keySet();
   }
 
   @NotNull
   public Collection<String> getVariantNames() {
-    return myVariantsByName.keySet();
+    return getVariantsByName().keySet();
   }
 
   @Nullable
   public LanguageLevel getJavaLanguageLevel() {
-    JavaCompileOptions compileOptions = myAndroidProject.getJavaCompileOptions();
+    JavaCompileOptions compileOptions = getAndroidProject().getJavaCompileOptions();
     String sourceCompatibility = compileOptions.getSourceCompatibility();
     return LanguageLevel.parse(sourceCompatibility);
   }
@@ -781,18 +849,18 @@ public class AndroidModuleModel implements AndroidModel, ModuleModel {
   @Nullable
   public Collection<SyncIssue> getSyncIssues() {
     if (getFeatures().isIssueReportingSupported()) {
-      return myAndroidProject.getSyncIssues();
+      return getAndroidProject().getSyncIssues();
     }
     return null;
   }
 
   @Nullable
   public SourceFileContainerInfo containsSourceFile(@NotNull File file) {
-    ProductFlavorContainer defaultConfig = myAndroidProject.getDefaultConfig();
+    ProductFlavorContainer defaultConfig = getAndroidProject().getDefaultConfig();
     if (containsSourceFile(defaultConfig, file)) {
       return new SourceFileContainerInfo();
     }
-    for (Variant variant : myAndroidProject.getVariants()) {
+    for (Variant variant : getAndroidProject().getVariants()) {
       AndroidArtifact artifact = variant.getMainArtifact();
       if (containsSourceFile(artifact, file)) {
         return new SourceFileContainerInfo(variant, artifact);
@@ -902,12 +970,18 @@ public class AndroidModuleModel implements AndroidModel, ModuleModel {
   }
 
   private void writeObject(ObjectOutputStream out) throws IOException {
-    waitForProxyAndroidProject();
+    // A model that was never used since it was read from the cache is written back as is.
+    byte[] encoded = myEncodedAndroidProject;
+    if (encoded == null) {
+      waitForProxyAndroidProject();
+      encoded = CompactModelCodec.encode(myProxyAndroidProject);
+    }
 
     out.writeObject(myProjectSystemId);
     out.writeObject(myModuleName);
     out.writeObject(myRootDirPath);
-    out.writeObject(myProxyAndroidProject);
+    out.writeObject(myModelVersion != null ? myModelVersion.toString() : null);
+    out.writeObject(encoded);
     out.writeObject(mySelectedVariantName);
   }
 
@@ -915,23 +989,21 @@ public class AndroidModuleModel implements AndroidModel, ModuleModel {
     myProjectSystemId = (ProjectSystemId)in.readObject();
     myModuleName = (String)in.readObject();
     myRootDirPath = (File)in.readObject();
-    myAndroidProject = (AndroidProject)in.readObject();
 
-    parseAndSetModelVersion();
+    String modelVersion = (String)in.readObject();
+    myModelVersion = modelVersion != null ? GradleVersion.tryParse(modelVersion) : null;
     myFeatures = new AndroidModelFeatures(myModelVersion);
 
-    myProxyAndroidProject = myAndroidProject;
-
     myBuildTypesByName = Maps.newHashMap();
     myProductFlavorsByName = Maps.newHashMap();
     myVariantsByName = Maps.newHashMap();
     myExtraGeneratedSourceFolders = Sets.newHashSet();
 
-    populateBuildTypesByName();
-    populateProductFlavorsByName();
-    populateVariantsByName();
+    // The model is decoded when first used.
+    myEncodedAndroidProject = (byte[])in.readObject();
 
-    setSelectedVariantName((String)in.readObject());
+    // The selected variant was validated against the same model when it was written.
+    mySelectedVariantName = (String)in.readObject();
   }
 
   private void parseAndSetModelVersion() {
@@ -22,6 +22,8 @@ import com.android.tools.idea.gradle.util.GradleVersions;
 import com.android.tools.idea.gradle.variant.view.BuildVariantView;
 import com.android.tools.lint.detector.api.LintUtils;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
 import com.google.wireless.android.sdk.stats.AndroidStudioEvent;
 import com.intellij.notification.NotificationGroup;
 import com.intellij.openapi.Disposable;
@@ -42,6 +44,9 @@ import net.jcip.annotations.GuardedBy;
 import org.jetbrains.android.facet.AndroidFacet;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import static com.android.tools.idea.gradle.util.Projects.requiredAndroidModelMissing;
 import static com.google.wireless.android.sdk.stats.AndroidStudioEvent.EventCategory.GRADLE_SYNC;
 import static com.google.wireless.android.sdk.stats.AndroidStudioEvent.EventKind.*;
@@ -76,6 +81,15 @@ public class GradleSyncState {
   @GuardedBy("myLock")
   private boolean mySyncInProgress;
 
+  @GuardedBy("myLock")
+  private long mySyncStartTimestamp;
+
+  // Duration, in milliseconds, of the phases of the current (or last) sync, in the order they were completed.
+  @GuardedBy("myLock")
+  private final Map<String, Long> myPhaseDurations = new LinkedHashMap<>();
+
+  @NotNull private final ModuleModelFingerprints myModelFingerprints = new ModuleModelFingerprints();
+
   @NotNull
   public static MessageBusConnection subscribe(@NotNull Project project, @NotNull GradleSyncListener listener) {
     return subscribe(project, listener, project);
@@ -154,6 +168,8 @@ public class GradleSyncState {
       }
       mySyncSkipped = syncSkipped;
       mySyncInProgress = true;
+      mySyncStartTimestamp = System.currentTimeMillis();
+      myPhaseDurations.clear();
     }
     LOG.info(String.format("Started sync with Gradle for project '%1$s'.", myProject.getName()));
 
@@ -174,6 +190,7 @@ public class GradleSyncState {
 
   public void syncSkipped(long lastSyncTimestamp) {
     LOG.info(String.format("Skipped sync with Gradle for project '%1$s'. Project state loaded from cache.", myProject.getName()));
+    logPhaseDurations();
 
     stopSyncInProgress();
     addInfoToEventLog("Gradle sync completed");
@@ -199,6 +216,9 @@ public class GradleSyncState {
   public void syncFailed(@NotNull String message) {
     LOG.info(String.format("Sync with Gradle for project '%1$s' failed: %2$s", myProject.getName(), message));
 
+    // The next sync sets up all modules again.
+    myModelFingerprints.clear();
+
     String logMsg = "Gradle sync failed";
     if (isNotEmpty(message)) {
       logMsg += String.format(": %1$s", message);
@@ -216,6 +236,12 @@ public class GradleSyncState {
 
   public void syncEnded() {
     LOG.info(String.format("Sync with Gradle successful for project '%1$s'.", myProject.getName()));
+    logPhaseDurations();
+
+    if (mySummary.hasSyncErrors()) {
+      // Issues are reported while setting up modules, so the next sync sets up all modules again.
+      myModelFingerprints.clear();
+    }
 
     addInfoToEventLog("Gradle sync completed");
 
@@ -341,9 +367,55 @@ public class GradleSyncState {
   }
 
   public void setupStarted() {
+    synchronized (myLock) {
+      if (mySyncInProgress) {
+        String phase = mySyncSkipped ? "Cached models loading" : "Gradle models fetching";
+        myPhaseDurations.put(phase, System.currentTimeMillis() - mySyncStartTimestamp);
+      }
+    }
     syncPublisher(() -> myMessageBus.syncPublisher(GRADLE_SYNC_TOPIC).setupStarted(myProject));
   }
 
+  /**
+   * Records the duration of a phase of the current sync. Durations of phases with the same name are added.
+   *
+   * @param phase          the name of the phase.
+   * @param durationMillis the duration of the phase, in milliseconds.
+   */
+  public void phaseCompleted(@NotNull String phase, long durationMillis) {
+    synchronized (myLock) {
+      Long previous = myPhaseDurations.get(phase);
+      myPhaseDurations.put(phase, previous != null ? previous + durationMillis : durationMillis);
+    }
+  }
+
+  /**
+   * @return the duration, in milliseconds, of the phases of the current sync, or of the last one if no sync is in progress.
+   */
+  @NotNull
+  public Map<String, Long> getPhaseDurations() {
+    synchronized (myLock) {
+      return ImmutableMap.copyOf(myPhaseDurations);
+    }
+  }
+
+  private void logPhaseDurations() {
+    Map<String, Long> durations = getPhaseDurations();
+    if (!durations.isEmpty()) {
+      String phases = Joiner.on(", ").withKeyValueSeparator(": ").join(durations);
+      LOG.info(String.format("Sync phases for project '%1$s' (ms): %2$s", myProject.getName(), phases));
+    }
+  }
+
+  /**
+   * @return the fingerprints of the module models set up by the last successful sync, used to only set up the modules whose models
+   * changed.
+   */
+  @NotNull
+  public ModuleModelFingerprints getModelFingerprints() {
+    return myModelFingerprints;
+  }
+
   @VisibleForTesting
   static class StateChangeNotification {
     @NotNull private final Project myProject;
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.gradle.project.sync;
+
+import com.android.tools.idea.gradle.project.model.ModuleModel;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.intellij.openapi.diagnostic.Logger;
+import net.jcip.annotations.GuardedBy;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.hash.Funnels.asOutputStream;
+
+/**
+ * Fingerprints of the module models set up by the last successful sync. They allow an incremental sync to only set up again the
+ * modules whose models changed, the other modules keeping the content roots, dependencies, etc. set up by a previous sync.
+ * <p>
+ * Fingerprints are forgotten when a sync fails or finds errors, so that the next sync sets up (and reports issues for) all modules.
+ */
+public class ModuleModelFingerprints {
+  private static final Logger LOG = Logger.getInstance(ModuleModelFingerprints.class);
+  private static final boolean ENABLED = !Boolean.getBoolean("studio.disable.incremental.sync");
+
+  private final Object myLock = new Object();
+
+  @GuardedBy("myLock")
+  private final Map<String, Map<String, HashCode>> myFingerprintsByModelType = new HashMap<>();
+
+  /**
+   * Records the fingerprints of the given models.
+   *
+   * @param modelType    the type of the models, e.g. the name of their data key.
+   * @param modelsByName the models to record, by module name.
+   * @return the names of the modules whose models changed since the last time they were recorded. All modules are returned if the set
+   * of modules changed, as dependencies between modules refer to their names.
+   */
+  @NotNull
+  public Set<String> update(@NotNull String modelType, @NotNull Map<String, ? extends ModuleModel> modelsByName) {
+    Map<String, HashCode> fingerprints = new HashMap<>();
+    for (Map.Entry<String, ? extends ModuleModel> entry : modelsByName.entrySet()) {
+      HashCode fingerprint = ENABLED ? createFingerprint(entry.getValue()) : null;
+      if (fingerprint != null) {
+        fingerprints.put(entry.getKey(), fingerprint);
+      }
+    }
+
+    Map<String, HashCode> previous;
+    synchronized (myLock) {
+      previous = myFingerprintsByModelType.put(modelType, fingerprints);
+    }
+    if (previous == null || !previous.keySet().equals(modelsByName.keySet())) {
+      return modelsByName.keySet();
+    }
+
+    Set<String> changed = new HashSet<>();
+    for (String moduleName : modelsByName.keySet()) {
+      HashCode fingerprint = fingerprints.get(moduleName);
+      if (fingerprint == null || !fingerprint.equals(previous.get(moduleName))) {
+        changed.add(moduleName);
+      }
+    }
+    return changed;
+  }
+
+  public void clear() {
+    synchronized (myLock) {
+      myFingerprintsByModelType.clear();
+    }
+  }
+
+  @VisibleForTesting
+  @Nullable
+  static HashCode createFingerprint(@NotNull ModuleModel model) {
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    try (ObjectOutputStream out = new ObjectOutputStream(asOutputStream(hasher))) {
+      out.writeObject(model);
+    }
+    catch (IOException e) {
+      // The module will be considered as changed.
+      LOG.info(String.format("Failed to create fingerprint of model of module '%1$s'", model.getModuleName()), e);
+      return null;
+    }
+    return hasher.hash();
+  }
+}
@@ -112,7 +112,7 @@ public class DataNodeCaches {
       AndroidFacet androidFacet = AndroidFacet.getInstance(module);
       if (androidFacet != null) {
         DataNode<AndroidModuleModel> androidDataNode = find(cache, ANDROID_MODEL);
-        if (androidDataNode == null || !isValidProxyObject(androidDataNode.getData().getAndroidProject())) {
+        if (androidDataNode == null || !androidDataNode.getData().hasValidAndroidProject()) {
           return true;
         }
       }
@@ -29,6 +29,7 @@ import org.jetbrains.annotations.Nullable;
 
 import java.util.Collection;
 import java.util.Map;
+import java.util.Set;
 
 import static com.android.tools.idea.gradle.project.sync.idea.data.service.AndroidProjectKeys.ANDROID_MODEL;
 
@@ -64,10 +65,12 @@ public class AndroidModuleModelDataService extends ModuleModelDataService<Androi
                             @NotNull IdeModifiableModelsProvider modelsProvider,
                             @NotNull Map<String, AndroidModuleModel> modelsByName) {
     AndroidModuleValidator moduleValidator = myModuleValidatorFactory.create(project);
+    Set<String> modulesWithChangedModels = findModulesWithChangedModels(project, modelsByName);
 
     for (Module module : modelsProvider.getModules()) {
       AndroidModuleModel androidModel = modelsByName.get(module.getName());
-      setUpModule(module, moduleValidator, modelsProvider, androidModel);
+      boolean modelChanged = modulesWithChangedModels.contains(module.getName());
+      setUpModule(module, moduleValidator, modelsProvider, androidModel, modelChanged);
     }
 
     if (!modelsByName.isEmpty()) {
@@ -78,8 +81,9 @@ public class AndroidModuleModelDataService extends ModuleModelDataService<Androi
   private void setUpModule(@NotNull Module module,
                            @NotNull AndroidModuleValidator moduleValidator,
                            @NotNull IdeModifiableModelsProvider modelsProvider,
-                           @Nullable AndroidModuleModel androidModel) {
-    myModuleSetup.setUpModule(module, modelsProvider, androidModel, null, null);
+                           @Nullable AndroidModuleModel androidModel,
+                           boolean modelChanged) {
+    myModuleSetup.setUpModule(module, modelsProvider, androidModel, null, null, modelChanged);
     if (androidModel != null) {
       moduleValidator.validate(module, androidModel);
     }
@@ -27,6 +27,7 @@ import org.jetbrains.annotations.NotNull;
 
 import java.util.Collection;
 import java.util.Map;
+import java.util.Set;
 
 import static com.android.tools.idea.gradle.project.sync.idea.data.service.AndroidProjectKeys.JAVA_MODULE_MODEL;
 
@@ -54,10 +55,12 @@ public class JavaModuleModelDataService extends ModuleModelDataService<JavaModul
                             @NotNull Project project,
                             @NotNull IdeModifiableModelsProvider modelsProvider,
                             @NotNull Map<String, JavaModuleModel> modelsByName) {
+    Set<String> modulesWithChangedModels = findModulesWithChangedModels(project, modelsByName);
     for (Module module : modelsProvider.getModules()) {
       JavaModuleModel javaModuleModel = modelsByName.get(module.getName());
       if (javaModuleModel != null) {
-        myModuleSetup.setUpModule(module, modelsProvider, javaModuleModel, null, null);
+        boolean modelChanged = modulesWithChangedModels.contains(module.getName());
+        myModuleSetup.setUpModule(module, modelsProvider, javaModuleModel, null, null, modelChanged);
       }
     }
   }
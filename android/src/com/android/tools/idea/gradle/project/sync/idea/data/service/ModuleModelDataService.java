@@ -17,6 +17,7 @@ package com.android.tools.idea.gradle.project.sync.idea.data.service;
 
 import com.android.tools.idea.gradle.project.model.ModuleModel;
 import com.android.tools.idea.gradle.project.sync.GradleSyncState;
+import com.android.tools.idea.gradle.project.sync.ModuleModelFingerprints;
 import com.intellij.openapi.application.RunResult;
 import com.intellij.openapi.command.WriteCommandAction;
 import com.intellij.openapi.diagnostic.Logger;
@@ -32,7 +33,9 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
+import static com.intellij.openapi.util.text.StringUtil.getShortName;
 import static com.intellij.openapi.util.text.StringUtil.isNotEmpty;
 
 public abstract class ModuleModelDataService<T extends ModuleModel> extends AbstractProjectDataService<T, Void> {
@@ -61,6 +64,7 @@ public abstract class ModuleModelDataService<T extends ModuleModel> extends Abst
   private void importData(@NotNull Collection<DataNode<T>> toImport,
                           @NotNull Project project,
                           @NotNull IdeModifiableModelsProvider modelsProvider) throws Throwable {
+    long start = System.currentTimeMillis();
     RunResult result = new WriteCommandAction.Simple(project) {
       @Override
       protected void run() throws Throwable {
@@ -71,6 +75,8 @@ public abstract class ModuleModelDataService<T extends ModuleModel> extends Abst
         importData(toImport, project, modelsProvider, modelsByName);
       }
     }.execute();
+    String phase = getShortName(getTargetDataKey().getDataType()) + " setup";
+    GradleSyncState.getInstance(project).phaseCompleted(phase, System.currentTimeMillis() - start);
     Throwable error = result.getThrowable();
     if (error != null) {
       throw error;
@@ -82,6 +88,24 @@ public abstract class ModuleModelDataService<T extends ModuleModel> extends Abst
                                      @NotNull IdeModifiableModelsProvider modelsProvider,
                                      @NotNull Map<String, T> modelsByName);
 
+  /**
+   * Records the given models as the ones set up by the current sync, and returns the names of the modules whose models changed since the
+   * last successful sync. Modules whose models did not change can skip the setup steps that only apply their models.
+   *
+   * @param modelsByName the models being imported, by module name.
+   * @return the names of the modules whose models changed.
+   */
+  @NotNull
+  protected Set<String> findModulesWithChangedModels(@NotNull Project project, @NotNull Map<String, T> modelsByName) {
+    ModuleModelFingerprints fingerprints = GradleSyncState.getInstance(project).getModelFingerprints();
+    Set<String> changed = fingerprints.update(getTargetDataKey().getDataType(), modelsByName);
+    if (changed.size() < modelsByName.size()) {
+      getLog().info(String.format("Models of %1$d out of %2$d module(s) changed since last sync in project '%3$s'", changed.size(),
+                                  modelsByName.size(), project.getName()));
+    }
+    return changed;
+  }
+
   @NotNull
   private Map<String, T> indexByModuleName(@NotNull Collection<DataNode<T>> dataNodes) {
     if (dataNodes.isEmpty()) {
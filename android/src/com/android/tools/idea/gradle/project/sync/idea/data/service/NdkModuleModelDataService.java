@@ -29,6 +29,7 @@ import org.jetbrains.annotations.NotNull;
 
 import java.util.Collection;
 import java.util.Map;
+import java.util.Set;
 
 import static com.android.tools.idea.gradle.project.sync.idea.data.service.AndroidProjectKeys.NDK_MODEL;
 import static com.android.tools.idea.gradle.project.sync.setup.Facets.removeAllFacets;
@@ -57,9 +58,11 @@ public class NdkModuleModelDataService extends ModuleModelDataService<NdkModuleM
                             @NotNull Project project,
                             @NotNull IdeModifiableModelsProvider modelsProvider,
                             @NotNull Map<String, NdkModuleModel> modelsByName) {
+    Set<String> modulesWithChangedModels = findModulesWithChangedModels(project, modelsByName);
     for (Module module : modelsProvider.getModules()) {
       NdkModuleModel ndkModuleModel = modelsByName.get(module.getName());
-      myModuleSetup.setUpModule(module, modelsProvider, ndkModuleModel, null, null);
+      boolean modelChanged = modulesWithChangedModels.contains(module.getName());
+      myModuleSetup.setUpModule(module, modelsProvider, ndkModuleModel, null, null, modelChanged);
     }
   }
 
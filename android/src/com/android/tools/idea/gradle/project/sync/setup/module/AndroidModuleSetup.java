@@ -41,7 +41,25 @@ public class AndroidModuleSetup {
                           @Nullable AndroidModuleModel androidModel,
                           @Nullable SyncAction.ModuleModels models,
                           @Nullable ProgressIndicator indicator) {
+    setUpModule(module, ideModelsProvider, androidModel, models, indicator, true);
+  }
+
+  /**
+   * Sets up the given module, skipping the steps that do not need to be invoked if its model did not change since the last sync.
+   *
+   * @param modelChanged indicates whether the model of the module changed since the last sync.
+   */
+  public void setUpModule(@NotNull Module module,
+                          @NotNull IdeModifiableModelsProvider ideModelsProvider,
+                          @Nullable AndroidModuleModel androidModel,
+                          @Nullable SyncAction.ModuleModels models,
+                          @Nullable ProgressIndicator indicator,
+                          boolean modelChanged) {
     for (AndroidModuleSetupStep step : mySetupSteps) {
+      if (!modelChanged && androidModel != null && !step.invokeOnUnchangedModel()) {
+        step.moduleModelUnchanged(module, ideModelsProvider, androidModel);
+        continue;
+      }
       if (indicator != null) {
         step.displayDescription(module, indicator);
       }
@@ -50,6 +50,20 @@ public class JavaModuleSetup {
                           @NotNull JavaModuleModel javaModuleModel,
                           @Nullable SyncAction.ModuleModels models,
                           @Nullable ProgressIndicator indicator) {
+    setUpModule(module, ideModelsProvider, javaModuleModel, models, indicator, true);
+  }
+
+  /**
+   * Sets up the given module, skipping the steps that do not need to be invoked if its model did not change since the last sync.
+   *
+   * @param modelChanged indicates whether the model of the module changed since the last sync.
+   */
+  public void setUpModule(@NotNull Module module,
+                          @NotNull IdeModifiableModelsProvider ideModelsProvider,
+                          @NotNull JavaModuleModel javaModuleModel,
+                          @Nullable SyncAction.ModuleModels models,
+                          @Nullable ProgressIndicator indicator,
+                          boolean modelChanged) {
     if (javaModuleModel.isAndroidModuleWithoutVariants()) {
       // See https://code.google.com/p/android/issues/detail?id=170722
       SyncMessages messages = SyncMessages.getInstance(module.getProject());
@@ -63,6 +77,10 @@ public class JavaModuleSetup {
       return;
     }
     for (JavaModuleSetupStep step : mySetupSteps) {
+      if (!modelChanged && !step.invokeOnUnchangedModel()) {
+        step.moduleModelUnchanged(module, ideModelsProvider, javaModuleModel);
+        continue;
+      }
       if (indicator != null) {
         step.displayDescription(module, indicator);
       }
@@ -54,4 +54,19 @@ public abstract class ModuleSetupStep<T> {
   public boolean invokeOnBuildVariantChange() {
     return false;
   }
+
+  /**
+   * Indicates whether this step needs to be invoked for a module whose model did not change since the last sync. Steps that only apply
+   * the model to the module (e.g. content roots or dependencies) can be skipped by an incremental sync, since the module keeps what a
+   * previous sync set up.
+   */
+  public boolean invokeOnUnchangedModel() {
+    return true;
+  }
+
+  /**
+   * Invoked instead of {@link #setUpModule} when this step is skipped for a module whose model did not change.
+   */
+  public void moduleModelUnchanged(@NotNull Module module, @NotNull IdeModifiableModelsProvider ideModelsProvider, @NotNull T gradleModel) {
+  }
 }
@@ -41,7 +41,25 @@ public class NdkModuleSetup {
                           @Nullable NdkModuleModel ndkModuleModel,
                           @Nullable SyncAction.ModuleModels models,
                           @Nullable ProgressIndicator indicator) {
+    setUpModule(module, ideModelsProvider, ndkModuleModel, models, indicator, true);
+  }
+
+  /**
+   * Sets up the given module, skipping the steps that do not need to be invoked if its model did not change since the last sync.
+   *
+   * @param modelChanged indicates whether the model of the module changed since the last sync.
+   */
+  public void setUpModule(@NotNull Module module,
+                          @NotNull IdeModifiableModelsProvider ideModelsProvider,
+                          @Nullable NdkModuleModel ndkModuleModel,
+                          @Nullable SyncAction.ModuleModels models,
+                          @Nullable ProgressIndicator indicator,
+                          boolean modelChanged) {
     for (NdkModuleSetupStep setupStep : mySetupSteps) {
+      if (!modelChanged && ndkModuleModel != null && !setupStep.invokeOnUnchangedModel()) {
+        setupStep.moduleModelUnchanged(module, ideModelsProvider, ndkModuleModel);
+        continue;
+      }
       if (indicator != null) {
         setupStep.displayDescription(module, indicator);
       }
@@ -20,6 +20,9 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.LibraryOrderEntry;
+import com.intellij.openapi.roots.ModifiableRootModel;
+import com.intellij.openapi.roots.OrderEntry;
 import com.intellij.openapi.roots.impl.libraries.ProjectLibraryTable;
 import com.intellij.openapi.roots.libraries.Library;
 import com.intellij.openapi.roots.libraries.LibraryTable;
@@ -111,6 +114,24 @@ public class SyncLibraryRegistry implements Disposable {
     }
   }
 
+  /**
+   * Marks the project libraries the given module depends on as "used" by the project. Their binary paths are not checked, since they
+   * were set up by a previous sync for a module whose model did not change.
+   *
+   * @param rootModel the root model of the module.
+   */
+  public void markAsUsed(@NotNull ModifiableRootModel rootModel) {
+    checkNotDisposed();
+    for (OrderEntry orderEntry : rootModel.getOrderEntries()) {
+      if (orderEntry instanceof LibraryOrderEntry && !((LibraryOrderEntry)orderEntry).isModuleLevel()) {
+        String name = ((LibraryOrderEntry)orderEntry).getLibraryName();
+        if (name != null) {
+          myProjectLibrariesByName.remove(name);
+        }
+      }
+    }
+  }
+
   @NotNull
   public Collection<Library> getLibrariesToRemove() {
     checkNotDisposed();
@@ -66,4 +66,9 @@ public class CompilerOutputModuleSetupStep extends AndroidModuleSetupStep {
   public boolean invokeOnBuildVariantChange() {
     return true;
   }
+
+  @Override
+  public boolean invokeOnUnchangedModel() {
+    return false;
+  }
 }
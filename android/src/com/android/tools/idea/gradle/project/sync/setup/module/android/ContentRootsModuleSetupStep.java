@@ -102,4 +102,9 @@ public class ContentRootsModuleSetupStep extends AndroidModuleSetupStep {
   public boolean invokeOnBuildVariantChange() {
     return true;
   }
+
+  @Override
+  public boolean invokeOnUnchangedModel() {
+    return false;
+  }
 }
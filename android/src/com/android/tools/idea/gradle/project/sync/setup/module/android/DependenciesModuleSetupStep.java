@@ -23,6 +23,7 @@ import com.android.tools.idea.gradle.project.sync.SyncAction;
 import com.android.tools.idea.gradle.project.sync.issues.SyncIssuesReporter;
 import com.android.tools.idea.gradle.project.sync.issues.UnresolvedDependenciesReporter;
 import com.android.tools.idea.gradle.project.sync.setup.module.AndroidModuleSetupStep;
+import com.android.tools.idea.gradle.project.sync.setup.module.SyncLibraryRegistry;
 import com.android.tools.idea.gradle.project.sync.setup.module.common.DependencySetupErrors;
 import com.android.tools.idea.gradle.project.sync.setup.module.dependency.DependenciesExtractor;
 import com.android.tools.idea.gradle.project.sync.setup.module.dependency.DependencySet;
@@ -230,4 +231,22 @@ public class DependenciesModuleSetupStep extends AndroidModuleSetupStep {
   public boolean invokeOnBuildVariantChange() {
     return true;
   }
+
+  @Override
+  public boolean invokeOnUnchangedModel() {
+    return false;
+  }
+
+  @Override
+  public void moduleModelUnchanged(@NotNull Module module,
+                                   @NotNull IdeModifiableModelsProvider ideModelsProvider,
+                                   @NotNull AndroidModuleModel androidModel) {
+    // Keep the libraries of the module, which were set up by a previous sync.
+    SyncLibraryRegistry.getInstance(module.getProject()).markAsUsed(ideModelsProvider.getModifiableRootModel(module));
+
+    Collection<SyncIssue> syncIssues = androidModel.getSyncIssues();
+    if (syncIssues != null) {
+      SyncIssuesReporter.getInstance().report(syncIssues, module);
+    }
+  }
 }
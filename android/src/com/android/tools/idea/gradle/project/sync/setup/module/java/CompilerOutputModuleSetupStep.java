@@ -71,4 +71,9 @@ public class CompilerOutputModuleSetupStep extends JavaModuleSetupStep {
   public String getDescription() {
     return "Compiler output setup";
   }
+
+  @Override
+  public boolean invokeOnUnchangedModel() {
+    return false;
+  }
 }
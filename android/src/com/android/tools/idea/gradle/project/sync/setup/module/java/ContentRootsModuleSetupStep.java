@@ -65,4 +65,9 @@ public class ContentRootsModuleSetupStep extends JavaModuleSetupStep {
   public String getDescription() {
     return "Source folder(s) setup";
   }
+
+  @Override
+  public boolean invokeOnUnchangedModel() {
+    return false;
+  }
 }
@@ -21,6 +21,7 @@ import com.android.tools.idea.gradle.project.model.JavaModuleModel;
 import com.android.tools.idea.gradle.project.sync.SyncAction;
 import com.android.tools.idea.gradle.project.sync.issues.UnresolvedDependenciesReporter;
 import com.android.tools.idea.gradle.project.sync.setup.module.JavaModuleSetupStep;
+import com.android.tools.idea.gradle.project.sync.setup.module.SyncLibraryRegistry;
 import com.android.tools.idea.gradle.project.sync.setup.module.common.DependencySetupErrors;
 import com.google.common.annotations.VisibleForTesting;
 import com.intellij.openapi.externalSystem.service.project.IdeModifiableModelsProvider;
@@ -145,4 +146,17 @@ public class DependenciesModuleSetupStep extends JavaModuleSetupStep {
   public String getDescription() {
     return "Java dependencies setup";
   }
+
+  @Override
+  public boolean invokeOnUnchangedModel() {
+    return false;
+  }
+
+  @Override
+  public void moduleModelUnchanged(@NotNull Module module,
+                                   @NotNull IdeModifiableModelsProvider ideModelsProvider,
+                                   @NotNull JavaModuleModel javaModuleModel) {
+    // Keep the libraries of the module, which were set up by a previous sync.
+    SyncLibraryRegistry.getInstance(module.getProject()).markAsUsed(ideModelsProvider.getModifiableRootModel(module));
+  }
 }
@@ -69,4 +69,9 @@ public class ContentRootModuleSetupStep extends NdkModuleSetupStep {
   public boolean invokeOnBuildVariantChange() {
     return true;
   }
+
+  @Override
+  public boolean invokeOnUnchangedModel() {
+    return false;
+  }
 }
@@ -66,6 +66,8 @@ import static com.android.tools.idea.gradle.variant.conflict.ConflictResolution.
 import static com.android.tools.idea.gradle.variant.conflict.ConflictSet.findConflicts;
 
 public class PostSyncProjectSetup {
+  private static final String POST_SYNC_SETUP_PHASE = "Post-sync setup";
+
   @NotNull private final Project myProject;
   @NotNull private final IdeInfo myIdeInfo;
   @NotNull private final GradleSyncInvoker mySyncInvoker;
@@ -126,6 +128,8 @@ public class PostSyncProjectSetup {
    * Invoked after a project has been synced with Gradle.
    */
   public void setUpProject(@NotNull Request request, @Nullable ProgressIndicator progressIndicator) {
+    long start = System.currentTimeMillis();
+
     // Force a refresh after a sync.
     // https://code.google.com/p/android/issues/detail?id=229633
     ApplicationManager.getApplication()
@@ -150,6 +154,7 @@ public class PostSyncProjectSetup {
 
     if (syncFailed) {
       myProjectSetup.setUpProject(progressIndicator, true /* sync failed */);
+      mySyncState.phaseCompleted(POST_SYNC_SETUP_PHASE, System.currentTimeMillis() - start);
       // Notify "sync end" event first, to register the timestamp. Otherwise the cache (GradleProjectSyncData) will store the date of the
       // previous sync, and not the one from the sync that just ended.
       mySyncState.syncEnded();
@@ -177,6 +182,7 @@ public class PostSyncProjectSetup {
     String taskName = androidStudio ? MakeBeforeRunTaskProvider.TASK_NAME : ExecutionBundle.message("before.launch.compile.step");
     setMakeStepInJunitRunConfigurations(taskName);
 
+    mySyncState.phaseCompleted(POST_SYNC_SETUP_PHASE, System.currentTimeMillis() - start);
     notifySyncFinished(request);
     attemptToGenerateSources(request);
 
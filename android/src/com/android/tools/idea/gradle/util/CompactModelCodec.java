@@ -0,0 +1,570 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.gradle.util;
+
+import com.android.tools.idea.gradle.util.ProxyUtil.WrapperInvocationHandler;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static java.lang.reflect.Proxy.getInvocationHandler;
+import static java.lang.reflect.Proxy.isProxyClass;
+
+/**
+ * Binary encoding of models regenerated by {@link ProxyUtil#reproxy(java.lang.reflect.Type, Object)}, used to cache them between IDE
+ * sessions.
+ * <p>
+ * Compared to Java serialization, strings (file paths, artifact coordinates, method keys and interface names) are written once to a
+ * string table and referenced by index, and proxies shared by several parents are written once. The interface table records, for each
+ * proxied interface, the methods present in all of its instances, so a cached model can be checked against the current model
+ * interfaces with {@link #isValid(byte[], ClassLoader)} without building the model.
+ * <p>
+ * Values that are not strings, files, booleans, numbers, collections, enums or proxies fall back to Java serialization.
+ */
+public final class CompactModelCodec {
+  private static final int MAGIC = 0x414d4f44; // "AMOD"
+  // Increase the value when changing the format.
+  private static final int VERSION = 1;
+
+  private static final byte NULL = 0;
+  private static final byte STRING = 1;
+  private static final byte FILE = 2;
+  private static final byte TRUE = 3;
+  private static final byte FALSE = 4;
+  private static final byte INT = 5;
+  private static final byte LONG = 6;
+  private static final byte LIST = 7;
+  private static final byte SET = 8;
+  private static final byte MAP = 9;
+  private static final byte PROXY = 10;
+  private static final byte ENUM = 11;
+  private static final byte SERIALIZED = 12;
+  private static final byte REF = 13;
+
+  private CompactModelCodec() {
+  }
+
+  @NotNull
+  public static byte[] encode(@Nullable Object value) throws IOException {
+    return new Encoder().encode(value);
+  }
+
+  @Nullable
+  public static Object decode(@NotNull byte[] bytes, @NotNull ClassLoader classLoader) throws IOException {
+    return new Decoder(bytes, classLoader).decode();
+  }
+
+  /**
+   * Indicates whether the encoded proxies implement all the public methods of the current version of their interfaces, the same
+   * check {@link ProxyUtil#isValidProxyObject(Object)} does on a decoded model, and whether {@link #decode(byte[], ClassLoader)} would
+   * succeed. The encoded values are walked without creating the proxies and collections, so that a cache that is corrupted, written in
+   * another format version or referring to enum constants that no longer exist is rejected here rather than when the model is used.
+   */
+  public static boolean isValid(@NotNull byte[] bytes, @NotNull ClassLoader classLoader) {
+    try {
+      Decoder decoder = new Decoder(bytes, classLoader);
+      for (int i = 0; i < decoder.myInterfaceNames.length; i++) {
+        Class<?> type = decoder.getInterface(i);
+        Set<String> keys = Sets.newHashSet(decoder.myCommonKeys[i]);
+        for (Method m : type.getMethods()) {
+          if (Modifier.isPublic(m.getModifiers()) && !keys.contains(m.toGenericString())) {
+            return false;
+          }
+        }
+      }
+      decoder.check();
+      return true;
+    }
+    catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static class Encoder {
+    private final Map<String, Integer> myStrings = Maps.newLinkedHashMap();
+    private final Map<String, Integer> myInterfaces = Maps.newLinkedHashMap();
+    private final List<Set<String>> myCommonKeys = Lists.newArrayList();
+    private final Map<Object, Integer> myObjectIds = new IdentityHashMap<>();
+
+    @NotNull
+    byte[] encode(@Nullable Object value) throws IOException {
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      writeValue(new DataOutputStream(body), value);
+
+      // The interface table adds its keys to the string table, so it is written first.
+      ByteArrayOutputStream interfaces = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(interfaces);
+      writeVarInt(out, myInterfaces.size());
+      int index = 0;
+      for (String name : myInterfaces.keySet()) {
+        writeVarInt(out, stringId(name));
+        Set<String> keys = myCommonKeys.get(index++);
+        writeVarInt(out, keys.size());
+        for (String key : keys) {
+          writeVarInt(out, stringId(key));
+        }
+      }
+
+      ByteArrayOutputStream result = new ByteArrayOutputStream(body.size() + interfaces.size() + myStrings.size() * 16);
+      out = new DataOutputStream(result);
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      writeVarInt(out, myStrings.size());
+      for (String string : myStrings.keySet()) {
+        byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, utf8.length);
+        out.write(utf8);
+      }
+      interfaces.writeTo(out);
+      body.writeTo(out);
+      out.flush();
+      return result.toByteArray();
+    }
+
+    private void writeValue(@NotNull DataOutputStream out, @Nullable Object value) throws IOException {
+      if (value == null) {
+        out.writeByte(NULL);
+      }
+      else if (value instanceof String) {
+        out.writeByte(STRING);
+        writeVarInt(out, stringId((String)value));
+      }
+      else if (value instanceof File) {
+        out.writeByte(FILE);
+        writeVarInt(out, stringId(((File)value).getPath()));
+      }
+      else if (value instanceof Boolean) {
+        out.writeByte((Boolean)value ? TRUE : FALSE);
+      }
+      else if (value instanceof Integer) {
+        out.writeByte(INT);
+        out.writeInt((Integer)value);
+      }
+      else if (value instanceof Long) {
+        out.writeByte(LONG);
+        out.writeLong((Long)value);
+      }
+      else if (value instanceof Collection) {
+        Collection<?> collection = (Collection<?>)value;
+        out.writeByte(value instanceof Set ? SET : LIST);
+        writeVarInt(out, collection.size());
+        for (Object item : collection) {
+          writeValue(out, item);
+        }
+      }
+      else if (value instanceof Map) {
+        Map<?, ?> map = (Map<?, ?>)value;
+        out.writeByte(MAP);
+        writeVarInt(out, map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+          writeValue(out, entry.getKey());
+          writeValue(out, entry.getValue());
+        }
+      }
+      else if (value instanceof Enum) {
+        out.writeByte(ENUM);
+        writeVarInt(out, stringId(((Enum<?>)value).getDeclaringClass().getName()));
+        writeVarInt(out, stringId(((Enum<?>)value).name()));
+      }
+      else {
+        Integer id = myObjectIds.get(value);
+        if (id != null) {
+          out.writeByte(REF);
+          writeVarInt(out, id);
+          return;
+        }
+        // Ids are assigned before writing the contents, in the order the decoder creates the objects.
+        myObjectIds.put(value, myObjectIds.size());
+        if (isProxyClass(value.getClass()) && getInvocationHandler(value) instanceof WrapperInvocationHandler) {
+          writeProxy(out, value);
+        }
+        else {
+          ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+          try (ObjectOutputStream objectOut = new ObjectOutputStream(bytes)) {
+            objectOut.writeObject(value);
+          }
+          out.writeByte(SERIALIZED);
+          writeVarInt(out, bytes.size());
+          bytes.writeTo(out);
+        }
+      }
+    }
+
+    private void writeProxy(@NotNull DataOutputStream out, @NotNull Object proxy) throws IOException {
+      Class<?>[] interfaces = proxy.getClass().getInterfaces();
+      if (interfaces.length != 1) {
+        throw new NotSerializableException("Proxy with multiple interfaces: " + Arrays.toString(interfaces));
+      }
+      Map<String, Object> values = ((WrapperInvocationHandler)getInvocationHandler(proxy)).values;
+
+      String name = interfaces[0].getName();
+      Integer interfaceId = myInterfaces.get(name);
+      if (interfaceId == null) {
+        interfaceId = myInterfaces.size();
+        myInterfaces.put(name, interfaceId);
+        myCommonKeys.add(Sets.newLinkedHashSet(values.keySet()));
+      }
+      else {
+        myCommonKeys.get(interfaceId).retainAll(values.keySet());
+      }
+
+      // Keys are sorted so that equal models have the same encoding, whatever the iteration order of their values.
+      String[] keys = values.keySet().toArray(new String[values.size()]);
+      Arrays.sort(keys);
+
+      out.writeByte(PROXY);
+      writeVarInt(out, interfaceId);
+      writeVarInt(out, keys.length);
+      for (String key : keys) {
+        writeVarInt(out, stringId(key));
+        writeValue(out, values.get(key));
+      }
+    }
+
+    private int stringId(@NotNull String string) {
+      Integer id = myStrings.get(string);
+      if (id == null) {
+        id = myStrings.size();
+        myStrings.put(string, id);
+      }
+      return id;
+    }
+  }
+
+  private static class Decoder {
+    @NotNull private final ClassLoader myClassLoader;
+    @NotNull private final DataInputStream myIn;
+    @NotNull private final String[] myStrings;
+    @NotNull private final boolean[] myInterned;
+    @NotNull private final File[] myFiles;
+    @NotNull private final int[] myInterfaceNames;
+    @NotNull private final String[][] myCommonKeys;
+    @NotNull private final Class<?>[] myInterfaces;
+    @NotNull private final List<Object> myObjects = Lists.newArrayList();
+
+    Decoder(@NotNull byte[] bytes, @NotNull ClassLoader classLoader) throws IOException {
+      myClassLoader = classLoader;
+      myIn = new DataInputStream(new ByteArrayInputStream(bytes));
+      if (myIn.readInt() != MAGIC) {
+        throw new StreamCorruptedException("Not an encoded model");
+      }
+      int version = myIn.readInt();
+      if (version != VERSION) {
+        throw new InvalidClassException("Unsupported model encoding version " + version);
+      }
+
+      myStrings = new String[readLength()];
+      for (int i = 0; i < myStrings.length; i++) {
+        byte[] utf8 = new byte[readLength()];
+        myIn.readFully(utf8);
+        myStrings[i] = new String(utf8, StandardCharsets.UTF_8);
+      }
+      myInterned = new boolean[myStrings.length];
+      myFiles = new File[myStrings.length];
+
+      int interfaceCount = readLength();
+      myInterfaceNames = new int[interfaceCount];
+      myCommonKeys = new String[interfaceCount][];
+      myInterfaces = new Class<?>[interfaceCount];
+      for (int i = 0; i < interfaceCount; i++) {
+        myInterfaceNames[i] = readStringId();
+        String[] keys = new String[readLength()];
+        for (int j = 0; j < keys.length; j++) {
+          keys[j] = readMethodKey();
+        }
+        myCommonKeys[i] = keys;
+      }
+    }
+
+    @Nullable
+    Object decode() throws IOException {
+      return readValue();
+    }
+
+    /**
+     * Reads the encoded values the way {@link #decode()} does, failing on the same errors, but without creating the proxies and
+     * collections.
+     */
+    void check() throws IOException {
+      checkValue();
+    }
+
+    private void checkValue() throws IOException {
+      byte tag = myIn.readByte();
+      switch (tag) {
+        case NULL:
+        case TRUE:
+        case FALSE:
+          break;
+        case STRING:
+        case FILE:
+          readStringId();
+          break;
+        case INT:
+          myIn.readInt();
+          break;
+        case LONG:
+          myIn.readLong();
+          break;
+        case LIST:
+        case SET: {
+          int size = readLength();
+          for (int i = 0; i < size; i++) {
+            checkValue();
+          }
+          break;
+        }
+        case MAP: {
+          int size = readLength();
+          for (int i = 0; i < size; i++) {
+            checkValue();
+            checkValue();
+          }
+          break;
+        }
+        case ENUM:
+          readEnum();
+          break;
+        case PROXY: {
+          getInterface(readVarInt(myIn));
+          int size = readLength();
+          myObjects.add(null);
+          for (int i = 0; i < size; i++) {
+            readStringId();
+            checkValue();
+          }
+          break;
+        }
+        case SERIALIZED:
+          readSerialized();
+          break;
+        case REF: {
+          int id = readVarInt(myIn);
+          if (id < 0 || id >= myObjects.size()) {
+            throw new StreamCorruptedException("Invalid object reference " + id);
+          }
+          break;
+        }
+        default:
+          throw new StreamCorruptedException("Unknown tag " + tag);
+      }
+    }
+
+    @Nullable
+    private Object readValue() throws IOException {
+      byte tag = myIn.readByte();
+      switch (tag) {
+        case NULL:
+          return null;
+        case STRING:
+          return readString();
+        case FILE: {
+          int id = readStringId();
+          if (myFiles[id] == null) {
+            myFiles[id] = new File(myStrings[id]);
+          }
+          return myFiles[id];
+        }
+        case TRUE:
+          return Boolean.TRUE;
+        case FALSE:
+          return Boolean.FALSE;
+        case INT:
+          return myIn.readInt();
+        case LONG:
+          return myIn.readLong();
+        case LIST: {
+          int size = readLength();
+          List<Object> list = Lists.newArrayListWithCapacity(size);
+          for (int i = 0; i < size; i++) {
+            list.add(readValue());
+          }
+          return list;
+        }
+        case SET: {
+          int size = readLength();
+          Set<Object> set = Sets.newLinkedHashSetWithExpectedSize(size);
+          for (int i = 0; i < size; i++) {
+            set.add(readValue());
+          }
+          return set;
+        }
+        case MAP: {
+          int size = readLength();
+          Map<Object, Object> map = Maps.newLinkedHashMapWithExpectedSize(size);
+          for (int i = 0; i < size; i++) {
+            map.put(readValue(), readValue());
+          }
+          return map;
+        }
+        case ENUM:
+          return readEnum();
+        case PROXY:
+          return readProxy();
+        case SERIALIZED:
+          return readSerialized();
+        case REF: {
+          int id = readVarInt(myIn);
+          if (id < 0 || id >= myObjects.size()) {
+            throw new StreamCorruptedException("Invalid object reference " + id);
+          }
+          return myObjects.get(id);
+        }
+        default:
+          throw new StreamCorruptedException("Unknown tag " + tag);
+      }
+    }
+
+    @NotNull
+    private String readString() throws IOException {
+      return myStrings[readStringId()];
+    }
+
+    private int readStringId() throws IOException {
+      int id = readVarInt(myIn);
+      if (id < 0 || id >= myStrings.length) {
+        throw new StreamCorruptedException("Invalid string reference " + id);
+      }
+      return id;
+    }
+
+    /**
+     * Reads the size of a table, collection or byte array. Each element takes at least one byte, so a size larger than the remaining
+     * input comes from corrupted data, and is rejected before allocating anything.
+     */
+    private int readLength() throws IOException {
+      int length = readVarInt(myIn);
+      if (length < 0 || length > myIn.available()) {
+        throw new StreamCorruptedException("Invalid length " + length);
+      }
+      return length;
+    }
+
+    @NotNull
+    private String readMethodKey() throws IOException {
+      // Method keys are interned by ProxyUtil#reproxy too, as they are shared by all the instances of an interface.
+      int id = readStringId();
+      if (!myInterned[id]) {
+        myStrings[id] = myStrings[id].intern();
+        myInterned[id] = true;
+      }
+      return myStrings[id];
+    }
+
+    @SuppressWarnings("unchecked")
+    @NotNull
+    private Object readEnum() throws IOException {
+      String className = readString();
+      String name = readString();
+      try {
+        return Enum.valueOf((Class<Enum>)Class.forName(className, false, myClassLoader), name);
+      }
+      catch (ClassNotFoundException | IllegalArgumentException e) {
+        throw new InvalidClassException(className, e.toString());
+      }
+    }
+
+    @NotNull
+    private Object readProxy() throws IOException {
+      Class<?> type = getInterface(readVarInt(myIn));
+      int size = readLength();
+      Map<String, Object> values = Maps.newHashMapWithExpectedSize(size);
+      Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, new WrapperInvocationHandler(values));
+      // Registered before reading the values, to match the ids assigned by the encoder.
+      myObjects.add(proxy);
+      for (int i = 0; i < size; i++) {
+        String key = readMethodKey();
+        values.put(key, readValue());
+      }
+      return proxy;
+    }
+
+    @NotNull
+    private Object readSerialized() throws IOException {
+      // Reserve the id before reading, as the encoder does.
+      int id = myObjects.size();
+      myObjects.add(null);
+      byte[] bytes = new byte[readLength()];
+      myIn.readFully(bytes);
+      try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes)) {
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+          try {
+            return Class.forName(desc.getName(), false, myClassLoader);
+          }
+          catch (ClassNotFoundException e) {
+            return super.resolveClass(desc);
+          }
+        }
+      }) {
+        Object value = in.readObject();
+        myObjects.set(id, value);
+        return value;
+      }
+      catch (ClassNotFoundException e) {
+        throw new InvalidClassException(e.getMessage());
+      }
+    }
+
+    @NotNull
+    Class<?> getInterface(int index) throws IOException {
+      if (index < 0 || index >= myInterfaces.length) {
+        throw new StreamCorruptedException("Invalid interface reference " + index);
+      }
+      Class<?> type = myInterfaces[index];
+      if (type == null) {
+        String name = myStrings[myInterfaceNames[index]];
+        try {
+          type = Class.forName(name, false, myClassLoader);
+        }
+        catch (ClassNotFoundException e) {
+          throw new InvalidClassException(name, "Model interface not found");
+        }
+        myInterfaces[index] = type;
+      }
+      return type;
+    }
+  }
+
+  private static void writeVarInt(@NotNull DataOutput out, int value) throws IOException {
+    while ((value & ~0x7f) != 0) {
+      out.writeByte((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  private static int readVarInt(@NotNull DataInput in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      byte b = in.readByte();
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new StreamCorruptedException("Malformed variable length integer");
+  }
+}
@@ -54,6 +54,8 @@ public abstract class AndroidLogFilterModel extends LogFilterModel {
 
   @Nullable private LogCatHeader myPrevHeader;
   @Nullable private LogCatTimestamp myRejectBeforeTime;
+  /** The header of the next line, if it belongs to a message already accepted by the filters, see {@link #acceptNextLine} */
+  @Nullable private LogCatHeader myAcceptedHeader;
 
   /**
    * A regex which is tested against unprocessed log input. Contrast with
@@ -133,6 +135,28 @@ public abstract class AndroidLogFilterModel extends LogFilterModel {
   }
 
 
+  /**
+   * Returns the current state of this model as a filter of parsed logcat messages, which accepts the same messages as
+   * {@link #processLine(String)}.
+   */
+  @NotNull
+  LogcatMessageFilter createMessageFilter() {
+    AndroidLogLevelFilter logLevelFilter = (AndroidLogLevelFilter)getSelectedLogLevelFilter();
+    return new LogcatMessageFilter(logLevelFilter != null ? logLevelFilter.myLogLevel : null, myConfiguredFilter, myCustomPattern,
+                                   myRejectBeforeTime);
+  }
+
+  /**
+   * Makes the next call of {@link #processLine(String)} accept the line without parsing and filtering it again, because it belongs
+   * to a message already accepted by a filter created by {@link #createMessageFilter()}, e.g. a message replayed from the logcat
+   * buffer.
+   *
+   * @param header the header of the message the line belongs to
+   */
+  void acceptNextLine(@NotNull LogCatHeader header) {
+    myAcceptedHeader = header;
+  }
+
   private void fireTextFilterChange() {
     for (LogFilterListener listener : myListeners) {
       listener.onTextFilterChange();
@@ -222,6 +246,7 @@ public abstract class AndroidLogFilterModel extends LogFilterModel {
   public void processingStarted() {
     myPrevHeader = null;
     myRejectBeforeTime = null;
+    myAcceptedHeader = null;
     myCustomApplicable = false;
     myConfiguredApplicable = false;
     myMessageSoFar.setLength(0);
@@ -230,6 +255,16 @@ public abstract class AndroidLogFilterModel extends LogFilterModel {
   @Override
   @NotNull
   public final MyProcessingResult processLine(String line) {
+    LogCatHeader acceptedHeader = myAcceptedHeader;
+    if (acceptedHeader != null) {
+      myAcceptedHeader = null;
+      myPrevHeader = acceptedHeader;
+      myCustomApplicable = true;
+      myConfiguredApplicable = true;
+      myMessageSoFar.setLength(0);
+      return new MyProcessingResult(AndroidLogcatUtils.getProcessOutputType(acceptedHeader.getLogLevel()), true, "");
+    }
+
     LogCatMessage message = AndroidLogcatFormatter.tryParseMessage(line);
     String continuation = (message == null) ? AndroidLogcatFormatter.tryParseContinuation(line) : null;
 
@@ -35,12 +35,16 @@ import net.jcip.annotations.ThreadSafe;
 import org.jetbrains.android.util.AndroidBundle;
 import org.jetbrains.android.util.AndroidUtils;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
+import org.jetbrains.ide.PooledThreadExecutor;
 
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
 /**
  * {@link AndroidLogcatService} is the class that manages logs in all connected devices and emulators.
@@ -53,28 +57,28 @@ public final class AndroidLogcatService implements AndroidDebugBridge.IDeviceCha
     return Logger.getInstance(AndroidLogcatService.class);
   }
 
-  private static class LogcatBuffer {
-    private int myBufferSize;
-    private final LinkedList<LogCatMessage> myMessages = new LinkedList<>();
-
-    public void addMessage(@NotNull LogCatMessage message) {
-      myMessages.add(message);
-      myBufferSize += message.getMessage().length();
-      if (ConsoleBuffer.useCycleBuffer()) {
-        while (myBufferSize > ConsoleBuffer.getCycleBufferSize()) {
-          myBufferSize -= myMessages.removeFirst().getMessage().length();
-        }
-      }
-    }
+  /**
+   * Number of old messages looked at for each batch passed to a new listener, see {@link #addListener(IDevice, LogcatListener, boolean)}.
+   * Filtered batches are evaluated in parallel chunks after releasing the lock, so they are larger than a chunk.
+   */
+  private static final int REPLAY_BATCH_SIZE = 16 * 1024;
 
-    @NotNull
-    public List<LogCatMessage> getMessages() {
-      return myMessages;
-    }
-  }
+  /**
+   * Maximum size, in MB, of the temporary files used to keep the messages that no longer fit in the logcat cycle buffer.
+   * The default of 0 discards them.
+   */
+  private static final int SPILL_SIZE_MB = Integer.getInteger("android.logcat.spill.size.mb", 0);
 
   public interface LogcatListener {
     default void onLogLineReceived(@NotNull LogCatMessage line) {}
+
+    /**
+     * Receives the old lines replayed by {@link #replayLogs}, which were already accepted by the filter it was given
+     */
+    default void onFilteredLogLineReceived(@NotNull LogCatMessage line) {
+      onLogLineReceived(line);
+    }
+
     default void onCleared() {}
   }
 
@@ -115,7 +119,7 @@ public final class AndroidLogcatService implements AndroidDebugBridge.IDeviceCha
       connect(device);
       final AndroidLogcatReceiver receiver = createReceiver(device);
       myLogReceivers.put(device, receiver);
-      myLogBuffers.put(device, new LogcatBuffer());
+      myLogBuffers.put(device, createBuffer());
       ExecutorService executor = myExecutors.get(device);
       executor.submit((() -> {
         try {
@@ -132,6 +136,12 @@ public final class AndroidLogcatService implements AndroidDebugBridge.IDeviceCha
     }
   }
 
+  @NotNull
+  private static LogcatBuffer createBuffer() {
+    int maxChars = ConsoleBuffer.useCycleBuffer() ? ConsoleBuffer.getCycleBufferSize() : Integer.MAX_VALUE;
+    return new LogcatBuffer(maxChars, SPILL_SIZE_MB * 1024L * 1024L, PooledThreadExecutor.INSTANCE);
+  }
+
   @NotNull
   private AndroidLogcatReceiver createReceiver(@NotNull final IDevice device) {
     final LogcatListener logcatListener = new LogcatListener() {
@@ -174,7 +184,7 @@ public final class AndroidLogcatService implements AndroidDebugBridge.IDeviceCha
       if (myLogReceivers.containsKey(device)) {
         myLogReceivers.get(device).cancel();
         myLogReceivers.remove(device);
-        myLogBuffers.remove(device);
+        myLogBuffers.remove(device).dispose();
       }
     }
   }
@@ -227,24 +237,63 @@ public final class AndroidLogcatService implements AndroidDebugBridge.IDeviceCha
    * first: "Line1" with a header, second: "Line2" with the same header.
    * Listeners are invoked in a pooled thread, and they are triggered A LOT. You should be very careful if delegating this text
    * to a UI thread. For example, don't directly invoke a runnable on the UI thread per line, but consider batching many log lines first.
+   * <p>
+   * Old logs are passed to the listener in batches, filtered and delivered without holding the lock, so new log lines keep being
+   * received during the replay. The listener only starts receiving new lines once it has caught up with the buffer.
    */
   public void addListener(@NotNull IDevice device, @NotNull LogcatListener listener, boolean addOldLogs) {
-    synchronized (myLock) {
-      if (addOldLogs && myLogBuffers.containsKey(device)) {
-        for (LogCatMessage line : myLogBuffers.get(device).getMessages()) {
-          listener.onLogLineReceived(line);
+    addListener(device, listener, addOldLogs ? LogcatMessageFilter.ACCEPT_ALL : null);
+  }
+
+  /**
+   * Like {@link #addListener(IDevice, LogcatListener, boolean)}, but only notifies the listener of the old log messages accepted
+   * by the given filter, or of none if it is null. New log lines are always passed unfiltered.
+   */
+  void addListener(@NotNull IDevice device, @NotNull LogcatListener listener, @Nullable LogcatMessageFilter oldLogsFilter) {
+    addListener(device, listener, oldLogsFilter, listener::onLogLineReceived, () -> false);
+  }
+
+  /**
+   * @param oldLogsConsumer receives the old log messages accepted by {@code oldLogsFilter}
+   * @param isCancelled     checked before each batch of old log messages; once it returns true, the remaining old log messages are
+   *                        skipped and the listener is added right away
+   */
+  private void addListener(@NotNull IDevice device,
+                           @NotNull LogcatListener listener,
+                           @Nullable LogcatMessageFilter oldLogsFilter,
+                           @NotNull Consumer<LogCatMessage> oldLogsConsumer,
+                           @NotNull BooleanSupplier isCancelled) {
+    LogcatBuffer.Cursor cursor = null;
+    while (true) {
+      LogcatBuffer.FilterBatch batch = null;
+      synchronized (myLock) {
+        LogcatBuffer buffer = myLogBuffers.get(device);
+        if (oldLogsFilter != null && buffer != null && !isCancelled.getAsBoolean()) {
+          if (cursor == null) {
+            cursor = buffer.createCursor();
+          }
+          // If the buffer was replaced (e.g. the logcat was cleared), there is nothing left to replay
+          if (cursor.isFor(buffer)) {
+            batch = buffer.readBatch(cursor, REPLAY_BATCH_SIZE, oldLogsFilter);
+          }
         }
-      }
 
-      if (!myListeners.containsKey(device)) {
-        myListeners.put(device, new ArrayList<>());
-      }
+        if (batch == null) {
+          if (!myListeners.containsKey(device)) {
+            myListeners.put(device, new ArrayList<>());
+          }
 
-      myListeners.get(device).add(listener);
+          myListeners.get(device).add(listener);
 
-      if (device.isOnline()) {
-        startReceiving(device);
+          if (device.isOnline()) {
+            startReceiving(device);
+          }
+          return;
+        }
       }
+
+      // Only the headers were checked while holding the lock; the search pattern and the configured filter are evaluated here
+      batch.filter(oldLogsConsumer);
     }
   }
 
@@ -255,6 +304,25 @@ public final class AndroidLogcatService implements AndroidDebugBridge.IDeviceCha
     addListener(device, listener, false);
   }
 
+  /**
+   * Passes the log messages received so far that are accepted by the given filter to a listener already added for the device, for
+   * example after the listener's filter changed, through {@link LogcatListener#onFilteredLogLineReceived}. The listener does not
+   * receive new lines until it has caught up, or until the replay is cancelled, e.g. because the filter changed again.
+   */
+  void replayLogs(@NotNull IDevice device,
+                  @NotNull LogcatListener listener,
+                  @NotNull LogcatMessageFilter filter,
+                  @NotNull BooleanSupplier isCancelled) {
+    synchronized (myLock) {
+      List<LogcatListener> listeners = myListeners.get(device);
+      // Unlike removeListener, keep receiving from the device while the listener catches up
+      if (listeners == null || !listeners.remove(listener)) {
+        return;
+      }
+    }
+    addListener(device, listener, filter, listener::onFilteredLogLineReceived, isCancelled);
+  }
+
   public void removeListener(@NotNull IDevice device, @NotNull LogcatListener listener) {
     synchronized (myLock) {
       if (myListeners.containsKey(device)) {
@@ -297,6 +365,9 @@ public final class AndroidLogcatService implements AndroidDebugBridge.IDeviceCha
       for (AndroidLogcatReceiver receiver : myLogReceivers.values()) {
         receiver.cancel();
       }
+      for (LogcatBuffer buffer : myLogBuffers.values()) {
+        buffer.dispose();
+      }
     }
   }
 }
@@ -18,15 +18,18 @@ package com.android.tools.idea.logcat;
 import com.android.ddmlib.Client;
 import com.android.ddmlib.ClientData;
 import com.android.ddmlib.IDevice;
+import com.android.ddmlib.logcat.LogCatHeader;
 import com.android.tools.idea.actions.BrowserHelpAction;
 import com.android.tools.idea.ddms.DeviceContext;
 import com.intellij.diagnostic.logging.LogConsoleBase;
+import com.intellij.diagnostic.logging.LogFilter;
 import com.intellij.diagnostic.logging.LogFormatter;
 import com.intellij.execution.impl.ConsoleViewImpl;
 import com.intellij.execution.ui.ConsoleView;
 import com.intellij.icons.AllIcons;
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.actionSystem.*;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.progress.Task;
@@ -49,6 +52,8 @@ import java.awt.*;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 
 import static javax.swing.BoxLayout.X_AXIS;
 
@@ -159,6 +164,11 @@ public abstract class AndroidLogcatView implements Disposable {
         myLogConsole.addLogLine(line);
       }
 
+      @Override
+      protected void receiveFilteredFormattedLogLine(@NotNull LogCatHeader header, @NotNull String line) {
+        myLogConsole.addFilteredLogLine(header, line);
+      }
+
       @Override
       public void onCleared() {
         myLogFilterModel.beginRejectingOldMessages();
@@ -456,6 +466,8 @@ public abstract class AndroidLogcatView implements Disposable {
   final class AndroidLogConsole extends LogConsoleBase {
     private final RegexFilterComponent myRegexFilterComponent = new RegexFilterComponent("LOG_FILTER_HISTORY", 5);
     private final AndroidLogcatPreferences myPreferences;
+    private final Object myReplayLock = new Object();
+    private final AtomicInteger myReplayGeneration = new AtomicInteger();
 
     public AndroidLogConsole(Project project, AndroidLogFilterModel logFilterModel, LogFormatter logFormatter) {
       super(project, null, "", false, logFilterModel, GlobalSearchScope.allScope(project), logFormatter);
@@ -502,6 +514,58 @@ public abstract class AndroidLogcatView implements Disposable {
       super.addMessage(line);
     }
 
+    /**
+     * Adds a line of a message already accepted by the current filters, without filtering it again
+     */
+    public void addFilteredLogLine(@NotNull LogCatHeader header, @NotNull String line) {
+      myLogFilterModel.acceptNextLine(header);
+      super.addMessage(line);
+    }
+
+    @Override
+    public void onTextFilterChange() {
+      if (!replayLogs()) {
+        super.onTextFilterChange();
+      }
+    }
+
+    @Override
+    public void onFilterStateChange(LogFilter filter) {
+      if (!replayLogs()) {
+        super.onFilterStateChange(filter);
+      }
+    }
+
+    /**
+     * Refilters the messages of the current device from the logcat buffer, which is indexed by log level, pid and tag, rather than
+     * reprocessing every line of the console. A replay still in progress is cancelled, as the console is cleared again anyway.
+     *
+     * @return false if there is no device to replay the messages of
+     */
+    private boolean replayLogs() {
+      IDevice device = myDevice;
+      if (device == null || getConsole() == null) {
+        return false;
+      }
+
+      LogcatMessageFilter filter = myLogFilterModel.createMessageFilter();
+      int generation = myReplayGeneration.incrementAndGet();
+      BooleanSupplier isSuperseded = () -> myReplayGeneration.get() != generation;
+      ApplicationManager.getApplication().executeOnPooledThread(() -> {
+        synchronized (myReplayLock) {
+          if (device != myDevice) {
+            return; // The console was cleared when the device changed, and the old messages of the new device were added
+          }
+          if (isSuperseded.getAsBoolean()) {
+            return; // The filter changed again, the newer replay will clear the console
+          }
+          clear();
+          AndroidLogcatService.getInstance().replayLogs(device, myLogcatReceiver, filter, isSuperseded);
+        }
+      });
+      return true;
+    }
+
     /**
      * Clear the current logs and replay all old messages. This is useful to do if the display
      * format of the logs have changed, for example.
@@ -31,6 +31,8 @@ public final class DefaultAndroidLogcatFilter implements AndroidLogcatFilter {
   @Nullable private final Pattern myTagPattern;
   @Nullable private final Pattern myPkgNamePattern;
   @Nullable private final String myPid;
+  /** {@link #myPid} as an int, or null if it is not set or is not a valid pid (and then no pid matches) */
+  @Nullable private final Integer myPidValue;
   @Nullable private final Log.LogLevel myLogLevel;
 
   public static final class Builder {
@@ -94,33 +96,67 @@ public final class DefaultAndroidLogcatFilter implements AndroidLogcatFilter {
     myTagPattern = tagPattern;
     myPkgNamePattern = pkgNamePattern;
     myPid = pid;
+    myPidValue = parsePid(pid);
     myLogLevel = logLevel;
   }
 
+  @Nullable
+  private static Integer parsePid(@Nullable String pid) {
+    if (pid == null || pid.isEmpty()) {
+      return null;
+    }
+    try {
+      Integer value = Integer.valueOf(pid);
+      return pid.equals(value.toString()) ? value : null;
+    }
+    catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
   @Override
   public boolean isApplicable(@NotNull String message, @NotNull String tag, @NotNull String pkg, int pid, @NotNull Log.LogLevel logLevel) {
-    if (myLogLevel != null && (logLevel.getPriority() < myLogLevel.getPriority())) {
-      return false;
-    }
+    return acceptsLogLevel(logLevel) && acceptsMessage(message) && acceptsTag(tag) && acceptsPackage(pkg) && acceptsPid(pid);
+  }
 
-    if (myMessagePattern != null && !myMessagePattern.matcher(message).find()) {
-      return false;
-    }
+  // The individual checks below let LogcatBuffer evaluate the header checks once per tag, package or pid instead of once per line
 
-    if (myTagPattern != null && !myTagPattern.matcher(tag).find()) {
-      return false;
-    }
+  boolean acceptsLogLevel(@NotNull Log.LogLevel logLevel) {
+    return myLogLevel == null || logLevel.getPriority() >= myLogLevel.getPriority();
+  }
 
-    if (myPkgNamePattern != null && !myPkgNamePattern.matcher(pkg).find()) {
-      return false;
-    }
+  boolean acceptsMessage(@NotNull String message) {
+    return myMessagePattern == null || myMessagePattern.matcher(message).find();
+  }
 
+  boolean acceptsTag(@NotNull String tag) {
+    return myTagPattern == null || myTagPattern.matcher(tag).find();
+  }
+
+  boolean acceptsPackage(@NotNull String pkg) {
+    return myPkgNamePattern == null || myPkgNamePattern.matcher(pkg).find();
+  }
+
+  boolean acceptsPid(int pid) {
     // TODO: If we're always checking against an int pid anyway, why let myPid be a string?
-    if ((myPid != null && myPid.length() > 0) && !myPid.equals(Integer.toString(pid))) {
-      return false;
-    }
+    return myPid == null || myPid.isEmpty() || (myPidValue != null && myPidValue == pid);
+  }
+
+  boolean hasTagPattern() {
+    return myTagPattern != null;
+  }
+
+  /**
+   * Returns the only pid accepted by this filter, or null if the filter does not select a single valid pid
+   */
+  @Nullable
+  Integer getPidValue() {
+    return myPidValue;
+  }
 
-    return true;
+  @Nullable
+  Log.LogLevel getLogLevel() {
+    return myLogLevel;
   }
 
   @Override
@@ -24,15 +24,32 @@ abstract class FormattedLogcatReceiver implements AndroidLogcatService.LogcatLis
 
   @Override
   public final void onLogLineReceived(@NotNull LogCatMessage line) {
+    receiveFormattedLogLine(format(line));
+  }
+
+  @Override
+  public final void onFilteredLogLineReceived(@NotNull LogCatMessage line) {
+    receiveFilteredFormattedLogLine(line.getHeader(), format(line));
+  }
+
+  @NotNull
+  private String format(@NotNull LogCatMessage line) {
     if (!line.getHeader().equals(myActiveHeader)) {
       myActiveHeader = line.getHeader();
-      String message = AndroidLogcatFormatter.formatMessageFull(myActiveHeader, line.getMessage());
-      receiveFormattedLogLine(message);
+      return AndroidLogcatFormatter.formatMessageFull(myActiveHeader, line.getMessage());
     } else {
-      String message = AndroidLogcatFormatter.formatContinuation(line.getMessage());
-      receiveFormattedLogLine(message);
+      return AndroidLogcatFormatter.formatContinuation(line.getMessage());
     }
   }
 
   protected abstract void receiveFormattedLogLine(@NotNull String line);
+
+  /**
+   * Receives a line of a message already accepted by the filter of a replay, see {@link AndroidLogcatService#replayLogs}
+   *
+   * @param header the header of the message the line belongs to
+   */
+  protected void receiveFilteredFormattedLogLine(@NotNull LogCatHeader header, @NotNull String line) {
+    receiveFormattedLogLine(line);
+  }
 }
@@ -0,0 +1,939 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.logcat;
+
+import com.android.ddmlib.Log;
+import com.android.ddmlib.logcat.LogCatHeader;
+import com.android.ddmlib.logcat.LogCatMessage;
+import com.android.ddmlib.logcat.LogCatTimestamp;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TObjectIntHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Stores the logcat messages received from a device.
+ * <p>
+ * Messages are kept in a ring buffer of primitive columns: tags and application names are interned, timestamps are packed into
+ * a long and the message text is copied into a circular char arena, so storing a message does not retain any of the objects
+ * created by the logcat receiver. When the buffer is full, the oldest messages are dropped or, if a spill size is set, moved to
+ * temporary files on disk, so the history is not limited by the heap.
+ * <p>
+ * Every message is assigned a sequence number. Messages are read back in order with a {@link Cursor}, in batches, so a new
+ * listener can be caught up without copying the whole history.
+ * <p>
+ * The messages in memory are also indexed by log level, pid and tag so the history can be filtered with a
+ * {@link LogcatMessageFilter} without looking at the messages the filter can not accept. The remaining messages are
+ * evaluated in parallel chunks.
+ * <p>
+ * This class is not thread safe; {@link AndroidLogcatService} only accesses it while holding its lock. The {@link FilterBatch}es
+ * returned by {@link #readBatch} do not reference the buffer, so they are filtered after releasing that lock.
+ */
+final class LogcatBuffer {
+  private static final Logger LOG = Logger.getInstance(LogcatBuffer.class);
+
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final Log.LogLevel[] LOG_LEVELS = Log.LogLevel.values();
+  /** Size of a spilled record without the message characters, see {@link #writeRecord} */
+  private static final int RECORD_HEADER_SIZE = 8 + 1 + 4 * 4 + 8 + 4;
+  /** Maximum number of messages filtered by a single step of a filtered read */
+  private static final int FILTER_WINDOW_SIZE = 1 << 16;
+  /** Number of messages evaluated by each parallel filter task */
+  private static final int FILTER_CHUNK_SIZE = 4096;
+
+  /** Maximum number of chars kept in memory. Each message also counts for 1 char so empty messages can not grow the buffer forever */
+  private final int myMaxChars;
+  /** Maximum number of bytes spilled to disk, or 0 to drop the messages evicted from memory */
+  private final long myMaxSpillBytes;
+
+  // Interned tags and application names
+  private final TObjectIntHashMap<String> myStringIds = new TObjectIntHashMap<>();
+  private final List<String> myStrings = new ArrayList<>();
+
+  // Message columns, the oldest message is at myHead
+  private int myCapacity = INITIAL_CAPACITY;
+  private byte[] myLevels = new byte[INITIAL_CAPACITY];
+  private int[] myPids = new int[INITIAL_CAPACITY];
+  private int[] myTids = new int[INITIAL_CAPACITY];
+  private int[] myAppNameIds = new int[INITIAL_CAPACITY];
+  private int[] myTagIds = new int[INITIAL_CAPACITY];
+  private long[] myTimestamps = new long[INITIAL_CAPACITY];
+  private int[] myTextStarts = new int[INITIAL_CAPACITY];
+  private int[] myTextLengths = new int[INITIAL_CAPACITY];
+  private int myHead;
+  private int mySize;
+
+  // Circular arena with the text of the messages, the text of the oldest message starts at myTextStarts[myHead]
+  private char[] myChars = new char[INITIAL_CAPACITY * 16];
+  private int myCharCount;
+  private int myUsedChars;
+
+  /** Sequence number of the oldest message in memory */
+  private long myFirstSequence;
+
+  @Nullable private SpillFile myOlderSpill;
+  @Nullable private SpillFile myCurrentSpill;
+  private boolean myDisposed;
+
+  // The timestamp of the last added message, which is usually shared by the following messages
+  @Nullable private LogCatTimestamp myLastTimestamp;
+  private long myLastPackedTimestamp;
+
+  // Inverted indexes from log levels, pids and tags to the sequence numbers of the messages. They may contain the sequence
+  // numbers of messages no longer in memory, which are removed from time to time.
+  private final SequenceList[] myLevelIndex = new SequenceList[LOG_LEVELS.length];
+  private final TIntObjectHashMap<SequenceList> myPidIndex = new TIntObjectHashMap<>();
+  private final TIntObjectHashMap<SequenceList> myTagIndex = new TIntObjectHashMap<>();
+  private int myEvictedSinceIndexCompaction;
+
+  @NotNull private final Executor myFilterExecutor;
+
+  /**
+   * @param maxChars      the maximum number of message characters kept in memory
+   * @param maxSpillBytes the maximum number of bytes used to store older messages on disk, or 0 to discard them
+   */
+  LogcatBuffer(int maxChars, long maxSpillBytes) {
+    this(maxChars, maxSpillBytes, Runnable::run);
+  }
+
+  /**
+   * @param filterExecutor the executor used to filter the messages in parallel
+   */
+  LogcatBuffer(int maxChars, long maxSpillBytes, @NotNull Executor filterExecutor) {
+    myMaxChars = maxChars;
+    myMaxSpillBytes = maxSpillBytes;
+    myFilterExecutor = filterExecutor;
+    for (int i = 0; i < myLevelIndex.length; i++) {
+      myLevelIndex[i] = new SequenceList();
+    }
+  }
+
+  public void addMessage(@NotNull LogCatMessage message) {
+    if (myDisposed) {
+      return;
+    }
+
+    String text = message.getMessage();
+    int length = text.length();
+    while (mySize > 0 && (long)myUsedChars + length + 1 > myMaxChars) {
+      evictOldest();
+    }
+    if (mySize == myCapacity) {
+      growColumns();
+    }
+    if (myCharCount + length > myChars.length) {
+      growChars(myCharCount + length);
+    }
+
+    int index = (myHead + mySize) % myCapacity;
+    int start = mySize == 0 ? 0 : (myTextStarts[myHead] + myCharCount) % myChars.length;
+    if (mySize == 0) {
+      myCharCount = 0;
+    }
+    myLevels[index] = (byte)message.getLogLevel().ordinal();
+    myPids[index] = message.getPid();
+    myTids[index] = message.getTid();
+    myAppNameIds[index] = intern(message.getAppName());
+    myTagIds[index] = intern(message.getTag());
+    myTimestamps[index] = packTimestamp(message.getTimestamp());
+    myTextStarts[index] = start;
+    myTextLengths[index] = length;
+
+    int firstPart = Math.min(length, myChars.length - start);
+    text.getChars(0, firstPart, myChars, start);
+    text.getChars(firstPart, length, myChars, 0);
+    myCharCount += length;
+    myUsedChars += length + 1;
+    long sequence = myFirstSequence + mySize;
+    mySize++;
+
+    myLevelIndex[myLevels[index]].add(sequence);
+    getIndexList(myPidIndex, myPids[index]).add(sequence);
+    getIndexList(myTagIndex, myTagIds[index]).add(sequence);
+
+    if ((long)length + 1 > myMaxChars) {
+      // The message can not fit in memory on its own
+      evictOldest();
+    }
+  }
+
+  /**
+   * Returns the number of messages kept in memory
+   */
+  public int getSize() {
+    return mySize;
+  }
+
+  /**
+   * Returns a cursor positioned at the oldest available message
+   */
+  @NotNull
+  public Cursor createCursor() {
+    return new Cursor(this, getOldestSequence());
+  }
+
+  /**
+   * Reads up to {@code maxCount} messages starting at the position of the given cursor, and moves the cursor after them. Messages
+   * that were discarded since the last read are skipped.
+   *
+   * @return the number of messages read, 0 once the cursor has reached the newest message
+   */
+  public int read(@NotNull Cursor cursor, int maxCount, @NotNull Consumer<LogCatMessage> consumer) {
+    if (cursor.myBuffer != this) {
+      throw new IllegalArgumentException("The cursor was created by a different buffer");
+    }
+    if (myDisposed) {
+      return 0;
+    }
+
+    cursor.myNextSequence = Math.max(cursor.myNextSequence, getOldestSequence());
+    if (cursor.myNextSequence < myFirstSequence) {
+      try {
+        return readSpilled(cursor, maxCount, consumer);
+      }
+      catch (IOException e) {
+        LOG.warn("Unable to read the spilled logcat messages", e);
+        closeSpill();
+        cursor.myNextSequence = myFirstSequence;
+      }
+    }
+
+    HeaderCache headers = new HeaderCache();
+    int offset = (int)(cursor.myNextSequence - myFirstSequence);
+    int count = Math.min(maxCount, mySize - offset);
+    for (int i = 0; i < count; i++) {
+      int index = (myHead + offset + i) % myCapacity;
+      LogCatHeader header = headers.get(myLevels[index], myPids[index], myTids[index], myAppNameIds[index], myTagIds[index],
+                                        myTimestamps[index]);
+      consumer.accept(new LogCatMessage(header, getText(index)));
+    }
+    cursor.myNextSequence += count;
+    return count;
+  }
+
+  /**
+   * Reads the messages accepted by the given filter starting at the position of the given cursor, and moves the cursor after the
+   * messages that were looked at. Multi-line messages are accepted or rejected as a whole, see {@link LogcatMessageFilter}.
+   * <p>
+   * The messages are filtered on the calling thread; to filter them without holding the lock that guards the buffer, use
+   * {@link #readBatch} instead.
+   *
+   * @param maxCount the number of accepted messages after which the read stops; more messages may be read, as messages are
+   *                 filtered in large windows
+   * @return the number of messages read, 0 once the cursor has reached the newest message
+   */
+  public int read(@NotNull Cursor cursor, int maxCount, @NotNull LogcatMessageFilter filter, @NotNull Consumer<LogCatMessage> consumer) {
+    if (filter == LogcatMessageFilter.ACCEPT_ALL) {
+      return read(cursor, maxCount, consumer);
+    }
+
+    int count = 0;
+    FilterBatch batch;
+    while (count < maxCount && (batch = readBatch(cursor, FILTER_WINDOW_SIZE, filter)) != null) {
+      count += batch.filter(consumer);
+    }
+    return count;
+  }
+
+  /**
+   * Selects the messages that may be accepted by the given filter, starting at the position of the given cursor, and moves the
+   * cursor after the messages that were looked at. Only the message headers are checked here, using the indexes; the selected
+   * messages are copied into a batch, whose search pattern and configured filter are evaluated by {@link FilterBatch#filter}
+   * without accessing the buffer.
+   *
+   * @param maxCount the number of messages to look at; more messages are looked at so multi-line messages in memory are not split
+   * @return the selected messages, which may be none, or null once the cursor has reached the newest message
+   */
+  @Nullable
+  public FilterBatch readBatch(@NotNull Cursor cursor, int maxCount, @NotNull LogcatMessageFilter filter) {
+    if (cursor.myBuffer != this) {
+      throw new IllegalArgumentException("The cursor was created by a different buffer");
+    }
+    if (myDisposed) {
+      return null;
+    }
+
+    FilterBatch batch = new FilterBatch(filter, myFilterExecutor);
+    if (filter == LogcatMessageFilter.ACCEPT_ALL) {
+      return read(cursor, maxCount, message -> batch.add(message, false)) > 0 ? batch : null;
+    }
+
+    cursor.myNextSequence = Math.max(cursor.myNextSequence, getOldestSequence());
+    if (cursor.myNextSequence < myFirstSequence) {
+      // Spilled messages are not indexed, and they are read sequentially anyway. A multi-line message split across two batches
+      // is filtered as two messages.
+      List<LogCatMessage> messages = new ArrayList<>();
+      try {
+        readSpilled(cursor, maxCount, messages::add);
+      }
+      catch (IOException e) {
+        LOG.warn("Unable to read the spilled logcat messages", e);
+        closeSpill();
+        cursor.myNextSequence = myFirstSequence;
+      }
+      if (!messages.isEmpty()) {
+        LogCatHeader previous = null;
+        for (LogCatMessage message : messages) {
+          LogCatHeader header = message.getHeader();
+          if (filter.acceptsLogLevel(header.getLogLevel()) && filter.acceptsPid(header.getPid()) && filter.acceptsTag(header.getTag()) &&
+              filter.acceptsAppName(header.getAppName()) && filter.acceptsTimestamp(header.getTimestamp())) {
+            batch.add(message, previous == null || !hasSameHeader(previous, header));
+          }
+          previous = header;
+        }
+        return batch;
+      }
+    }
+
+    cursor.myNextSequence = Math.max(cursor.myNextSequence, myFirstSequence);
+    int start = (int)(cursor.myNextSequence - myFirstSequence);
+    if (start >= mySize) {
+      return null;
+    }
+    int end = (int)Math.min(mySize, (long)start + maxCount);
+    // Do not split multi-line messages
+    while (end < mySize && hasSameHeader(index(end - 1), index(end))) {
+      end++;
+    }
+    cursor.myNextSequence = myFirstSequence + end;
+
+    CompiledFilter compiledFilter = new CompiledFilter(filter);
+    int[] candidates = selectCandidates(start, end, compiledFilter);
+    int candidateCount = candidates != null ? candidates.length : end - start;
+    HeaderCache headers = new HeaderCache();
+    int previous = -1;
+    for (int i = 0; i < candidateCount; i++) {
+      int offset = candidates != null ? candidates[i] : start + i;
+      int index = index(offset);
+      if (compiledFilter.acceptsHeader(index)) {
+        // The lines of a message are adjacent and share its header
+        boolean messageStart = offset == start || offset != previous + 1 || !hasSameHeader(index(offset - 1), index);
+        LogCatHeader header = headers.get(myLevels[index], myPids[index], myTids[index], myAppNameIds[index], myTagIds[index],
+                                          myTimestamps[index]);
+        batch.add(new LogCatMessage(header, getText(index)), messageStart);
+        previous = offset;
+      }
+    }
+    return batch;
+  }
+
+  /**
+   * Releases the memory and deletes the spill files. No messages are stored or read after this call.
+   */
+  public void dispose() {
+    myDisposed = true;
+    closeSpill();
+    myChars = new char[0];
+    mySize = 0;
+  }
+
+  private int index(int offset) {
+    return (myHead + offset) % myCapacity;
+  }
+
+  private boolean hasSameHeader(int index1, int index2) {
+    return myTimestamps[index1] == myTimestamps[index2] && myPids[index1] == myPids[index2] && myTids[index1] == myTids[index2] &&
+           myTagIds[index1] == myTagIds[index2] && myAppNameIds[index1] == myAppNameIds[index2] && myLevels[index1] == myLevels[index2];
+  }
+
+  /**
+   * Returns the offsets of the messages between the given offsets that may be accepted by the filter, using the index that
+   * excludes the most messages, or null if no index is selective enough and all the messages should be evaluated.
+   */
+  @Nullable
+  private int[] selectCandidates(int start, int end, @NotNull CompiledFilter filter) {
+    long startSequence = myFirstSequence + start;
+    long endSequence = myFirstSequence + end;
+
+    List<SequenceList> best = null;
+    int bestCount = (end - start) / 2;
+
+    List<SequenceList> levelLists = new ArrayList<>();
+    for (int level = 0; level < LOG_LEVELS.length; level++) {
+      if (filter.myAcceptedLevels[level]) {
+        levelLists.add(myLevelIndex[level]);
+      }
+    }
+    int levelCount = countInRange(levelLists, startSequence, endSequence);
+    if (levelCount < bestCount) {
+      best = levelLists;
+      bestCount = levelCount;
+    }
+
+    Integer pid = filter.myFilter.getPid();
+    if (pid != null) {
+      SequenceList pidList = myPidIndex.get(pid);
+      List<SequenceList> pidLists = pidList != null ? Collections.singletonList(pidList) : Collections.emptyList();
+      int pidCount = countInRange(pidLists, startSequence, endSequence);
+      if (pidCount < bestCount) {
+        best = pidLists;
+        bestCount = pidCount;
+      }
+    }
+
+    if (filter.myFilter.hasTagFilter()) {
+      List<SequenceList> tagLists = new ArrayList<>();
+      for (int tagId = 0; tagId < filter.myAcceptedStrings.length; tagId++) {
+        SequenceList tagList = myTagIndex.get(tagId);
+        if (tagList != null && filter.isAcceptedTag(tagId)) {
+          tagLists.add(tagList);
+        }
+      }
+      int tagCount = countInRange(tagLists, startSequence, endSequence);
+      if (tagCount < bestCount) {
+        best = tagLists;
+        bestCount = tagCount;
+      }
+    }
+
+    if (best == null) {
+      return null;
+    }
+    int[] candidates = new int[bestCount];
+    int count = 0;
+    for (SequenceList list : best) {
+      for (int i = list.lowerBound(startSequence); i < list.myEnd && list.mySequences[i] < endSequence; i++) {
+        candidates[count++] = (int)(list.mySequences[i] - myFirstSequence);
+      }
+    }
+    if (best.size() > 1) {
+      Arrays.sort(candidates);
+    }
+    return candidates;
+  }
+
+  private static boolean hasSameHeader(@NotNull LogCatHeader header1, @NotNull LogCatHeader header2) {
+    return header1 == header2 ||
+           (header1.getPid() == header2.getPid() && header1.getTid() == header2.getTid() &&
+            header1.getLogLevel() == header2.getLogLevel() && header1.getTag().equals(header2.getTag()) &&
+            header1.getAppName().equals(header2.getAppName()) &&
+            header1.getTimestamp().toString().equals(header2.getTimestamp().toString()));
+  }
+
+  private static int countInRange(@NotNull List<SequenceList> lists, long startSequence, long endSequence) {
+    int count = 0;
+    for (SequenceList list : lists) {
+      count += list.lowerBound(endSequence) - list.lowerBound(startSequence);
+    }
+    return count;
+  }
+
+  private long getOldestSequence() {
+    if (myOlderSpill != null) {
+      return myOlderSpill.myFirstSequence;
+    }
+    if (myCurrentSpill != null) {
+      return myCurrentSpill.myFirstSequence;
+    }
+    return myFirstSequence;
+  }
+
+  @NotNull
+  private String getText(int index) {
+    int start = myTextStarts[index];
+    int length = myTextLengths[index];
+    int firstPart = Math.min(length, myChars.length - start);
+    if (firstPart == length) {
+      return new String(myChars, start, length);
+    }
+    char[] text = new char[length];
+    System.arraycopy(myChars, start, text, 0, firstPart);
+    System.arraycopy(myChars, 0, text, firstPart, length - firstPart);
+    return new String(text);
+  }
+
+  private void evictOldest() {
+    int length = myTextLengths[myHead];
+    if (myMaxSpillBytes > 0) {
+      spill(myHead);
+    }
+    myCharCount -= length;
+    myUsedChars -= length + 1;
+    myHead = (myHead + 1) % myCapacity;
+    mySize--;
+    myFirstSequence++;
+
+    if (++myEvictedSinceIndexCompaction > Math.max(mySize, INITIAL_CAPACITY)) {
+      compactIndexes();
+    }
+  }
+
+  @NotNull
+  private static SequenceList getIndexList(@NotNull TIntObjectHashMap<SequenceList> index, int key) {
+    SequenceList list = index.get(key);
+    if (list == null) {
+      list = new SequenceList();
+      index.put(key, list);
+    }
+    return list;
+  }
+
+  /**
+   * Removes the messages no longer in memory from the indexes
+   */
+  private void compactIndexes() {
+    myEvictedSinceIndexCompaction = 0;
+    for (SequenceList list : myLevelIndex) {
+      list.removeBefore(myFirstSequence);
+    }
+    myPidIndex.retainEntries((pid, list) -> list.removeBefore(myFirstSequence));
+    myTagIndex.retainEntries((tagId, list) -> list.removeBefore(myFirstSequence));
+  }
+
+  private void growColumns() {
+    int capacity = myCapacity * 2;
+    myLevels = copyColumn(myLevels, new byte[capacity]);
+    myPids = copyColumn(myPids, new int[capacity]);
+    myTids = copyColumn(myTids, new int[capacity]);
+    myAppNameIds = copyColumn(myAppNameIds, new int[capacity]);
+    myTagIds = copyColumn(myTagIds, new int[capacity]);
+    myTimestamps = copyColumn(myTimestamps, new long[capacity]);
+    myTextStarts = copyColumn(myTextStarts, new int[capacity]);
+    myTextLengths = copyColumn(myTextLengths, new int[capacity]);
+    myCapacity = capacity;
+    myHead = 0;
+  }
+
+  /**
+   * Copies the messages of the given column to the start of the new column, in order
+   */
+  @NotNull
+  private <T> T copyColumn(@NotNull T column, @NotNull T newColumn) {
+    int firstPart = Math.min(mySize, myCapacity - myHead);
+    System.arraycopy(column, myHead, newColumn, 0, firstPart);
+    System.arraycopy(column, 0, newColumn, firstPart, mySize - firstPart);
+    return newColumn;
+  }
+
+  private void growChars(int minLength) {
+    long length = Math.max((long)myChars.length * 2, minLength);
+    char[] chars = new char[(int)Math.min(length, Integer.MAX_VALUE - 8)];
+    int start = mySize == 0 ? 0 : myTextStarts[myHead];
+    int firstPart = Math.min(myCharCount, myChars.length - start);
+    System.arraycopy(myChars, start, chars, 0, firstPart);
+    System.arraycopy(myChars, 0, chars, firstPart, myCharCount - firstPart);
+    for (int i = 0; i < mySize; i++) {
+      int index = (myHead + i) % myCapacity;
+      myTextStarts[index] = (myTextStarts[index] - start + myChars.length) % myChars.length;
+    }
+    myChars = chars;
+  }
+
+  private int intern(@NotNull String s) {
+    int id = myStringIds.get(s);
+    if (id == 0 && !myStringIds.containsKey(s)) {
+      id = myStrings.size();
+      myStrings.add(s);
+      myStringIds.put(s, id);
+    }
+    return id;
+  }
+
+  private long packTimestamp(@NotNull LogCatTimestamp timestamp) {
+    if (timestamp != myLastTimestamp) {
+      myLastTimestamp = timestamp;
+      myLastPackedTimestamp = pack(timestamp);
+    }
+    return myLastPackedTimestamp;
+  }
+
+  /**
+   * Packs a timestamp into a long, in the same order as {@link LogCatTimestamp#isBefore(LogCatTimestamp)}
+   */
+  private static long pack(@NotNull LogCatTimestamp timestamp) {
+    // The timestamp is formatted as MM-dd HH:mm:ss.SSS
+    String s = timestamp.toString();
+    long packed = 0;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c >= '0' && c <= '9') {
+        packed = packed * 10 + (c - '0');
+      }
+    }
+    return packed;
+  }
+
+  @NotNull
+  private static LogCatTimestamp unpackTimestamp(long packed) {
+    return LogCatTimestamp.fromString(String.format("%02d-%02d %02d:%02d:%02d.%03d", packed / 100000000000L, packed / 1000000000L % 100,
+                                                    packed / 10000000L % 100, packed / 100000L % 100, packed / 1000L % 100,
+                                                    packed % 1000));
+  }
+
+  private void spill(int index) {
+    try {
+      if (myCurrentSpill == null || myCurrentSpill.myLength >= myMaxSpillBytes / 2) {
+        // Keep at most two files; the older one is deleted when the current one is full
+        if (myOlderSpill != null) {
+          myOlderSpill.delete();
+        }
+        if (myCurrentSpill != null) {
+          myCurrentSpill.myOut.close();
+        }
+        myOlderSpill = myCurrentSpill;
+        myCurrentSpill = new SpillFile(myFirstSequence);
+      }
+      writeRecord(myCurrentSpill, index);
+    }
+    catch (IOException e) {
+      LOG.warn("Unable to spill logcat messages to disk", e);
+      closeSpill();
+    }
+  }
+
+  private void writeRecord(@NotNull SpillFile spill, int index) throws IOException {
+    DataOutputStream out = spill.myOut;
+    int length = myTextLengths[index];
+    out.writeLong(myFirstSequence);
+    out.writeByte(myLevels[index]);
+    out.writeInt(myPids[index]);
+    out.writeInt(myTids[index]);
+    out.writeInt(myAppNameIds[index]);
+    out.writeInt(myTagIds[index]);
+    out.writeLong(myTimestamps[index]);
+    out.writeInt(length);
+    int start = myTextStarts[index];
+    for (int i = 0; i < length; i++) {
+      out.writeChar(myChars[(start + i) % myChars.length]);
+    }
+    spill.myLength += RECORD_HEADER_SIZE + 2L * length;
+    spill.myEndSequence = myFirstSequence + 1;
+  }
+
+  private int readSpilled(@NotNull Cursor cursor, int maxCount, @NotNull Consumer<LogCatMessage> consumer) throws IOException {
+    SpillFile spill = myCurrentSpill;
+    assert spill != null;
+    if (myOlderSpill != null && cursor.myNextSequence < myOlderSpill.myEndSequence) {
+      spill = myOlderSpill;
+    }
+    if (cursor.mySpill != spill) {
+      cursor.mySpill = spill;
+      cursor.mySpillOffset = 0;
+    }
+    if (spill == myCurrentSpill) {
+      spill.myOut.flush();
+    }
+
+    HeaderCache headers = new HeaderCache();
+    int count = 0;
+    try (FileInputStream stream = new FileInputStream(spill.myFile)) {
+      stream.getChannel().position(cursor.mySpillOffset);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+      while (count < maxCount && cursor.mySpillOffset < spill.myLength) {
+        long sequence = in.readLong();
+        byte level = in.readByte();
+        int pid = in.readInt();
+        int tid = in.readInt();
+        int appNameId = in.readInt();
+        int tagId = in.readInt();
+        long timestamp = in.readLong();
+        char[] text = new char[in.readInt()];
+        for (int i = 0; i < text.length; i++) {
+          text[i] = in.readChar();
+        }
+        cursor.mySpillOffset += RECORD_HEADER_SIZE + 2L * text.length;
+        if (sequence < cursor.myNextSequence) {
+          // Only happens when the cursor starts in the middle of a file
+          continue;
+        }
+        consumer.accept(new LogCatMessage(headers.get(level, pid, tid, appNameId, tagId, timestamp), new String(text)));
+        cursor.myNextSequence = sequence + 1;
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private void closeSpill() {
+    if (myOlderSpill != null) {
+      myOlderSpill.delete();
+      myOlderSpill = null;
+    }
+    if (myCurrentSpill != null) {
+      myCurrentSpill.delete();
+      myCurrentSpill = null;
+    }
+  }
+
+  /**
+   * Position of a reader in a {@link LogcatBuffer}
+   */
+  public static final class Cursor {
+    @NotNull private final LogcatBuffer myBuffer;
+    private long myNextSequence;
+    @Nullable private SpillFile mySpill;
+    private long mySpillOffset;
+
+    private Cursor(@NotNull LogcatBuffer buffer, long nextSequence) {
+      myBuffer = buffer;
+      myNextSequence = nextSequence;
+    }
+
+    public boolean isFor(@NotNull LogcatBuffer buffer) {
+      return myBuffer == buffer;
+    }
+  }
+
+  /**
+   * A {@link LogcatMessageFilter} with its header checks evaluated once for each log level and interned string
+   */
+  private final class CompiledFilter {
+    private static final byte TAG_ACCEPTED = 1;
+    private static final byte APP_NAME_ACCEPTED = 2;
+
+    @NotNull final LogcatMessageFilter myFilter;
+    @NotNull final boolean[] myAcceptedLevels = new boolean[LOG_LEVELS.length];
+    /** Whether each interned string is accepted as a tag and as an application name */
+    @NotNull final byte[] myAcceptedStrings;
+    private final long myRejectBeforeTimestamp;
+
+    CompiledFilter(@NotNull LogcatMessageFilter filter) {
+      myFilter = filter;
+      for (int level = 0; level < LOG_LEVELS.length; level++) {
+        myAcceptedLevels[level] = filter.acceptsLogLevel(LOG_LEVELS[level]);
+      }
+      myAcceptedStrings = new byte[myStrings.size()];
+      for (int id = 0; id < myAcceptedStrings.length; id++) {
+        String s = myStrings.get(id);
+        myAcceptedStrings[id] = (byte)((filter.acceptsTag(s) ? TAG_ACCEPTED : 0) | (filter.acceptsAppName(s) ? APP_NAME_ACCEPTED : 0));
+      }
+      LogCatTimestamp rejectBeforeTime = filter.getRejectBeforeTime();
+      myRejectBeforeTimestamp = rejectBeforeTime != null ? pack(rejectBeforeTime) : Long.MIN_VALUE;
+    }
+
+    boolean isAcceptedTag(int tagId) {
+      return (myAcceptedStrings[tagId] & TAG_ACCEPTED) != 0;
+    }
+
+    /**
+     * Returns true if the header of the message at the given index is accepted
+     */
+    boolean acceptsHeader(int index) {
+      return myAcceptedLevels[myLevels[index]] && isAcceptedTag(myTagIds[index]) &&
+             (myAcceptedStrings[myAppNameIds[index]] & APP_NAME_ACCEPTED) != 0 && myFilter.acceptsPid(myPids[index]) &&
+             myTimestamps[index] >= myRejectBeforeTimestamp;
+    }
+  }
+
+  /**
+   * Messages whose headers were accepted by a {@link LogcatMessageFilter}, copied out of the buffer by {@link #readBatch} so the
+   * rest of the filter can be evaluated without holding the lock that guards the buffer
+   */
+  public static final class FilterBatch {
+    private static final byte CUSTOM_MATCHED = 1;
+    private static final byte CONFIGURED_MATCHED = 2;
+    private static final byte ACCEPTED = CUSTOM_MATCHED | CONFIGURED_MATCHED;
+
+    @NotNull private final LogcatMessageFilter myFilter;
+    @NotNull private final Executor myExecutor;
+    @NotNull private final List<LogCatMessage> myMessages = new ArrayList<>();
+    /** Indexes of the first lines of the messages */
+    @NotNull private final BitSet myMessageStarts = new BitSet();
+
+    private FilterBatch(@NotNull LogcatMessageFilter filter, @NotNull Executor executor) {
+      myFilter = filter;
+      myExecutor = executor;
+    }
+
+    private void add(@NotNull LogCatMessage line, boolean messageStart) {
+      if (messageStart) {
+        myMessageStarts.set(myMessages.size());
+      }
+      myMessages.add(line);
+    }
+
+    /**
+     * Evaluates the search pattern and the configured filter on the lines of the batch, in parallel chunks, and passes the lines of
+     * the accepted messages to the consumer, in order
+     *
+     * @return the number of lines passed to the consumer
+     */
+    public int filter(@NotNull Consumer<LogCatMessage> consumer) {
+      if (myFilter == LogcatMessageFilter.ACCEPT_ALL) {
+        myMessages.forEach(consumer);
+        return myMessages.size();
+      }
+
+      int size = myMessages.size();
+      byte[] results = new byte[size];
+      List<CompletableFuture<Void>> tasks = new ArrayList<>();
+      for (int chunkStart = 0; chunkStart < size; chunkStart += FILTER_CHUNK_SIZE) {
+        int from = chunkStart;
+        int to = Math.min(size, chunkStart + FILTER_CHUNK_SIZE);
+        tasks.add(CompletableFuture.runAsync(() -> {
+          for (int i = from; i < to; i++) {
+            results[i] = evaluate(myMessages.get(i), myMessageStarts.get(i));
+          }
+        }, myExecutor));
+      }
+      CompletableFuture.allOf(tasks.toArray(new CompletableFuture[tasks.size()])).join();
+
+      // Combine the results of the lines of each message
+      int count = 0;
+      int messageStart = 0;
+      while (messageStart < size) {
+        int messageEnd = myMessageStarts.nextSetBit(messageStart + 1);
+        if (messageEnd < 0) {
+          messageEnd = size;
+        }
+        byte result = 0;
+        for (int i = messageStart; i < messageEnd; i++) {
+          result |= results[i];
+        }
+        if (result == ACCEPTED) {
+          for (int i = messageStart; i < messageEnd; i++) {
+            consumer.accept(myMessages.get(i));
+          }
+          count += messageEnd - messageStart;
+        }
+        messageStart = messageEnd;
+      }
+      return count;
+    }
+
+    /**
+     * Evaluates a line. Only reads the batch, so lines can be evaluated concurrently.
+     *
+     * @return a combination of {@link #CUSTOM_MATCHED} and {@link #CONFIGURED_MATCHED}
+     */
+    private byte evaluate(@NotNull LogCatMessage line, boolean firstLine) {
+      LogCatHeader header = line.getHeader();
+      String text = line.getMessage();
+      byte result = 0;
+      // Only the first line is matched with its header, so only format the header when there is a pattern to match
+      if (!myFilter.hasCustomPattern() || myFilter.matchesCustomPattern(header, text, firstLine)) {
+        result |= CUSTOM_MATCHED;
+      }
+      if (myFilter.matchesConfiguredFilter(text, header.getTag(), header.getAppName(), header.getPid(), header.getLogLevel())) {
+        result |= CONFIGURED_MATCHED;
+      }
+      return result;
+    }
+  }
+
+  /**
+   * A growing, sorted list of sequence numbers; old sequence numbers are dropped from the start of the list
+   */
+  private static final class SequenceList {
+    private long[] mySequences = new long[8];
+    private int myStart;
+    private int myEnd;
+
+    void add(long sequence) {
+      if (myEnd == mySequences.length) {
+        int size = myEnd - myStart;
+        long[] sequences = size * 2 <= mySequences.length ? mySequences : new long[mySequences.length * 2];
+        System.arraycopy(mySequences, myStart, sequences, 0, size);
+        mySequences = sequences;
+        myStart = 0;
+        myEnd = size;
+      }
+      mySequences[myEnd++] = sequence;
+    }
+
+    /**
+     * Returns the index of the first sequence number greater or equal than the given one
+     */
+    int lowerBound(long sequence) {
+      int low = myStart;
+      int high = myEnd;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (mySequences[mid] < sequence) {
+          low = mid + 1;
+        }
+        else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+
+    /**
+     * Removes the sequence numbers lower than the given one, and returns whether the list still has entries
+     */
+    boolean removeBefore(long sequence) {
+      myStart = lowerBound(sequence);
+      return myStart < myEnd;
+    }
+  }
+
+  /**
+   * Reuses the header of the previous message when it is the same, as is the case for the lines of a multi-line message
+   */
+  private final class HeaderCache {
+    @Nullable private LogCatHeader myHeader;
+    private byte myLevel;
+    private int myPid;
+    private int myTid;
+    private int myAppNameId;
+    private int myTagId;
+    private long myTimestamp;
+
+    @NotNull
+    LogCatHeader get(byte level, int pid, int tid, int appNameId, int tagId, long timestamp) {
+      if (myHeader == null || level != myLevel || pid != myPid || tid != myTid || appNameId != myAppNameId || tagId != myTagId ||
+          timestamp != myTimestamp) {
+        myHeader = new LogCatHeader(LOG_LEVELS[level], pid, tid, myStrings.get(appNameId), myStrings.get(tagId),
+                                    unpackTimestamp(timestamp));
+        myLevel = level;
+        myPid = pid;
+        myTid = tid;
+        myAppNameId = appNameId;
+        myTagId = tagId;
+        myTimestamp = timestamp;
+      }
+      return myHeader;
+    }
+  }
+
+  private static final class SpillFile {
+    @NotNull private final File myFile;
+    @NotNull private final DataOutputStream myOut;
+    private final long myFirstSequence;
+    private long myEndSequence;
+    private long myLength;
+
+    private SpillFile(long firstSequence) throws IOException {
+      myFile = FileUtil.createTempFile("logcat", ".bin", true);
+      myOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(myFile)));
+      myFirstSequence = firstSequence;
+      myEndSequence = firstSequence;
+    }
+
+    private void delete() {
+      try {
+        myOut.close();
+      }
+      catch (IOException e) {
+        LOG.debug(e);
+      }
+      FileUtil.delete(myFile);
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.logcat;
+
+import com.android.ddmlib.Log;
+import com.android.ddmlib.logcat.LogCatHeader;
+import com.android.ddmlib.logcat.LogCatTimestamp;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.regex.Pattern;
+
+/**
+ * The state of an {@link AndroidLogFilterModel} (log level, configured filter, search pattern and rejection time), evaluated on
+ * the parsed fields of logcat messages rather than on formatted console lines. Used by {@link LogcatBuffer} to filter its history.
+ * <p>
+ * As in {@link AndroidLogFilterModel#processLine(String)}, a multi-line message is accepted as a whole when its header is accepted,
+ * any of its lines matches the search pattern and any of its lines matches the configured filter. The search pattern is matched
+ * against the full formatted first line and against the text of the continuation lines.
+ */
+final class LogcatMessageFilter {
+  static final LogcatMessageFilter ACCEPT_ALL = new LogcatMessageFilter(null, null, null, null);
+
+  @Nullable private final Log.LogLevel myLogLevel;
+  @Nullable private final AndroidLogcatFilter myConfiguredFilter;
+  @Nullable private final Pattern myCustomPattern;
+  @Nullable private final LogCatTimestamp myRejectBeforeTime;
+
+  LogcatMessageFilter(@Nullable Log.LogLevel logLevel,
+                      @Nullable AndroidLogcatFilter configuredFilter,
+                      @Nullable Pattern customPattern,
+                      @Nullable LogCatTimestamp rejectBeforeTime) {
+    myLogLevel = logLevel;
+    myConfiguredFilter = configuredFilter;
+    myCustomPattern = customPattern;
+    myRejectBeforeTime = rejectBeforeTime;
+  }
+
+  @Nullable
+  private DefaultAndroidLogcatFilter getDefaultFilter() {
+    return myConfiguredFilter instanceof DefaultAndroidLogcatFilter ? (DefaultAndroidLogcatFilter)myConfiguredFilter : null;
+  }
+
+  /**
+   * Returns the minimum log level accepted by the filter
+   */
+  @NotNull
+  Log.LogLevel getMinimumLogLevel() {
+    Log.LogLevel level = myLogLevel != null ? myLogLevel : Log.LogLevel.VERBOSE;
+    DefaultAndroidLogcatFilter filter = getDefaultFilter();
+    if (filter != null && filter.getLogLevel() != null && filter.getLogLevel().getPriority() > level.getPriority()) {
+      level = filter.getLogLevel();
+    }
+    return level;
+  }
+
+  /**
+   * Returns the only pid accepted by the filter, or null if any pid can be accepted
+   */
+  @Nullable
+  Integer getPid() {
+    DefaultAndroidLogcatFilter filter = getDefaultFilter();
+    return filter != null ? filter.getPidValue() : null;
+  }
+
+  /**
+   * Returns true if the filter only accepts some tags, see {@link #acceptsTag(String)}
+   */
+  boolean hasTagFilter() {
+    DefaultAndroidLogcatFilter filter = getDefaultFilter();
+    return filter != null && filter.hasTagPattern();
+  }
+
+  boolean acceptsTag(@NotNull String tag) {
+    DefaultAndroidLogcatFilter filter = getDefaultFilter();
+    return filter == null || filter.acceptsTag(tag);
+  }
+
+  boolean acceptsAppName(@NotNull String appName) {
+    DefaultAndroidLogcatFilter filter = getDefaultFilter();
+    return filter == null || filter.acceptsPackage(appName);
+  }
+
+  boolean acceptsPid(int pid) {
+    DefaultAndroidLogcatFilter filter = getDefaultFilter();
+    return filter == null || filter.acceptsPid(pid);
+  }
+
+  boolean acceptsLogLevel(@NotNull Log.LogLevel logLevel) {
+    return logLevel.getPriority() >= getMinimumLogLevel().getPriority();
+  }
+
+  /**
+   * Returns true if messages with the given timestamp are not rejected by {@link AndroidLogFilterModel#beginRejectingOldMessages()}
+   */
+  boolean acceptsTimestamp(@NotNull LogCatTimestamp timestamp) {
+    return myRejectBeforeTime == null || !timestamp.isBefore(myRejectBeforeTime);
+  }
+
+  @Nullable
+  LogCatTimestamp getRejectBeforeTime() {
+    return myRejectBeforeTime;
+  }
+
+  boolean hasCustomPattern() {
+    return myCustomPattern != null;
+  }
+
+  /**
+   * Returns true if the search pattern matches a line of a message
+   *
+   * @param header    the header of the message
+   * @param message   the text of the line
+   * @param firstLine whether this is the first line of the message, which is matched with its header
+   */
+  boolean matchesCustomPattern(@NotNull LogCatHeader header, @NotNull String message, boolean firstLine) {
+    return firstLine ? matchesCustomPattern(AndroidLogcatFormatter.formatMessageFull(header, message)) : matchesCustomPattern(message);
+  }
+
+  /**
+   * Returns true if the search pattern matches a continuation line of a message
+   */
+  boolean matchesCustomPattern(@NotNull String message) {
+    return myCustomPattern == null || myCustomPattern.matcher(message).find();
+  }
+
+  /**
+   * Returns true if the configured filter accepts a line of a message. The header checks of a {@link DefaultAndroidLogcatFilter}
+   * are not repeated here; use the other accept methods.
+   */
+  boolean matchesConfiguredFilter(@NotNull String message, @NotNull String tag, @NotNull String appName, int pid,
+                                  @NotNull Log.LogLevel logLevel) {
+    if (myConfiguredFilter == null) {
+      return true;
+    }
+    DefaultAndroidLogcatFilter filter = getDefaultFilter();
+    return filter != null ? filter.acceptsMessage(message) : myConfiguredFilter.isApplicable(message, tag, appName, pid, logLevel);
+  }
+}
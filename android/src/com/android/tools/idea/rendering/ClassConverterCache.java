@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.ide.PooledThreadExecutor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cache of the classes rewritten by {@link ClassConverter}.
+ * <p>
+ * Every {@link RenderClassLoader} rewrites the classes it loads, and class loaders are recreated after each build, so the same classes
+ * are rewritten over and over. Rewritten classes are keyed by a hash of the original class bytes, the layoutlib API level and the class
+ * file version of the current JDK. They are kept both in memory, shared by all the class loaders, and on disk so they survive IDE
+ * restarts.
+ */
+public class ClassConverterCache {
+  private static final Logger LOG = Logger.getInstance(ClassConverterCache.class);
+
+  /** Set the "layoutlib.class.cache.disabled" system property to true to disable the cache */
+  private static final boolean ENABLED = !Boolean.getBoolean("layoutlib.class.cache.disabled");
+  /** Maximum size of the cache directory, in MB */
+  private static final int MAX_DISK_SIZE_MB = Integer.getInteger("layoutlib.class.cache.size.mb", 128);
+  /** Maximum size of the rewritten classes kept in memory, in MB */
+  private static final int MAX_MEMORY_SIZE_MB = 16;
+  /** Increase when {@link ClassConverter} changes so classes rewritten by an older version are not reused */
+  private static final int KEY_VERSION = 1;
+  private static final String CLASS_EXTENSION = ".class";
+  private static final String TEMP_EXTENSION = ".tmp";
+  private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+  private static ClassConverterCache ourInstance;
+
+  @Nullable private final File myCacheDir;
+  private final long myMaxDiskSizeBytes;
+  @NotNull private final Executor myWriteExecutor;
+  @NotNull private final Cache<HashCode, byte[]> myMemoryCache;
+  /** Approximate size of the cache directory, computed on the first write. Only accessed by the writing thread. */
+  private long myDiskSize = -1;
+
+  private final AtomicInteger myMemoryHitCount = new AtomicInteger();
+  private final AtomicInteger myDiskHitCount = new AtomicInteger();
+  private final AtomicInteger myMissCount = new AtomicInteger();
+
+  /**
+   * @param cacheDir the directory where rewritten classes are stored, or null to only keep them in memory
+   */
+  @VisibleForTesting
+  ClassConverterCache(@Nullable File cacheDir, long maxDiskSizeBytes, long maxMemorySizeBytes, @NotNull Executor writeExecutor) {
+    myCacheDir = cacheDir;
+    myMaxDiskSizeBytes = maxDiskSizeBytes;
+    myWriteExecutor = writeExecutor;
+    myMemoryCache = CacheBuilder.newBuilder()
+      .maximumWeight(maxMemorySizeBytes)
+      .weigher((HashCode key, byte[] value) -> value.length)
+      .build();
+  }
+
+  @NotNull
+  public static synchronized ClassConverterCache getInstance() {
+    if (ourInstance == null) {
+      ourInstance = new ClassConverterCache(new File(PathManager.getSystemPath(), "layoutlib-class-cache"),
+                                            MAX_DISK_SIZE_MB * 1024L * 1024L,
+                                            MAX_MEMORY_SIZE_MB * 1024L * 1024L,
+                                            PooledThreadExecutor.INSTANCE);
+    }
+    return ourInstance;
+  }
+
+  /**
+   * Returns the given class rewritten by {@link ClassConverter#rewriteClass(byte[], int)}, rewriting it only if it is not cached
+   */
+  @NotNull
+  public byte[] rewriteClass(@NotNull byte[] classData, int layoutlibApi) {
+    if (!ENABLED) {
+      return ClassConverter.rewriteClass(classData, layoutlibApi);
+    }
+
+    HashCode key = HASH_FUNCTION.newHasher()
+      .putInt(KEY_VERSION)
+      .putInt(ClassConverter.getCurrentClassVersion())
+      .putInt(layoutlibApi)
+      .putBytes(classData)
+      .hash();
+
+    byte[] rewritten = myMemoryCache.getIfPresent(key);
+    if (rewritten != null) {
+      myMemoryHitCount.incrementAndGet();
+      return rewritten;
+    }
+
+    rewritten = read(key);
+    if (rewritten != null) {
+      myDiskHitCount.incrementAndGet();
+    }
+    else {
+      myMissCount.incrementAndGet();
+      rewritten = ClassConverter.rewriteClass(classData, layoutlibApi);
+      byte[] written = rewritten;
+      if (myCacheDir != null) {
+        myWriteExecutor.execute(() -> {
+          try {
+            write(key, written);
+          }
+          catch (IOException e) {
+            LOG.debug("Unable to write the class cache entry", e);
+          }
+        });
+      }
+    }
+    myMemoryCache.put(key, rewritten);
+    return rewritten;
+  }
+
+  @Nullable
+  private byte[] read(@NotNull HashCode key) {
+    if (myCacheDir == null) {
+      return null;
+    }
+
+    File file = getClassFile(key);
+    if (!file.isFile()) {
+      return null;
+    }
+
+    try {
+      byte[] data = Files.readAllBytes(file.toPath());
+      if (ClassConverter.isValidClassFile(data)) {
+        // Keep the most recently used entries when the cache is trimmed
+        //noinspection ResultOfMethodCallIgnored
+        file.setLastModified(System.currentTimeMillis());
+        return data;
+      }
+    }
+    catch (IOException e) {
+      LOG.debug(e);
+    }
+
+    // The entry is corrupted
+    //noinspection ResultOfMethodCallIgnored
+    file.delete();
+    return null;
+  }
+
+  private synchronized void write(@NotNull HashCode key, @NotNull byte[] data) throws IOException {
+    assert myCacheDir != null;
+    File file = getClassFile(key);
+    if (file.isFile()) {
+      // Another class loader rewrote the same class concurrently
+      return;
+    }
+    File dir = file.getParentFile();
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Unable to create " + dir);
+    }
+
+    if (myDiskSize < 0) {
+      myDiskSize = 0;
+      for (File entry : listEntries()) {
+        myDiskSize += entry.length();
+      }
+    }
+
+    // Write to a temporary file first so readers never see a partially written class
+    File tempFile = new File(dir, file.getName() + TEMP_EXTENSION);
+    try {
+      Files.write(tempFile.toPath(), data);
+      Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    finally {
+      //noinspection ResultOfMethodCallIgnored
+      tempFile.delete();
+    }
+
+    myDiskSize += data.length;
+    if (myDiskSize > myMaxDiskSizeBytes) {
+      trim();
+    }
+  }
+
+  /**
+   * Removes the least recently used entries until the cache uses at most 3/4 of its maximum size, so that it isn't trimmed again on
+   * the next write
+   */
+  private void trim() {
+    List<File> files = listEntries();
+    files.sort(Comparator.comparingLong(File::lastModified));
+    long targetSize = myMaxDiskSizeBytes / 4 * 3;
+    for (File file : files) {
+      if (myDiskSize <= targetSize) {
+        break;
+      }
+      long length = file.length();
+      if (file.delete()) {
+        myDiskSize -= length;
+      }
+    }
+  }
+
+  @NotNull
+  private List<File> listEntries() {
+    List<File> entries = new ArrayList<>();
+    File[] dirs = myCacheDir == null ? null : myCacheDir.listFiles(File::isDirectory);
+    if (dirs != null) {
+      for (File dir : dirs) {
+        File[] files = dir.listFiles((parent, name) -> name.endsWith(CLASS_EXTENSION));
+        if (files != null) {
+          Collections.addAll(entries, files);
+        }
+      }
+    }
+    return entries;
+  }
+
+  @NotNull
+  private File getClassFile(@NotNull HashCode key) {
+    String name = key.toString();
+    // Spread the entries over 256 directories to keep the directories small
+    return new File(new File(myCacheDir, name.substring(0, 2)), name + CLASS_EXTENSION);
+  }
+
+  public int getMemoryHitCount() {
+    return myMemoryHitCount.get();
+  }
+
+  public int getDiskHitCount() {
+    return myDiskHitCount.get();
+  }
+
+  public int getMissCount() {
+    return myMissCount.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("ClassConverterCache: %1$d memory hits, %2$d disk hits, %3$d misses",
+                         getMemoryHitCount(), getDiskHitCount(), getMissCount());
+  }
+}
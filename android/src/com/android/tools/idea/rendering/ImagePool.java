@@ -1,30 +1,32 @@
 package com.android.tools.idea.rendering;
 
 import com.android.annotations.VisibleForTesting;
+import com.android.tools.idea.rendering.trace.RenderTracer;
 import com.google.common.base.FinalizablePhantomReference;
 import com.google.common.base.FinalizableReferenceQueue;
-import com.google.common.collect.EvictingQueue;
 import com.google.common.collect.Sets;
+import com.intellij.openapi.util.LowMemoryWatcher;
+import net.jcip.annotations.GuardedBy;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
 import java.awt.image.ImageObserver;
 import java.awt.image.WritableRaster;
 import java.lang.ref.Reference;
-import java.lang.ref.SoftReference;
-import java.util.HashMap;
-import java.util.NoSuchElementException;
-import java.util.Set;
-import java.util.function.BiFunction;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
-import java.util.function.Function;
 
 /**
  * Class that offers a pool of {@link BufferedImage}s. The returned {@link Image} do not offer a direct access
  * to the underlying {@link BufferedImage} to avoid clients holding references to it.
  * Once the {@link Image} is not being referenced anymore, it will be automatically returned to the pool.
+ * <p/>
+ * Images are pooled by size class (see {@link #getSizeClass(int)}) and type, within a byte budget. The pool is shared by all the
+ * render tasks (see {@link RenderService#getImagePool()}) so the previews of many configurations reuse the same images.
  */
 public class ImagePool {
   public static final Image NULL_POOLED_IMAGE = new Image() {
@@ -51,119 +53,203 @@ public class ImagePool {
   };
 
   private static final boolean DEBUG = false;
-  private static final EvictingQueue<SoftReference<BufferedImage>> NULL_EVICTING_QUEUE = EvictingQueue.create(0);
-  private static final BiFunction<Integer, Integer, Function<Integer, Integer>> DEFAULT_SIZING_POLICY = (w, h) -> (type) -> {
-    // Images below 1k, do not pool
-    if (w * h < 1000) {
-      return 0;
-    }
-
-    return 50_000_000 / (w * h);
-  };
-
-  private final HashMap<String, EvictingQueue<SoftReference<BufferedImage>>> myPool = new HashMap<>();
+  /** Images below 1k pixels are not pooled */
+  private static final int MIN_POOLED_PIXELS = 1000;
+  /** Default budget of the memory held by the images that are not in use */
+  private static final long DEFAULT_MAX_POOLED_BYTES = Math.min(200_000_000L, Runtime.getRuntime().maxMemory() / 8);
+
+  private final Object myLock = new Object();
+  /** Idle images, by size class key */
+  @GuardedBy("myLock")
+  private final Map<Long, Bucket> myPool = new HashMap<>();
+  /** All the idle images, least recently released first */
+  @GuardedBy("myLock")
+  private final Set<PooledBuffer> myIdleBuffers = new LinkedHashSet<>();
+  @GuardedBy("myLock")
+  private long myPooledBytes;
   @SuppressWarnings("IOResourceOpenedButNotSafelyClosed")
   private final FinalizableReferenceQueue myFinalizableReferenceQueue = new FinalizableReferenceQueue();
   private final Set<Reference<?>> myReferences = Sets.newConcurrentHashSet();
-  private final BiFunction<Integer, Integer, Function<Integer, Integer>> myQueueSizingPolicy;
-  private boolean isDisposed = false;
+  private final long myMaxPooledBytes;
+  private final long myMaxBucketBytes;
+  private final LowMemoryWatcher myLowMemoryWatcher;
+  private final AtomicLong myHitCount = new AtomicLong();
+  private final AtomicLong myMissCount = new AtomicLong();
+  private final AtomicLong myEvictionCount = new AtomicLong();
+  private volatile boolean isDisposed = false;
 
   /**
-   * Returns the key to be used for indexing the {@link EvictingQueue}.
+   * Rounds an image dimension up to its size class. Size classes are multiples of 1/8th of the highest power of two below the dimension
+   * (and of at least 16 pixels), so an image wastes less than a quarter of its backing buffer and the images of devices with slightly
+   * different screen sizes, or of the same device with and without decorations, share their buffers.
    */
-  @NotNull
-  private static String getPoolKey(int w, int h, int type) {
-    return String.format("%dx%d-%d", w, h, type);
+  @VisibleForTesting
+  static int getSizeClass(int dimension) {
+    int step = Math.max(16, Integer.highestOneBit(dimension) / 8);
+    return (dimension + step - 1) / step * step;
   }
 
   /**
-   * Returns the queue to be used to store images of the given width, height and type.
-   *
-   * @param type See {@link BufferedImage} types
+   * Returns the key of the bucket holding the images of the given size classes and type.
    */
-  @NotNull
-  private EvictingQueue<SoftReference<BufferedImage>> getTypeQueue(int w, int h, int type) {
-    String poolKey = getPoolKey(w, h, type);
-
-    return myPool.computeIfAbsent(poolKey, k -> {
-      int size = myQueueSizingPolicy.apply(w, h).apply(type);
-
-      if (size == 0) {
-        // For size 0, do not allocate extra memory for a new EvictingQueue.
-        return NULL_EVICTING_QUEUE;
-      }
-
-      return EvictingQueue.create(size);
-    });
+  private static long getPoolKey(int classWidth, int classHeight, int type) {
+    return ((long)classWidth << 40) | ((long)classHeight << 16) | type;
   }
 
   /**
-   * Constructs a new {@link ImagePool} with a custom queue sizing policy. The passed queueSizingPolicy will be called
-   * every time that a new cache is needed for a given (width, height) -> (imageType).
-   * The return value from calling that function will be the size of the EvictingQueue used for caching the pooled
-   * images.
+   * Constructs a new {@link ImagePool} that keeps at most maxPooledBytes of images that are not in use. The images of one size class
+   * use at most half of that budget.
    */
-  public ImagePool(@NotNull BiFunction<Integer, Integer, Function<Integer, Integer>> queueSizingPolicy) {
-    myQueueSizingPolicy = queueSizingPolicy;
+  public ImagePool(long maxPooledBytes) {
+    myMaxPooledBytes = maxPooledBytes;
+    myMaxBucketBytes = maxPooledBytes / 2;
+    // The pooled images are strongly referenced so they survive regular collections, but they are released when the IDE is low on memory
+    myLowMemoryWatcher = LowMemoryWatcher.register(this::trim);
   }
 
   public ImagePool() {
-    this(DEFAULT_SIZING_POLICY);
+    this(DEFAULT_MAX_POOLED_BYTES);
   }
 
   @VisibleForTesting
   @NotNull
   ImageImpl create(final int w, final int h, final int type, @Nullable Consumer<BufferedImage> freedCallback) {
     assert !isDisposed : "ImagePool already disposed";
-    EvictingQueue<SoftReference<BufferedImage>> queue = getTypeQueue(w, h, type);
 
-    BufferedImage image;
-    SoftReference<BufferedImage> imageRef;
-    try {
-      imageRef = queue.remove();
-      while ((image = imageRef.get()) == null) {
-        imageRef = queue.remove();
+    if (w * h < MIN_POOLED_PIXELS) {
+      //noinspection UndesirableClassUsage
+      BufferedImage image = new BufferedImage(w, h, type);
+      if (freedCallback == null) {
+        return new ImageImpl(image);
       }
+      return track(new ImageImpl(image), () -> freedCallback.accept(image));
+    }
+
+    int classWidth = getSizeClass(w);
+    int classHeight = getSizeClass(h);
+    long key = getPoolKey(classWidth, classHeight, type);
+    PooledBuffer buffer = null;
+    synchronized (myLock) {
+      Bucket bucket = myPool.get(key);
+      if (bucket != null && !bucket.myBuffers.isEmpty()) {
+        // Most recently released first, as its memory is more likely to be in the CPU caches
+        buffer = bucket.myBuffers.removeLast();
+        bucket.myBytes -= buffer.myBytes;
+        if (bucket.myBuffers.isEmpty()) {
+          myPool.remove(key);
+        }
+        myPooledBytes -= buffer.myBytes;
+        myIdleBuffers.remove(buffer);
+      }
+    }
+
+    BufferedImage image;
+    if (buffer != null) {
+      myHitCount.incrementAndGet();
       if (DEBUG) {
         //noinspection UseOfSystemOutOrSystemErr
         System.out.printf("Re-used image %dx%d - %d\n", w, h, type);
       }
+      image = buffer.getView(w, h);
       // Clear the image
       Graphics2D g = image.createGraphics();
       g.setComposite(AlphaComposite.Clear);
       g.fillRect(0, 0, w, h);
       g.dispose();
     }
-    catch (NoSuchElementException e) {
+    else {
+      myMissCount.incrementAndGet();
       if (DEBUG) {
         //noinspection UseOfSystemOutOrSystemErr
         System.out.printf("New image %dx%d - %d\n", w, h, type);
       }
       //noinspection UndesirableClassUsage
-      image = new BufferedImage(w, h, type);
+      buffer = new PooledBuffer(key, new BufferedImage(classWidth, classHeight, type));
+      image = buffer.getView(w, h);
     }
 
-    ImageImpl pooledImage = new ImageImpl(image);
-    final BufferedImage imagePointer = image;
+    PooledBuffer pooledBuffer = buffer;
+    BufferedImage imagePointer = image;
+    return track(new ImageImpl(image), () -> {
+      if (DEBUG) {
+        //noinspection UseOfSystemOutOrSystemErr
+        System.out.printf("Released image %dx%d - %d\n", w, h, type);
+      }
+      release(pooledBuffer);
+      if (freedCallback != null) {
+        freedCallback.accept(imagePointer);
+      }
+    });
+  }
+
+  /**
+   * Runs onFreed once the given image is not referenced anymore.
+   */
+  @NotNull
+  private ImageImpl track(@NotNull ImageImpl pooledImage, @NotNull Runnable onFreed) {
     Reference<?> reference = new FinalizablePhantomReference<Image>(pooledImage, myFinalizableReferenceQueue) {
       @Override
       public void finalizeReferent() {
-        if (DEBUG) {
-          //noinspection UseOfSystemOutOrSystemErr
-          System.out.printf("Released image %dx%d - %d\n", w, h, type);
-        }
         myReferences.remove(this);
-        getTypeQueue(w, h, type).add(new SoftReference<>(imagePointer));
-        if (freedCallback != null) {
-          freedCallback.accept(imagePointer);
-        }
+        onFreed.run();
       }
     };
     myReferences.add(reference);
-
     return pooledImage;
   }
 
+  /**
+   * Returns a buffer to the pool, evicting the least recently released buffers if the pool goes over its budget.
+   */
+  private void release(@NotNull PooledBuffer buffer) {
+    if (isDisposed || buffer.myBytes > myMaxBucketBytes) {
+      return;
+    }
+    synchronized (myLock) {
+      Bucket bucket = myPool.get(buffer.myKey);
+      while (bucket != null && bucket.myBytes + buffer.myBytes > myMaxBucketBytes) {
+        evict(bucket.myBuffers.getFirst());
+        bucket = myPool.get(buffer.myKey);
+      }
+      if (bucket == null) {
+        bucket = new Bucket();
+        myPool.put(buffer.myKey, bucket);
+      }
+      bucket.myBuffers.addLast(buffer);
+      bucket.myBytes += buffer.myBytes;
+      myIdleBuffers.add(buffer);
+      myPooledBytes += buffer.myBytes;
+      while (myPooledBytes > myMaxPooledBytes) {
+        evict(myIdleBuffers.iterator().next());
+      }
+    }
+  }
+
+  @GuardedBy("myLock")
+  private void evict(@NotNull PooledBuffer buffer) {
+    Bucket bucket = myPool.get(buffer.myKey);
+    bucket.myBuffers.remove(buffer);
+    bucket.myBytes -= buffer.myBytes;
+    if (bucket.myBuffers.isEmpty()) {
+      myPool.remove(buffer.myKey);
+    }
+    myIdleBuffers.remove(buffer);
+    myPooledBytes -= buffer.myBytes;
+    myEvictionCount.incrementAndGet();
+  }
+
+  /**
+   * Releases all the images that are not in use.
+   */
+  public void trim() {
+    synchronized (myLock) {
+      myEvictionCount.addAndGet(myIdleBuffers.size());
+      myPool.clear();
+      myIdleBuffers.clear();
+      myPooledBytes = 0;
+    }
+  }
+
   @NotNull
   public Image create(final int w, final int h, final int type) {
     return create(w, h, type, null);
@@ -175,21 +261,99 @@ public class ImagePool {
       return NULL_POOLED_IMAGE;
     }
 
-    int w = origin.getWidth();
-    int h = origin.getHeight();
-    int type = origin.getType();
+    try (RenderTracer.Span ignored = RenderTracer.start(RenderTracer.Stage.IMAGE_COPY)) {
+      int w = origin.getWidth();
+      int h = origin.getHeight();
+      int type = origin.getType();
+
+      ImageImpl image = create(w, h, type, null);
+      image.drawFrom(origin);
+
+      return image;
+    }
+  }
+
+  /**
+   * Returns the number of images that were served from the pool.
+   */
+  public long getHitCount() {
+    return myHitCount.get();
+  }
 
-    ImageImpl image = create(w, h, type, null);
-    image.drawFrom(origin);
+  /**
+   * Returns the number of images that had to be allocated.
+   */
+  public long getMissCount() {
+    return myMissCount.get();
+  }
 
-    return image;
+  public double getHitRate() {
+    long hits = myHitCount.get();
+    long total = hits + myMissCount.get();
+    return total == 0 ? 0 : (double)hits / total;
+  }
+
+  /**
+   * Returns the number of images released from the pool to stay within its budget or because the IDE was low on memory.
+   */
+  public long getEvictionCount() {
+    return myEvictionCount.get();
+  }
+
+  /**
+   * Returns the memory held by the images that are not in use.
+   */
+  public long getPooledBytes() {
+    synchronized (myLock) {
+      return myPooledBytes;
+    }
   }
 
   public void dispose() {
     isDisposed = true;
+    myLowMemoryWatcher.stop();
     myFinalizableReferenceQueue.close();
     myReferences.clear();
-    myPool.clear();
+    trim();
+  }
+
+  /**
+   * The idle images of one size class and type.
+   */
+  private static class Bucket {
+    private final ArrayDeque<PooledBuffer> myBuffers = new ArrayDeque<>();
+    private long myBytes;
+  }
+
+  /**
+   * An image of the dimensions of a size class, from which images of any dimension in that size class are carved out.
+   */
+  private static class PooledBuffer {
+    private final long myKey;
+    @NotNull private final BufferedImage myBackingImage;
+    private final long myBytes;
+    /** The last image returned by {@link #getView(int, int)}, reused when the same dimensions are requested again */
+    @NotNull private BufferedImage myView;
+
+    private PooledBuffer(long key, @NotNull BufferedImage backingImage) {
+      myKey = key;
+      myBackingImage = backingImage;
+      DataBuffer dataBuffer = backingImage.getRaster().getDataBuffer();
+      myBytes = (long)dataBuffer.getSize() * dataBuffer.getNumBanks() * DataBuffer.getDataTypeSize(dataBuffer.getDataType()) / 8;
+      myView = backingImage;
+    }
+
+    /**
+     * Returns an image of the given dimensions sharing the memory of the backing image.
+     */
+    @NotNull
+    private BufferedImage getView(int w, int h) {
+      if (myView.getWidth() != w || myView.getHeight() != h) {
+        // The sub image shares the data buffer of the backing image, so it can still be cached by Java2D when drawn on screen
+        myView = myBackingImage.getSubimage(0, 0, w, h);
+      }
+      return myView;
+    }
   }
 
   /**
@@ -15,6 +15,7 @@
  */
 package com.android.tools.idea.rendering;
 
+import com.android.tools.idea.rendering.trace.RenderTracer;
 import com.google.common.io.ByteStreams;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -161,7 +162,9 @@ public abstract class RenderClassLoader extends ClassLoader {
 
   @NotNull
   protected byte[] convertClass(@NotNull byte[] data) {
-    return ClassConverter.rewriteClass(data, myLayoutlibApiLevel);
+    try (RenderTracer.Span ignored = RenderTracer.start(RenderTracer.Stage.CLASS_REWRITE)) {
+      return ClassConverterCache.getInstance().rewriteClass(data, myLayoutlibApiLevel);
+    }
   }
 
   @NotNull
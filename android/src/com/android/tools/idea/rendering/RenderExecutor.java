@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.android.tools.idea.rendering.trace.RenderTracer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Executor for the layoutlib render actions, see {@link RenderService#runRenderAction(Callable)}.
+ * <p/>
+ * Render actions run on a fixed number of render threads. Each action is routed to a thread by its affinity key, so all the actions of a
+ * given key (e.g. a {@link RenderTask} and its {@link com.android.ide.common.rendering.api.RenderSession}) always run on the same thread,
+ * while actions with different keys can run concurrently on different threads. With a single thread, which is the default, every render
+ * action is serialized as layoutlib expects. Each thread is shut down after being idle for a while.
+ * <p/>
+ * The executor also keeps a few metrics about its queues, to help diagnose slow or stuck previews.
+ */
+public final class RenderExecutor {
+  private static final String THREAD_NAME = "Layoutlib Render Thread";
+
+  @NotNull private final Lane[] myLanes;
+
+  private final AtomicLong myCompletedTaskCount = new AtomicLong();
+  private final AtomicLong myTotalQueueWaitNs = new AtomicLong();
+  private final AtomicLong myMaxQueueWaitNs = new AtomicLong();
+  private final AtomicLong myTimeoutCount = new AtomicLong();
+
+  RenderExecutor(int threadCount, long idleTimeoutMs) {
+    myLanes = new Lane[Math.max(1, threadCount)];
+    for (int i = 0; i < myLanes.length; i++) {
+      myLanes[i] = new Lane(myLanes.length == 1 ? THREAD_NAME : THREAD_NAME + " #" + (i + 1), idleTimeoutMs);
+    }
+  }
+
+  /**
+   * Returns the lane that runs the actions of the given affinity key. Actions without a key all go to the first lane.
+   */
+  @NotNull
+  Lane getLane(@Nullable Object affinityKey) {
+    if (affinityKey == null || myLanes.length == 1) {
+      return myLanes[0];
+    }
+    return myLanes[Math.floorMod(affinityKey.hashCode(), myLanes.length)];
+  }
+
+  void shutdownNow() {
+    for (Lane lane : myLanes) {
+      lane.myExecutor.shutdownNow();
+      lane.myThread.set(null);
+    }
+  }
+
+  /**
+   * Returns the number of render threads.
+   */
+  public int getThreadCount() {
+    return myLanes.length;
+  }
+
+  /**
+   * Returns the number of render actions waiting for a render thread.
+   */
+  public int getQueuedTaskCount() {
+    int count = 0;
+    for (Lane lane : myLanes) {
+      count += lane.myExecutor.getQueue().size();
+    }
+    return count;
+  }
+
+  /**
+   * Returns the number of render actions currently running.
+   */
+  public int getActiveTaskCount() {
+    int count = 0;
+    for (Lane lane : myLanes) {
+      count += lane.myExecutor.getActiveCount();
+    }
+    return count;
+  }
+
+  /**
+   * Returns the number of render actions that have completed, successfully or not.
+   */
+  public long getCompletedTaskCount() {
+    return myCompletedTaskCount.get();
+  }
+
+  /**
+   * Returns the number of times a caller stopped waiting for a render action because it timed out.
+   */
+  public long getTimeoutCount() {
+    return myTimeoutCount.get();
+  }
+
+  /**
+   * Returns the average time, in milliseconds, render actions waited for a render thread before starting.
+   */
+  public long getAverageQueueWaitMs() {
+    long completed = myCompletedTaskCount.get();
+    return completed == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(myTotalQueueWaitNs.get() / completed);
+  }
+
+  /**
+   * Returns the longest time, in milliseconds, a render action waited for a render thread before starting.
+   */
+  public long getMaxQueueWaitMs() {
+    return TimeUnit.NANOSECONDS.toMillis(myMaxQueueWaitNs.get());
+  }
+
+  @Override
+  public String toString() {
+    return String.format("threads=%d queued=%d active=%d completed=%d timeouts=%d avgWait=%dms maxWait=%dms", getThreadCount(),
+                         getQueuedTaskCount(), getActiveTaskCount(), getCompletedTaskCount(), getTimeoutCount(), getAverageQueueWaitMs(),
+                         getMaxQueueWaitMs());
+  }
+
+  /**
+   * A single render thread and its queue.
+   */
+  final class Lane {
+    private final AtomicReference<Thread> myThread = new AtomicReference<>();
+    private final AtomicInteger myTimeoutCounter = new AtomicInteger(0);
+    @NotNull private final ThreadPoolExecutor myExecutor;
+
+    private Lane(@NotNull String threadName, long idleTimeoutMs) {
+      myExecutor = new ThreadPoolExecutor(0, 1, idleTimeoutMs, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), (Runnable r) -> {
+        Thread renderingThread = new Thread(null, r, threadName);
+        renderingThread.setDaemon(true);
+        myThread.set(renderingThread);
+
+        return renderingThread;
+      });
+    }
+
+    @NotNull
+    <T> Future<T> submit(@NotNull Callable<T> callable) {
+      long submitTimeNs = System.nanoTime();
+      // The spans started by the action are children of the span that submitted it
+      return myExecutor.submit(RenderTracer.wrap(() -> {
+        long waitNs = System.nanoTime() - submitTimeNs;
+        myTotalQueueWaitNs.addAndGet(waitNs);
+        myMaxQueueWaitNs.accumulateAndGet(waitNs, Math::max);
+        RenderTracer.record(RenderTracer.Stage.QUEUE_WAIT, submitTimeNs, waitNs);
+        try {
+          return callable.call();
+        }
+        finally {
+          myCompletedTaskCount.incrementAndGet();
+        }
+      }));
+    }
+
+    /**
+     * Returns the number of consecutive timeouts of this lane, which is reset by {@link #resetTimeouts()}.
+     */
+    int getTimeoutCount() {
+      return myTimeoutCounter.get();
+    }
+
+    void resetTimeouts() {
+      myTimeoutCounter.set(0);
+    }
+
+    void onTimeout() {
+      myTimeoutCounter.incrementAndGet();
+      myTimeoutCount.incrementAndGet();
+    }
+
+    /**
+     * Returns the thread currently running the actions of this lane, if any.
+     */
+    @Nullable
+    Thread getThread() {
+      return myThread.get();
+    }
+  }
+}
@@ -103,6 +103,25 @@ public class RenderResult {
       Collections.emptyMap());
   }
 
+  /**
+   * Creates a new {@link RenderResult} for an image read from the {@link RenderResultCache}. The result has no view information.
+   */
+  @NotNull
+  public static RenderResult createFromCache(@NotNull RenderTask renderTask,
+                                             @NotNull PsiFile file,
+                                             @NotNull ImagePool.Image image) {
+    return new RenderResult(
+      file,
+      renderTask.getModule(),
+      new RenderLogger(null, renderTask.getModule()),
+      renderTask,
+      Result.Status.SUCCESS.createResult(),
+      Collections.emptyList(),
+      Collections.emptyList(),
+      image,
+      Collections.emptyMap());
+  }
+
   /**
    * Creates a new blank {@link RenderResult}
    *
@@ -0,0 +1,403 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.android.ide.common.rendering.HardwareConfigHelper;
+import com.android.ide.common.rendering.LayoutLibrary;
+import com.android.ide.common.rendering.api.HardwareConfig;
+import com.android.resources.ResourceFolderType;
+import com.android.sdklib.AndroidVersion;
+import com.android.sdklib.IAndroidTarget;
+import com.android.sdklib.devices.Device;
+import com.android.tools.idea.configurations.Configuration;
+import com.android.tools.idea.layoutlib.LayoutLibraryLoader;
+import com.android.tools.idea.model.AndroidModuleInfo;
+import com.android.tools.idea.res.AppResourceRepository;
+import com.android.tools.idea.res.FileResourceRepository;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.intellij.openapi.application.ApplicationInfo;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.JavaPsiFacade;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.xml.XmlFile;
+import com.intellij.psi.xml.XmlTag;
+import org.jetbrains.android.facet.AndroidFacet;
+import org.jetbrains.android.util.AndroidUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.ide.PooledThreadExecutor;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.android.SdkConstants.*;
+import static com.google.common.base.Charsets.UTF_8;
+
+/**
+ * Disk backed cache of rendered layout images.
+ * <p>
+ * Images are stored as PNG files named after a content hash of everything that affects the rendering: the layout {@link TagSnapshot}
+ * tree, the {@link Configuration}, the render options of the {@link RenderTask} and the state of the module resources. This allows
+ * the layout editor to display a previous rendering of a layout immediately when it is opened again (even after an IDE restart)
+ * while the layout is inflated and rendered in the background.
+ * <p>
+ * Layouts whose rendering depends on code from the project (custom views and fragments) or on another layout (included layouts)
+ * are never cached since their rendering can change without any change in the inputs above.
+ */
+public class RenderResultCache {
+  private static final Logger LOG = Logger.getInstance(RenderResultCache.class);
+
+  /** Set the "layoutlib.render.cache.disabled" system property to true to disable the cache */
+  private static final boolean ENABLED = !Boolean.getBoolean("layoutlib.render.cache.disabled");
+  /** Maximum size of the cache directory, in MB */
+  private static final int MAX_SIZE_MB = Integer.getInteger("layoutlib.render.cache.size.mb", 64);
+  /** Increase when the contents of the key change so old entries are not reused */
+  private static final int KEY_VERSION = 3;
+  private static final String IMAGE_EXTENSION = ".png";
+  private static final String TEMP_EXTENSION = ".tmp";
+  private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+  private static RenderResultCache ourInstance;
+
+  @NotNull private final File myCacheDir;
+  private final long myMaxSizeBytes;
+  @NotNull private final Executor myWriteExecutor;
+  /** Resource fingerprints per facet, recomputed only when the app resources modification count changes */
+  private final Map<AndroidFacet, ResourceFingerprint> myResourceFingerprints = Collections.synchronizedMap(new WeakHashMap<>());
+  private final AtomicInteger myHitCount = new AtomicInteger();
+  private final AtomicInteger myMissCount = new AtomicInteger();
+
+  @VisibleForTesting
+  RenderResultCache(@NotNull File cacheDir, long maxSizeBytes, @NotNull Executor writeExecutor) {
+    myCacheDir = cacheDir;
+    myMaxSizeBytes = maxSizeBytes;
+    myWriteExecutor = writeExecutor;
+  }
+
+  @NotNull
+  public static synchronized RenderResultCache getInstance() {
+    if (ourInstance == null) {
+      ourInstance = new RenderResultCache(new File(PathManager.getSystemPath(), "layoutlib-render-cache"),
+                                          MAX_SIZE_MB * 1024L * 1024L, PooledThreadExecutor.INSTANCE);
+    }
+    return ourInstance;
+  }
+
+  /**
+   * Returns the cached image for the given key or null if there is no cached image
+   */
+  @Nullable
+  public BufferedImage get(@NotNull String key) {
+    File file = getImageFile(key);
+    if (!file.isFile()) {
+      myMissCount.incrementAndGet();
+      return null;
+    }
+
+    try {
+      BufferedImage image = ImageIO.read(file);
+      if (image != null) {
+        // Keep the most recently used entries when the cache is trimmed
+        //noinspection ResultOfMethodCallIgnored
+        file.setLastModified(System.currentTimeMillis());
+        myHitCount.incrementAndGet();
+        return image;
+      }
+    }
+    catch (IOException e) {
+      LOG.debug(e);
+    }
+
+    // The entry is corrupted
+    //noinspection ResultOfMethodCallIgnored
+    file.delete();
+    myMissCount.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * Stores the given image in the cache. The image is written asynchronously so the caller must not modify it after this call.
+   */
+  public void put(@NotNull String key, @NotNull BufferedImage image) {
+    myWriteExecutor.execute(() -> {
+      try {
+        write(key, image);
+      }
+      catch (IOException e) {
+        LOG.debug("Unable to write the render cache entry", e);
+      }
+    });
+  }
+
+  private synchronized void write(@NotNull String key, @NotNull BufferedImage image) throws IOException {
+    if (!myCacheDir.isDirectory() && !myCacheDir.mkdirs()) {
+      throw new IOException("Unable to create " + myCacheDir);
+    }
+
+    // Write to a temporary file first so readers never see a partially written image
+    File file = getImageFile(key);
+    File tempFile = new File(myCacheDir, key + TEMP_EXTENSION);
+    try {
+      if (!ImageIO.write(image, "png", tempFile)) {
+        throw new IOException("No PNG writer available");
+      }
+      Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    finally {
+      //noinspection ResultOfMethodCallIgnored
+      tempFile.delete();
+    }
+
+    trim();
+  }
+
+  /**
+   * Removes the least recently used entries until the cache fits within its maximum size
+   */
+  private void trim() {
+    File[] files = myCacheDir.listFiles((dir, name) -> name.endsWith(IMAGE_EXTENSION));
+    if (files == null) {
+      return;
+    }
+
+    long size = 0;
+    for (File file : files) {
+      size += file.length();
+    }
+    if (size <= myMaxSizeBytes) {
+      return;
+    }
+
+    Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+    for (File file : files) {
+      if (size <= myMaxSizeBytes) {
+        break;
+      }
+      long length = file.length();
+      if (file.delete()) {
+        size -= length;
+      }
+    }
+  }
+
+  @NotNull
+  private File getImageFile(@NotNull String key) {
+    return new File(myCacheDir, key + IMAGE_EXTENSION);
+  }
+
+  public int getHitCount() {
+    return myHitCount.get();
+  }
+
+  public int getMissCount() {
+    return myMissCount.get();
+  }
+
+  /**
+   * Computes the cache key for the current state of the given {@link RenderTask}, or returns null if the rendering of the task can
+   * not be cached.
+   */
+  @Nullable
+  public String computeKey(@NotNull RenderTask task) {
+    XmlFile file = task.getPsiFile();
+    if (!ENABLED || file == null || task.getIncludedWithin() != IncludeReference.NONE) {
+      return null;
+    }
+    Set<XmlTag> expandNodes = task.getExpandNodes();
+    if (expandNodes != null && !expandNodes.isEmpty()) {
+      return null;
+    }
+
+    TagSnapshot snapshot = ApplicationManager.getApplication().runReadAction(new Computable<TagSnapshot>() {
+      @Nullable
+      @Override
+      public TagSnapshot compute() {
+        XmlTag rootTag = file.getRootTag();
+        if (rootTag == null || IncludeReference.getIncludingLayout(file) != null) {
+          return null;
+        }
+        TagSnapshot snapshot = TagSnapshot.createTagSnapshot(rootTag);
+        JavaPsiFacade facade = JavaPsiFacade.getInstance(file.getProject());
+        return isCacheable(snapshot, facade, GlobalSearchScope.projectScope(file.getProject())) ? snapshot : null;
+      }
+    });
+    if (snapshot == null) {
+      return null;
+    }
+
+    Hasher hasher = HASH_FUNCTION.newHasher();
+    hasher.putInt(KEY_VERSION);
+    putString(hasher, ApplicationInfo.getInstance().getBuild().asString());
+    // The layout library is not necessarily the one bundled with the IDE, it can be loaded from the platform of the SDK, which is updated
+    // separately.
+    LayoutLibrary layoutLib = task.getLayoutLib();
+    hasher.putBoolean(LayoutLibraryLoader.USE_SDK_LAYOUTLIB);
+    hasher.putInt(layoutLib.getApiLevel());
+    hasher.putInt(layoutLib.getRevision());
+    snapshot.hashTree(hasher);
+
+    Configuration configuration = task.getConfiguration();
+    Device device = configuration.getDevice();
+    IAndroidTarget target = configuration.getTarget();
+    putString(hasher, configuration.getFullConfig().getUniqueKey());
+    putString(hasher, device != null ? device.getId() : null);
+    putString(hasher, target != null ? target.hashString() : null);
+    hasher.putInt(target != null ? target.getRevision() : -1);
+    putString(hasher, configuration.getTheme());
+    putString(hasher, configuration.getActivity());
+
+    HardwareConfig hardwareConfig = task.getHardwareConfigHelper().getConfig();
+    hasher.putInt(hardwareConfig.getScreenWidth());
+    hasher.putInt(hardwareConfig.getScreenHeight());
+    hasher.putFloat(hardwareConfig.getXdpi());
+    hasher.putFloat(hardwareConfig.getYdpi());
+    putString(hasher, String.valueOf(hardwareConfig.getDensity()));
+    putString(hasher, String.valueOf(hardwareConfig.getOrientation()));
+    putString(hasher, String.valueOf(hardwareConfig.getScreenRoundness()));
+    hasher.putBoolean(hardwareConfig.hasSoftwareButtons());
+
+    ResourceFolderType folderType = task.getFolderType();
+    Integer overrideBgColor = task.getOverrideBgColor();
+    putString(hasher, task.getRenderingMode().name());
+    putString(hasher, folderType != null ? folderType.getName() : null);
+    hasher.putBoolean(task.getShowDecorations());
+    hasher.putBoolean(overrideBgColor != null);
+    hasher.putInt(overrideBgColor != null ? overrideBgColor : 0);
+
+    AndroidFacet facet = AndroidFacet.getInstance(task.getModule());
+    if (facet == null) {
+      return null;
+    }
+    AndroidModuleInfo moduleInfo = AndroidModuleInfo.get(facet);
+    AndroidVersion minSdkVersion = moduleInfo.getMinSdkVersion();
+    AndroidVersion targetSdkVersion = moduleInfo.getTargetSdkVersion();
+    hasher.putInt(minSdkVersion.getApiLevel());
+    hasher.putInt(targetSdkVersion.getApiLevel());
+    hasher.putBytes(getResourceFingerprint(facet).asBytes());
+
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Returns false if the rendering of the given tree depends on code from the project
+   */
+  private static boolean isCacheable(@NotNull TagSnapshot tag, @NotNull JavaPsiFacade facade, @NotNull GlobalSearchScope projectScope) {
+    if (VIEW_FRAGMENT.equals(tag.tagName)) {
+      return false;
+    }
+
+    String className = VIEW_TAG.equals(tag.tagName) ? tag.getAttribute(ATTR_CLASS) : tag.tagName;
+    if (className != null && className.indexOf('.') != -1 && facade.findClass(className, projectScope) != null) {
+      return false;
+    }
+
+    for (TagSnapshot child : tag.children) {
+      if (!isCacheable(child, facade, projectScope)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns a hash of the resource files of the given facet and its dependencies. Files are identified by their path, timestamp
+   * and size, or by their contents if they have unsaved changes, and library resources by their directory, which for AARs includes
+   * the library version.
+   */
+  @NotNull
+  private HashCode getResourceFingerprint(@NotNull AndroidFacet facet) {
+    AppResourceRepository appResources = AppResourceRepository.getAppResources(facet, true);
+    long modificationCount = appResources.getModificationCount();
+    ResourceFingerprint fingerprint = myResourceFingerprints.get(facet);
+    if (fingerprint != null && fingerprint.modificationCount == modificationCount) {
+      return fingerprint.hash;
+    }
+
+    FileDocumentManager documentManager = FileDocumentManager.getInstance();
+    Hasher hasher = HASH_FUNCTION.newHasher();
+    List<AndroidFacet> facets = new ArrayList<>();
+    facets.add(facet);
+    facets.addAll(AndroidUtils.getAllAndroidDependencies(facet.getModule(), true));
+    for (AndroidFacet resourceFacet : facets) {
+      for (VirtualFile resourceDir : resourceFacet.getAllResourceDirectories()) {
+        putString(hasher, resourceDir.getPath());
+        for (VirtualFile folder : resourceDir.getChildren()) {
+          if (!folder.isDirectory()) {
+            continue;
+          }
+          for (VirtualFile resourceFile : folder.getChildren()) {
+            putString(hasher, resourceFile.getPath());
+            // The resource repositories, and so the rendering, see the unsaved changes which the file on disk does not have
+            Document document = documentManager.isFileModified(resourceFile) ? documentManager.getCachedDocument(resourceFile) : null;
+            hasher.putBoolean(document != null);
+            if (document != null) {
+              putString(hasher, document.getImmutableCharSequence());
+            }
+            else {
+              hasher.putLong(resourceFile.getTimeStamp());
+              hasher.putLong(resourceFile.getLength());
+            }
+          }
+        }
+      }
+    }
+    for (FileResourceRepository library : appResources.getLibraries()) {
+      putString(hasher, library.getResourceDirectory().getPath());
+    }
+
+    fingerprint = new ResourceFingerprint(modificationCount, hasher.hash());
+    myResourceFingerprints.put(facet, fingerprint);
+    return fingerprint.hash;
+  }
+
+  private static void putString(@NotNull Hasher hasher, @Nullable CharSequence s) {
+    if (s == null) {
+      hasher.putInt(-1);
+    }
+    else {
+      hasher.putInt(s.length());
+      hasher.putString(s, UTF_8);
+    }
+  }
+
+  private static class ResourceFingerprint {
+    final long modificationCount;
+    @NotNull final HashCode hash;
+
+    private ResourceFingerprint(long modificationCount, @NotNull HashCode hash) {
+      this.modificationCount = modificationCount;
+      this.hash = hash;
+    }
+  }
+}
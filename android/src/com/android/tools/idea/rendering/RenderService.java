@@ -58,8 +58,6 @@ import org.jetbrains.annotations.Nullable;
 import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
 
 import static com.android.SdkConstants.TAG_PREFERENCE_SCREEN;
 import static com.intellij.lang.annotation.HighlightSeverity.ERROR;
@@ -76,27 +74,18 @@ public class RenderService {
   private static final long DEFAULT_RENDER_THREAD_TIMEOUT_MS = Integer.getInteger("layoutlib.thread.timeout", 6000);
   /** Number of ms that we will keep the render thread alive when idle */
   private static final long RENDER_THREAD_IDLE_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+  /**
+   * Number of render threads. Using more than one thread is opt-in: render actions of different {@link RenderTask}s then run on
+   * different threads, so that a slow custom view in one layout does not block the previews of the other ones.
+   */
+  private static final int RENDER_THREAD_COUNT = Integer.getInteger("layoutlib.thread.count", 1);
 
-  private static final AtomicReference<Thread> ourRenderingThread = new AtomicReference<>();
-  private static final ExecutorService ourRenderingExecutor = new ThreadPoolExecutor(0, 1,
-                                                                                     RENDER_THREAD_IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS,
-                                                                                     new LinkedBlockingQueue<>(),
-                                                                                     (Runnable r) -> {
-                                                                                       Thread renderingThread =
-                                                                                         new Thread(null, r, "Layoutlib Render Thread");
-                                                                                       renderingThread.setDaemon(true);
-                                                                                       ourRenderingThread.set(renderingThread);
-
-                                                                                       return renderingThread;
-                                                                                     });
-  private static final AtomicInteger ourTimeoutExceptionCounter = new AtomicInteger(0);
+  private static final RenderExecutor ourRenderingExecutor = new RenderExecutor(RENDER_THREAD_COUNT, RENDER_THREAD_IDLE_TIMEOUT_MS);
+  private static final ImagePool ourImagePool = new ImagePool();
 
   static {
     // Register the executor to be shutdown on close
-    ShutDownTracker.getInstance().registerShutdownTask(() -> {
-      ourRenderingExecutor.shutdownNow();
-      ourRenderingThread.set(null);
-    });
+    ShutDownTracker.getInstance().registerShutdownTask(ourRenderingExecutor::shutdownNow);
   }
 
   private static final String JDK_INSTALL_URL = "https://developer.android.com/preview/setup-sdk.html#java8";
@@ -395,23 +384,38 @@ public class RenderService {
    * method.
    */
   public static <T> T runRenderAction(@NotNull Callable<T> callable) throws Exception {
+    return runRenderAction(callable, null, DEFAULT_RENDER_THREAD_TIMEOUT_MS);
+  }
+
+  /**
+   * Runs a action that requires the rendering lock, see {@link #runRenderAction(Callable)}.
+   *
+   * @param affinityKey all the actions with the same key run on the same render thread. Actions with different keys might run
+   *                    concurrently if more than one render thread has been enabled.
+   * @param timeoutMs   number of ms to wait for the action to complete, or 0 to use the default timeout
+   */
+  public static <T> T runRenderAction(@NotNull Callable<T> callable, @Nullable Object affinityKey, long timeoutMs) throws Exception {
+    RenderExecutor.Lane lane = ourRenderingExecutor.getLane(affinityKey);
     try {
       // If the number of timeouts exceeds a certain threshold, stop waiting so the caller doesn't block. We try to submit a task that
       // clean-up the timeout counter instead. If it goes through, it means the queue is free.
-      if (ourTimeoutExceptionCounter.get() > 3) {
-        ourRenderingExecutor.submit(() -> ourTimeoutExceptionCounter.set(0)).get(50, TimeUnit.MILLISECONDS);
+      if (lane.getTimeoutCount() > 3) {
+        lane.submit(() -> {
+          lane.resetTimeouts();
+          return null;
+        }).get(50, TimeUnit.MILLISECONDS);
       }
 
-      T result = ourRenderingExecutor.submit(callable).get(DEFAULT_RENDER_THREAD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      T result = lane.submit(callable).get(timeoutMs > 0 ? timeoutMs : DEFAULT_RENDER_THREAD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
       // The executor seems to be taking tasks so reset the counter
-      ourTimeoutExceptionCounter.set(0);
+      lane.resetTimeouts();
 
       return result;
     }
     catch (TimeoutException e) {
-      ourTimeoutExceptionCounter.incrementAndGet();
+      lane.onTimeout();
 
-      Thread renderingThread = ourRenderingThread.get();
+      Thread renderingThread = lane.getThread();
       TimeoutException timeoutException = new TimeoutException("Preview timed out while rendering the layout.\n" +
                                                                "This typically happens when there is an infinite loop or unbounded recursion in one of the custom views.");
       if (renderingThread != null) {
@@ -422,6 +426,22 @@ public class RenderService {
     }
   }
 
+  /**
+   * Returns the executor running the render actions, which exposes metrics about the render queues.
+   */
+  @NotNull
+  public static RenderExecutor getRenderExecutor() {
+    return ourRenderingExecutor;
+  }
+
+  /**
+   * Returns the pool of the images of the render results, shared by all the render tasks.
+   */
+  @NotNull
+  public static ImagePool getImagePool() {
+    return ourImagePool;
+  }
+
   /**
    * Given a {@link ViewInfo} from a layoutlib rendering, checks that the view info provides
    * valid bounds. This is normally the case. However, there are known scenarios, where
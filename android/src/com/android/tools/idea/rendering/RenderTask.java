@@ -39,6 +39,7 @@ import com.android.tools.idea.model.MergedManifest;
 import com.android.tools.idea.model.MergedManifest.ActivityAttributes;
 import com.android.tools.idea.rendering.multi.CompatibilityRenderTarget;
 import com.android.tools.idea.rendering.multi.RenderPreviewMode;
+import com.android.tools.idea.rendering.trace.RenderTracer;
 import com.android.tools.idea.res.AppResourceRepository;
 import com.android.tools.idea.res.AssetRepositoryImpl;
 import com.android.tools.idea.res.ResourceHelper;
@@ -70,6 +71,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import static com.android.SdkConstants.APPCOMPAT_LIB_ARTIFACT;
@@ -83,7 +85,7 @@ import static com.intellij.lang.annotation.HighlightSeverity.ERROR;
 public class RenderTask implements IImageFactory {
   private static final Logger LOG = Logger.getInstance(RenderTask.class);
 
-  private final ImagePool myImagePool = new ImagePool();
+  private final ImagePool myImagePool = RenderService.getImagePool();
 
   @NotNull
   private final RenderService myRenderService;
@@ -126,6 +128,9 @@ public class RenderTask implements IImageFactory {
 
   private long myTimeout;
 
+  /** Number of ms to wait for each render action of this task, or 0 to use the {@link RenderService} default */
+  private long myRenderThreadTimeoutMs;
+
   @Nullable
   private Set<XmlTag> myExpandNodes;
 
@@ -145,6 +150,11 @@ public class RenderTask implements IImageFactory {
   private IImageFactory myImageFactoryDelegate;
   /** Cached {@link BufferedImage} that will be returned when direct rendering is not used. See {@link #render(Graphics2D)} */
   private SoftReference<BufferedImage> myCachedImageReference;
+  /** {@link RenderResultCache} key of the layout inflated by {@link #inflate()}, until its first rendering has been stored */
+  @Nullable private String myRenderCacheKey;
+  /** {@link RenderResultCache} key computed by {@link #getCachedResult()}, reused by the next {@link #inflate()} */
+  @Nullable private String myPendingRenderCacheKey;
+  private boolean myHasPendingRenderCacheKey;
 
   private boolean isSecurityManagerEnabled = true;
   private CrashReporter myCrashReporter;
@@ -254,7 +264,6 @@ public class RenderTask implements IImageFactory {
    * Disposes the RenderTask and releases the allocated resources. Do not call this method while holding the read lock.
    */
   public void dispose() {
-    myImagePool.dispose();
     myLayoutlibCallback.setLogger(null);
     myLayoutlibCallback.setResourceResolver(null);
     if (myRenderSession != null) {
@@ -262,7 +271,7 @@ public class RenderTask implements IImageFactory {
              !ApplicationManager.getApplication().isReadAccessAllowed() : "Do not hold read lock during dispose!";
 
       try {
-        RenderService.runRenderAction(myRenderSession::dispose);
+        runRenderAction(myRenderSession::dispose);
         myRenderSession = null;
       }
       catch (Exception ignored) {
@@ -328,6 +337,15 @@ public class RenderTask implements IImageFactory {
     return this;
   }
 
+  /**
+   * Sets how long to wait for each render action of this task to complete on the render thread, before giving up with a timeout error.
+   * The default, 0, uses the {@link RenderService} timeout.
+   */
+  public RenderTask setRenderThreadTimeout(long timeoutMs) {
+    myRenderThreadTimeoutMs = timeoutMs;
+    return this;
+  }
+
   /**
    * Sets the overriding background color to be used, if any. The color should be a
    * bitmask of AARRGGBB. The default is null.
@@ -342,6 +360,11 @@ public class RenderTask implements IImageFactory {
     return this;
   }
 
+  @Nullable
+  public Integer getOverrideBgColor() {
+    return myOverrideBgColor;
+  }
+
   /**
    * Sets whether the rendering should include decorations such as a system bar, an
    * application bar etc depending on the SDK target and theme. The default is true.
@@ -443,7 +466,10 @@ public class RenderTask implements IImageFactory {
       return null;
     }
 
-    ILayoutPullParser modelParser = LayoutPullParserFactory.create(this);
+    ILayoutPullParser modelParser;
+    try (RenderTracer.Span ignored = RenderTracer.start(RenderTracer.Stage.PARSE)) {
+      modelParser = LayoutPullParserFactory.create(this);
+    }
     if (modelParser == null) {
       return null;
     }
@@ -564,7 +590,9 @@ public class RenderTask implements IImageFactory {
               if (session != null) {
                 session.dispose();
               }
-              session = myLayoutLib.createSession(params);
+              try (RenderTracer.Span ignored = RenderTracer.start(RenderTracer.Stage.LAYOUTLIB_INFLATE)) {
+                session = myLayoutLib.createSession(params);
+              }
               Result result = session.getResult();
               if (result.getStatus() != Result.Status.ERROR_TIMEOUT) {
                 // Sometimes happens at startup; treat it as a timeout; typically a retry fixes it
@@ -676,8 +704,12 @@ public class RenderTask implements IImageFactory {
       throw new IllegalStateException("inflate shouldn't be called on RenderTask without PsiFile");
     }
 
-    try {
-      return RenderService.runRenderAction(() -> createRenderSession((width, height) -> {
+    // Computing the key snapshots the layout tree, so it is only done once when the cached result was just looked up
+    myRenderCacheKey = myHasPendingRenderCacheKey ? myPendingRenderCacheKey : RenderResultCache.getInstance().computeKey(this);
+    myPendingRenderCacheKey = null;
+    myHasPendingRenderCacheKey = false;
+    try (RenderTracer.Span ignored = RenderTracer.start(RenderTracer.Stage.INFLATE)) {
+      return runRenderAction(() -> createRenderSession((width, height) -> {
         if (myImageFactoryDelegate != null) {
           return myImageFactoryDelegate.getImage(width, height);
         }
@@ -703,8 +735,8 @@ public class RenderTask implements IImageFactory {
     if (myRenderSession == null) {
       return null;
     }
-    try {
-      return RenderService.runRenderAction(() -> {
+    try (RenderTracer.Span ignored = RenderTracer.start(RenderTracer.Stage.MEASURE)) {
+      return runRenderAction(() -> {
         myRenderSession.measure();
         return RenderResult.create(this, myRenderSession, myPsiFile, myLogger, ImagePool.NULL_POOLED_IMAGE);
       });
@@ -715,6 +747,18 @@ public class RenderTask implements IImageFactory {
     return null;
   }
 
+  /**
+   * Runs a render action for this task. All the actions of a task run on the same render thread, as its {@link RenderSession} is
+   * bound to the thread that created it.
+   */
+  private <T> T runRenderAction(@NotNull Callable<T> callable) throws Exception {
+    return RenderService.runRenderAction(callable, this, myRenderThreadTimeoutMs);
+  }
+
+  private void runRenderAction(@NotNull Runnable runnable) throws Exception {
+    runRenderAction(Executors.callable(runnable));
+  }
+
   /**
    * Method used to report unhandled layoutlib exceptions to the crash reporter
    */
@@ -729,6 +773,12 @@ public class RenderTask implements IImageFactory {
    * Renders the layout to the current {@link IImageFactory} set in {@link #myImageFactoryDelegate}
    */
   private RenderResult renderInner() {
+    try (RenderTracer.Span ignored = RenderTracer.start(RenderTracer.Stage.RENDER)) {
+      return doRenderInner();
+    }
+  }
+
+  private RenderResult doRenderInner() {
     // During development only:
     //assert !ApplicationManager.getApplication().isReadAccessAllowed() : "Do not hold read lock during render!";
 
@@ -748,13 +798,16 @@ public class RenderTask implements IImageFactory {
     assert myPsiFile != null;
 
     try {
-      return RenderService.runRenderAction(() -> {
-        myRenderSession.render();
+      return runRenderAction(() -> {
+        try (RenderTracer.Span ignored = RenderTracer.start(RenderTracer.Stage.LAYOUTLIB_RENDER)) {
+          myRenderSession.render();
+        }
         RenderResult result =
           RenderResult.create(this, myRenderSession, myPsiFile, myLogger, myImagePool.copyOf(myRenderSession.getImage()));
         if (result.getRenderResult().getException() != null) {
           reportException(result.getRenderResult().getException());
         }
+        cacheRenderResult(result);
         return result;
       });
     }
@@ -769,6 +822,45 @@ public class RenderTask implements IImageFactory {
     }
   }
 
+  /**
+   * Stores the image of the first successful rendering of the inflated layout in the {@link RenderResultCache}
+   */
+  private void cacheRenderResult(@NotNull RenderResult result) {
+    String key = myRenderCacheKey;
+    if (key == null || myImageFactoryDelegate == myFakeImageFactory) {
+      // Direct rendering to a Graphics2D does not produce an image
+      return;
+    }
+    myRenderCacheKey = null;
+
+    if (!result.getRenderResult().isSuccess() || !result.hasImage() || myLogger.hasProblems()) {
+      return;
+    }
+    BufferedImage image = result.getRenderedImage().getCopy();
+    if (image != null) {
+      RenderResultCache.getInstance().put(key, image);
+    }
+  }
+
+  /**
+   * Returns a {@link RenderResult} with the image of a previous rendering of this layout with the same configuration and resources,
+   * if one is available in the {@link RenderResultCache}. The result does not contain any view information so it can only be used
+   * to display the layout until the actual rendering completes. The next {@link #inflate()} stores its rendering under the same key.
+   */
+  @Nullable
+  public RenderResult getCachedResult() {
+    if (myPsiFile == null) {
+      return null;
+    }
+
+    RenderResultCache cache = RenderResultCache.getInstance();
+    String key = cache.computeKey(this);
+    myPendingRenderCacheKey = key;
+    myHasPendingRenderCacheKey = true;
+    BufferedImage image = key != null ? cache.get(key) : null;
+    return image != null ? RenderResult.createFromCache(this, myPsiFile, myImagePool.copyOf(image)) : null;
+  }
+
   /**
    * Method that renders the layout to a bitmap using the given {@link IImageFactory}. This render call will render the image to a
    * bitmap that can be accessed via the returned {@link RenderResult}.
@@ -852,7 +944,7 @@ public class RenderTask implements IImageFactory {
     params.setAssetRepository(myAssetRepository);
 
     try {
-      Result result = RenderService.runRenderAction(new Callable<Result>() {
+      Result result = runRenderAction(new Callable<Result>() {
         @Override
         public Result call() throws Exception {
           return myLayoutLib.renderDrawable(params);
@@ -901,7 +993,7 @@ public class RenderTask implements IImageFactory {
     }
 
     try {
-      Result result = RenderService.runRenderAction(new Callable<Result>() {
+      Result result = runRenderAction(new Callable<Result>() {
         @Override
         public Result call() throws Exception {
           return myLayoutLib.renderDrawable(params);
@@ -1033,7 +1125,7 @@ public class RenderTask implements IImageFactory {
     Map<XmlTag, ViewInfo> map = Maps.newHashMap();
     RenderSession session = null;
     try {
-      session = RenderService.runRenderAction(() -> measure(modelParser));
+      session = runRenderAction(() -> measure(modelParser));
     }
     catch (Exception ignored) {
     }
@@ -1056,7 +1148,7 @@ public class RenderTask implements IImageFactory {
         return map;
       } finally {
         try {
-          RenderService.runRenderAction(session::dispose);
+          runRenderAction(session::dispose);
         }
         catch (Exception ignored) {
         }
@@ -167,4 +167,35 @@ public class TagSnapshot {
     }
     return hasher.hash().asLong();
   }
+
+  /**
+   * Adds the contents of this tag and all its children (tag names, prefixes and attributes) to the given {@link Hasher}.
+   * Unlike {@link #getSignature()}, the result only depends on the snapshot contents so, when used with a stable hash
+   * function, it can be persisted across IDE sessions.
+   */
+  public void hashTree(@NotNull Hasher hasher) {
+    putString(hasher, tagName);
+    putString(hasher, prefix);
+    hasher.putInt(attributes.size());
+    for (AttributeSnapshot attribute : attributes) {
+      putString(hasher, attribute.prefix);
+      putString(hasher, attribute.name);
+      putString(hasher, attribute.value);
+    }
+    hasher.putInt(children.size());
+    for (TagSnapshot child : children) {
+      child.hashTree(hasher);
+    }
+  }
+
+  private static void putString(@NotNull Hasher hasher, @Nullable String s) {
+    // Strings are length prefixed so that adjacent values can not be confused with each other
+    if (s == null) {
+      hasher.putInt(-1);
+    }
+    else {
+      hasher.putInt(s.length());
+      hasher.putString(s, UTF_8);
+    }
+  }
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering.trace;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies, with power of two buckets: bucket {@code i} counts the latencies between 2<sup>i-1</sup> and
+ * 2<sup>i</sup> microseconds. Percentiles are approximated by the upper bound of their bucket, so they are at most twice the exact value.
+ */
+public final class LatencyHistogram {
+  /** The last bucket holds latencies of more than 2<sup>30</sup> microseconds, about 18 minutes */
+  private static final int BUCKET_COUNT = 32;
+
+  private final AtomicLongArray myBuckets = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong myCount = new AtomicLong();
+  private final AtomicLong myTotalNs = new AtomicLong();
+  private final AtomicLong myMaxNs = new AtomicLong();
+
+  public void record(long durationNs) {
+    long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, durationNs));
+    int bucket = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+    myBuckets.incrementAndGet(bucket);
+    myCount.incrementAndGet();
+    myTotalNs.addAndGet(durationNs);
+    myMaxNs.accumulateAndGet(durationNs, Math::max);
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      myBuckets.set(i, 0);
+    }
+    myCount.set(0);
+    myTotalNs.set(0);
+    myMaxNs.set(0);
+  }
+
+  public long getCount() {
+    return myCount.get();
+  }
+
+  public double getTotalMs() {
+    return myTotalNs.get() / 1e6;
+  }
+
+  public double getMeanMs() {
+    long count = myCount.get();
+    return count == 0 ? 0 : myTotalNs.get() / 1e6 / count;
+  }
+
+  public double getMaxMs() {
+    return myMaxNs.get() / 1e6;
+  }
+
+  /**
+   * Returns an approximation of the given percentile, in ms.
+   *
+   * @param percentile a percentile between 0 and 100
+   */
+  public double getPercentileMs(double percentile) {
+    long[] buckets = new long[BUCKET_COUNT];
+    long count = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      buckets[i] = myBuckets.get(i);
+      count += buckets[i];
+    }
+    if (count == 0) {
+      return 0;
+    }
+
+    long rank = (long)Math.ceil(percentile / 100 * count);
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += buckets[i];
+      if (seen >= rank && buckets[i] > 0) {
+        return Math.min(getMaxMs(), (1L << i) / 1e3);
+      }
+    }
+    return getMaxMs();
+  }
+
+  @NotNull
+  @Override
+  public String toString() {
+    return String.format("count=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms", getCount(), getMeanMs(),
+                         getPercentileMs(50), getPercentileMs(90), getPercentileMs(99), getMaxMs());
+  }
+}
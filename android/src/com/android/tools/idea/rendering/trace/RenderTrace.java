@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering.trace;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.stream.JsonWriter;
+import net.jcip.annotations.GuardedBy;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The spans recorded while running one top level render stage, e.g. one {@link RenderTracer.Stage#MODEL_RENDER}, including the spans
+ * recorded on the render thread on its behalf.
+ */
+public final class RenderTrace {
+  /** Bounds the memory used by a trace, e.g. when thousands of classes are loaded by the first render of a project */
+  private static final int MAX_EVENTS = 20000;
+
+  private final long myStartNs;
+  private final Object myLock = new Object();
+  @GuardedBy("myLock")
+  private final List<Event> myEvents = new ArrayList<>();
+  @GuardedBy("myLock")
+  private final Map<Long, String> myThreadNames = new HashMap<>();
+  @GuardedBy("myLock")
+  private int myDroppedEventCount;
+
+  RenderTrace(long startNs) {
+    myStartNs = startNs;
+  }
+
+  void add(@NotNull RenderTracer.Stage stage, @Nullable String detail, long startNs, long durationNs, @NotNull Thread thread) {
+    synchronized (myLock) {
+      if (myEvents.size() >= MAX_EVENTS) {
+        myDroppedEventCount++;
+        return;
+      }
+      myEvents.add(new Event(stage, detail, startNs - myStartNs, durationNs, thread.getId()));
+      if (!myThreadNames.containsKey(thread.getId())) {
+        myThreadNames.put(thread.getId(), thread.getName());
+      }
+    }
+  }
+
+  @NotNull
+  public List<Event> getEvents() {
+    synchronized (myLock) {
+      return ImmutableList.copyOf(myEvents);
+    }
+  }
+
+  /**
+   * Writes this trace in the Chrome trace event format, which can be loaded in chrome://tracing.
+   */
+  public void writeChromeTrace(@NotNull Writer out) throws IOException {
+    List<Event> events;
+    Map<Long, String> threadNames;
+    int droppedEventCount;
+    synchronized (myLock) {
+      events = new ArrayList<>(myEvents);
+      threadNames = new HashMap<>(myThreadNames);
+      droppedEventCount = myDroppedEventCount;
+    }
+
+    JsonWriter writer = new JsonWriter(out);
+    writer.beginObject();
+    writer.name("traceEvents").beginArray();
+    for (Map.Entry<Long, String> thread : threadNames.entrySet()) {
+      writer.beginObject();
+      writer.name("name").value("thread_name");
+      writer.name("ph").value("M");
+      writer.name("pid").value(1);
+      writer.name("tid").value(thread.getKey());
+      writer.name("args").beginObject().name("name").value(thread.getValue()).endObject();
+      writer.endObject();
+    }
+    for (Event event : events) {
+      writer.beginObject();
+      writer.name("name").value(event.getStage().getDisplayName());
+      writer.name("cat").value("render");
+      writer.name("ph").value("X");
+      writer.name("ts").value(event.getStartNs() / 1e3);
+      writer.name("dur").value(event.getDurationNs() / 1e3);
+      writer.name("pid").value(1);
+      writer.name("tid").value(event.getThreadId());
+      if (event.getDetail() != null) {
+        writer.name("args").beginObject().name("detail").value(event.getDetail()).endObject();
+      }
+      writer.endObject();
+    }
+    writer.endArray();
+    writer.name("displayTimeUnit").value("ms");
+    if (droppedEventCount > 0) {
+      writer.name("otherData").beginObject().name("droppedEvents").value(droppedEventCount).endObject();
+    }
+    writer.endObject();
+    writer.flush();
+  }
+
+  /**
+   * A completed span.
+   */
+  public static final class Event {
+    @NotNull private final RenderTracer.Stage myStage;
+    @Nullable private final String myDetail;
+    private final long myStartNs;
+    private final long myDurationNs;
+    private final long myThreadId;
+
+    private Event(@NotNull RenderTracer.Stage stage, @Nullable String detail, long startNs, long durationNs, long threadId) {
+      myStage = stage;
+      myDetail = detail;
+      myStartNs = startNs;
+      myDurationNs = durationNs;
+      myThreadId = threadId;
+    }
+
+    @NotNull
+    public RenderTracer.Stage getStage() {
+      return myStage;
+    }
+
+    @Nullable
+    public String getDetail() {
+      return myDetail;
+    }
+
+    /** Start time, relative to the start of the trace */
+    public long getStartNs() {
+      return myStartNs;
+    }
+
+    public long getDurationNs() {
+      return myDurationNs;
+    }
+
+    public long getThreadId() {
+      return myThreadId;
+    }
+  }
+}
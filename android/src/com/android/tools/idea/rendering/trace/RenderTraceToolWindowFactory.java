@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering.trace;
+
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Condition;
+import com.intellij.openapi.wm.ToolWindow;
+import com.intellij.openapi.wm.ToolWindowFactory;
+import com.intellij.ui.content.Content;
+import com.intellij.ui.content.ContentFactory;
+import org.jetbrains.annotations.NotNull;
+
+import static com.intellij.idea.IdeaApplication.IDEA_IS_INTERNAL_PROPERTY;
+
+/**
+ * Creates the contents of the "Render Trace (Internal)" tool window.
+ */
+public class RenderTraceToolWindowFactory implements ToolWindowFactory, DumbAware {
+  @Override
+  public void createToolWindowContent(@NotNull Project project, @NotNull ToolWindow toolWindow) {
+    RenderTraceView view = new RenderTraceView(project);
+
+    ContentFactory contentFactory = ContentFactory.SERVICE.getInstance();
+    Content content = contentFactory.createContent(view.getComponent(), "", false);
+    toolWindow.getContentManager().addContent(content);
+  }
+
+  /**
+   * Makes the tool window available only when {@link com.intellij.idea.IdeaApplication#IDEA_IS_INTERNAL_PROPERTY} is set to true.
+   */
+  public static class InternalCondition implements Condition<Project> {
+    @Override
+    public boolean value(@NotNull Project project) {
+      return Boolean.getBoolean(IDEA_IS_INTERNAL_PROPERTY);
+    }
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering.trace;
+
+import com.android.tools.idea.rendering.ImagePool;
+import com.android.tools.idea.rendering.RenderService;
+import com.intellij.icons.AllIcons;
+import com.intellij.openapi.actionSystem.*;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileChooser.FileChooserFactory;
+import com.intellij.openapi.fileChooser.FileSaverDescriptor;
+import com.intellij.openapi.project.DumbAwareAction;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.vfs.VirtualFileWrapper;
+import com.intellij.ui.ScrollPaneFactory;
+import com.intellij.ui.components.JBLabel;
+import com.intellij.ui.table.JBTable;
+import com.intellij.util.ui.UIUtil;
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Shows the latency histograms of the render stages recorded by {@link RenderTracer} and the metrics of the image pool, and saves the
+ * trace of the last render.
+ */
+class RenderTraceView {
+  private static final Logger LOG = Logger.getInstance(RenderTraceView.class);
+  private static final int REFRESH_DELAY_MS = 1000;
+
+  @NotNull private final Project myProject;
+  @NotNull private final JPanel myPanel = new JPanel(new BorderLayout());
+  @NotNull private final StageTableModel myTableModel = new StageTableModel();
+  @NotNull private final JBLabel myImagePoolLabel = new JBLabel();
+
+  RenderTraceView(@NotNull Project project) {
+    myProject = project;
+
+    DefaultActionGroup group = new DefaultActionGroup();
+    group.add(new ToggleAction("Enable Tracing", "Record the render stages", AllIcons.Actions.Execute) {
+      @Override
+      public boolean isSelected(AnActionEvent e) {
+        return RenderTracer.isEnabled();
+      }
+
+      @Override
+      public void setSelected(AnActionEvent e, boolean state) {
+        RenderTracer.setEnabled(state);
+      }
+    });
+    group.add(new DumbAwareAction("Reset", "Clear the recorded latencies", AllIcons.Actions.Reset) {
+      @Override
+      public void actionPerformed(AnActionEvent e) {
+        RenderTracer.reset();
+        myTableModel.fireTableDataChanged();
+      }
+    });
+    String saveDescription = "Save the trace of the last render in the Chrome trace format";
+    group.add(new DumbAwareAction("Save Last Trace", saveDescription, AllIcons.Actions.Menu_saveall) {
+      @Override
+      public void update(AnActionEvent e) {
+        e.getPresentation().setEnabled(RenderTracer.getLastTrace() != null);
+      }
+
+      @Override
+      public void actionPerformed(AnActionEvent e) {
+        saveLastTrace();
+      }
+    });
+    ActionToolbar toolbar = ActionManager.getInstance().createActionToolbar("RenderTrace", group, true);
+
+    JBTable table = new JBTable(myTableModel);
+    table.setAutoCreateRowSorter(true);
+    myPanel.add(toolbar.getComponent(), BorderLayout.NORTH);
+    myPanel.add(ScrollPaneFactory.createScrollPane(table), BorderLayout.CENTER);
+    myPanel.add(myImagePoolLabel, BorderLayout.SOUTH);
+    updateImagePoolLabel();
+
+    // The histograms are updated from the render threads, so they are polled while the tool window is showing
+    Timer timer = UIUtil.createNamedTimer("RenderTraceView", REFRESH_DELAY_MS, e -> {
+      if (myPanel.isShowing()) {
+        myTableModel.fireTableRowsUpdated(0, myTableModel.getRowCount() - 1);
+        updateImagePoolLabel();
+      }
+    });
+    timer.start();
+    Disposer.register(project, timer::stop);
+  }
+
+  @NotNull
+  JComponent getComponent() {
+    return myPanel;
+  }
+
+  private void updateImagePoolLabel() {
+    ImagePool pool = RenderService.getImagePool();
+    myImagePoolLabel.setText(String.format("Image pool: %.1f%% hits (%d hits, %d misses), %d evictions, %.1f MB pooled",
+                                           pool.getHitRate() * 100, pool.getHitCount(), pool.getMissCount(), pool.getEvictionCount(),
+                                           pool.getPooledBytes() / 1e6));
+  }
+
+  private void saveLastTrace() {
+    RenderTrace trace = RenderTracer.getLastTrace();
+    if (trace == null) {
+      return;
+    }
+    FileSaverDescriptor descriptor = new FileSaverDescriptor("Save Render Trace", "Open the saved trace in chrome://tracing", "json");
+    VirtualFileWrapper fileWrapper =
+      FileChooserFactory.getInstance().createSaveFileDialog(descriptor, myProject).save(null, "render-trace.json");
+    if (fileWrapper == null) {
+      return;
+    }
+    try (Writer writer = Files.newBufferedWriter(fileWrapper.getFile().toPath(), StandardCharsets.UTF_8)) {
+      trace.writeChromeTrace(writer);
+    }
+    catch (IOException e) {
+      LOG.warn(e);
+      Messages.showErrorDialog(myProject, "Unable to save the render trace: " + e.getMessage(), "Save Render Trace");
+    }
+  }
+
+  private static class StageTableModel extends AbstractTableModel {
+    private static final String[] COLUMNS = {"Stage", "Count", "Mean (ms)", "p50 (ms)", "p90 (ms)", "p99 (ms)", "Max (ms)", "Total (ms)"};
+    private static final RenderTracer.Stage[] STAGES = RenderTracer.Stage.values();
+
+    @Override
+    public int getRowCount() {
+      return STAGES.length;
+    }
+
+    @Override
+    public int getColumnCount() {
+      return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+      return COLUMNS[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+      switch (column) {
+        case 0:
+          return String.class;
+        case 1:
+          return Long.class;
+        default:
+          return Double.class;
+      }
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+      RenderTracer.Stage stage = STAGES[row];
+      LatencyHistogram histogram = RenderTracer.getHistogram(stage);
+      switch (column) {
+        case 0:
+          return stage.getDisplayName();
+        case 1:
+          return histogram.getCount();
+        case 2:
+          return round(histogram.getMeanMs());
+        case 3:
+          return round(histogram.getPercentileMs(50));
+        case 4:
+          return round(histogram.getPercentileMs(90));
+        case 5:
+          return round(histogram.getPercentileMs(99));
+        case 6:
+          return round(histogram.getMaxMs());
+        default:
+          return round(histogram.getTotalMs());
+      }
+    }
+
+    private static double round(double ms) {
+      return Math.round(ms * 100) / 100.0;
+    }
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering.trace;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.intellij.idea.IdeaApplication.IDEA_IS_INTERNAL_PROPERTY;
+
+/**
+ * Records how long the stages of the layout render pipeline take: parsing the layout, loading and rewriting the view classes, inflating,
+ * measuring and drawing with layoutlib, copying the image, etc.
+ * <p>
+ * Stages are recorded as nested spans:
+ * <pre>
+ *   try (RenderTracer.Span ignored = RenderTracer.start(RenderTracer.Stage.INFLATE)) {
+ *     ...
+ *   }
+ * </pre>
+ * The duration of every span is added to a latency histogram of its stage. The spans started while a top level span is open, on the same
+ * thread or on the render thread (see {@link #wrap(Callable)}), are also kept in a {@link RenderTrace}; the trace of the last render can
+ * be saved in the Chrome trace format.
+ * <p>
+ * Tracing is enabled in internal mode, with the "studio.render.trace" system property, or from the "Render Trace (Internal)" tool window.
+ * When disabled, starting a span only reads a volatile field.
+ */
+public final class RenderTracer {
+  public enum Stage {
+    MODEL_INFLATE("Model inflate", true),
+    MODEL_RENDER("Model render", true),
+    TASK_CREATE("Render task creation", true),
+    INFLATE("Inflate", true),
+    RENDER("Render", true),
+    MEASURE("Measure", true),
+    QUEUE_WAIT("Render queue wait", false),
+    PARSE("Layout parsing", false),
+    CLASS_LOAD("Class loading", false),
+    CLASS_REWRITE("Class rewriting", false),
+    LAYOUTLIB_INFLATE("Layoutlib inflate", false),
+    LAYOUTLIB_RENDER("Layoutlib measure and draw", false),
+    IMAGE_COPY("Image copy", false);
+
+    @NotNull private final String myDisplayName;
+    /** Whether a span of this stage starts a new trace when there is no current span */
+    private final boolean myStartsTrace;
+
+    Stage(@NotNull String displayName, boolean startsTrace) {
+      myDisplayName = displayName;
+      myStartsTrace = startsTrace;
+    }
+
+    @NotNull
+    public String getDisplayName() {
+      return myDisplayName;
+    }
+  }
+
+  private static final Span NO_OP_SPAN = new Span();
+  private static final ThreadLocal<Span> ourCurrentSpan = new ThreadLocal<>();
+  private static final Map<Stage, LatencyHistogram> ourHistograms = new EnumMap<>(Stage.class);
+  private static final AtomicReference<RenderTrace> ourLastTrace = new AtomicReference<>();
+  private static volatile boolean ourEnabled = Boolean.getBoolean(IDEA_IS_INTERNAL_PROPERTY) || Boolean.getBoolean("studio.render.trace");
+
+  static {
+    for (Stage stage : Stage.values()) {
+      ourHistograms.put(stage, new LatencyHistogram());
+    }
+  }
+
+  private RenderTracer() {
+  }
+
+  public static boolean isEnabled() {
+    return ourEnabled;
+  }
+
+  public static void setEnabled(boolean enabled) {
+    ourEnabled = enabled;
+  }
+
+  /**
+   * Starts a span of the given stage on the current thread. The span must be closed by the same thread.
+   */
+  @NotNull
+  public static Span start(@NotNull Stage stage) {
+    return start(stage, null);
+  }
+
+  /**
+   * Starts a span of the given stage on the current thread. The span must be closed by the same thread.
+   *
+   * @param detail shown in the trace, e.g. the name of the loaded class
+   */
+  @NotNull
+  public static Span start(@NotNull Stage stage, @Nullable String detail) {
+    if (!ourEnabled) {
+      return NO_OP_SPAN;
+    }
+    Span parent = ourCurrentSpan.get();
+    long startNs = System.nanoTime();
+    RenderTrace trace;
+    if (parent != null) {
+      trace = parent.myTrace;
+    }
+    else {
+      // e.g. classes loaded outside of a render are only added to the histograms
+      trace = stage.myStartsTrace ? new RenderTrace(startNs) : null;
+    }
+    Span span = new Span(stage, detail, parent, trace, startNs);
+    ourCurrentSpan.set(span);
+    return span;
+  }
+
+  /**
+   * Records a stage whose start and duration were measured by the caller, as a child of the current span.
+   */
+  public static void record(@NotNull Stage stage, long startNs, long durationNs) {
+    if (!ourEnabled) {
+      return;
+    }
+    ourHistograms.get(stage).record(durationNs);
+    Span parent = ourCurrentSpan.get();
+    if (parent != null && parent.myTrace != null) {
+      parent.myTrace.add(stage, null, startNs, durationNs, Thread.currentThread());
+    }
+  }
+
+  /**
+   * Wraps a callable that will run on another thread, such as the render thread, so the spans it starts are children of the current span.
+   */
+  @NotNull
+  public static <T> Callable<T> wrap(@NotNull Callable<T> callable) {
+    Span parent = ourEnabled ? ourCurrentSpan.get() : null;
+    if (parent == null) {
+      return callable;
+    }
+    return () -> {
+      Span previous = ourCurrentSpan.get();
+      ourCurrentSpan.set(parent);
+      try {
+        return callable.call();
+      }
+      finally {
+        ourCurrentSpan.set(previous);
+      }
+    };
+  }
+
+  @NotNull
+  public static LatencyHistogram getHistogram(@NotNull Stage stage) {
+    return ourHistograms.get(stage);
+  }
+
+  /**
+   * Returns the trace of the last completed top level span, if any.
+   */
+  @Nullable
+  public static RenderTrace getLastTrace() {
+    return ourLastTrace.get();
+  }
+
+  public static void reset() {
+    for (LatencyHistogram histogram : ourHistograms.values()) {
+      histogram.reset();
+    }
+    ourLastTrace.set(null);
+  }
+
+  /**
+   * A stage being recorded, closed when the stage completes.
+   */
+  public static final class Span implements AutoCloseable {
+    @Nullable private final Stage myStage;
+    @Nullable private final String myDetail;
+    @Nullable private final Span myParent;
+    @Nullable private final RenderTrace myTrace;
+    private final long myStartNs;
+
+    private Span() {
+      this(null, null, null, null, 0);
+    }
+
+    private Span(@Nullable Stage stage, @Nullable String detail, @Nullable Span parent, @Nullable RenderTrace trace, long startNs) {
+      myStage = stage;
+      myDetail = detail;
+      myParent = parent;
+      myTrace = trace;
+      myStartNs = startNs;
+    }
+
+    @Override
+    public void close() {
+      if (myStage == null) {
+        return;
+      }
+      long durationNs = System.nanoTime() - myStartNs;
+      ourCurrentSpan.set(myParent);
+      ourHistograms.get(myStage).record(durationNs);
+      if (myTrace != null) {
+        myTrace.add(myStage, myDetail, myStartNs, durationNs, Thread.currentThread());
+        if (myParent == null) {
+          ourLastTrace.set(myTrace);
+        }
+      }
+    }
+  }
+}
@@ -15,6 +15,7 @@
  */
 package com.android.tools.idea.run;
 
+import com.android.annotations.concurrency.GuardedBy;
 import com.android.ddmlib.AndroidDebugBridge;
 import com.android.ddmlib.IDevice;
 import com.google.common.collect.HashBasedTable;
@@ -29,7 +30,9 @@ import org.jetbrains.annotations.Nullable;
  * Entries corresponding to a device are automatically cleared if the device is disconnected.
  */
 public class DeviceStateCache<T> implements AndroidDebugBridge.IDeviceChangeListener, Disposable {
+  private final Object myLock = new Object();
   /** Maps from device serial -> package name -> cached data */
+  @GuardedBy("myLock")
   private final Table<String, String, T> myCache = HashBasedTable.create();
 
   public DeviceStateCache(@NotNull Disposable parent) {
@@ -44,12 +47,35 @@ public class DeviceStateCache<T> implements AndroidDebugBridge.IDeviceChangeList
 
   @Nullable
   public T get(@NotNull IDevice device, @NotNull String pkgName) {
-    return myCache.get(device.getSerialNumber(), pkgName);
+    synchronized (myLock) {
+      return myCache.get(device.getSerialNumber(), pkgName);
+    }
   }
 
   @Nullable
   public T put(@NotNull IDevice device, @NotNull String pkgName, @NotNull T data) {
-    return myCache.put(device.getSerialNumber(), pkgName, data);
+    synchronized (myLock) {
+      return myCache.put(device.getSerialNumber(), pkgName, data);
+    }
+  }
+
+  /**
+   * Returns a copy of all the cached data, by device serial and package name.
+   */
+  @NotNull
+  public Table<String, String, T> getAll() {
+    synchronized (myLock) {
+      return HashBasedTable.create(myCache);
+    }
+  }
+
+  /**
+   * Adds data cached for devices that may not be connected, e.g. data read back from disk.
+   */
+  public void putAll(@NotNull Table<String, String, T> data) {
+    synchronized (myLock) {
+      myCache.putAll(data);
+    }
   }
 
   @Override
@@ -58,7 +84,9 @@ public class DeviceStateCache<T> implements AndroidDebugBridge.IDeviceChangeList
 
   @Override
   public void deviceDisconnected(IDevice device) {
-    myCache.row(device.getSerialNumber()).clear();
+    synchronized (myLock) {
+      myCache.row(device.getSerialNumber()).clear();
+    }
   }
 
   @Override
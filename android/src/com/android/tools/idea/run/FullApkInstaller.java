@@ -27,6 +27,11 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 public class FullApkInstaller {
@@ -45,6 +50,28 @@ public class FullApkInstaller {
     myPrinter = printer;
   }
 
+  /**
+   * Returns the application ids of the given apks that are already installed on the device, and don't need to be installed again.
+   * The device is queried once for all the apks.
+   */
+  @NotNull
+  public Set<String> getUpToDatePackages(@NotNull IDevice device, @NotNull Collection<ApkInfo> apks) {
+    if (!myLaunchOptions.isSkipNoopApkInstallations()) {
+      return Collections.emptySet();
+    }
+
+    Map<String, File> apksByPackage = new HashMap<>();
+    for (ApkInfo apk : apks) {
+      apksByPackage.put(apk.getApplicationId(), apk.getFile());
+    }
+    try {
+      Integer userId = LaunchUtils.getUserIdFromFlags(myLaunchOptions.getPmInstallOptions());
+      return myInstalledApkCache.getInstalledPackages(device, apksByPackage, userId);
+    } catch (IOException e) {
+      return Collections.emptySet();
+    }
+  }
+
   /**
    * Installs the given apk on the device.
    * @return whether the installation was successful
@@ -56,7 +83,30 @@ public class FullApkInstaller {
     if (!needsInstall(device, localFile, packageName)) {
       return true;
     }
+    return installApk(device, packageName, localFile, launchStatus);
+  }
+
+  /**
+   * Installs the given apk on the device, unless it is already installed.
+   * @param upToDate whether the apk is known to be already installed, see {@link #getUpToDatePackages(IDevice, Collection)}
+   * @return whether the installation was successful
+   */
+  public boolean uploadAndInstallApk(@NotNull IDevice device,
+                                     @NotNull String packageName,
+                                     @NotNull File localFile,
+                                     @NotNull LaunchStatus launchStatus,
+                                     boolean upToDate) {
+    if (upToDate) {
+      skipInstallation(device, localFile, packageName);
+      return true;
+    }
+    return installApk(device, packageName, localFile, launchStatus);
+  }
 
+  private boolean installApk(@NotNull IDevice device,
+                             @NotNull String packageName,
+                             @NotNull File localFile,
+                             @NotNull LaunchStatus launchStatus) {
     String remotePath = "/data/local/tmp/" + packageName;
     myPrinter.stdout("$ adb push " + localFile + " " + remotePath);
 
@@ -99,12 +149,15 @@ public class FullApkInstaller {
       return true;
     }
 
+    skipInstallation(device, localFile, packageName);
+    return false;
+  }
+
+  private void skipInstallation(@NotNull IDevice device, @NotNull File localFile, @NotNull String packageName) {
     myPrinter.stdout("No apk changes detected since last installation, skipping installation of " + localFile.getPath());
     if (myLaunchOptions.isForceStopRunningApp()) {
       forceStopPackageSilently(device, packageName, true);
     }
-
-    return false;
   }
 
   private void forceStopPackageSilently(@NotNull IDevice device, @NotNull String packageName, boolean ignoreErrors) {
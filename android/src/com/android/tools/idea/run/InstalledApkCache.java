@@ -16,32 +16,87 @@
 package com.android.tools.idea.run;
 
 import com.android.annotations.VisibleForTesting;
+import com.android.annotations.concurrency.GuardedBy;
 import com.android.ddmlib.*;
+import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Sets;
+import com.google.common.collect.Table;
 import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
 import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.PathManager;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.File;
-import java.io.IOException;
-import java.util.Set;
+import java.io.*;
+import java.util.*;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
 
+/**
+ * Keeps track of the APKs installed on devices, so that installing an APK that did not change since it was last installed is skipped.
+ * <p>
+ * APKs are identified by a fingerprint of their zip central directory, which records the CRC32 of every entry, so an APK is not read
+ * entirely to check whether it changed. Fingerprints are persisted by device serial, so they are still known after an IDE restart or once
+ * a device is connected again, and are checked against the last update time reported by the package manager of the device.
+ */
 public class InstalledApkCache implements Disposable {
+  private static final Logger LOG = Logger.getInstance(InstalledApkCache.class);
+
+  private static final int MAGIC = 0x49415043; // "IAPC"
+  // Increase the value when changing the format written by save.
+  private static final int VERSION = 1;
+  // The fingerprints are persisted, so the hash function can't use a random seed (e.g. Hashing.goodFastHash)
+  private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+  /** Printed between the outputs of the commands of a batched shell query */
+  private static final String OUTPUT_SEPARATOR = "--InstalledApkCache--";
+  private static final long DUMPSYS_TIMEOUT_MS = 500;
+
   private final DeviceStateCache<CacheData> myCache;
+  /**
+   * Fingerprints by device serial and package name, including those of disconnected devices, which are cleared from {@link #myCache}.
+   */
+  @GuardedBy("myPersistedData")
+  private final Table<String, String, CacheData> myPersistedData = HashBasedTable.create();
+  /** File where the cache is persisted, or null if it is only kept in memory */
+  @Nullable private final File myStateFile;
 
   /** Diagnostic output set by {@link #getLastUpdateTime(com.android.ddmlib.IDevice, String)} */
   private String myDiagnosticOutput;
 
   public InstalledApkCache() {
-    myCache = new DeviceStateCache<CacheData>(this);
+    this(new File(PathManager.getSystemPath(), "installed_apks.bin"));
+  }
+
+  @VisibleForTesting
+  InstalledApkCache(@Nullable File stateFile) {
+    myStateFile = stateFile;
+    myCache = new DeviceStateCache<CacheData>(this) {
+      @Override
+      public void deviceConnected(IDevice device) {
+        super.deviceConnected(device);
+        Map<String, CacheData> persisted;
+        synchronized (myPersistedData) {
+          persisted = new HashMap<>(myPersistedData.row(device.getSerialNumber()));
+        }
+        for (Map.Entry<String, CacheData> entry : persisted.entrySet()) {
+          put(device, entry.getKey(), entry.getValue());
+        }
+      }
+    };
+    load();
   }
 
   @Override
@@ -53,16 +108,39 @@ public class InstalledApkCache implements Disposable {
       @NotNull File apk,
       @NotNull String pkgName,
       @Nullable Integer userId) throws IOException {
-    CacheData state = myCache.get(device, pkgName);
-    if (state == null) {
-      return false;
+    return getInstalledPackages(device, ImmutableMap.of(pkgName, apk), userId).contains(pkgName);
+  }
+
+  /**
+   * Returns the packages whose given APK is already installed on the device. The state of all the packages is queried on the device
+   * with a single shell command, and only for the packages whose APK did not change since it was last installed.
+   */
+  @NotNull
+  public Set<String> getInstalledPackages(@NotNull IDevice device,
+                                          @NotNull Map<String, File> apksByPackage,
+                                          @Nullable Integer userId) throws IOException {
+    Map<String, CacheData> unchanged = new HashMap<>();
+    for (Map.Entry<String, File> entry : apksByPackage.entrySet()) {
+      CacheData state = myCache.get(device, entry.getKey());
+      if (state != null && state.hash.equals(hash(entry.getValue()))) {
+        unchanged.put(entry.getKey(), state);
+      }
+    }
+    if (unchanged.isEmpty()) {
+      return Collections.emptySet();
     }
 
-    InstallState currentState = getInstallState(device, pkgName);
-    return currentState != null &&
-           state.installState.lastUpdateTime.equals(currentState.lastUpdateTime) &&
-           state.hash.equals(hash(apk)) &&
-           (userId == null || currentState.users.contains(userId));
+    Map<String, InstallState> currentStates = getInstallStates(device, unchanged.keySet());
+    Set<String> installed = new HashSet<>();
+    for (Map.Entry<String, CacheData> entry : unchanged.entrySet()) {
+      InstallState currentState = currentStates.get(entry.getKey());
+      if (currentState != null &&
+          entry.getValue().installState.lastUpdateTime.equals(currentState.lastUpdateTime) &&
+          (userId == null || currentState.users.contains(userId))) {
+        installed.add(entry.getKey());
+      }
+    }
+    return installed;
   }
 
   public void setInstalled(@NotNull IDevice device, @NotNull File apk, @NotNull String pkgName) throws IOException {
@@ -80,12 +158,43 @@ public class InstalledApkCache implements Disposable {
       return;
     }
 
-    myCache.put(device, pkgName, new CacheData(installState, hash(apk)));
+    CacheData data = new CacheData(installState, hash(apk));
+    myCache.put(device, pkgName, data);
+    synchronized (myPersistedData) {
+      myPersistedData.put(device.getSerialNumber(), pkgName, data);
+    }
+    save();
   }
 
+  /**
+   * Returns a fingerprint of the given APK, computed from the name, CRC32 and sizes of its entries as recorded in its central directory.
+   */
+  @VisibleForTesting
   @NotNull
-  private static HashCode hash(@NotNull File apk) throws IOException {
-    return Files.hash(apk, Hashing.goodFastHash(32));
+  static HashCode hash(@NotNull File apk) throws IOException {
+    Hasher hasher = HASH_FUNCTION.newHasher();
+    hasher.putLong(apk.length());
+    try (ZipFile zipFile = new ZipFile(apk)) {
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        hasher.putUnencodedChars(entry.getName())
+          .putLong(entry.getCrc())
+          .putLong(entry.getSize())
+          .putLong(entry.getCompressedSize())
+          .putInt(entry.getMethod());
+      }
+    }
+    catch (ZipException e) {
+      // Not a zip file: fall back to hashing its contents.
+      return Files.hash(apk, HASH_FUNCTION);
+    }
+    return hasher.hash();
+  }
+
+  @VisibleForTesting
+  void deviceConnected(IDevice device) {
+    myCache.deviceConnected(device);
   }
 
   @VisibleForTesting
@@ -99,18 +208,52 @@ public class InstalledApkCache implements Disposable {
    */
   @Nullable
   public InstallState getInstallState(@NotNull IDevice device, @NotNull String pkgName) {
-    boolean deviceHasPackage = false;
+    return getInstallStates(device, Collections.singleton(pkgName)).get(pkgName);
+  }
+
+  /**
+   * Returns the install state of the given packages, querying the device with a single shell command. Packages that were not found are
+   * not included.
+   */
+  @NotNull
+  public Map<String, InstallState> getInstallStates(@NotNull IDevice device, @NotNull Collection<String> pkgNames) {
     myDiagnosticOutput = null;
+    if (pkgNames.isEmpty()) {
+      return Collections.emptyMap();
+    }
 
+    List<String> commands = new ArrayList<>(pkgNames.size());
+    for (String pkgName : pkgNames) {
+      commands.add("dumpsys package " + pkgName);
+    }
     String output;
     try {
-      output = executeShellCommand(device, "dumpsys package " + pkgName, 500, TimeUnit.MILLISECONDS);
+      output = executeShellCommand(device, Joiner.on("; echo " + OUTPUT_SEPARATOR + "; ").join(commands),
+                                   DUMPSYS_TIMEOUT_MS * pkgNames.size(), TimeUnit.MILLISECONDS);
     }
     catch (Exception e) {
-      myDiagnosticOutput = String.format("Error executing 'dumpsys package %1$s:\n%2$s'", pkgName, e.getMessage());
-      return null;
+      myDiagnosticOutput = String.format("Error executing '%1$s':\n%2$s", Joiner.on("; ").join(commands), e.getMessage());
+      return Collections.emptyMap();
     }
 
+    List<String> outputs = Splitter.on(OUTPUT_SEPARATOR).splitToList(output);
+    Map<String, InstallState> states = new HashMap<>();
+    int i = 0;
+    for (String pkgName : pkgNames) {
+      // The output may be truncated if the command timed out
+      InstallState state = i < outputs.size() ? parseInstallState(pkgName, outputs.get(i)) : null;
+      if (state != null) {
+        states.put(pkgName, state);
+      }
+      i++;
+    }
+    return states;
+  }
+
+  @Nullable
+  private InstallState parseInstallState(@NotNull String pkgName, @NotNull String output) {
+    boolean deviceHasPackage = false;
+
     // The follow code assumes that the output of "dumpsys package <pkgname>" has at least the following line:
     //       Package [pkgName]
     // Optionally, if it also has a line of form:
@@ -173,6 +316,91 @@ public class InstalledApkCache implements Disposable {
     }
   }
 
+  private void load() {
+    if (myStateFile == null || !myStateFile.isFile()) {
+      return;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(myStateFile)))) {
+      Table<String, String, CacheData> data = readFrom(in);
+      if (data != null) {
+        synchronized (myPersistedData) {
+          myPersistedData.putAll(data);
+        }
+        myCache.putAll(data);
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Failed to read the state of installed APKs", e);
+    }
+  }
+
+  private synchronized void save() {
+    if (myStateFile == null) {
+      return;
+    }
+    Table<String, String, CacheData> data;
+    synchronized (myPersistedData) {
+      data = HashBasedTable.create(myPersistedData);
+    }
+    File tempFile = new File(myStateFile.getPath() + ".tmp");
+    try {
+      FileUtil.createParentDirs(tempFile);
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+        writeTo(data, out);
+      }
+      FileUtil.rename(tempFile, myStateFile);
+    }
+    catch (IOException e) {
+      LOG.info("Failed to save the state of installed APKs", e);
+      FileUtil.delete(tempFile);
+    }
+  }
+
+  private static void writeTo(@NotNull Table<String, String, CacheData> data, @NotNull DataOutput out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(data.size());
+    for (Table.Cell<String, String, CacheData> cell : data.cellSet()) {
+      CacheData cacheData = cell.getValue();
+      out.writeUTF(cell.getRowKey());
+      out.writeUTF(cell.getColumnKey());
+      out.writeUTF(cacheData.installState.lastUpdateTime);
+      out.writeInt(cacheData.installState.users.size());
+      for (Integer user : cacheData.installState.users) {
+        out.writeInt(user);
+      }
+      byte[] hash = cacheData.hash.asBytes();
+      out.writeInt(hash.length);
+      out.write(hash);
+    }
+  }
+
+  /**
+   * Reads data written by {@link #writeTo(Table, DataOutput)}, or returns {@code null} if it was written in a different format.
+   */
+  @Nullable
+  private static Table<String, String, CacheData> readFrom(@NotNull DataInput in) throws IOException {
+    if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+      return null;
+    }
+    Table<String, String, CacheData> data = HashBasedTable.create();
+    int size = in.readInt();
+    for (int i = 0; i < size; i++) {
+      String serial = in.readUTF();
+      String pkgName = in.readUTF();
+      String lastUpdateTime = in.readUTF();
+      Set<Integer> users = Sets.newHashSet();
+      int userCount = in.readInt();
+      for (int j = 0; j < userCount; j++) {
+        users.add(in.readInt());
+      }
+      byte[] hash = new byte[in.readInt()];
+      in.readFully(hash);
+      data.put(serial, pkgName, new CacheData(new InstallState(lastUpdateTime, users), HashCode.fromBytes(hash)));
+    }
+    return data;
+  }
+
   private static class CacheData {
     @NotNull private final InstallState installState;
     @NotNull private final HashCode hash;
@@ -30,6 +30,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.Collection;
+import java.util.Set;
 
 public class DeployApkTask implements LaunchTask {
   private static final Logger LOG = Logger.getInstance(DeployApkTask.class);
@@ -66,6 +67,7 @@ public class DeployApkTask implements LaunchTask {
   public boolean perform(@NotNull IDevice device, @NotNull LaunchStatus launchStatus, @NotNull ConsolePrinter printer) {
     FullApkInstaller
       installer = new FullApkInstaller(myProject, myLaunchOptions, ServiceManager.getService(InstalledApkCache.class), printer);
+    Set<String> upToDatePackages = installer.getUpToDatePackages(device, myApks);
     for (ApkInfo apk : myApks) {
       if (!apk.getFile().exists()) {
         String message = "The APK file " + apk.getFile().getPath() + " does not exist on disk.";
@@ -75,7 +77,7 @@ public class DeployApkTask implements LaunchTask {
       }
 
       String pkgName = apk.getApplicationId();
-      if (!installer.uploadAndInstallApk(device, pkgName, apk.getFile(), launchStatus)) {
+      if (!installer.uploadAndInstallApk(device, pkgName, apk.getFile(), launchStatus, upToDatePackages.contains(pkgName))) {
         return false;
       }
 
@@ -6,8 +6,10 @@ import com.android.tools.idea.editors.theme.ThemeEditorProvider;
 import com.android.tools.idea.editors.theme.ThemeEditorUtils;
 import com.android.tools.idea.model.AndroidModel;
 import com.android.tools.idea.model.ClassJarProvider;
+import com.android.tools.idea.rendering.ClassConverterCache;
 import com.android.tools.idea.rendering.RenderClassLoader;
 import com.android.tools.idea.rendering.RenderSecurityManager;
+import com.android.tools.idea.rendering.trace.RenderTracer;
 import com.android.tools.idea.res.FileResourceRepository;
 import com.android.tools.idea.res.ResourceClassRegistry;
 import com.android.tools.idea.res.AppResourceRepository;
@@ -173,14 +175,16 @@ public final class ModuleClassLoader extends RenderClassLoader {
       }
       throw new ClassNotFoundException(name);
     }
-    Class<?> aClass = loadClassFromModuleOrDependency(module, name, new HashSet<>());
+    try (RenderTracer.Span ignored = RenderTracer.start(RenderTracer.Stage.CLASS_LOAD, name)) {
+      Class<?> aClass = loadClassFromModuleOrDependency(module, name, new HashSet<>());
 
-    if (aClass == null) {
-      aClass = loadClassFromJar(name);
-    }
+      if (aClass == null) {
+        aClass = loadClassFromJar(name);
+      }
 
-    if (aClass != null) {
-      return aClass;
+      if (aClass != null) {
+        return aClass;
+      }
     }
 
     if (LOG.isDebugEnabled()) {
@@ -536,7 +540,7 @@ public final class ModuleClassLoader extends RenderClassLoader {
 
     if (loader == null) {
       if (LOG.isDebugEnabled()) {
-        LOG.debug("  New class loader");
+        LOG.debug("  New class loader, " + ClassConverterCache.getInstance());
       }
       loader = new ModuleClassLoader(library, module);
       ourCache.put(module, loader);
@@ -15,15 +15,15 @@
  */
 package com.android.tools.idea.apk.viewer;
 
-import com.intellij.openapi.vfs.VfsUtil;
+import com.google.common.collect.ImmutableSet;
 import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
 import org.jetbrains.android.AndroidTestCase;
 import org.jetbrains.annotations.NotNull;
 
 import javax.swing.tree.DefaultMutableTreeNode;
-import java.io.File;
 import java.io.IOException;
+import java.util.Map;
 
 public class ApkParserTest extends AndroidTestCase {
   public void testTreeCreation() throws IOException {
@@ -39,23 +39,15 @@ public class ApkParserTest extends AndroidTestCase {
                  "      fade.xml 6\n", dumpTree(treeNode));
   }
 
-  public void testRezipHasSameContents() throws IOException {
+  public void testCompressedSizesCoverAllFiles() throws IOException {
     VirtualFile virtualFile = myFixture.copyFileToProject("apk/1.apk");
 
-    File compressedFile = ApkParser.getZipCompressedApk(VfsUtilCore.virtualToIoFile(virtualFile));
-    VirtualFile compressedVirtualFile = VfsUtil.findFileByIoFile(compressedFile, true);
-    assertNotNull(compressedVirtualFile);
-
-    VirtualFile uncompressedRoot = ApkFileSystem.getInstance().getRootByLocal(virtualFile);
-    VirtualFile compressedRoot = ApkFileSystem.getInstance().getRootByLocal(compressedVirtualFile);
-
-    String compressedTree = dumpTree(ApkParser.createTreeNode(compressedRoot));
-    String uncompressedTree = dumpTree(ApkParser.createTreeNode(uncompressedRoot));
-
-    // skip the first line in both versions since they will be different due to file names being different
-    compressedTree = compressedTree.substring(compressedTree.indexOf('\n'));
-    uncompressedTree = uncompressedTree.substring(uncompressedTree.indexOf('\n'));
-    assertEquals(compressedTree, uncompressedTree);
+    CompressedSizeEstimator estimator = new CompressedSizeEstimator(null, Runnable::run, 1);
+    Map<String, Long> sizes = estimator.getCompressedSizes(VfsUtilCore.virtualToIoFile(virtualFile));
+    assertEquals(ImmutableSet.of("AndroidManifest.xml", "res/anim/fade.xml"), sizes.keySet());
+    for (long size : sizes.values()) {
+      assertTrue(size > 0);
+    }
   }
 
   public void testApkWithZip() throws IOException {
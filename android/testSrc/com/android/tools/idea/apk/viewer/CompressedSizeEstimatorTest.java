@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.apk.viewer;
+
+import com.intellij.openapi.util.io.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class CompressedSizeEstimatorTest {
+  private File myDir;
+
+  @Before
+  public void setUp() throws IOException {
+    myDir = FileUtil.createTempDirectory("compressed-sizes", null);
+  }
+
+  @After
+  public void tearDown() {
+    FileUtil.delete(myDir);
+  }
+
+  private static byte[] createContents(int seed, int length) {
+    byte[] contents = new byte[length];
+    for (int i = 0; i < length; i++) {
+      // Compressible, but not trivially
+      contents[i] = (byte)("abcdefgh".charAt((i * seed + i / 7) % 8) + (i % 97 == 0 ? 1 : 0));
+    }
+    return contents;
+  }
+
+  private static long deflatedSize(byte[] contents) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+    try (DeflaterOutputStream dos = new DeflaterOutputStream(out, deflater)) {
+      dos.write(contents);
+    }
+    deflater.end();
+    return out.size();
+  }
+
+  /**
+   * Creates an APK with both stored and deflated entries, and returns the expected compressed size of each entry
+   */
+  private Map<String, Long> createApk(File apk) throws IOException {
+    Map<String, Long> expected = new HashMap<>();
+    try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(apk))) {
+      zos.putNextEntry(new ZipEntry("res/"));
+      for (int i = 1; i <= 20; i++) {
+        byte[] contents = createContents(i, i * 10000);
+        String name = "res/raw/file" + i + ".bin";
+        ZipEntry entry = new ZipEntry(name);
+        if (i % 2 == 0) {
+          CRC32 crc = new CRC32();
+          crc.update(contents);
+          entry.setMethod(ZipEntry.STORED);
+          entry.setSize(contents.length);
+          entry.setCompressedSize(contents.length);
+          entry.setCrc(crc.getValue());
+        }
+        zos.putNextEntry(entry);
+        zos.write(contents);
+        zos.closeEntry();
+        expected.put(name, deflatedSize(contents));
+      }
+    }
+    return expected;
+  }
+
+  @Test
+  public void testParallelEstimation() throws IOException {
+    File apk = new File(myDir, "test.apk");
+    Map<String, Long> expected = createApk(apk);
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      CompressedSizeEstimator estimator = new CompressedSizeEstimator(null, executor, 4);
+      assertEquals(expected, estimator.getCompressedSizes(apk));
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testCache() throws IOException {
+    File apk = new File(myDir, "test.apk");
+    Map<String, Long> expected = createApk(apk);
+    File cacheDir = new File(myDir, "cache");
+
+    CompressedSizeEstimator estimator = new CompressedSizeEstimator(cacheDir, Runnable::run, 1);
+    assertEquals(expected, estimator.getCompressedSizes(apk));
+    File[] cached = cacheDir.listFiles();
+    assertNotNull(cached);
+    assertEquals(1, cached.length);
+
+    // The cached sizes are found for a copy of the same APK
+    File copy = new File(myDir, "copy.apk");
+    FileUtil.copy(apk, copy);
+    assertEquals(expected, new CompressedSizeEstimator(cacheDir, Runnable::run, 1).getCompressedSizes(copy));
+    assertEquals(1, cacheDir.listFiles().length);
+
+    // A different APK gets its own entry
+    try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(apk))) {
+      zos.putNextEntry(new ZipEntry("AndroidManifest.xml"));
+      zos.write(createContents(3, 100));
+    }
+    assertEquals(1, estimator.getCompressedSizes(apk).size());
+    assertEquals(2, cacheDir.listFiles().length);
+  }
+}
@@ -53,6 +53,30 @@ public class DexParserTest {
     assertEquals(6, dexFile.getMethodCount());
   }
 
+  @Test
+  public void mergedMethodReferenceTree() throws IOException {
+    DexBackedDexFile dexFile = getTestDexFile();
+    MethodRefTrie trie = DexParser.countMethodRefs(dexFile);
+    trie.addAll(DexParser.countMethodRefs(dexFile));
+
+    StringBuffer sb = new StringBuffer(100);
+    dumpTree(sb, trie.toTree(), 0);
+    assertEquals("root: 6,12\n" +
+                 "  Test: 6,6\n" +
+                 "    void <init>(): 2,2\n" +
+                 "    java.lang.Integer get(): 2,2\n" +
+                 "    java.util.List getList(): 2,2\n" +
+                 "  java: 0,6\n" +
+                 "    lang: 0,4\n" +
+                 "      Integer: 0,2\n" +
+                 "        java.lang.Integer valueOf(int): 0,2\n" +
+                 "      Object: 0,2\n" +
+                 "        void <init>(): 0,2\n" +
+                 "    util: 0,2\n" +
+                 "      Collections: 0,2\n" +
+                 "        java.util.List emptyList(): 0,2\n", sb.toString());
+  }
+
   @NotNull
   private static DexBackedDexFile getTestDexFile() throws IOException {
     Path dexPath = Paths.get(AndroidTestBase.getTestDataPath(), "apk/Test.dex");
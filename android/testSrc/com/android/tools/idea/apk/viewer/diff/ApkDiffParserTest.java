@@ -17,12 +17,14 @@ package com.android.tools.idea.apk.viewer.diff;
 
 import com.android.tools.idea.apk.viewer.ApkEntry;
 import com.android.tools.idea.apk.viewer.ApkFileSystem;
+import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
 import org.jetbrains.android.AndroidTestCase;
 import org.jetbrains.annotations.NotNull;
 
 import javax.swing.tree.DefaultMutableTreeNode;
 import java.io.IOException;
+import java.util.Map;
 
 public class ApkDiffParserTest extends AndroidTestCase {
 
@@ -68,6 +70,73 @@ public class ApkDiffParserTest extends AndroidTestCase {
                  dumpTree(treeNode));
   }
 
+  public void testEntryStatuses() throws IOException {
+    VirtualFile virtualFile1 = myFixture.copyFileToProject("apk/1.apk");
+    VirtualFile apkRoot1 = ApkFileSystem.getInstance().getRootByLocal(virtualFile1);
+    assertNotNull(apkRoot1);
+
+    VirtualFile virtualFile2 = myFixture.copyFileToProject("apk/2.apk");
+    VirtualFile apkRoot2 = ApkFileSystem.getInstance().getRootByLocal(virtualFile2);
+    assertNotNull(apkRoot2);
+
+    Map<String, ApkDiffEntry.Status> statuses =
+      CentralDirectoryDiff.compare(VfsUtilCore.virtualToIoFile(virtualFile1), VfsUtilCore.virtualToIoFile(virtualFile2));
+    DefaultMutableTreeNode treeNode = ApkDiffParser.createTreeNode(apkRoot1, apkRoot2, statuses);
+    assertEquals("1.apk MODIFIED\n" +
+                 "  instant-run.zip ADDED\n" +
+                 "    instant-run ADDED\n" +
+                 "      classes1.dex ADDED\n" +
+                 "  res UNCHANGED\n" +
+                 "    anim UNCHANGED\n" +
+                 "      fade.xml UNCHANGED\n" +
+                 "  AndroidManifest.xml UNCHANGED\n",
+                 dumpStatuses(treeNode));
+  }
+
+  public void testEntryStatusesReadByDefault() throws IOException {
+    VirtualFile virtualFile1 = myFixture.copyFileToProject("apk/1.apk");
+    VirtualFile apkRoot1 = ApkFileSystem.getInstance().getRootByLocal(virtualFile1);
+    assertNotNull(apkRoot1);
+
+    VirtualFile virtualFile2 = myFixture.copyFileToProject("apk/2.apk");
+    VirtualFile apkRoot2 = ApkFileSystem.getInstance().getRootByLocal(virtualFile2);
+    assertNotNull(apkRoot2);
+
+    // Without explicit statuses, the central directories of the APKs are compared
+    DefaultMutableTreeNode treeNode = ApkDiffParser.createTreeNode(apkRoot2, apkRoot1);
+    assertEquals("2.apk MODIFIED\n" +
+                 "  res UNCHANGED\n" +
+                 "    anim UNCHANGED\n" +
+                 "      fade.xml UNCHANGED\n" +
+                 "  AndroidManifest.xml UNCHANGED\n" +
+                 "  instant-run.zip REMOVED\n" +
+                 "    instant-run REMOVED\n" +
+                 "      classes1.dex REMOVED\n",
+                 dumpStatuses(treeNode));
+  }
+
+  private static String dumpStatuses(@NotNull DefaultMutableTreeNode treeNode) {
+    StringBuilder sb = new StringBuilder(30);
+    dumpStatuses(sb, treeNode, 0);
+    return sb.toString();
+  }
+
+  private static void dumpStatuses(@NotNull StringBuilder sb, @NotNull DefaultMutableTreeNode treeNode, int depth) {
+    for (int i = 0; i < depth; i++) {
+      sb.append("  ");
+    }
+    ApkDiffEntry entry = (ApkDiffEntry)ApkEntry.fromNode(treeNode);
+    assertNotNull(entry);
+    sb.append(entry.getName());
+    sb.append(' ');
+    sb.append(entry.getStatus());
+    sb.append('\n');
+
+    for (int i = 0; i < treeNode.getChildCount(); i++) {
+      dumpStatuses(sb, (DefaultMutableTreeNode)treeNode.getChildAt(i), depth + 1);
+    }
+  }
+
   private static String dumpTree(@NotNull DefaultMutableTreeNode treeNode) {
     StringBuilder sb = new StringBuilder(30);
     dumpTree(sb, treeNode, 0);
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.apk.viewer.diff;
+
+import com.android.tools.idea.apk.viewer.diff.ApkDiffEntry.Status;
+import com.android.tools.idea.apk.viewer.diff.DexDiff.ClassDiff;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.android.AndroidTestBase;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.immutable.ImmutableClassDef;
+import org.jf.dexlib2.immutable.ImmutableDexFile;
+import org.jf.dexlib2.immutable.ImmutableMethod;
+import org.jf.dexlib2.immutable.ImmutableMethodImplementation;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction11n;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction11x;
+import org.jf.dexlib2.writer.pool.DexPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class DexDifferTest {
+  private File myDir;
+
+  @Before
+  public void setUp() throws IOException {
+    myDir = FileUtil.createTempDirectory("dex-diff", null);
+  }
+
+  @After
+  public void tearDown() {
+    FileUtil.delete(myDir);
+  }
+
+  @Test
+  public void centralDirectoryStatuses() throws IOException {
+    File apk1 = new File(AndroidTestBase.getTestDataPath(), "apk/1.apk");
+    File apk2 = new File(AndroidTestBase.getTestDataPath(), "apk/2.apk");
+
+    Map<String, Status> statuses = CentralDirectoryDiff.compare(apk1, apk2);
+    assertEquals("{AndroidManifest.xml=UNCHANGED, instant-run.zip=ADDED, res/anim/fade.xml=UNCHANGED}",
+                 new TreeMap<>(statuses).toString());
+  }
+
+  @Test
+  public void classAndMethodChanges() throws IOException {
+    File oldApk = createApk("old.apk", createDex(createClass("LA;", method("m1", 1), method("m2", 2)), createClass("LB;")));
+    File newApk = createApk("new.apk", createDex(createClass("LA;", method("m1", 3), method("m3", 2)), createClass("LC;")));
+
+    DexDiff diff = diff(oldApk, newApk);
+    assertEquals("[REMOVED B, ADDED C, MODIFIED A]", sortByStatus(diff.getClasses()).toString());
+    assertEquals(3, diff.getClasses("classes.dex").size());
+
+    ClassDiff a = diff.getClasses().get(0);
+    assertEquals("A", a.getName());
+    assertEquals(Collections.singletonList("m3()I"), a.getAddedMethods());
+    assertEquals(Collections.singletonList("m2()I"), a.getRemovedMethods());
+    assertEquals(Collections.singletonList("m1()I"), a.getModifiedMethods());
+  }
+
+  @Test
+  public void unchangedDexFilesAreSkipped() throws IOException {
+    byte[] dex = createDex(createClass("LA;", method("m1", 1)));
+    File oldApk = createApk("old.apk", dex);
+    File newApk = createApk("new.apk", dex);
+
+    Map<String, Status> statuses = CentralDirectoryDiff.compare(oldApk, newApk);
+    assertEquals(Status.UNCHANGED, statuses.get("classes.dex"));
+    // an executor that fails the test if anything gets hashed
+    DexDiffer differ = new DexDiffer(MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor(r -> {
+      throw new AssertionError("No dex file should be parsed");
+    })));
+    assertEquals(DexDiff.EMPTY, differ.diff(oldApk, newApk, statuses));
+  }
+
+  @Test
+  public void classesMovedToAnotherDexFileAreUnchanged() throws IOException {
+    ClassDef a = createClass("LA;", method("m1", 1));
+    ClassDef b = createClass("LB;", method("m2", 2));
+    File oldApk = createApk("old.apk", createDex(a, b));
+    File newApk = createApk("new.apk", createDex(a), createDex(b));
+
+    DexDiff diff = diff(oldApk, newApk);
+    assertEquals(Collections.emptyList(), diff.getClasses());
+  }
+
+  @Test
+  public void parallelChunks() throws IOException {
+    List<ClassDef> oldClasses = new ArrayList<>();
+    List<ClassDef> newClasses = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      oldClasses.add(createClass("LC" + i + ";", method("m", i % 7)));
+      newClasses.add(createClass("LC" + i + ";", method("m", i % 100 == 0 ? 7 : i % 7)));
+    }
+    File oldApk = createApk("old.apk", createDex(oldClasses.toArray(new ClassDef[0])));
+    File newApk = createApk("new.apk", createDex(newClasses.toArray(new ClassDef[0])));
+
+    DexDiff diff = diff(oldApk, newApk);
+    assertEquals("[MODIFIED C0, MODIFIED C100, MODIFIED C200, MODIFIED C300, MODIFIED C400, " +
+                 "MODIFIED C500, MODIFIED C600, MODIFIED C700, MODIFIED C800, MODIFIED C900]",
+                 diff.getClasses().toString());
+  }
+
+  private static DexDiff diff(File oldApk, File newApk) throws IOException {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      DexDiffer differ = new DexDiffer(MoreExecutors.listeningDecorator(executor));
+      return differ.diff(oldApk, newApk, CentralDirectoryDiff.compare(oldApk, newApk));
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  private static List<ClassDiff> sortByStatus(List<ClassDiff> classes) {
+    List<ClassDiff> sorted = new ArrayList<>(classes);
+    sorted.sort(Comparator.comparing(classDiff -> classDiff.getStatus() == Status.MODIFIED));
+    return sorted;
+  }
+
+  private static Method method(String name, int result) {
+    ImmutableMethodImplementation implementation = new ImmutableMethodImplementation(
+      1,
+      ImmutableList.of(new ImmutableInstruction11n(Opcode.CONST_4, 0, result), new ImmutableInstruction11x(Opcode.RETURN, 0)),
+      null,
+      null);
+    return new ImmutableMethod("LA;", name, null, "I", AccessFlags.PUBLIC.getValue() | AccessFlags.STATIC.getValue(), null,
+                               implementation);
+  }
+
+  private static ClassDef createClass(String type, Method... methods) {
+    List<Method> definedMethods = new ArrayList<>();
+    for (Method method : methods) {
+      // the defining class is part of each method
+      definedMethods.add(new ImmutableMethod(type, method.getName(), method.getParameters(), method.getReturnType(),
+                                             method.getAccessFlags(), method.getAnnotations(), method.getImplementation()));
+    }
+    return new ImmutableClassDef(type, AccessFlags.PUBLIC.getValue(), "Ljava/lang/Object;", null, null, null, null, definedMethods);
+  }
+
+  private byte[] createDex(ClassDef... classes) throws IOException {
+    File dexFile = File.createTempFile("classes", ".dex", myDir);
+    DexPool.writeTo(dexFile.getPath(), new ImmutableDexFile(Arrays.asList(classes)));
+    return Files.readAllBytes(dexFile.toPath());
+  }
+
+  private File createApk(String name, byte[]... dexFiles) throws IOException {
+    File apk = new File(myDir, name);
+    try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(apk))) {
+      zos.putNextEntry(new ZipEntry("AndroidManifest.xml"));
+      zos.write(new byte[]{1, 2, 3});
+      for (int i = 0; i < dexFiles.length; i++) {
+        zos.putNextEntry(new ZipEntry(i == 0 ? "classes.dex" : "classes" + (i + 1) + ".dex"));
+        zos.write(dexFiles[i]);
+      }
+    }
+    return apk;
+  }
+}
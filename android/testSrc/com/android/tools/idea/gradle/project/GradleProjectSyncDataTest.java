@@ -37,18 +37,29 @@ public class GradleProjectSyncDataTest extends AndroidGradleTestCase {
     verifyGradleProjectSyncData(data, previousSyncTime);
 
     ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-    ObjectOutputStream oos = new ObjectOutputStream(outputStream);
-    oos.writeObject(data);
-    oos.close();
+    DataOutputStream out = new DataOutputStream(outputStream);
+    data.writeTo(out);
+    out.close();
 
     ByteArrayInputStream inputStream = new ByteArrayInputStream(outputStream.toByteArray());
-    ObjectInputStream ois = new ObjectInputStream(inputStream);
-    GradleProjectSyncData newData = (GradleProjectSyncData)ois.readObject();
-    ois.close();
+    DataInputStream in = new DataInputStream(inputStream);
+    GradleProjectSyncData newData = GradleProjectSyncData.readFrom(in);
+    in.close();
 
     verifyGradleProjectSyncData(newData, previousSyncTime);
   }
 
+  public void testOldFormatIsNotRead() throws Exception {
+    // Files written with Java serialization start with a different header.
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(outputStream);
+    oos.writeObject("data");
+    oos.close();
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+    assertNull(GradleProjectSyncData.readFrom(in));
+  }
+
   private static void verifyGradleProjectSyncData(GradleProjectSyncData data, long previousSyncTime) {
     assertNotNull(data);
 
@@ -81,6 +81,9 @@ public class AndroidModuleModelTest extends AndroidGradleTestCase {
     ois.close();
 
     assert androidModel != null;
+    // The model read back is checked without being decoded.
+    assertTrue(newAndroidModel.hasValidAndroidProject());
+    assertEquals(androidModel.getModelVersion(), newAndroidModel.getModelVersion());
     assertEquals(androidModel.getProjectSystemId(), newAndroidModel.getProjectSystemId());
     assertEquals(androidModel.getModuleName(), newAndroidModel.getModuleName());
     assertEquals(androidModel.getRootDirPath(), newAndroidModel.getRootDirPath());
@@ -16,12 +16,18 @@
 package com.android.tools.idea.gradle.project.sync;
 
 import com.android.tools.idea.gradle.project.GradleProjectInfo;
+import com.android.tools.idea.gradle.project.model.ModuleModel;
+import com.google.common.collect.ImmutableMap;
 import com.intellij.openapi.project.Project;
 import com.intellij.testFramework.IdeaTestCase;
 import com.intellij.util.messages.MessageBus;
+import org.jetbrains.annotations.NotNull;
 import org.mockito.Mock;
 
+import java.util.Map;
+
 import static com.android.tools.idea.gradle.project.sync.GradleSyncState.GRADLE_SYNC_TOPIC;
+import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.*;
 import static org.mockito.MockitoAnnotations.initMocks;
@@ -120,4 +126,47 @@ public class GradleSyncStateTest extends IdeaTestCase {
 
     verify(mySyncListener, times(1)).setupStarted(myProject);
   }
+
+  public void testPhaseDurations() {
+    mySyncState.syncStarted(false);
+    mySyncState.setupStarted();
+    mySyncState.phaseCompleted("Module setup", 10);
+    mySyncState.phaseCompleted("Module setup", 5);
+
+    Map<String, Long> durations = mySyncState.getPhaseDurations();
+    assertThat(durations.keySet()).containsExactly("Gradle models fetching", "Module setup").inOrder();
+    assertEquals(Long.valueOf(15), durations.get("Module setup"));
+
+    // Durations of the last sync are kept until a new sync starts.
+    mySyncState.syncEnded();
+    assertEquals(durations, mySyncState.getPhaseDurations());
+
+    mySyncState.syncStarted(false);
+    assertThat(mySyncState.getPhaseDurations()).isEmpty();
+  }
+
+  public void testSyncFailedClearsModelFingerprints() {
+    ModuleModelFingerprints fingerprints = mySyncState.getModelFingerprints();
+    Map<String, ModuleModel> models = ImmutableMap.of("app", new ModuleModelStub("app"));
+    fingerprints.update("models", models);
+    assertThat(fingerprints.update("models", models)).isEmpty();
+
+    mySyncState.syncFailed("Something went wrong");
+
+    assertThat(fingerprints.update("models", models)).containsExactly("app");
+  }
+
+  private static class ModuleModelStub implements ModuleModel {
+    @NotNull private final String myModuleName;
+
+    ModuleModelStub(@NotNull String moduleName) {
+      myModuleName = moduleName;
+    }
+
+    @Override
+    @NotNull
+    public String getModuleName() {
+      return myModuleName;
+    }
+  }
 }
\ No newline at end of file
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.gradle.project.sync;
+
+import com.android.tools.idea.gradle.project.model.ModuleModel;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+
+/**
+ * Tests for {@link ModuleModelFingerprints}.
+ */
+public class ModuleModelFingerprintsTest extends TestCase {
+  private ModuleModelFingerprints myFingerprints;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    myFingerprints = new ModuleModelFingerprints();
+  }
+
+  public void testAllModulesChangedOnFirstUpdate() {
+    Map<String, ModuleModel> models = ImmutableMap.of("app", new ModelStub("app", 1), "lib", new ModelStub("lib", 1));
+    assertEquals(ImmutableSet.of("app", "lib"), myFingerprints.update("android", models));
+  }
+
+  public void testOnlyChangedModules() {
+    myFingerprints.update("android", ImmutableMap.of("app", new ModelStub("app", 1), "lib", new ModelStub("lib", 1)));
+
+    Map<String, ModuleModel> models = ImmutableMap.of("app", new ModelStub("app", 1), "lib", new ModelStub("lib", 2));
+    assertEquals(ImmutableSet.of("lib"), myFingerprints.update("android", models));
+    assertEquals(ImmutableSet.of(), myFingerprints.update("android", models));
+  }
+
+  public void testAllModulesChangedWhenModulesChange() {
+    myFingerprints.update("android", ImmutableMap.of("app", new ModelStub("app", 1)));
+
+    Map<String, ModuleModel> models = ImmutableMap.of("app", new ModelStub("app", 1), "lib", new ModelStub("lib", 1));
+    assertEquals(ImmutableSet.of("app", "lib"), myFingerprints.update("android", models));
+  }
+
+  public void testModelTypesAreIndependent() {
+    Map<String, ModuleModel> models = ImmutableMap.of("app", new ModelStub("app", 1));
+    myFingerprints.update("android", models);
+
+    assertEquals(ImmutableSet.of("app"), myFingerprints.update("java", models));
+    assertEquals(ImmutableSet.of(), myFingerprints.update("android", models));
+  }
+
+  public void testClear() {
+    Map<String, ModuleModel> models = ImmutableMap.of("app", new ModelStub("app", 1));
+    myFingerprints.update("android", models);
+    myFingerprints.clear();
+
+    assertEquals(ImmutableSet.of("app"), myFingerprints.update("android", models));
+  }
+
+  private static class ModelStub implements ModuleModel {
+    @NotNull private final String myModuleName;
+    private final int myVersion;
+
+    ModelStub(@NotNull String moduleName, int version) {
+      myModuleName = moduleName;
+      myVersion = version;
+    }
+
+    @Override
+    @NotNull
+    public String getModuleName() {
+      return myModuleName;
+    }
+  }
+}
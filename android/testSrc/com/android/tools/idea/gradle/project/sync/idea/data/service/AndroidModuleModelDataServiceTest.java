@@ -70,7 +70,7 @@ public class AndroidModuleModelDataServiceTest extends AndroidGradleTestCase {
 
     myService.importData(Lists.newArrayList(dataNode), mock(ProjectData.class), project, modelsProvider);
 
-    verify(myModuleSetup).setUpModule(appModule, modelsProvider, androidModel, null, null);
+    verify(myModuleSetup).setUpModule(appModule, modelsProvider, androidModel, null, null, true);
     verify(myValidator).validate(appModule, androidModel);
     verify(myValidator).fixAndReportFoundIssues();
   }
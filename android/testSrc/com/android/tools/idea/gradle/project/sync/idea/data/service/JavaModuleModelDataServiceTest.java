@@ -67,6 +67,6 @@ public class JavaModuleModelDataServiceTest extends IdeaTestCase {
 
     myDataService.importData(dataNodes, null, getProject(), myModelsProvider);
 
-    verify(myModuleSetup).setUpModule(appModule, myModelsProvider, model, null, null);
+    verify(myModuleSetup).setUpModule(appModule, myModelsProvider, model, null, null, true);
   }
 }
\ No newline at end of file
@@ -70,7 +70,7 @@ public class NdkModuleModelDataServiceTest extends IdeaTestCase {
 
     myDataService.importData(dataNodes, null, getProject(), myModelsProvider);
 
-    verify(myModuleSetup).setUpModule(appModule, myModelsProvider, model, null, null);
+    verify(myModuleSetup).setUpModule(appModule, myModelsProvider, model, null, null, true);
   }
 
   // See: https://code.google.com/p/android/issues/detail?id=229806
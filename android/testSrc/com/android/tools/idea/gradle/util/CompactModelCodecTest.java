@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.gradle.util;
+
+import com.android.tools.idea.gradle.util.ProxyUtil.WrapperInvocationHandler;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import junit.framework.TestCase;
+import org.gradle.tooling.model.UnsupportedMethodException;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.android.tools.idea.gradle.util.ProxyUtil.reproxy;
+
+/**
+ * Tests for {@link CompactModelCodec}.
+ */
+public class CompactModelCodecTest extends TestCase {
+  private Project myProject;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    Library shared = createProxyInstance(Library.class, new LibraryImpl("com.example:shared:1.0"));
+    Library other = createProxyInstance(Library.class, new LibraryImpl("com.example:other:2.0"));
+    Project delegate = new ProjectImpl(ImmutableList.of(shared, other, shared));
+    myProject = reproxy(Project.class, createProxyInstance(Project.class, delegate));
+    assertNotNull(myProject);
+  }
+
+  public void testRoundTrip() throws Exception {
+    Project decoded = (Project)CompactModelCodec.decode(CompactModelCodec.encode(myProject), getClass().getClassLoader());
+    assertNotNull(decoded);
+    assertTrue(ProxyUtil.isAndroidModelProxyObject(decoded));
+
+    assertEquals("project", decoded.getName());
+    assertEquals(new File("a/sample/file"), decoded.getBuildFolder());
+    assertEquals(3, decoded.getVersion());
+    assertEquals(123456789012L, decoded.getTimestamp());
+    assertTrue(decoded.isLibrary());
+    assertEquals(Kind.APP, decoded.getKind());
+    assertEquals(ImmutableSet.of("a", "b"), decoded.getFlags());
+    assertEquals(ImmutableMap.of("key", ImmutableList.of("v1", "v2")), decoded.getProperties());
+
+    List<Library> libraries = decoded.getLibraries();
+    assertEquals(3, libraries.size());
+    assertEquals("com.example:shared:1.0", libraries.get(0).getCoordinates());
+    assertEquals("com.example:other:2.0", libraries.get(1).getCoordinates());
+    // Proxies shared in the original model are still shared.
+    assertSame(libraries.get(0), libraries.get(2));
+
+    try {
+      decoded.getMissing();
+      fail("The decoded proxy should throw like the original one");
+    }
+    catch (UnsupportedMethodException e) {
+      assertEquals("Not in this version", e.getMessage());
+    }
+  }
+
+  public void testMethodKeysAreInterned() throws Exception {
+    Project decoded = (Project)CompactModelCodec.decode(CompactModelCodec.encode(myProject), getClass().getClassLoader());
+    assertNotNull(decoded);
+    for (String key : ProxyUtil.getAndroidModelProxyValues(decoded).keySet()) {
+      assertSame(key, key.intern());
+    }
+  }
+
+  public void testSmallerThanJavaSerialization() throws Exception {
+    ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(serialized)) {
+      out.writeObject(myProject);
+    }
+    assertTrue(CompactModelCodec.encode(myProject).length < serialized.size());
+  }
+
+  public void testIsValid() throws Exception {
+    assertTrue(CompactModelCodec.isValid(CompactModelCodec.encode(myProject), getClass().getClassLoader()));
+
+    // A model created by an older plugin misses methods of the current interface.
+    Library library = myProject.getLibraries().get(1);
+    WrapperInvocationHandler handler = (WrapperInvocationHandler)Proxy.getInvocationHandler(library);
+    handler.values.remove(Library.class.getMethod("getCoordinates").toGenericString());
+    assertFalse(ProxyUtil.isValidProxyObject(myProject));
+    assertFalse(CompactModelCodec.isValid(CompactModelCodec.encode(myProject), getClass().getClassLoader()));
+  }
+
+  public void testCorruptedData() {
+    byte[] bytes = {1, 2, 3, 4, 5, 6, 7, 8};
+    assertFalse(CompactModelCodec.isValid(bytes, getClass().getClassLoader()));
+    try {
+      CompactModelCodec.decode(bytes, getClass().getClassLoader());
+      fail("Corrupted data should not be decoded");
+    }
+    catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  public void testTruncatedDataIsInvalid() throws Exception {
+    byte[] bytes = CompactModelCodec.encode(myProject);
+    for (int length = 0; length < bytes.length; length++) {
+      assertFalse(CompactModelCodec.isValid(Arrays.copyOf(bytes, length), getClass().getClassLoader()));
+    }
+  }
+
+  public void testUnsupportedVersionIsInvalid() throws Exception {
+    byte[] bytes = CompactModelCodec.encode(myProject);
+    // The version follows the 4 bytes of the magic number.
+    bytes[7]++;
+    assertFalse(CompactModelCodec.isValid(bytes, getClass().getClassLoader()));
+  }
+
+  public void testUnknownEnumConstantIsInvalid() throws Exception {
+    byte[] bytes = CompactModelCodec.encode(myProject);
+    // Renames the constant in the string table, keeping the length of the encoding.
+    byte[] name = {3, 'A', 'P', 'P'};
+    int index = indexOf(bytes, name);
+    assertTrue(index >= 0);
+    bytes[index + 1] = 'X';
+    assertFalse(CompactModelCodec.isValid(bytes, getClass().getClassLoader()));
+    try {
+      CompactModelCodec.decode(bytes, getClass().getClassLoader());
+      fail("An unknown enum constant should not be decoded");
+    }
+    catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  private static int indexOf(byte[] bytes, byte[] target) {
+    for (int i = 0; i + target.length <= bytes.length; i++) {
+      if (Arrays.equals(Arrays.copyOfRange(bytes, i, i + target.length), target)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T createProxyInstance(Class<T> type, T delegate) {
+    return (T)Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, (o, method, objects) -> {
+      try {
+        return method.invoke(delegate, objects);
+      }
+      catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    });
+  }
+
+  enum Kind {
+    APP, LIBRARY
+  }
+
+  interface Library {
+    String getCoordinates();
+  }
+
+  interface Project {
+    String getName();
+
+    File getBuildFolder();
+
+    int getVersion();
+
+    long getTimestamp();
+
+    boolean isLibrary();
+
+    Kind getKind();
+
+    Set<String> getFlags();
+
+    Map<String, Collection<String>> getProperties();
+
+    List<Library> getLibraries();
+
+    @Nullable
+    String getMissing() throws UnsupportedMethodException;
+  }
+
+  static class LibraryImpl implements Library {
+    private final String myCoordinates;
+
+    LibraryImpl(String coordinates) {
+      myCoordinates = coordinates;
+    }
+
+    @Override
+    public String getCoordinates() {
+      return myCoordinates;
+    }
+  }
+
+  static class ProjectImpl implements Project {
+    private final List<Library> myLibraries;
+
+    ProjectImpl(List<Library> libraries) {
+      myLibraries = libraries;
+    }
+
+    @Override
+    public String getName() {
+      return "project";
+    }
+
+    @Override
+    public File getBuildFolder() {
+      return new File("a/sample/file");
+    }
+
+    @Override
+    public int getVersion() {
+      return 3;
+    }
+
+    @Override
+    public long getTimestamp() {
+      return 123456789012L;
+    }
+
+    @Override
+    public boolean isLibrary() {
+      return true;
+    }
+
+    @Override
+    public Kind getKind() {
+      return Kind.APP;
+    }
+
+    @Override
+    public Set<String> getFlags() {
+      return ImmutableSet.of("a", "b");
+    }
+
+    @Override
+    public Map<String, Collection<String>> getProperties() {
+      return ImmutableMap.of("key", ImmutableList.of("v1", "v2"));
+    }
+
+    @Override
+    public List<Library> getLibraries() {
+      return myLibraries;
+    }
+
+    @Override
+    public String getMissing() throws UnsupportedMethodException {
+      throw new UnsupportedMethodException("Not in this version");
+    }
+  }
+}
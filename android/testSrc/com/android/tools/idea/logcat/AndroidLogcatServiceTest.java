@@ -22,9 +22,15 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.regex.Pattern;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 
 public class AndroidLogcatServiceTest {
@@ -263,4 +269,47 @@ public class AndroidLogcatServiceTest {
     verify(mockDevice, times(2)).executeShellCommand(any(), any(), anyLong(), any());
     verifyNoMoreInteractions(mockDevice);
   }
+
+  /**
+   * Tests {@link AndroidLogcatService#replayLogs}, to make sure that it passes the old logs accepted by the filter as already
+   * filtered lines, and that a cancelled replay still adds the listener back
+   */
+  @Test
+  public void testReplayLogs() throws Exception {
+    when(mockDevice.isOnline()).thenReturn(true);
+    myLogcatService.deviceConnected(mockDevice);
+    myLogcatService.addListener(mockDevice, myLogcatListener, true);
+    myExecuteShellCommandLatch.await();
+    myLogcatListener.assertAllReceived();
+
+    List<String> replayed = new ArrayList<>();
+    AndroidLogcatService.LogcatListener listener = new AndroidLogcatService.LogcatListener() {
+      @Override
+      public void onLogLineReceived(@NotNull LogCatMessage line) {
+        fail("Replayed lines are already filtered");
+      }
+
+      @Override
+      public void onFilteredLogLineReceived(@NotNull LogCatMessage line) {
+        replayed.add(line.toString());
+      }
+    };
+    myLogcatService.addListener(mockDevice, listener);
+
+    // The whole multi-line message is replayed when one of its lines matches
+    LogcatMessageFilter filter = new LogcatMessageFilter(null, null, Pattern.compile("Line2"), null);
+    myLogcatService.replayLogs(mockDevice, listener, filter, () -> false);
+    assertEquals(Arrays.asList("08-18 16:39:11.439: W/DummyFirst(1493): First Line1",
+                               "08-18 16:39:11.439: W/DummyFirst(1493): First Line2",
+                               "08-18 16:39:11.439: W/DummyFirst(1493): First Line3"), replayed);
+
+    replayed.clear();
+    myLogcatService.replayLogs(mockDevice, listener, filter, () -> true);
+    assertEquals(Collections.emptyList(), replayed);
+
+    // The listener was added back by the cancelled replay, so it can be replayed again
+    filter = new LogcatMessageFilter(null, null, Pattern.compile("Second"), null);
+    myLogcatService.replayLogs(mockDevice, listener, filter, () -> false);
+    assertEquals(Collections.singletonList("09-20 16:39:11.439: W/DummySecond(1493): Second Line1"), replayed);
+  }
 }
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+import com.android.ddmlib.logcat.LogCatHeader;
+import com.android.ddmlib.logcat.LogCatMessage;
+import com.android.ddmlib.logcat.LogCatTimestamp;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class LogcatBufferTest {
+  private static final LogCatHeader HEADER1 =
+    new LogCatHeader(LogLevel.WARN, 1493, 1595, "com.example", "DummyFirst", LogCatTimestamp.fromString("08-18 16:39:11.439"));
+  private static final LogCatHeader HEADER2 =
+    new LogCatHeader(LogLevel.DEBUG, 13, 123, "system_process", "DummySecond", LogCatTimestamp.fromString("12-31 23:59:59.999"));
+
+  private LogcatBuffer myBuffer;
+
+  @After
+  public void tearDown() {
+    if (myBuffer != null) {
+      myBuffer.dispose();
+    }
+  }
+
+  private static List<String> readAll(LogcatBuffer buffer, LogcatBuffer.Cursor cursor, int batchSize) {
+    List<String> lines = new ArrayList<>();
+    while (buffer.read(cursor, batchSize, message -> lines.add(message.toString())) > 0) {
+      // Keep reading until the cursor catches up
+    }
+    return lines;
+  }
+
+  private static List<String> readAll(LogcatBuffer buffer, LogcatMessageFilter filter) {
+    List<String> lines = new ArrayList<>();
+    LogcatBuffer.Cursor cursor = buffer.createCursor();
+    while (buffer.read(cursor, 100, filter, message -> lines.add(message.toString())) > 0) {
+      // Keep reading until the cursor catches up
+    }
+    return lines;
+  }
+
+  private static LogCatHeader createHeader(int i) {
+    LogLevel[] levels = LogLevel.values();
+    return new LogCatHeader(levels[i % levels.length], 100 + i % 7, 200 + i % 3, "com.example" + i % 4, "Tag" + i % 11,
+                            LogCatTimestamp.fromString(String.format("01-01 12:00:%02d.%03d", i / 1000 % 60, i % 1000)));
+  }
+
+  /**
+   * Adds messages of one to three lines, with varied headers
+   */
+  private List<LogCatMessage> addMessages(int count) {
+    List<LogCatMessage> messages = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      LogCatHeader header = createHeader(i);
+      for (int line = 0; line <= i % 3; line++) {
+        LogCatMessage message = new LogCatMessage(header, "Message" + i + " line" + line);
+        myBuffer.addMessage(message);
+        messages.add(message);
+      }
+    }
+    return messages;
+  }
+
+  private static List<String> expectedLines(List<LogCatMessage> messages, Predicate<LogCatMessage> acceptsLine) {
+    List<String> lines = new ArrayList<>();
+    for (int start = 0; start < messages.size(); ) {
+      int end = start;
+      boolean matched = false;
+      while (end < messages.size() && messages.get(end).getHeader() == messages.get(start).getHeader()) {
+        matched |= acceptsLine.test(messages.get(end));
+        end++;
+      }
+      if (matched) {
+        for (int i = start; i < end; i++) {
+          lines.add(messages.get(i).toString());
+        }
+      }
+      start = end;
+    }
+    return lines;
+  }
+
+  private static List<String> expectedLines(int from, int to) {
+    List<String> lines = new ArrayList<>();
+    for (int i = from; i < to; i++) {
+      lines.add(new LogCatMessage(i % 2 == 0 ? HEADER1 : HEADER2, "Line" + i).toString());
+    }
+    return lines;
+  }
+
+  private void addLines(int from, int to) {
+    for (int i = from; i < to; i++) {
+      myBuffer.addMessage(new LogCatMessage(i % 2 == 0 ? HEADER1 : HEADER2, "Line" + i));
+    }
+  }
+
+  @Test
+  public void testReplay() {
+    myBuffer = new LogcatBuffer(Integer.MAX_VALUE, 0);
+    addLines(0, 5000);
+    assertEquals(5000, myBuffer.getSize());
+    assertEquals(expectedLines(0, 5000), readAll(myBuffer, myBuffer.createCursor(), 1000));
+  }
+
+  @Test
+  public void testCursorContinuesWithNewMessages() {
+    myBuffer = new LogcatBuffer(Integer.MAX_VALUE, 0);
+    LogcatBuffer.Cursor cursor = myBuffer.createCursor();
+    addLines(0, 10);
+    assertEquals(expectedLines(0, 10), readAll(myBuffer, cursor, 3));
+    addLines(10, 20);
+    assertEquals(expectedLines(10, 20), readAll(myBuffer, cursor, 3));
+  }
+
+  @Test
+  public void testSharedHeader() {
+    myBuffer = new LogcatBuffer(Integer.MAX_VALUE, 0);
+    myBuffer.addMessage(new LogCatMessage(HEADER1, "Line1"));
+    myBuffer.addMessage(new LogCatMessage(HEADER1, "Line2"));
+    List<LogCatMessage> messages = new ArrayList<>();
+    myBuffer.read(myBuffer.createCursor(), 10, messages::add);
+    assertEquals(2, messages.size());
+    assertSame(messages.get(0).getHeader(), messages.get(1).getHeader());
+    assertEquals(HEADER1.toString(), messages.get(0).getHeader().toString());
+  }
+
+  @Test
+  public void testEviction() {
+    // Each message takes its length + 1 chars: "LineNN" takes 7
+    myBuffer = new LogcatBuffer(7 * 20, 0);
+    LogcatBuffer.Cursor cursor = myBuffer.createCursor();
+    addLines(10, 50);
+    assertEquals(20, myBuffer.getSize());
+    // The cursor skips the discarded messages
+    assertEquals(expectedLines(30, 50), readAll(myBuffer, cursor, 7));
+
+    addLines(50, 99);
+    assertEquals(expectedLines(79, 99), readAll(myBuffer, myBuffer.createCursor(), 100));
+  }
+
+  @Test
+  public void testMessagesLargerThanBuffer() {
+    myBuffer = new LogcatBuffer(10, 0);
+    addLines(0, 3);
+    myBuffer.addMessage(new LogCatMessage(HEADER1, "This message does not fit"));
+    assertEquals(0, myBuffer.getSize());
+    addLines(3, 4);
+    assertEquals(expectedLines(3, 4), readAll(myBuffer, myBuffer.createCursor(), 10));
+  }
+
+  @Test
+  public void testSpill() {
+    myBuffer = new LogcatBuffer(8 * 100, Long.MAX_VALUE);
+    LogcatBuffer.Cursor cursor = myBuffer.createCursor();
+    addLines(100, 600);
+    assertEquals(100, myBuffer.getSize());
+    assertEquals(expectedLines(100, 600), readAll(myBuffer, cursor, 33));
+    assertEquals(expectedLines(100, 600), readAll(myBuffer, myBuffer.createCursor(), 1000));
+  }
+
+  @Test
+  public void testSpillRotation() {
+    // Each spilled "LineNNN" record takes 33 bytes plus 14 for the text, so each spill file holds about 50 messages
+    myBuffer = new LogcatBuffer(8 * 100, 47 * 100);
+    LogcatBuffer.Cursor cursor = myBuffer.createCursor();
+    addLines(100, 1000);
+    List<String> lines = readAll(myBuffer, cursor, 10);
+    // The oldest messages have been discarded, but the remaining ones are contiguous and end with the newest message
+    assertTrue(lines.size() > 100);
+    assertTrue(lines.size() < 300);
+    assertEquals(expectedLines(1000 - lines.size(), 1000), lines);
+  }
+
+  @Test
+  public void testFilteredRead() {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      myBuffer = new LogcatBuffer(Integer.MAX_VALUE, 0, executor);
+      List<LogCatMessage> messages = addMessages(30000);
+
+      LogcatMessageFilter levelFilter = new LogcatMessageFilter(LogLevel.ERROR, null, null, null);
+      assertEquals(expectedLines(messages, m -> m.getLogLevel().getPriority() >= LogLevel.ERROR.getPriority()), readAll(myBuffer, levelFilter));
+
+      DefaultAndroidLogcatFilter tagAndPid =
+        new DefaultAndroidLogcatFilter.Builder("test").setTagPattern(Pattern.compile("^Tag3$")).setPid(104).build();
+      LogcatMessageFilter tagAndPidFilter = new LogcatMessageFilter(null, tagAndPid, null, null);
+      assertEquals(expectedLines(messages, m -> m.getTag().equals("Tag3") && m.getPid() == 104), readAll(myBuffer, tagAndPidFilter));
+
+      DefaultAndroidLogcatFilter text = new DefaultAndroidLogcatFilter.Builder("test").setMessagePattern(Pattern.compile("line2")).build();
+      LogcatMessageFilter textFilter = new LogcatMessageFilter(null, text, null, null);
+      assertEquals(expectedLines(messages, m -> m.getMessage().contains("line2")), readAll(myBuffer, textFilter));
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testFilteredReadKeepsMultiLineMessages() {
+    myBuffer = new LogcatBuffer(Integer.MAX_VALUE, 0);
+    LogCatHeader header =
+      new LogCatHeader(LogLevel.INFO, 42, 43, "com.example", "Multi", LogCatTimestamp.fromString("08-18 16:40:00.000"));
+    List<String> expected = new ArrayList<>();
+    addLines(0, 10);
+    for (String text : new String[]{"First", "Second", "Third"}) {
+      LogCatMessage message = new LogCatMessage(header, text);
+      myBuffer.addMessage(message);
+      expected.add(message.toString());
+    }
+    addLines(10, 20);
+
+    LogcatMessageFilter filter = new LogcatMessageFilter(null, null, Pattern.compile("Third"), null);
+    assertEquals(expected, readAll(myBuffer, filter));
+
+    // The search pattern is also matched against the header of the first line
+    filter = new LogcatMessageFilter(null, null, Pattern.compile("Multi"), null);
+    assertEquals(expected, readAll(myBuffer, filter));
+  }
+
+  @Test
+  public void testFilteredReadAfterEviction() {
+    myBuffer = new LogcatBuffer(8 * 100, Long.MAX_VALUE);
+    addLines(100, 5000);
+    LogcatMessageFilter filter = new LogcatMessageFilter(LogLevel.WARN, null, null, null);
+    List<String> expected = new ArrayList<>();
+    for (String line : expectedLines(100, 5000)) {
+      if (line.contains("DummyFirst")) {
+        expected.add(line);
+      }
+    }
+    // Older messages are read from the spill files, the newer ones from memory
+    assertEquals(expected, readAll(myBuffer, filter));
+  }
+
+  @Test
+  public void testBatchIsFilteredWithoutTheBuffer() {
+    myBuffer = new LogcatBuffer(8 * 100, 0);
+    addLines(0, 100);
+    LogcatMessageFilter filter = new LogcatMessageFilter(null, null, Pattern.compile("Line[0-9]*[02468]$"), null);
+    LogcatBuffer.Cursor cursor = myBuffer.createCursor();
+    LogcatBuffer.FilterBatch batch = myBuffer.readBatch(cursor, 1000, filter);
+    assertNotNull(batch);
+    assertNull(myBuffer.readBatch(cursor, 1000, filter));
+
+    // The batch is a copy, so it is not affected by the messages evicted since it was read
+    addLines(100, 200);
+    List<String> lines = new ArrayList<>();
+    assertEquals(50, batch.filter(message -> lines.add(message.toString())));
+    List<String> expected = new ArrayList<>();
+    for (String line : expectedLines(0, 100)) {
+      if (line.matches(".*Line[0-9]*[02468]")) {
+        expected.add(line);
+      }
+    }
+    assertEquals(expected, lines);
+  }
+}
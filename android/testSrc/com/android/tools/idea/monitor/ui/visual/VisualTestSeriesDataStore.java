@@ -24,6 +24,7 @@ import com.android.tools.datastore.SeriesDataType;
 import com.android.tools.datastore.profilerclient.DeviceProfilerService;
 import com.android.tools.idea.monitor.ui.network.view.NetworkRadioSegment;
 import com.android.tools.idea.monitor.ui.visual.data.*;
+import gnu.trove.TLongArrayList;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -82,6 +83,17 @@ public final class VisualTestSeriesDataStore implements SeriesDataStore {
     return (SeriesData<T>)getAdapter(type, target).get(index);
   }
 
+  @Override
+  public void copyDataTo(SeriesDataType type,
+                         int fromIndex,
+                         int toIndex,
+                         Object target,
+                         int resolution,
+                         TLongArrayList timestampsOut,
+                         TLongArrayList valuesOut) {
+    getAdapter(type, target).copyTo(fromIndex, toIndex, resolution, timestampsOut, valuesOut);
+  }
+
   @Override
   public void registerAdapter(SeriesDataType type, DataAdapter adapter, Object target) {
     if (!myDataSeriesMap.containsKey(type)) {
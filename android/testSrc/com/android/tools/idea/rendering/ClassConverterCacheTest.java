@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.google.common.io.ByteStreams;
+import com.intellij.openapi.util.io.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class ClassConverterCacheTest {
+  private static final int LAYOUTLIB_API = 15;
+
+  private File myCacheDir;
+
+  @Before
+  public void setUp() throws IOException {
+    myCacheDir = FileUtil.createTempDirectory("class-cache", null);
+  }
+
+  @After
+  public void tearDown() {
+    FileUtil.delete(myCacheDir);
+  }
+
+  private static byte[] getClassData(Class<?> c) throws IOException {
+    try (InputStream is = c.getResourceAsStream(c.getSimpleName() + ".class")) {
+      return ByteStreams.toByteArray(is);
+    }
+  }
+
+  @Test
+  public void testMemoryCache() throws IOException {
+    ClassConverterCache cache = new ClassConverterCache(null, 0, Long.MAX_VALUE, Runnable::run);
+    byte[] data = getClassData(ClassConverterCacheTest.class);
+
+    byte[] rewritten = cache.rewriteClass(data, LAYOUTLIB_API);
+    assertArrayEquals(ClassConverter.rewriteClass(data, LAYOUTLIB_API), rewritten);
+    assertEquals(1, cache.getMissCount());
+
+    assertSame(rewritten, cache.rewriteClass(data, LAYOUTLIB_API));
+    assertEquals(1, cache.getMemoryHitCount());
+    assertEquals(1, cache.getMissCount());
+
+    // The layoutlib API level is part of the key
+    cache.rewriteClass(data, LAYOUTLIB_API + 1);
+    assertEquals(2, cache.getMissCount());
+  }
+
+  @Test
+  public void testDiskCache() throws IOException {
+    byte[] data = getClassData(ClassConverterCacheTest.class);
+    byte[] rewritten = new ClassConverterCache(myCacheDir, Long.MAX_VALUE, Long.MAX_VALUE, Runnable::run).rewriteClass(data, LAYOUTLIB_API);
+
+    // A new cache, e.g. after a restart, finds the class on disk
+    ClassConverterCache cache = new ClassConverterCache(myCacheDir, Long.MAX_VALUE, Long.MAX_VALUE, Runnable::run);
+    assertArrayEquals(rewritten, cache.rewriteClass(data, LAYOUTLIB_API));
+    assertEquals(1, cache.getDiskHitCount());
+    assertEquals(0, cache.getMissCount());
+
+    assertArrayEquals(rewritten, cache.rewriteClass(data, LAYOUTLIB_API));
+    assertEquals(1, cache.getMemoryHitCount());
+    assertEquals(1, cache.getDiskHitCount());
+  }
+
+  @Test
+  public void testDelayedWrite() throws IOException {
+    List<Runnable> pendingWrites = new ArrayList<>();
+    Executor executor = pendingWrites::add;
+    byte[] data = getClassData(ClassConverterCacheTest.class);
+
+    new ClassConverterCache(myCacheDir, Long.MAX_VALUE, Long.MAX_VALUE, executor).rewriteClass(data, LAYOUTLIB_API);
+    ClassConverterCache cache = new ClassConverterCache(myCacheDir, Long.MAX_VALUE, Long.MAX_VALUE, executor);
+    cache.rewriteClass(data, LAYOUTLIB_API);
+    assertEquals(1, cache.getMissCount());
+
+    pendingWrites.forEach(Runnable::run);
+    cache = new ClassConverterCache(myCacheDir, Long.MAX_VALUE, Long.MAX_VALUE, executor);
+    cache.rewriteClass(data, LAYOUTLIB_API);
+    assertEquals(1, cache.getDiskHitCount());
+  }
+
+  @Test
+  public void testTrim() throws IOException {
+    Class<?>[] classes = {ClassConverterCacheTest.class, ClassConverterCache.class, ClassConverter.class};
+    long maxSize = 0;
+    for (Class<?> c : classes) {
+      maxSize = Math.max(maxSize, ClassConverter.rewriteClass(getClassData(c), LAYOUTLIB_API).length + 1);
+    }
+
+    // Only one class fits in the cache at a time
+    ClassConverterCache cache = new ClassConverterCache(myCacheDir, maxSize, Long.MAX_VALUE, Runnable::run);
+    for (Class<?> c : classes) {
+      cache.rewriteClass(getClassData(c), LAYOUTLIB_API);
+    }
+    assertEquals(3, cache.getMissCount());
+
+    long size = 0;
+    int count = 0;
+    for (File dir : myCacheDir.listFiles()) {
+      for (File file : dir.listFiles()) {
+        size += file.length();
+        count++;
+      }
+    }
+    assertTrue(size <= maxSize);
+    assertTrue(count < classes.length);
+  }
+}
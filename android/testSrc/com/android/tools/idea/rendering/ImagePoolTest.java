@@ -22,7 +22,10 @@ import org.junit.Test;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -101,11 +104,69 @@ public class ImagePoolTest {
     image2 = null;
     gc();
     countDown2.await(3, TimeUnit.SECONDS);
-    // We will get images from different size, and type, none of them should return the pooled image
+    // We will get images from different size classes, and type, none of them should return the pooled image
     assertNotEquals(internalPtr, myPool.create(50, 50, BufferedImage.TYPE_INT_ARGB_PRE, null).myBuffer);
-    assertNotEquals(internalPtr, myPool.create(51, 50, BufferedImage.TYPE_INT_ARGB, null).myBuffer);
-    assertNotEquals(internalPtr, myPool.create(50, 51, BufferedImage.TYPE_INT_ARGB, null).myBuffer);
+    assertNotEquals(internalPtr, myPool.create(100, 50, BufferedImage.TYPE_INT_ARGB, null).myBuffer);
+    assertNotEquals(internalPtr, myPool.create(50, 100, BufferedImage.TYPE_INT_ARGB, null).myBuffer);
     assertEquals(internalPtr, myPool.create(50, 50, BufferedImage.TYPE_INT_ARGB, null).myBuffer);
+    assertEquals(2, myPool.getHitCount());
+    assertEquals(5, myPool.getMissCount());
+  }
+
+  @Test
+  public void testSizeClasses() {
+    assertEquals(16, ImagePool.getSizeClass(1));
+    assertEquals(64, ImagePool.getSizeClass(50));
+    assertEquals(64, ImagePool.getSizeClass(64));
+    assertEquals(1152, ImagePool.getSizeClass(1080));
+    assertEquals(1792, ImagePool.getSizeClass(1776));
+    assertEquals(1920, ImagePool.getSizeClass(1920));
+    assertEquals(3840, ImagePool.getSizeClass(3840));
+  }
+
+  @Test
+  public void testSameSizeClassSharesBuffer() throws InterruptedException, IOException {
+    CountDownLatch countDown = new CountDownLatch(1);
+    ImagePool.ImageImpl image = myPool.create(1080, 1920, BufferedImage.TYPE_INT_ARGB, (b) -> countDown.countDown());
+    image.drawFrom(getSampleImage());
+    DataBuffer dataBuffer = image.myBuffer.getRaster().getDataBuffer();
+
+    //noinspection UnusedAssignment
+    image = null;
+    gc();
+    countDown.await(3, TimeUnit.SECONDS);
+    assertEquals(1152 * 1920 * 4, myPool.getPooledBytes());
+
+    // A device with a slightly different screen size reuses the memory of the previous image
+    image = myPool.create(1080, 1794, BufferedImage.TYPE_INT_ARGB, null);
+    assertSame(dataBuffer, image.myBuffer.getRaster().getDataBuffer());
+    assertEquals(1080, image.getWidth());
+    assertEquals(1794, image.getHeight());
+    assertEquals(BufferedImage.TYPE_INT_ARGB, image.myBuffer.getType());
+    assertEquals(0, myPool.getPooledBytes());
+    ImageDiffUtil.assertImageSimilar("clean", new BufferedImage(1080, 1794, BufferedImage.TYPE_INT_ARGB), image.getCopy(), 0.0);
+  }
+
+  @Test
+  public void testBudget() throws InterruptedException {
+    myPool.dispose();
+    // 64x64 ARGB images use 16k, so a bucket holds at most 3 of them
+    myPool = new ImagePool(100_000);
+    CountDownLatch countDown = new CountDownLatch(5);
+    List<ImagePool.Image> images = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      images.add(myPool.create(50, 50, BufferedImage.TYPE_INT_ARGB, (b) -> countDown.countDown()));
+    }
+
+    images.clear();
+    gc();
+    countDown.await(3, TimeUnit.SECONDS);
+    assertEquals(3 * 64 * 64 * 4, myPool.getPooledBytes());
+    assertEquals(2, myPool.getEvictionCount());
+
+    myPool.trim();
+    assertEquals(0, myPool.getPooledBytes());
+    assertEquals(5, myPool.getEvictionCount());
   }
 
   @Test
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RenderExecutorTest {
+  private RenderExecutor myExecutor;
+
+  @After
+  public void tearDown() {
+    if (myExecutor != null) {
+      myExecutor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testSameKeyRunsOnSameThread() throws Exception {
+    myExecutor = new RenderExecutor(4, TimeUnit.SECONDS.toMillis(10));
+    Object key = new Object();
+    Thread first = myExecutor.getLane(key).submit(Thread::currentThread).get();
+    Thread second = myExecutor.getLane(key).submit(Thread::currentThread).get();
+    assertSame(first, second);
+    assertSame(myExecutor.getLane(null), myExecutor.getLane(null));
+  }
+
+  @Test
+  public void testSingleThreadSerializesAllKeys() throws Exception {
+    myExecutor = new RenderExecutor(1, TimeUnit.SECONDS.toMillis(10));
+    assertSame(myExecutor.getLane("a"), myExecutor.getLane("b"));
+    assertEquals("Layoutlib Render Thread", myExecutor.getLane(null).submit(() -> Thread.currentThread().getName()).get());
+  }
+
+  @Test
+  public void testBlockedLaneDoesNotBlockOtherLanes() throws Exception {
+    myExecutor = new RenderExecutor(2, TimeUnit.SECONDS.toMillis(10));
+    // Keys with different hash codes always end up in different lanes when there are two of them
+    Integer blockedKey = 0;
+    Integer otherKey = 1;
+    assertNotSame(myExecutor.getLane(blockedKey), myExecutor.getLane(otherKey));
+
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Future<?> blocked = myExecutor.getLane(blockedKey).submit(() -> {
+      started.countDown();
+      return release.await(5, TimeUnit.SECONDS);
+    });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    Future<?> queued = myExecutor.getLane(blockedKey).submit(() -> null);
+    assertEquals("done", myExecutor.getLane(otherKey).submit(() -> "done").get(5, TimeUnit.SECONDS));
+    assertEquals(1, myExecutor.getQueuedTaskCount());
+    assertTrue(myExecutor.getActiveTaskCount() >= 1);
+
+    release.countDown();
+    blocked.get(5, TimeUnit.SECONDS);
+    queued.get(5, TimeUnit.SECONDS);
+    assertEquals(0, myExecutor.getQueuedTaskCount());
+    assertEquals(3, myExecutor.getCompletedTaskCount());
+  }
+
+  @Test
+  public void testTimeouts() throws Exception {
+    myExecutor = new RenderExecutor(1, TimeUnit.SECONDS.toMillis(10));
+    RenderExecutor.Lane lane = myExecutor.getLane(null);
+    lane.onTimeout();
+    lane.onTimeout();
+    assertEquals(2, lane.getTimeoutCount());
+    lane.resetTimeouts();
+    assertEquals(0, lane.getTimeoutCount());
+    assertEquals(2, myExecutor.getTimeoutCount());
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.intellij.openapi.util.io.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+@SuppressWarnings("UndesirableClassUsage")
+public class RenderResultCacheTest {
+  private File myCacheDir;
+
+  @Before
+  public void setUp() throws IOException {
+    myCacheDir = FileUtil.createTempDirectory("render-cache", null);
+  }
+
+  @After
+  public void tearDown() {
+    FileUtil.delete(myCacheDir);
+  }
+
+  private static BufferedImage createImage(int width, int height, Color color) {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = image.createGraphics();
+    try {
+      g.setColor(color);
+      g.fillRect(0, 0, width, height);
+    }
+    finally {
+      g.dispose();
+    }
+    return image;
+  }
+
+  @Test
+  public void testPutAndGet() {
+    RenderResultCache cache = new RenderResultCache(myCacheDir, Long.MAX_VALUE, Runnable::run);
+    assertNull(cache.get("key1"));
+    assertEquals(1, cache.getMissCount());
+
+    cache.put("key1", createImage(20, 10, Color.RED));
+    BufferedImage image = cache.get("key1");
+    assertNotNull(image);
+    assertEquals(20, image.getWidth());
+    assertEquals(10, image.getHeight());
+    assertEquals(Color.RED.getRGB(), image.getRGB(5, 5));
+    assertEquals(1, cache.getHitCount());
+
+    // Entries survive a new cache instance, as they would across IDE sessions
+    RenderResultCache newCache = new RenderResultCache(myCacheDir, Long.MAX_VALUE, Runnable::run);
+    image = newCache.get("key1");
+    assertNotNull(image);
+    assertEquals(Color.RED.getRGB(), image.getRGB(5, 5));
+  }
+
+  @Test
+  public void testCorruptedEntry() throws IOException {
+    RenderResultCache cache = new RenderResultCache(myCacheDir, Long.MAX_VALUE, Runnable::run);
+    File file = new File(myCacheDir, "key1.png");
+    FileUtil.writeToFile(file, "not an image");
+
+    assertNull(cache.get("key1"));
+    assertFalse(file.exists());
+  }
+
+  @Test
+  public void testTrim() {
+    RenderResultCache cache = new RenderResultCache(myCacheDir, Long.MAX_VALUE, Runnable::run);
+    cache.put("key1", createImage(100, 100, Color.RED));
+    long entrySize = new File(myCacheDir, "key1.png").length();
+    assertTrue(entrySize > 0);
+
+    // Only allow two entries
+    cache = new RenderResultCache(myCacheDir, entrySize * 2 + entrySize / 2, Runnable::run);
+    cache.put("key2", createImage(100, 100, Color.RED));
+    assertTrue(new File(myCacheDir, "key1.png").setLastModified(System.currentTimeMillis() - 20000));
+    assertTrue(new File(myCacheDir, "key2.png").setLastModified(System.currentTimeMillis() - 10000));
+
+    // Reading key1 makes it the most recently used entry so key2 is evicted
+    assertNotNull(cache.get("key1"));
+    cache.put("key3", createImage(100, 100, Color.RED));
+    assertTrue(new File(myCacheDir, "key1.png").exists());
+    assertFalse(new File(myCacheDir, "key2.png").exists());
+    assertTrue(new File(myCacheDir, "key3.png").exists());
+  }
+}
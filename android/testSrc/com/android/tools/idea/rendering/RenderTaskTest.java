@@ -18,7 +18,11 @@ package com.android.tools.idea.rendering;
 import com.android.tools.idea.configurations.Configuration;
 import com.android.tools.idea.diagnostics.crash.CrashReport;
 import com.android.tools.idea.diagnostics.crash.CrashReporter;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiDocumentManager;
 
 import static org.mockito.Mockito.*;
 
@@ -38,5 +42,33 @@ public class RenderTaskTest extends RenderTestBase {
     verify(mockCrashReporter, times(1)).submit(isNotNull(CrashReport.class));
   }
 
+  public void testCacheKeyOfUnsavedResources() throws Exception {
+    VirtualFile layoutFile = myFixture.copyFileToProject("xmlpull/simple.xml", "res/layout/foo.xml");
+    VirtualFile stringsFile =
+      myFixture.addFileToProject("res/values/strings.xml", "<resources><string name=\"title\">Title</string></resources>").getVirtualFile();
+    Configuration configuration = getConfiguration(layoutFile, DEFAULT_DEVICE_ID);
+    RenderResultCache cache = RenderResultCache.getInstance();
+
+    RenderTask task = createRenderTask(layoutFile, configuration);
+    String savedKey = cache.computeKey(task);
+    task.dispose();
+    assertNotNull(savedKey);
+
+    // The rendering of unsaved changes must not be stored under the key of the saved files
+    Document document = FileDocumentManager.getInstance().getDocument(stringsFile);
+    assertNotNull(document);
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+      document.setText("<resources><string name=\"title\">Unsaved title</string></resources>");
+      PsiDocumentManager.getInstance(getProject()).commitDocument(document);
+    });
+    assertTrue(FileDocumentManager.getInstance().isFileModified(stringsFile));
+
+    task = createRenderTask(layoutFile, configuration);
+    String unsavedKey = cache.computeKey(task);
+    task.dispose();
+    assertNotNull(unsavedKey);
+    assertFalse(savedKey.equals(unsavedKey));
+  }
+
 
 }
@@ -15,6 +15,9 @@
  */
 package com.android.tools.idea.rendering;
 
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.intellij.psi.xml.XmlAttribute;
 import com.intellij.psi.xml.XmlTag;
 import junit.framework.TestCase;
@@ -51,6 +54,29 @@ public class TagSnapshotTest extends TestCase {
                  synthetic.toString());
   }
 
+  public void testHashTree() {
+    TagSnapshot snapshot = TagSnapshot.createTagSnapshot(createLayout(VALUE_VERTICAL, "Hello"));
+    assertEquals(hashTree(snapshot), hashTree(TagSnapshot.createTagSnapshot(createLayout(VALUE_VERTICAL, "Hello"))));
+    assertFalse(hashTree(snapshot).equals(hashTree(TagSnapshot.createTagSnapshot(createLayout(VALUE_HORIZONTAL, "Hello")))));
+    assertFalse(hashTree(snapshot).equals(hashTree(TagSnapshot.createTagSnapshot(createLayout(VALUE_VERTICAL, "Hello!")))));
+
+    // Moving a child to a different parent changes the hash
+    XmlTag flatLayout = setAttributes(createTag("LinearLayout", setAttributes(createTag("FrameLayout")), setAttributes(createTag("Button"))));
+    XmlTag nestedLayout = setAttributes(createTag("LinearLayout", setAttributes(createTag("FrameLayout", setAttributes(createTag("Button"))))));
+    assertFalse(hashTree(TagSnapshot.createTagSnapshot(flatLayout)).equals(hashTree(TagSnapshot.createTagSnapshot(nestedLayout))));
+  }
+
+  private static XmlTag createLayout(String orientation, String text) {
+    XmlTag textView = setAttributes(createTag("TextView"), androidAttribute(ATTR_TEXT, text));
+    return setAttributes(createTag("LinearLayout", textView), androidAttribute(ATTR_ORIENTATION, orientation));
+  }
+
+  private static HashCode hashTree(TagSnapshot snapshot) {
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    snapshot.hashTree(hasher);
+    return hasher.hash();
+  }
+
   private static XmlAttribute androidAttribute(String localName, String value) {
     return createAttribute(ANDROID_URI, PREFIX_ANDROID, localName, value);
   }
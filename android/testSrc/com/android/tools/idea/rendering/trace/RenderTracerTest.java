@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering.trace;
+
+import com.android.tools.idea.rendering.trace.RenderTracer.Stage;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RenderTracerTest {
+  private boolean myWasEnabled;
+
+  @Before
+  public void setUp() {
+    myWasEnabled = RenderTracer.isEnabled();
+    RenderTracer.setEnabled(true);
+    RenderTracer.reset();
+  }
+
+  @After
+  public void tearDown() {
+    RenderTracer.setEnabled(myWasEnabled);
+    RenderTracer.reset();
+  }
+
+  @Test
+  public void testNestedSpans() {
+    try (RenderTracer.Span ignored = RenderTracer.start(Stage.RENDER)) {
+      try (RenderTracer.Span ignored2 = RenderTracer.start(Stage.CLASS_LOAD, "com.example.MyView")) {
+        try (RenderTracer.Span ignored3 = RenderTracer.start(Stage.CLASS_REWRITE)) {
+        }
+      }
+      try (RenderTracer.Span ignored2 = RenderTracer.start(Stage.IMAGE_COPY)) {
+      }
+      // The trace is only published once the top level span completes
+      assertNull(RenderTracer.getLastTrace());
+    }
+
+    RenderTrace trace = RenderTracer.getLastTrace();
+    assertNotNull(trace);
+    List<RenderTrace.Event> events = trace.getEvents();
+    assertEquals(4, events.size());
+    assertEquals(Stage.CLASS_REWRITE, events.get(0).getStage());
+    assertEquals(Stage.CLASS_LOAD, events.get(1).getStage());
+    assertEquals("com.example.MyView", events.get(1).getDetail());
+    assertEquals(Stage.IMAGE_COPY, events.get(2).getStage());
+    assertEquals(Stage.RENDER, events.get(3).getStage());
+    assertEquals(0, events.get(3).getStartNs());
+    for (RenderTrace.Event event : events.subList(0, 3)) {
+      assertTrue(event.getDurationNs() <= events.get(3).getDurationNs());
+    }
+
+    assertEquals(1, RenderTracer.getHistogram(Stage.RENDER).getCount());
+    assertEquals(1, RenderTracer.getHistogram(Stage.CLASS_LOAD).getCount());
+    assertEquals(0, RenderTracer.getHistogram(Stage.INFLATE).getCount());
+  }
+
+  @Test
+  public void testSpansOutsideOfRenderAreNotTraced() {
+    try (RenderTracer.Span ignored = RenderTracer.start(Stage.CLASS_LOAD, "com.example.MyView")) {
+    }
+    assertNull(RenderTracer.getLastTrace());
+    assertEquals(1, RenderTracer.getHistogram(Stage.CLASS_LOAD).getCount());
+  }
+
+  @Test
+  public void testDisabled() {
+    RenderTracer.setEnabled(false);
+    try (RenderTracer.Span ignored = RenderTracer.start(Stage.RENDER)) {
+      RenderTracer.record(Stage.QUEUE_WAIT, System.nanoTime(), 10);
+    }
+    assertNull(RenderTracer.getLastTrace());
+    assertEquals(0, RenderTracer.getHistogram(Stage.RENDER).getCount());
+    assertEquals(0, RenderTracer.getHistogram(Stage.QUEUE_WAIT).getCount());
+  }
+
+  @Test
+  public void testWrapPropagatesSpanToOtherThread() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      try (RenderTracer.Span ignored = RenderTracer.start(Stage.INFLATE)) {
+        long submitTimeNs = System.nanoTime();
+        executor.submit(RenderTracer.wrap(() -> {
+          RenderTracer.record(Stage.QUEUE_WAIT, submitTimeNs, System.nanoTime() - submitTimeNs);
+          try (RenderTracer.Span ignored2 = RenderTracer.start(Stage.LAYOUTLIB_INFLATE)) {
+            return null;
+          }
+        })).get(10, TimeUnit.SECONDS);
+      }
+      // Spans started by the executor thread once the wrapped callable has completed are not part of the trace
+      executor.submit(() -> {
+        try (RenderTracer.Span ignored = RenderTracer.start(Stage.IMAGE_COPY)) {
+          return null;
+        }
+      }).get(10, TimeUnit.SECONDS);
+    }
+    finally {
+      executor.shutdownNow();
+    }
+
+    RenderTrace trace = RenderTracer.getLastTrace();
+    assertNotNull(trace);
+    List<RenderTrace.Event> events = trace.getEvents();
+    assertEquals(3, events.size());
+    assertEquals(Stage.QUEUE_WAIT, events.get(0).getStage());
+    assertEquals(Stage.LAYOUTLIB_INFLATE, events.get(1).getStage());
+    assertEquals(Stage.INFLATE, events.get(2).getStage());
+    assertNotEquals(events.get(1).getThreadId(), events.get(2).getThreadId());
+    assertEquals(1, RenderTracer.getHistogram(Stage.IMAGE_COPY).getCount());
+  }
+
+  @Test
+  public void testChromeTrace() throws Exception {
+    try (RenderTracer.Span ignored = RenderTracer.start(Stage.MODEL_RENDER)) {
+      try (RenderTracer.Span ignored2 = RenderTracer.start(Stage.CLASS_LOAD, "com.example.MyView")) {
+      }
+    }
+    RenderTrace trace = RenderTracer.getLastTrace();
+    assertNotNull(trace);
+    StringWriter writer = new StringWriter();
+    trace.writeChromeTrace(writer);
+
+    JsonObject json = new JsonParser().parse(writer.toString()).getAsJsonObject();
+    assertEquals("ms", json.get("displayTimeUnit").getAsString());
+    JsonArray events = json.getAsJsonArray("traceEvents");
+    assertEquals(3, events.size());
+
+    JsonObject thread = events.get(0).getAsJsonObject();
+    assertEquals("M", thread.get("ph").getAsString());
+    assertEquals(Thread.currentThread().getName(), thread.getAsJsonObject("args").get("name").getAsString());
+
+    JsonObject classLoad = events.get(1).getAsJsonObject();
+    assertEquals("X", classLoad.get("ph").getAsString());
+    assertEquals(Stage.CLASS_LOAD.getDisplayName(), classLoad.get("name").getAsString());
+    assertEquals("com.example.MyView", classLoad.getAsJsonObject("args").get("detail").getAsString());
+    assertEquals(Thread.currentThread().getId(), classLoad.get("tid").getAsLong());
+
+    JsonObject render = events.get(2).getAsJsonObject();
+    assertEquals(Stage.MODEL_RENDER.getDisplayName(), render.get("name").getAsString());
+    assertEquals(0, render.get("ts").getAsDouble(), 0);
+    assertFalse(render.has("args"));
+  }
+
+  @Test
+  public void testHistogram() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getPercentileMs(50), 0);
+    for (int i = 0; i < 90; i++) {
+      histogram.record(TimeUnit.MICROSECONDS.toNanos(100));
+    }
+    for (int i = 0; i < 10; i++) {
+      histogram.record(TimeUnit.MILLISECONDS.toNanos(10));
+    }
+
+    assertEquals(100, histogram.getCount());
+    assertEquals(10, histogram.getMaxMs(), 0);
+    assertEquals(109, histogram.getTotalMs(), 1e-9);
+    assertEquals(1.09, histogram.getMeanMs(), 1e-9);
+    // 100us falls in the [64us, 128us) bucket, 10ms in the [8.192ms, 16.384ms) one, capped by the maximum
+    assertEquals(0.128, histogram.getPercentileMs(50), 0);
+    assertEquals(0.128, histogram.getPercentileMs(90), 0);
+    assertEquals(10, histogram.getPercentileMs(99), 0);
+
+    histogram.reset();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getMaxMs(), 0);
+  }
+}
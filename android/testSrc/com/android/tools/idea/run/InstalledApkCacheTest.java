@@ -19,6 +19,10 @@ import com.android.ddmlib.AdbCommandRejectedException;
 import com.android.ddmlib.IDevice;
 import com.android.ddmlib.ShellCommandUnresponsiveException;
 import com.android.ddmlib.TimeoutException;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
 import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.util.io.FileUtil;
 import junit.framework.TestCase;
@@ -27,8 +31,13 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static com.google.common.truth.Truth.assertThat;
 
 @SuppressWarnings("StaticMethodReferencedViaSubclass")
 public class InstalledApkCacheTest extends TestCase {
@@ -36,6 +45,7 @@ public class InstalledApkCacheTest extends TestCase {
   private IDevice myDevice1;
   private IDevice myDevice2;
   private File myFile;
+  private File myStateFile;
   private String myPkgName;
   private String myDumpSysOutput;
 
@@ -61,21 +71,34 @@ public class InstalledApkCacheTest extends TestCase {
     EasyMock.expectLastCall().anyTimes();
 
     myDumpSysOutput = "Package [com.foo.bar]";
-    myService = new InstalledApkCache() {
+    myStateFile = FileUtil.createTempFile("installed_apks", ".bin");
+    FileUtil.delete(myStateFile);
+    myService = createService();
+
+    EasyMock.replay(myDevice1, myDevice2);
+  }
+
+  @NotNull
+  private InstalledApkCache createService() {
+    return new InstalledApkCache(myStateFile) {
       @Override
       protected String executeShellCommand(@NotNull IDevice device, @NotNull String cmd, long timeout, @NotNull TimeUnit timeUnit)
         throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException, InterruptedException {
         return myDumpSysOutput;
       }
     };
-
-    EasyMock.replay(myDevice1, myDevice2);
   }
 
   @Override
   protected void tearDown() throws Exception {
-    Disposer.dispose(myService);
-    super.tearDown();
+    try {
+      Disposer.dispose(myService);
+      FileUtil.delete(myStateFile);
+      FileUtil.delete(myFile);
+    }
+    finally {
+      super.tearDown();
+    }
   }
 
   public void testCacheHit() throws Exception {
@@ -108,6 +131,91 @@ public class InstalledApkCacheTest extends TestCase {
     assertTrue(myService.isInstalled(myDevice2, myFile, myPkgName, null));
   }
 
+  public void testPersistedAfterDisconnect() throws Exception {
+    myService.setInstalled(myDevice1, myFile, myPkgName);
+    myService.deviceDisconnected(myDevice1);
+    // Saving the fingerprints of another device must not drop those of the disconnected device
+    myService.setInstalled(myDevice2, myFile, myPkgName);
+    Disposer.dispose(myService);
+
+    myService = createService();
+    assertTrue(myService.isInstalled(myDevice1, myFile, myPkgName, null));
+    assertTrue(myService.isInstalled(myDevice2, myFile, myPkgName, null));
+  }
+
+  public void testRestoredOnReconnect() throws Exception {
+    myService.setInstalled(myDevice1, myFile, myPkgName);
+    myService.deviceDisconnected(myDevice1);
+    assertFalse(myService.isInstalled(myDevice1, myFile, myPkgName, null));
+
+    myService.deviceConnected(myDevice1);
+    assertTrue(myService.isInstalled(myDevice1, myFile, myPkgName, null));
+  }
+
+  public void testPersistedAcrossRestarts() throws Exception {
+    myService.setInstalled(myDevice1, myFile, myPkgName);
+    Disposer.dispose(myService);
+
+    myService = createService();
+    assertTrue(myService.isInstalled(myDevice1, myFile, myPkgName, null));
+    assertFalse(myService.isInstalled(myDevice2, myFile, myPkgName, null));
+  }
+
+  public void testBatchedQuery() throws Exception {
+    File otherFile = FileUtil.createTempFile("other", ".apk");
+    InstalledApkCache service = new InstalledApkCache(null) {
+      @Override
+      protected String executeShellCommand(@NotNull IDevice device, @NotNull String cmd, long timeout, @NotNull TimeUnit timeUnit) {
+        // Simulates the shell running the commands one after the other
+        return cmd.replace("dumpsys package ", "Package [").replace("; echo ", "]\n").replace("; ", "\n") + "]";
+      }
+    };
+    try {
+      service.setInstalled(myDevice1, myFile, myPkgName);
+      service.setInstalled(myDevice1, otherFile, "com.foo.other");
+      assertThat(service.getInstalledPackages(myDevice1, ImmutableMap.of(myPkgName, myFile, "com.foo.other", otherFile), null))
+        .containsExactly(myPkgName, "com.foo.other");
+      assertThat(service.getInstallStates(myDevice1, ImmutableList.of(myPkgName, "com.foo.other")).keySet())
+        .containsExactly(myPkgName, "com.foo.other");
+
+      FileUtil.writeToFile(otherFile, "changed!");
+      assertThat(service.getInstalledPackages(myDevice1, ImmutableMap.of(myPkgName, myFile, "com.foo.other", otherFile), null))
+        .containsExactly(myPkgName);
+    }
+    finally {
+      Disposer.dispose(service);
+      FileUtil.delete(otherFile);
+    }
+  }
+
+  public void testHashFromCentralDirectory() throws Exception {
+    File apk = FileUtil.createTempFile("test", ".apk");
+    try {
+      writeApk(apk, "classes.dex", "dex contents");
+      HashCode hash = InstalledApkCache.hash(apk);
+
+      writeApk(apk, "classes.dex", "dex contents");
+      assertEquals(hash, InstalledApkCache.hash(apk));
+
+      writeApk(apk, "classes.dex", "other contents");
+      assertFalse(hash.equals(InstalledApkCache.hash(apk)));
+    }
+    finally {
+      FileUtil.delete(apk);
+    }
+  }
+
+  private static void writeApk(@NotNull File apk, @NotNull String entryName, @NotNull String contents) throws IOException {
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(apk))) {
+      ZipEntry entry = new ZipEntry(entryName);
+      // Fixed time, so that only the contents differ
+      entry.setTime(0);
+      out.putNextEntry(entry);
+      out.write(contents.getBytes(Charsets.UTF_8));
+      out.closeEntry();
+    }
+  }
+
   public void testUninstallFromCommandLine() throws Exception {
     assertFalse(myService.isInstalled(myDevice1, myFile, myPkgName, null));
     myService.setInstalled(myDevice1, myFile, myPkgName);
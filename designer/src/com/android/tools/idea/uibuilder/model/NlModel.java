@@ -30,6 +30,7 @@ import com.android.tools.idea.gradle.project.model.AndroidModuleModel;
 import com.android.tools.idea.gradle.util.GradleUtil;
 import com.android.tools.idea.rendering.*;
 import com.android.tools.idea.rendering.Locale;
+import com.android.tools.idea.rendering.trace.RenderTracer;
 import com.android.tools.idea.res.ProjectResourceRepository;
 import com.android.tools.idea.res.ResourceNotificationManager;
 import com.android.tools.idea.res.ResourceNotificationManager.ResourceChangeListener;
@@ -333,6 +334,12 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
    * @returns whether the model was inflated in this call or not
    */
   private boolean inflate(boolean force) {
+    try (RenderTracer.Span ignored = RenderTracer.start(RenderTracer.Stage.MODEL_INFLATE)) {
+      return doInflate(force);
+    }
+  }
+
+  private boolean doInflate(boolean force) {
     Configuration configuration = myConfiguration;
     if (configuration == null) {
       return false;
@@ -347,6 +354,7 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
     LayoutPullParserFactory.saveFileIfNecessary(file);
 
     RenderResult result = null;
+    RenderResult cachedResult = null;
     synchronized (RENDERING_LOCK) {
       if (myRenderTask != null && !force) {
         // No need to inflate
@@ -362,12 +370,28 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
       if (myRenderTask != null) {
         myRenderTask.dispose();
       }
-      myRenderTask = renderService.createTask(file, configuration, logger, mySurface);
+      try (RenderTracer.Span ignored = RenderTracer.start(RenderTracer.Stage.TASK_CREATE)) {
+        myRenderTask = renderService.createTask(file, configuration, logger, mySurface);
+      }
       setupRenderTask(myRenderTask);
       if (myRenderTask != null) {
         if (!isRenderViewPort()) {
           myRenderTask.useDesignMode(file);
         }
+        if (getRenderResult() == null) {
+          // Display a previous rendering of the layout, if available, while this one is inflated and rendered
+          cachedResult = myRenderTask.getCachedResult();
+          if (cachedResult != null) {
+            myRenderResultLock.writeLock().lock();
+            try {
+              myRenderResult = cachedResult;
+            }
+            finally {
+              myRenderResultLock.writeLock().unlock();
+            }
+            notifyListenersRenderComplete();
+          }
+        }
         result = myRenderTask.inflate();
         if (result == null || !result.getRenderResult().isSuccess()) {
           myRenderTask.dispose();
@@ -380,12 +404,15 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
       }
 
       updateHierarchy(result);
-      myRenderResultLock.writeLock().lock();
-      try {
-        myRenderResult = result;
-      }
-      finally {
-        myRenderResultLock.writeLock().unlock();
+      if (cachedResult == null || myRenderTask == null) {
+        // The inflate result does not contain an image so, on success, keep displaying the cached image until the layout is rendered
+        myRenderResultLock.writeLock().lock();
+        try {
+          myRenderResult = result;
+        }
+        finally {
+          myRenderResultLock.writeLock().unlock();
+        }
       }
 
       return myRenderTask != null;
@@ -554,30 +581,32 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
     ChangeType changeType = myModificationTrigger;
     myModificationTrigger = null;
     long renderStartTimeMs = System.currentTimeMillis();
-    boolean inflated = inflate(false);
+    try (RenderTracer.Span ignored = RenderTracer.start(RenderTracer.Stage.MODEL_RENDER)) {
+      boolean inflated = inflate(false);
 
-    synchronized (RENDERING_LOCK) {
-      if (myRenderTask != null) {
-        RenderResult result = myRenderTask.render();
-        // When the layout was inflated in this same call, we do not have to update the hierarchy again
-        if (!inflated) {
-          updateHierarchy(result);
-        }
-        myRenderResultLock.writeLock().lock();
-        try {
-          myRenderResult = result;
-          // Downgrade the write lock to read lock
-          myRenderResultLock.readLock().lock();
-        }
-        finally {
-          myRenderResultLock.writeLock().unlock();
-        }
-        try {
-          NlUsageTrackerManager.getInstance(mySurface).logRenderResult(changeType,
-                                                                       myRenderResult,
-                                                                       System.currentTimeMillis() - renderStartTimeMs);
-        } finally {
-          myRenderResultLock.readLock().unlock();
+      synchronized (RENDERING_LOCK) {
+        if (myRenderTask != null) {
+          RenderResult result = myRenderTask.render();
+          // When the layout was inflated in this same call, we do not have to update the hierarchy again
+          if (!inflated) {
+            updateHierarchy(result);
+          }
+          myRenderResultLock.writeLock().lock();
+          try {
+            myRenderResult = result;
+            // Downgrade the write lock to read lock
+            myRenderResultLock.readLock().lock();
+          }
+          finally {
+            myRenderResultLock.writeLock().unlock();
+          }
+          try {
+            NlUsageTrackerManager.getInstance(mySurface).logRenderResult(changeType,
+                                                                         myRenderResult,
+                                                                         System.currentTimeMillis() - renderStartTimeMs);
+          } finally {
+            myRenderResultLock.readLock().unlock();
+          }
         }
       }
     }
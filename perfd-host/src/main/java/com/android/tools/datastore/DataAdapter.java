@@ -15,8 +15,10 @@
  */
 package com.android.tools.datastore;
 
+import com.android.tools.adtui.model.MinMaxPyramid;
 import com.android.tools.adtui.model.SeriesData;
 import gnu.trove.TLongArrayList;
+import org.jetbrains.annotations.NotNull;
 
 /**
  * Interface to use with the {@link SeriesDataStore}. This object represents the in memory representation of the data available.
@@ -38,6 +40,40 @@ public interface DataAdapter<T> {
    */
   SeriesData<T> get(int index);
 
+  /**
+   * Returns the timestamp of the sample at the given index, without creating a {@link SeriesData} object.
+   */
+  default long getTimestamp(int index) {
+    return get(index).x;
+  }
+
+  /**
+   * Appends the timestamps and the values of the samples in [fromIndex, toIndex) to the given buffers. This is what the UI uses to walk
+   * the data on every frame, so adapters backed by primitive storage should override it to avoid creating a {@link SeriesData} per sample.
+   *
+   * @throws ClassCastException if the values of this adapter are not integral numbers.
+   */
+  default void copyTo(int fromIndex, int toIndex, @NotNull TLongArrayList timestampsOut, @NotNull TLongArrayList valuesOut) {
+    for (int i = fromIndex; i < toIndex; i++) {
+      SeriesData<T> data = get(i);
+      timestampsOut.add(data.x);
+      valuesOut.add(((Number)data.value).longValue());
+    }
+  }
+
+  /**
+   * Same as {@link #copyTo(int, int, TLongArrayList, TLongArrayList)}, but the samples may be reduced to about {@code resolution}
+   * buckets, each contributing its minimum and maximum sample (see {@link MinMaxPyramid}). Adapters that cannot reduce their data
+   * copy it at full resolution.
+   */
+  default void copyTo(int fromIndex,
+                      int toIndex,
+                      int resolution,
+                      @NotNull TLongArrayList timestampsOut,
+                      @NotNull TLongArrayList valuesOut) {
+    copyTo(fromIndex, toIndex, timestampsOut, valuesOut);
+  }
+
   /**
    * Clears any previous data.
    */
@@ -46,6 +46,19 @@ public class DataAdapterImpl<T> implements DataAdapter<T> {
     return new SeriesData<>(myTimestampData.get(index), myValues.get(index));
   }
 
+  @Override
+  public long getTimestamp(int index) {
+    return myTimestampData.get(index);
+  }
+
+  @Override
+  public void copyTo(int fromIndex, int toIndex, @NotNull TLongArrayList timestampsOut, @NotNull TLongArrayList valuesOut) {
+    for (int i = fromIndex; i < toIndex; i++) {
+      timestampsOut.add(myTimestampData.getQuick(i));
+      valuesOut.add(((Number)myValues.get(i)).longValue());
+    }
+  }
+
   @Override
   public void reset() {
     myTimestampData.clear();
@@ -15,14 +15,15 @@
  */
 package com.android.tools.datastore;
 
+import com.android.tools.adtui.model.ColumnarDataSeries;
 import com.android.tools.adtui.model.Range;
-import com.android.tools.adtui.model.DataSeries;
 import com.android.tools.adtui.model.SeriesData;
 import com.intellij.util.containers.ImmutableList;
+import gnu.trove.TLongArrayList;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-public class DataStoreSeries<E> implements DataSeries<E> {
+public class DataStoreSeries<E> implements ColumnarDataSeries<E> {
   @NotNull
   private final SeriesDataStore mStore;
 
@@ -51,4 +52,14 @@ public class DataStoreSeries<E> implements DataSeries<E> {
   public ImmutableList<SeriesData<E>> getDataForXRange(@NotNull Range xRange) {
     return mStore.getSeriesData(mType, xRange, mTarget);
   }
+
+  @Override
+  public void getDataForXRange(@NotNull Range xRange, @NotNull TLongArrayList xOut, @NotNull TLongArrayList valuesOut) {
+    mStore.<E>getSeriesData(mType, xRange, mTarget).copyTo(xOut, valuesOut);
+  }
+
+  @Override
+  public void getDataForXRange(@NotNull Range xRange, int resolution, @NotNull TLongArrayList xOut, @NotNull TLongArrayList valuesOut) {
+    mStore.<E>getSeriesData(mType, xRange, mTarget).copyTo(resolution, xOut, valuesOut);
+  }
 }
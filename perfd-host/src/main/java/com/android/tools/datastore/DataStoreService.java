@@ -16,8 +16,11 @@
 package com.android.tools.datastore;
 
 import com.android.tools.datastore.poller.*;
-import com.intellij.openapi.application.ApplicationManager;
+import com.android.tools.datastore.store.DiskStoreFactory;
+import com.android.tools.datastore.store.HeapStoreFactory;
+import com.android.tools.datastore.store.StoreFactory;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
 import io.grpc.ServerBuilder;
@@ -29,7 +32,6 @@ import org.jetbrains.annotations.Nullable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.RunnableFuture;
 
 /**
  * Primary class that initializes the Datastore. This class currently manages connections to perfd and sets up the DataStore service.
@@ -41,8 +43,22 @@ public class DataStoreService {
   private ServerBuilder myServerBuilder;
   private List<ServicePassThrough> myServices = new ArrayList<>();
   private LegacyAllocationTracker myLegacyAllocationTracker;
+  @NotNull private final StoreFactory myStoreFactory;
+  @NotNull private final DeviceClock myDeviceClock = new DeviceClock();
+  /**
+   * Multiplexes the polling of all the services of the current connection on a single thread.
+   */
+  @NotNull private final PollScheduler myPollScheduler = new PollScheduler();
 
   public DataStoreService(String name) {
+    this(name, createDefaultStoreFactory(name));
+  }
+
+  /**
+   * @param storeFactory creates the containers the pollers cache the device data in.
+   */
+  public DataStoreService(String name, @NotNull StoreFactory storeFactory) {
+    myStoreFactory = storeFactory;
     try {
       myServerBuilder = InProcessServerBuilder.forName(name);
       createPollers();
@@ -60,9 +76,24 @@ public class DataStoreService {
   public void createPollers() {
     registerService(new ProfilerService(this));
     registerService(new EventDataPoller());
-    registerService(new CpuDataPoller());
-    registerService(new MemoryDataPoller(this));
-    registerService(new NetworkDataPoller());
+    registerService(new CpuDataPoller(myStoreFactory, new ServiceMetrics("cpu", myDeviceClock)));
+    registerService(new MemoryDataPoller(this, myStoreFactory, new ServiceMetrics("memory", myDeviceClock)));
+    registerService(new NetworkDataPoller(myStoreFactory, new ServiceMetrics("network", myDeviceClock)));
+  }
+
+  /**
+   * By default the pollers spill their data to a temporary directory, so long profiling sessions do not grow the heap. If the directory
+   * cannot be created we fall back to keeping everything on heap.
+   */
+  @NotNull
+  private static StoreFactory createDefaultStoreFactory(@NotNull String name) {
+    try {
+      return new DiskStoreFactory(FileUtil.createTempDirectory("datastore", name, true));
+    }
+    catch (IOException ex) {
+      LOG.warn("Unable to create the datastore directory, data will be kept on heap.", ex);
+      return new HeapStoreFactory();
+    }
   }
 
   /**
@@ -83,11 +114,9 @@ public class DataStoreService {
     for (ServicePassThrough service : myServices) {
       // Tell service how to connect to device RPC to start polling.
       service.connectService(myChannel);
-      RunnableFuture<Void> runner = service.getRunner();
-      if (runner != null) {
-        ApplicationManager.getApplication().executeOnPooledThread(runner);
-      }
+      service.startPolling(myPollScheduler);
     }
+    myPollScheduler.start();
   }
 
   /**
@@ -105,6 +134,7 @@ public class DataStoreService {
       .maxMessageSize(MAX_MESSAGE_SIZE)
       .build();
     Thread.currentThread().setContextClassLoader(stashedContextClassLoader);
+    myDeviceClock.sync(myChannel);
     connectServices();
   }
 
@@ -112,7 +142,10 @@ public class DataStoreService {
    * Disconnect the datastore from the connected device.
    */
   public void disconnect() {
-    // TODO: Shutdown service connections.
+    for (ServicePassThrough service : myServices) {
+      service.stopPolling();
+    }
+    myPollScheduler.stop();
     if (myChannel != null) {
       myChannel.shutdown();
     }
@@ -131,4 +164,19 @@ public class DataStoreService {
   public LegacyAllocationTracker getLegacyAllocationTracker() {
     return myLegacyAllocationTracker;
   }
+
+  /**
+   * @return the metrics of the registered services that cache data received from the device.
+   */
+  @NotNull
+  public List<ServiceMetrics> getMetrics() {
+    List<ServiceMetrics> metrics = new ArrayList<>();
+    for (ServicePassThrough service : myServices) {
+      ServiceMetrics serviceMetrics = service.getMetrics();
+      if (serviceMetrics != null) {
+        metrics.add(serviceMetrics);
+      }
+    }
+    return metrics;
+  }
 }
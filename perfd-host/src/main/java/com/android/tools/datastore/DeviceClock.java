@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore;
+
+import com.android.tools.profiler.proto.Profiler;
+import com.android.tools.profiler.proto.ProfilerServiceGrpc;
+import com.intellij.openapi.diagnostic.Logger;
+import io.grpc.ManagedChannel;
+import io.grpc.StatusRuntimeException;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Estimates the current device time from the host clock, so data received from the device can be related to the time it was produced.
+ */
+public class DeviceClock {
+  private static Logger getLog() { return Logger.getInstance(DeviceClock.class); }
+
+  private volatile boolean myIsSynced;
+  private volatile long myOffsetNs;
+
+  /**
+   * Measures the offset between the host and device clocks. The round trip of the request is split evenly between both directions.
+   */
+  public void sync(@NotNull ManagedChannel channel) {
+    myIsSynced = false;
+    try {
+      long hostStartNs = System.nanoTime();
+      long deviceNs = ProfilerServiceGrpc.newBlockingStub(channel).getTimes(Profiler.TimesRequest.getDefaultInstance()).getTimestampNs();
+      long hostEndNs = System.nanoTime();
+      myOffsetNs = deviceNs - (hostStartNs + (hostEndNs - hostStartNs) / 2);
+      myIsSynced = true;
+    }
+    catch (StatusRuntimeException e) {
+      getLog().info("Unable to sync the device clock, latencies will not be reported.");
+    }
+  }
+
+  public boolean isSynced() {
+    return myIsSynced;
+  }
+
+  /**
+   * @return the estimated current device time, only meaningful if {@link #isSynced()}.
+   */
+  public long getDeviceTimeNs() {
+    return System.nanoTime() + myOffsetNs;
+  }
+}
@@ -15,6 +15,7 @@
  */
 package com.android.tools.datastore;
 
+import com.android.tools.adtui.model.MinMaxPyramid;
 import com.android.tools.adtui.model.SeriesData;
 import gnu.trove.TLongArrayList;
 import org.jetbrains.annotations.NotNull;
@@ -30,9 +31,16 @@ public class LongDataAdapter implements DataAdapter<Long> {
   @NotNull
   private final TLongArrayList myValues;
 
+  /**
+   * Level-of-detail pyramid used to serve zoomed out ranges, catching up with the samples added to the lists on each query.
+   */
+  @NotNull
+  private final MinMaxPyramid myPyramid;
+
   public LongDataAdapter(@NotNull TLongArrayList timestampData, @NotNull TLongArrayList trafficData) {
     myTimestampData = timestampData;
     myValues = trafficData;
+    myPyramid = new MinMaxPyramid(timestampData, trafficData);
   }
 
   @Override
@@ -45,6 +53,28 @@ public class LongDataAdapter implements DataAdapter<Long> {
     return new SeriesData<>(myTimestampData.get(index), myValues.get(index));
   }
 
+  @Override
+  public long getTimestamp(int index) {
+    return myTimestampData.get(index);
+  }
+
+  @Override
+  public void copyTo(int fromIndex, int toIndex, @NotNull TLongArrayList timestampsOut, @NotNull TLongArrayList valuesOut) {
+    for (int i = fromIndex; i < toIndex; i++) {
+      timestampsOut.add(myTimestampData.getQuick(i));
+      valuesOut.add(myValues.getQuick(i));
+    }
+  }
+
+  @Override
+  public void copyTo(int fromIndex,
+                     int toIndex,
+                     int resolution,
+                     @NotNull TLongArrayList timestampsOut,
+                     @NotNull TLongArrayList valuesOut) {
+    myPyramid.copyTo(fromIndex, toIndex, resolution, timestampsOut, valuesOut);
+  }
+
   @Override
   public void reset() {
     myTimestampData.clear();
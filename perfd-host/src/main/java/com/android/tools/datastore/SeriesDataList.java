@@ -18,6 +18,7 @@ package com.android.tools.datastore;
 import com.android.tools.adtui.model.SeriesData;
 import com.android.tools.adtui.model.Range;
 import com.intellij.util.containers.ImmutableList;
+import gnu.trove.TLongArrayList;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -74,6 +75,22 @@ public class SeriesDataList<E> extends ImmutableList<SeriesData<E>> {
     return mDataStore.getDataAt(mDataType, mStartIndex + index, mTarget);
   }
 
+  /**
+   * Appends the timestamps and the values of all the elements in this list to the given buffers. Prefer this to iterating over the list
+   * when walking the data on every frame, as it doesn't create a {@link SeriesData} per element.
+   */
+  public void copyTo(@NotNull TLongArrayList timestampsOut, @NotNull TLongArrayList valuesOut) {
+    copyTo(Integer.MAX_VALUE, timestampsOut, valuesOut);
+  }
+
+  /**
+   * Same as {@link #copyTo(TLongArrayList, TLongArrayList)}, but lets the data store reduce the data to about {@code resolution}
+   * buckets, typically the width in pixels of the component displaying it.
+   */
+  public void copyTo(int resolution, @NotNull TLongArrayList timestampsOut, @NotNull TLongArrayList valuesOut) {
+    mDataStore.copyDataTo(mDataType, mStartIndex, mEndIndex, mTarget, resolution, timestampsOut, valuesOut);
+  }
+
   /**
    * Initializes the iterator to be based on a new range, this function copies the range passed in to
    * an internal range.
@@ -18,6 +18,7 @@ package com.android.tools.datastore;
 import com.android.tools.adtui.model.SeriesData;
 import com.android.tools.adtui.model.Range;
 import com.android.tools.datastore.profilerclient.DeviceProfilerService;
+import gnu.trove.TLongArrayList;
 
 /**
  * This interface is the minimal interface required for defining an object that
@@ -64,6 +65,19 @@ public interface SeriesDataStore {
    */
   <T> SeriesData<T> getDataAt(SeriesDataType type, int index, Object target);
 
+  /**
+   * Appends the timestamps and values of the samples in [fromIndex, toIndex) to the given buffers, reduced to about {@code resolution}
+   * buckets, used by the {@link SeriesDataList} to give the UI allocation-free access to the data.
+   * See {@link DataAdapter#copyTo(int, int, int, TLongArrayList, TLongArrayList)}.
+   */
+  void copyDataTo(SeriesDataType type,
+                  int fromIndex,
+                  int toIndex,
+                  Object target,
+                  int resolution,
+                  TLongArrayList timestampsOut,
+                  TLongArrayList valuesOut);
+
   /**
    * Returns the closest index to the time value.
    */
@@ -91,4 +105,13 @@ public interface SeriesDataStore {
   default <T> SeriesData<T> getDataAt(SeriesDataType type, int index) {
     return getDataAt(type, index, null);
   }
+
+  default void copyDataTo(SeriesDataType type,
+                          int fromIndex,
+                          int toIndex,
+                          Object target,
+                          TLongArrayList timestampsOut,
+                          TLongArrayList valuesOut) {
+    copyDataTo(type, fromIndex, toIndex, target, Integer.MAX_VALUE, timestampsOut, valuesOut);
+  }
 }
@@ -20,6 +20,7 @@ import com.android.tools.adtui.model.Range;
 import com.android.tools.datastore.profilerclient.DeviceProfilerService;
 import com.android.tools.profiler.proto.Profiler;
 import com.intellij.openapi.diagnostic.Logger;
+import gnu.trove.TLongArrayList;
 import io.grpc.StatusRuntimeException;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -94,6 +95,17 @@ public final class SeriesDataStoreImpl implements SeriesDataStore {
     return (SeriesData<T>)getAdapter(type, target).get(index);
   }
 
+  @Override
+  public void copyDataTo(SeriesDataType type,
+                         int fromIndex,
+                         int toIndex,
+                         @Nullable Object target,
+                         int resolution,
+                         @NotNull TLongArrayList timestampsOut,
+                         @NotNull TLongArrayList valuesOut) {
+    getAdapter(type, target).copyTo(fromIndex, toIndex, resolution, timestampsOut, valuesOut);
+  }
+
   @Override
   public <T> SeriesDataList<T> getSeriesData(SeriesDataType type, Range range, @Nullable Object target) {
     return new SeriesDataList<>(range, this, type, target);
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing how data reaches the datastore from a device service: how large the received batches are, and how long it takes
+ * for a sample to arrive on the host after it was produced on the device.
+ */
+public class ServiceMetrics {
+  @NotNull private final String myName;
+  @NotNull private final DeviceClock myClock;
+
+  private final AtomicLong myBatchCount = new AtomicLong();
+  private final AtomicLong myEmptyBatchCount = new AtomicLong();
+  private final AtomicLong mySampleCount = new AtomicLong();
+  private final AtomicLong myMaxBatchSize = new AtomicLong();
+  private final AtomicLong myLatencyCount = new AtomicLong();
+  private final AtomicLong myTotalLatencyNs = new AtomicLong();
+  private final AtomicLong myMaxLatencyNs = new AtomicLong();
+
+  public ServiceMetrics(@NotNull String name, @NotNull DeviceClock clock) {
+    myName = name;
+    myClock = clock;
+  }
+
+  /**
+   * Records a batch of samples received from the device.
+   *
+   * @param sampleCount             the number of samples in the batch.
+   * @param oldestSampleTimestampNs the device timestamp of the oldest sample in the batch, ignored for empty batches.
+   */
+  public void recordBatch(int sampleCount, long oldestSampleTimestampNs) {
+    myBatchCount.incrementAndGet();
+    if (sampleCount == 0) {
+      myEmptyBatchCount.incrementAndGet();
+      return;
+    }
+    mySampleCount.addAndGet(sampleCount);
+    myMaxBatchSize.accumulateAndGet(sampleCount, Math::max);
+    if (myClock.isSynced()) {
+      long latencyNs = Math.max(0, myClock.getDeviceTimeNs() - oldestSampleTimestampNs);
+      myLatencyCount.incrementAndGet();
+      myTotalLatencyNs.addAndGet(latencyNs);
+      myMaxLatencyNs.accumulateAndGet(latencyNs, Math::max);
+    }
+  }
+
+  @NotNull
+  public String getName() {
+    return myName;
+  }
+
+  public long getBatchCount() {
+    return myBatchCount.get();
+  }
+
+  public long getEmptyBatchCount() {
+    return myEmptyBatchCount.get();
+  }
+
+  public long getSampleCount() {
+    return mySampleCount.get();
+  }
+
+  public long getMaxBatchSize() {
+    return myMaxBatchSize.get();
+  }
+
+  public double getAverageBatchSize() {
+    long batches = myBatchCount.get();
+    return batches == 0 ? 0 : (double)mySampleCount.get() / batches;
+  }
+
+  public long getAverageLatencyNs() {
+    long count = myLatencyCount.get();
+    return count == 0 ? 0 : myTotalLatencyNs.get() / count;
+  }
+
+  public long getMaxLatencyNs() {
+    return myMaxLatencyNs.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s: %d batches (%d empty), %.1f samples/batch (max %d), latency avg %d ns (max %d ns)", myName, getBatchCount(),
+                         getEmptyBatchCount(), getAverageBatchSize(), getMaxBatchSize(), getAverageLatencyNs(), getMaxLatencyNs());
+  }
+}
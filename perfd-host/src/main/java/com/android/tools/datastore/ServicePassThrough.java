@@ -15,15 +15,35 @@
  */
 package com.android.tools.datastore;
 
+import com.android.tools.datastore.poller.PollScheduler;
 import io.grpc.ManagedChannel;
 import io.grpc.ServerServiceDefinition;
-
-import java.util.concurrent.RunnableFuture;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public interface ServicePassThrough {
-  RunnableFuture<Void> getRunner();
+  /**
+   * Starts fetching data from the device the service is connected to. Services that poll register themselves with the given scheduler,
+   * which is shared by all the services of the connection and stopped on disconnect.
+   */
+  default void startPolling(@NotNull PollScheduler scheduler) {
+  }
+
+  /**
+   * Stops fetching data from the device, before the connection is closed.
+   */
+  default void stopPolling() {
+  }
 
   ServerServiceDefinition getService();
 
   void connectService(ManagedChannel channel);
+
+  /**
+   * @return the metrics of the data received from the device, or null if the service does not cache device data.
+   */
+  @Nullable
+  default ServiceMetrics getMetrics() {
+    return null;
+  }
 }
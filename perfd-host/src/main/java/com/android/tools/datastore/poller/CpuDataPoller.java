@@ -15,13 +15,19 @@
  */
 package com.android.tools.datastore.poller;
 
+import com.android.tools.datastore.ServiceMetrics;
 import com.android.tools.datastore.ServicePassThrough;
+import com.android.tools.datastore.store.StoreFactory;
+import com.android.tools.datastore.store.TimeSeriesStore;
 import com.android.tools.profiler.proto.CpuProfiler;
 import com.android.tools.profiler.proto.CpuServiceGrpc;
 import com.android.tools.profiler.proto.Profiler;
 import com.android.tools.profiler.proto.ProfilerServiceGrpc;
 import com.google.protobuf3jarjar.ByteString;
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TLongArrayList;
 import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
 import io.grpc.ServerServiceDefinition;
 import io.grpc.StatusRuntimeException;
 import io.grpc.stub.StreamObserver;
@@ -29,39 +35,71 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
-import java.util.concurrent.RunnableFuture;
 
 /**
  * This class gathers sets up a CPUProfilerService and forward all commands to the connected channel with the exception of getData.
  * The get data command will pull data locally cached from the connected service.
  */
-public class CpuDataPoller extends CpuServiceGrpc.CpuServiceImplBase implements ServicePassThrough, PollRunner.PollingCallback {
+public class CpuDataPoller extends CpuServiceGrpc.CpuServiceImplBase implements ServicePassThrough, PollScheduler.PollingCallback {
+
+  private static final MethodDescriptor<CpuProfiler.CpuDataRequest, CpuProfiler.CpuDataResponse> METHOD_STREAM_DATA =
+    StreamRunner.createStreamDataMethod(CpuServiceGrpc.SERVICE_NAME, CpuProfiler.CpuDataRequest.getDefaultInstance(),
+                                        CpuProfiler.CpuDataResponse.getDefaultInstance());
 
   private long myDataRequestStartTimestampNs = Long.MIN_VALUE;
+  private ManagedChannel myChannel;
   private CpuServiceGrpc.CpuServiceBlockingStub myPollingService;
+  @Nullable private volatile StreamRunner<CpuProfiler.CpuDataRequest, CpuProfiler.CpuDataResponse> myRunner;
+  @Nullable private volatile PollScheduler myScheduler;
+  @NotNull private final ServiceMetrics myMetrics;
 
   /**
    * Used to get device time.
    */
   private ProfilerServiceGrpc.ProfilerServiceBlockingStub myProfilerService;
 
-  //TODO Pull this into a storage container that can read/write this to disk
-  protected final List<CpuProfiler.CpuProfilerData> myData = new ArrayList<>();
-  protected final Map<Integer, CpuProfiler.GetThreadsResponse.Thread.Builder> myThreads = new TreeMap<>();
+  /**
+   * Samples indexed by their end timestamp. The thread activities they hold are indexed per thread in {@link #myThreads} as they are
+   * received, and read back from here when requested.
+   */
+  protected final TimeSeriesStore<CpuProfiler.CpuProfilerData> myData;
+  protected final Map<Integer, ThreadSummary> myThreads = new TreeMap<>();
   protected final Map<Integer, TraceData> myTraces = new HashMap<>();
 
   private final Object myLock = new Object();
 
   private int myProcessId = -1;
 
-  private long myStartTraceTimestamp = -1;
+  private volatile long myStartTraceTimestamp = -1;
 
-  public CpuDataPoller() {
+  public CpuDataPoller(@NotNull StoreFactory storeFactory, @NotNull ServiceMetrics metrics) {
+    myData = storeFactory.createTimeSeriesStore("cpu", CpuProfiler.CpuProfilerData.parser());
+    myMetrics = metrics;
   }
 
   @Override
-  public RunnableFuture<Void> getRunner() {
-    return new PollRunner(this, PollRunner.POLLING_DELAY_NS);
+  public void startPolling(@NotNull PollScheduler scheduler) {
+    myScheduler = scheduler;
+    StreamRunner<CpuProfiler.CpuDataRequest, CpuProfiler.CpuDataResponse> runner =
+      new StreamRunner<>(myChannel, METHOD_STREAM_DATA, this::buildDataRequest, this::handleData, scheduler, this);
+    myRunner = runner;
+    runner.start();
+  }
+
+  @Override
+  public void stopPolling() {
+    StreamRunner<CpuProfiler.CpuDataRequest, CpuProfiler.CpuDataResponse> runner = myRunner;
+    if (runner != null) {
+      runner.stop();
+    }
+    myRunner = null;
+    myScheduler = null;
+  }
+
+  @NotNull
+  @Override
+  public ServiceMetrics getMetrics() {
+    return myMetrics;
   }
 
   @Override
@@ -71,42 +109,69 @@ public class CpuDataPoller extends CpuServiceGrpc.CpuServiceImplBase implements
 
   @Override
   public void connectService(ManagedChannel channel) {
+    myChannel = channel;
     myPollingService = CpuServiceGrpc.newBlockingStub(channel);
     myProfilerService = ProfilerServiceGrpc.newBlockingStub(channel);
   }
 
   @Override
-  public void poll() throws StatusRuntimeException {
-    CpuProfiler.CpuDataRequest.Builder dataRequestBuilder = CpuProfiler.CpuDataRequest.newBuilder()
+  public boolean poll() throws StatusRuntimeException {
+    return handleData(myPollingService.getData(buildDataRequest()));
+  }
+
+  @Override
+  public boolean isCapturing() {
+    return myStartTraceTimestamp != -1;
+  }
+
+  @NotNull
+  private CpuProfiler.CpuDataRequest buildDataRequest() {
+    return CpuProfiler.CpuDataRequest.newBuilder()
       .setAppId(myProcessId)
       .setStartTimestamp(myDataRequestStartTimestampNs)
-      .setEndTimestamp(Long.MAX_VALUE);
-    CpuProfiler.CpuDataResponse response = myPollingService.getData(dataRequestBuilder.build());
+      .setEndTimestamp(Long.MAX_VALUE)
+      .build();
+  }
 
+  /**
+   * Caches a batch of data received from the device, either polled or pushed.
+   *
+   * @return true if the batch contained any data.
+   */
+  private boolean handleData(@NotNull CpuProfiler.CpuDataResponse response) {
+    myMetrics.recordBatch(response.getDataCount(),
+                          response.getDataCount() == 0 ? 0 : response.getData(0).getBasicInfo().getEndTimestamp());
     synchronized (myLock) {
       for (CpuProfiler.CpuProfilerData data : response.getDataList()) {
         myDataRequestStartTimestampNs = data.getBasicInfo().getEndTimestamp();
-        myData.add(data);
+        myData.add(myDataRequestStartTimestampNs, data);
         if (data.getDataCase() == CpuProfiler.CpuProfilerData.DataCase.THREAD_ACTIVITIES) {
           CpuProfiler.ThreadActivities activities = data.getThreadActivities();
           if (activities != null) {
             for (CpuProfiler.ThreadActivity activity : activities.getActivitiesList()) {
               int tid = activity.getTid();
-              CpuProfiler.GetThreadsResponse.Thread.Builder builder = myThreads.get(tid);
-              if (builder == null) {
-                builder = CpuProfiler.GetThreadsResponse.Thread.newBuilder().setName(activity.getName()).setTid(tid);
-                myThreads.put(tid, builder);
+              ThreadSummary summary = myThreads.get(tid);
+              if (summary == null) {
+                summary = new ThreadSummary(activity.getName(), tid);
+                myThreads.put(tid, summary);
               }
-              CpuProfiler.ThreadActivity.State state = activity.getNewState();
-              CpuProfiler.GetThreadsResponse.State converted = CpuProfiler.GetThreadsResponse.State.valueOf(state.toString());
-              builder.addActivities(CpuProfiler.GetThreadsResponse.ThreadActivity.newBuilder()
-                                      .setTimestamp(activity.getTimestamp())
-                                      .setNewState(converted));
+              summary.addActivity(activity, myDataRequestStartTimestampNs);
             }
           }
         }
       }
     }
+    return response.getDataCount() > 0;
+  }
+
+  @NotNull
+  private static CpuProfiler.GetThreadsResponse.ThreadActivity convertActivity(@NotNull CpuProfiler.ThreadActivity activity) {
+    CpuProfiler.ThreadActivity.State state = activity.getNewState();
+    CpuProfiler.GetThreadsResponse.State converted = CpuProfiler.GetThreadsResponse.State.valueOf(state.toString());
+    return CpuProfiler.GetThreadsResponse.ThreadActivity.newBuilder()
+      .setTimestamp(activity.getTimestamp())
+      .setNewState(converted)
+      .build();
   }
 
   @Override
@@ -121,15 +186,8 @@ public class CpuDataPoller extends CpuServiceGrpc.CpuServiceImplBase implements
     long startTime = request.getStartTimestamp();
     long endTime = request.getEndTimestamp();
 
-    //TODO: Optimize so we do not need to loop all the data every request, ideally binary search to start time and loop till end.
-    synchronized (myLock) {
-      for (CpuProfiler.CpuProfilerData data : myData) {
-        long current = data.getBasicInfo().getEndTimestamp();
-        if (current > startTime && current <= endTime) {
-          response.addData(data);
-        }
-      }
-    }
+    // The store supports concurrent reads while the poller appends, so there is no need to hold myLock here.
+    myData.visit(startTime, endTime, response::addData);
     observer.onNext(response.build());
     observer.onCompleted();
   }
@@ -141,20 +199,44 @@ public class CpuDataPoller extends CpuServiceGrpc.CpuServiceImplBase implements
     long from = request.getStartTimestamp();
     long to = request.getEndTimestamp();
 
-    for (CpuProfiler.GetThreadsResponse.Thread.Builder builder : myThreads.values()) {
-      int count = builder.getActivitiesCount();
-      if (count > 0) {
+    List<ThreadActivityReader> readers = new ArrayList<>();
+    synchronized (myLock) {
+      for (ThreadSummary summary : myThreads.values()) {
         // If they overlap
-        CpuProfiler.GetThreadsResponse.ThreadActivity first = builder.getActivities(0);
-        CpuProfiler.GetThreadsResponse.ThreadActivity last = builder.getActivities(count - 1);
-        boolean include = first.getTimestamp() <= to && from <= last.getTimestamp();
+        boolean include = summary.getFirstTimestamp() <= to && from <= summary.getLastTimestamp();
         // If still alive.
-        include = include || (last.getTimestamp() < from && last.getNewState() != CpuProfiler.GetThreadsResponse.State.DEAD);
+        include = include || (summary.getLastTimestamp() < from && summary.myLastState != CpuProfiler.ThreadActivity.State.DEAD);
         if (include) {
-          response.addThreads(builder);
+          readers.add(summary.createReader(from, to));
         }
       }
     }
+    if (!readers.isEmpty()) {
+      // Reads the activities of all the threads in a single pass over the samples holding them, outside the lock as the store supports
+      // concurrent reads.
+      TIntObjectHashMap<ThreadActivityReader> readersByTid = new TIntObjectHashMap<>();
+      long firstSampleTimestamp = Long.MAX_VALUE;
+      long lastSampleTimestamp = Long.MIN_VALUE;
+      for (ThreadActivityReader reader : readers) {
+        readersByTid.put(reader.myThread.getTid(), reader);
+        firstSampleTimestamp = Math.min(firstSampleTimestamp, reader.myFirstSampleTimestamp);
+        lastSampleTimestamp = Math.max(lastSampleTimestamp, reader.myLastSampleTimestamp);
+      }
+      myData.visit(firstSampleTimestamp - 1, lastSampleTimestamp, data -> {
+        if (data.getDataCase() == CpuProfiler.CpuProfilerData.DataCase.THREAD_ACTIVITIES) {
+          long sampleTimestamp = data.getBasicInfo().getEndTimestamp();
+          for (CpuProfiler.ThreadActivity activity : data.getThreadActivities().getActivitiesList()) {
+            ThreadActivityReader reader = readersByTid.get(activity.getTid());
+            if (reader != null) {
+              reader.offer(sampleTimestamp, activity);
+            }
+          }
+        }
+      });
+      for (ThreadActivityReader reader : readers) {
+        response.addThreads(reader.myThread);
+      }
+    }
     observer.onNext(response.build());
     observer.onCompleted();
   }
@@ -182,6 +264,7 @@ public class CpuDataPoller extends CpuServiceGrpc.CpuServiceImplBase implements
     }
     observer.onNext(myPollingService.startMonitoringApp(request));
     observer.onCompleted();
+    restartStream();
   }
 
   @Override
@@ -189,6 +272,17 @@ public class CpuDataPoller extends CpuServiceGrpc.CpuServiceImplBase implements
     myProcessId = -1;
     observer.onNext(myPollingService.stopMonitoringApp(request));
     observer.onCompleted();
+    restartStream();
+  }
+
+  /**
+   * Reopens the data stream, as the request it was opened with refers to the previously monitored process.
+   */
+  private void restartStream() {
+    StreamRunner<CpuProfiler.CpuDataRequest, CpuProfiler.CpuDataResponse> runner = myRunner;
+    if (runner != null) {
+      runner.restart();
+    }
   }
 
   @Override
@@ -198,6 +292,10 @@ public class CpuDataPoller extends CpuServiceGrpc.CpuServiceImplBase implements
     myStartTraceTimestamp = getCurrentDeviceTimeNs();
     observer.onNext(myPollingService.startProfilingApp(request));
     observer.onCompleted();
+    PollScheduler scheduler = myScheduler;
+    if (scheduler != null) {
+      scheduler.pollSoon(this);
+    }
   }
 
   @Override
@@ -231,6 +329,109 @@ public class CpuDataPoller extends CpuServiceGrpc.CpuServiceImplBase implements
    return myProfilerService.getTimes(Profiler.TimesRequest.getDefaultInstance()).getTimestampNs();
   }
 
+  /**
+   * Indexes the activities of a thread, in the order they were received. The activities themselves stay in {@link #myData}, only their
+   * timestamps and the timestamps of the samples holding them are kept here.
+   */
+  protected static class ThreadSummary {
+    @NotNull private final String myName;
+    private final int myTid;
+    @NotNull private final TLongArrayList myTimestamps = new TLongArrayList();
+    /**
+     * For each activity, the timestamp the sample holding it is indexed with in {@link #myData}.
+     */
+    @NotNull private final TLongArrayList mySampleTimestamps = new TLongArrayList();
+    @NotNull private CpuProfiler.ThreadActivity.State myLastState = CpuProfiler.ThreadActivity.State.UNSPECIFIED;
+
+    private ThreadSummary(@NotNull String name, int tid) {
+      myName = name;
+      myTid = tid;
+    }
+
+    private void addActivity(@NotNull CpuProfiler.ThreadActivity activity, long sampleTimestamp) {
+      myTimestamps.add(activity.getTimestamp());
+      mySampleTimestamps.add(sampleTimestamp);
+      myLastState = activity.getNewState();
+    }
+
+    private long getFirstTimestamp() {
+      return myTimestamps.get(0);
+    }
+
+    private long getLastTimestamp() {
+      return myTimestamps.get(myTimestamps.size() - 1);
+    }
+
+    /**
+     * Creates a reader of the activities within (from, to], preceded by the last activity at or before from, which gives the state of the
+     * thread at the start of the range. The range must overlap the activities of the thread, or follow them.
+     */
+    @NotNull
+    private ThreadActivityReader createReader(long from, long to) {
+      int start = Math.max(0, countUpTo(myTimestamps, from) - 1);
+      int end = countUpTo(myTimestamps, to);
+      long firstSampleTimestamp = mySampleTimestamps.get(start);
+      // Earlier activities of the thread may be held by samples indexed with the same timestamp as the first one to read.
+      int skipped = start - countUpTo(mySampleTimestamps, firstSampleTimestamp - 1);
+      CpuProfiler.GetThreadsResponse.Thread.Builder thread =
+        CpuProfiler.GetThreadsResponse.Thread.newBuilder().setName(myName).setTid(myTid);
+      return new ThreadActivityReader(thread, firstSampleTimestamp, mySampleTimestamps.get(end - 1), skipped, end - start);
+    }
+
+    /**
+     * @return the number of values at or before the given timestamp, the values being sorted.
+     */
+    private static int countUpTo(@NotNull TLongArrayList values, long timestamp) {
+      int low = 0;
+      int high = values.size();
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (values.get(mid) <= timestamp) {
+          low = mid + 1;
+        }
+        else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+  }
+
+  /**
+   * Collects a contiguous run of the activities of a thread while the samples holding them are visited in order.
+   */
+  private static final class ThreadActivityReader {
+    @NotNull private final CpuProfiler.GetThreadsResponse.Thread.Builder myThread;
+    private final long myFirstSampleTimestamp;
+    private final long myLastSampleTimestamp;
+    private int mySkipped;
+    private int myRemaining;
+
+    private ThreadActivityReader(@NotNull CpuProfiler.GetThreadsResponse.Thread.Builder thread,
+                                 long firstSampleTimestamp,
+                                 long lastSampleTimestamp,
+                                 int skipped,
+                                 int count) {
+      myThread = thread;
+      myFirstSampleTimestamp = firstSampleTimestamp;
+      myLastSampleTimestamp = lastSampleTimestamp;
+      mySkipped = skipped;
+      myRemaining = count;
+    }
+
+    private void offer(long sampleTimestamp, @NotNull CpuProfiler.ThreadActivity activity) {
+      if (sampleTimestamp < myFirstSampleTimestamp || myRemaining == 0) {
+        return;
+      }
+      if (mySkipped > 0) {
+        mySkipped--;
+        return;
+      }
+      myThread.addActivities(convertActivity(activity));
+      myRemaining--;
+    }
+  }
+
   private static class TraceData {
     @NotNull
     private final ByteString myData;
@@ -22,19 +22,19 @@ import io.grpc.ManagedChannel;
 import io.grpc.ServerServiceDefinition;
 import io.grpc.StatusRuntimeException;
 import io.grpc.stub.StreamObserver;
+import org.jetbrains.annotations.NotNull;
 
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Iterator;
 import java.util.PriorityQueue;
-import java.util.concurrent.RunnableFuture;
 
 /**
  * This class host an EventService that will provide callers access to all cached EventData. The data is populated from polling the service
  * passed into the connectService function.
  */
-public class EventDataPoller extends EventServiceGrpc.EventServiceImplBase implements ServicePassThrough, PollRunner.PollingCallback {
+public class EventDataPoller extends EventServiceGrpc.EventServiceImplBase implements ServicePassThrough, PollScheduler.PollingCallback {
 
   private long myDataRequestStartTimestampNs = Long.MIN_VALUE;
   private EventServiceGrpc.EventServiceBlockingStub myEventPollingService;
@@ -51,7 +51,7 @@ public class EventDataPoller extends EventServiceGrpc.EventServiceImplBase imple
   }
 
   @Override
-  public void poll() throws StatusRuntimeException {
+  public boolean poll() throws StatusRuntimeException {
     EventProfiler.EventDataRequest.Builder dataRequestBuilder = EventProfiler.EventDataRequest.newBuilder()
       .setAppId(myProcessId)
       .setStartTimestamp(myDataRequestStartTimestampNs)
@@ -97,6 +97,7 @@ public class EventDataPoller extends EventServiceGrpc.EventServiceImplBase imple
         mySystemMap.put(id, data);
       }
     }
+    return activityResponse.getDataCount() > 0 || systemResponse.getDataCount() > 0;
   }
 
   @Override
@@ -184,7 +185,7 @@ public class EventDataPoller extends EventServiceGrpc.EventServiceImplBase imple
   }
 
   @Override
-  public RunnableFuture<Void> getRunner() {
-    return new PollRunner(this, PollRunner.POLLING_DELAY_NS);
+  public void startPolling(@NotNull PollScheduler scheduler) {
+    scheduler.register(this);
   }
 }
@@ -18,7 +18,11 @@ package com.android.tools.datastore.poller;
 import com.android.tools.adtui.model.DurationData;
 import com.android.tools.datastore.DataStoreService;
 import com.android.tools.datastore.LegacyAllocationTrackingService;
+import com.android.tools.datastore.ServiceMetrics;
 import com.android.tools.datastore.ServicePassThrough;
+import com.android.tools.datastore.store.BlobStore;
+import com.android.tools.datastore.store.StoreFactory;
+import com.android.tools.datastore.store.TimeSeriesStore;
 import com.android.tools.profiler.proto.MemoryProfiler.*;
 import com.android.tools.profiler.proto.MemoryProfiler.MemoryData.AllocationEvent;
 import com.android.tools.profiler.proto.MemoryProfiler.MemoryData.AllocationsInfo;
@@ -28,29 +32,62 @@ import com.android.tools.profiler.proto.MemoryServiceGrpc;
 import com.google.protobuf3jarjar.ByteString;
 import com.intellij.openapi.application.ApplicationManager;
 import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
 import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.ServerCalls;
 import io.grpc.stub.StreamObserver;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
-import java.util.concurrent.RunnableFuture;
 
 import static com.android.tools.profiler.proto.MemoryProfiler.TrackAllocationsResponse.Status.SUCCESS;
 
-public class MemoryDataPoller extends MemoryServiceGrpc.MemoryServiceImplBase implements ServicePassThrough, PollRunner.PollingCallback {
+public class MemoryDataPoller extends MemoryServiceGrpc.MemoryServiceImplBase
+  implements ServicePassThrough, PollScheduler.PollingCallback {
+  private static final MethodDescriptor<MemoryRequest, MemoryData> METHOD_STREAM_DATA =
+    StreamRunner.createStreamDataMethod(MemoryServiceGrpc.SERVICE_NAME, MemoryRequest.getDefaultInstance(), MemoryData.getDefaultInstance());
+  /**
+   * Server streaming call sending a heap dump in chunks of at most {@link #HEAP_DUMP_CHUNK_SIZE} bytes read from {@link #myHeapDumpData},
+   * so neither side holds the whole dump in memory. Each chunk is a getHeapDump response, and a dump that is not available is answered
+   * with a single response carrying its status. It is described by hand as the generated stubs come from a prebuilt jar, and must match
+   * the descriptor of HeapDumpCaptureObject.
+   */
+  static final MethodDescriptor<HeapDumpDataRequest, DumpDataResponse> METHOD_GET_HEAP_DUMP_CHUNKS =
+    MethodDescriptor.create(MethodDescriptor.MethodType.SERVER_STREAMING,
+                            MethodDescriptor.generateFullMethodName(MemoryServiceGrpc.SERVICE_NAME, "GetHeapDumpChunks"),
+                            ProtoUtils.marshaller(HeapDumpDataRequest.getDefaultInstance()),
+                            ProtoUtils.marshaller(DumpDataResponse.getDefaultInstance()));
+  static final int HEAP_DUMP_CHUNK_SIZE = 1024 * 1024;
+
   private final LegacyAllocationTrackingService myLegacyAllocationTrackingService;
 
   private long myDataRequestStartTimestampNs = Long.MIN_VALUE;
 
+  private ManagedChannel myChannel;
+
   private MemoryServiceGrpc.MemoryServiceBlockingStub myPollingService;
 
-  //TODO: Pull this into a storage container that can read/write this to disk
+  @Nullable private volatile StreamRunner<MemoryRequest, MemoryData> myRunner;
+  @Nullable private volatile PollScheduler myScheduler;
+
+  @NotNull private final ServiceMetrics myMetrics;
+
   //TODO: Rename MemoryData to MemoryProfilerData for consistency
   //TODO: Do these needs to be synchronized?
-  protected final List<MemorySample> myMemoryData = new ArrayList<>();
-  protected final List<VmStatsSample> myStatsData = new ArrayList<>();
+  protected final TimeSeriesStore<MemorySample> myMemoryData;
+  protected final TimeSeriesStore<VmStatsSample> myStatsData;
   protected final List<HeapDumpSample> myHeapData = new ArrayList<>();
+  /**
+   * The contents of the heap dumps in {@link #myHeapData}, indexed by dump id.
+   */
+  protected final BlobStore myHeapDumpData;
+  // Allocation events are only received while tracking and may arrive out of order from the legacy tracker, so they stay on heap.
   protected final List<AllocationEvent> myAllocationEvents = new ArrayList<>();
   protected final List<AllocationsInfo> myAllocationsInfos = new ArrayList<>();
   protected final Map<String, AllocatedClass> myAllocatedClasses = new HashMap<>();
@@ -59,17 +96,43 @@ public class MemoryDataPoller extends MemoryServiceGrpc.MemoryServiceImplBase im
   private final Object myUpdatingDataLock = new Object();
   private final Object myUpdatingAllocationsLock = new Object();
 
-  private HeapDumpSample myPendingHeapDumpSample = null;
+  private volatile HeapDumpSample myPendingHeapDumpSample = null;
+
+  private volatile boolean myIsTrackingAllocations;
 
   private int myProcessId = -1;
 
-  public MemoryDataPoller(@NotNull DataStoreService dataStoreService) {
+  public MemoryDataPoller(@NotNull DataStoreService dataStoreService, @NotNull StoreFactory storeFactory, @NotNull ServiceMetrics metrics) {
     myLegacyAllocationTrackingService = new LegacyAllocationTrackingService(dataStoreService::getLegacyAllocationTracker);
+    myMemoryData = storeFactory.createTimeSeriesStore("memory", MemorySample.parser());
+    myStatsData = storeFactory.createTimeSeriesStore("vmstats", VmStatsSample.parser());
+    myHeapDumpData = storeFactory.createBlobStore("heapdump");
+    myMetrics = metrics;
   }
 
   @Override
-  public RunnableFuture<Void> getRunner() {
-    return new PollRunner(this, PollRunner.POLLING_DELAY_NS);
+  public void startPolling(@NotNull PollScheduler scheduler) {
+    myScheduler = scheduler;
+    StreamRunner<MemoryRequest, MemoryData> runner =
+      new StreamRunner<>(myChannel, METHOD_STREAM_DATA, this::buildDataRequest, this::handleData, scheduler, this);
+    myRunner = runner;
+    runner.start();
+  }
+
+  @Override
+  public void stopPolling() {
+    StreamRunner<MemoryRequest, MemoryData> runner = myRunner;
+    if (runner != null) {
+      runner.stop();
+    }
+    myRunner = null;
+    myScheduler = null;
+  }
+
+  @NotNull
+  @Override
+  public ServiceMetrics getMetrics() {
+    return myMetrics;
   }
 
   @Override
@@ -77,8 +140,17 @@ public class MemoryDataPoller extends MemoryServiceGrpc.MemoryServiceImplBase im
     return bindService();
   }
 
+  @Override
+  public ServerServiceDefinition bindService() {
+    ServerServiceDefinition.Builder builder = ServerServiceDefinition.builder(MemoryServiceGrpc.SERVICE_NAME);
+    super.bindService().getMethods().forEach(builder::addMethod);
+    builder.addMethod(METHOD_GET_HEAP_DUMP_CHUNKS, ServerCalls.asyncServerStreamingCall(this::getHeapDumpChunks));
+    return builder.build();
+  }
+
   @Override
   public void connectService(ManagedChannel channel) {
+    myChannel = channel;
     myPollingService = MemoryServiceGrpc.newBlockingStub(channel);
   }
 
@@ -88,10 +160,12 @@ public class MemoryDataPoller extends MemoryServiceGrpc.MemoryServiceImplBase im
       myMemoryData.clear();
       myStatsData.clear();
       myHeapData.clear();
+      myHeapDumpData.clear();
     }
     myProcessId = request.getAppId();
     observer.onNext(myPollingService.startMonitoringApp(request));
     observer.onCompleted();
+    restartStream();
   }
 
   @Override
@@ -99,42 +173,90 @@ public class MemoryDataPoller extends MemoryServiceGrpc.MemoryServiceImplBase im
     myProcessId = -1;
     observer.onNext(myPollingService.stopMonitoringApp(request));
     observer.onCompleted();
+    restartStream();
+  }
+
+  /**
+   * Reopens the data stream, as the request it was opened with refers to the previously monitored process.
+   */
+  private void restartStream() {
+    StreamRunner<MemoryRequest, MemoryData> runner = myRunner;
+    if (runner != null) {
+      runner.restart();
+    }
   }
 
   @Override
   public void triggerHeapDump(TriggerHeapDumpRequest request, StreamObserver<TriggerHeapDumpResponse> responseObserver) {
     responseObserver.onNext(myPollingService.triggerHeapDump(request));
     responseObserver.onCompleted();
+    PollScheduler scheduler = myScheduler;
+    if (scheduler != null) {
+      scheduler.pollSoon(this);
+    }
   }
 
   @Override
   public void getHeapDump(HeapDumpDataRequest request, StreamObserver<DumpDataResponse> responseObserver) {
     DumpDataResponse.Builder responseBuilder = DumpDataResponse.newBuilder();
     synchronized (myUpdatingDataLock) {
-      int index = Collections
-        .binarySearch(myHeapData, new HeapDumpSample(request.getDumpId()), (o1, o2) -> o1.myInfo.getDumpId() - o2.myInfo.getDumpId());
-      if (index < 0) {
-        responseBuilder.setStatus(DumpDataResponse.Status.NOT_FOUND);
+      DumpDataResponse.Status status = getHeapDumpStatus(request.getDumpId());
+      ByteString data = status == DumpDataResponse.Status.SUCCESS ? myHeapDumpData.get(request.getDumpId()) : null;
+      if (status == DumpDataResponse.Status.SUCCESS && data == null) {
+        status = DumpDataResponse.Status.NOT_READY;
       }
-      else {
-        HeapDumpSample dump = myHeapData.get(index);
-        if (dump.isError) {
-          responseBuilder.setStatus(DumpDataResponse.Status.FAILURE_UNKNOWN);
-        }
-        else {
-          ByteString data = dump.myData;
+      responseBuilder.setStatus(status);
+      if (data != null) {
+        responseBuilder.setData(data);
+      }
+    }
+    responseObserver.onNext(responseBuilder.build());
+    responseObserver.onCompleted();
+  }
+
+  /**
+   * Serves {@link #METHOD_GET_HEAP_DUMP_CHUNKS}.
+   */
+  private void getHeapDumpChunks(HeapDumpDataRequest request, StreamObserver<DumpDataResponse> responseObserver) {
+    DumpDataResponse.Status status;
+    InputStream data = null;
+    synchronized (myUpdatingDataLock) {
+      status = getHeapDumpStatus(request.getDumpId());
+      if (status == DumpDataResponse.Status.SUCCESS) {
+        try {
+          data = myHeapDumpData.openStream(request.getDumpId());
           if (data == null) {
-            responseBuilder.setStatus(DumpDataResponse.Status.NOT_READY);
-          }
-          else {
-            responseBuilder.setStatus(DumpDataResponse.Status.SUCCESS);
-            responseBuilder.setData(data);
+            status = DumpDataResponse.Status.NOT_READY;
           }
         }
+        catch (IOException e) {
+          status = DumpDataResponse.Status.FAILURE_UNKNOWN;
+        }
       }
     }
-    responseObserver.onNext(responseBuilder.build());
-    responseObserver.onCompleted();
+    if (data == null) {
+      responseObserver.onNext(DumpDataResponse.newBuilder().setStatus(status).build());
+      responseObserver.onCompleted();
+      return;
+    }
+    // The dumps are written once, so they are read outside of the lock
+    new HeapDumpChunkWriter(data, (ServerCallStreamObserver<DumpDataResponse>)responseObserver).start();
+  }
+
+  /**
+   * Returns the status of the given heap dump: {@link DumpDataResponse.Status#SUCCESS} if its data is in {@link #myHeapDumpData}.
+   */
+  @NotNull
+  private DumpDataResponse.Status getHeapDumpStatus(int dumpId) {
+    int index = Collections.binarySearch(myHeapData, new HeapDumpSample(dumpId), (o1, o2) -> o1.myInfo.getDumpId() - o2.myInfo.getDumpId());
+    if (index < 0) {
+      return DumpDataResponse.Status.NOT_FOUND;
+    }
+    HeapDumpSample dump = myHeapData.get(index);
+    if (dump.isError) {
+      return DumpDataResponse.Status.FAILURE_UNKNOWN;
+    }
+    return dump.isReady ? DumpDataResponse.Status.SUCCESS : DumpDataResponse.Status.NOT_READY;
   }
 
   @Override
@@ -163,6 +285,11 @@ public class MemoryDataPoller extends MemoryServiceGrpc.MemoryServiceImplBase im
       TrackAllocationsResponse response = myPollingService
         .trackAllocations(TrackAllocationsRequest.newBuilder().setAppId(myProcessId).setEnabled(request.getEnabled()).build());
       if (response.getStatus() == SUCCESS) {
+        myIsTrackingAllocations = request.getEnabled();
+        PollScheduler scheduler = myScheduler;
+        if (scheduler != null) {
+          scheduler.pollSoon(this);
+        }
         myLegacyAllocationTrackingService
           .trackAllocations(myProcessId, response.getTimestamp(), request.getEnabled(), (classes, stacks, allocations) -> {
             synchronized (myUpdatingDataLock) {
@@ -193,11 +320,9 @@ public class MemoryDataPoller extends MemoryServiceGrpc.MemoryServiceImplBase im
     long startTime = request.getStartTime();
     long endTime = request.getEndTime();
 
-    //TODO: Optimize so we do not need to loop over all the data every request, ideally binary search to start time and loop till end.
+    myMemoryData.visit(startTime, endTime, response::addMemSamples);
+    myStatsData.visit(startTime, endTime, response::addVmStatsSamples);
     synchronized (myUpdatingDataLock) {
-      myMemoryData.stream().filter(obj -> obj.getTimestamp() > startTime && obj.getTimestamp() <= endTime).forEach(response::addMemSamples);
-      myStatsData.stream().filter(obj -> obj.getTimestamp() > startTime && obj.getTimestamp() <= endTime)
-        .forEach(response::addVmStatsSamples);
       myHeapData.stream().filter(obj -> (obj.myInfo.getStartTime() > startTime && obj.myInfo.getStartTime() <= endTime) ||
                                         (obj.myInfo.getEndTime() > startTime && obj.myInfo.getEndTime() <= endTime))
         .forEach(obj -> response.addHeapDumpInfos(obj.myInfo));
@@ -212,16 +337,42 @@ public class MemoryDataPoller extends MemoryServiceGrpc.MemoryServiceImplBase im
   }
 
   @Override
-  public void poll() {
-    MemoryRequest.Builder dataRequestBuilder = MemoryRequest.newBuilder()
+  public boolean poll() {
+    return handleData(myPollingService.getData(buildDataRequest()));
+  }
+
+  @Override
+  public boolean isCapturing() {
+    return myIsTrackingAllocations || myPendingHeapDumpSample != null;
+  }
+
+  @NotNull
+  private MemoryRequest buildDataRequest() {
+    return MemoryRequest.newBuilder()
       .setAppId(myProcessId)
       .setStartTime(myDataRequestStartTimestampNs)
-      .setEndTime(Long.MAX_VALUE);
-    MemoryData response = myPollingService.getData(dataRequestBuilder.build());
+      .setEndTime(Long.MAX_VALUE)
+      .build();
+  }
+
+  /**
+   * Caches a batch of data received from the device, either polled or pushed.
+   *
+   * @return true if the batch contained any data.
+   */
+  private boolean handleData(@NotNull MemoryData response) {
+    long oldestTimestamp = Long.MAX_VALUE;
+    if (response.getMemSamplesCount() > 0) {
+      oldestTimestamp = response.getMemSamples(0).getTimestamp();
+    }
+    if (response.getVmStatsSamplesCount() > 0) {
+      oldestTimestamp = Math.min(oldestTimestamp, response.getVmStatsSamples(0).getTimestamp());
+    }
+    myMetrics.recordBatch(response.getMemSamplesCount() + response.getVmStatsSamplesCount(), oldestTimestamp);
 
     synchronized (myUpdatingDataLock) {
-      myMemoryData.addAll(response.getMemSamplesList());
-      myStatsData.addAll(response.getVmStatsSamplesList());
+      response.getMemSamplesList().forEach(sample -> myMemoryData.add(sample.getTimestamp(), sample));
+      response.getVmStatsSamplesList().forEach(sample -> myStatsData.add(sample.getTimestamp(), sample));
       myAllocationEvents.addAll(response.getAllocationEventsList());
 
       if (response.getAllocationsInfoCount() > 0) {
@@ -271,9 +422,13 @@ public class MemoryDataPoller extends MemoryServiceGrpc.MemoryServiceImplBase im
           for (HeapDumpSample sample : dumpsToFetch) {
             DumpDataResponse dumpDataResponse = myPollingService.getHeapDump(
               HeapDumpDataRequest.newBuilder().setAppId(myProcessId).setDumpId(sample.myInfo.getDumpId()).build());
+            if (dumpDataResponse.getStatus() == DumpDataResponse.Status.SUCCESS) {
+              // Written outside of the lock, as this may hit the disk.
+              myHeapDumpData.put(sample.myInfo.getDumpId(), dumpDataResponse.getData());
+            }
             synchronized (myUpdatingDataLock) {
               if (dumpDataResponse.getStatus() == DumpDataResponse.Status.SUCCESS) {
-                sample.myData = dumpDataResponse.getData();
+                sample.isReady = true;
               }
               else {
                 sample.isError = true;
@@ -286,6 +441,8 @@ public class MemoryDataPoller extends MemoryServiceGrpc.MemoryServiceImplBase im
     if (response.getEndTimestamp() > myDataRequestStartTimestampNs) {
       myDataRequestStartTimestampNs = response.getEndTimestamp();
     }
+    return response.getMemSamplesCount() > 0 || response.getVmStatsSamplesCount() > 0 || response.getAllocationEventsCount() > 0 ||
+           response.getAllocationsInfoCount() > 0 || response.getHeapDumpInfosCount() > 0;
   }
 
   private static int compareTimes(long left, long right) {
@@ -301,9 +458,76 @@ public class MemoryDataPoller extends MemoryServiceGrpc.MemoryServiceImplBase im
     }
   }
 
+  /**
+   * Sends a heap dump in chunks while the client is ready to receive them, so the chunks are read as they are consumed instead of being
+   * buffered by the transport.
+   */
+  static final class HeapDumpChunkWriter implements Runnable {
+    @NotNull private final InputStream myData;
+    @NotNull private final ServerCallStreamObserver<DumpDataResponse> myObserver;
+    @NotNull private final byte[] myBuffer = new byte[HEAP_DUMP_CHUNK_SIZE];
+    private boolean myHasSentChunk;
+    private boolean myIsDone;
+
+    HeapDumpChunkWriter(@NotNull InputStream data, @NotNull ServerCallStreamObserver<DumpDataResponse> observer) {
+      myData = data;
+      myObserver = observer;
+    }
+
+    void start() {
+      myObserver.setOnCancelHandler(this::close);
+      myObserver.setOnReadyHandler(this);
+      run();
+    }
+
+    /**
+     * Sends the next chunks, until the client is not ready anymore or the dump is sent.
+     */
+    @Override
+    public synchronized void run() {
+      try {
+        while (!myIsDone && myObserver.isReady()) {
+          int length = 0;
+          int read;
+          while (length < myBuffer.length && (read = myData.read(myBuffer, length, myBuffer.length - length)) != -1) {
+            length += read;
+          }
+          // An empty dump is still sent as a single empty chunk, so the client gets its status
+          if (length > 0 || !myHasSentChunk) {
+            myObserver.onNext(DumpDataResponse.newBuilder()
+                                .setStatus(DumpDataResponse.Status.SUCCESS)
+                                .setData(ByteString.copyFrom(myBuffer, 0, length))
+                                .build());
+            myHasSentChunk = true;
+          }
+          if (length < myBuffer.length) {
+            close();
+            myObserver.onCompleted();
+          }
+        }
+      }
+      catch (IOException e) {
+        close();
+        myObserver.onError(Status.INTERNAL.withDescription("Unable to read heap dump").withCause(e).asRuntimeException());
+      }
+    }
+
+    private synchronized void close() {
+      if (myIsDone) {
+        return;
+      }
+      myIsDone = true;
+      try {
+        myData.close();
+      }
+      catch (IOException ignored) {
+      }
+    }
+  }
+
   private static class HeapDumpSample {
     @NotNull public HeapDumpInfo myInfo;
-    @Nullable public volatile ByteString myData = null;
+    public volatile boolean isReady = false;
     public volatile boolean isError = false;
 
     private HeapDumpSample(@NotNull HeapDumpInfo info) {
@@ -15,38 +15,102 @@
  */
 package com.android.tools.datastore.poller;
 
+import com.android.tools.datastore.ServiceMetrics;
 import com.android.tools.datastore.ServicePassThrough;
+import com.android.tools.datastore.store.StoreFactory;
+import com.android.tools.datastore.store.TimeSeriesStore;
 import com.android.tools.profiler.proto.NetworkProfiler;
 import com.android.tools.profiler.proto.NetworkServiceGrpc;
 import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
 import io.grpc.ServerServiceDefinition;
+import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ServerCalls;
 import io.grpc.stub.StreamObserver;
 import net.jcip.annotations.GuardedBy;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
-import java.util.concurrent.RunnableFuture;
 
-// TODO: Implement a storage container that can read/write data to disk
-public class NetworkDataPoller extends NetworkServiceGrpc.NetworkServiceImplBase implements ServicePassThrough, PollRunner.PollingCallback {
+public class NetworkDataPoller extends NetworkServiceGrpc.NetworkServiceImplBase
+  implements ServicePassThrough, PollScheduler.PollingCallback {
+  private static final MethodDescriptor<NetworkProfiler.NetworkDataRequest, NetworkProfiler.NetworkDataResponse> METHOD_STREAM_DATA =
+    StreamRunner.createStreamDataMethod(NetworkServiceGrpc.SERVICE_NAME, NetworkProfiler.NetworkDataRequest.getDefaultInstance(),
+                                        NetworkProfiler.NetworkDataResponse.getDefaultInstance());
+  /**
+   * Bidirectional streaming call answering each details request it is sent with the response of {@link #getHttpDetails}, in order, so
+   * clients get the details of all the connections of a range with a single call. It is described by hand as the generated stubs come
+   * from a prebuilt jar, and must match the descriptor of RpcNetworkRequestsModel.
+   */
+  static final MethodDescriptor<NetworkProfiler.HttpDetailsRequest, NetworkProfiler.HttpDetailsResponse>
+    METHOD_GET_HTTP_DETAILS_BATCH =
+    MethodDescriptor.create(MethodDescriptor.MethodType.BIDI_STREAMING,
+                            MethodDescriptor.generateFullMethodName(NetworkServiceGrpc.SERVICE_NAME, "GetHttpDetailsBatch"),
+                            ProtoUtils.marshaller(NetworkProfiler.HttpDetailsRequest.getDefaultInstance()),
+                            ProtoUtils.marshaller(NetworkProfiler.HttpDetailsResponse.getDefaultInstance()));
+
   // Intentionally accessing this field out of sync block because it's OK for it to be o
   // off by a frame; we'll pick up all data eventually
   @SuppressWarnings("FieldAccessedSynchronizedAndUnsynchronized")
   private long myDataRequestStartTimestampNs = Long.MIN_VALUE;
+  /**
+   * Only accessed by {@link #pollHttpRange()}, which the scheduler never runs concurrently with itself.
+   */
   private long myHttpRangeRequestStartTimeNs = Long.MIN_VALUE;
+  private ManagedChannel myChannel;
   private NetworkServiceGrpc.NetworkServiceBlockingStub myPollingService;
+  @Nullable private volatile StreamRunner<NetworkProfiler.NetworkDataRequest, NetworkProfiler.NetworkDataResponse> myRunner;
+  @Nullable private volatile PollScheduler myScheduler;
+  /**
+   * Fetches the HTTP connections updated since its last poll. It is scheduled separately from the data, so the blocking calls it makes
+   * never run on the thread the stream delivers data on.
+   */
+  @NotNull private final PollScheduler.PollingCallback myHttpPoller = this::pollHttpRange;
+  @NotNull private final ServiceMetrics myMetrics;
   private int myProcessId = -1;
 
   private final Object myLock = new Object();
-  @GuardedBy("myLock") private final List<NetworkProfiler.NetworkProfilerData> myData = new ArrayList<>();
+  /**
+   * Samples split by their data case, so requests for a single type of data only visit the samples of that type.
+   * The stores support reads concurrent to the poller appending, writes are done under myLock.
+   */
+  private final Map<NetworkProfiler.NetworkProfilerData.DataCase, TimeSeriesStore<NetworkProfiler.NetworkProfilerData>> myData =
+    new EnumMap<>(NetworkProfiler.NetworkProfilerData.DataCase.class);
   @GuardedBy("myLock") private final Map<Long, ConnectionData> myConnectionData = new LinkedHashMap<>();
 
-  public NetworkDataPoller() {
+  public NetworkDataPoller(@NotNull StoreFactory storeFactory, @NotNull ServiceMetrics metrics) {
+    myMetrics = metrics;
+    for (NetworkProfiler.NetworkProfilerData.DataCase dataCase : NetworkProfiler.NetworkProfilerData.DataCase.values()) {
+      myData.put(dataCase, storeFactory.createTimeSeriesStore("network-" + dataCase.name().toLowerCase(Locale.US),
+                                                              NetworkProfiler.NetworkProfilerData.parser()));
+    }
+  }
+
+  @Override
+  public void startPolling(@NotNull PollScheduler scheduler) {
+    myScheduler = scheduler;
+    StreamRunner<NetworkProfiler.NetworkDataRequest, NetworkProfiler.NetworkDataResponse> runner =
+      new StreamRunner<>(myChannel, METHOD_STREAM_DATA, this::buildDataRequest, this::handleData, scheduler, this);
+    myRunner = runner;
+    runner.start();
+    scheduler.register(myHttpPoller);
   }
 
   @Override
-  public RunnableFuture<Void> getRunner() {
-    return new PollRunner(this, PollRunner.POLLING_DELAY_NS);
+  public void stopPolling() {
+    StreamRunner<NetworkProfiler.NetworkDataRequest, NetworkProfiler.NetworkDataResponse> runner = myRunner;
+    if (runner != null) {
+      runner.stop();
+    }
+    myRunner = null;
+    myScheduler = null;
+  }
+
+  @NotNull
+  @Override
+  public ServiceMetrics getMetrics() {
+    return myMetrics;
   }
 
   @Override
@@ -56,6 +120,7 @@ public class NetworkDataPoller extends NetworkServiceGrpc.NetworkServiceImplBase
 
   @Override
   public void connectService(ManagedChannel channel) {
+    myChannel = channel;
     myPollingService = NetworkServiceGrpc.newBlockingStub(channel);
   }
 
@@ -63,34 +128,31 @@ public class NetworkDataPoller extends NetworkServiceGrpc.NetworkServiceImplBase
   public void getData(NetworkProfiler.NetworkDataRequest request, StreamObserver<NetworkProfiler.NetworkDataResponse> responseObserver) {
     NetworkProfiler.NetworkDataResponse.Builder response = NetworkProfiler.NetworkDataResponse.newBuilder();
 
-    //TODO: Optimize so we do not need to loop all the data every request, ideally binary search to start time and loop till end.
-    synchronized (myLock) {
-      if (myData.size() == 0) {
-        responseObserver.onNext(response.build());
-        responseObserver.onCompleted();
-        return;
-      }
+    long startTime = request.getStartTimestamp();
+    long endTime = request.getEndTimestamp();
 
-      long startTime = request.getStartTimestamp();
-      long endTime = request.getEndTimestamp();
-
-      for (NetworkProfiler.NetworkProfilerData data : myData) {
-        long current = data.getBasicInfo().getEndTimestamp();
-        if (current > startTime && current <= endTime) {
-          if ((request.getType() == NetworkProfiler.NetworkDataRequest.Type.ALL) ||
-              (request.getType() == NetworkProfiler.NetworkDataRequest.Type.SPEED &&
-               data.getDataCase() == NetworkProfiler.NetworkProfilerData.DataCase.SPEED_DATA) ||
-              (request.getType() == NetworkProfiler.NetworkDataRequest.Type.CONNECTIONS &&
-               data.getDataCase() == NetworkProfiler.NetworkProfilerData.DataCase.CONNECTION_DATA) ||
-              (request.getType() == NetworkProfiler.NetworkDataRequest.Type.CONNECTIVITY &&
-               data.getDataCase() == NetworkProfiler.NetworkProfilerData.DataCase.CONNECTIVITY_DATA)) {
-            response.addData(data);
-          }
-        }
-      }
-      responseObserver.onNext(response.build());
-      responseObserver.onCompleted();
+    switch (request.getType()) {
+      case SPEED:
+        myData.get(NetworkProfiler.NetworkProfilerData.DataCase.SPEED_DATA).visit(startTime, endTime, response::addData);
+        break;
+      case CONNECTIONS:
+        myData.get(NetworkProfiler.NetworkProfilerData.DataCase.CONNECTION_DATA).visit(startTime, endTime, response::addData);
+        break;
+      case CONNECTIVITY:
+        myData.get(NetworkProfiler.NetworkProfilerData.DataCase.CONNECTIVITY_DATA).visit(startTime, endTime, response::addData);
+        break;
+      case ALL:
+        // Merge the samples of all types back into timestamp order. The sort is stable, so equal timestamps keep a deterministic order.
+        List<NetworkProfiler.NetworkProfilerData> merged = new ArrayList<>();
+        myData.values().forEach(store -> store.visit(startTime, endTime, merged::add));
+        merged.sort(Comparator.comparingLong(data -> data.getBasicInfo().getEndTimestamp()));
+        response.addAllData(merged);
+        break;
+      default:
+        break;
     }
+    responseObserver.onNext(response.build());
+    responseObserver.onCompleted();
   }
 
   @Override
@@ -98,13 +160,14 @@ public class NetworkDataPoller extends NetworkServiceGrpc.NetworkServiceImplBase
                                  StreamObserver<NetworkProfiler.NetworkStartResponse> responseObserver) {
 
     synchronized (myLock) {
-      myData.clear();
+      myData.values().forEach(TimeSeriesStore::clear);
       myConnectionData.clear();
     }
 
     myProcessId = request.getAppId();
     responseObserver.onNext(myPollingService.startMonitoringApp(request));
     responseObserver.onCompleted();
+    restartStream();
   }
 
   @Override
@@ -113,6 +176,17 @@ public class NetworkDataPoller extends NetworkServiceGrpc.NetworkServiceImplBase
     myProcessId = -1;
     responseObserver.onNext(myPollingService.stopMonitoringApp(request));
     responseObserver.onCompleted();
+    restartStream();
+  }
+
+  /**
+   * Reopens the data stream, as the request it was opened with refers to the previously monitored process.
+   */
+  private void restartStream() {
+    StreamRunner<NetworkProfiler.NetworkDataRequest, NetworkProfiler.NetworkDataResponse> runner = myRunner;
+    if (runner != null) {
+      runner.restart();
+    }
   }
 
   @Override
@@ -142,25 +216,64 @@ public class NetworkDataPoller extends NetworkServiceGrpc.NetworkServiceImplBase
   @Override
   public void getHttpDetails(NetworkProfiler.HttpDetailsRequest request,
                              StreamObserver<NetworkProfiler.HttpDetailsResponse> responseObserver) {
+    responseObserver.onNext(buildHttpDetails(request));
+    responseObserver.onCompleted();
+  }
+
+  /**
+   * Serves {@link #METHOD_GET_HTTP_DETAILS_BATCH}: each request is answered as soon as it is received.
+   */
+  @NotNull
+  StreamObserver<NetworkProfiler.HttpDetailsRequest> getHttpDetailsBatch(
+    @NotNull StreamObserver<NetworkProfiler.HttpDetailsResponse> responseObserver) {
+    return new StreamObserver<NetworkProfiler.HttpDetailsRequest>() {
+      @Override
+      public void onNext(NetworkProfiler.HttpDetailsRequest request) {
+        responseObserver.onNext(buildHttpDetails(request));
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        // The client cancelled the call or failed while sending its requests, close the call from this side too.
+        responseObserver.onError(t);
+      }
+
+      @Override
+      public void onCompleted() {
+        responseObserver.onCompleted();
+      }
+    };
+  }
+
+  @NotNull
+  private NetworkProfiler.HttpDetailsResponse buildHttpDetails(@NotNull NetworkProfiler.HttpDetailsRequest request) {
     NetworkProfiler.HttpDetailsResponse.Builder response = NetworkProfiler.HttpDetailsResponse.newBuilder();
     synchronized (myLock) {
       ConnectionData details = myConnectionData.get(request.getConnId());
-      switch (request.getType()) {
-        case REQUEST:
-          response.setRequest(details.myRequest);
-          break;
-        case RESPONSE:
-          response.setResponse(details.myResponse);
-          break;
-        case RESPONSE_BODY:
-          response.setResponseBody(details.myResponseBody);
-          break;
-        default:
-          assert false : "Unsupported request type " + request.getType();
+      if (details != null) {
+        // Details are fetched after the connection itself, so they may not be available yet.
+        switch (request.getType()) {
+          case REQUEST:
+            if (details.myRequest != null) {
+              response.setRequest(details.myRequest);
+            }
+            break;
+          case RESPONSE:
+            if (details.myResponse != null) {
+              response.setResponse(details.myResponse);
+            }
+            break;
+          case RESPONSE_BODY:
+            if (details.myResponseBody != null) {
+              response.setResponseBody(details.myResponseBody);
+            }
+            break;
+          default:
+            assert false : "Unsupported request type " + request.getType();
+        }
       }
     }
-    responseObserver.onNext(response.build());
-    responseObserver.onCompleted();
+    return response.build();
   }
 
   @Override
@@ -172,54 +285,90 @@ public class NetworkDataPoller extends NetworkServiceGrpc.NetworkServiceImplBase
 
   @Override
   public ServerServiceDefinition bindService() {
-    return super.bindService();
+    ServerServiceDefinition.Builder builder = ServerServiceDefinition.builder(NetworkServiceGrpc.SERVICE_NAME);
+    super.bindService().getMethods().forEach(builder::addMethod);
+    builder.addMethod(METHOD_GET_HTTP_DETAILS_BATCH, ServerCalls.asyncBidiStreamingCall(this::getHttpDetailsBatch));
+    return builder.build();
   }
 
   @Override
-  public void poll() {
+  public boolean poll() {
     if (myProcessId == -1) {
-      return;
+      return false;
     }
-    NetworkProfiler.NetworkDataRequest.Builder dataRequestBuilder = NetworkProfiler.NetworkDataRequest.newBuilder()
+    return handleData(myPollingService.getData(buildDataRequest()));
+  }
+
+  @NotNull
+  private NetworkProfiler.NetworkDataRequest buildDataRequest() {
+    return NetworkProfiler.NetworkDataRequest.newBuilder()
       .setAppId(myProcessId)
       .setStartTimestamp(myDataRequestStartTimestampNs)
-      .setEndTimestamp(Long.MAX_VALUE);
-    NetworkProfiler.NetworkDataResponse response = myPollingService.getData(dataRequestBuilder.build());
+      .setEndTimestamp(Long.MAX_VALUE)
+      .build();
+  }
 
+  /**
+   * Caches a batch of data received from the device, either polled or pushed. This may run on the thread delivering the stream, so it must
+   * not block: HTTP connections are fetched by {@link #myHttpPoller}, which is polled right away when new data comes in.
+   *
+   * @return true if the batch contained any data.
+   */
+  private boolean handleData(@NotNull NetworkProfiler.NetworkDataResponse response) {
+    myMetrics.recordBatch(response.getDataCount(),
+                          response.getDataCount() == 0 ? 0 : response.getData(0).getBasicInfo().getEndTimestamp());
     synchronized (myLock) {
       for (NetworkProfiler.NetworkProfilerData data : response.getDataList()) {
         myDataRequestStartTimestampNs = data.getBasicInfo().getEndTimestamp();
-        myData.add(data);
+        myData.get(data.getDataCase()).add(myDataRequestStartTimestampNs, data);
       }
-      pollHttpRange();
     }
+    PollScheduler scheduler = myScheduler;
+    if (response.getDataCount() > 0 && scheduler != null) {
+      scheduler.pollSoon(myHttpPoller);
+    }
+    return response.getDataCount() > 0;
   }
 
-  private void pollHttpRange() {
+  /**
+   * @return true if any HTTP connection was updated.
+   */
+  private boolean pollHttpRange() {
+    if (myProcessId == -1) {
+      return false;
+    }
     NetworkProfiler.HttpRangeRequest.Builder requestBuilder = NetworkProfiler.HttpRangeRequest.newBuilder()
       .setAppId(myProcessId)
       .setStartTimestamp(myHttpRangeRequestStartTimeNs)
       .setEndTimestamp(Long.MAX_VALUE);
     NetworkProfiler.HttpRangeResponse response = myPollingService.getHttpRange(requestBuilder.build());
 
-    synchronized (myLock) {
-      for (NetworkProfiler.HttpConnectionData data : response.getDataList()) {
-        myHttpRangeRequestStartTimeNs = Math.max(myHttpRangeRequestStartTimeNs, data.getStartTimestamp() + 1);
-        myHttpRangeRequestStartTimeNs = Math.max(myHttpRangeRequestStartTimeNs, data.getEndTimestamp() + 1);
+    // The details are fetched outside of the lock, so queries from the UI do not wait on the device.
+    for (NetworkProfiler.HttpConnectionData data : response.getDataList()) {
+      myHttpRangeRequestStartTimeNs = Math.max(myHttpRangeRequestStartTimeNs, data.getStartTimestamp() + 1);
+      myHttpRangeRequestStartTimeNs = Math.max(myHttpRangeRequestStartTimeNs, data.getEndTimestamp() + 1);
 
-        if (!myConnectionData.containsKey(data.getConnId())) {
+      boolean isNew;
+      synchronized (myLock) {
+        ConnectionData connection = myConnectionData.get(data.getConnId());
+        isNew = connection == null;
+        if (isNew) {
           myConnectionData.put(data.getConnId(), new ConnectionData(data));
-          pollHttpDetails(data.getConnId(), NetworkProfiler.HttpDetailsRequest.Type.REQUEST);
-        } else {
-          myConnectionData.get(data.getConnId()).myCommonData = data;
         }
-
-        if (data.getEndTimestamp() != 0) {
-          pollHttpDetails(data.getConnId(), NetworkProfiler.HttpDetailsRequest.Type.RESPONSE);
-          pollHttpDetails(data.getConnId(), NetworkProfiler.HttpDetailsRequest.Type.RESPONSE_BODY);
+        else {
+          connection.myCommonData = data;
         }
       }
+
+      if (isNew) {
+        pollHttpDetails(data.getConnId(), NetworkProfiler.HttpDetailsRequest.Type.REQUEST);
+      }
+      if (data.getEndTimestamp() != 0) {
+        pollHttpDetails(data.getConnId(), NetworkProfiler.HttpDetailsRequest.Type.RESPONSE);
+        pollHttpDetails(data.getConnId(), NetworkProfiler.HttpDetailsRequest.Type.RESPONSE_BODY);
+      }
     }
+    return response.getDataCount() > 0;
   }
 
   private void pollHttpDetails(long connectionId, NetworkProfiler.HttpDetailsRequest.Type type) {
@@ -231,6 +380,10 @@ public class NetworkDataPoller extends NetworkServiceGrpc.NetworkServiceImplBase
 
     synchronized (myLock) {
       ConnectionData data = myConnectionData.get(connectionId);
+      if (data == null) {
+        // Cleared while the details were being fetched.
+        return;
+      }
       switch (type) {
         case REQUEST:
           data.myRequest = response.getRequest();
@@ -249,9 +402,9 @@ public class NetworkDataPoller extends NetworkServiceGrpc.NetworkServiceImplBase
 
   private static final class ConnectionData {
     @NotNull private NetworkProfiler.HttpConnectionData myCommonData;
-    private NetworkProfiler.HttpDetailsResponse.Body myResponseBody;
-    private NetworkProfiler.HttpDetailsResponse.Request myRequest;
-    private NetworkProfiler.HttpDetailsResponse.Response myResponse;
+    @Nullable private NetworkProfiler.HttpDetailsResponse.Body myResponseBody;
+    @Nullable private NetworkProfiler.HttpDetailsResponse.Request myRequest;
+    @Nullable private NetworkProfiler.HttpDetailsResponse.Response myResponse;
 
     private ConnectionData(@NotNull NetworkProfiler.HttpConnectionData commonData) {
       myCommonData = commonData;
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.poller;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import io.grpc.Context;
+import io.grpc.StatusRuntimeException;
+import net.jcip.annotations.GuardedBy;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs all the pollers of a device connection on a single thread. Pollers that are due at the same time are polled back to back on the
+ * same tick, and stay aligned on the same ticks afterwards. The device calls of a poll are given a deadline, so a device that stops
+ * answering only delays the other pollers until then. Each poller's period adapts to its data: pollers that keep returning no data are
+ * backed off, and pollers with an active capture are polled faster.
+ */
+public class PollScheduler {
+  private static Logger getLog() { return Logger.getInstance(PollScheduler.class); }
+
+  interface PollingCallback {
+    /**
+     * @return true if the poll received any new data.
+     */
+    boolean poll() throws StatusRuntimeException;
+
+    /**
+     * @return true while a capture (e.g. a method trace or allocation tracking) is in progress, and data should be fetched more often.
+     */
+    default boolean isCapturing() {
+      return false;
+    }
+  }
+
+  public static final long POLLING_DELAY_NS = TimeUnit.MILLISECONDS.toNanos(250);
+
+  public static final long CAPTURE_POLLING_DELAY_NS = TimeUnit.MILLISECONDS.toNanos(50);
+
+  public static final long MAX_POLLING_DELAY_NS = TimeUnit.SECONDS.toNanos(2);
+
+  /**
+   * Number of consecutive polls without data after which a poller starts being backed off.
+   */
+  public static final int IDLE_POLLS_BEFORE_BACKOFF = 4;
+
+  /**
+   * Deadline of the device calls made by a single poll.
+   */
+  public static final long POLL_DEADLINE_NS = TimeUnit.SECONDS.toNanos(2);
+
+  private static final ScheduledExecutorService ourDeadlineExecutor =
+    Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("PollScheduler").setDaemon(true).build());
+
+  @NotNull private final Executor myExecutor;
+  private final long myPollDeadlineNs;
+
+  private final Object myLock = new Object();
+  @GuardedBy("myLock") private final List<ScheduledPoll> myPolls = new ArrayList<>();
+  @GuardedBy("myLock") private boolean myIsRunning;
+  /**
+   * Incremented on every start, so a polling thread that outlives a stop does not keep going after the next start.
+   */
+  @GuardedBy("myLock") private int myGeneration;
+
+  public PollScheduler() {
+    this(command -> ApplicationManager.getApplication().executeOnPooledThread(command));
+  }
+
+  /**
+   * @param executor runs the polling thread.
+   */
+  PollScheduler(@NotNull Executor executor) {
+    this(executor, POLL_DEADLINE_NS);
+  }
+
+  PollScheduler(@NotNull Executor executor, long pollDeadlineNs) {
+    myExecutor = executor;
+    myPollDeadlineNs = pollDeadlineNs;
+  }
+
+  public void start() {
+    int generation;
+    synchronized (myLock) {
+      if (myIsRunning) {
+        return;
+      }
+      myIsRunning = true;
+      generation = ++myGeneration;
+    }
+    myExecutor.execute(() -> run(generation));
+  }
+
+  /**
+   * Stops polling and unregisters all the pollers.
+   */
+  public void stop() {
+    synchronized (myLock) {
+      myIsRunning = false;
+      myPolls.clear();
+      myLock.notifyAll();
+    }
+  }
+
+  /**
+   * Adds a poller to the scheduler, it will be polled on the next tick. Registering a poller more than once has no effect.
+   */
+  public void register(@NotNull PollingCallback callback) {
+    synchronized (myLock) {
+      for (ScheduledPoll poll : myPolls) {
+        if (poll.myCallback == callback) {
+          return;
+        }
+      }
+      myPolls.add(new ScheduledPoll(callback));
+      myLock.notifyAll();
+    }
+  }
+
+  /**
+   * Polls the given poller on the next tick and resets its back off, e.g. because a capture has just been started.
+   */
+  public void pollSoon(@NotNull PollingCallback callback) {
+    synchronized (myLock) {
+      for (ScheduledPoll poll : myPolls) {
+        if (poll.myCallback == callback) {
+          poll.myIdlePolls = 0;
+          poll.myNextPollNs = System.nanoTime();
+          // A poll in flight is rescheduled when it completes, which must not delay this one.
+          poll.myIsPollRequested = poll.myIsInFlight;
+        }
+      }
+      myLock.notifyAll();
+    }
+  }
+
+  private void run(int generation) {
+    try {
+      List<ScheduledPoll> due = new ArrayList<>();
+      while (true) {
+        long tickNs = System.nanoTime();
+        synchronized (myLock) {
+          if (!myIsRunning || generation != myGeneration) {
+            return;
+          }
+          due.clear();
+          long waitNs = Long.MAX_VALUE;
+          for (ScheduledPoll poll : myPolls) {
+            if (poll.myNextPollNs <= tickNs) {
+              poll.myIsInFlight = true;
+              due.add(poll);
+            }
+            else {
+              waitNs = Math.min(waitNs, poll.myNextPollNs - tickNs);
+            }
+          }
+          if (due.isEmpty()) {
+            if (waitNs == Long.MAX_VALUE) {
+              myLock.wait();
+            }
+            else {
+              TimeUnit.NANOSECONDS.timedWait(myLock, waitNs);
+            }
+            continue;
+          }
+        }
+
+        // Poll outside of the lock, so registering does not wait on the device.
+        for (ScheduledPoll poll : due) {
+          poll(poll, tickNs);
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void poll(@NotNull ScheduledPoll poll, long tickNs) {
+    boolean hasData = false;
+    // The deadline applies to the calls made from this thread, work the poller hands off to other threads is not bound by it.
+    Context.CancellableContext context = Context.current().withDeadlineAfter(myPollDeadlineNs, TimeUnit.NANOSECONDS, ourDeadlineExecutor);
+    Context previous = context.attach();
+    try {
+      hasData = poll.myCallback.poll();
+    }
+    catch (StatusRuntimeException ignored) {
+      // The device call failed or timed out, e.g. because the device is going away. The poller is retried on its next tick.
+    }
+    catch (RuntimeException e) {
+      getLog().warn("Unexpected failure polling " + poll.myCallback, e);
+    }
+    finally {
+      context.detachAndCancel(previous, null);
+    }
+    boolean isCapturing = poll.myCallback.isCapturing();
+    synchronized (myLock) {
+      poll.myIsInFlight = false;
+      poll.myIdlePolls = hasData ? 0 : poll.myIdlePolls + 1;
+      if (poll.myIsPollRequested) {
+        poll.myIsPollRequested = false;
+        poll.myIdlePolls = 0;
+        poll.myNextPollNs = System.nanoTime();
+      }
+      else {
+        // Scheduling from the start of the tick keeps the pollers that share a period polling on the same ticks.
+        poll.myNextPollNs = tickNs + getPeriodNs(isCapturing, poll.myIdlePolls);
+      }
+      myLock.notifyAll();
+    }
+  }
+
+  /**
+   * @return the delay until the next poll of a poller, given whether it is capturing and its number of consecutive polls without data.
+   */
+  static long getPeriodNs(boolean isCapturing, int idlePolls) {
+    if (isCapturing) {
+      return CAPTURE_POLLING_DELAY_NS;
+    }
+    if (idlePolls < IDLE_POLLS_BEFORE_BACKOFF) {
+      return POLLING_DELAY_NS;
+    }
+    int shift = Math.min(idlePolls - IDLE_POLLS_BEFORE_BACKOFF + 1, 3);
+    return Math.min(POLLING_DELAY_NS << shift, MAX_POLLING_DELAY_NS);
+  }
+
+  private static final class ScheduledPoll {
+    @NotNull private final PollingCallback myCallback;
+    private long myNextPollNs = System.nanoTime();
+    private int myIdlePolls;
+    /**
+     * Set while the poller is being polled, so a poll requested in the meantime is not overridden when the poll completes.
+     */
+    private boolean myIsInFlight;
+    private boolean myIsPollRequested;
+
+    private ScheduledPoll(@NotNull PollingCallback callback) {
+      myCallback = callback;
+    }
+  }
+}
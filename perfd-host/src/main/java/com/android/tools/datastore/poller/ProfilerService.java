@@ -28,7 +28,6 @@ import org.jetbrains.annotations.NotNull;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.RunnableFuture;
 
 /**
  * This class hosts an EventService that will provide callers access to all cached EventData.
@@ -117,7 +116,4 @@ public class ProfilerService extends ProfilerServiceGrpc.ProfilerServiceImplBase
   public void connectService(ManagedChannel channel) {
     myPollingService = ProfilerServiceGrpc.newBlockingStub(channel);
   }
-
-  @Override
-  public RunnableFuture<Void> getRunner() { return null; }
 }
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.poller;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf3jarjar.Message;
+import com.intellij.openapi.diagnostic.Logger;
+import io.grpc.*;
+import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.StreamObserver;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Receives data pushed by a device service over a server streaming call, instead of polling for it. The call is asynchronous, so an open
+ * stream does not hold on to a thread. Perfd builds that do not implement the streaming call reject it, in which case the given poller is
+ * registered with the {@link PollScheduler} instead for the rest of the connection. Streams closed for any other reason are reopened, after
+ * a delay that grows while they keep failing.
+ */
+public class StreamRunner<Req extends Message, Resp extends Message> {
+  /**
+   * Name of the streaming variant of getData, in the services that support it.
+   */
+  public static final String STREAM_DATA_METHOD = "StreamData";
+
+  public static final long INITIAL_REOPEN_DELAY_MS = 500;
+
+  public static final long MAX_REOPEN_DELAY_MS = TimeUnit.SECONDS.toMillis(10);
+
+  private static final ScheduledExecutorService ourReopenExecutor =
+    Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("StreamRunner").setDaemon(true).build());
+
+  private static Logger getLog() { return Logger.getInstance(StreamRunner.class); }
+
+  @NotNull private final Channel myChannel;
+  @NotNull private final MethodDescriptor<Req, Resp> myMethod;
+  @NotNull private final Supplier<Req> myRequestSupplier;
+  @NotNull private final Consumer<Resp> myCallback;
+  @NotNull private final PollScheduler myScheduler;
+  @NotNull private final PollScheduler.PollingCallback myFallback;
+  @NotNull private final ScheduledExecutorService myReopenExecutor;
+
+  @Nullable private volatile ClientCall<Req, Resp> myCall;
+  /**
+   * The call cancelled by {@link #restart()}, which is reopened as soon as it is closed.
+   */
+  @Nullable private volatile ClientCall<Req, Resp> myRestartingCall;
+  @Nullable private volatile ScheduledFuture<?> myPendingReopen;
+  /**
+   * Number of times in a row the stream was closed before receiving any data.
+   */
+  private volatile int myFailureCount;
+  private volatile boolean myIsStopped;
+  private volatile boolean myIsPolling;
+
+  /**
+   * @param requestSupplier creates the request the stream is (re)opened with.
+   * @param callback        called with every batch pushed by the device.
+   * @param fallback        polled instead if the device does not support streaming.
+   */
+  public StreamRunner(@NotNull Channel channel,
+                      @NotNull MethodDescriptor<Req, Resp> method,
+                      @NotNull Supplier<Req> requestSupplier,
+                      @NotNull Consumer<Resp> callback,
+                      @NotNull PollScheduler scheduler,
+                      @NotNull PollScheduler.PollingCallback fallback) {
+    this(channel, method, requestSupplier, callback, scheduler, fallback, ourReopenExecutor);
+  }
+
+  StreamRunner(@NotNull Channel channel,
+               @NotNull MethodDescriptor<Req, Resp> method,
+               @NotNull Supplier<Req> requestSupplier,
+               @NotNull Consumer<Resp> callback,
+               @NotNull PollScheduler scheduler,
+               @NotNull PollScheduler.PollingCallback fallback,
+               @NotNull ScheduledExecutorService reopenExecutor) {
+    myChannel = channel;
+    myMethod = method;
+    myRequestSupplier = requestSupplier;
+    myCallback = callback;
+    myScheduler = scheduler;
+    myFallback = fallback;
+    myReopenExecutor = reopenExecutor;
+  }
+
+  /**
+   * Creates the descriptor of the {@link #STREAM_DATA_METHOD} call of the given service.
+   */
+  @NotNull
+  public static <Req extends Message, Resp extends Message> MethodDescriptor<Req, Resp> createStreamDataMethod(@NotNull String serviceName,
+                                                                                                              @NotNull Req request,
+                                                                                                              @NotNull Resp response) {
+    return MethodDescriptor.create(MethodDescriptor.MethodType.SERVER_STREAMING,
+                                   MethodDescriptor.generateFullMethodName(serviceName, STREAM_DATA_METHOD),
+                                   ProtoUtils.marshaller(request),
+                                   ProtoUtils.marshaller(response));
+  }
+
+  public void start() {
+    open();
+  }
+
+  /**
+   * Closes the current stream and opens a new one with a fresh request, e.g. after the monitored process changed. The stream is reopened
+   * once the cancelled call has been closed.
+   */
+  public void restart() {
+    ClientCall<Req, Resp> call = myCall;
+    if (call != null) {
+      myRestartingCall = call;
+      call.cancel("Restarting stream", null);
+    }
+  }
+
+  public void stop() {
+    myIsStopped = true;
+    ScheduledFuture<?> reopen = myPendingReopen;
+    if (reopen != null) {
+      reopen.cancel(false);
+    }
+    ClientCall<Req, Resp> call = myCall;
+    if (call != null) {
+      call.cancel("Stopping stream", null);
+    }
+  }
+
+  /**
+   * @return true if the device does not support streaming and the data is polled instead.
+   */
+  public boolean isPolling() {
+    return myIsPolling;
+  }
+
+  private void open() {
+    ClientCall<Req, Resp> call = myChannel.newCall(myMethod, CallOptions.DEFAULT);
+    ClientCalls.asyncServerStreamingCall(call, myRequestSupplier.get(), new StreamObserver<Resp>() {
+      @Override
+      public void onNext(Resp response) {
+        myFailureCount = 0;
+        myCallback.accept(response);
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        onClosed(call, Status.fromThrowable(t));
+      }
+
+      @Override
+      public void onCompleted() {
+        onClosed(call, Status.OK);
+      }
+    });
+    myCall = call;
+    if (myIsStopped) {
+      // Stopped while the call was being started.
+      call.cancel("Stopping stream", null);
+    }
+  }
+
+  private void onClosed(@NotNull ClientCall<Req, Resp> call, @NotNull Status status) {
+    myCall = null;
+    boolean isRestarting = myRestartingCall == call;
+    myRestartingCall = null;
+    if (myIsStopped) {
+      return;
+    }
+    if (isRestarting && status.getCode() == Status.Code.CANCELLED) {
+      open();
+      return;
+    }
+    if (status.getCode() == Status.Code.UNIMPLEMENTED) {
+      getLog().info(myMethod.getFullMethodName() + " is not supported by the device, falling back to polling.");
+      myIsPolling = true;
+      myScheduler.register(myFallback);
+      return;
+    }
+    // Any other failure (e.g. UNAVAILABLE, DEADLINE_EXCEEDED, INTERNAL, or CANCELLED by the device) is expected to be transient, keep
+    // streaming.
+    long delayMs = getReopenDelayMs(myFailureCount++);
+    getLog().info(myMethod.getFullMethodName() + " closed with " + status.getCode() + ", reopening it in " + delayMs + " ms.");
+    myPendingReopen = myReopenExecutor.schedule(() -> {
+      myPendingReopen = null;
+      if (!myIsStopped) {
+        open();
+      }
+    }, delayMs, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @return the delay before reopening a stream that was closed after the given number of previous failures in a row.
+   */
+  static long getReopenDelayMs(int failureCount) {
+    return Math.min(INITIAL_REOPEN_DELAY_MS << Math.min(failureCount, 16), MAX_REOPEN_DELAY_MS);
+  }
+}
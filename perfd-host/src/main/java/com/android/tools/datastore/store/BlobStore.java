@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.store;
+
+import com.google.protobuf3jarjar.ByteString;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A container of large, write-once payloads (e.g. heap dumps) indexed by id.
+ */
+public interface BlobStore {
+
+  void put(int id, @NotNull ByteString data);
+
+  /**
+   * @return the payload stored for the given id, or null if there is none. The payload may be a read-only view of the stored data rather
+   * than a copy of it, use {@link #openStream(int)} to read large payloads in chunks.
+   */
+  @Nullable
+  ByteString get(int id);
+
+  /**
+   * @return the size in bytes of the payload stored for the given id, or -1 if there is none.
+   */
+  long getSize(int id);
+
+  /**
+   * Opens the payload stored for the given id for reading, without loading it in memory. The caller must close the stream.
+   *
+   * @return null if there is no payload for that id.
+   */
+  @Nullable
+  InputStream openStream(int id) throws IOException;
+
+  void clear();
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.store;
+
+import com.google.protobuf3jarjar.ByteString;
+import com.google.protobuf3jarjar.UnsafeByteOperations;
+import com.intellij.openapi.diagnostic.Logger;
+import gnu.trove.TIntObjectHashMap;
+import net.jcip.annotations.GuardedBy;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link BlobStore} that writes every payload to its own file, so that payloads do not stay on heap between requests. Payloads are read
+ * back from a read-only mapping of their file, or streamed with {@link #openStream(int)}.
+ */
+public class DiskBlobStore implements BlobStore {
+  private static Logger getLog() { return Logger.getInstance(DiskBlobStore.class); }
+
+  @NotNull private final File myDirectory;
+  @NotNull private final String myName;
+
+  private final Object myLock = new Object();
+  @GuardedBy("myLock") private final TIntObjectHashMap<File> myFiles = new TIntObjectHashMap<>();
+  @GuardedBy("myLock") private int myGeneration;
+  /**
+   * Payloads that could not be written to disk.
+   */
+  @GuardedBy("myLock") private final TIntObjectHashMap<ByteString> myFallbackBlobs = new TIntObjectHashMap<>();
+
+  public DiskBlobStore(@NotNull File directory, @NotNull String name) {
+    myDirectory = directory;
+    myName = name;
+  }
+
+  @Override
+  public void put(int id, @NotNull ByteString data) {
+    // Files are never rewritten, as payloads returned by get may still map them.
+    File file;
+    synchronized (myLock) {
+      file = new File(myDirectory, myName + "." + id + "." + myGeneration++ + ".blob");
+    }
+    file.deleteOnExit();
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+      data.writeTo(out);
+    }
+    catch (IOException e) {
+      getLog().warn("Unable to write " + file + ", keeping it on heap.", e);
+      synchronized (myLock) {
+        myFallbackBlobs.put(id, data);
+      }
+      return;
+    }
+    synchronized (myLock) {
+      myFiles.put(id, file);
+    }
+  }
+
+  @Nullable
+  @Override
+  public ByteString get(int id) {
+    File file;
+    synchronized (myLock) {
+      file = myFiles.get(id);
+      if (file == null) {
+        return myFallbackBlobs.get(id);
+      }
+    }
+    try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+      // The mapping stays valid once the channel is closed.
+      return UnsafeByteOperations.unsafeWrap(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+    catch (IOException e) {
+      getLog().warn("Unable to read " + file, e);
+      return null;
+    }
+  }
+
+  @Override
+  public long getSize(int id) {
+    synchronized (myLock) {
+      File file = myFiles.get(id);
+      if (file != null) {
+        return file.length();
+      }
+      ByteString data = myFallbackBlobs.get(id);
+      return data == null ? -1 : data.size();
+    }
+  }
+
+  @Nullable
+  @Override
+  public InputStream openStream(int id) throws IOException {
+    File file;
+    synchronized (myLock) {
+      file = myFiles.get(id);
+      if (file == null) {
+        ByteString data = myFallbackBlobs.get(id);
+        return data == null ? null : data.newInput();
+      }
+    }
+    return new BufferedInputStream(new FileInputStream(file));
+  }
+
+  @Override
+  public void clear() {
+    synchronized (myLock) {
+      myFiles.forEachValue(file -> {
+        if (!file.delete()) {
+          file.deleteOnExit();
+        }
+        return true;
+      });
+      myFiles.clear();
+      myFallbackBlobs.clear();
+    }
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.store;
+
+import com.google.protobuf3jarjar.MessageLite;
+import com.google.protobuf3jarjar.Parser;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+
+/**
+ * A {@link StoreFactory} whose containers spill their data to files in a given directory, keeping only the most recent samples on heap.
+ */
+public class DiskStoreFactory implements StoreFactory {
+  /**
+   * Number of samples each time series keeps on heap before sealing them to disk.
+   */
+  public static final int DEFAULT_HOT_WINDOW_SIZE = 1024;
+
+  @NotNull private final File myDirectory;
+  private final int myHotWindowSize;
+
+  public DiskStoreFactory(@NotNull File directory) {
+    this(directory, DEFAULT_HOT_WINDOW_SIZE);
+  }
+
+  public DiskStoreFactory(@NotNull File directory, int hotWindowSize) {
+    myDirectory = directory;
+    myHotWindowSize = hotWindowSize;
+  }
+
+  @NotNull
+  @Override
+  public <T extends MessageLite> TimeSeriesStore<T> createTimeSeriesStore(@NotNull String name, @NotNull Parser<T> parser) {
+    return new SegmentedTimeSeriesStore<>(myDirectory, name, parser, myHotWindowSize);
+  }
+
+  @NotNull
+  @Override
+  public BlobStore createBlobStore(@NotNull String name) {
+    return new DiskBlobStore(myDirectory, name);
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.store;
+
+import com.google.protobuf3jarjar.ByteString;
+import gnu.trove.TIntObjectHashMap;
+import net.jcip.annotations.GuardedBy;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.InputStream;
+
+/**
+ * A {@link BlobStore} that keeps all of its payloads on heap.
+ */
+public class HeapBlobStore implements BlobStore {
+  private final Object myLock = new Object();
+  @GuardedBy("myLock") private final TIntObjectHashMap<ByteString> myBlobs = new TIntObjectHashMap<>();
+
+  @Override
+  public void put(int id, @NotNull ByteString data) {
+    synchronized (myLock) {
+      myBlobs.put(id, data);
+    }
+  }
+
+  @Nullable
+  @Override
+  public ByteString get(int id) {
+    synchronized (myLock) {
+      return myBlobs.get(id);
+    }
+  }
+
+  @Override
+  public long getSize(int id) {
+    synchronized (myLock) {
+      ByteString data = myBlobs.get(id);
+      return data == null ? -1 : data.size();
+    }
+  }
+
+  @Nullable
+  @Override
+  public InputStream openStream(int id) {
+    synchronized (myLock) {
+      ByteString data = myBlobs.get(id);
+      return data == null ? null : data.newInput();
+    }
+  }
+
+  @Override
+  public void clear() {
+    synchronized (myLock) {
+      myBlobs.clear();
+    }
+  }
+}
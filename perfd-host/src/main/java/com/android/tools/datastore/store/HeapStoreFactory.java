@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.store;
+
+import com.google.protobuf3jarjar.MessageLite;
+import com.google.protobuf3jarjar.Parser;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A {@link StoreFactory} whose containers keep everything on heap. Used when no disk storage is available.
+ */
+public class HeapStoreFactory implements StoreFactory {
+  @NotNull
+  @Override
+  public <T extends MessageLite> TimeSeriesStore<T> createTimeSeriesStore(@NotNull String name, @NotNull Parser<T> parser) {
+    return new HeapTimeSeriesStore<>();
+  }
+
+  @NotNull
+  @Override
+  public BlobStore createBlobStore(@NotNull String name) {
+    return new HeapBlobStore();
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.store;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.Consumer;
+
+/**
+ * A {@link TimeSeriesStore} that keeps all of its samples on heap. Writes are serialized, reads do not lock.
+ */
+public class HeapTimeSeriesStore<T> implements TimeSeriesStore<T> {
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final Object myWriteLock = new Object();
+  @NotNull private volatile SampleBuffer<T> myBuffer = new SampleBuffer<>(INITIAL_CAPACITY);
+
+  @Override
+  public void add(long timestamp, @NotNull T sample) {
+    synchronized (myWriteLock) {
+      SampleBuffer<T> buffer = myBuffer;
+      if (buffer.isFull()) {
+        buffer = buffer.grow();
+        myBuffer = buffer;
+      }
+      buffer.append(timestamp, sample);
+    }
+  }
+
+  @Override
+  public void visit(long startExclusive, long endInclusive, @NotNull Consumer<T> consumer) {
+    myBuffer.visit(startExclusive, endInclusive, consumer);
+  }
+
+  @Override
+  public int size() {
+    return myBuffer.size();
+  }
+
+  @Override
+  public void clear() {
+    synchronized (myWriteLock) {
+      myBuffer = new SampleBuffer<>(INITIAL_CAPACITY);
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.store;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * A fixed capacity array of samples and their timestamps which is appended to by a single writer and read without locking. Samples are
+ * written before the size is published, so any reader sees a consistent prefix of the buffer. Growing returns a copy, leaving this buffer
+ * untouched for readers that still hold it.
+ */
+final class SampleBuffer<T> {
+  @NotNull private final long[] myTimestamps;
+  @NotNull private final Object[] mySamples;
+  private volatile int mySize;
+
+  SampleBuffer(int capacity) {
+    this(new long[capacity], new Object[capacity], 0);
+  }
+
+  private SampleBuffer(@NotNull long[] timestamps, @NotNull Object[] samples, int size) {
+    myTimestamps = timestamps;
+    mySamples = samples;
+    mySize = size;
+  }
+
+  int size() {
+    return mySize;
+  }
+
+  boolean isFull() {
+    return mySize == myTimestamps.length;
+  }
+
+  long getLastTimestamp() {
+    int size = mySize;
+    return size == 0 ? Long.MIN_VALUE : myTimestamps[size - 1];
+  }
+
+  @SuppressWarnings("unchecked")
+  @NotNull
+  T get(int index) {
+    return (T)mySamples[index];
+  }
+
+  /**
+   * @return a copy of the timestamps of the samples currently in the buffer.
+   */
+  @NotNull
+  long[] copyTimestamps() {
+    return Arrays.copyOf(myTimestamps, mySize);
+  }
+
+  /**
+   * Must only be called by the writer, and only if the buffer is not full.
+   */
+  void append(long timestamp, @NotNull T sample) {
+    int size = mySize;
+    assert size < myTimestamps.length;
+    assert size == 0 || myTimestamps[size - 1] <= timestamp;
+    myTimestamps[size] = timestamp;
+    mySamples[size] = sample;
+    mySize = size + 1;
+  }
+
+  /**
+   * @return a copy of this buffer with twice its capacity.
+   */
+  @NotNull
+  SampleBuffer<T> grow() {
+    int capacity = Math.max(1, myTimestamps.length * 2);
+    return new SampleBuffer<>(Arrays.copyOf(myTimestamps, capacity), Arrays.copyOf(mySamples, capacity), mySize);
+  }
+
+  void visit(long startExclusive, long endInclusive, @NotNull Consumer<T> consumer) {
+    int size = mySize;
+    for (int i = TimestampIndex.firstAfter(myTimestamps, size, startExclusive); i < size && myTimestamps[i] <= endInclusive; i++) {
+      consumer.accept(get(i));
+    }
+  }
+}
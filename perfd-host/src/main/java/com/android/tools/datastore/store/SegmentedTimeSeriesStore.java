@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.store;
+
+import com.google.protobuf3jarjar.InvalidProtocolBufferException;
+import com.google.protobuf3jarjar.MessageLite;
+import com.google.protobuf3jarjar.Parser;
+import com.intellij.openapi.diagnostic.Logger;
+import net.jcip.annotations.GuardedBy;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * A {@link TimeSeriesStore} that only keeps its most recent samples on heap. Once the hot window fills up, its samples are sealed into a
+ * segment: they are serialized and appended to a backing file, which is then memory-mapped back in read-only. Each segment keeps the
+ * timestamps of its samples and their offsets in the mapped buffer, so range queries can skip segments entirely and binary search to
+ * the first sample of interest.
+ *
+ * Writes are serialized. Reads do not lock: the sealed segments and the hot window are published together as an immutable {@link State},
+ * and the hot window itself only ever grows, so a reader always sees a consistent prefix of the series.
+ */
+public class SegmentedTimeSeriesStore<T extends MessageLite> implements TimeSeriesStore<T> {
+  private static Logger getLog() { return Logger.getInstance(SegmentedTimeSeriesStore.class); }
+
+  @NotNull private final File myDirectory;
+  @NotNull private final String myName;
+  @NotNull private final Parser<T> myParser;
+  private final int myHotWindowSize;
+
+  private final Object myLock = new Object();
+  @NotNull private volatile State myState;
+  @GuardedBy("myLock") private int myGeneration;
+  @GuardedBy("myLock") @Nullable private File myFile;
+  @GuardedBy("myLock") @Nullable private FileChannel myChannel;
+  @GuardedBy("myLock") private long myFileLength;
+
+  /**
+   * @param directory     where the backing file of the store is created.
+   * @param name          prefix of the backing file name, must be unique within the directory.
+   * @param hotWindowSize the number of samples kept on heap before they are sealed into a segment.
+   */
+  public SegmentedTimeSeriesStore(@NotNull File directory, @NotNull String name, @NotNull Parser<T> parser, int hotWindowSize) {
+    myDirectory = directory;
+    myName = name;
+    myParser = parser;
+    myHotWindowSize = hotWindowSize;
+    myState = createEmptyState();
+  }
+
+  @Override
+  public void add(long timestamp, @NotNull T sample) {
+    synchronized (myLock) {
+      State state = myState;
+      SampleBuffer<T> hot = state.myHot;
+      assert hot.size() > 0 || state.mySegments.length == 0 ||
+             state.mySegments[state.mySegments.length - 1].getLastTimestamp() <= timestamp;
+      if (hot.isFull()) {
+        // Only happens if a previous seal failed, in which case the samples stay on heap.
+        hot = hot.grow();
+        myState = new State(state.mySegments, hot, state.mySealedCount);
+      }
+      hot.append(timestamp, sample);
+      if (hot.size() >= myHotWindowSize) {
+        seal();
+      }
+    }
+  }
+
+  @Override
+  public void visit(long startExclusive, long endInclusive, @NotNull Consumer<T> consumer) {
+    State state = myState;
+    for (Segment segment : state.mySegments) {
+      if (segment.getFirstTimestamp() > endInclusive) {
+        return;
+      }
+      if (segment.getLastTimestamp() > startExclusive) {
+        segment.visit(startExclusive, endInclusive, myParser, consumer);
+      }
+    }
+    state.myHot.visit(startExclusive, endInclusive, consumer);
+  }
+
+  @Override
+  public int size() {
+    State state = myState;
+    return state.mySealedCount + state.myHot.size();
+  }
+
+  @Override
+  public void clear() {
+    synchronized (myLock) {
+      myState = createEmptyState();
+      closeFile();
+    }
+  }
+
+  @NotNull
+  private State createEmptyState() {
+    return new State(new Segment[0], new SampleBuffer<>(myHotWindowSize), 0);
+  }
+
+  @GuardedBy("myLock")
+  private void seal() {
+    State state = myState;
+    SampleBuffer<T> hot = state.myHot;
+    int count = hot.size();
+    byte[][] encoded = new byte[count][];
+    int[] offsets = new int[count];
+    int length = 0;
+    for (int i = 0; i < count; i++) {
+      encoded[i] = hot.get(i).toByteArray();
+      offsets[i] = length;
+      length += Integer.BYTES + encoded[i].length;
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    for (byte[] bytes : encoded) {
+      buffer.putInt(bytes.length);
+      buffer.put(bytes);
+    }
+    buffer.flip();
+
+    Segment segment;
+    try {
+      FileChannel channel = getChannel();
+      long start = myFileLength;
+      while (buffer.hasRemaining()) {
+        myFileLength += channel.write(buffer, myFileLength);
+      }
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+      segment = new Segment(hot.copyTimestamps(), offsets, mapped);
+    }
+    catch (IOException e) {
+      getLog().warn("Unable to seal samples of " + myName + " to disk, keeping them on heap.", e);
+      return;
+    }
+    Segment[] segments = Arrays.copyOf(state.mySegments, state.mySegments.length + 1);
+    segments[segments.length - 1] = segment;
+    // The old hot window is left as is, readers still holding the previous state keep seeing its samples.
+    myState = new State(segments, new SampleBuffer<>(myHotWindowSize), state.mySealedCount + count);
+  }
+
+  @GuardedBy("myLock")
+  @NotNull
+  private FileChannel getChannel() throws IOException {
+    if (myChannel == null) {
+      myFile = new File(myDirectory, myName + "." + myGeneration++ + ".seg");
+      myFile.deleteOnExit();
+      myChannel = new RandomAccessFile(myFile, "rw").getChannel();
+      myFileLength = 0;
+    }
+    return myChannel;
+  }
+
+  @GuardedBy("myLock")
+  private void closeFile() {
+    if (myChannel != null) {
+      try {
+        myChannel.close();
+      }
+      catch (IOException e) {
+        getLog().warn("Unable to close " + myFile, e);
+      }
+      myChannel = null;
+    }
+    // Mapped buffers of the dropped segments may keep the file alive until they are collected, hence a new file per generation.
+    if (myFile != null && !myFile.delete()) {
+      myFile.deleteOnExit();
+    }
+    myFile = null;
+  }
+
+  /**
+   * An immutable snapshot of the series. Only the hot window may still be appended to.
+   */
+  private final class State {
+    @NotNull private final Segment[] mySegments;
+    @NotNull private final SampleBuffer<T> myHot;
+    private final int mySealedCount;
+
+    private State(@NotNull Segment[] segments, @NotNull SampleBuffer<T> hot, int sealedCount) {
+      mySegments = segments;
+      myHot = hot;
+      mySealedCount = sealedCount;
+    }
+  }
+
+  private static final class Segment {
+    @NotNull private final long[] myTimestamps;
+    @NotNull private final int[] myOffsets;
+    @NotNull private final ByteBuffer myBuffer;
+
+    private Segment(@NotNull long[] timestamps, @NotNull int[] offsets, @NotNull ByteBuffer buffer) {
+      myTimestamps = timestamps;
+      myOffsets = offsets;
+      myBuffer = buffer;
+    }
+
+    private long getFirstTimestamp() {
+      return myTimestamps[0];
+    }
+
+    private long getLastTimestamp() {
+      return myTimestamps[myTimestamps.length - 1];
+    }
+
+    private <T> void visit(long startExclusive, long endInclusive, @NotNull Parser<T> parser, @NotNull Consumer<T> consumer) {
+      ByteBuffer buffer = myBuffer.duplicate();
+      int size = myTimestamps.length;
+      for (int i = TimestampIndex.firstAfter(myTimestamps, size, startExclusive); i < size && myTimestamps[i] <= endInclusive; i++) {
+        buffer.position(myOffsets[i]);
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        try {
+          consumer.accept(parser.parseFrom(bytes));
+        }
+        catch (InvalidProtocolBufferException e) {
+          throw new IllegalStateException("Corrupted sample", e);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.store;
+
+import com.google.protobuf3jarjar.MessageLite;
+import com.google.protobuf3jarjar.Parser;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Creates the containers the datastore pollers keep their cached data in. The implementation decides whether the data lives on heap or
+ * is backed by disk.
+ */
+public interface StoreFactory {
+
+  /**
+   * @param name   a name unique within this factory, used to identify the backing storage.
+   * @param parser used to read back samples that have been serialized out of the heap.
+   */
+  @NotNull
+  <T extends MessageLite> TimeSeriesStore<T> createTimeSeriesStore(@NotNull String name, @NotNull Parser<T> parser);
+
+  @NotNull
+  BlobStore createBlobStore(@NotNull String name);
+}
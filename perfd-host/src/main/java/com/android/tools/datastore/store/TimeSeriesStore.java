@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.store;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.Consumer;
+
+/**
+ * A container of samples ordered by timestamp. Samples are expected to be added with non-decreasing timestamps, which is how the
+ * datastore pollers receive them from perfd.
+ *
+ * @param <T> The type of the stored samples.
+ */
+public interface TimeSeriesStore<T> {
+
+  /**
+   * Appends a sample to the end of the series.
+   *
+   * @param timestamp the timestamp used to index the sample, must not be smaller than the timestamp of the previously added sample.
+   */
+  void add(long timestamp, @NotNull T sample);
+
+  /**
+   * Passes every sample whose timestamp is in the range (startExclusive, endInclusive] to the consumer, in timestamp order.
+   */
+  void visit(long startExclusive, long endInclusive, @NotNull Consumer<T> consumer);
+
+  /**
+   * @return the number of samples stored in the series.
+   */
+  int size();
+
+  /**
+   * Removes all the samples from the series.
+   */
+  void clear();
+}
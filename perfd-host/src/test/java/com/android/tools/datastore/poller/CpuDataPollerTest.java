@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.poller;
+
+import com.android.tools.datastore.DeviceClock;
+import com.android.tools.datastore.ServiceMetrics;
+import com.android.tools.datastore.store.DiskStoreFactory;
+import com.android.tools.profiler.proto.Common;
+import com.android.tools.profiler.proto.CpuProfiler;
+import com.android.tools.profiler.proto.CpuServiceGrpc;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CpuDataPollerTest {
+  private static final int MAIN_TID = 1;
+  private static final int WORKER_TID = 2;
+  /**
+   * Small enough for most activities to be read back from disk.
+   */
+  private static final int HOT_WINDOW_SIZE = 2;
+
+  private final FakeCpuService myService = new FakeCpuService();
+  private File myDirectory;
+  private Server myServer;
+  private ManagedChannel myChannel;
+  private CpuDataPoller myPoller;
+
+  @Before
+  public void setUp() throws IOException {
+    myServer = InProcessServerBuilder.forName("CpuDataPollerTest").addService(myService).build().start();
+    myChannel = InProcessChannelBuilder.forName("CpuDataPollerTest").build();
+    myDirectory = Files.createTempDirectory("datastore").toFile();
+    myPoller = new CpuDataPoller(new DiskStoreFactory(myDirectory, HOT_WINDOW_SIZE), new ServiceMetrics("cpu", new DeviceClock()));
+    myPoller.connectService(myChannel);
+  }
+
+  @After
+  public void tearDown() {
+    myChannel.shutdownNow();
+    myServer.shutdownNow();
+    myDirectory.delete();
+  }
+
+  @Test
+  public void testThreadActivitiesAreIndexedAcrossBatches() {
+    pollActivities(10, activity(MAIN_TID, "main", 5, CpuProfiler.ThreadActivity.State.RUNNING),
+                   activity(WORKER_TID, "worker", 8, CpuProfiler.ThreadActivity.State.RUNNING));
+    pollActivities(20, activity(MAIN_TID, "main", 15, CpuProfiler.ThreadActivity.State.SLEEPING));
+    pollActivities(30, activity(MAIN_TID, "main", 25, CpuProfiler.ThreadActivity.State.RUNNING),
+                   activity(WORKER_TID, "worker", 28, CpuProfiler.ThreadActivity.State.DEAD));
+
+    CpuProfiler.GetThreadsResponse response = getThreads(0, 100);
+    assertEquals(2, response.getThreadsCount());
+    assertEquals(timestamps(5, 15, 25), timestamps(response.getThreads(0)));
+    assertEquals("worker", response.getThreads(1).getName());
+    assertEquals(timestamps(8, 28), timestamps(response.getThreads(1)));
+  }
+
+  @Test
+  public void testRangeStartsWithTheStateAtItsStart() {
+    pollActivities(10, activity(MAIN_TID, "main", 5, CpuProfiler.ThreadActivity.State.RUNNING));
+    pollActivities(20, activity(MAIN_TID, "main", 15, CpuProfiler.ThreadActivity.State.SLEEPING));
+    pollActivities(30, activity(MAIN_TID, "main", 25, CpuProfiler.ThreadActivity.State.RUNNING));
+    pollActivities(40, activity(MAIN_TID, "main", 35, CpuProfiler.ThreadActivity.State.SLEEPING));
+
+    CpuProfiler.GetThreadsResponse response = getThreads(20, 30);
+    assertEquals(1, response.getThreadsCount());
+    assertEquals(timestamps(15, 25), timestamps(response.getThreads(0)));
+    assertEquals(CpuProfiler.GetThreadsResponse.State.SLEEPING, response.getThreads(0).getActivities(0).getNewState());
+
+    // Range bounds are inclusive
+    assertEquals(timestamps(15, 25, 35), timestamps(getThreads(15, 35).getThreads(0)));
+  }
+
+  @Test
+  public void testDeadThreadsAreExcludedAfterTheyDie() {
+    pollActivities(10, activity(MAIN_TID, "main", 5, CpuProfiler.ThreadActivity.State.RUNNING),
+                   activity(WORKER_TID, "worker", 6, CpuProfiler.ThreadActivity.State.RUNNING));
+    pollActivities(20, activity(WORKER_TID, "worker", 15, CpuProfiler.ThreadActivity.State.DEAD));
+
+    CpuProfiler.GetThreadsResponse response = getThreads(50, 60);
+    assertEquals(1, response.getThreadsCount());
+    assertEquals(MAIN_TID, response.getThreads(0).getTid());
+    assertEquals(timestamps(5), timestamps(response.getThreads(0)));
+  }
+
+  @Test
+  public void testActivitiesOfSamplesSharingATimestamp() {
+    pollActivities(10, activity(MAIN_TID, "main", 1, CpuProfiler.ThreadActivity.State.RUNNING),
+                   activity(MAIN_TID, "main", 2, CpuProfiler.ThreadActivity.State.SLEEPING));
+    pollActivities(10, activity(MAIN_TID, "main", 3, CpuProfiler.ThreadActivity.State.RUNNING),
+                   activity(WORKER_TID, "worker", 4, CpuProfiler.ThreadActivity.State.RUNNING));
+    pollActivities(10, activity(MAIN_TID, "main", 5, CpuProfiler.ThreadActivity.State.SLEEPING));
+
+    CpuProfiler.GetThreadsResponse response = getThreads(2, 4);
+    assertEquals(2, response.getThreadsCount());
+    assertEquals(timestamps(2, 3), timestamps(response.getThreads(0)));
+    assertEquals(timestamps(4), timestamps(response.getThreads(1)));
+    assertEquals(timestamps(3, 5), timestamps(getThreads(3, 10).getThreads(0)));
+  }
+
+  private void pollActivities(long sampleTimestamp, CpuProfiler.ThreadActivity... activities) {
+    CpuProfiler.ThreadActivities.Builder builder = CpuProfiler.ThreadActivities.newBuilder();
+    for (CpuProfiler.ThreadActivity activity : activities) {
+      builder.addActivities(activity);
+    }
+    myService.myResponse = CpuProfiler.CpuDataResponse.newBuilder()
+      .addData(CpuProfiler.CpuProfilerData.newBuilder()
+                 .setBasicInfo(Common.CommonData.newBuilder().setEndTimestamp(sampleTimestamp))
+                 .setThreadActivities(builder))
+      .build();
+    assertTrue(myPoller.poll());
+  }
+
+  private CpuProfiler.GetThreadsResponse getThreads(long from, long to) {
+    List<CpuProfiler.GetThreadsResponse> responses = new ArrayList<>();
+    myPoller.getThreads(CpuProfiler.GetThreadsRequest.newBuilder().setStartTimestamp(from).setEndTimestamp(to).build(),
+                        new StreamObserver<CpuProfiler.GetThreadsResponse>() {
+                          @Override
+                          public void onNext(CpuProfiler.GetThreadsResponse response) {
+                            responses.add(response);
+                          }
+
+                          @Override
+                          public void onError(Throwable t) {
+                            throw new AssertionError(t);
+                          }
+
+                          @Override
+                          public void onCompleted() {
+                          }
+                        });
+    assertEquals(1, responses.size());
+    return responses.get(0);
+  }
+
+  private static CpuProfiler.ThreadActivity activity(int tid, String name, long timestamp, CpuProfiler.ThreadActivity.State state) {
+    return CpuProfiler.ThreadActivity.newBuilder().setTid(tid).setName(name).setTimestamp(timestamp).setNewState(state).build();
+  }
+
+  private static List<Long> timestamps(long... values) {
+    List<Long> timestamps = new ArrayList<>();
+    for (long value : values) {
+      timestamps.add(value);
+    }
+    return timestamps;
+  }
+
+  private static List<Long> timestamps(CpuProfiler.GetThreadsResponse.Thread thread) {
+    List<Long> timestamps = new ArrayList<>();
+    for (CpuProfiler.GetThreadsResponse.ThreadActivity activity : thread.getActivitiesList()) {
+      timestamps.add(activity.getTimestamp());
+    }
+    return timestamps;
+  }
+
+  private static class FakeCpuService extends CpuServiceGrpc.CpuServiceImplBase {
+    private volatile CpuProfiler.CpuDataResponse myResponse = CpuProfiler.CpuDataResponse.getDefaultInstance();
+
+    @Override
+    public void getData(CpuProfiler.CpuDataRequest request, StreamObserver<CpuProfiler.CpuDataResponse> observer) {
+      observer.onNext(myResponse);
+      observer.onCompleted();
+    }
+  }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.poller;
+
+import com.android.tools.profiler.proto.MemoryProfiler.DumpDataResponse;
+import com.google.protobuf3jarjar.ByteString;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MemoryDataPollerTest {
+  private static final int CHUNK_SIZE = MemoryDataPoller.HEAP_DUMP_CHUNK_SIZE;
+
+  @Test
+  public void testChunksAreReassembled() {
+    for (int size : new int[]{5, CHUNK_SIZE, 2 * CHUNK_SIZE + 7}) {
+      byte[] data = createData(size);
+      FakeObserver observer = new FakeObserver(Integer.MAX_VALUE);
+      new MemoryDataPoller.HeapDumpChunkWriter(new ByteArrayInputStream(data), observer).start();
+
+      assertTrue(observer.myIsCompleted);
+      assertEquals((size + CHUNK_SIZE - 1) / CHUNK_SIZE, observer.myResponses.size());
+      ByteString received = ByteString.EMPTY;
+      for (DumpDataResponse response : observer.myResponses) {
+        assertEquals(DumpDataResponse.Status.SUCCESS, response.getStatus());
+        assertTrue(response.getData().size() <= CHUNK_SIZE);
+        received = received.concat(response.getData());
+      }
+      assertEquals(ByteString.copyFrom(data), received);
+    }
+  }
+
+  @Test
+  public void testEmptyDumpIsSentAsOneEmptyChunk() {
+    FakeObserver observer = new FakeObserver(Integer.MAX_VALUE);
+    new MemoryDataPoller.HeapDumpChunkWriter(new ByteArrayInputStream(new byte[0]), observer).start();
+
+    assertTrue(observer.myIsCompleted);
+    assertEquals(1, observer.myResponses.size());
+    assertEquals(DumpDataResponse.Status.SUCCESS, observer.myResponses.get(0).getStatus());
+    assertTrue(observer.myResponses.get(0).getData().isEmpty());
+  }
+
+  @Test
+  public void testChunksAreOnlySentWhileTheClientIsReady() {
+    byte[] data = createData(3 * CHUNK_SIZE);
+    TrackingInputStream input = new TrackingInputStream(data);
+    FakeObserver observer = new FakeObserver(0);
+    new MemoryDataPoller.HeapDumpChunkWriter(input, observer).start();
+    assertTrue(observer.myResponses.isEmpty());
+    assertEquals(0, input.myReadCount);
+
+    // The dump is read as the chunks are consumed
+    observer.makeReady(1);
+    assertEquals(1, observer.myResponses.size());
+    assertEquals(CHUNK_SIZE, input.myReadCount);
+    assertFalse(observer.myIsCompleted);
+
+    observer.makeReady(Integer.MAX_VALUE);
+    assertEquals(3, observer.myResponses.size());
+    assertTrue(observer.myIsCompleted);
+    assertTrue(input.myIsClosed);
+  }
+
+  @Test
+  public void testCancelClosesTheDump() {
+    TrackingInputStream input = new TrackingInputStream(createData(2 * CHUNK_SIZE));
+    FakeObserver observer = new FakeObserver(1);
+    new MemoryDataPoller.HeapDumpChunkWriter(input, observer).start();
+    assertEquals(1, observer.myResponses.size());
+
+    observer.myOnCancelHandler.run();
+    assertTrue(input.myIsClosed);
+    observer.makeReady(Integer.MAX_VALUE);
+    assertEquals(1, observer.myResponses.size());
+    assertFalse(observer.myIsCompleted);
+  }
+
+  @Test
+  public void testReadFailureIsReported() {
+    TrackingInputStream input = new TrackingInputStream(createData(CHUNK_SIZE)) {
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        throw new IOException("Disk failure");
+      }
+    };
+    FakeObserver observer = new FakeObserver(Integer.MAX_VALUE);
+    new MemoryDataPoller.HeapDumpChunkWriter(input, observer).start();
+
+    assertEquals(Status.Code.INTERNAL, Status.fromThrowable(observer.myError).getCode());
+    assertTrue(observer.myResponses.isEmpty());
+    assertTrue(input.myIsClosed);
+  }
+
+  private static byte[] createData(int size) {
+    byte[] data = new byte[size];
+    new Random(size).nextBytes(data);
+    return data;
+  }
+
+  private static class TrackingInputStream extends FilterInputStream {
+    private int myReadCount;
+    private boolean myIsClosed;
+
+    private TrackingInputStream(byte[] data) {
+      super(new ByteArrayInputStream(data));
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = super.read(b, off, len);
+      if (read > 0) {
+        myReadCount += read;
+      }
+      return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+      myIsClosed = true;
+      super.close();
+    }
+  }
+
+  /**
+   * Observer that is ready for a given number of messages, like a transport whose buffer fills up.
+   */
+  private static class FakeObserver extends ServerCallStreamObserver<DumpDataResponse> {
+    private final List<DumpDataResponse> myResponses = new ArrayList<>();
+    private int myReadyCount;
+    private Runnable myOnReadyHandler;
+    private Runnable myOnCancelHandler;
+    private boolean myIsCompleted;
+    private Throwable myError;
+
+    private FakeObserver(int readyCount) {
+      myReadyCount = readyCount;
+    }
+
+    private void makeReady(int readyCount) {
+      myReadyCount = readyCount;
+      myOnReadyHandler.run();
+    }
+
+    @Override
+    public boolean isReady() {
+      return myReadyCount > 0;
+    }
+
+    @Override
+    public void onNext(DumpDataResponse value) {
+      assertTrue(isReady());
+      myReadyCount--;
+      myResponses.add(value);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      myError = t;
+    }
+
+    @Override
+    public void onCompleted() {
+      myIsCompleted = true;
+    }
+
+    @Override
+    public void setOnReadyHandler(Runnable onReadyHandler) {
+      myOnReadyHandler = onReadyHandler;
+    }
+
+    @Override
+    public void setOnCancelHandler(Runnable onCancelHandler) {
+      myOnCancelHandler = onCancelHandler;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return false;
+    }
+
+    @Override
+    public void disableAutoInboundFlowControl() {
+    }
+
+    @Override
+    public void request(int count) {
+    }
+
+    @Override
+    public void setMessageCompression(boolean enable) {
+    }
+
+    @Override
+    public void setCompression(String compression) {
+    }
+  }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.poller;
+
+import com.android.tools.datastore.DeviceClock;
+import com.android.tools.datastore.ServiceMetrics;
+import com.android.tools.datastore.store.HeapStoreFactory;
+import com.android.tools.profiler.proto.Common;
+import com.android.tools.profiler.proto.NetworkProfiler;
+import com.android.tools.profiler.proto.NetworkServiceGrpc;
+import io.grpc.CallOptions;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerMethodDefinition;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NetworkDataPollerTest {
+  private static final int APP_ID = 1;
+  private static final long CONNECTION_ID = 42;
+  private static final String URL = "http://example.com";
+
+  private static final MethodDescriptor<NetworkProfiler.NetworkDataRequest, NetworkProfiler.NetworkDataResponse> METHOD_STREAM_DATA =
+    StreamRunner.createStreamDataMethod(NetworkServiceGrpc.SERVICE_NAME, NetworkProfiler.NetworkDataRequest.getDefaultInstance(),
+                                        NetworkProfiler.NetworkDataResponse.getDefaultInstance());
+
+  private final FakeNetworkService myService = new FakeNetworkService();
+  private final CountDownLatch myReleaseHttpRange = new CountDownLatch(1);
+  private ExecutorService myExecutor;
+  private PollScheduler myScheduler;
+  private Server myServer;
+  private ManagedChannel myChannel;
+  private NetworkDataPoller myPoller;
+
+  @Before
+  public void setUp() throws IOException {
+    // Serve the streaming call next to the regular ones, pushing two batches and keeping the stream open.
+    ServerServiceDefinition.Builder service = ServerServiceDefinition.builder(NetworkServiceGrpc.SERVICE_NAME);
+    for (ServerMethodDefinition<?, ?> method : myService.bindService().getMethods()) {
+      service.addMethod(method);
+    }
+    service.addMethod(METHOD_STREAM_DATA, ServerCalls.asyncServerStreamingCall((request, observer) -> {
+      observer.onNext(createSpeedBatch(10));
+      observer.onNext(createSpeedBatch(20));
+    }));
+
+    String name = "NetworkDataPollerTest" + System.nanoTime();
+    myServer = InProcessServerBuilder.forName(name).addService(service.build()).build().start();
+    myChannel = InProcessChannelBuilder.forName(name).build();
+    myExecutor = Executors.newCachedThreadPool();
+    myScheduler = new PollScheduler(myExecutor);
+    myPoller = new NetworkDataPoller(new HeapStoreFactory(), new ServiceMetrics("network", new DeviceClock()));
+    myPoller.connectService(myChannel);
+  }
+
+  @After
+  public void tearDown() {
+    myReleaseHttpRange.countDown();
+    myPoller.stopPolling();
+    myScheduler.stop();
+    myChannel.shutdownNow();
+    myServer.shutdownNow();
+    myExecutor.shutdownNow();
+  }
+
+  @Test
+  public void testStreamedDataIsNotBlockedByHttpConnections() throws InterruptedException {
+    startMonitoring();
+    // The device is slow to answer for its HTTP connections, which must not hold back the streamed data.
+    assertTrue(waitFor(() -> getSpeedSampleCount() == 2));
+    assertEquals(1, myReleaseHttpRange.getCount());
+
+    myReleaseHttpRange.countDown();
+    assertTrue(waitFor(() -> getConnectionCount() == 1));
+    assertTrue(waitFor(() -> URL.equals(getRequestUrl())));
+  }
+
+  @Test
+  public void testMissingDetailsAreEmpty() {
+    NetworkProfiler.HttpDetailsRequest request = NetworkProfiler.HttpDetailsRequest.newBuilder()
+      .setConnId(CONNECTION_ID)
+      .setType(NetworkProfiler.HttpDetailsRequest.Type.REQUEST)
+      .build();
+    List<NetworkProfiler.HttpDetailsResponse> responses = new ArrayList<>();
+    myPoller.getHttpDetails(request, new CollectingObserver<>(responses));
+    assertEquals(NetworkProfiler.HttpDetailsResponse.getDefaultInstance(), responses.get(0));
+  }
+
+  @Test
+  public void testDetailsBatch() throws Exception {
+    startMonitoring();
+    myReleaseHttpRange.countDown();
+    assertTrue(waitFor(() -> URL.equals(getRequestUrl())));
+
+    String name = "NetworkDataPollerTestBatch" + System.nanoTime();
+    Server server = InProcessServerBuilder.forName(name).addService(myPoller.getService()).build().start();
+    ManagedChannel channel = InProcessChannelBuilder.forName(name).build();
+    try {
+      List<NetworkProfiler.HttpDetailsResponse> responses = new ArrayList<>();
+      CountDownLatch completed = new CountDownLatch(1);
+      StreamObserver<NetworkProfiler.HttpDetailsResponse> responseObserver =
+        new CollectingObserver<NetworkProfiler.HttpDetailsResponse>(responses) {
+          @Override
+          public void onCompleted() {
+            completed.countDown();
+          }
+        };
+      StreamObserver<NetworkProfiler.HttpDetailsRequest> requests =
+        ClientCalls.asyncBidiStreamingCall(channel.newCall(NetworkDataPoller.METHOD_GET_HTTP_DETAILS_BATCH, CallOptions.DEFAULT),
+                                           responseObserver);
+      requests.onNext(NetworkProfiler.HttpDetailsRequest.newBuilder()
+                        .setConnId(CONNECTION_ID)
+                        .setType(NetworkProfiler.HttpDetailsRequest.Type.REQUEST)
+                        .build());
+      requests.onNext(NetworkProfiler.HttpDetailsRequest.newBuilder()
+                        .setConnId(CONNECTION_ID + 1)
+                        .setType(NetworkProfiler.HttpDetailsRequest.Type.REQUEST)
+                        .build());
+      requests.onCompleted();
+
+      assertTrue(completed.await(10, TimeUnit.SECONDS));
+      assertEquals(2, responses.size());
+      assertEquals(URL, responses.get(0).getRequest().getUrl());
+      assertEquals(NetworkProfiler.HttpDetailsResponse.getDefaultInstance(), responses.get(1));
+    }
+    finally {
+      channel.shutdownNow();
+      server.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testDetailsBatchIsClosedWhenTheClientFails() {
+    List<NetworkProfiler.HttpDetailsResponse> responses = new ArrayList<>();
+    AtomicReference<Throwable> error = new AtomicReference<>();
+    StreamObserver<NetworkProfiler.HttpDetailsRequest> requests =
+      myPoller.getHttpDetailsBatch(new CollectingObserver<NetworkProfiler.HttpDetailsResponse>(responses) {
+        @Override
+        public void onError(Throwable t) {
+          error.set(t);
+        }
+      });
+    requests.onError(Status.CANCELLED.asRuntimeException());
+    assertEquals(Status.Code.CANCELLED, Status.fromThrowable(error.get()).getCode());
+    assertTrue(responses.isEmpty());
+  }
+
+  private static NetworkProfiler.NetworkDataResponse createSpeedBatch(long timestamp) {
+    return NetworkProfiler.NetworkDataResponse.newBuilder()
+      .addData(NetworkProfiler.NetworkProfilerData.newBuilder()
+                 .setBasicInfo(Common.CommonData.newBuilder().setEndTimestamp(timestamp))
+                 .setSpeedData(NetworkProfiler.SpeedData.newBuilder().setReceived(100)))
+      .build();
+  }
+
+  private void startMonitoring() {
+    myPoller.startMonitoringApp(NetworkProfiler.NetworkStartRequest.newBuilder().setAppId(APP_ID).build(),
+                                new CollectingObserver<>(new ArrayList<>()));
+    myPoller.startPolling(myScheduler);
+    myScheduler.start();
+  }
+
+  private int getSpeedSampleCount() {
+    List<NetworkProfiler.NetworkDataResponse> responses = new ArrayList<>();
+    myPoller.getData(NetworkProfiler.NetworkDataRequest.newBuilder()
+                       .setType(NetworkProfiler.NetworkDataRequest.Type.SPEED)
+                       .setStartTimestamp(Long.MIN_VALUE)
+                       .setEndTimestamp(Long.MAX_VALUE)
+                       .build(), new CollectingObserver<>(responses));
+    return responses.get(0).getDataCount();
+  }
+
+  private int getConnectionCount() {
+    List<NetworkProfiler.HttpRangeResponse> responses = new ArrayList<>();
+    myPoller.getHttpRange(NetworkProfiler.HttpRangeRequest.newBuilder()
+                            .setStartTimestamp(Long.MIN_VALUE)
+                            .setEndTimestamp(Long.MAX_VALUE)
+                            .build(), new CollectingObserver<>(responses));
+    return responses.get(0).getDataCount();
+  }
+
+  private String getRequestUrl() {
+    List<NetworkProfiler.HttpDetailsResponse> responses = new ArrayList<>();
+    myPoller.getHttpDetails(NetworkProfiler.HttpDetailsRequest.newBuilder()
+                              .setConnId(CONNECTION_ID)
+                              .setType(NetworkProfiler.HttpDetailsRequest.Type.REQUEST)
+                              .build(), new CollectingObserver<>(responses));
+    return responses.get(0).getRequest().getUrl();
+  }
+
+  private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+    long deadlineNs = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!condition.getAsBoolean()) {
+      if (System.nanoTime() > deadlineNs) {
+        return false;
+      }
+      Thread.sleep(10);
+    }
+    return true;
+  }
+
+  private static class CollectingObserver<T> implements StreamObserver<T> {
+    private final List<T> myValues;
+
+    private CollectingObserver(List<T> values) {
+      myValues = values;
+    }
+
+    @Override
+    public void onNext(T value) {
+      myValues.add(value);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      throw new AssertionError(t);
+    }
+
+    @Override
+    public void onCompleted() {
+    }
+  }
+
+  private class FakeNetworkService extends NetworkServiceGrpc.NetworkServiceImplBase {
+    private boolean myHasSentConnection;
+
+    @Override
+    public void startMonitoringApp(NetworkProfiler.NetworkStartRequest request,
+                                   StreamObserver<NetworkProfiler.NetworkStartResponse> observer) {
+      observer.onNext(NetworkProfiler.NetworkStartResponse.getDefaultInstance());
+      observer.onCompleted();
+    }
+
+    @Override
+    public void getHttpRange(NetworkProfiler.HttpRangeRequest request, StreamObserver<NetworkProfiler.HttpRangeResponse> observer) {
+      try {
+        myReleaseHttpRange.await();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      NetworkProfiler.HttpRangeResponse.Builder response = NetworkProfiler.HttpRangeResponse.newBuilder();
+      if (!myHasSentConnection) {
+        myHasSentConnection = true;
+        response.addData(NetworkProfiler.HttpConnectionData.newBuilder().setConnId(CONNECTION_ID).setStartTimestamp(5));
+      }
+      observer.onNext(response.build());
+      observer.onCompleted();
+    }
+
+    @Override
+    public void getHttpDetails(NetworkProfiler.HttpDetailsRequest request, StreamObserver<NetworkProfiler.HttpDetailsResponse> observer) {
+      observer.onNext(NetworkProfiler.HttpDetailsResponse.newBuilder()
+                        .setRequest(NetworkProfiler.HttpDetailsResponse.Request.newBuilder().setUrl(URL))
+                        .build());
+      observer.onCompleted();
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.poller;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+import io.grpc.Context;
+import io.grpc.Status;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PollSchedulerTest {
+  private ExecutorService myExecutor;
+  private PollScheduler myScheduler;
+
+  @Before
+  public void setUp() {
+    myExecutor = Executors.newCachedThreadPool();
+    myScheduler = new PollScheduler(myExecutor);
+  }
+
+  @After
+  public void tearDown() {
+    myScheduler.stop();
+    myExecutor.shutdownNow();
+  }
+
+  @Test
+  public void testIdlePollersAreBackedOff() {
+    for (int i = 0; i < PollScheduler.IDLE_POLLS_BEFORE_BACKOFF; i++) {
+      assertEquals(PollScheduler.POLLING_DELAY_NS, PollScheduler.getPeriodNs(false, i));
+    }
+    assertEquals(PollScheduler.POLLING_DELAY_NS * 2, PollScheduler.getPeriodNs(false, PollScheduler.IDLE_POLLS_BEFORE_BACKOFF));
+    assertEquals(PollScheduler.POLLING_DELAY_NS * 4, PollScheduler.getPeriodNs(false, PollScheduler.IDLE_POLLS_BEFORE_BACKOFF + 1));
+    assertEquals(PollScheduler.MAX_POLLING_DELAY_NS, PollScheduler.getPeriodNs(false, PollScheduler.IDLE_POLLS_BEFORE_BACKOFF + 2));
+    assertEquals(PollScheduler.MAX_POLLING_DELAY_NS, PollScheduler.getPeriodNs(false, Integer.MAX_VALUE));
+  }
+
+  @Test
+  public void testCapturingPollersAreNeverBackedOff() {
+    assertEquals(PollScheduler.CAPTURE_POLLING_DELAY_NS, PollScheduler.getPeriodNs(true, 0));
+    assertEquals(PollScheduler.CAPTURE_POLLING_DELAY_NS, PollScheduler.getPeriodNs(true, 100));
+  }
+
+  @Test
+  public void testFailingPollerDoesNotStopOthers() throws InterruptedException {
+    CountDownLatch failingPolls = new CountDownLatch(2);
+    CountDownLatch polls = new CountDownLatch(2);
+    myScheduler.register(() -> {
+      failingPolls.countDown();
+      throw new IllegalStateException("Test failure");
+    });
+    myScheduler.register(() -> {
+      polls.countDown();
+      return true;
+    });
+    myScheduler.start();
+
+    assertTrue(failingPolls.await(10, TimeUnit.SECONDS));
+    assertTrue(polls.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testPollsRunOnTheSchedulerThread() throws InterruptedException {
+    Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    CountDownLatch polls = new CountDownLatch(4);
+    for (int i = 0; i < 2; i++) {
+      myScheduler.register(() -> {
+        threads.add(Thread.currentThread());
+        polls.countDown();
+        return true;
+      });
+    }
+    myScheduler.start();
+
+    assertTrue(polls.await(10, TimeUnit.SECONDS));
+    assertEquals(1, threads.size());
+  }
+
+  @Test
+  public void testStalledPollIsCancelledAtItsDeadline() throws InterruptedException {
+    myScheduler = new PollScheduler(myExecutor, TimeUnit.MILLISECONDS.toNanos(100));
+    AtomicInteger stalledPolls = new AtomicInteger();
+    CountDownLatch polls = new CountDownLatch(2);
+    myScheduler.register(() -> {
+      // Waits like a device call that gets no answer, until the deadline cancels it.
+      stalledPolls.incrementAndGet();
+      CountDownLatch cancelled = new CountDownLatch(1);
+      Context.current().addListener(context -> cancelled.countDown(), MoreExecutors.directExecutor());
+      Uninterruptibles.awaitUninterruptibly(cancelled);
+      throw Status.DEADLINE_EXCEEDED.asRuntimeException();
+    });
+    myScheduler.register(() -> {
+      polls.countDown();
+      return true;
+    });
+    myScheduler.start();
+
+    assertTrue(polls.await(10, TimeUnit.SECONDS));
+    assertTrue(stalledPolls.get() >= 1);
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.poller;
+
+import com.android.tools.profiler.proto.Profiler;
+import io.grpc.*;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ServerCalls;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class StreamRunnerTest {
+  private static final String SERVICE_NAME = "test.StreamService";
+  private static final MethodDescriptor<Profiler.TimesRequest, Profiler.TimesResponse> METHOD_STREAM_DATA =
+    StreamRunner.createStreamDataMethod(SERVICE_NAME, Profiler.TimesRequest.getDefaultInstance(),
+                                        Profiler.TimesResponse.getDefaultInstance());
+
+  private final AtomicInteger myCallCount = new AtomicInteger();
+  private final BlockingQueue<Profiler.TimesResponse> myReceived = new LinkedBlockingQueue<>();
+  private final CountDownLatch myFallbackPolled = new CountDownLatch(1);
+  private ExecutorService myExecutor;
+  private ScheduledThreadPoolExecutor myReopenExecutor;
+  private PollScheduler myScheduler;
+  private Server myServer;
+  private ManagedChannel myChannel;
+  private StreamRunner<Profiler.TimesRequest, Profiler.TimesResponse> myRunner;
+
+  @Before
+  public void setUp() {
+    myExecutor = Executors.newCachedThreadPool();
+    myReopenExecutor = new ScheduledThreadPoolExecutor(1);
+    myScheduler = new PollScheduler(myExecutor);
+    myScheduler.start();
+  }
+
+  @After
+  public void tearDown() {
+    if (myRunner != null) {
+      myRunner.stop();
+      myChannel.shutdownNow();
+      myServer.shutdownNow();
+    }
+    myScheduler.stop();
+    myReopenExecutor.shutdownNow();
+    myExecutor.shutdownNow();
+  }
+
+  @Test
+  public void testFallsBackToPollingWhenStreamingIsNotSupported() throws IOException, InterruptedException {
+    startServer(ServerServiceDefinition.builder(SERVICE_NAME).build());
+
+    assertTrue(myFallbackPolled.await(10, TimeUnit.SECONDS));
+    assertTrue(myRunner.isPolling());
+  }
+
+  @Test
+  public void testReopensAfterTransientFailures() throws IOException, InterruptedException {
+    startServer(ServerServiceDefinition.builder(SERVICE_NAME).addMethod(METHOD_STREAM_DATA, ServerCalls.asyncServerStreamingCall(
+      (request, observer) -> {
+        switch (myCallCount.incrementAndGet()) {
+          case 1:
+            observer.onError(Status.UNAVAILABLE.asRuntimeException());
+            break;
+          case 2:
+            observer.onError(Status.INTERNAL.asRuntimeException());
+            break;
+          default:
+            // Keep the stream open after the first batch.
+            observer.onNext(Profiler.TimesResponse.newBuilder().setTimestampNs(myCallCount.get()).build());
+        }
+      })).build());
+
+    Profiler.TimesResponse response = myReceived.poll(10, TimeUnit.SECONDS);
+    assertNotNull(response);
+    assertEquals(3, response.getTimestampNs());
+    assertFalse(myRunner.isPolling());
+    assertEquals(1, myFallbackPolled.getCount());
+  }
+
+  @Test
+  public void testBacksOffWhenTheDeviceCancelsTheStream() throws IOException, InterruptedException {
+    startServer(ServerServiceDefinition.builder(SERVICE_NAME).addMethod(METHOD_STREAM_DATA, ServerCalls.asyncServerStreamingCall(
+      (request, observer) -> {
+        myCallCount.incrementAndGet();
+        observer.onError(Status.CANCELLED.asRuntimeException());
+      })).build());
+
+    // The stream is reopened after a delay, instead of right away
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (myReopenExecutor.getQueue().isEmpty() && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(1, myReopenExecutor.getQueue().size());
+    assertEquals(1, myCallCount.get());
+  }
+
+  @Test
+  public void testRestartReopensImmediately() throws IOException, InterruptedException {
+    CountDownLatch reopened = new CountDownLatch(2);
+    startServer(ServerServiceDefinition.builder(SERVICE_NAME).addMethod(METHOD_STREAM_DATA, ServerCalls.asyncServerStreamingCall(
+      (request, observer) -> {
+        // Keep the stream open until it is cancelled.
+        observer.onNext(Profiler.TimesResponse.newBuilder().setTimestampNs(myCallCount.incrementAndGet()).build());
+        reopened.countDown();
+      })).build());
+
+    assertNotNull(myReceived.poll(10, TimeUnit.SECONDS));
+    myRunner.restart();
+    assertTrue(reopened.await(10, TimeUnit.SECONDS));
+    assertEquals(2, myCallCount.get());
+    assertTrue(myReopenExecutor.getQueue().isEmpty());
+  }
+
+  @Test
+  public void testReopenDelayGrowsWithFailures() {
+    assertEquals(StreamRunner.INITIAL_REOPEN_DELAY_MS, StreamRunner.getReopenDelayMs(0));
+    assertEquals(StreamRunner.INITIAL_REOPEN_DELAY_MS * 2, StreamRunner.getReopenDelayMs(1));
+    assertEquals(StreamRunner.INITIAL_REOPEN_DELAY_MS * 4, StreamRunner.getReopenDelayMs(2));
+    assertEquals(StreamRunner.MAX_REOPEN_DELAY_MS, StreamRunner.getReopenDelayMs(10));
+    assertEquals(StreamRunner.MAX_REOPEN_DELAY_MS, StreamRunner.getReopenDelayMs(Integer.MAX_VALUE));
+  }
+
+  private void startServer(ServerServiceDefinition service) throws IOException {
+    String name = "StreamRunnerTest" + System.nanoTime();
+    myServer = InProcessServerBuilder.forName(name).addService(service).build().start();
+    myChannel = InProcessChannelBuilder.forName(name).build();
+    myRunner = new StreamRunner<>(myChannel, METHOD_STREAM_DATA, Profiler.TimesRequest::getDefaultInstance, myReceived::add, myScheduler,
+                                  () -> {
+                                    myFallbackPolled.countDown();
+                                    return false;
+                                  }, myReopenExecutor);
+    myRunner.start();
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.store;
+
+import com.google.protobuf3jarjar.ByteString;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class DiskBlobStoreTest {
+  private File myDirectory;
+  private DiskBlobStore myStore;
+
+  @Before
+  public void setUp() throws IOException {
+    myDirectory = Files.createTempDirectory("datastore").toFile();
+    myStore = new DiskBlobStore(myDirectory, "heapdump");
+  }
+
+  @After
+  public void tearDown() {
+    myStore.clear();
+    myDirectory.delete();
+  }
+
+  @Test
+  public void testGet() {
+    myStore.put(1, ByteString.copyFromUtf8("first"));
+    myStore.put(2, ByteString.copyFromUtf8("second"));
+    assertEquals("first", myStore.get(1).toStringUtf8());
+    assertEquals("second", myStore.get(2).toStringUtf8());
+    assertNull(myStore.get(3));
+  }
+
+  @Test
+  public void testOpenStream() throws IOException {
+    byte[] data = new byte[100000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte)i;
+    }
+    myStore.put(1, ByteString.copyFrom(data));
+    assertEquals(data.length, myStore.getSize(1));
+    assertEquals(-1, myStore.getSize(2));
+    assertNull(myStore.openStream(2));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (InputStream in = myStore.openStream(1)) {
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+    }
+    assertArrayEquals(data, out.toByteArray());
+  }
+
+  @Test
+  public void testClearDeletesFiles() {
+    myStore.put(1, ByteString.copyFromUtf8("first"));
+    assertEquals(1, myDirectory.listFiles().length);
+    myStore.clear();
+    assertEquals(0, myDirectory.listFiles().length);
+    assertNull(myStore.get(1));
+    assertEquals(-1, myStore.getSize(1));
+  }
+
+  @Test
+  public void testReturnedPayloadsOutliveTheirId() {
+    myStore.put(1, ByteString.copyFromUtf8("first"));
+    ByteString first = myStore.get(1);
+    assertTrue(first.asReadOnlyByteBuffer().isReadOnly());
+    myStore.clear();
+    myStore.put(1, ByteString.copyFromUtf8("second"));
+    assertEquals("second", myStore.get(1).toStringUtf8());
+    assertEquals("first", first.toStringUtf8());
+  }
+}
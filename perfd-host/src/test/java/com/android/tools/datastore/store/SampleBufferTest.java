@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.store;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class SampleBufferTest {
+  @Test
+  public void testVisit() {
+    SampleBuffer<String> buffer = new SampleBuffer<>(8);
+    buffer.append(10, "a");
+    buffer.append(20, "b");
+    buffer.append(20, "c");
+    buffer.append(30, "d");
+
+    assertEquals(4, buffer.size());
+    assertEquals(30, buffer.getLastTimestamp());
+    assertEquals(list("a", "b", "c", "d"), visit(buffer, Long.MIN_VALUE, Long.MAX_VALUE));
+    // Start is exclusive and end inclusive, samples sharing a timestamp are visited together
+    assertEquals(list("b", "c"), visit(buffer, 10, 20));
+    assertEquals(list("d"), visit(buffer, 20, 30));
+    assertEquals(list(), visit(buffer, 30, 40));
+    assertEquals(list(), visit(buffer, 0, 5));
+  }
+
+  @Test
+  public void testEmpty() {
+    SampleBuffer<String> buffer = new SampleBuffer<>(4);
+    assertEquals(0, buffer.size());
+    assertFalse(buffer.isFull());
+    assertEquals(Long.MIN_VALUE, buffer.getLastTimestamp());
+    assertEquals(0, buffer.copyTimestamps().length);
+    assertEquals(list(), visit(buffer, Long.MIN_VALUE, Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testGrowLeavesOriginalUntouched() {
+    SampleBuffer<String> buffer = new SampleBuffer<>(2);
+    buffer.append(1, "a");
+    buffer.append(2, "b");
+    assertTrue(buffer.isFull());
+
+    SampleBuffer<String> grown = buffer.grow();
+    assertFalse(grown.isFull());
+    grown.append(3, "c");
+
+    assertEquals(list("a", "b"), visit(buffer, Long.MIN_VALUE, Long.MAX_VALUE));
+    assertEquals(list("a", "b", "c"), visit(grown, Long.MIN_VALUE, Long.MAX_VALUE));
+    assertArrayEquals(new long[]{1, 2, 3}, grown.copyTimestamps());
+  }
+
+  @Test
+  public void testReadersSeeConsistentPrefix() throws InterruptedException {
+    int count = 100000;
+    SampleBuffer<Long> buffer = new SampleBuffer<>(count);
+    AtomicBoolean done = new AtomicBoolean();
+    AtomicReference<String> error = new AtomicReference<>();
+    Thread reader = new Thread(() -> {
+      while (!done.get() && error.get() == null) {
+        int size = buffer.size();
+        List<Long> samples = new ArrayList<>();
+        buffer.visit(Long.MIN_VALUE, Long.MAX_VALUE, samples::add);
+        if (samples.size() < size) {
+          error.set("Visited " + samples.size() + " samples out of " + size);
+        }
+        for (int i = 0; i < samples.size(); i++) {
+          if (samples.get(i) == null || samples.get(i) != i) {
+            error.set("Unexpected sample " + samples.get(i) + " at " + i);
+            break;
+          }
+        }
+      }
+    });
+    reader.start();
+    for (long i = 0; i < count; i++) {
+      buffer.append(i, i);
+    }
+    done.set(true);
+    reader.join();
+    assertNull(error.get());
+    assertEquals(count, buffer.size());
+  }
+
+  private static <T> List<T> visit(SampleBuffer<T> buffer, long startExclusive, long endInclusive) {
+    List<T> samples = new ArrayList<>();
+    buffer.visit(startExclusive, endInclusive, samples::add);
+    return samples;
+  }
+
+  @SafeVarargs
+  private static <T> List<T> list(T... values) {
+    List<T> list = new ArrayList<>();
+    for (T value : values) {
+      list.add(value);
+    }
+    return list;
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.store;
+
+import com.android.tools.profiler.proto.MemoryProfiler.MemoryData.MemorySample;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SegmentedTimeSeriesStoreTest {
+  private static final int HOT_WINDOW_SIZE = 4;
+
+  private File myDirectory;
+  private SegmentedTimeSeriesStore<MemorySample> myStore;
+
+  @Before
+  public void setUp() throws IOException {
+    myDirectory = Files.createTempDirectory("datastore").toFile();
+    myStore = new SegmentedTimeSeriesStore<>(myDirectory, "memory", MemorySample.parser(), HOT_WINDOW_SIZE);
+  }
+
+  @After
+  public void tearDown() {
+    myStore.clear();
+    File[] files = myDirectory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    myDirectory.delete();
+  }
+
+  @Test
+  public void testVisitAcrossSegments() {
+    for (int i = 1; i <= 10; i++) {
+      myStore.add(i * 10, MemorySample.newBuilder().setTimestamp(i * 10).setJavaMem(i).build());
+    }
+    // Two sealed segments of 4 samples and 2 samples in the hot window
+    assertEquals(10, myStore.size());
+    assertEquals(1, countFiles());
+
+    assertEquals(timestamps(10, 20, 30, 40, 50, 60, 70, 80, 90, 100), visit(Long.MIN_VALUE, Long.MAX_VALUE));
+    // Start is exclusive and end inclusive, including at the segment boundaries
+    assertEquals(timestamps(50, 60, 70, 80, 90), visit(40, 90));
+    assertEquals(timestamps(40), visit(39, 40));
+    assertEquals(timestamps(), visit(100, 200));
+    assertEquals(timestamps(), visit(0, 5));
+  }
+
+  @Test
+  public void testSamplesAreDecodedFromSegments() {
+    for (int i = 1; i <= 5; i++) {
+      myStore.add(i, MemorySample.newBuilder().setTimestamp(i).setJavaMem(i * 100).build());
+    }
+    List<MemorySample> samples = new ArrayList<>();
+    myStore.visit(0, 4, samples::add);
+    assertEquals(4, samples.size());
+    assertEquals(300, samples.get(2).getJavaMem());
+  }
+
+  @Test
+  public void testClear() {
+    for (int i = 1; i <= 9; i++) {
+      myStore.add(i, MemorySample.newBuilder().setTimestamp(i).build());
+    }
+    myStore.clear();
+    assertEquals(0, myStore.size());
+    assertEquals(0, countFiles());
+    assertEquals(timestamps(), visit(Long.MIN_VALUE, Long.MAX_VALUE));
+
+    myStore.add(1, MemorySample.newBuilder().setTimestamp(1).build());
+    assertEquals(timestamps(1), visit(0, 1));
+  }
+
+  private List<Long> visit(long startExclusive, long endInclusive) {
+    List<Long> timestamps = new ArrayList<>();
+    myStore.visit(startExclusive, endInclusive, sample -> timestamps.add(sample.getTimestamp()));
+    return timestamps;
+  }
+
+  private static List<Long> timestamps(long... values) {
+    List<Long> timestamps = new ArrayList<>();
+    for (long value : values) {
+      timestamps.add(value);
+    }
+    return timestamps;
+  }
+
+  private int countFiles() {
+    File[] files = myDirectory.listFiles();
+    return files == null ? 0 : files.length;
+  }
+}
@@ -22,6 +22,7 @@ import com.android.tools.adtui.common.ColumnTreeBuilder;
 import com.android.tools.adtui.model.HNode;
 import com.android.tools.profilers.ProfilerTimeline;
 import com.intellij.icons.AllIcons;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.ui.ColoredTreeCellRenderer;
 import com.intellij.ui.JBColor;
 import com.intellij.ui.SimpleTextAttributes;
@@ -29,8 +30,11 @@ import com.intellij.ui.components.JBTabbedPane;
 import com.intellij.ui.tabs.impl.ShapeTransform;
 import com.intellij.util.PlatformIcons;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
+import javax.swing.event.TreeExpansionEvent;
+import javax.swing.event.TreeExpansionListener;
 import javax.swing.tree.DefaultMutableTreeNode;
 import java.util.Collections;
 import java.util.Comparator;
@@ -44,10 +48,9 @@ public class CpuCaptureView {
   private final CpuCapture myCapture;
   private final HTreeChart<MethodModel> myCaptureTreeChart;
   private final JBTabbedPane myPanel;
-  private final JTree myTree;
-  private final RangedTree myRangedTree;
+  private final CallTreeView myTopDown;
+  private final CallTreeView myBottomUp;
   private final CpuProfilerStageView myView;
-  private final CpuTraceTreeSorter myTreeSorter;
   private final Comparator<DefaultMutableTreeNode> myDefaultSortOrder;
 
   public CpuCaptureView(@NotNull CpuCapture capture, @NotNull CpuProfilerStageView view) {
@@ -55,7 +58,7 @@ public class CpuCaptureView {
     ProfilerTimeline timeline = view.getStage().getStudioProfilers().getTimeline();
 
     // Reverse the order as the default ordering is SortOrder.ASCENDING
-    myDefaultSortOrder = Collections.reverseOrder(new DoubleValueNodeComparator(TopDownNode::getTotal));
+    myDefaultSortOrder = Collections.reverseOrder(new DoubleValueNodeComparator(CpuTreeNode::getTotal));
     myCapture = capture;
     myView = view;
 
@@ -63,54 +66,12 @@ public class CpuCaptureView {
     myCaptureTreeChart.setHRenderer(new SampledMethodUsageHRenderer());
     myCaptureTreeChart.setXRange(timeline.getSelectionRange());
 
-    myTree = new JTree();
-    myTreeSorter = new CpuTraceTreeSorter(myTree);
-    myRangedTree = new RangedTree(timeline.getSelectionRange());
-    JComponent columnTree = new ColumnTreeBuilder(myTree)
-      .addColumn(new ColumnTreeBuilder.ColumnBuilder()
-          .setName("Name")
-          .setPreferredWidth(900)
-          .setHeaderAlignment(SwingConstants.LEFT)
-          .setRenderer(new MethodNameRenderer())
-          .setComparator(new NameValueNodeComparator()))
-      .addColumn(new ColumnTreeBuilder.ColumnBuilder()
-          .setName("Self (μs)")
-          .setPreferredWidth(100)
-          .setHeaderAlignment(SwingConstants.RIGHT)
-          .setRenderer(new DoubleValueCellRenderer(TopDownNode::getSelf, false))
-          .setComparator(new DoubleValueNodeComparator(TopDownNode::getSelf)))
-      .addColumn(new ColumnTreeBuilder.ColumnBuilder()
-          .setName("%")
-          .setPreferredWidth(50)
-          .setRenderer(new DoubleValueCellRenderer(TopDownNode::getSelf, true))
-          .setComparator(new DoubleValueNodeComparator(TopDownNode::getSelf)))
-      .addColumn(new ColumnTreeBuilder.ColumnBuilder()
-          .setName("Children (μs)")
-          .setPreferredWidth(100)
-          .setHeaderAlignment(SwingConstants.RIGHT)
-          .setRenderer(new DoubleValueCellRenderer(TopDownNode::getChildrenTotal, false))
-          .setComparator(new DoubleValueNodeComparator(TopDownNode::getChildrenTotal)))
-      .addColumn(new ColumnTreeBuilder.ColumnBuilder()
-          .setName("%")
-          .setPreferredWidth(50)
-          .setRenderer(new DoubleValueCellRenderer(TopDownNode::getChildrenTotal, true))
-          .setComparator(new DoubleValueNodeComparator(TopDownNode::getChildrenTotal)))
-      .addColumn(new ColumnTreeBuilder.ColumnBuilder()
-          .setName("Total (μs)")
-          .setPreferredWidth(100)
-          .setHeaderAlignment(SwingConstants.RIGHT)
-          .setRenderer(new DoubleValueCellRenderer(TopDownNode::getTotal, false))
-          .setComparator(myDefaultSortOrder))
-      .addColumn(new ColumnTreeBuilder.ColumnBuilder()
-          .setName("%")
-          .setPreferredWidth(50)
-          .setRenderer(new DoubleValueCellRenderer(TopDownNode::getTotal, true))
-          .setComparator(myDefaultSortOrder))
-      .setTreeSorter(myTreeSorter)
-      .build();
+    myTopDown = new CallTreeView(timeline);
+    myBottomUp = new CallTreeView(timeline);
 
     myPanel = new JBTabbedPane();
-    myPanel.addTab("Top Down", columnTree);
+    myPanel.addTab("Top Down", myTopDown.myComponent);
+    myPanel.addTab("Bottom Up", myBottomUp.myComponent);
     myPanel.addTab("Chart", myCaptureTreeChart);
 
     updateThread();
@@ -121,23 +82,10 @@ public class CpuCaptureView {
     // Updates the horizontal tree displayed in capture panel
     HNode<MethodModel> node = myCapture.getCaptureNode(id);
     myCaptureTreeChart.setHTree(node);
-    // Updates the topdown column tree displayed in capture panel
-    TopDownTreeModel model = node == null ? null : new TopDownTreeModel(new TopDownNode(node));
-    myRangedTree.setModel(model);
-    myTree.setModel(model);
-    myTreeSorter.setModel(model, myDefaultSortOrder);
-    expandTreeNodes();
-  }
-
-  /**
-   * Expands a few nodes in order to improve the visual feedback of the list.
-   */
-  private void expandTreeNodes() {
-    int maxRowsToExpand = 8; // TODO: adjust this value if necessary.
-    int i = 0;
-    while (i < myTree.getRowCount() && i < maxRowsToExpand) {
-      myTree.expandRow(i++);
-    }
+    // Updates the topdown and bottomup column trees displayed in capture panel
+    CallTree tree = myCapture.getCallTree(id);
+    myTopDown.setModel(tree == null ? null : new CpuTreeModel<>(new TopDownNode(tree)));
+    myBottomUp.setModel(tree == null ? null : new CpuTreeModel<>(new BottomUpNode(tree)));
   }
 
   public JComponent getComponent() {
@@ -151,47 +99,141 @@ public class CpuCaptureView {
 
   public void register(Choreographer choreographer) {
     choreographer.register(myCaptureTreeChart);
-    choreographer.register(myRangedTree);
+    choreographer.register(myTopDown.myRangedTree);
+    choreographer.register(myBottomUp.myRangedTree);
   }
 
   public void unregister(Choreographer choreographer) {
     choreographer.unregister(myCaptureTreeChart);
-    choreographer.unregister(myRangedTree);
+    choreographer.unregister(myTopDown.myRangedTree);
+    choreographer.unregister(myBottomUp.myRangedTree);
   }
 
-  private static TopDownNode getNode(Object value) {
+  private static CpuTreeNode<?> getNode(Object value) {
     DefaultMutableTreeNode node = (DefaultMutableTreeNode)value;
-    return (TopDownNode)node.getUserObject();
+    return (CpuTreeNode<?>)node.getUserObject();
+  }
+
+  /**
+   * A column tree showing a {@link CpuTreeModel} for the selection range.
+   */
+  private class CallTreeView {
+    private final JTree myTree;
+    private final CpuTraceTreeSorter myTreeSorter;
+    private final RangedTree myRangedTree;
+    private final JComponent myComponent;
+
+    CallTreeView(@NotNull ProfilerTimeline timeline) {
+      myTree = new JTree();
+      myTreeSorter = new CpuTraceTreeSorter(myTree);
+      myRangedTree = new RangedTree(timeline.getSelectionRange());
+      myTree.addTreeExpansionListener(new TreeExpansionListener() {
+        @Override
+        public void treeExpanded(TreeExpansionEvent event) {
+          if (myTree.getModel() instanceof CpuTreeModel) {
+            ((CpuTreeModel<?>)myTree.getModel()).expand((DefaultMutableTreeNode)event.getPath().getLastPathComponent());
+          }
+        }
+
+        @Override
+        public void treeCollapsed(TreeExpansionEvent event) {
+        }
+      });
+      myComponent = new ColumnTreeBuilder(myTree)
+        .addColumn(new ColumnTreeBuilder.ColumnBuilder()
+            .setName("Name")
+            .setPreferredWidth(900)
+            .setHeaderAlignment(SwingConstants.LEFT)
+            .setRenderer(new MethodNameRenderer())
+            .setComparator(new NameValueNodeComparator()))
+        .addColumn(new ColumnTreeBuilder.ColumnBuilder()
+            .setName("Self (μs)")
+            .setPreferredWidth(100)
+            .setHeaderAlignment(SwingConstants.RIGHT)
+            .setRenderer(new DoubleValueCellRenderer(CpuTreeNode::getSelf, false))
+            .setComparator(new DoubleValueNodeComparator(CpuTreeNode::getSelf)))
+        .addColumn(new ColumnTreeBuilder.ColumnBuilder()
+            .setName("%")
+            .setPreferredWidth(50)
+            .setRenderer(new DoubleValueCellRenderer(CpuTreeNode::getSelf, true))
+            .setComparator(new DoubleValueNodeComparator(CpuTreeNode::getSelf)))
+        .addColumn(new ColumnTreeBuilder.ColumnBuilder()
+            .setName("Children (μs)")
+            .setPreferredWidth(100)
+            .setHeaderAlignment(SwingConstants.RIGHT)
+            .setRenderer(new DoubleValueCellRenderer(CpuTreeNode::getChildrenTotal, false))
+            .setComparator(new DoubleValueNodeComparator(CpuTreeNode::getChildrenTotal)))
+        .addColumn(new ColumnTreeBuilder.ColumnBuilder()
+            .setName("%")
+            .setPreferredWidth(50)
+            .setRenderer(new DoubleValueCellRenderer(CpuTreeNode::getChildrenTotal, true))
+            .setComparator(new DoubleValueNodeComparator(CpuTreeNode::getChildrenTotal)))
+        .addColumn(new ColumnTreeBuilder.ColumnBuilder()
+            .setName("Total (μs)")
+            .setPreferredWidth(100)
+            .setHeaderAlignment(SwingConstants.RIGHT)
+            .setRenderer(new DoubleValueCellRenderer(CpuTreeNode::getTotal, false))
+            .setComparator(myDefaultSortOrder))
+        .addColumn(new ColumnTreeBuilder.ColumnBuilder()
+            .setName("%")
+            .setPreferredWidth(50)
+            .setRenderer(new DoubleValueCellRenderer(CpuTreeNode::getTotal, true))
+            .setComparator(myDefaultSortOrder))
+        .setTreeSorter(myTreeSorter)
+        .build();
+    }
+
+    void setModel(@Nullable CpuTreeModel<?> model) {
+      if (model != null) {
+        // The model is built with the times of the whole capture, the updates for the selection are then computed in the background
+        model.setExecutors(ApplicationManager.getApplication()::executeOnPooledThread, ApplicationManager.getApplication()::invokeLater);
+      }
+      myRangedTree.setModel(model);
+      myTree.setModel(model);
+      myTreeSorter.setModel(model, myDefaultSortOrder);
+      expandTreeNodes();
+    }
+
+    /**
+     * Expands a few nodes in order to improve the visual feedback of the list.
+     */
+    private void expandTreeNodes() {
+      int maxRowsToExpand = 8; // TODO: adjust this value if necessary.
+      int i = 0;
+      while (i < myTree.getRowCount() && i < maxRowsToExpand) {
+        myTree.expandRow(i++);
+      }
+    }
   }
 
 
   private static class NameValueNodeComparator implements Comparator<DefaultMutableTreeNode> {
     @Override
     public int compare(DefaultMutableTreeNode o1, DefaultMutableTreeNode o2) {
-      return ((TopDownNode)o1.getUserObject()).getMethodName().compareTo(((TopDownNode)o2.getUserObject()).getMethodName());
+      return ((CpuTreeNode<?>)o1.getUserObject()).getMethodName().compareTo(((CpuTreeNode<?>)o2.getUserObject()).getMethodName());
     }
   }
 
   private class DoubleValueNodeComparator implements Comparator<DefaultMutableTreeNode> {
-    private final Function<TopDownNode, Double> myGetter;
+    private final Function<CpuTreeNode<?>, Double> myGetter;
 
-    DoubleValueNodeComparator(Function<TopDownNode, Double> getter) {
+    DoubleValueNodeComparator(Function<CpuTreeNode<?>, Double> getter) {
       myGetter = getter;
     }
 
     @Override
     public int compare(DefaultMutableTreeNode a, DefaultMutableTreeNode b) {
-      TopDownNode o1 = ((TopDownNode)a.getUserObject());
-      TopDownNode o2 = ((TopDownNode)b.getUserObject());
+      CpuTreeNode<?> o1 = ((CpuTreeNode<?>)a.getUserObject());
+      CpuTreeNode<?> o2 = ((CpuTreeNode<?>)b.getUserObject());
       Double value = myGetter.apply(o1) - myGetter.apply(o2);
       return value > 0 ? 1 : -1;
     }
   }
   private static class DoubleValueCellRenderer extends ColoredTreeCellRenderer {
-    private final Function<TopDownNode, Double> myGetter;
+    private final Function<CpuTreeNode<?>, Double> myGetter;
     private final boolean myPercentage;
 
-    DoubleValueCellRenderer(Function<TopDownNode, Double> getter, boolean percentage) {
+    DoubleValueCellRenderer(Function<CpuTreeNode<?>, Double> getter, boolean percentage) {
       myGetter = getter;
       myPercentage = percentage;
     }
@@ -205,11 +247,11 @@ public class CpuCaptureView {
                                       int row,
                                       boolean hasFocus) {
       setTextAlign(SwingConstants.RIGHT);
-      TopDownNode node = getNode(value);
+      CpuTreeNode<?> node = getNode(value);
       if (node != null)  {
         double v = myGetter.apply(node);
         if (myPercentage) {
-          TopDownNode root = getNode(tree.getModel().getRoot());
+          CpuTreeNode<?> root = getNode(tree.getModel().getRoot());
           append(String.format("%.2f%%", v / root.getTotal() * 100));
         } else {
           append(String.format("%,.0f", v));
@@ -232,8 +274,8 @@ public class CpuCaptureView {
                                       int row,
                                       boolean hasFocus) {
       if (value instanceof DefaultMutableTreeNode &&
-          ((DefaultMutableTreeNode)value).getUserObject() instanceof TopDownNode) {
-        TopDownNode node = (TopDownNode)((DefaultMutableTreeNode)value).getUserObject();
+          ((DefaultMutableTreeNode)value).getUserObject() instanceof CpuTreeNode) {
+        CpuTreeNode<?> node = (CpuTreeNode<?>)((DefaultMutableTreeNode)value).getUserObject();
         if (node != null) {
           if (node.getMethodName().isEmpty()) {
             setIcon(AllIcons.Debugger.ThreadSuspended);
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu;
+
+import gnu.trove.TIntArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A node of the bottom-up CPU usage tree, which shows where the methods are called from. The children of the root are the methods, with
+ * all their calls, and the children of a node are the callers of its calls: the node for the path (m, c1, c2) represents the calls of m
+ * made by c1 when c1 is called by c2. The times of a node are the ones of its calls of m, e.g. its self time is the time spent in m itself.
+ * <p>
+ * As a call contributes to as many nodes as it has ancestors, the tree is only built as far as it is explored.
+ */
+class BottomUpNode extends CpuTreeNode<BottomUpNode> {
+  /**
+   * For each call of this node, the call at the end of the path of this node, e.g. for the path (m, c1, c2) the call of c2 that called c1
+   * that called m. Null for the root, which stands for the whole thread.
+   */
+  @Nullable private final int[] myPathEnds;
+
+  public BottomUpNode(@NotNull CallTree tree) {
+    this(tree, tree.getMethodIndex(0), new int[]{0}, null);
+  }
+
+  private BottomUpNode(@NotNull CallTree tree, int methodIndex, @NotNull int[] calls, @Nullable int[] pathEnds) {
+    super(tree, methodIndex, calls);
+    myPathEnds = pathEnds;
+  }
+
+  @NotNull
+  @Override
+  protected List<BottomUpNode> buildChildren() {
+    int[] calls;
+    int[] callers;
+    if (myPathEnds == null) {
+      // Every call, but the root of the thread, grouped by method
+      calls = new int[myTree.getCallCount() - 1];
+      for (int i = 0; i < calls.length; i++) {
+        calls[i] = i + 1;
+      }
+      callers = calls;
+    }
+    else {
+      TIntArrayList calledCalls = new TIntArrayList();
+      TIntArrayList callerCalls = new TIntArrayList();
+      for (int i = 0; i < myCalls.length; i++) {
+        int caller = myTree.getParent(myPathEnds[i]);
+        if (caller >= 0) {
+          calledCalls.add(myCalls[i]);
+          callerCalls.add(caller);
+        }
+      }
+      calls = calledCalls.toNativeArray();
+      callers = callerCalls.toNativeArray();
+    }
+
+    List<BottomUpNode> children = new ArrayList<>();
+    for (TIntArrayList group : groupByMethod(myTree, callers)) {
+      int[] pathEnds = select(callers, group);
+      children.add(new BottomUpNode(myTree, myTree.getMethodIndex(pathEnds[0]), select(calls, group), pathEnds));
+    }
+    return children;
+  }
+
+  @Override
+  public boolean isExpandedOnDemand() {
+    return true;
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu;
+
+import com.android.tools.adtui.model.HNode;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Call tree of a thread stored as parallel arrays, one entry per call in pre-order: the descendants of a call are the calls that follow it,
+ * up to {@link #getSubtreeEnd(int)}, and its first child, if any, is the next call. Calls of the same method share a {@link MethodModel}.
+ * <p>
+ * Compared to a tree of objects, this takes a fraction of the memory for the millions of calls of an instrumented trace, and can be
+ * traversed without recursion.
+ */
+public final class CallTree {
+  @NotNull private final long[] myEntryUs;
+  @NotNull private final long[] myExitUs;
+  @NotNull private final int[] myDepths;
+  @NotNull private final int[] myMethodIndices;
+  @NotNull private final int[] mySubtreeEnds;
+  @NotNull private final int[] myParents;
+  @NotNull private final List<MethodModel> myMethods;
+  private final int myMaxDepth;
+
+  private CallTree(@NotNull Builder builder) {
+    int size = builder.mySize;
+    myEntryUs = Arrays.copyOf(builder.myEntryUs, size);
+    myExitUs = Arrays.copyOf(builder.myExitUs, size);
+    myDepths = Arrays.copyOf(builder.myDepths, size);
+    myMethodIndices = Arrays.copyOf(builder.myMethodIndices, size);
+    mySubtreeEnds = Arrays.copyOf(builder.mySubtreeEnds, size);
+    myParents = Arrays.copyOf(builder.myParents, size);
+    myMethods = Collections.unmodifiableList(new ArrayList<>(builder.myMethods));
+    myMaxDepth = builder.myMaxDepth;
+  }
+
+  public int getCallCount() {
+    return myEntryUs.length;
+  }
+
+  public long getEntryUs(int call) {
+    return myEntryUs[call];
+  }
+
+  public long getExitUs(int call) {
+    return myExitUs[call];
+  }
+
+  public long getDurationUs(int call) {
+    return myExitUs[call] - myEntryUs[call];
+  }
+
+  /**
+   * Returns the depth of the given call, the root being at depth 0.
+   */
+  public int getDepth(int call) {
+    return myDepths[call];
+  }
+
+  public int getMaxDepth() {
+    return myMaxDepth;
+  }
+
+  /**
+   * Returns the index of the method of the given call in {@link #getMethods()}.
+   */
+  public int getMethodIndex(int call) {
+    return myMethodIndices[call];
+  }
+
+  @NotNull
+  public MethodModel getMethod(int call) {
+    return myMethods.get(myMethodIndices[call]);
+  }
+
+  /**
+   * Returns the index following the last descendant of the given call, which is the index of its next sibling if it has one.
+   */
+  public int getSubtreeEnd(int call) {
+    return mySubtreeEnds[call];
+  }
+
+  /**
+   * Returns the index of the caller of the given call, or -1 for the root.
+   */
+  public int getParent(int call) {
+    return myParents[call];
+  }
+
+  /**
+   * Returns the methods called in this tree.
+   */
+  @NotNull
+  public List<MethodModel> getMethods() {
+    return myMethods;
+  }
+
+  /**
+   * Returns the root of a tree of {@link HNode}s over this tree, for the components that render an {@link HNode} tree. The nodes of the
+   * callees of a call are only created once they are requested.
+   */
+  @NotNull
+  public HNode<MethodModel> toHNode() {
+    return new CallTreeHNode(this, 0);
+  }
+
+  /**
+   * Builds a {@link CallTree} from its calls added in pre-order.
+   */
+  public static final class Builder {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private long[] myEntryUs = new long[INITIAL_CAPACITY];
+    private long[] myExitUs = new long[INITIAL_CAPACITY];
+    private int[] myDepths = new int[INITIAL_CAPACITY];
+    private int[] myMethodIndices = new int[INITIAL_CAPACITY];
+    private int[] mySubtreeEnds = new int[INITIAL_CAPACITY];
+    private int[] myParents = new int[INITIAL_CAPACITY];
+    private int mySize;
+    private int myMaxDepth;
+    /** Indices of the calls whose subtree has not ended yet, by depth */
+    private int[] myOpenCalls = new int[64];
+    private int myOpenCallCount;
+    private final List<MethodModel> myMethods = new ArrayList<>();
+
+    /**
+     * Adds a method to the method table, and returns its index.
+     */
+    public int addMethod(@NotNull MethodModel method) {
+      myMethods.add(method);
+      return myMethods.size() - 1;
+    }
+
+    /**
+     * Adds the next call in pre-order. The first call is the root, at depth 0, and every other call is at most one level deeper than the
+     * previous one.
+     *
+     * @param methodIndex index of the method as returned by {@link #addMethod(MethodModel)}
+     */
+    public void addCall(int methodIndex, long entryUs, long exitUs, int depth) {
+      if (mySize == 0 ? depth != 0 : depth < 1 || depth > myOpenCallCount) {
+        throw new IllegalArgumentException(String.format("Call at depth %d cannot follow a call at depth %d", depth, myOpenCallCount - 1));
+      }
+      if (methodIndex < 0 || methodIndex >= myMethods.size()) {
+        throw new IllegalArgumentException("Unknown method " + methodIndex);
+      }
+      // The calls at this depth or deeper end before this one
+      while (myOpenCallCount > depth) {
+        mySubtreeEnds[myOpenCalls[--myOpenCallCount]] = mySize;
+      }
+
+      if (mySize == myEntryUs.length) {
+        int capacity = mySize * 2;
+        myEntryUs = Arrays.copyOf(myEntryUs, capacity);
+        myExitUs = Arrays.copyOf(myExitUs, capacity);
+        myDepths = Arrays.copyOf(myDepths, capacity);
+        myMethodIndices = Arrays.copyOf(myMethodIndices, capacity);
+        mySubtreeEnds = Arrays.copyOf(mySubtreeEnds, capacity);
+        myParents = Arrays.copyOf(myParents, capacity);
+      }
+      myEntryUs[mySize] = entryUs;
+      myExitUs[mySize] = exitUs;
+      myDepths[mySize] = depth;
+      myMethodIndices[mySize] = methodIndex;
+      myParents[mySize] = depth == 0 ? -1 : myOpenCalls[depth - 1];
+      myMaxDepth = Math.max(myMaxDepth, depth);
+
+      if (myOpenCallCount == myOpenCalls.length) {
+        myOpenCalls = Arrays.copyOf(myOpenCalls, myOpenCallCount * 2);
+      }
+      myOpenCalls[myOpenCallCount++] = mySize;
+      mySize++;
+    }
+
+    @NotNull
+    public CallTree build() {
+      if (mySize == 0) {
+        throw new IllegalStateException("A call tree needs a root call");
+      }
+      while (myOpenCallCount > 0) {
+        mySubtreeEnds[myOpenCalls[--myOpenCallCount]] = mySize;
+      }
+      return new CallTree(this);
+    }
+  }
+}
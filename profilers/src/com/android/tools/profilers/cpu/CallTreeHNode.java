@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu;
+
+import com.android.tools.adtui.model.HNode;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * {@link HNode} of a call of a {@link CallTree}, which only creates the nodes of its callees when they are first requested. Components
+ * that skip the calls they do not show, like a chart culling the calls outside its range, then only build the nodes they visit.
+ */
+final class CallTreeHNode extends HNode<MethodModel> {
+  @NotNull private final CallTree myTree;
+  private final int myCall;
+  private boolean myHasChildren;
+
+  CallTreeHNode(@NotNull CallTree tree, int call) {
+    super(tree.getMethod(call), tree.getEntryUs(call), tree.getExitUs(call));
+    setDepth(tree.getDepth(call));
+    myTree = tree;
+    myCall = call;
+  }
+
+  @NotNull
+  @Override
+  public List<HNode<MethodModel>> getChildren() {
+    if (!myHasChildren) {
+      myHasChildren = true;
+      // The first callee follows the call, and each callee is followed by the end of its own subtree
+      for (int child = myCall + 1; child < myTree.getSubtreeEnd(myCall); child = myTree.getSubtreeEnd(child)) {
+        super.addHNode(new CallTreeHNode(myTree, child));
+      }
+    }
+    return super.getChildren();
+  }
+
+  @Override
+  public void addHNode(HNode<MethodModel> node) {
+    getChildren().add(node);
+  }
+
+  @Nullable
+  @Override
+  public HNode<MethodModel> getFirstChild() {
+    getChildren();
+    return super.getFirstChild();
+  }
+
+  @Nullable
+  @Override
+  public HNode<MethodModel> getLastChild() {
+    getChildren();
+    return super.getLastChild();
+  }
+}
@@ -29,6 +29,7 @@ import org.jetbrains.annotations.Nullable;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -39,7 +40,14 @@ public class CpuCapture implements DurationData {
   private final int myMainThreadId;
 
   @NotNull
-  private final Map<ThreadInfo, HNode<MethodModel>> myCaptureTrees;
+  private final Map<ThreadInfo, CallTree> myCallTrees;
+
+  /**
+   * {@link HNode} trees of the threads whose tree was requested. Their nodes are only created as they are visited, and are kept so
+   * showing a thread again does not create them again.
+   */
+  @NotNull
+  private final Map<Integer, HNode<MethodModel>> myCaptureNodes = new HashMap<>();
 
   @NotNull
   private final Range myRange;
@@ -60,7 +68,7 @@ public class CpuCapture implements DurationData {
 
       CpuTraceArt traceArt = new CpuTraceArt();
       traceArt.parse(data);
-      myCaptureTrees = traceArt.getThreadsGraph();
+      myCallTrees = traceArt.getCallTrees();
     }
     catch (IOException e) {
       throw new IllegalStateException(e);
@@ -68,18 +76,18 @@ public class CpuCapture implements DurationData {
 
     // Try to find the main thread. The main thread is called "main" but if we fail
     // to find it we will fall back to the thread with the most information.
-    Map.Entry<ThreadInfo, HNode<MethodModel>> main = null;
+    Map.Entry<ThreadInfo, CallTree> main = null;
     boolean foundMainThread = false;
     myRange = new Range();
-    for (Map.Entry<ThreadInfo, HNode<MethodModel>> entry : myCaptureTrees.entrySet()) {
+    for (Map.Entry<ThreadInfo, CallTree> entry : myCallTrees.entrySet()) {
       if (entry.getKey().getName().equals(MAIN_THREAD_NAME)) {
         main = entry;
         foundMainThread = true;
       }
-      if (!foundMainThread && (main == null || main.getValue().duration() < entry.getValue().duration())) {
+      if (!foundMainThread && (main == null || main.getValue().getDurationUs(0) < entry.getValue().getDurationUs(0))) {
         main = entry;
       }
-      myRange.expand(entry.getValue().getStart(), entry.getValue().getEnd());
+      myRange.expand(entry.getValue().getEntryUs(0), entry.getValue().getExitUs(0));
     }
     if (main == null) {
       throw new IllegalArgumentException("Invalid trace");
@@ -97,8 +105,8 @@ public class CpuCapture implements DurationData {
   }
 
   @Nullable
-  public HNode<MethodModel> getCaptureNode(int threadId) {
-    for (Map.Entry<ThreadInfo, HNode<MethodModel>> entry : myCaptureTrees.entrySet()) {
+  public CallTree getCallTree(int threadId) {
+    for (Map.Entry<ThreadInfo, CallTree> entry : myCallTrees.entrySet()) {
       if (entry.getKey().getId() == threadId) {
         return entry.getValue();
       }
@@ -106,13 +114,29 @@ public class CpuCapture implements DurationData {
     return null;
   }
 
+  @Nullable
+  public HNode<MethodModel> getCaptureNode(int threadId) {
+    synchronized (myCaptureNodes) {
+      HNode<MethodModel> node = myCaptureNodes.get(threadId);
+      if (node == null) {
+        CallTree tree = getCallTree(threadId);
+        if (tree == null) {
+          return null;
+        }
+        node = tree.toHNode();
+        myCaptureNodes.put(threadId, node);
+      }
+      return node;
+    }
+  }
+
   @NotNull
   public Set<ThreadInfo> getThreads() {
-    return myCaptureTrees.keySet();
+    return myCallTrees.keySet();
   }
 
   public boolean containsThread(int threadId) {
-    return myCaptureTrees.keySet().stream().anyMatch(info -> info.getId() == threadId);
+    return myCallTrees.keySet().stream().anyMatch(info -> info.getId() == threadId);
   }
 
   @Override
@@ -54,6 +54,8 @@ public class CpuThreadCountDataSeries implements DataSeries<Long> {
 
     CpuProfiler.GetThreadsResponse response = myClient.getThreads(request.build());
 
+    // The first activity of a thread that started before the requested range is its state at the start of the range rather than its
+    // creation, so the counts are only accurate within the range.
     TreeMap<Long, Long> count = new TreeMap<>();
     for (CpuProfiler.GetThreadsResponse.Thread thread : response.getThreadsList()) {
       if (thread.getActivitiesCount() > 0) {
@@ -15,58 +15,88 @@
  */
 package com.android.tools.profilers.cpu;
 
-import com.android.tools.adtui.model.HNode;
 import com.android.tools.perflib.vmtrace.Call;
 import com.android.tools.perflib.vmtrace.ClockType;
+import com.android.tools.perflib.vmtrace.MethodInfo;
 import com.android.tools.perflib.vmtrace.ThreadInfo;
 import com.android.tools.perflib.vmtrace.VmTraceData;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 public class CpuTraceArt {
 
   /**
-   * Tree representation of ART trace (generated from perflib tree).
-   * Keys are thread ids and values are their respective {@link HNode}
+   * Call trees of the ART trace (generated from perflib tree).
+   * Keys are threads and values are their respective {@link CallTree}
    */
-  Map<ThreadInfo, HNode<MethodModel>> myNodes;
+  Map<ThreadInfo, CallTree> myCallTrees;
 
   public void parse(VmTraceData data) throws IOException {
-    myNodes = new HashMap<>();
+    myCallTrees = new HashMap<>();
+    // The methods are shared by the trees of all the threads
+    Map<Long, MethodModel> methods = new HashMap<>();
 
-    // Convert perflib tree to HNode tree.
+    // Convert perflib tree to call trees.
     for (ThreadInfo threadInfo : data.getThreads()) {
       if (threadInfo.getTopLevelCall() == null) {
         continue;
       }
-      myNodes.put(threadInfo, convertCallsToNode(data, threadInfo.getTopLevelCall(), 0));
+      myCallTrees.put(threadInfo, convertCalls(data, threadInfo.getTopLevelCall(), methods));
     }
   }
 
-  private HNode<MethodModel> convertCallsToNode(VmTraceData data, Call call, int depth) {
+  /**
+   * Converts the calls of a thread, iteratively as call stacks can be deeper than the Java stack allows to recurse.
+   */
+  private static CallTree convertCalls(VmTraceData data, Call topLevelCall, Map<Long, MethodModel> methods) {
+    CallTree.Builder builder = new CallTree.Builder();
+    Map<Long, Integer> methodIndices = new HashMap<>();
 
-    HNode<MethodModel> node = new HNode<>();
-    // ART stores timestamp in a compressed fashion: All timestamp are 32 bits relative to a startTime.
-    // We need to reconstruct the full timestamp by adding each of them to startTime.
-    node.setStart((call.getEntryTime(ClockType.GLOBAL, TimeUnit.MICROSECONDS) + data.getStartTimeUs()));
-    node.setEnd((call.getExitTime(ClockType.GLOBAL, TimeUnit.MICROSECONDS) + data.getStartTimeUs()));
-    node.setDepth(depth);
+    Deque<Call> calls = new ArrayDeque<>();
+    Deque<Integer> depths = new ArrayDeque<>();
+    calls.push(topLevelCall);
+    depths.push(0);
+    while (!calls.isEmpty()) {
+      Call call = calls.pop();
+      int depth = depths.pop();
 
-    MethodModel method = new MethodModel();
-    method.setName(data.getMethod(call.getMethodId()).methodName);
-    method.setNamespace(data.getMethod(call.getMethodId()).className);
-    node.setData(method);
+      Integer methodIndex = methodIndices.get(call.getMethodId());
+      if (methodIndex == null) {
+        MethodModel method = methods.computeIfAbsent(call.getMethodId(), id -> {
+          MethodInfo info = data.getMethod(id);
+          MethodModel model = new MethodModel();
+          model.setName(info.methodName);
+          model.setNamespace(info.className);
+          return model;
+        });
+        methodIndex = builder.addMethod(method);
+        methodIndices.put(call.getMethodId(), methodIndex);
+      }
 
-    for (Call callee : call.getCallees()) {
-      node.addHNode(convertCallsToNode(data, callee, depth + 1));
+      // ART stores timestamp in a compressed fashion: All timestamp are 32 bits relative to a startTime.
+      // We need to reconstruct the full timestamp by adding each of them to startTime.
+      builder.addCall(methodIndex,
+                      call.getEntryTime(ClockType.GLOBAL, TimeUnit.MICROSECONDS) + data.getStartTimeUs(),
+                      call.getExitTime(ClockType.GLOBAL, TimeUnit.MICROSECONDS) + data.getStartTimeUs(),
+                      depth);
+
+      // Pushed in reverse order so the callees are added in order
+      List<Call> callees = call.getCallees();
+      for (int i = callees.size() - 1; i >= 0; i--) {
+        calls.push(callees.get(i));
+        depths.push(depth + 1);
+      }
     }
-    return node;
+    return builder.build();
   }
 
-  public Map<ThreadInfo, HNode<MethodModel>> getThreadsGraph() {
-    return myNodes;
+  public Map<ThreadInfo, CallTree> getCallTrees() {
+    return myCallTrees;
   }
 }
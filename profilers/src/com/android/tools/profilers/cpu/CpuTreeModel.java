@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu;
+
+import com.android.tools.adtui.model.Range;
+import com.android.tools.adtui.model.RangedTreeModel;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.DefaultTreeModel;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * The model for a JTree that updates for a given range. It uses a {@link CpuTreeNode} tree, e.g. a {@link TopDownNode}, as its backing
+ * tree, and shows the nodes that have calls in the range with the time they spend in it.
+ * <p>
+ * When the range changes, the times are computed on the background executor and the tree is then updated on the UI executor. A computation
+ * is abandoned as soon as the range changes again, so dragging the selection only costs the computations of the ranges it stops at. By
+ * default both executors run the tasks right away.
+ * <p>
+ * The children of the nodes that are expanded on demand are only added once their parent is expanded, see {@link #expand}.
+ */
+class CpuTreeModel<T extends CpuTreeNode<T>> extends DefaultTreeModel implements RangedTreeModel {
+  /** How many nodes are computed between two checks for a newer range */
+  private static final int CANCELLATION_CHECK_INTERVAL = 256;
+
+  @NotNull private final Range myRange;
+  /** Incremented for every computation, so the previous ones know they are stale */
+  @NotNull private final AtomicInteger myGeneration = new AtomicInteger();
+  @NotNull private final Set<T> myExpandedNodes = Collections.newSetFromMap(new ConcurrentHashMap<>());
+  @NotNull private Executor myBackgroundExecutor = Runnable::run;
+  @NotNull private Consumer<Runnable> myUiExecutor = Runnable::run;
+
+  public CpuTreeModel(@NotNull T node) {
+    super(new DefaultMutableTreeNode(node));
+    myRange = new Range();
+    update(new Range(-Double.MAX_VALUE, Double.MAX_VALUE));
+  }
+
+  /**
+   * Sets the executors of the next updates.
+   *
+   * @param backgroundExecutor computes the times of the nodes for the new range
+   * @param uiExecutor         updates the tree with the computed times, must be the thread that uses the tree
+   */
+  public void setExecutors(@NotNull Executor backgroundExecutor, @NotNull Consumer<Runnable> uiExecutor) {
+    myBackgroundExecutor = backgroundExecutor;
+    myUiExecutor = uiExecutor;
+  }
+
+  @NotNull
+  @SuppressWarnings("unchecked")
+  private T getRootNode() {
+    return (T)((DefaultMutableTreeNode)getRoot()).getUserObject();
+  }
+
+  @Override
+  public void update(@NotNull Range range) {
+    if (myRange.getMin() == range.getMin() && myRange.getMax() == range.getMax()) {
+      return;
+    }
+    myRange.set(range);
+    scheduleUpdate();
+  }
+
+  /**
+   * Adds the children of the children of the given node, as they become visible, if they are expanded on demand.
+   */
+  public void expand(@NotNull DefaultMutableTreeNode node) {
+    @SuppressWarnings("unchecked") T data = (T)node.getUserObject();
+    if (data != null && data.isExpandedOnDemand() && myExpandedNodes.add(data)) {
+      scheduleUpdate();
+    }
+  }
+
+  private void scheduleUpdate() {
+    int generation = myGeneration.incrementAndGet();
+    Range range = new Range(myRange.getMin(), myRange.getMax());
+    myBackgroundExecutor.execute(() -> {
+      Values<T> values = computeValues(range, generation);
+      if (values != null) {
+        myUiExecutor.accept(() -> {
+          if (myGeneration.get() == generation) {
+            apply(values);
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Computes the times of the nodes to show for the given range, or returns null if a newer computation was requested.
+   */
+  @Nullable
+  private Values<T> computeValues(@NotNull Range range, int generation) {
+    T root = getRootNode();
+    Values<T> values = new Values<>();
+    values.put(root, range);
+    Deque<T> stack = new ArrayDeque<>();
+    stack.push(root);
+    int count = 0;
+    while (!stack.isEmpty()) {
+      if (++count % CANCELLATION_CHECK_INTERVAL == 0 && myGeneration.get() != generation) {
+        return null;
+      }
+      T node = stack.pop();
+      values.myNodesWithChildren.add(node);
+      // The children of a node are shown when it is visible, but their own children only once it is expanded
+      boolean expanded = node == root || !node.isExpandedOnDemand() || myExpandedNodes.contains(node);
+      for (T child : node.getChildren()) {
+        if (child.inRange(range)) {
+          values.put(child, range);
+          if (expanded) {
+            stack.push(child);
+          }
+        }
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Updates the tree with the computed times, adding the nodes that entered the range and removing the ones that left it.
+   */
+  private void apply(@NotNull Values<T> values) {
+    Deque<DefaultMutableTreeNode> stack = new ArrayDeque<>();
+    stack.push((DefaultMutableTreeNode)getRoot());
+    while (!stack.isEmpty()) {
+      DefaultMutableTreeNode node = stack.pop();
+      @SuppressWarnings("unchecked") T data = (T)node.getUserObject();
+      double[] times = values.myTimes.get(data);
+      if (data.setValues(times[0], times[1])) {
+        nodeChanged(node);
+      }
+      if (!values.myNodesWithChildren.contains(data)) {
+        continue;
+      }
+
+      Map<T, DefaultMutableTreeNode> existing = new IdentityHashMap<>();
+      for (Enumeration e = node.children(); e.hasMoreElements(); ) {
+        DefaultMutableTreeNode child = (DefaultMutableTreeNode)e.nextElement();
+        @SuppressWarnings("unchecked") T childData = (T)child.getUserObject();
+        existing.put(childData, child);
+      }
+      for (T child : data.getChildren()) {
+        DefaultMutableTreeNode childNode = existing.remove(child);
+        if (values.myTimes.containsKey(child)) {
+          if (childNode == null) {
+            childNode = new DefaultMutableTreeNode(child);
+            insertNodeInto(childNode, node, node.getChildCount());
+          }
+          stack.push(childNode);
+        }
+        else {
+          if (childNode != null) {
+            removeNodeFromParent(childNode);
+          }
+          child.reset();
+        }
+      }
+    }
+  }
+
+  /**
+   * The times of the nodes to show for a range.
+   */
+  private static class Values<T extends CpuTreeNode<T>> {
+    /** The total and self times of the nodes in the range */
+    private final Map<T, double[]> myTimes = new IdentityHashMap<>();
+    /** The nodes whose children in the range are shown */
+    private final Set<T> myNodesWithChildren = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    void put(@NotNull T node, @NotNull Range range) {
+      myTimes.put(node, new double[]{node.getTotalWithin(range), node.getSelfWithin(range)});
+    }
+  }
+}
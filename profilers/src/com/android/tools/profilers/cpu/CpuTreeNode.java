@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu;
+
+import com.android.tools.adtui.model.Range;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntObjectHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A node of a tree aggregating the calls of a {@link CallTree}, such as the top-down or the bottom-up tree. It represents a set of calls of
+ * the same method, and its children are built from them when they are first requested.
+ * <p>
+ * The intervals of the calls, and the intervals when the method itself rather than one of its callees runs, are computed once, so the
+ * time spent within a range is answered without visiting the calls again.
+ */
+abstract class CpuTreeNode<T extends CpuTreeNode<T>> {
+  @NotNull protected final CallTree myTree;
+  @NotNull protected final int[] myCalls;
+  private final int myMethodIndex;
+  @NotNull private final TimeIntervals myIntervals;
+  @NotNull private final TimeIntervals mySelfIntervals;
+  @Nullable private volatile List<T> myChildren;
+  private double myTotal;
+  private double mySelf;
+
+  /**
+   * @param calls the calls of the method of this node it represents, in pre-order
+   */
+  protected CpuTreeNode(@NotNull CallTree tree, int methodIndex, @NotNull int[] calls) {
+    myTree = tree;
+    myCalls = calls;
+    myMethodIndex = methodIndex;
+    myIntervals = computeIntervals(tree, calls);
+    mySelfIntervals = computeSelfIntervals(tree, calls);
+  }
+
+  @NotNull
+  private static TimeIntervals computeIntervals(@NotNull CallTree tree, @NotNull int[] calls) {
+    long[] starts = new long[calls.length];
+    long[] ends = new long[calls.length];
+    for (int i = 0; i < calls.length; i++) {
+      starts[i] = tree.getEntryUs(calls[i]);
+      ends[i] = tree.getExitUs(calls[i]);
+    }
+    return TimeIntervals.union(starts, ends, calls.length);
+  }
+
+  /**
+   * Computes the intervals when the given calls are not in one of their callees.
+   */
+  @NotNull
+  private static TimeIntervals computeSelfIntervals(@NotNull CallTree tree, @NotNull int[] calls) {
+    // A call has a self interval before each of its callees, and one after the last one
+    int count = calls.length;
+    for (int call : calls) {
+      for (int callee = call + 1; callee < tree.getSubtreeEnd(call); callee = tree.getSubtreeEnd(callee)) {
+        count++;
+      }
+    }
+    long[] starts = new long[count];
+    long[] ends = new long[count];
+    count = 0;
+    for (int call : calls) {
+      long start = tree.getEntryUs(call);
+      for (int callee = call + 1; callee < tree.getSubtreeEnd(call); callee = tree.getSubtreeEnd(callee)) {
+        starts[count] = start;
+        ends[count++] = tree.getEntryUs(callee);
+        start = tree.getExitUs(callee);
+      }
+      starts[count] = start;
+      ends[count++] = tree.getExitUs(call);
+    }
+    return TimeIntervals.union(starts, ends, count);
+  }
+
+  /**
+   * Builds the children of this node. Called once, on the thread that first requests them.
+   */
+  @NotNull
+  protected abstract List<T> buildChildren();
+
+  /**
+   * Whether the children of this node should only be shown once it is expanded, because building the whole tree would be too expensive.
+   */
+  public abstract boolean isExpandedOnDemand();
+
+  /**
+   * Groups the given calls by method, keeping the order in which the methods first appear.
+   *
+   * @return for each method, the positions of its calls in the given array
+   */
+  @NotNull
+  protected static List<TIntArrayList> groupByMethod(@NotNull CallTree tree, @NotNull int[] calls) {
+    List<TIntArrayList> groups = new ArrayList<>();
+    TIntObjectHashMap<TIntArrayList> groupsByMethod = new TIntObjectHashMap<>();
+    for (int i = 0; i < calls.length; i++) {
+      int method = tree.getMethodIndex(calls[i]);
+      TIntArrayList group = groupsByMethod.get(method);
+      if (group == null) {
+        group = new TIntArrayList();
+        groupsByMethod.put(method, group);
+        groups.add(group);
+      }
+      group.add(i);
+    }
+    return groups;
+  }
+
+  /**
+   * Returns the elements of the array at the given positions.
+   */
+  @NotNull
+  protected static int[] select(@NotNull int[] array, @NotNull TIntArrayList positions) {
+    int[] selected = new int[positions.size()];
+    for (int i = 0; i < selected.length; i++) {
+      selected[i] = array[positions.get(i)];
+    }
+    return selected;
+  }
+
+  @NotNull
+  public List<T> getChildren() {
+    List<T> children = myChildren;
+    if (children == null) {
+      synchronized (this) {
+        children = myChildren;
+        if (children == null) {
+          children = Collections.unmodifiableList(buildChildren());
+          myChildren = children;
+        }
+      }
+    }
+    return children;
+  }
+
+  @NotNull
+  public MethodModel getMethod() {
+    return myTree.getMethods().get(myMethodIndex);
+  }
+
+  public String getId() {
+    return getMethod().getId();
+  }
+
+  public String getMethodName() {
+    return getMethod().getName();
+  }
+
+  public String getPackage() {
+    return getMethod().getNameSpace();
+  }
+
+  public boolean inRange(@NotNull Range range) {
+    return myIntervals.intersects(range.getMin(), range.getMax());
+  }
+
+  /**
+   * Returns the time spent in the calls of this node within the given range. Can be called from any thread.
+   */
+  public double getTotalWithin(@NotNull Range range) {
+    return myIntervals.getLengthWithin(range.getMin(), range.getMax());
+  }
+
+  /**
+   * Returns the time spent in the method of this node itself, not in its callees, within the given range. Can be called from any thread.
+   */
+  public double getSelfWithin(@NotNull Range range) {
+    return mySelfIntervals.getLengthWithin(range.getMin(), range.getMax());
+  }
+
+  /**
+   * Returns the time spent in the calls of this node within the range of the last update.
+   */
+  public double getTotal() {
+    return myTotal;
+  }
+
+  public double getSelf() {
+    return mySelf;
+  }
+
+  public double getChildrenTotal() {
+    return myTotal - mySelf;
+  }
+
+  public void update(@NotNull Range range) {
+    setValues(getTotalWithin(range), getSelfWithin(range));
+  }
+
+  /**
+   * Sets the times returned by {@link #getTotal()} and {@link #getSelf()}, and returns whether they changed.
+   */
+  boolean setValues(double total, double self) {
+    if (myTotal == total && mySelf == self) {
+      return false;
+    }
+    myTotal = total;
+    mySelf = self;
+    return true;
+  }
+
+  public void reset() {
+    setValues(0, 0);
+  }
+}
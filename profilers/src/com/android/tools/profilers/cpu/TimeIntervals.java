@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Disjoint time intervals sorted by start, with the sums of their lengths, so the time they cover within a range is found with two binary
+ * searches instead of a pass over all the intervals.
+ */
+final class TimeIntervals {
+  @NotNull private final long[] myStarts;
+  @NotNull private final long[] myEnds;
+  /** myLengthSums[i] is the total length of the intervals before the i-th one */
+  @NotNull private final long[] myLengthSums;
+
+  private TimeIntervals(@NotNull long[] starts, @NotNull long[] ends) {
+    myStarts = starts;
+    myEnds = ends;
+    myLengthSums = new long[starts.length + 1];
+    for (int i = 0; i < starts.length; i++) {
+      myLengthSums[i + 1] = myLengthSums[i] + ends[i] - starts[i];
+    }
+  }
+
+  /**
+   * Builds the union of the given intervals, so the time covered by overlapping intervals, e.g. by recursive calls, is only counted once.
+   * The arrays are modified.
+   */
+  @NotNull
+  static TimeIntervals union(@NotNull long[] starts, @NotNull long[] ends, int count) {
+    sortByStart(starts, ends, count);
+    int size = 0;
+    for (int i = 0; i < count; i++) {
+      if (size > 0 && starts[i] <= ends[size - 1]) {
+        ends[size - 1] = Math.max(ends[size - 1], ends[i]);
+      }
+      else {
+        starts[size] = starts[i];
+        ends[size] = ends[i];
+        size++;
+      }
+    }
+    return new TimeIntervals(Arrays.copyOf(starts, size), Arrays.copyOf(ends, size));
+  }
+
+  private static void sortByStart(@NotNull long[] starts, @NotNull long[] ends, int count) {
+    boolean sorted = true;
+    for (int i = 1; i < count && sorted; i++) {
+      sorted = starts[i - 1] <= starts[i];
+    }
+    if (sorted) {
+      // The usual case, as calls are visited in the order they start
+      return;
+    }
+    Integer[] order = new Integer[count];
+    for (int i = 0; i < count; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, Comparator.comparingLong(i -> starts[i]));
+    long[] sortedStarts = new long[count];
+    long[] sortedEnds = new long[count];
+    for (int i = 0; i < count; i++) {
+      sortedStarts[i] = starts[order[i]];
+      sortedEnds[i] = ends[order[i]];
+    }
+    System.arraycopy(sortedStarts, 0, starts, 0, count);
+    System.arraycopy(sortedEnds, 0, ends, 0, count);
+  }
+
+  public int size() {
+    return myStarts.length;
+  }
+
+  /**
+   * Returns the total length of the intervals, clipped to [min, max].
+   */
+  public double getLengthWithin(double min, double max) {
+    int first = getFirstEndingAfter(min);
+    int last = getFirstStartingFrom(max) - 1;
+    if (first > last || min >= max) {
+      return 0;
+    }
+    double length = myLengthSums[last + 1] - myLengthSums[first];
+    length -= Math.max(0, min - myStarts[first]);
+    length -= Math.max(0, myEnds[last] - max);
+    return length;
+  }
+
+  /**
+   * Returns whether an interval starts before max and ends after min.
+   */
+  public boolean intersects(double min, double max) {
+    return getFirstEndingAfter(min) < getFirstStartingFrom(max);
+  }
+
+  private int getFirstEndingAfter(double time) {
+    // As the intervals are disjoint, their ends are sorted too
+    int low = 0;
+    int high = myEnds.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (myEnds[mid] > time) {
+        high = mid;
+      }
+      else {
+        low = mid + 1;
+      }
+    }
+    return low;
+  }
+
+  private int getFirstStartingFrom(double time) {
+    int low = 0;
+    int high = myStarts.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (myStarts[mid] >= time) {
+        high = mid;
+      }
+      else {
+        low = mid + 1;
+      }
+    }
+    return low;
+  }
+}
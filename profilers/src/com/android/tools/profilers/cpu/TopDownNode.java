@@ -15,107 +15,45 @@
  */
 package com.android.tools.profilers.cpu;
 
-import com.android.tools.adtui.model.HNode;
-import com.android.tools.adtui.model.Range;
-import com.google.common.collect.Iterables;
+import gnu.trove.TIntArrayList;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.*;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * A top-down CPU usage tree. This is a node on that tree and represents all the calls that share the same callstack upto a point.
- * It's created from an execution tree by merging the nodes with the same path from the root.
+ * It's created from a {@link CallTree} by merging the calls of the same method with the same path from the root.
  */
-class TopDownNode {
-  private final List<HNode<MethodModel>> myNodes;
-  private final List<TopDownNode> myChildren;
-  private final String myId;
-  private double myTotal;
+class TopDownNode extends CpuTreeNode<TopDownNode> {
 
-  public TopDownNode(@NotNull HNode<MethodModel> node) {
-    myNodes = new LinkedList<>();
-    myChildren = new ArrayList<>();
-    myId = node.getData().getId();
-    myNodes.add(node);
-
-    Map<String, TopDownNode> children = new TreeMap<>();
-    for (HNode<MethodModel> child : node.getChildren()) {
-      TopDownNode prev = children.get(child.getData().getId());
-      TopDownNode other = new TopDownNode(child);
-      if (prev == null) {
-        children.put(child.getData().getId(), other);
-        myChildren.add(other);
-      }
-      else {
-        prev.merge(other);
-      }
-    }
+  public TopDownNode(@NotNull CallTree tree) {
+    this(tree, tree.getMethodIndex(0), new int[]{0});
   }
 
-  private void merge(TopDownNode other) {
-    myNodes.addAll(other.myNodes);
-    Map<String, TopDownNode> children = new TreeMap<>();
-    for (TopDownNode child : myChildren) {
-      children.put(child.myId, child);
-    }
-    for (TopDownNode otherChild : other.myChildren) {
-      TopDownNode existing = children.get(otherChild.myId);
-      if (existing != null) {
-        existing.merge(otherChild);
-      }
-      else {
-        myChildren.add(otherChild);
-      }
-    }
-  }
-
-  public String getId() {
-    return myId;
+  private TopDownNode(@NotNull CallTree tree, int methodIndex, @NotNull int[] calls) {
+    super(tree, methodIndex, calls);
   }
 
-  public List<TopDownNode> getChildren() {
-    return myChildren;
-  }
-
-  public boolean inRange(Range range) {
-    return Iterables.any(myNodes, node -> node.getStart() < range.getMax() && range.getMin() < node.getEnd());
-  }
-
-  public String getMethodName() {
-    MethodModel data = myNodes.get(0).getData();
-    return data.getName();
-  }
-
-  public String getPackage() {
-    MethodModel data = myNodes.get(0).getData();
-    return data.getNameSpace();
-  }
-
-  public double getTotal() {
-    return myTotal;
-  }
-
-  public double getSelf() {
-    return getTotal() - getChildrenTotal();
-  }
-
-  public double getChildrenTotal() {
-    double total = 0;
-    for (TopDownNode child : myChildren) {
-      total += child.getTotal();
+  @NotNull
+  @Override
+  protected List<TopDownNode> buildChildren() {
+    TIntArrayList callees = new TIntArrayList();
+    for (int call : myCalls) {
+      for (int callee = call + 1; callee < myTree.getSubtreeEnd(call); callee = myTree.getSubtreeEnd(callee)) {
+        callees.add(callee);
+      }
     }
-    return total;
-  }
-
-  public void update(Range range) {
-    myTotal = 0.0;
-    for (HNode<MethodModel> node : myNodes) {
-      Range intersection = range.getIntersection(new Range(node.getStart(), node.getEnd()));
-      myTotal += intersection.isEmpty() ? 0 : intersection.getLength();
+    int[] calls = callees.toNativeArray();
+    List<TopDownNode> children = new ArrayList<>();
+    for (TIntArrayList group : groupByMethod(myTree, calls)) {
+      children.add(new TopDownNode(myTree, myTree.getMethodIndex(calls[group.get(0)]), select(calls, group)));
     }
+    return children;
   }
 
-  public void reset() {
-    myTotal = 0.0;
+  @Override
+  public boolean isExpandedOnDemand() {
+    return false;
   }
 }
@@ -22,15 +22,53 @@ import com.android.tools.profiler.proto.MemoryProfiler.DumpDataResponse;
 import com.android.tools.profiler.proto.MemoryProfiler.HeapDumpDataRequest;
 import com.android.tools.profiler.proto.MemoryProfiler.HeapDumpInfo;
 import com.android.tools.profiler.proto.MemoryServiceGrpc;
+import com.android.tools.profilers.memory.hprof.DominatorTree;
+import com.android.tools.profilers.memory.hprof.HprofIndex;
+import com.android.tools.profilers.memory.hprof.SnapshotDominators;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.protobuf3jarjar.ByteString;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import io.grpc.ClientCall;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ClientCalls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.stream.Collectors;
 
 // TODO finish this class for the memory detail view
 public class HeapDumpCaptureObject extends CaptureObject {
+  private static final Logger LOG = Logger.getInstance(HeapDumpCaptureObject.class);
+
+  /**
+   * Whether heap dumps are written to a file and indexed from it without being loaded in memory, instead of being loaded with perflib.
+   * Setting the property to false restores the perflib path, which is also used to apply a proguard map.
+   */
+  private static final boolean STREAMING_ENABLED = Boolean.parseBoolean(System.getProperty("studio.profiler.heapdump.streaming", "true"));
+
+  /**
+   * Server streaming call of the datastore sending a heap dump in chunks, each a getHeapDump response, or a single response with the
+   * status of a dump that is not available. It is described by hand as the generated stubs come from a prebuilt jar, and must match the
+   * descriptor of MemoryDataPoller.
+   */
+  @VisibleForTesting
+  static final MethodDescriptor<HeapDumpDataRequest, DumpDataResponse> METHOD_GET_HEAP_DUMP_CHUNKS =
+    MethodDescriptor.create(MethodDescriptor.MethodType.SERVER_STREAMING,
+                            MethodDescriptor.generateFullMethodName(MemoryServiceGrpc.SERVICE_NAME, "GetHeapDumpChunks"),
+                            ProtoUtils.marshaller(HeapDumpDataRequest.getDefaultInstance()),
+                            ProtoUtils.marshaller(DumpDataResponse.getDefaultInstance()));
+
   @NotNull
   private final MemoryServiceGrpc.MemoryServiceBlockingStub myClient;
 
@@ -42,25 +80,68 @@ public class HeapDumpCaptureObject extends CaptureObject {
   @Nullable
   private final ProguardMap myProguardMap;
 
+  private final boolean myStreaming;
+
   @Nullable
   private Snapshot mySnapshot;
 
+  @Nullable
+  private HprofIndex myIndex;
+
+  @Nullable
+  private File myDumpFile;
+
+  /** The dominator computation in progress, if any, so it can be cancelled when the capture is disposed */
+  @Nullable
+  private volatile SnapshotDominators mySnapshotDominators;
+
+  @Nullable
+  private volatile DominatorTree.Computation myDominatorComputation;
+
   public HeapDumpCaptureObject(@NotNull MemoryServiceGrpc.MemoryServiceBlockingStub client,
                                int appId,
                                @NotNull HeapDumpInfo heapDumpInfo,
                                @Nullable ProguardMap proguardMap) {
+    this(client, appId, heapDumpInfo, proguardMap, STREAMING_ENABLED && proguardMap == null);
+  }
+
+  /**
+   * @param streaming whether to index the dump from a temporary file, see {@link HprofIndex}, instead of loading it with perflib
+   */
+  public HeapDumpCaptureObject(@NotNull MemoryServiceGrpc.MemoryServiceBlockingStub client,
+                               int appId,
+                               @NotNull HeapDumpInfo heapDumpInfo,
+                               @Nullable ProguardMap proguardMap,
+                               boolean streaming) {
     myClient = client;
     myAppId = appId;
     myHeapDumpInfo = heapDumpInfo;
     myProguardMap = proguardMap;
+    myStreaming = streaming;
   }
 
   @Override
   public void dispose() {
+    SnapshotDominators snapshotDominators = mySnapshotDominators;
+    if (snapshotDominators != null) {
+      snapshotDominators.cancel();
+    }
+    DominatorTree.Computation dominatorComputation = myDominatorComputation;
+    if (dominatorComputation != null) {
+      dominatorComputation.cancel();
+    }
     if (mySnapshot != null) {
       mySnapshot.dispose();
       mySnapshot = null;
     }
+    myIndex = null;
+    if (myDumpFile != null) {
+      // The mapping is released when the index is collected, so the file may only be deleted on exit on some platforms
+      if (!myDumpFile.delete()) {
+        myDumpFile.deleteOnExit();
+      }
+      myDumpFile = null;
+    }
   }
 
   @Override
@@ -77,6 +158,128 @@ public class HeapDumpCaptureObject extends CaptureObject {
   @NotNull
   @Override
   public List<HeapObject> getHeaps() {
+    if (myStreaming) {
+      return getIndexedHeaps();
+    }
+    ByteString data = fetchData();
+    if (data == null) {
+      return new ArrayList<>();
+    }
+
+    InMemoryBuffer buffer = new InMemoryBuffer(data.asReadOnlyByteBuffer());
+    if (myProguardMap != null) {
+      mySnapshot = Snapshot.createSnapshot(buffer, myProguardMap);
+    }
+    else {
+      mySnapshot = Snapshot.createSnapshot(buffer);
+    }
+    try {
+      mySnapshot.prepareDominatorComputation();
+      SnapshotDominators dominators = new SnapshotDominators(mySnapshot);
+      mySnapshotDominators = dominators;
+      mySnapshot.doComputeDominators(dominators);
+    }
+    catch (CancellationException e) {
+      return new ArrayList<>();
+    }
+    finally {
+      mySnapshotDominators = null;
+    }
+
+    return mySnapshot.getHeaps().stream().map(HeapDumpHeapObject::new).collect(Collectors.toList());
+  }
+
+  /**
+   * Writes the dump to a temporary file as it is received and indexes it from there, so only the index is kept in memory. Proguard
+   * mappings are not applied in this mode.
+   */
+  @NotNull
+  private List<HeapObject> getIndexedHeaps() {
+    try {
+      myDumpFile = FileUtil.createTempFile("heap_dump_" + myHeapDumpInfo.getDumpId(), ".hprof");
+      if (!fetchDataToFile(myDumpFile)) {
+        return new ArrayList<>();
+      }
+      myIndex = HprofIndex.open(myDumpFile);
+    }
+    catch (IOException e) {
+      LOG.warn("Unable to index heap dump " + myHeapDumpInfo.getDumpId(), e);
+      return new ArrayList<>();
+    }
+
+    HprofIndex index = myIndex;
+    DominatorTree dominators;
+    DominatorTree.Computation computation = new DominatorTree.Computation(index.buildGraph());
+    myDominatorComputation = computation;
+    try {
+      dominators = computation.run();
+    }
+    catch (CancellationException e) {
+      return new ArrayList<>();
+    }
+    finally {
+      myDominatorComputation = null;
+    }
+    return index.getHeaps().stream().map(heap -> new HprofHeapObject(heap, dominators)).collect(Collectors.toList());
+  }
+
+  /**
+   * Writes the dump to the given file chunk by chunk with {@link #METHOD_GET_HEAP_DUMP_CHUNKS}, or from a single getHeapDump response if
+   * the service does not implement it.
+   *
+   * @return false if the dump is not available
+   */
+  @VisibleForTesting
+  boolean fetchDataToFile(@NotNull File file) throws IOException {
+    HeapDumpDataRequest request = HeapDumpDataRequest.newBuilder().setAppId(myAppId).setDumpId(myHeapDumpInfo.getDumpId()).build();
+    while (true) {
+      ClientCall<HeapDumpDataRequest, DumpDataResponse> call =
+        myClient.getChannel().newCall(METHOD_GET_HEAP_DUMP_CHUNKS, myClient.getCallOptions());
+      try (FileOutputStream out = new FileOutputStream(file)) {
+        Iterator<DumpDataResponse> chunks = ClientCalls.blockingServerStreamingCall(call, request);
+        DumpDataResponse response = chunks.hasNext() ? chunks.next() : DumpDataResponse.getDefaultInstance();
+        if (response.getStatus() == DumpDataResponse.Status.NOT_READY) {
+          Thread.sleep(50L);
+          continue;
+        }
+        if (response.getStatus() != DumpDataResponse.Status.SUCCESS) {
+          return false;
+        }
+        try {
+          response.getData().writeTo(out);
+          while (chunks.hasNext()) {
+            chunks.next().getData().writeTo(out);
+          }
+        }
+        catch (IOException e) {
+          call.cancel("Unable to write heap dump", e);
+          throw e;
+        }
+        return true;
+      }
+      catch (StatusRuntimeException e) {
+        if (e.getStatus().getCode() != Status.Code.UNIMPLEMENTED) {
+          throw e;
+        }
+        ByteString data = fetchData();
+        if (data == null) {
+          return false;
+        }
+        try (FileOutputStream out = new FileOutputStream(file)) {
+          data.writeTo(out);
+        }
+        return true;
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        call.cancel("Interrupted", e);
+        return false;
+      }
+    }
+  }
+
+  @Nullable
+  private ByteString fetchData() {
     DumpDataResponse response;
     while (true) {
       // TODO move this to another thread and complete before we notify
@@ -90,22 +293,12 @@ public class HeapDumpCaptureObject extends CaptureObject {
         }
         catch (InterruptedException e) {
           Thread.currentThread().interrupt();
-          return new ArrayList<>();
+          return null;
         }
         continue;
       }
-      return new ArrayList<>();
+      return null;
     }
-
-    InMemoryBuffer buffer = new InMemoryBuffer(response.getData().asReadOnlyByteBuffer());
-    if (myProguardMap != null) {
-      mySnapshot = Snapshot.createSnapshot(buffer, myProguardMap);
-    }
-    else {
-      mySnapshot = Snapshot.createSnapshot(buffer);
-    }
-    mySnapshot.computeDominators();
-
-    return mySnapshot.getHeaps().stream().map(HeapDumpHeapObject::new).collect(Collectors.toList());
+    return response.getData();
   }
 }
@@ -33,15 +33,21 @@ class HeapDumpClassObject extends ClassObject {
 
   public HeapDumpClassObject(@NotNull ClassObj classObj) {
     myClassObj = classObj;
+    myMemoizedName = getDisplayName(myClassObj.getClassName());
+  }
 
-    String className = myClassObj.getClassName();
+  /**
+   * Formats a fully qualified class name as "Class (package)".
+   */
+  @NotNull
+  static String getDisplayName(@NotNull String className) {
     String packageName = null;
     int i = className.lastIndexOf(".");
     if (i != -1) {
       packageName = className.substring(0, i);
       className = className.substring(i + 1);
     }
-    myMemoizedName = packageName == null ? className : String.format("%s (%s)", className, packageName);
+    return packageName == null ? className : String.format("%s (%s)", className, packageName);
   }
 
   @NotNull
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import com.android.tools.profilers.memory.hprof.DominatorTree;
+import com.android.tools.profilers.memory.hprof.HprofClass;
+import com.android.tools.profilers.memory.hprof.HprofHeap;
+import com.android.tools.profilers.memory.hprof.HprofInstance;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+class HprofClassObject extends ClassObject {
+  @NotNull private final HprofHeap myHeap;
+  @NotNull private final HprofClass myClass;
+  @NotNull private final DominatorTree myDominators;
+  @NotNull private final String myMemoizedName;
+  private long myRetainedSize = -1;
+
+  public HprofClassObject(@NotNull HprofHeap heap, @NotNull HprofClass hprofClass, @NotNull DominatorTree dominators) {
+    myHeap = heap;
+    myClass = hprofClass;
+    myDominators = dominators;
+    myMemoizedName = HeapDumpClassObject.getDisplayName(hprofClass.getName());
+  }
+
+  @NotNull
+  @Override
+  public String getName() {
+    return myMemoizedName;
+  }
+
+  @Override
+  public int getChildrenCount() {
+    return myHeap.getInstanceCount(myClass);
+  }
+
+  @Override
+  public int getElementSize() {
+    return myClass.getInstanceSize();
+  }
+
+  @Override
+  public int getShallowSize() {
+    return (int)Math.min(Integer.MAX_VALUE, myHeap.getShallowSize(myClass));
+  }
+
+  /**
+   * Returns the sum of the retained sizes of the instances, which are read from the dump the first time.
+   */
+  @Override
+  public long getRetainedSize() {
+    if (myRetainedSize == -1) {
+      long retainedSize = 0;
+      for (HprofInstance instance : myHeap.getInstances(myClass)) {
+        retainedSize += myDominators.getRetainedSize(instance.getIndex().getNode(instance.getId()));
+      }
+      myRetainedSize = retainedSize;
+    }
+    return myRetainedSize;
+  }
+
+  @NotNull
+  @Override
+  public List<InstanceObject> getInstances() {
+    return myHeap.getInstances(myClass).stream().map(instance -> new HprofInstanceObject(instance, myDominators))
+      .collect(Collectors.toList());
+  }
+
+  @NotNull
+  @Override
+  public List<InstanceAttribute> getInstanceAttributes() {
+    return Arrays.asList(InstanceAttribute.LABEL, InstanceAttribute.DEPTH, InstanceAttribute.SHALLOW_SIZE, InstanceAttribute.RETAINED_SIZE);
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import com.android.tools.profilers.memory.hprof.DominatorTree;
+import com.android.tools.profilers.memory.hprof.HprofInstance;
+import com.android.tools.profilers.memory.hprof.HprofType;
+import com.google.common.collect.ImmutableMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A field of an {@link HprofInstanceObject}. The object it references, if any, is only read from the dump when needed.
+ */
+public class HprofFieldObject extends FieldObject {
+  private static final Map<HprofType, ValueType> ourValueTypeMap = ImmutableMap.<HprofType, ValueType>builder()
+    .put(HprofType.BOOLEAN, ValueType.BOOLEAN)
+    .put(HprofType.BYTE, ValueType.BYTE)
+    .put(HprofType.CHAR, ValueType.CHAR)
+    .put(HprofType.SHORT, ValueType.SHORT)
+    .put(HprofType.INT, ValueType.INT)
+    .put(HprofType.LONG, ValueType.LONG)
+    .put(HprofType.FLOAT, ValueType.FLOAT)
+    .put(HprofType.DOUBLE, ValueType.DOUBLE)
+    .build();
+
+  @NotNull private final HprofInstance myParent;
+  @NotNull private final HprofInstance.Field myField;
+  @NotNull private final DominatorTree myDominators;
+  @Nullable private HprofInstance myValue;
+  private boolean myValueRead;
+
+  public HprofFieldObject(@NotNull HprofInstance parent, @NotNull HprofInstance.Field field, @NotNull DominatorTree dominators) {
+    myParent = parent;
+    myField = field;
+    myDominators = dominators;
+  }
+
+  /**
+   * Returns the referenced object, or null if this is a primitive field, the reference is null or the object is not in the dump.
+   */
+  @Nullable
+  private HprofInstance getReferencedInstance() {
+    if (!myValueRead) {
+      myValueRead = true;
+      if (myField.getType() == HprofType.OBJECT && myField.getValue() != null) {
+        myValue = myParent.getIndex().findInstance((Long)myField.getValue());
+      }
+    }
+    return myValue;
+  }
+
+  @NotNull
+  @Override
+  public String getName() {
+    return myField.getName() + "=" + getValueLabel();
+  }
+
+  @Override
+  public int getShallowSize() {
+    HprofInstance instance = getReferencedInstance();
+    if (instance != null) {
+      return instance.getShallowSize();
+    }
+    return myField.getType() == HprofType.OBJECT ? 0 : myField.getType().getSize(0);
+  }
+
+  @Override
+  public long getRetainedSize() {
+    HprofInstance instance = getReferencedInstance();
+    if (instance != null) {
+      return myDominators.getRetainedSize(myParent.getIndex().getNode(instance.getId()));
+    }
+    return getShallowSize();
+  }
+
+  @Nullable
+  @Override
+  public List<FieldObject> getFields() {
+    HprofInstance instance = getReferencedInstance();
+    return instance == null ? Collections.emptyList() : new HprofInstanceObject(instance, myDominators).getFields();
+  }
+
+  @NotNull
+  @Override
+  public String getFieldName() {
+    return myField.getName();
+  }
+
+  @NotNull
+  @Override
+  public String getValueLabel() {
+    if (myField.getType() != HprofType.OBJECT) {
+      return String.valueOf(myField.getValue());
+    }
+    if (myField.getValue() == null) {
+      return " {null}";
+    }
+    HprofInstance instance = getReferencedInstance();
+    return instance == null ? String.format("0x%x", (Long)myField.getValue()) : instance.toString();
+  }
+
+  @Override
+  public ValueType getValueType() {
+    if (myField.getType() != HprofType.OBJECT) {
+      return ourValueTypeMap.getOrDefault(myField.getType(), ValueType.UNKNOWN);
+    }
+    HprofInstance instance = getReferencedInstance();
+    if (instance == null) {
+      return ValueType.UNKNOWN;
+    }
+    if (instance.isClassObject()) {
+      return ValueType.CLASS;
+    }
+    return "java.lang.String".equals(instance.getHprofClass().getName()) ? ValueType.STRING : ValueType.OBJECT;
+  }
+
+  @Override
+  public boolean getIsArray() {
+    HprofInstance instance = getReferencedInstance();
+    return instance != null && instance.isArray();
+  }
+}
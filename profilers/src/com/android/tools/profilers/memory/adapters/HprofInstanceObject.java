@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import com.android.tools.profilers.memory.hprof.DominatorTree;
+import com.android.tools.profilers.memory.hprof.HprofInstance;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class HprofInstanceObject extends InstanceObject {
+  @NotNull private final HprofInstance myInstance;
+  @NotNull private final DominatorTree myDominators;
+
+  public HprofInstanceObject(@NotNull HprofInstance instance, @NotNull DominatorTree dominators) {
+    myInstance = instance;
+    myDominators = dominators;
+  }
+
+  @NotNull
+  @Override
+  public String getName() {
+    if (myInstance.isArray()) {
+      return String.format("@%d (0x%x) [%d]", myInstance.getId(), myInstance.getId(), myInstance.getArrayLength());
+    }
+    return String.format("@%d (0x%x)", myInstance.getId(), myInstance.getId());
+  }
+
+  @Override
+  public int getShallowSize() {
+    return myInstance.getShallowSize();
+  }
+
+  @Override
+  public int getDepth() {
+    return myDominators.getDepth(myInstance.getIndex().getNode(myInstance.getId()));
+  }
+
+  @Override
+  public long getRetainedSize() {
+    return myDominators.getRetainedSize(myInstance.getIndex().getNode(myInstance.getId()));
+  }
+
+  @Nullable
+  @Override
+  public List<FieldObject> getFields() {
+    return myInstance.getFields().stream().map(field -> new HprofFieldObject(myInstance, field, myDominators)).collect(Collectors.toList());
+  }
+
+  @Override
+  public boolean getIsArray() {
+    return myInstance.isArray();
+  }
+}
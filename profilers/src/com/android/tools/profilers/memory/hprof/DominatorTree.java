@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.hprof;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Dominator tree of a {@link HeapGraph}, rooted at {@link HeapGraph#ROOT}, and the retained size of each node: the total size of the
+ * nodes it dominates, i.e. of the objects that would be collected if it was. The depth of each node, its distance to the GC roots, is
+ * computed along with it.
+ * <p>
+ * It is computed with the semi-NCA algorithm (Georgiadis, "Linear-Time Algorithms for Dominators and Related Problems"), see
+ * {@link Computation}, on arrays indexed by node so that it scales to dumps of millions of objects.
+ */
+public final class DominatorTree {
+  /** The dominator of the root and of the unreachable nodes */
+  public static final int NO_DOMINATOR = -1;
+
+  @NotNull private final int[] myDominators;
+  @NotNull private final long[] myRetainedSizes;
+  @NotNull private final int[] myDepths;
+  private final int myReachableCount;
+
+  private DominatorTree(@NotNull int[] dominators, @NotNull long[] retainedSizes, @NotNull int[] depths, int reachableCount) {
+    myDominators = dominators;
+    myRetainedSizes = retainedSizes;
+    myDepths = depths;
+    myReachableCount = reachableCount;
+  }
+
+  /**
+   * Computes the dominator tree of the given graph on the calling thread, using the common fork join pool for the parallel stages.
+   */
+  @NotNull
+  public static DominatorTree compute(@NotNull HeapGraph graph) {
+    return new Computation(graph).run();
+  }
+
+  public int getNodeCount() {
+    return myDominators.length;
+  }
+
+  /**
+   * Returns the number of nodes reachable from the root, including the root.
+   */
+  public int getReachableCount() {
+    return myReachableCount;
+  }
+
+  public boolean isReachable(int node) {
+    return node == HeapGraph.ROOT || myDominators[node] != NO_DOMINATOR;
+  }
+
+  /**
+   * Returns the immediate dominator of the given node, or {@link #NO_DOMINATOR} for the root and the unreachable nodes.
+   */
+  public int getImmediateDominator(int node) {
+    return myDominators[node];
+  }
+
+  /**
+   * Returns the retained size of the given node, 0 if it is unreachable.
+   */
+  public long getRetainedSize(int node) {
+    return myRetainedSizes[node];
+  }
+
+  /**
+   * Returns the length of the shortest path from the GC roots to the given node, 0 for the GC roots, or -1 for the root and the unreachable
+   * nodes.
+   */
+  public int getDepth(int node) {
+    return myDepths[node];
+  }
+
+  /**
+   * One computation of a dominator tree, which can report its progress and be cancelled from other threads.
+   * <p>
+   * The depth-first search and the semi-dominator pass depend on the order in which the nodes are visited, so they are sequential. The
+   * other stages are split in chunks of nodes run in parallel: collecting the references to each node, which also resolves the
+   * semi-dominator candidates of the forward references so that the sequential pass only follows the cross and back references, and
+   * mapping the results back to the nodes.
+   */
+  public static final class Computation {
+    public enum Stage {
+      DEPTH_FIRST_SEARCH("Traversing the heap..."),
+      PREDECESSORS("Collecting references..."),
+      SEMI_DOMINATORS("Computing semi-dominators..."),
+      DOMINATORS("Computing dominators..."),
+      RETAINED_SIZES("Computing retained sizes..."),
+      DEPTHS("Computing depths...");
+
+      @NotNull private final String myMessage;
+
+      Stage(@NotNull String message) {
+        myMessage = message;
+      }
+
+      @NotNull
+      public String getMessage() {
+        return myMessage;
+      }
+    }
+
+    /** Mask of the number of nodes processed between two progress updates and cancellation checks */
+    private static final int CHECK_MASK = (1 << 16) - 1;
+    /** Number of nodes in a task of a parallel stage */
+    private static final int CHUNK_SIZE = 1 << 14;
+
+    @NotNull private final HeapGraph myGraph;
+    private volatile boolean myCanceled;
+    @NotNull private volatile Stage myStage = Stage.DEPTH_FIRST_SEARCH;
+    private volatile double myStageProgress;
+
+    public Computation(@NotNull HeapGraph graph) {
+      myGraph = graph;
+    }
+
+    /**
+     * Stops the computation, which throws a {@link CancellationException} shortly after.
+     */
+    public void cancel() {
+      myCanceled = true;
+    }
+
+    public boolean isCanceled() {
+      return myCanceled;
+    }
+
+    @NotNull
+    public Stage getStage() {
+      return myStage;
+    }
+
+    @NotNull
+    public String getMessage() {
+      return myStage.getMessage();
+    }
+
+    /**
+     * Returns the overall progress, between 0 and 1.
+     */
+    public double getProgress() {
+      return (myStage.ordinal() + myStageProgress) / Stage.values().length;
+    }
+
+    /**
+     * Computes the tree on the calling thread, using the common fork join pool for the parallel stages.
+     *
+     * @throws CancellationException if {@link #cancel()} is called before the computation completes
+     */
+    @NotNull
+    public DominatorTree run() {
+      int nodeCount = myGraph.getNodeCount();
+      int[] edgeStarts = myGraph.getEdgeStarts();
+      int[] edges = myGraph.getEdges();
+
+      // The nodes are numbered in the order of a depth-first search from the root; the unreachable ones are ignored from here on
+      startStage(Stage.DEPTH_FIRST_SEARCH);
+      int[] numbers = new int[nodeCount];
+      Arrays.fill(numbers, -1);
+      int[] vertices = new int[nodeCount];
+      int[] parents = new int[nodeCount];
+      int[] stack = new int[nodeCount];
+      int[] edgeCursors = new int[nodeCount];
+      numbers[HeapGraph.ROOT] = 0;
+      vertices[0] = HeapGraph.ROOT;
+      int count = 1;
+      int depth = 0;
+      stack[0] = HeapGraph.ROOT;
+      edgeCursors[0] = edgeStarts[HeapGraph.ROOT];
+      while (depth >= 0) {
+        int node = stack[depth];
+        if (edgeCursors[depth] == edgeStarts[node + 1]) {
+          depth--;
+          continue;
+        }
+        int next = edges[edgeCursors[depth]++];
+        if (numbers[next] == -1) {
+          numbers[next] = count;
+          vertices[count] = next;
+          parents[count] = numbers[node];
+          count++;
+          depth++;
+          stack[depth] = next;
+          edgeCursors[depth] = edgeStarts[next];
+          if ((count & CHECK_MASK) == 0) {
+            checkpoint((double)count / nodeCount);
+          }
+        }
+      }
+      int reachableCount = count;
+
+      // The semi-dominator of a node is at most the smallest number of the nodes that reference it and were visited before it, so
+      // those references are resolved here and only the ones from nodes visited after it are kept
+      startStage(Stage.PREDECESSORS);
+      AtomicIntegerArray semiCandidates = new AtomicIntegerArray(reachableCount);
+      AtomicIntegerArray laterCounts = new AtomicIntegerArray(reachableCount + 1);
+      for (int i = 0; i < reachableCount; i++) {
+        semiCandidates.set(i, i);
+      }
+      forEachInParallel(reachableCount, 0.5, from -> {
+        int node = vertices[from];
+        for (int i = edgeStarts[node]; i < edgeStarts[node + 1]; i++) {
+          int to = numbers[edges[i]];
+          if (from < to) {
+            semiCandidates.accumulateAndGet(to, from, Math::min);
+          }
+          else if (from > to) {
+            laterCounts.incrementAndGet(to + 1);
+          }
+        }
+      });
+      int[] laterStarts = new int[reachableCount + 1];
+      for (int i = 1; i <= reachableCount; i++) {
+        laterStarts[i] = laterStarts[i - 1] + laterCounts.get(i);
+      }
+      int[] laterPredecessors = new int[laterStarts[reachableCount]];
+      AtomicIntegerArray laterCursors = new AtomicIntegerArray(Arrays.copyOf(laterStarts, reachableCount));
+      forEachInParallel(reachableCount, 0.5, from -> {
+        int node = vertices[from];
+        for (int i = edgeStarts[node]; i < edgeStarts[node + 1]; i++) {
+          int to = numbers[edges[i]];
+          if (from > to) {
+            laterPredecessors[laterCursors.getAndIncrement(to)] = from;
+          }
+        }
+      });
+
+      // Semi-dominators, in reverse order, with the path compression of Lengauer and Tarjan's simple version
+      startStage(Stage.SEMI_DOMINATORS);
+      int[] semis = new int[reachableCount];
+      int[] labels = new int[reachableCount];
+      int[] ancestors = new int[reachableCount];
+      for (int i = 0; i < reachableCount; i++) {
+        semis[i] = semiCandidates.get(i);
+        labels[i] = i;
+        ancestors[i] = -1;
+      }
+      for (int w = reachableCount - 1; w > 0; w--) {
+        int semi = semis[w];
+        for (int i = laterStarts[w]; i < laterStarts[w + 1]; i++) {
+          int label = eval(laterPredecessors[i], semis, labels, ancestors, stack);
+          if (semis[label] < semi) {
+            semi = semis[label];
+          }
+        }
+        semis[w] = semi;
+        ancestors[w] = parents[w];
+        if ((w & CHECK_MASK) == 0) {
+          checkpoint(1 - (double)w / reachableCount);
+        }
+      }
+
+      // The immediate dominator of a node is the nearest common ancestor of its parent and its semi-dominator in the dominator tree
+      startStage(Stage.DOMINATORS);
+      int[] dominators = parents;
+      for (int v = 1; v < reachableCount; v++) {
+        int dominator = dominators[v];
+        while (dominator > semis[v]) {
+          dominator = dominators[dominator];
+        }
+        dominators[v] = dominator;
+        if ((v & CHECK_MASK) == 0) {
+          checkpoint((double)v / reachableCount);
+        }
+      }
+
+      // A node is numbered after its dominator, so the sizes are added up in reverse order
+      startStage(Stage.RETAINED_SIZES);
+      long[] retainedSizes = new long[reachableCount];
+      for (int v = 0; v < reachableCount; v++) {
+        retainedSizes[v] = myGraph.getSize(vertices[v]);
+      }
+      for (int v = reachableCount - 1; v > 0; v--) {
+        retainedSizes[dominators[v]] += retainedSizes[v];
+      }
+      int[] nodeDominators = new int[nodeCount];
+      Arrays.fill(nodeDominators, NO_DOMINATOR);
+      long[] nodeRetainedSizes = new long[nodeCount];
+      nodeRetainedSizes[HeapGraph.ROOT] = retainedSizes[0];
+      forEachInParallel(reachableCount, 1, v -> {
+        if (v > 0) {
+          nodeDominators[vertices[v]] = vertices[dominators[v]];
+          nodeRetainedSizes[vertices[v]] = retainedSizes[v];
+        }
+      });
+
+      // Breadth-first search from the GC roots, which are the nodes referenced by the root, reusing the stack as the queue
+      startStage(Stage.DEPTHS);
+      int[] nodeDepths = new int[nodeCount];
+      Arrays.fill(nodeDepths, -1);
+      int[] queue = stack;
+      int head = 0;
+      int tail = 0;
+      for (int i = edgeStarts[HeapGraph.ROOT]; i < edgeStarts[HeapGraph.ROOT + 1]; i++) {
+        int gcRoot = edges[i];
+        if (gcRoot != HeapGraph.ROOT && nodeDepths[gcRoot] == -1) {
+          nodeDepths[gcRoot] = 0;
+          queue[tail++] = gcRoot;
+        }
+      }
+      while (head < tail) {
+        int node = queue[head++];
+        for (int i = edgeStarts[node]; i < edgeStarts[node + 1]; i++) {
+          int next = edges[i];
+          if (next != HeapGraph.ROOT && nodeDepths[next] == -1) {
+            nodeDepths[next] = nodeDepths[node] + 1;
+            queue[tail++] = next;
+          }
+        }
+        if ((head & CHECK_MASK) == 0) {
+          checkpoint((double)head / reachableCount);
+        }
+      }
+      checkpoint(1);
+      return new DominatorTree(nodeDominators, nodeRetainedSizes, nodeDepths, reachableCount);
+    }
+
+    /**
+     * Returns the node with the smallest semi-dominator on the path from the given node to the root of its tree in the forest of the
+     * processed nodes, compressing that path.
+     */
+    private static int eval(int v, @NotNull int[] semis, @NotNull int[] labels, @NotNull int[] ancestors, @NotNull int[] path) {
+      if (ancestors[v] == -1) {
+        return v;
+      }
+      int length = 0;
+      for (int u = v; ancestors[ancestors[u]] != -1; u = ancestors[u]) {
+        path[length++] = u;
+      }
+      // From the top of the path, so that each node sees the compressed path of its ancestor
+      while (length > 0) {
+        int u = path[--length];
+        int ancestor = ancestors[u];
+        if (semis[labels[ancestor]] < semis[labels[u]]) {
+          labels[u] = labels[ancestor];
+        }
+        ancestors[u] = ancestors[ancestor];
+      }
+      return labels[v];
+    }
+
+    /**
+     * Runs the given action for each number from 0 to {@code count} - 1 in chunks on the common fork join pool.
+     *
+     * @param weight the part of the current stage this accounts for
+     */
+    private void forEachInParallel(int count, double weight, @NotNull IntConsumer action) {
+      int chunkCount = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+      double startProgress = myStageProgress;
+      AtomicInteger completedChunks = new AtomicInteger();
+      IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+        if (myCanceled) {
+          return;
+        }
+        int end = Math.min(count, (chunk + 1) * CHUNK_SIZE);
+        for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+          action.accept(i);
+        }
+        myStageProgress = startProgress + weight * completedChunks.incrementAndGet() / chunkCount;
+      });
+      checkpoint(startProgress + weight);
+    }
+
+    private void startStage(@NotNull Stage stage) {
+      myStage = stage;
+      checkpoint(0);
+    }
+
+    private void checkpoint(double stageProgress) {
+      if (myCanceled) {
+        throw new CancellationException("Dominator computation cancelled");
+      }
+      myStageProgress = stageProgress;
+    }
+  }
+}
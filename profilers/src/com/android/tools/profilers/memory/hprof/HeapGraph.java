@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.hprof;
+
+import gnu.trove.TIntArrayList;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Object graph of a heap dump, with the objects numbered from 1 and the references kept as compressed sparse rows: the references of
+ * node {@code n} are {@code getEdges()[getEdgeStarts()[n]]} to {@code getEdges()[getEdgeStarts()[n + 1] - 1]}. Node {@link #ROOT} is a
+ * synthetic root that references the GC roots.
+ */
+public final class HeapGraph {
+  public static final int ROOT = 0;
+
+  @NotNull private final int[] myEdgeStarts;
+  @NotNull private final int[] myEdges;
+  @NotNull private final long[] mySizes;
+
+  /**
+   * @param edgeStarts the position in {@code edges} of the references of each node, followed by the number of edges
+   * @param sizes      the shallow size of each node
+   */
+  public HeapGraph(@NotNull int[] edgeStarts, @NotNull int[] edges, @NotNull long[] sizes) {
+    if (edgeStarts.length != sizes.length + 1 || edgeStarts[sizes.length] != edges.length) {
+      throw new IllegalArgumentException("Inconsistent graph: " + sizes.length + " nodes, " + edges.length + " edges");
+    }
+    myEdgeStarts = edgeStarts;
+    myEdges = edges;
+    mySizes = sizes;
+  }
+
+  public int getNodeCount() {
+    return mySizes.length;
+  }
+
+  public int getEdgeCount() {
+    return myEdges.length;
+  }
+
+  public long getSize(int node) {
+    return mySizes[node];
+  }
+
+  @NotNull
+  int[] getEdgeStarts() {
+    return myEdgeStarts;
+  }
+
+  @NotNull
+  int[] getEdges() {
+    return myEdges;
+  }
+
+  /**
+   * Builds a graph from references added in any order.
+   */
+  public static final class Builder {
+    @NotNull private final long[] mySizes;
+    @NotNull private final TIntArrayList mySources = new TIntArrayList();
+    @NotNull private final TIntArrayList myTargets = new TIntArrayList();
+
+    /**
+     * @param nodeCount the number of nodes, including the {@link #ROOT}
+     */
+    public Builder(int nodeCount) {
+      mySizes = new long[nodeCount];
+    }
+
+    @NotNull
+    public Builder setSize(int node, long size) {
+      mySizes[node] = size;
+      return this;
+    }
+
+    @NotNull
+    public Builder addEdge(int from, int to) {
+      if (from < 0 || from >= mySizes.length || to < 0 || to >= mySizes.length) {
+        throw new IndexOutOfBoundsException("Edge " + from + " -> " + to + " in a graph of " + mySizes.length + " nodes");
+      }
+      mySources.add(from);
+      myTargets.add(to);
+      return this;
+    }
+
+    @NotNull
+    public HeapGraph build() {
+      // Counting sort of the edges by source
+      int[] edgeStarts = new int[mySizes.length + 1];
+      for (int i = 0; i < mySources.size(); i++) {
+        edgeStarts[mySources.get(i) + 1]++;
+      }
+      for (int i = 0; i < mySizes.length; i++) {
+        edgeStarts[i + 1] += edgeStarts[i];
+      }
+      int[] cursors = Arrays.copyOf(edgeStarts, mySizes.length);
+      int[] edges = new int[mySources.size()];
+      for (int i = 0; i < mySources.size(); i++) {
+        edges[cursors[mySources.get(i)]++] = myTargets.get(i);
+      }
+      return new HeapGraph(edgeStarts, edges, mySizes.clone());
+    }
+  }
+}
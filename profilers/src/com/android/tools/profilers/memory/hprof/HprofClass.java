@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.hprof;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A class of an hprof file. Its instance fields are the ones it declares, not including the ones of its superclasses.
+ */
+public final class HprofClass {
+  private static final String[] NO_NAMES = new String[0];
+  private static final HprofType[] NO_TYPES = new HprofType[0];
+
+  private final int myIndex;
+  private final long myId;
+  @NotNull private String myName;
+  @Nullable private HprofClass mySuperclass;
+  private long mySuperclassId;
+  private int myInstanceSize;
+  @NotNull private String[] myFieldNames = NO_NAMES;
+  @NotNull private HprofType[] myFieldTypes = NO_TYPES;
+  /** The primitive type of the elements of the arrays of this class, e.g. for byte[] */
+  @Nullable private final HprofType myElementType;
+
+  HprofClass(int index, long id, @NotNull String name, @Nullable HprofType elementType) {
+    myIndex = index;
+    myId = id;
+    myName = name;
+    myElementType = elementType;
+  }
+
+  /**
+   * Returns the index of this class in {@link HprofIndex#getClasses()}.
+   */
+  public int getIndex() {
+    return myIndex;
+  }
+
+  /**
+   * Returns the id of the class object, or 0 for the classes of primitive arrays, which are not identified by the dump.
+   */
+  public long getId() {
+    return myId;
+  }
+
+  @NotNull
+  public String getName() {
+    return myName;
+  }
+
+  void setName(@NotNull String name) {
+    myName = name;
+  }
+
+  @Nullable
+  public HprofClass getSuperclass() {
+    return mySuperclass;
+  }
+
+  long getSuperclassId() {
+    return mySuperclassId;
+  }
+
+  void setSuperclass(@Nullable HprofClass superclass) {
+    mySuperclass = superclass;
+  }
+
+  /**
+   * Returns the size of an instance of this class, as declared by the dump.
+   */
+  public int getInstanceSize() {
+    return myInstanceSize;
+  }
+
+  public boolean isArrayClass() {
+    return myElementType != null || myName.endsWith("[]");
+  }
+
+  @Nullable
+  HprofType getElementType() {
+    return myElementType;
+  }
+
+  @NotNull
+  public String[] getFieldNames() {
+    return myFieldNames;
+  }
+
+  @NotNull
+  public HprofType[] getFieldTypes() {
+    return myFieldTypes;
+  }
+
+  void setDump(long superclassId, int instanceSize, @NotNull String[] fieldNames, @NotNull HprofType[] fieldTypes) {
+    mySuperclassId = superclassId;
+    myInstanceSize = instanceSize;
+    myFieldNames = fieldNames;
+    myFieldTypes = fieldTypes;
+  }
+
+  @Override
+  public String toString() {
+    return myName;
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.hprof;
+
+import gnu.trove.TIntArrayList;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A heap of an hprof file, e.g. the app or the zygote heap, with the histogram of the classes of the objects it contains. The objects
+ * themselves are only read from the file when they are requested.
+ */
+public final class HprofHeap {
+  @NotNull private final HprofIndex myIndex;
+  private final int myId;
+  @NotNull private final String myName;
+  /** Indexed by class index */
+  @NotNull private int[] myInstanceCounts = new int[0];
+  @NotNull private long[] myArraySizes = new long[0];
+  @NotNull private TIntArrayList[] myInstanceOffsets = new TIntArrayList[0];
+
+  HprofHeap(@NotNull HprofIndex index, int id, @NotNull String name) {
+    myIndex = index;
+    myId = id;
+    myName = name;
+  }
+
+  public int getId() {
+    return myId;
+  }
+
+  @NotNull
+  public String getName() {
+    return myName;
+  }
+
+  void addInstance(int classIndex, int offset, long arraySize) {
+    if (classIndex >= myInstanceCounts.length) {
+      int capacity = Math.max(classIndex + 1, myInstanceCounts.length * 2);
+      myInstanceCounts = Arrays.copyOf(myInstanceCounts, capacity);
+      myArraySizes = Arrays.copyOf(myArraySizes, capacity);
+      myInstanceOffsets = Arrays.copyOf(myInstanceOffsets, capacity);
+    }
+    myInstanceCounts[classIndex]++;
+    myArraySizes[classIndex] += arraySize;
+    if (myInstanceOffsets[classIndex] == null) {
+      myInstanceOffsets[classIndex] = new TIntArrayList();
+    }
+    myInstanceOffsets[classIndex].add(offset);
+  }
+
+  /**
+   * Returns the classes that have instances in this heap.
+   */
+  @NotNull
+  public List<HprofClass> getClasses() {
+    List<HprofClass> classes = new ArrayList<>();
+    for (int i = 0; i < myInstanceCounts.length; i++) {
+      if (myInstanceCounts[i] > 0) {
+        classes.add(myIndex.getClasses().get(i));
+      }
+    }
+    return classes;
+  }
+
+  public int getInstanceCount(@NotNull HprofClass hprofClass) {
+    return hprofClass.getIndex() < myInstanceCounts.length ? myInstanceCounts[hprofClass.getIndex()] : 0;
+  }
+
+  /**
+   * Returns the total shallow size of the instances of the given class in this heap.
+   */
+  public long getShallowSize(@NotNull HprofClass hprofClass) {
+    if (hprofClass.getIndex() >= myInstanceCounts.length) {
+      return 0;
+    }
+    return hprofClass.isArrayClass()
+           ? myArraySizes[hprofClass.getIndex()]
+           : (long)myInstanceCounts[hprofClass.getIndex()] * hprofClass.getInstanceSize();
+  }
+
+  /**
+   * Reads the instances of the given class in this heap from the file.
+   */
+  @NotNull
+  public List<HprofInstance> getInstances(@NotNull HprofClass hprofClass) {
+    if (hprofClass.getIndex() >= myInstanceOffsets.length || myInstanceOffsets[hprofClass.getIndex()] == null) {
+      return new ArrayList<>();
+    }
+    TIntArrayList offsets = myInstanceOffsets[hprofClass.getIndex()];
+    List<HprofInstance> instances = new ArrayList<>(offsets.size());
+    for (int i = 0; i < offsets.size(); i++) {
+      instances.add(myIndex.readInstance(offsets.get(i)));
+    }
+    return instances;
+  }
+
+  @Override
+  public String toString() {
+    return myName;
+  }
+}
@@ -0,0 +1,714 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.hprof;
+
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TLongArrayList;
+import gnu.trove.TLongIntHashMap;
+import gnu.trove.TLongLongHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Index of an hprof heap dump, built in a single pass over the file without creating an object per instance: the classes, the histogram
+ * of the instances of each class per heap, the position of the record of each object and the GC roots.
+ * <p>
+ * The dump is typically a memory-mapped file, see {@link #open(File)}, so its pages are only loaded when read and can be dropped by the
+ * OS. The instances and their fields are read from it when requested, see {@link HprofHeap#getInstances(HprofClass)} and
+ * {@link #findInstance(long)}.
+ */
+public final class HprofIndex {
+  private static final int TAG_STRING = 0x01;
+  private static final int TAG_LOAD_CLASS = 0x02;
+  private static final int TAG_HEAP_DUMP = 0x0C;
+  private static final int TAG_HEAP_DUMP_SEGMENT = 0x1C;
+
+  private static final int ROOT_UNKNOWN = 0xFF;
+  private static final int ROOT_JNI_GLOBAL = 0x01;
+  private static final int ROOT_JNI_LOCAL = 0x02;
+  private static final int ROOT_JAVA_FRAME = 0x03;
+  private static final int ROOT_NATIVE_STACK = 0x04;
+  private static final int ROOT_STICKY_CLASS = 0x05;
+  private static final int ROOT_THREAD_BLOCK = 0x06;
+  private static final int ROOT_MONITOR_USED = 0x07;
+  private static final int ROOT_THREAD_OBJECT = 0x08;
+  private static final int ROOT_INTERNED_STRING = 0x89;
+  private static final int ROOT_FINALIZING = 0x8A;
+  private static final int ROOT_DEBUGGER = 0x8B;
+  private static final int ROOT_REFERENCE_CLEANUP = 0x8C;
+  private static final int ROOT_VM_INTERNAL = 0x8D;
+  private static final int ROOT_JNI_MONITOR = 0x8E;
+  private static final int ROOT_UNREACHABLE = 0x90;
+  private static final int CLASS_DUMP = 0x20;
+  private static final int INSTANCE_DUMP = 0x21;
+  private static final int OBJECT_ARRAY_DUMP = 0x22;
+  private static final int PRIMITIVE_ARRAY_DUMP = 0x23;
+  private static final int PRIMITIVE_ARRAY_NODATA = 0xC3;
+  private static final int HEAP_DUMP_INFO = 0xFE;
+
+  private static final int DEFAULT_HEAP_ID = 0;
+
+  /** Number of objects read by a task when building the graph */
+  private static final int GRAPH_CHUNK_SIZE = 1 << 14;
+
+  @NotNull private final ByteBuffer myBuffer;
+  private final int myIdSize;
+  /** Position and length of the strings, packed as position << 32 | length, by id */
+  @NotNull private final TLongLongHashMap myStrings = new TLongLongHashMap();
+  /** Ids of the names of the classes, by class id */
+  @NotNull private final TLongLongHashMap myClassNameIds = new TLongLongHashMap();
+  @NotNull private final TLongIntHashMap myClassIndices = new TLongIntHashMap();
+  @NotNull private final List<HprofClass> myClasses = new ArrayList<>();
+  @NotNull private final HprofClass[] myPrimitiveArrayClasses = new HprofClass[HprofType.values().length];
+  @NotNull private final TIntObjectHashMap<HprofHeap> myHeapsById = new TIntObjectHashMap<>();
+  @NotNull private final List<HprofHeap> myHeaps = new ArrayList<>();
+  @Nullable private HprofHeap myCurrentHeap;
+  @NotNull private final TLongArrayList myRoots = new TLongArrayList();
+  /** Ids of all the objects, sorted once the index is built, and the positions of their records */
+  @NotNull private long[] myObjectIds = new long[1024];
+  @NotNull private int[] myObjectOffsets = new int[1024];
+  private int myObjectCount;
+
+  /**
+   * Maps the given file and indexes it.
+   */
+  @NotNull
+  public static HprofIndex open(@NotNull File file) throws IOException {
+    try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Heap dump too large to be mapped: " + channel.size() + " bytes");
+      }
+      return new HprofIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  public HprofIndex(@NotNull ByteBuffer buffer) throws IOException {
+    myBuffer = buffer;
+    try {
+      int pos = 0;
+      while (myBuffer.get(pos) != 0) {
+        pos++;
+      }
+      pos++; // The format name, e.g. "JAVA PROFILE 1.0.3"
+      myIdSize = myBuffer.getInt(pos);
+      if (myIdSize != 4 && myIdSize != 8) {
+        throw new IOException("Unsupported identifier size " + myIdSize);
+      }
+      pos += 4 + 8; // The identifier size and the timestamp
+      parseRecords(pos);
+    }
+    catch (IndexOutOfBoundsException e) {
+      throw new IOException("Truncated heap dump", e);
+    }
+    finish();
+  }
+
+  private void parseRecords(int pos) throws IOException {
+    int limit = myBuffer.limit();
+    while (pos < limit) {
+      int tag = myBuffer.get(pos) & 0xFF;
+      int length = myBuffer.getInt(pos + 5);
+      int body = pos + 9;
+      if (length < 0 || body + length > limit) {
+        throw new IOException("Invalid record length " + length + " at " + pos);
+      }
+      switch (tag) {
+        case TAG_STRING:
+          myStrings.put(readId(body), (long)(body + myIdSize) << 32 | (length - myIdSize));
+          break;
+        case TAG_LOAD_CLASS:
+          myClassNameIds.put(readId(body + 4), readId(body + 8 + myIdSize));
+          break;
+        case TAG_HEAP_DUMP:
+        case TAG_HEAP_DUMP_SEGMENT:
+          parseHeapDump(body, body + length);
+          break;
+        default:
+          // Stack traces, threads, etc. are not shown
+          break;
+      }
+      pos = body + length;
+    }
+  }
+
+  private void parseHeapDump(int pos, int end) throws IOException {
+    while (pos < end) {
+      int recordStart = pos;
+      int tag = myBuffer.get(pos++) & 0xFF;
+      switch (tag) {
+        case ROOT_UNKNOWN:
+        case ROOT_STICKY_CLASS:
+        case ROOT_MONITOR_USED:
+        case ROOT_INTERNED_STRING:
+        case ROOT_FINALIZING:
+        case ROOT_DEBUGGER:
+        case ROOT_REFERENCE_CLEANUP:
+        case ROOT_VM_INTERNAL:
+        case ROOT_UNREACHABLE:
+          myRoots.add(readId(pos));
+          pos += myIdSize;
+          break;
+        case ROOT_JNI_GLOBAL:
+          myRoots.add(readId(pos));
+          pos += 2 * myIdSize;
+          break;
+        case ROOT_NATIVE_STACK:
+        case ROOT_THREAD_BLOCK:
+          myRoots.add(readId(pos));
+          pos += myIdSize + 4;
+          break;
+        case ROOT_JNI_LOCAL:
+        case ROOT_JAVA_FRAME:
+        case ROOT_THREAD_OBJECT:
+        case ROOT_JNI_MONITOR:
+          myRoots.add(readId(pos));
+          pos += myIdSize + 8;
+          break;
+        case HEAP_DUMP_INFO:
+          myCurrentHeap = getOrCreateHeap(myBuffer.getInt(pos), readId(pos + 4));
+          pos += 4 + myIdSize;
+          break;
+        case CLASS_DUMP:
+          pos = parseClassDump(recordStart, pos);
+          break;
+        case INSTANCE_DUMP: {
+          long id = readId(pos);
+          long classId = readId(pos + myIdSize + 4);
+          int length = myBuffer.getInt(pos + 2 * myIdSize + 4);
+          addObject(id, recordStart);
+          getCurrentHeap().addInstance(getClassIndex(classId), recordStart, 0);
+          pos += 2 * myIdSize + 8 + length;
+          break;
+        }
+        case OBJECT_ARRAY_DUMP: {
+          long id = readId(pos);
+          int length = myBuffer.getInt(pos + myIdSize + 4);
+          long classId = readId(pos + myIdSize + 8);
+          addObject(id, recordStart);
+          getCurrentHeap().addInstance(getClassIndex(classId), recordStart, (long)length * myIdSize);
+          pos += 2 * myIdSize + 8 + length * myIdSize;
+          break;
+        }
+        case PRIMITIVE_ARRAY_DUMP:
+        case PRIMITIVE_ARRAY_NODATA: {
+          long id = readId(pos);
+          int length = myBuffer.getInt(pos + myIdSize + 4);
+          HprofType type = readType(pos + myIdSize + 8);
+          int size = length * type.getSize(myIdSize);
+          addObject(id, recordStart);
+          getCurrentHeap().addInstance(getPrimitiveArrayClass(type).getIndex(), recordStart, size);
+          pos += myIdSize + 9 + (tag == PRIMITIVE_ARRAY_DUMP ? size : 0);
+          break;
+        }
+        default:
+          throw new IOException(String.format("Unknown heap dump record 0x%x at %d", tag, recordStart));
+      }
+    }
+  }
+
+  private int parseClassDump(int recordStart, int pos) throws IOException {
+    long id = readId(pos);
+    long superclassId = readId(pos + myIdSize + 4);
+    pos += 7 * myIdSize + 4; // Class, stack trace, superclass, class loader, signers, protection domain and two reserved ids
+    int instanceSize = myBuffer.getInt(pos);
+    pos += 4;
+    int constantCount = myBuffer.getShort(pos) & 0xFFFF;
+    pos += 2;
+    for (int i = 0; i < constantCount; i++) {
+      pos += 3 + readType(pos + 2).getSize(myIdSize);
+    }
+    int staticCount = myBuffer.getShort(pos) & 0xFFFF;
+    pos += 2;
+    for (int i = 0; i < staticCount; i++) {
+      pos += myIdSize + 1 + readType(pos + myIdSize).getSize(myIdSize);
+    }
+    int fieldCount = myBuffer.getShort(pos) & 0xFFFF;
+    pos += 2;
+    String[] fieldNames = new String[fieldCount];
+    HprofType[] fieldTypes = new HprofType[fieldCount];
+    for (int i = 0; i < fieldCount; i++) {
+      fieldNames[i] = getString(readId(pos));
+      fieldTypes[i] = readType(pos + myIdSize);
+      pos += myIdSize + 1;
+    }
+
+    myClasses.get(getClassIndex(id)).setDump(superclassId, instanceSize, fieldNames, fieldTypes);
+    addObject(id, recordStart);
+    return pos;
+  }
+
+  @NotNull
+  private HprofHeap getOrCreateHeap(int id, long nameId) {
+    HprofHeap heap = myHeapsById.get(id);
+    if (heap == null) {
+      heap = new HprofHeap(this, id, nameId == 0 ? "default" : getString(nameId));
+      myHeapsById.put(id, heap);
+      myHeaps.add(heap);
+    }
+    return heap;
+  }
+
+  @NotNull
+  private HprofHeap getCurrentHeap() {
+    if (myCurrentHeap == null) {
+      // Only Android dumps declare their heaps
+      myCurrentHeap = getOrCreateHeap(DEFAULT_HEAP_ID, 0);
+    }
+    return myCurrentHeap;
+  }
+
+  /**
+   * Returns the index of the class with the given id, adding it if it has not been seen yet, as instances may come before their class.
+   */
+  private int getClassIndex(long classId) {
+    if (myClassIndices.containsKey(classId)) {
+      return myClassIndices.get(classId);
+    }
+    int index = myClasses.size();
+    myClasses.add(new HprofClass(index, classId, String.format("0x%x", classId), null));
+    myClassIndices.put(classId, index);
+    return index;
+  }
+
+  @NotNull
+  private HprofClass getPrimitiveArrayClass(@NotNull HprofType type) {
+    HprofClass arrayClass = myPrimitiveArrayClasses[type.ordinal()];
+    if (arrayClass == null) {
+      arrayClass = new HprofClass(myClasses.size(), 0, type.getName() + "[]", type);
+      myClasses.add(arrayClass);
+      myPrimitiveArrayClasses[type.ordinal()] = arrayClass;
+    }
+    return arrayClass;
+  }
+
+  private void addObject(long id, int offset) {
+    if (myObjectCount == myObjectIds.length) {
+      myObjectIds = Arrays.copyOf(myObjectIds, myObjectCount * 2);
+      myObjectOffsets = Arrays.copyOf(myObjectOffsets, myObjectCount * 2);
+    }
+    myObjectIds[myObjectCount] = id;
+    myObjectOffsets[myObjectCount] = offset;
+    myObjectCount++;
+  }
+
+  /**
+   * Resolves the names and superclasses of the classes, and sorts the objects by id.
+   */
+  private void finish() {
+    for (HprofClass hprofClass : myClasses) {
+      if (hprofClass.getId() != 0 && myClassNameIds.containsKey(hprofClass.getId())) {
+        hprofClass.setName(getClassName(getString(myClassNameIds.get(hprofClass.getId()))));
+      }
+      long superclassId = hprofClass.getSuperclassId();
+      if (superclassId != 0 && myClassIndices.containsKey(superclassId)) {
+        hprofClass.setSuperclass(myClasses.get(myClassIndices.get(superclassId)));
+      }
+    }
+    myObjectIds = Arrays.copyOf(myObjectIds, myObjectCount);
+    myObjectOffsets = Arrays.copyOf(myObjectOffsets, myObjectCount);
+    sortObjects(0, myObjectCount - 1);
+  }
+
+  /**
+   * Turns a class name as written by the JVM, e.g. "[Ljava/lang/String;", into the Java form, e.g. "java.lang.String[]". The names
+   * written by ART are already in the Java form.
+   */
+  @NotNull
+  static String getClassName(@NotNull String name) {
+    int dimensions = 0;
+    while (dimensions < name.length() && name.charAt(dimensions) == '[') {
+      dimensions++;
+    }
+    String element = name.substring(dimensions);
+    if (dimensions > 0) {
+      switch (element) {
+        case "Z": element = "boolean"; break;
+        case "C": element = "char"; break;
+        case "F": element = "float"; break;
+        case "D": element = "double"; break;
+        case "B": element = "byte"; break;
+        case "S": element = "short"; break;
+        case "I": element = "int"; break;
+        case "J": element = "long"; break;
+        default:
+          if (element.startsWith("L") && element.endsWith(";")) {
+            element = element.substring(1, element.length() - 1);
+          }
+      }
+    }
+    StringBuilder builder = new StringBuilder(element.replace('/', '.'));
+    for (int i = 0; i < dimensions; i++) {
+      builder.append("[]");
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Sorts the objects by id, with a quicksort as the ids and offsets are kept in separate arrays. The objects are usually dumped in
+   * address order, so this is often a single pass.
+   */
+  private void sortObjects(int low, int high) {
+    while (low < high) {
+      if (isSorted(low, high)) {
+        return;
+      }
+      long pivot = myObjectIds[(low + high) >>> 1];
+      int i = low;
+      int j = high;
+      while (i <= j) {
+        while (myObjectIds[i] < pivot) {
+          i++;
+        }
+        while (myObjectIds[j] > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          swapObjects(i++, j--);
+        }
+      }
+      // Recurse on the smaller part only, so the stack stays shallow
+      if (j - low < high - i) {
+        sortObjects(low, j);
+        low = i;
+      }
+      else {
+        sortObjects(i, high);
+        high = j;
+      }
+    }
+  }
+
+  private boolean isSorted(int low, int high) {
+    for (int i = low; i < high; i++) {
+      if (myObjectIds[i] > myObjectIds[i + 1]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void swapObjects(int i, int j) {
+    long id = myObjectIds[i];
+    myObjectIds[i] = myObjectIds[j];
+    myObjectIds[j] = id;
+    int offset = myObjectOffsets[i];
+    myObjectOffsets[i] = myObjectOffsets[j];
+    myObjectOffsets[j] = offset;
+  }
+
+  public int getIdSize() {
+    return myIdSize;
+  }
+
+  @NotNull
+  public List<HprofHeap> getHeaps() {
+    return Collections.unmodifiableList(myHeaps);
+  }
+
+  @NotNull
+  public List<HprofClass> getClasses() {
+    return Collections.unmodifiableList(myClasses);
+  }
+
+  /**
+   * Returns the ids of the GC roots. An object can be a root several times.
+   */
+  @NotNull
+  public long[] getRoots() {
+    return myRoots.toNativeArray();
+  }
+
+  public int getObjectCount() {
+    return myObjectCount;
+  }
+
+  /**
+   * Reads the object with the given id, or returns null if it is not in the dump.
+   */
+  @Nullable
+  public HprofInstance findInstance(long id) {
+    int index = Arrays.binarySearch(myObjectIds, id);
+    return index < 0 ? null : readInstance(myObjectOffsets[index]);
+  }
+
+  /**
+   * Returns the node of the object with the given id in the graph built by {@link #buildGraph()}, or -1 if it is not in the dump.
+   */
+  public int getNode(long id) {
+    int index = Arrays.binarySearch(myObjectIds, id);
+    return index < 0 ? -1 : index + 1;
+  }
+
+  /**
+   * Builds the graph of the references between the objects, from the fields of the instances, the elements of the object arrays and the
+   * static fields of the classes. The objects are read in parallel.
+   */
+  @NotNull
+  public HeapGraph buildGraph() {
+    TIntArrayList rootNodes = new TIntArrayList();
+    for (int i = 0; i < myRoots.size(); i++) {
+      addReference(myRoots.get(i), rootNodes);
+    }
+
+    // The number of references of each node is first stored after its start, then turned into the start of the next node
+    int[] edgeStarts = new int[myObjectCount + 2];
+    long[] sizes = new long[myObjectCount + 1];
+    int chunkCount = (myObjectCount + GRAPH_CHUNK_SIZE - 1) / GRAPH_CHUNK_SIZE;
+    TIntArrayList[] chunkEdges = new TIntArrayList[chunkCount];
+    IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+      TIntArrayList targets = new TIntArrayList();
+      int end = Math.min(myObjectCount, (chunk + 1) * GRAPH_CHUNK_SIZE);
+      for (int i = chunk * GRAPH_CHUNK_SIZE; i < end; i++) {
+        int previousCount = targets.size();
+        addReferences(myObjectOffsets[i], targets);
+        edgeStarts[i + 2] = targets.size() - previousCount;
+        sizes[i + 1] = readInstance(myObjectOffsets[i]).getShallowSize();
+      }
+      chunkEdges[chunk] = targets;
+    });
+    edgeStarts[1] = rootNodes.size();
+    for (int i = 1; i < edgeStarts.length; i++) {
+      edgeStarts[i] += edgeStarts[i - 1];
+    }
+
+    int[] edges = new int[edgeStarts[myObjectCount + 1]];
+    System.arraycopy(rootNodes.toNativeArray(), 0, edges, 0, rootNodes.size());
+    int position = rootNodes.size();
+    for (TIntArrayList targets : chunkEdges) {
+      System.arraycopy(targets.toNativeArray(), 0, edges, position, targets.size());
+      position += targets.size();
+    }
+    return new HeapGraph(edgeStarts, edges, sizes);
+  }
+
+  /**
+   * Adds the nodes of the objects referenced by the object whose record starts at the given position.
+   */
+  private void addReferences(int offset, @NotNull TIntArrayList targets) {
+    int pos = offset + 1;
+    switch (myBuffer.get(offset) & 0xFF) {
+      case CLASS_DUMP: {
+        pos += 7 * myIdSize + 8;
+        int constantCount = myBuffer.getShort(pos) & 0xFFFF;
+        pos += 2;
+        for (int i = 0; i < constantCount; i++) {
+          pos += 3 + getType(pos + 2).getSize(myIdSize);
+        }
+        int staticCount = myBuffer.getShort(pos) & 0xFFFF;
+        pos += 2;
+        for (int i = 0; i < staticCount; i++) {
+          HprofType type = getType(pos + myIdSize);
+          if (type == HprofType.OBJECT) {
+            addReference(readId(pos + myIdSize + 1), targets);
+          }
+          pos += myIdSize + 1 + type.getSize(myIdSize);
+        }
+        break;
+      }
+      case INSTANCE_DUMP: {
+        HprofClass hprofClass = myClasses.get(myClassIndices.get(readId(pos + myIdSize + 4)));
+        pos += 2 * myIdSize + 8;
+        for (; hprofClass != null; hprofClass = hprofClass.getSuperclass()) {
+          for (HprofType type : hprofClass.getFieldTypes()) {
+            if (type == HprofType.OBJECT) {
+              addReference(readId(pos), targets);
+            }
+            pos += type.getSize(myIdSize);
+          }
+        }
+        break;
+      }
+      case OBJECT_ARRAY_DUMP: {
+        int length = myBuffer.getInt(pos + myIdSize + 4);
+        pos += 2 * myIdSize + 8;
+        for (int i = 0; i < length; i++) {
+          addReference(readId(pos), targets);
+          pos += myIdSize;
+        }
+        break;
+      }
+      default:
+        // Primitive arrays have no references
+        break;
+    }
+  }
+
+  private void addReference(long id, @NotNull TIntArrayList targets) {
+    if (id != 0) {
+      int node = getNode(id);
+      if (node != -1) {
+        targets.add(node);
+      }
+    }
+  }
+
+  /**
+   * Reads the header of the object whose record starts at the given position.
+   */
+  @NotNull
+  HprofInstance readInstance(int offset) {
+    int pos = offset + 1;
+    long id = readId(pos);
+    switch (myBuffer.get(offset) & 0xFF) {
+      case CLASS_DUMP: {
+        HprofClass hprofClass = myClasses.get(myClassIndices.get(id));
+        return new HprofInstance(this, offset, id, hprofClass, true, -1, 0);
+      }
+      case INSTANCE_DUMP: {
+        HprofClass hprofClass = myClasses.get(myClassIndices.get(readId(pos + myIdSize + 4)));
+        return new HprofInstance(this, offset, id, hprofClass, false, -1, hprofClass.getInstanceSize());
+      }
+      case OBJECT_ARRAY_DUMP: {
+        int length = myBuffer.getInt(pos + myIdSize + 4);
+        HprofClass hprofClass = myClasses.get(myClassIndices.get(readId(pos + myIdSize + 8)));
+        return new HprofInstance(this, offset, id, hprofClass, false, length, length * myIdSize);
+      }
+      default: {
+        int length = myBuffer.getInt(pos + myIdSize + 4);
+        HprofType type = HprofType.fromTag(myBuffer.get(pos + myIdSize + 8));
+        assert type != null; // Checked when indexing
+        return new HprofInstance(this, offset, id, getPrimitiveArrayClass(type), false, length, length * type.getSize(myIdSize));
+      }
+    }
+  }
+
+  @NotNull
+  List<HprofInstance.Field> readFields(@NotNull HprofInstance instance) {
+    List<HprofInstance.Field> fields = new ArrayList<>();
+    int pos = instance.getOffset() + 1;
+    int tag = myBuffer.get(instance.getOffset()) & 0xFF;
+    if (tag == CLASS_DUMP) {
+      // Skip to the static fields
+      pos += 7 * myIdSize + 8;
+      int constantCount = myBuffer.getShort(pos) & 0xFFFF;
+      pos += 2;
+      for (int i = 0; i < constantCount; i++) {
+        pos += 3 + getType(pos + 2).getSize(myIdSize);
+      }
+      int staticCount = myBuffer.getShort(pos) & 0xFFFF;
+      pos += 2;
+      for (int i = 0; i < staticCount; i++) {
+        HprofType type = getType(pos + myIdSize);
+        fields.add(new HprofInstance.Field(getString(readId(pos)), type, readValue(pos + myIdSize + 1, type)));
+        pos += myIdSize + 1 + type.getSize(myIdSize);
+      }
+    }
+    else if (tag == INSTANCE_DUMP) {
+      pos += 2 * myIdSize + 8;
+      // The values of the fields of the class come first, then the ones of its superclass, etc.
+      for (HprofClass hprofClass = instance.getHprofClass(); hprofClass != null; hprofClass = hprofClass.getSuperclass()) {
+        String[] names = hprofClass.getFieldNames();
+        HprofType[] types = hprofClass.getFieldTypes();
+        for (int i = 0; i < names.length; i++) {
+          fields.add(new HprofInstance.Field(names[i], types[i], readValue(pos, types[i])));
+          pos += types[i].getSize(myIdSize);
+        }
+      }
+    }
+    else if (tag == OBJECT_ARRAY_DUMP) {
+      pos += 2 * myIdSize + 8;
+      for (int i = 0; i < instance.getArrayLength(); i++) {
+        fields.add(new HprofInstance.Field(Integer.toString(i), HprofType.OBJECT, readValue(pos, HprofType.OBJECT)));
+        pos += myIdSize;
+      }
+    }
+    else if (tag == PRIMITIVE_ARRAY_DUMP) {
+      HprofType type = getType(pos + myIdSize + 8);
+      pos += myIdSize + 9;
+      for (int i = 0; i < instance.getArrayLength(); i++) {
+        fields.add(new HprofInstance.Field(Integer.toString(i), type, readValue(pos, type)));
+        pos += type.getSize(myIdSize);
+      }
+    }
+    return fields;
+  }
+
+  @Nullable
+  private Object readValue(int pos, @NotNull HprofType type) {
+    switch (type) {
+      case OBJECT:
+        long id = readId(pos);
+        return id == 0 ? null : id;
+      case BOOLEAN:
+        return myBuffer.get(pos) != 0;
+      case CHAR:
+        return myBuffer.getChar(pos);
+      case FLOAT:
+        return myBuffer.getFloat(pos);
+      case DOUBLE:
+        return myBuffer.getDouble(pos);
+      case BYTE:
+        return myBuffer.get(pos);
+      case SHORT:
+        return myBuffer.getShort(pos);
+      case INT:
+        return myBuffer.getInt(pos);
+      case LONG:
+        return myBuffer.getLong(pos);
+      default:
+        throw new IllegalArgumentException(type.toString());
+    }
+  }
+
+  private long readId(int pos) {
+    return myIdSize == 4 ? myBuffer.getInt(pos) & 0xFFFFFFFFL : myBuffer.getLong(pos);
+  }
+
+  @NotNull
+  private HprofType readType(int pos) throws IOException {
+    HprofType type = HprofType.fromTag(myBuffer.get(pos));
+    if (type == null) {
+      throw new IOException(String.format("Unknown type 0x%x at %d", myBuffer.get(pos), pos));
+    }
+    return type;
+  }
+
+  /**
+   * Same as {@link #readType(int)} for the records that have already been indexed, so are known to be valid.
+   */
+  @NotNull
+  private HprofType getType(int pos) {
+    HprofType type = HprofType.fromTag(myBuffer.get(pos));
+    assert type != null;
+    return type;
+  }
+
+  @NotNull
+  private String getString(long id) {
+    if (!myStrings.containsKey(id)) {
+      return String.format("0x%x", id);
+    }
+    long location = myStrings.get(id);
+    byte[] bytes = new byte[(int)location];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = myBuffer.get((int)(location >>> 32) + i);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.hprof;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * An object of an hprof file: an instance, an array, or a class object. Only the header of its record is read when it is created, its
+ * fields are read from the file when requested.
+ */
+public final class HprofInstance {
+  @NotNull private final HprofIndex myIndex;
+  private final int myOffset;
+  private final long myId;
+  @NotNull private final HprofClass myClass;
+  private final boolean myIsClassObject;
+  private final int myArrayLength;
+  private final int myShallowSize;
+
+  HprofInstance(@NotNull HprofIndex index,
+                int offset,
+                long id,
+                @NotNull HprofClass hprofClass,
+                boolean isClassObject,
+                int arrayLength,
+                int shallowSize) {
+    myIndex = index;
+    myOffset = offset;
+    myId = id;
+    myClass = hprofClass;
+    myIsClassObject = isClassObject;
+    myArrayLength = arrayLength;
+    myShallowSize = shallowSize;
+  }
+
+  int getOffset() {
+    return myOffset;
+  }
+
+  /**
+   * Returns the index of the dump this object was read from, which can read the objects it references.
+   */
+  @NotNull
+  public HprofIndex getIndex() {
+    return myIndex;
+  }
+
+  public long getId() {
+    return myId;
+  }
+
+  /**
+   * Returns the class of this object, or the class it describes for a class object.
+   */
+  @NotNull
+  public HprofClass getHprofClass() {
+    return myClass;
+  }
+
+  public boolean isClassObject() {
+    return myIsClassObject;
+  }
+
+  public boolean isArray() {
+    return myArrayLength >= 0;
+  }
+
+  /**
+   * Returns the length of this array, or -1 if this is not an array.
+   */
+  public int getArrayLength() {
+    return myArrayLength;
+  }
+
+  public int getShallowSize() {
+    return myShallowSize;
+  }
+
+  /**
+   * Reads the fields of this object: the instance fields of an instance, from its class to its superclasses, the elements of an array,
+   * or the static fields of a class.
+   */
+  @NotNull
+  public List<Field> getFields() {
+    return myIndex.readFields(this);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s@%d (0x%x)", myClass.getName(), myId, myId);
+  }
+
+  /**
+   * The value of a field or of an array element.
+   */
+  public static final class Field {
+    @NotNull private final String myName;
+    @NotNull private final HprofType myType;
+    @Nullable private final Object myValue;
+
+    Field(@NotNull String name, @NotNull HprofType type, @Nullable Object value) {
+      myName = name;
+      myType = type;
+      myValue = value;
+    }
+
+    @NotNull
+    public String getName() {
+      return myName;
+    }
+
+    @NotNull
+    public HprofType getType() {
+      return myType;
+    }
+
+    /**
+     * Returns the boxed primitive value, or for an {@link HprofType#OBJECT} field the id of the referenced object, null if it is null.
+     */
+    @Nullable
+    public Object getValue() {
+      return myValue;
+    }
+  }
+}
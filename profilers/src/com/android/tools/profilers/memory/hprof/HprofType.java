@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.hprof;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The basic types of the values of an hprof file, with their tags.
+ */
+public enum HprofType {
+  OBJECT(2, "Object", 0),
+  BOOLEAN(4, "boolean", 1),
+  CHAR(5, "char", 2),
+  FLOAT(6, "float", 4),
+  DOUBLE(7, "double", 8),
+  BYTE(8, "byte", 1),
+  SHORT(9, "short", 2),
+  INT(10, "int", 4),
+  LONG(11, "long", 8);
+
+  private final int myTag;
+  @NotNull private final String myName;
+  /** Size of a value of this type, 0 for objects whose size is the identifier size of the file */
+  private final int mySize;
+
+  HprofType(int tag, @NotNull String name, int size) {
+    myTag = tag;
+    myName = name;
+    mySize = size;
+  }
+
+  @NotNull
+  public String getName() {
+    return myName;
+  }
+
+  public int getSize(int idSize) {
+    return this == OBJECT ? idSize : mySize;
+  }
+
+  @Nullable
+  static HprofType fromTag(int tag) {
+    for (HprofType type : values()) {
+      if (type.myTag == tag) {
+        return type;
+      }
+    }
+    return null;
+  }
+}
@@ -18,26 +18,73 @@ package com.android.tools.profilers.network;
 import com.android.tools.adtui.model.Range;
  import com.android.tools.profiler.proto.NetworkProfiler;
 import com.android.tools.profiler.proto.NetworkServiceGrpc;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.protobuf3jarjar.ByteString;
 import com.intellij.openapi.util.text.StringUtil;
+import io.grpc.ClientCall;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
+import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.StreamObserver;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A {@link NetworkRequestsModel} that uses an RPC mechanism to complete its queries.
+ * <p>
+ * The details of a connection are only requested once: the request details when the connection is first seen, and the response details
+ * once it completes. The details missing from a query are requested together with a single {@link #METHOD_GET_HTTP_DETAILS_BATCH} call.
+ * Completed connections do not change anymore, so their {@link HttpData} is cached and reused by the following queries.
  */
 public final class RpcNetworkRequestsModel implements NetworkRequestsModel {
+  /**
+   * Bidirectional streaming call of the network service, which answers each details request it is sent with the same response as
+   * getHttpDetails, in order. It reuses the getHttpDetails messages and is described by hand, as the generated stubs come from a prebuilt
+   * jar. The datastore serves it with the same descriptor in NetworkDataPoller.
+   */
+  static final MethodDescriptor<NetworkProfiler.HttpDetailsRequest, NetworkProfiler.HttpDetailsResponse> METHOD_GET_HTTP_DETAILS_BATCH =
+    MethodDescriptor.create(MethodDescriptor.MethodType.BIDI_STREAMING,
+                            MethodDescriptor.generateFullMethodName(NetworkServiceGrpc.SERVICE_NAME, "GetHttpDetailsBatch"),
+                            ProtoUtils.marshaller(NetworkProfiler.HttpDetailsRequest.getDefaultInstance()),
+                            ProtoUtils.marshaller(NetworkProfiler.HttpDetailsResponse.getDefaultInstance()));
+
+  /**
+   * How long to wait for the answers of a {@link #METHOD_GET_HTTP_DETAILS_BATCH} call before giving up, in which case the details are
+   * requested again by the next query.
+   */
+  private static final long DEFAULT_DETAILS_BATCH_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(5);
+
   @NotNull
   private final NetworkServiceGrpc.NetworkServiceBlockingStub myNetworkService;
 
   private final int myPid;
 
+  private final long myDetailsBatchTimeoutMs;
+
+  /** Completed connections of the last queried range by id */
+  private final Map<Long, HttpData> myCompletedConnections = new ConcurrentHashMap<>();
+  /** Connections still in flight whose request details are known, by id */
+  private final Map<Long, InFlightConnection> myInFlightConnections = new ConcurrentHashMap<>();
+  /** Set once the service answered {@link #METHOD_GET_HTTP_DETAILS_BATCH} as unimplemented, details are then requested one by one */
+  private volatile boolean myIsBatchUnimplemented;
+
   public RpcNetworkRequestsModel(@NotNull NetworkServiceGrpc.NetworkServiceBlockingStub service, int pid) {
+    this(service, pid, DEFAULT_DETAILS_BATCH_TIMEOUT_MS);
+  }
+
+  @VisibleForTesting
+  RpcNetworkRequestsModel(@NotNull NetworkServiceGrpc.NetworkServiceBlockingStub service, int pid, long detailsBatchTimeoutMs) {
     myNetworkService = service;
     myPid = pid;
+    myDetailsBatchTimeoutMs = detailsBatchTimeoutMs;
   }
 
   @NotNull
@@ -54,55 +101,215 @@ public final class RpcNetworkRequestsModel implements NetworkRequestsModel {
       return Collections.emptyList();
     }
 
+    Set<Long> connectionIds = new HashSet<>();
+    List<NetworkProfiler.HttpDetailsRequest> detailsRequests = new ArrayList<>();
+    for (NetworkProfiler.HttpConnectionData connection: response.getDataList()) {
+      long connectionId = connection.getConnId();
+      connectionIds.add(connectionId);
+      if (myCompletedConnections.containsKey(connectionId)) {
+        continue;
+      }
+      if (!myInFlightConnections.containsKey(connectionId)) {
+        detailsRequests.add(buildDetailsRequest(connectionId, NetworkProfiler.HttpDetailsRequest.Type.REQUEST));
+      }
+      if (connection.getEndTimestamp() != 0) {
+        detailsRequests.add(buildDetailsRequest(connectionId, NetworkProfiler.HttpDetailsRequest.Type.RESPONSE));
+        detailsRequests.add(buildDetailsRequest(connectionId, NetworkProfiler.HttpDetailsRequest.Type.RESPONSE_BODY));
+      }
+    }
+    Map<NetworkProfiler.HttpDetailsRequest, NetworkProfiler.HttpDetailsResponse> details = requestHttpDetails(detailsRequests);
+
     List<HttpData> httpDataList = new ArrayList<>(response.getDataList().size());
     for (NetworkProfiler.HttpConnectionData connection: response.getDataList()) {
+      long connectionId = connection.getConnId();
+      HttpData completed = myCompletedConnections.get(connectionId);
+      if (completed != null) {
+        httpDataList.add(completed);
+        continue;
+      }
+
       long startTimeUs = TimeUnit.NANOSECONDS.toMicros(connection.getStartTimestamp());
       long endTimeUs = TimeUnit.NANOSECONDS.toMicros(connection.getEndTimestamp());
       long downloadTimeUs = TimeUnit.NANOSECONDS.toMicros(connection.getDownloadingTimestamp());
 
-      HttpData.Builder httpBuilder = new HttpData.Builder(connection.getConnId(), startTimeUs, endTimeUs, downloadTimeUs);
+      HttpData.Builder httpBuilder = new HttpData.Builder(connectionId, startTimeUs, endTimeUs, downloadTimeUs);
 
-      requestHttpRequest(connection.getConnId(), httpBuilder);
-      if (connection.getEndTimestamp() != 0) {
-        requestHttpResponse(connection.getConnId(), httpBuilder);
-        requestHttpResponseBody(connection.getConnId(), httpBuilder);
+      NetworkProfiler.HttpDetailsResponse.Request httpRequest;
+      InFlightConnection inFlight = myInFlightConnections.get(connectionId);
+      if (inFlight != null) {
+        httpRequest = inFlight.myRequest;
       }
-      httpDataList.add(httpBuilder.build());
+      else {
+        NetworkProfiler.HttpDetailsResponse requestDetails =
+          getDetails(details, connectionId, NetworkProfiler.HttpDetailsRequest.Type.REQUEST);
+        httpRequest = requestDetails != null ? requestDetails.getRequest() : null;
+      }
+      if (httpRequest != null) {
+        httpBuilder.setUrl(httpRequest.getUrl());
+        httpBuilder.setMethod(httpRequest.getMethod());
+        httpBuilder.setTrace(httpRequest.getTrace());
+      }
+
+      if (connection.getEndTimestamp() == 0) {
+        if (httpRequest != null) {
+          myInFlightConnections.put(connectionId, new InFlightConnection(startTimeUs, httpRequest));
+        }
+        httpDataList.add(httpBuilder.build());
+        continue;
+      }
+
+      boolean hasResponse = setHttpResponse(getDetails(details, connectionId, NetworkProfiler.HttpDetailsRequest.Type.RESPONSE),
+                                            httpBuilder);
+      boolean hasResponseBody =
+        setHttpResponseBody(getDetails(details, connectionId, NetworkProfiler.HttpDetailsRequest.Type.RESPONSE_BODY), httpBuilder);
+      HttpData data = httpBuilder.build();
+      // Connections are only cached once all their details are known, so the details that failed to load are requested again
+      if (httpRequest != null && hasResponse && hasResponseBody) {
+        myCompletedConnections.put(connectionId, data);
+        myInFlightConnections.remove(connectionId);
+      }
+      httpDataList.add(data);
     }
 
+    // Completed connections outside the range are requested again if the range moves back to them, so the cache does not grow with the
+    // session.
+    myCompletedConnections.keySet().retainAll(connectionIds);
+    // In flight connections that started before the range and were not returned completed before it, so they will be requested again
+    // with their response details, if ever.
+    long minUs = (long)timeCurrentRangeUs.getMin();
+    myInFlightConnections.entrySet()
+      .removeIf(entry -> entry.getValue().myStartTimeUs < minUs && !connectionIds.contains(entry.getKey()));
+
     return httpDataList;
   }
 
-  private void requestHttpRequest(long connectionId, @NotNull HttpData.Builder httpBuilder) {
-    NetworkProfiler.HttpDetailsRequest request = NetworkProfiler.HttpDetailsRequest.newBuilder()
-      .setConnId(connectionId)
-      .setType(NetworkProfiler.HttpDetailsRequest.Type.REQUEST)
-      .build();
-    NetworkProfiler.HttpDetailsResponse.Request result;
-    try {
-      result = myNetworkService.getHttpDetails(request).getRequest();
-    } catch (StatusRuntimeException e) {
-      return;
+  @VisibleForTesting
+  int getInFlightConnectionCount() {
+    return myInFlightConnections.size();
+  }
+
+  @VisibleForTesting
+  int getCompletedConnectionCount() {
+    return myCompletedConnections.size();
+  }
+
+  @NotNull
+  private static NetworkProfiler.HttpDetailsRequest buildDetailsRequest(long connectionId,
+                                                                        @NotNull NetworkProfiler.HttpDetailsRequest.Type type) {
+    return NetworkProfiler.HttpDetailsRequest.newBuilder().setConnId(connectionId).setType(type).build();
+  }
+
+  @Nullable
+  private static NetworkProfiler.HttpDetailsResponse getDetails(
+    @NotNull Map<NetworkProfiler.HttpDetailsRequest, NetworkProfiler.HttpDetailsResponse> details,
+    long connectionId,
+    @NotNull NetworkProfiler.HttpDetailsRequest.Type type) {
+    NetworkProfiler.HttpDetailsResponse response = details.get(buildDetailsRequest(connectionId, type));
+    // The datastore answers with empty details until it fetched them from the device
+    return response != null && response.getDetailsCase() != NetworkProfiler.HttpDetailsResponse.DetailsCase.DETAILS_NOT_SET
+           ? response
+           : null;
+  }
+
+  /**
+   * Requests the given details with a single {@link #METHOD_GET_HTTP_DETAILS_BATCH} call, or with a getHttpDetails call per detail if the
+   * service does not implement it. The details that failed to load are not included.
+   */
+  @NotNull
+  private Map<NetworkProfiler.HttpDetailsRequest, NetworkProfiler.HttpDetailsResponse> requestHttpDetails(
+    @NotNull List<NetworkProfiler.HttpDetailsRequest> requests) {
+    if (requests.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    if (!myIsBatchUnimplemented) {
+      try {
+        return requestHttpDetailsBatch(requests);
+      }
+      catch (StatusRuntimeException e) {
+        if (e.getStatus().getCode() != Status.Code.UNIMPLEMENTED) {
+          return Collections.emptyMap();
+        }
+        myIsBatchUnimplemented = true;
+      }
+    }
+
+    Map<NetworkProfiler.HttpDetailsRequest, NetworkProfiler.HttpDetailsResponse> details = new HashMap<>();
+    for (NetworkProfiler.HttpDetailsRequest request : requests) {
+      try {
+        details.put(request, myNetworkService.getHttpDetails(request));
+      }
+      catch (StatusRuntimeException ignored) {
+        // Requested again by the next query
+      }
     }
-    httpBuilder.setUrl(result.getUrl());
-    httpBuilder.setMethod(result.getMethod());
-    httpBuilder.setTrace(result.getTrace());
+    return details;
   }
 
-  private void requestHttpResponseBody(long connectionId, @NotNull HttpData.Builder httpBuilder) {
-    NetworkProfiler.HttpDetailsRequest request = NetworkProfiler.HttpDetailsRequest.newBuilder()
-      .setConnId(connectionId)
-      .setType(NetworkProfiler.HttpDetailsRequest.Type.RESPONSE_BODY)
-      .build();
-    NetworkProfiler.HttpDetailsResponse response;
+  @NotNull
+  private Map<NetworkProfiler.HttpDetailsRequest, NetworkProfiler.HttpDetailsResponse> requestHttpDetailsBatch(
+    @NotNull List<NetworkProfiler.HttpDetailsRequest> requests) {
+    List<NetworkProfiler.HttpDetailsResponse> responses = Collections.synchronizedList(new ArrayList<>(requests.size()));
+    AtomicReference<Throwable> error = new AtomicReference<>();
+    CountDownLatch done = new CountDownLatch(1);
+    ClientCall<NetworkProfiler.HttpDetailsRequest, NetworkProfiler.HttpDetailsResponse> call =
+      myNetworkService.getChannel().newCall(METHOD_GET_HTTP_DETAILS_BATCH, myNetworkService.getCallOptions());
+    StreamObserver<NetworkProfiler.HttpDetailsRequest> requestObserver = ClientCalls.asyncBidiStreamingCall(
+      call,
+      new StreamObserver<NetworkProfiler.HttpDetailsResponse>() {
+        @Override
+        public void onNext(NetworkProfiler.HttpDetailsResponse response) {
+          responses.add(response);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+          error.set(t);
+          done.countDown();
+        }
+
+        @Override
+        public void onCompleted() {
+          done.countDown();
+        }
+      });
+    requests.forEach(requestObserver::onNext);
+    requestObserver.onCompleted();
+
     try {
-      response = myNetworkService.getHttpDetails(request);
+      if (!done.await(myDetailsBatchTimeoutMs, TimeUnit.MILLISECONDS)) {
+        call.cancel("Timed out", null);
+        throw Status.DEADLINE_EXCEEDED.withDescription("No answer to the details batch").asRuntimeException();
+      }
+    }
+    catch (InterruptedException e) {
+      call.cancel("Interrupted", e);
+      Thread.currentThread().interrupt();
+      throw Status.CANCELLED.withCause(e).asRuntimeException();
+    }
+    if (error.get() != null) {
+      throw Status.fromThrowable(error.get()).asRuntimeException();
+    }
+
+    Map<NetworkProfiler.HttpDetailsRequest, NetworkProfiler.HttpDetailsResponse> details = new HashMap<>();
+    synchronized (responses) {
+      for (int i = 0; i < Math.min(requests.size(), responses.size()); i++) {
+        details.put(requests.get(i), responses.get(i));
+      }
     }
-    catch (StatusRuntimeException e) {
-      return;
+    return details;
+  }
+
+  private static boolean setHttpResponseBody(@Nullable NetworkProfiler.HttpDetailsResponse response,
+                                             @NotNull HttpData.Builder httpBuilder) {
+    if (response == null) {
+      return false;
     }
+    // The body details are only answered once known, an empty payload id means the response has no body
     String payloadId = response.getResponseBody().getPayloadId();
-    httpBuilder.setResponsePayloadId(payloadId);
+    if (!StringUtil.isEmpty(payloadId)) {
+      httpBuilder.setResponsePayloadId(payloadId);
+    }
+    return true;
   }
 
   @NotNull
@@ -124,18 +331,21 @@ public final class RpcNetworkRequestsModel implements NetworkRequestsModel {
     return payloadResponse.getContents();
   }
 
-  private void requestHttpResponse(long connectionId, @NotNull HttpData.Builder httpBuilder) {
-    NetworkProfiler.HttpDetailsRequest request = NetworkProfiler.HttpDetailsRequest.newBuilder()
-      .setConnId(connectionId)
-      .setType(NetworkProfiler.HttpDetailsRequest.Type.RESPONSE)
-      .build();
-    NetworkProfiler.HttpDetailsResponse response;
-    try {
-      response = myNetworkService.getHttpDetails(request);
-    }
-    catch (StatusRuntimeException e) {
-      return;
+  private static boolean setHttpResponse(@Nullable NetworkProfiler.HttpDetailsResponse response, @NotNull HttpData.Builder httpBuilder) {
+    if (response == null) {
+      return false;
     }
     httpBuilder.setResponseFields(response.getResponse().getFields());
+    return true;
+  }
+
+  private static final class InFlightConnection {
+    private final long myStartTimeUs;
+    @NotNull private final NetworkProfiler.HttpDetailsResponse.Request myRequest;
+
+    private InFlightConnection(long startTimeUs, @NotNull NetworkProfiler.HttpDetailsResponse.Request request) {
+      myStartTimeUs = startTimeUs;
+      myRequest = request;
+    }
   }
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu;
+
+import com.android.tools.adtui.model.Range;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BottomUpNodeTest {
+
+  @Test
+  public void testCallers() throws Exception {
+    // Once reversed for the bottom up view, the tree should start with:
+    // A
+    // +- B
+    // |  +- A
+    // +- D
+    // |  +- B
+    // |     +- A
+    // +- E
+    // |  +- B
+    // |     +- A
+    // +- C ...
+    BottomUpNode root = new BottomUpNode(TopDownNodeTest.createTree());
+    assertEquals(":A:", root.getId());
+    List<BottomUpNode> methods = root.getChildren();
+    assertEquals(6, methods.size());
+    assertEquals(":B:", methods.get(0).getId());
+    assertEquals(":D:", methods.get(1).getId());
+    assertEquals(":E:", methods.get(2).getId());
+    assertEquals(":C:", methods.get(3).getId());
+    assertEquals(":F:", methods.get(4).getId());
+    assertEquals(":G:", methods.get(5).getId());
+
+    BottomUpNode e = methods.get(2);
+    assertEquals(1, e.getChildren().size());
+    BottomUpNode eCalledByB = e.getChildren().get(0);
+    assertEquals(":B:", eCalledByB.getId());
+    assertEquals(1, eCalledByB.getChildren().size());
+    assertEquals(":A:", eCalledByB.getChildren().get(0).getId());
+    assertTrue(eCalledByB.getChildren().get(0).getChildren().isEmpty());
+
+    // The times of a node are the times of its method
+    Range all = new Range(-Double.MAX_VALUE, Double.MAX_VALUE);
+    assertEquals(5, eCalledByB.getTotalWithin(all), 0);
+    assertEquals(5, eCalledByB.getSelfWithin(all), 0);
+    BottomUpNode b = methods.get(0);
+    assertEquals(15, b.getTotalWithin(all), 0);
+    assertEquals(4, b.getSelfWithin(all), 0);
+    assertEquals(3, b.getSelfWithin(new Range(0, 6)), 0);
+  }
+
+  @Test
+  public void testRecursion() throws Exception {
+    CallTree.Builder builder = new CallTree.Builder();
+    int a = builder.addMethod(new MethodModel("A"));
+    int b = builder.addMethod(new MethodModel("B"));
+    int c = builder.addMethod(new MethodModel("C"));
+    builder.addCall(a, 0, 20, 0);
+    builder.addCall(b, 0, 10, 1);
+    builder.addCall(b, 2, 8, 2);
+    builder.addCall(c, 3, 4, 3);
+
+    BottomUpNode root = new BottomUpNode(builder.build());
+    BottomUpNode node = root.getChildren().get(0);
+    assertEquals(":B:", node.getId());
+    // The time of the recursive call is only counted once
+    Range all = new Range(-Double.MAX_VALUE, Double.MAX_VALUE);
+    assertEquals(10, node.getTotalWithin(all), 0);
+    assertEquals(9, node.getSelfWithin(all), 0);
+
+    // B is called by A and by B
+    assertEquals(2, node.getChildren().size());
+    BottomUpNode calledByA = node.getChildren().get(0);
+    assertEquals(":A:", calledByA.getId());
+    assertEquals(10, calledByA.getTotalWithin(all), 0);
+    BottomUpNode calledByB = node.getChildren().get(1);
+    assertEquals(":B:", calledByB.getId());
+    assertEquals(6, calledByB.getTotalWithin(all), 0);
+    assertEquals(5, calledByB.getSelfWithin(all), 0);
+    assertEquals(":A:", calledByB.getChildren().get(0).getId());
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu;
+
+import com.android.tools.adtui.model.HNode;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CallTreeTest {
+
+  /**
+   * Creates the tree:
+   *              0123456789012345678901234567890
+   *   A          |-----------------------------|
+   *   +- B        |-------|
+   *   |  +-C        |-|
+   *   |  +-B            |-|
+   *   +- C                    |-----|
+   */
+  private static CallTree createTree() {
+    CallTree.Builder builder = new CallTree.Builder();
+    int a = builder.addMethod(new MethodModel("A"));
+    int b = builder.addMethod(new MethodModel("B"));
+    int c = builder.addMethod(new MethodModel("C"));
+    builder.addCall(a, 0, 30, 0);
+    builder.addCall(b, 1, 9, 1);
+    builder.addCall(c, 3, 5, 2);
+    builder.addCall(b, 7, 9, 2);
+    builder.addCall(c, 13, 19, 1);
+    return builder.build();
+  }
+
+  @Test
+  public void testTree() {
+    CallTree tree = createTree();
+    assertEquals(5, tree.getCallCount());
+    assertEquals(2, tree.getMaxDepth());
+    assertEquals(3, tree.getMethods().size());
+
+    assertEquals("A", tree.getMethod(0).getName());
+    assertEquals(5, tree.getSubtreeEnd(0));
+    assertEquals(30, tree.getDurationUs(0));
+
+    // B and its callees
+    assertEquals(4, tree.getSubtreeEnd(1));
+    assertEquals(3, tree.getSubtreeEnd(2));
+    assertEquals(4, tree.getSubtreeEnd(3));
+    assertEquals(2, tree.getDepth(3));
+    // Calls of the same method share their model
+    assertSame(tree.getMethod(1), tree.getMethod(3));
+    assertEquals(tree.getMethodIndex(2), tree.getMethodIndex(4));
+
+    assertEquals(-1, tree.getParent(0));
+    assertEquals(0, tree.getParent(1));
+    assertEquals(1, tree.getParent(3));
+    assertEquals(0, tree.getParent(4));
+
+    assertEquals(5, tree.getSubtreeEnd(4));
+    assertEquals(13, tree.getEntryUs(4));
+    assertEquals(19, tree.getExitUs(4));
+  }
+
+  @Test
+  public void testToHNode() {
+    HNode<MethodModel> root = createTree().toHNode();
+    assertEquals("A", root.getData().getName());
+    assertEquals(0, root.getDepth());
+    assertEquals(2, root.getChildren().size());
+
+    HNode<MethodModel> b = root.getChildren().get(0);
+    assertEquals("B", b.getData().getName());
+    assertEquals(1, b.getStart());
+    assertEquals(9, b.getEnd());
+    assertEquals(1, b.getDepth());
+    assertEquals(2, b.getChildren().size());
+    assertEquals("C", b.getChildren().get(0).getData().getName());
+    assertEquals("B", b.getChildren().get(1).getData().getName());
+    assertEquals(2, b.getChildren().get(1).getDepth());
+
+    HNode<MethodModel> c = root.getChildren().get(1);
+    assertEquals("C", c.getData().getName());
+    assertTrue(c.getChildren().isEmpty());
+  }
+
+  @Test
+  public void testHNodeChildrenAreCreatedOnce() {
+    HNode<MethodModel> root = createTree().toHNode();
+    HNode<MethodModel> b = root.getFirstChild();
+    assertEquals("B", b.getData().getName());
+    assertSame(b, root.getChildren().get(0));
+    assertEquals("C", root.getLastChild().getData().getName());
+    assertSame(root.getLastChild(), root.getChildren().get(1));
+    assertSame(b.getChildren().get(1), b.getLastChild());
+    assertNull(b.getChildren().get(0).getFirstChild());
+  }
+
+  @Test
+  public void testDeepTree() {
+    // Deeper than a recursive traversal could handle
+    int depth = 100_000;
+    CallTree.Builder builder = new CallTree.Builder();
+    int method = builder.addMethod(new MethodModel("A"));
+    for (int i = 0; i < depth; i++) {
+      builder.addCall(method, i, 2 * depth - i, i);
+    }
+    CallTree tree = builder.build();
+    assertEquals(depth - 1, tree.getMaxDepth());
+    assertEquals(depth, tree.getSubtreeEnd(depth - 1));
+    assertEquals(depth, tree.getSubtreeEnd(0));
+    assertEquals(1, tree.getMethods().size());
+
+    HNode<MethodModel> node = tree.toHNode();
+    while (!node.getChildren().isEmpty()) {
+      node = node.getChildren().get(0);
+    }
+    assertEquals(depth - 1, node.getDepth());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCallsMustBeInPreOrder() {
+    CallTree.Builder builder = new CallTree.Builder();
+    int method = builder.addMethod(new MethodModel("A"));
+    builder.addCall(method, 0, 10, 0);
+    builder.addCall(method, 1, 2, 2);
+  }
+}
@@ -28,12 +28,16 @@ import org.junit.Rule;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
 public class CpuMonitorTest {
+  private final CpuServiceMock myService = new CpuServiceMock();
+
   @Rule
-  public TestGrpcChannel myGrpcChannel = new TestGrpcChannel<>("CpuMonitorTestChannel", new CpuServiceMock());
+  public TestGrpcChannel myGrpcChannel = new TestGrpcChannel<>("CpuMonitorTestChannel", myService);
 
   private CpuMonitor myMonitor;
 
@@ -72,6 +76,22 @@ public class CpuMonitorTest {
     assertEquals(0, (long)seriesData.value); // No active threads
   }
 
+  @Test
+  public void testThreadsStartedBeforeTheRangeAreCounted() throws IOException {
+    // The datastore only returns the activities within the range, preceded by the state of the thread at its start.
+    myService.myThreadsResponse = CpuProfiler.GetThreadsResponse.newBuilder()
+      .addThreads(thread(1, activity(5, CpuProfiler.GetThreadsResponse.State.RUNNING)))
+      .addThreads(thread(2, activity(8, CpuProfiler.GetThreadsResponse.State.SLEEPING),
+                         activity(15, CpuProfiler.GetThreadsResponse.State.DEAD)))
+      .build();
+    ImmutableList<SeriesData<Long>> seriesDataList = myMonitor.getThreadsCount().getDataForXRange(new Range(10, 20));
+    assertEquals(4, seriesDataList.size());
+    assertEquals(2, (long)seriesDataList.get(1).value);
+    assertEquals(15, seriesDataList.get(2).x);
+    assertEquals(1, (long)seriesDataList.get(2).value);
+    assertEquals(1, (long)seriesDataList.get(3).value);
+  }
+
   @Test
   public void testName() {
     assertEquals("CPU", myMonitor.getName());
@@ -85,7 +105,19 @@ public class CpuMonitorTest {
     assertNotNull(profilers.getStage());
   }
 
+  private static CpuProfiler.GetThreadsResponse.Thread thread(int tid, CpuProfiler.GetThreadsResponse.ThreadActivity... activities) {
+    return CpuProfiler.GetThreadsResponse.Thread.newBuilder().setTid(tid).setName("thread" + tid)
+      .addAllActivities(Arrays.asList(activities)).build();
+  }
+
+  private static CpuProfiler.GetThreadsResponse.ThreadActivity activity(long timestampUs, CpuProfiler.GetThreadsResponse.State state) {
+    return CpuProfiler.GetThreadsResponse.ThreadActivity.newBuilder().setTimestamp(TimeUnit.MICROSECONDS.toNanos(timestampUs))
+      .setNewState(state).build();
+  }
+
   private static class CpuServiceMock extends CpuServiceGrpc.CpuServiceImplBase {
+    private volatile CpuProfiler.GetThreadsResponse myThreadsResponse = CpuProfiler.GetThreadsResponse.getDefaultInstance();
+
     @Override
     public void getData(CpuProfiler.CpuDataRequest request, StreamObserver<CpuProfiler.CpuDataResponse> responseObserver) {
       CpuProfiler.CpuDataResponse.Builder response = CpuProfiler.CpuDataResponse.newBuilder();
@@ -113,7 +145,7 @@ public class CpuMonitorTest {
 
     @Override
     public void getThreads(CpuProfiler.GetThreadsRequest request, StreamObserver<CpuProfiler.GetThreadsResponse> responseObserver) {
-      responseObserver.onNext(CpuProfiler.GetThreadsResponse.newBuilder().build());
+      responseObserver.onNext(myThreadsResponse);
       responseObserver.onCompleted();
     }
   }
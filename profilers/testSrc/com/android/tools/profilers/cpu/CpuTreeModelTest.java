@@ -15,25 +15,26 @@
  */
 package com.android.tools.profilers.cpu;
 
-import com.android.tools.adtui.model.HNode;
 import com.android.tools.adtui.model.Range;
 import com.google.common.collect.ImmutableSet;
 import org.junit.Test;
 
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.TreeNode;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
 
-public class TopDownTreeModelTest {
+public class CpuTreeModelTest {
   @Test
   public void testTreeUpdate() throws Exception {
-    HNode<MethodModel> tree = TopDownNodeTest.createTree();
+    CallTree tree = TopDownNodeTest.createTree();
     TopDownNode topDown = new TopDownNode(tree);
 
-    TopDownTreeModel model = new TopDownTreeModel(topDown);
+    CpuTreeModel<TopDownNode> model = new CpuTreeModel<>(topDown);
 
     // The whole tree should be visible.
     model.update(new Range(-Double.MAX_VALUE, Double.MAX_VALUE));
@@ -104,6 +105,56 @@ public class TopDownTreeModelTest {
     assertEquals(     0, getChildrenTotal(root, ":A:", ":C:", ":F:"), 0);
   }
 
+  @Test
+  public void testUpdateInBackground() throws Exception {
+    CpuTreeModel<TopDownNode> model = new CpuTreeModel<>(new TopDownNode(TopDownNodeTest.createTree()));
+    List<Runnable> backgroundTasks = new ArrayList<>();
+    List<Runnable> uiTasks = new ArrayList<>();
+    model.setExecutors(backgroundTasks::add, uiTasks::add);
+
+    model.update(new Range(0, 10));
+    model.update(new Range(8, 25));
+    // Updating to the same range does not start another computation
+    model.update(new Range(8, 25));
+    assertEquals(2, backgroundTasks.size());
+    backgroundTasks.forEach(Runnable::run);
+    assertEquals(2, uiTasks.size());
+
+    // The tree is only changed on the UI executor
+    TreeNode root = (TreeNode)model.getRoot();
+    assertEquals(30, getTotal(root, ":A:"), 0);
+
+    // The computation for the first range is stale, and is not applied
+    uiTasks.get(0).run();
+    assertEquals(30, getTotal(root, ":A:"), 0);
+    assertEquals(ImmutableSet.of(":D:", ":E:", ":G:"), getChildrenIds(getChild(root, ":B:")));
+
+    uiTasks.get(1).run();
+    assertEquals(17, getTotal(root, ":A:"), 0);
+    assertEquals(ImmutableSet.of(":E:"), getChildrenIds(getChild(root, ":B:")));
+  }
+
+  @Test
+  public void testBottomUpExpansion() throws Exception {
+    CpuTreeModel<BottomUpNode> model = new CpuTreeModel<>(new BottomUpNode(TopDownNodeTest.createTree()));
+
+    // The methods are shown with their callers, but not the callers of their callers until they are expanded
+    TreeNode root = (TreeNode)model.getRoot();
+    assertEquals(ImmutableSet.of(":B:", ":C:", ":D:", ":E:", ":F:", ":G:"), getChildrenIds(root));
+    assertEquals(ImmutableSet.of(":B:"), getChildrenIds(getChild(root, ":E:")));
+    assertEquals(0, getChild(getChild(root, ":E:"), ":B:").getChildCount());
+    assertEquals(5, getTotal(root, ":A:", ":E:"), 0);
+    assertEquals(5, getTotal(root, ":A:", ":E:", ":B:"), 0);
+
+    model.expand((DefaultMutableTreeNode)getChild(root, ":E:"));
+    assertEquals(ImmutableSet.of(":A:"), getChildrenIds(getChild(getChild(root, ":E:"), ":B:")));
+    assertEquals(5, getTotal(root, ":A:", ":E:", ":B:", ":A:"), 0);
+
+    model.update(new Range(0, 10));
+    assertEquals(ImmutableSet.of(":B:", ":D:", ":E:"), getChildrenIds(root));
+    assertEquals(2, getTotal(root, ":A:", ":E:", ":B:", ":A:"), 0);
+  }
+
   private double getTotal(TreeNode node, String id, String... ids) {
     node = getNode(node, id, ids);
     return getTotal(node);
@@ -133,15 +184,15 @@ public class TopDownTreeModelTest {
   }
 
   private double getTotal(TreeNode node) {
-    return ((TopDownNode)(((DefaultMutableTreeNode)node).getUserObject())).getTotal();
+    return ((CpuTreeNode<?>)(((DefaultMutableTreeNode)node).getUserObject())).getTotal();
   }
 
   private double getChildrenTotal(TreeNode node) {
-    return ((TopDownNode)(((DefaultMutableTreeNode)node).getUserObject())).getChildrenTotal();
+    return ((CpuTreeNode<?>)(((DefaultMutableTreeNode)node).getUserObject())).getChildrenTotal();
   }
 
   private String getId(TreeNode node) {
-    return ((TopDownNode)(((DefaultMutableTreeNode)node).getUserObject())).getId();
+    return ((CpuTreeNode<?>)(((DefaultMutableTreeNode)node).getUserObject())).getId();
   }
 
   private Set<String> getChildrenIds(TreeNode node) {
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimeIntervalsTest {
+
+  @Test
+  public void testUnion() throws Exception {
+    TimeIntervals intervals = TimeIntervals.union(new long[]{10, 0, 2, 20, 30}, new long[]{15, 5, 8, 25, 30}, 5);
+    // [0, 8], [10, 15], [20, 25], [30, 30]
+    assertEquals(4, intervals.size());
+    assertEquals(18, intervals.getLengthWithin(-Double.MAX_VALUE, Double.MAX_VALUE), 0);
+  }
+
+  @Test
+  public void testLengthWithin() throws Exception {
+    TimeIntervals intervals = TimeIntervals.union(new long[]{0, 10, 20}, new long[]{5, 15, 25}, 3);
+    assertEquals(15, intervals.getLengthWithin(0, 25), 0);
+    assertEquals(0, intervals.getLengthWithin(5, 10), 0);
+    assertEquals(3, intervals.getLengthWithin(12, 18), 0);
+    assertEquals(1, intervals.getLengthWithin(12, 13), 0);
+    assertEquals(2 + 5 + 1, intervals.getLengthWithin(3, 21), 0);
+    assertEquals(0, intervals.getLengthWithin(30, 40), 0);
+    assertEquals(0, intervals.getLengthWithin(13, 12), 0);
+  }
+
+  @Test
+  public void testIntersects() throws Exception {
+    TimeIntervals intervals = TimeIntervals.union(new long[]{0, 10}, new long[]{5, 15}, 2);
+    assertTrue(intervals.intersects(4, 11));
+    assertTrue(intervals.intersects(12, 13));
+    assertFalse(intervals.intersects(5, 10));
+    assertFalse(intervals.intersects(15, 20));
+    assertFalse(intervals.intersects(-5, 0));
+  }
+}
@@ -15,7 +15,6 @@
  */
 package com.android.tools.profilers.cpu;
 
-import com.android.tools.adtui.model.HNode;
 import org.jetbrains.annotations.NotNull;
 import org.junit.Assert;
 import org.junit.Test;
@@ -24,7 +23,7 @@ public class TopDownNodeTest {
 
   @Test
   public void testTreeMerger() throws Exception {
-    HNode<MethodModel> root = createTree();
+    CallTree root = createTree();
 
     // Once merged for top down view, the tree should become:
     // A
@@ -62,22 +61,25 @@ public class TopDownNodeTest {
    *      +-G                              |---|
    */
   @NotNull
-  static HNode<MethodModel> createTree() {
-    HNode<MethodModel> root = new HNode<>(new MethodModel("A"), 0, 30);
+  static CallTree createTree() {
+    CallTree.Builder builder = new CallTree.Builder();
+    int a = builder.addMethod(new MethodModel("A"));
+    int b = builder.addMethod(new MethodModel("B"));
+    int c = builder.addMethod(new MethodModel("C"));
+    int d = builder.addMethod(new MethodModel("D"));
+    int e = builder.addMethod(new MethodModel("E"));
+    int f = builder.addMethod(new MethodModel("F"));
+    int g = builder.addMethod(new MethodModel("G"));
 
-    HNode<MethodModel> node = new HNode<>(new MethodModel("B"), 1, 9);
-    node.addHNode(new HNode<>(new MethodModel("D"), 3, 5));
-    node.addHNode(new HNode<>(new MethodModel("E"), 7, 9));
-    root.addHNode(node);
-
-    node = new HNode<>(new MethodModel("C"), 13, 19);
-    node.addHNode(new HNode<>(new MethodModel("F"), 13, 15));
-    root.addHNode(node);
-
-    node = new HNode<>(new MethodModel("B"), 22, 29);
-    node.addHNode(new HNode<>(new MethodModel("E"), 22, 25));
-    node.addHNode(new HNode<>(new MethodModel("G"), 25, 29));
-    root.addHNode(node);
-    return root;
+    builder.addCall(a, 0, 30, 0);
+    builder.addCall(b, 1, 9, 1);
+    builder.addCall(d, 3, 5, 2);
+    builder.addCall(e, 7, 9, 2);
+    builder.addCall(c, 13, 19, 1);
+    builder.addCall(f, 13, 15, 2);
+    builder.addCall(b, 22, 29, 1);
+    builder.addCall(e, 22, 25, 2);
+    builder.addCall(g, 25, 29, 2);
+    return builder.build();
   }
 }
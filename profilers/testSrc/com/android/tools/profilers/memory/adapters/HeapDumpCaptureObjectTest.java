@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import com.android.tools.profiler.proto.MemoryProfiler.DumpDataResponse;
+import com.android.tools.profiler.proto.MemoryProfiler.HeapDumpDataRequest;
+import com.android.tools.profiler.proto.MemoryProfiler.HeapDumpInfo;
+import com.android.tools.profiler.proto.MemoryServiceGrpc;
+import com.android.tools.profilers.TestGrpcChannel;
+import com.google.protobuf3jarjar.ByteString;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HeapDumpCaptureObjectTest {
+  private static final int APP_ID = 1;
+  private static final int DUMP_ID = 2;
+
+  @Rule
+  public TestGrpcChannel<FakeMemoryService> myGrpcChannel =
+    new TestGrpcChannel<>("HEAP_DUMP_CAPTURE_TEST_CHANNEL", new FakeMemoryService());
+
+  @Rule
+  public TemporaryFolder myTemporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testDumpIsWrittenChunkByChunk() throws Exception {
+    FakeMemoryService service = myGrpcChannel.getService();
+    service.myNotReadyCount = 2;
+    service.myChunks = Arrays.asList(ByteString.copyFromUtf8("JAVA PROFILE"), ByteString.copyFromUtf8(" 1.0.3"), ByteString.EMPTY);
+
+    File file = myTemporaryFolder.newFile();
+    assertTrue(createCapture().fetchDataToFile(file));
+    assertArrayEquals(ByteString.copyFromUtf8("JAVA PROFILE 1.0.3").toByteArray(), Files.readAllBytes(file.toPath()));
+    // Polled until the dump is ready
+    assertEquals(3, service.myChunksCallCount.get());
+    assertEquals(0, service.myHeapDumpCallCount.get());
+  }
+
+  @Test
+  public void testFallsBackToGetHeapDumpWhenChunksAreUnimplemented() throws Exception {
+    FakeMemoryService service = myGrpcChannel.getService();
+    service.myImplementsChunks = false;
+    service.myChunks = Collections.singletonList(ByteString.copyFromUtf8("JAVA PROFILE 1.0.3"));
+
+    File file = myTemporaryFolder.newFile();
+    assertTrue(createCapture().fetchDataToFile(file));
+    assertArrayEquals(ByteString.copyFromUtf8("JAVA PROFILE 1.0.3").toByteArray(), Files.readAllBytes(file.toPath()));
+    assertEquals(1, service.myChunksCallCount.get());
+    assertEquals(1, service.myHeapDumpCallCount.get());
+  }
+
+  @Test
+  public void testMissingDump() throws Exception {
+    FakeMemoryService service = myGrpcChannel.getService();
+    service.myStatus = DumpDataResponse.Status.NOT_FOUND;
+
+    assertFalse(createCapture().fetchDataToFile(myTemporaryFolder.newFile()));
+    service.myImplementsChunks = false;
+    assertFalse(createCapture().fetchDataToFile(myTemporaryFolder.newFile()));
+  }
+
+  private HeapDumpCaptureObject createCapture() {
+    return new HeapDumpCaptureObject(myGrpcChannel.getClient().getMemoryClient(), APP_ID,
+                                     HeapDumpInfo.newBuilder().setDumpId(DUMP_ID).build(), null, true);
+  }
+
+  private static class FakeMemoryService extends MemoryServiceGrpc.MemoryServiceImplBase {
+    private final AtomicInteger myChunksCallCount = new AtomicInteger();
+    private final AtomicInteger myHeapDumpCallCount = new AtomicInteger();
+    private volatile boolean myImplementsChunks = true;
+    private volatile int myNotReadyCount;
+    private volatile DumpDataResponse.Status myStatus = DumpDataResponse.Status.SUCCESS;
+    private volatile List<ByteString> myChunks = Collections.emptyList();
+
+    @Override
+    public ServerServiceDefinition bindService() {
+      ServerServiceDefinition.Builder builder = ServerServiceDefinition.builder(MemoryServiceGrpc.SERVICE_NAME);
+      super.bindService().getMethods().forEach(builder::addMethod);
+      builder.addMethod(HeapDumpCaptureObject.METHOD_GET_HEAP_DUMP_CHUNKS, ServerCalls.asyncServerStreamingCall(this::getHeapDumpChunks));
+      return builder.build();
+    }
+
+    @Override
+    public void getHeapDump(HeapDumpDataRequest request, StreamObserver<DumpDataResponse> observer) {
+      myHeapDumpCallCount.incrementAndGet();
+      assertEquals(DUMP_ID, request.getDumpId());
+      DumpDataResponse.Builder response = DumpDataResponse.newBuilder().setStatus(myStatus);
+      if (myStatus == DumpDataResponse.Status.SUCCESS) {
+        response.setData(ByteString.copyFrom(myChunks));
+      }
+      observer.onNext(response.build());
+      observer.onCompleted();
+    }
+
+    private void getHeapDumpChunks(HeapDumpDataRequest request, StreamObserver<DumpDataResponse> observer) {
+      myChunksCallCount.incrementAndGet();
+      assertEquals(DUMP_ID, request.getDumpId());
+      if (!myImplementsChunks) {
+        observer.onError(Status.UNIMPLEMENTED.asRuntimeException());
+        return;
+      }
+      if (myNotReadyCount > 0) {
+        myNotReadyCount--;
+        observer.onNext(DumpDataResponse.newBuilder().setStatus(DumpDataResponse.Status.NOT_READY).build());
+      }
+      else if (myStatus != DumpDataResponse.Status.SUCCESS) {
+        observer.onNext(DumpDataResponse.newBuilder().setStatus(myStatus).build());
+      }
+      else {
+        for (ByteString chunk : myChunks) {
+          observer.onNext(DumpDataResponse.newBuilder().setStatus(DumpDataResponse.Status.SUCCESS).setData(chunk).build());
+        }
+      }
+      observer.onCompleted();
+    }
+  }
+}
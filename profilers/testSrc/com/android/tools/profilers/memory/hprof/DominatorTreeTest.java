@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.hprof;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+import static com.android.tools.profilers.memory.hprof.DominatorTree.NO_DOMINATOR;
+import static com.android.tools.profilers.memory.hprof.HeapGraph.ROOT;
+import static org.junit.Assert.*;
+
+public class DominatorTreeTest {
+
+  @Test
+  public void testChain() throws Exception {
+    // 0 -> 1 -> 2 -> 3
+    HeapGraph graph = new HeapGraph.Builder(4).addEdge(0, 1).addEdge(1, 2).addEdge(2, 3)
+      .setSize(1, 1).setSize(2, 10).setSize(3, 100).build();
+    DominatorTree tree = DominatorTree.compute(graph);
+    assertEquals(NO_DOMINATOR, tree.getImmediateDominator(ROOT));
+    assertEquals(ROOT, tree.getImmediateDominator(1));
+    assertEquals(1, tree.getImmediateDominator(2));
+    assertEquals(2, tree.getImmediateDominator(3));
+    assertEquals(111, tree.getRetainedSize(1));
+    assertEquals(110, tree.getRetainedSize(2));
+    assertEquals(100, tree.getRetainedSize(3));
+    assertEquals(111, tree.getRetainedSize(ROOT));
+  }
+
+  @Test
+  public void testDiamond() throws Exception {
+    // 0 -> 1, 1 -> 2, 1 -> 3, 2 -> 4, 3 -> 4
+    HeapGraph graph = new HeapGraph.Builder(5).addEdge(0, 1).addEdge(1, 2).addEdge(1, 3).addEdge(2, 4).addEdge(3, 4)
+      .setSize(1, 1).setSize(2, 2).setSize(3, 4).setSize(4, 8).build();
+    DominatorTree tree = DominatorTree.compute(graph);
+    assertEquals(1, tree.getImmediateDominator(4));
+    assertEquals(15, tree.getRetainedSize(1));
+    assertEquals(2, tree.getRetainedSize(2));
+    assertEquals(4, tree.getRetainedSize(3));
+    assertEquals(8, tree.getRetainedSize(4));
+  }
+
+  @Test
+  public void testCrossAndBackReferences() throws Exception {
+    // The example of Lengauer and Tarjan, with R = 0 and A to L = 1 to 12
+    int[][] edges = {{0, 1}, {0, 2}, {0, 3}, {1, 4}, {2, 1}, {2, 4}, {2, 5}, {3, 6}, {3, 7}, {4, 12}, {5, 8}, {6, 9}, {7, 9}, {7, 10},
+      {8, 5}, {8, 11}, {9, 11}, {10, 9}, {11, 0}, {11, 9}, {12, 8}};
+    HeapGraph.Builder builder = new HeapGraph.Builder(13);
+    for (int[] edge : edges) {
+      builder.addEdge(edge[0], edge[1]);
+    }
+    DominatorTree tree = DominatorTree.compute(builder.build());
+    int[] expected = {NO_DOMINATOR, 0, 0, 0, 0, 0, 3, 3, 0, 0, 7, 0, 4};
+    for (int node = 0; node < expected.length; node++) {
+      assertEquals("Dominator of " + node, expected[node], tree.getImmediateDominator(node));
+    }
+  }
+
+  @Test
+  public void testDepths() throws Exception {
+    // GC roots 1 and 3, 1 -> 2 -> 4 -> 5, 3 -> 4, 6 is unreachable
+    HeapGraph graph = new HeapGraph.Builder(7).addEdge(0, 1).addEdge(0, 3).addEdge(1, 2).addEdge(2, 4).addEdge(3, 4).addEdge(4, 5)
+      .addEdge(6, 5).build();
+    DominatorTree tree = DominatorTree.compute(graph);
+    assertEquals(-1, tree.getDepth(ROOT));
+    assertEquals(0, tree.getDepth(1));
+    assertEquals(1, tree.getDepth(2));
+    assertEquals(0, tree.getDepth(3));
+    assertEquals(1, tree.getDepth(4));
+    assertEquals(2, tree.getDepth(5));
+    assertEquals(-1, tree.getDepth(6));
+  }
+
+  @Test
+  public void testUnreachable() throws Exception {
+    // 2 and 3 reference each other and 1, but are not reachable
+    HeapGraph graph = new HeapGraph.Builder(4).addEdge(0, 1).addEdge(2, 3).addEdge(3, 2).addEdge(2, 1)
+      .setSize(1, 1).setSize(2, 10).setSize(3, 100).build();
+    DominatorTree tree = DominatorTree.compute(graph);
+    assertEquals(2, tree.getReachableCount());
+    assertTrue(tree.isReachable(1));
+    assertFalse(tree.isReachable(2));
+    assertEquals(NO_DOMINATOR, tree.getImmediateDominator(3));
+    assertEquals(0, tree.getRetainedSize(2));
+    assertEquals(1, tree.getRetainedSize(ROOT));
+  }
+
+  @Test
+  public void testRandomGraphs() throws Exception {
+    Random random = new Random(1);
+    for (int iteration = 0; iteration < 50; iteration++) {
+      int nodeCount = 2 + random.nextInt(200);
+      HeapGraph.Builder builder = new HeapGraph.Builder(nodeCount);
+      int edgeCount = random.nextInt(nodeCount * 3);
+      for (int i = 0; i < edgeCount; i++) {
+        builder.addEdge(random.nextInt(nodeCount), 1 + random.nextInt(nodeCount - 1));
+      }
+      for (int node = 1; node < nodeCount; node++) {
+        builder.setSize(node, random.nextInt(100));
+      }
+      HeapGraph graph = builder.build();
+      DominatorTree tree = DominatorTree.compute(graph);
+      BitSet[] dominators = computeDominatorSets(graph);
+      for (int node = 1; node < nodeCount; node++) {
+        if (dominators[node] == null) {
+          assertFalse(tree.isReachable(node));
+          continue;
+        }
+        // The immediate dominator is the strict dominator dominated by all the others, i.e. the one with the most dominators
+        int expected = ROOT;
+        for (int dominator = dominators[node].nextSetBit(0); dominator >= 0; dominator = dominators[node].nextSetBit(dominator + 1)) {
+          if (dominator != node && dominators[dominator].cardinality() > dominators[expected].cardinality()) {
+            expected = dominator;
+          }
+        }
+        assertEquals(expected, tree.getImmediateDominator(node));
+
+        long retainedSize = 0;
+        for (int other = 1; other < nodeCount; other++) {
+          if (dominators[other] != null && dominators[other].get(node)) {
+            retainedSize += graph.getSize(other);
+          }
+        }
+        assertEquals(retainedSize, tree.getRetainedSize(node));
+      }
+    }
+  }
+
+  @Test(expected = CancellationException.class)
+  public void testCancel() throws Exception {
+    DominatorTree.Computation computation = new DominatorTree.Computation(new HeapGraph.Builder(2).addEdge(0, 1).build());
+    computation.cancel();
+    computation.run();
+  }
+
+  @Test
+  public void testProgress() throws Exception {
+    DominatorTree.Computation computation = new DominatorTree.Computation(new HeapGraph.Builder(2).addEdge(0, 1).build());
+    assertEquals(0, computation.getProgress(), 0);
+    computation.run();
+    assertEquals(DominatorTree.Computation.Stage.DEPTHS, computation.getStage());
+    assertEquals(1, computation.getProgress(), 0);
+  }
+
+  /**
+   * Computes the dominators of each node by iterating dom(n) = {n} + intersection of dom(p) for each predecessor p until a fixed point.
+   * The unreachable nodes have no dominators.
+   */
+  private static BitSet[] computeDominatorSets(HeapGraph graph) {
+    int nodeCount = graph.getNodeCount();
+    BitSet[] dominators = new BitSet[nodeCount];
+    dominators[ROOT] = new BitSet();
+    dominators[ROOT].set(ROOT);
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int node = 1; node < nodeCount; node++) {
+        BitSet intersection = null;
+        for (int from = 0; from < nodeCount; from++) {
+          if (dominators[from] == null || !hasEdge(graph, from, node)) {
+            continue;
+          }
+          if (intersection == null) {
+            intersection = (BitSet)dominators[from].clone();
+          }
+          else {
+            intersection.and(dominators[from]);
+          }
+        }
+        if (intersection == null) {
+          continue;
+        }
+        intersection.set(node);
+        if (!intersection.equals(dominators[node])) {
+          dominators[node] = intersection;
+          changed = true;
+        }
+      }
+    }
+    return dominators;
+  }
+
+  private static boolean hasEdge(HeapGraph graph, int from, int to) {
+    for (int i = graph.getEdgeStarts()[from]; i < graph.getEdgeStarts()[from + 1]; i++) {
+      if (graph.getEdges()[i] == to) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
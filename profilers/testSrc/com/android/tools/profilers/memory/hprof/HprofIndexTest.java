@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.hprof;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HprofIndexTest {
+  private static final int OBJECT_CLASS_ID = 100;
+  private static final int FOO_CLASS_ID = 101;
+  private static final int FOO_ARRAY_CLASS_ID = 102;
+
+  private HprofIndex myIndex;
+
+  @Before
+  public void setUp() throws Exception {
+    HprofWriter writer = new HprofWriter();
+    writer.string(1, "java.lang.Object");
+    writer.string(2, "[Lcom/example/Foo;");
+    writer.string(3, "com.example.Foo");
+    writer.string(4, "myValue");
+    writer.string(5, "myNext");
+    writer.string(6, "app");
+    writer.string(7, "sCount");
+    writer.loadClass(OBJECT_CLASS_ID, 1);
+    writer.loadClass(FOO_ARRAY_CLASS_ID, 2);
+    writer.loadClass(FOO_CLASS_ID, 3);
+
+    DataOutputStream dump = writer.startHeapDump();
+    dump.writeByte(0xFE); // Heap dump info
+    dump.writeInt('A');
+    dump.writeInt(6);
+    dump.writeByte(0x05); // Sticky class root
+    dump.writeInt(FOO_CLASS_ID);
+    writeClassDump(dump, OBJECT_CLASS_ID, 0, 0);
+    writeClassDump(dump, FOO_CLASS_ID, OBJECT_CLASS_ID, 8);
+    // Instances, in decreasing id order
+    writeInstance(dump, 202, 1, 0);
+    writeInstance(dump, 201, 42, 202);
+    dump.writeByte(0x23); // Primitive array
+    dump.writeInt(300);
+    dump.writeInt(0);
+    dump.writeInt(3);
+    dump.writeByte(10); // int
+    dump.writeInt(1);
+    dump.writeInt(2);
+    dump.writeInt(3);
+    dump.writeByte(0x22); // Object array
+    dump.writeInt(301);
+    dump.writeInt(0);
+    dump.writeInt(2);
+    dump.writeInt(FOO_ARRAY_CLASS_ID);
+    dump.writeInt(201);
+    dump.writeInt(0);
+    dump.writeByte(0x01); // JNI global root
+    dump.writeInt(201);
+    dump.writeInt(0);
+    writer.endHeapDump();
+
+    myIndex = new HprofIndex(ByteBuffer.wrap(writer.toByteArray()));
+  }
+
+  private static void writeClassDump(DataOutputStream dump, int id, int superclassId, int instanceSize) throws IOException {
+    dump.writeByte(0x20);
+    dump.writeInt(id);
+    dump.writeInt(0);
+    dump.writeInt(superclassId);
+    for (int i = 0; i < 5; i++) {
+      dump.writeInt(0); // Class loader, signers, protection domain, reserved
+    }
+    dump.writeInt(instanceSize);
+    dump.writeShort(0); // Constants
+    if (id == FOO_CLASS_ID) {
+      dump.writeShort(1); // sCount = 7
+      dump.writeInt(7);
+      dump.writeByte(10);
+      dump.writeInt(7);
+      dump.writeShort(2); // myValue and myNext
+      dump.writeInt(4);
+      dump.writeByte(10);
+      dump.writeInt(5);
+      dump.writeByte(2);
+    }
+    else {
+      dump.writeShort(0);
+      dump.writeShort(0);
+    }
+  }
+
+  private static void writeInstance(DataOutputStream dump, int id, int value, int next) throws IOException {
+    dump.writeByte(0x21);
+    dump.writeInt(id);
+    dump.writeInt(0);
+    dump.writeInt(FOO_CLASS_ID);
+    dump.writeInt(8);
+    dump.writeInt(value);
+    dump.writeInt(next);
+  }
+
+  @Test
+  public void testClasses() throws Exception {
+    assertEquals(4, myIndex.getIdSize());
+    HprofClass foo = findClass("com.example.Foo");
+    assertEquals(FOO_CLASS_ID, foo.getId());
+    assertEquals(8, foo.getInstanceSize());
+    assertEquals("java.lang.Object", foo.getSuperclass().getName());
+    assertArrayEquals(new String[]{"myValue", "myNext"}, foo.getFieldNames());
+    assertArrayEquals(new HprofType[]{HprofType.INT, HprofType.OBJECT}, foo.getFieldTypes());
+    assertNotNull(findClass("com.example.Foo[]"));
+    assertTrue(findClass("int[]").isArrayClass());
+  }
+
+  @Test
+  public void testHistogram() throws Exception {
+    List<HprofHeap> heaps = myIndex.getHeaps();
+    assertEquals(1, heaps.size());
+    HprofHeap heap = heaps.get(0);
+    assertEquals("app", heap.getName());
+    assertEquals(3, heap.getClasses().size());
+
+    HprofClass foo = findClass("com.example.Foo");
+    assertEquals(2, heap.getInstanceCount(foo));
+    assertEquals(16, heap.getShallowSize(foo));
+    assertEquals(12, heap.getShallowSize(findClass("int[]")));
+    assertEquals(8, heap.getShallowSize(findClass("com.example.Foo[]")));
+    assertEquals(0, heap.getInstanceCount(findClass("java.lang.Object")));
+  }
+
+  @Test
+  public void testRoots() throws Exception {
+    assertArrayEquals(new long[]{FOO_CLASS_ID, 201}, myIndex.getRoots());
+    // Two classes, two instances and two arrays
+    assertEquals(6, myIndex.getObjectCount());
+  }
+
+  @Test
+  public void testInstanceFields() throws Exception {
+    HprofInstance instance = myIndex.findInstance(201);
+    assertNotNull(instance);
+    assertEquals("com.example.Foo", instance.getHprofClass().getName());
+    assertEquals(8, instance.getShallowSize());
+    assertFalse(instance.isArray());
+
+    List<HprofInstance.Field> fields = instance.getFields();
+    assertEquals(2, fields.size());
+    assertEquals("myValue", fields.get(0).getName());
+    assertEquals(42, fields.get(0).getValue());
+    assertEquals("myNext", fields.get(1).getName());
+    assertEquals(202L, fields.get(1).getValue());
+
+    HprofInstance next = myIndex.findInstance((Long)fields.get(1).getValue());
+    assertNotNull(next);
+    assertNull(next.getFields().get(1).getValue());
+    assertNull(myIndex.findInstance(999));
+  }
+
+  @Test
+  public void testArrays() throws Exception {
+    HprofInstance ints = myIndex.findInstance(300);
+    assertNotNull(ints);
+    assertTrue(ints.isArray());
+    assertEquals(3, ints.getArrayLength());
+    assertEquals(3, ints.getFields().get(2).getValue());
+
+    HprofInstance foos = myIndex.findInstance(301);
+    assertNotNull(foos);
+    assertEquals("com.example.Foo[]", foos.getHprofClass().getName());
+    assertEquals(201L, foos.getFields().get(0).getValue());
+    assertNull(foos.getFields().get(1).getValue());
+  }
+
+  @Test
+  public void testStaticFields() throws Exception {
+    HprofInstance foo = myIndex.findInstance(FOO_CLASS_ID);
+    assertNotNull(foo);
+    assertTrue(foo.isClassObject());
+    List<HprofInstance.Field> fields = foo.getFields();
+    assertEquals(1, fields.size());
+    assertEquals("sCount", fields.get(0).getName());
+    assertEquals(7, fields.get(0).getValue());
+  }
+
+  @Test
+  public void testHeapInstances() throws Exception {
+    HprofHeap heap = myIndex.getHeaps().get(0);
+    List<HprofInstance> instances = heap.getInstances(findClass("com.example.Foo"));
+    assertEquals(2, instances.size());
+    assertEquals(202, instances.get(0).getId());
+    assertEquals(201, instances.get(1).getId());
+  }
+
+  @Test
+  public void testGraph() throws Exception {
+    HeapGraph graph = myIndex.buildGraph();
+    assertEquals(7, graph.getNodeCount());
+    // The roots, 201 -> 202 and 301 -> 201
+    assertEquals(4, graph.getEdgeCount());
+    assertEquals(12, graph.getSize(myIndex.getNode(300)));
+    assertEquals(-1, myIndex.getNode(999));
+
+    DominatorTree dominators = DominatorTree.compute(graph);
+    assertEquals(myIndex.getNode(201), dominators.getImmediateDominator(myIndex.getNode(202)));
+    assertEquals(HeapGraph.ROOT, dominators.getImmediateDominator(myIndex.getNode(201)));
+    assertEquals(16, dominators.getRetainedSize(myIndex.getNode(201)));
+    assertFalse(dominators.isReachable(myIndex.getNode(301)));
+  }
+
+  @Test(expected = IOException.class)
+  public void testTruncatedDump() throws Exception {
+    HprofWriter writer = new HprofWriter();
+    DataOutputStream dump = writer.startHeapDump();
+    writeInstance(dump, 201, 42, 0);
+    writer.endHeapDump();
+    byte[] bytes = writer.toByteArray();
+    new HprofIndex(ByteBuffer.wrap(bytes, 0, bytes.length - 4).slice());
+  }
+
+  @Test
+  public void testClassNames() throws Exception {
+    assertEquals("java.lang.String", HprofIndex.getClassName("java/lang/String"));
+    assertEquals("java.lang.String[][]", HprofIndex.getClassName("[[Ljava/lang/String;"));
+    assertEquals("int[]", HprofIndex.getClassName("[I"));
+    assertEquals("android.view.View[]", HprofIndex.getClassName("android.view.View[]"));
+  }
+
+  private HprofClass findClass(String name) {
+    for (HprofClass hprofClass : myIndex.getClasses()) {
+      if (hprofClass.getName().equals(name)) {
+        return hprofClass;
+      }
+    }
+    fail("No class " + name);
+    return null;
+  }
+
+  /**
+   * Writes an hprof file with 4 byte identifiers.
+   */
+  private static class HprofWriter {
+    private final ByteArrayOutputStream myBytes = new ByteArrayOutputStream();
+    private final DataOutputStream myOut = new DataOutputStream(myBytes);
+    private ByteArrayOutputStream myHeapDump;
+
+    HprofWriter() throws IOException {
+      myOut.write("JAVA PROFILE 1.0.3".getBytes(StandardCharsets.UTF_8));
+      myOut.writeByte(0);
+      myOut.writeInt(4);
+      myOut.writeLong(0);
+    }
+
+    void string(int id, String value) throws IOException {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      writeRecordHeader(0x01, 4 + bytes.length);
+      myOut.writeInt(id);
+      myOut.write(bytes);
+    }
+
+    void loadClass(int classId, int nameId) throws IOException {
+      writeRecordHeader(0x02, 16);
+      myOut.writeInt(0);
+      myOut.writeInt(classId);
+      myOut.writeInt(0);
+      myOut.writeInt(nameId);
+    }
+
+    DataOutputStream startHeapDump() {
+      myHeapDump = new ByteArrayOutputStream();
+      return new DataOutputStream(myHeapDump);
+    }
+
+    void endHeapDump() throws IOException {
+      writeRecordHeader(0x1C, myHeapDump.size());
+      myHeapDump.writeTo(myOut);
+    }
+
+    byte[] toByteArray() {
+      return myBytes.toByteArray();
+    }
+
+    private void writeRecordHeader(int tag, int length) throws IOException {
+      myOut.writeByte(tag);
+      myOut.writeInt(0);
+      myOut.writeInt(length);
+    }
+  }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.network;
+
+import com.android.tools.adtui.model.Range;
+import com.android.tools.profiler.proto.NetworkProfiler;
+import com.android.tools.profiler.proto.NetworkServiceGrpc;
+import com.android.tools.profilers.TestGrpcChannel;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class RpcNetworkRequestsModelTest {
+  private static final long DETAILS_BATCH_TIMEOUT_MS = 200;
+
+  @Rule
+  public TestGrpcChannel<NetworkServiceMock> myGrpcChannel = new TestGrpcChannel<>("NETWORK_TEST_CHANNEL", new NetworkServiceMock());
+
+  private NetworkServiceMock myService;
+  private RpcNetworkRequestsModel myModel;
+
+  @Before
+  public void setUp() {
+    myService = myGrpcChannel.getService();
+    myModel = new RpcNetworkRequestsModel(myGrpcChannel.getClient().getNetworkClient(), 12, DETAILS_BATCH_TIMEOUT_MS);
+  }
+
+  @Test
+  public void testCompletedConnectionsAreCached() {
+    myService.addConnection(1, 1000, 2000);
+    myService.addConnection(2, 1500, 0);
+
+    List<HttpData> data = getData();
+    assertEquals(2, data.size());
+    assertEquals("http://example.com/1", data.get(0).getUrl());
+    assertEquals(200, data.get(0).getStatusCode());
+    assertEquals("payload1", data.get(0).getResponsePayloadId());
+    assertEquals("http://example.com/2", data.get(1).getUrl());
+    assertEquals(-1, data.get(1).getStatusCode());
+    // Request details of both connections, response details of the completed one
+    assertEquals(4, myService.getDetailsRequestCount());
+
+    List<HttpData> cachedData = getData();
+    assertSame(data.get(0), cachedData.get(0));
+    assertEquals("http://example.com/2", cachedData.get(1).getUrl());
+    assertEquals(4, myService.getDetailsRequestCount());
+
+    // Only the response details of the connection that just completed are requested
+    myService.addConnection(2, 1500, 3000);
+    data = getData();
+    assertEquals(2, data.size());
+    assertSame(cachedData.get(0), data.get(0));
+    assertEquals("http://example.com/2", data.get(1).getUrl());
+    assertEquals(200, data.get(1).getStatusCode());
+    assertEquals(6, myService.getDetailsRequestCount());
+
+    getData();
+    assertEquals(6, myService.getDetailsRequestCount());
+  }
+
+  @Test
+  public void testDetailsAreRequestedInBatch() {
+    myService.setBatchImplemented(true);
+    myService.addConnection(1, 1000, 2000);
+    myService.addConnection(2, 1500, 0);
+
+    List<HttpData> data = getData();
+    assertEquals("http://example.com/1", data.get(0).getUrl());
+    assertEquals("payload1", data.get(0).getResponsePayloadId());
+    assertEquals("http://example.com/2", data.get(1).getUrl());
+    assertEquals(1, myService.getBatchCount());
+    assertEquals(4, myService.getDetailsRequestCount());
+
+    myService.addConnection(2, 1500, 3000);
+    data = getData();
+    assertEquals(200, data.get(1).getStatusCode());
+    assertEquals(2, myService.getBatchCount());
+    assertEquals(6, myService.getDetailsRequestCount());
+
+    // Nothing left to request
+    getData();
+    assertEquals(2, myService.getBatchCount());
+  }
+
+  @Test
+  public void testPendingResponseBodyIsRequestedAgain() {
+    myService.setResponseBodyPending(true);
+    myService.addConnection(1, 1000, 2000);
+
+    List<HttpData> data = getData();
+    assertNull(data.get(0).getResponsePayloadId());
+
+    myService.setResponseBodyPending(false);
+    data = getData();
+    assertEquals("payload1", data.get(0).getResponsePayloadId());
+    assertSame(data.get(0), getData().get(0));
+  }
+
+  @Test
+  public void testConnectionWithoutResponseBodyIsCached() {
+    myService.setResponseBodyEmpty(true);
+    myService.addConnection(1, 1000, 2000);
+
+    List<HttpData> data = getData();
+    assertNull(data.get(0).getResponsePayloadId());
+    assertEquals(3, myService.getDetailsRequestCount());
+    assertSame(data.get(0), getData().get(0));
+    assertEquals(3, myService.getDetailsRequestCount());
+  }
+
+  @Test
+  public void testCompletedConnectionsOutsideTheRangeAreEvicted() {
+    myService.addConnection(1, 1000, 2000);
+    myService.addConnection(2, TimeUnit.SECONDS.toMicros(6), TimeUnit.SECONDS.toMicros(7));
+    getData();
+    assertEquals(2, myModel.getCompletedConnectionCount());
+
+    myModel.getData(new Range(TimeUnit.SECONDS.toMicros(5), TimeUnit.SECONDS.toMicros(10)));
+    assertEquals(1, myModel.getCompletedConnectionCount());
+    assertEquals(6, myService.getDetailsRequestCount());
+
+    // Requested again when the range moves back to it
+    assertEquals("http://example.com/1", getData().get(0).getUrl());
+    assertEquals(9, myService.getDetailsRequestCount());
+  }
+
+  @Test
+  public void testStalledDetailsBatchTimesOut() {
+    myService.setBatchImplemented(true);
+    myService.setBatchStalled(true);
+    myService.addConnection(1, 1000, 2000);
+
+    List<HttpData> data = getData();
+    assertEquals(1, data.size());
+    // Not cached, so the details are requested again
+    assertEquals(0, myModel.getCompletedConnectionCount());
+
+    myService.setBatchStalled(false);
+    assertEquals("http://example.com/1", getData().get(0).getUrl());
+    assertEquals(1, myModel.getCompletedConnectionCount());
+  }
+
+  @Test
+  public void testInFlightConnectionsBeforeRangeArePruned() {
+    myService.addConnection(1, 1000, 0);
+    myService.addConnection(2, 1500, 0);
+    getData();
+    assertEquals(2, myModel.getInFlightConnectionCount());
+
+    // Connection 1 completes before the queried range, connection 2 is still in flight in it
+    myService.addConnection(1, 1000, 2000);
+    myModel.getData(new Range(TimeUnit.SECONDS.toMicros(5), TimeUnit.SECONDS.toMicros(10)));
+    assertEquals(1, myModel.getInFlightConnectionCount());
+  }
+
+  private List<HttpData> getData() {
+    return myModel.getData(new Range(0, TimeUnit.SECONDS.toMicros(10)));
+  }
+
+  private static class NetworkServiceMock extends NetworkServiceGrpc.NetworkServiceImplBase {
+    private final Map<Long, NetworkProfiler.HttpConnectionData> myConnections = new HashMap<>();
+    private int myDetailsRequestCount;
+    private int myBatchCount;
+    private boolean myIsBatchImplemented;
+    private volatile boolean myIsBatchStalled;
+    private boolean myIsResponseBodyPending;
+    private boolean myIsResponseBodyEmpty;
+
+    void addConnection(long id, long startTimeUs, long endTimeUs) {
+      myConnections.put(id, NetworkProfiler.HttpConnectionData.newBuilder()
+        .setConnId(id)
+        .setStartTimestamp(TimeUnit.MICROSECONDS.toNanos(startTimeUs))
+        .setEndTimestamp(TimeUnit.MICROSECONDS.toNanos(endTimeUs))
+        .build());
+    }
+
+    int getDetailsRequestCount() {
+      return myDetailsRequestCount;
+    }
+
+    int getBatchCount() {
+      return myBatchCount;
+    }
+
+    void setBatchImplemented(boolean batchImplemented) {
+      myIsBatchImplemented = batchImplemented;
+    }
+
+    void setBatchStalled(boolean batchStalled) {
+      myIsBatchStalled = batchStalled;
+    }
+
+    void setResponseBodyPending(boolean responseBodyPending) {
+      myIsResponseBodyPending = responseBodyPending;
+    }
+
+    void setResponseBodyEmpty(boolean responseBodyEmpty) {
+      myIsResponseBodyEmpty = responseBodyEmpty;
+    }
+
+    @Override
+    public ServerServiceDefinition bindService() {
+      ServerServiceDefinition.Builder builder = ServerServiceDefinition.builder(NetworkServiceGrpc.SERVICE_NAME);
+      super.bindService().getMethods().forEach(builder::addMethod);
+      builder.addMethod(RpcNetworkRequestsModel.METHOD_GET_HTTP_DETAILS_BATCH,
+                        ServerCalls.asyncBidiStreamingCall(this::getHttpDetailsBatch));
+      return builder.build();
+    }
+
+    private StreamObserver<NetworkProfiler.HttpDetailsRequest> getHttpDetailsBatch(
+      StreamObserver<NetworkProfiler.HttpDetailsResponse> responseObserver) {
+      if (myIsBatchImplemented) {
+        myBatchCount++;
+      }
+      return new StreamObserver<NetworkProfiler.HttpDetailsRequest>() {
+        @Override
+        public void onNext(NetworkProfiler.HttpDetailsRequest request) {
+          if (myIsBatchImplemented && !myIsBatchStalled) {
+            getHttpDetails(request, new StreamObserver<NetworkProfiler.HttpDetailsResponse>() {
+              @Override
+              public void onNext(NetworkProfiler.HttpDetailsResponse response) {
+                responseObserver.onNext(response);
+              }
+
+              @Override
+              public void onError(Throwable t) {
+                responseObserver.onError(t);
+              }
+
+              @Override
+              public void onCompleted() {
+              }
+            });
+          }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+        }
+
+        @Override
+        public void onCompleted() {
+          if (myIsBatchStalled) {
+            // Never answers, the client gives up
+            return;
+          }
+          if (myIsBatchImplemented) {
+            responseObserver.onCompleted();
+          }
+          else {
+            responseObserver.onError(Status.UNIMPLEMENTED.asRuntimeException());
+          }
+        }
+      };
+    }
+
+    @Override
+    public void getHttpRange(NetworkProfiler.HttpRangeRequest request, StreamObserver<NetworkProfiler.HttpRangeResponse> responseObserver) {
+      NetworkProfiler.HttpRangeResponse.Builder response = NetworkProfiler.HttpRangeResponse.newBuilder();
+      // Like the datastore, skips the connections that completed before the range or started after it
+      myConnections.keySet().stream().sorted().map(myConnections::get)
+        .filter(data -> data.getStartTimestamp() <= request.getEndTimestamp() &&
+                        (data.getEndTimestamp() == 0 || data.getEndTimestamp() >= request.getStartTimestamp()))
+        .forEach(response::addData);
+      responseObserver.onNext(response.build());
+      responseObserver.onCompleted();
+    }
+
+    @Override
+    public void getHttpDetails(NetworkProfiler.HttpDetailsRequest request,
+                               StreamObserver<NetworkProfiler.HttpDetailsResponse> responseObserver) {
+      myDetailsRequestCount++;
+      long id = request.getConnId();
+      NetworkProfiler.HttpDetailsResponse.Builder response = NetworkProfiler.HttpDetailsResponse.newBuilder();
+      switch (request.getType()) {
+        case REQUEST:
+          response.setRequest(NetworkProfiler.HttpDetailsResponse.Request.newBuilder()
+                                .setUrl("http://example.com/" + id).setMethod("GET").setTrace("trace"));
+          break;
+        case RESPONSE:
+          response.setResponse(NetworkProfiler.HttpDetailsResponse.Response.newBuilder().setFields("status line = HTTP/1.1 200 OK\n"));
+          break;
+        case RESPONSE_BODY:
+          // Like the datastore, answers with empty details until they are known
+          if (!myIsResponseBodyPending) {
+            String payloadId = myIsResponseBodyEmpty ? "" : "payload" + id;
+            response.setResponseBody(NetworkProfiler.HttpDetailsResponse.Body.newBuilder().setPayloadId(payloadId));
+          }
+          break;
+        default:
+          break;
+      }
+      responseObserver.onNext(response.build());
+      responseObserver.onCompleted();
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.sherpa.scout;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Spatial index over the bounds of widgets, used to find the widgets another widget
+ * can be centered between without evaluating every pair of widgets.
+ * The root and guidelines are not indexed, they are candidates for every widget.
+ */
+class ScoutNeighborIndex {
+    private final ScoutWidget[] mList;
+    private final BitSet mAlwaysCandidates = new BitSet();
+    private final IntervalTree mHorizontalSpans;
+    private final IntervalTree mVerticalSpans;
+
+    /**
+     * Builds the index
+     *
+     * @param list ordered list of widgets root must be list[0]
+     */
+    ScoutNeighborIndex(ScoutWidget[] list) {
+        mList = list;
+        int count = 0;
+        for (int i = 0; i < list.length; i++) {
+            if (list[i].isRoot() || list[i].isGuideline()) {
+                mAlwaysCandidates.set(i);
+            } else {
+                count++;
+            }
+        }
+        int[] indexed = new int[count];
+        count = 0;
+        for (int i = 0; i < list.length; i++) {
+            if (!mAlwaysCandidates.get(i)) {
+                indexed[count++] = i;
+            }
+        }
+        mHorizontalSpans = new IntervalTree(list, indexed, Direction.WEST, Direction.EAST);
+        mVerticalSpans = new IntervalTree(list, indexed, Direction.NORTH, Direction.SOUTH);
+    }
+
+    /**
+     * Gets the widgets a widget may be centered between: the root, the guidelines, and the widgets
+     * it can see horizontally or vertically, that is whose vertical or horizontal span
+     * overlaps its own once extended by the given slack.
+     *
+     * @param widget the number of the widget in the list
+     * @param slack  distance by which the spans of the widget are extended
+     * @return the sorted numbers of the candidate widgets, not including the widget itself
+     */
+    int[] getCandidates(int widget, float slack) {
+        ScoutWidget scoutWidget = mList[widget];
+        BitSet candidates = (BitSet) mAlwaysCandidates.clone();
+        mVerticalSpans.findOverlapping(scoutWidget.getLocation(Direction.NORTH) - slack,
+                scoutWidget.getLocation(Direction.SOUTH) + slack, candidates);
+        mHorizontalSpans.findOverlapping(scoutWidget.getLocation(Direction.WEST) - slack,
+                scoutWidget.getLocation(Direction.EAST) + slack, candidates);
+        candidates.clear(widget);
+        return candidates.stream().toArray();
+    }
+
+    /**
+     * Spans of widgets along one axis, sorted by start. The sorted spans are an implicit
+     * balanced binary tree (the middle of a range is the root of that range) where each
+     * node keeps the maximum end of its subtree, so overlap queries skip subtrees that
+     * end before the queried span.
+     */
+    private static class IntervalTree {
+        private final int[] mWidgets;
+        private final float[] mStarts;
+        private final float[] mEnds;
+        private final float[] mMaxEnds;
+
+        IntervalTree(ScoutWidget[] list, int[] widgets, Direction startSide, Direction endSide) {
+            Integer[] sorted = new Integer[widgets.length];
+            for (int i = 0; i < widgets.length; i++) {
+                sorted[i] = widgets[i];
+            }
+            Arrays.sort(sorted, (w1, w2) -> Float.compare(list[w1].getLocation(startSide),
+                    list[w2].getLocation(startSide)));
+            mWidgets = new int[sorted.length];
+            mStarts = new float[sorted.length];
+            mEnds = new float[sorted.length];
+            mMaxEnds = new float[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                mWidgets[i] = sorted[i];
+                mStarts[i] = list[sorted[i]].getLocation(startSide);
+                mEnds[i] = list[sorted[i]].getLocation(endSide);
+            }
+            computeMaxEnds(0, sorted.length);
+        }
+
+        private float computeMaxEnds(int from, int to) {
+            if (from >= to) {
+                return Float.NEGATIVE_INFINITY;
+            }
+            int mid = (from + to) >>> 1;
+            float max = Math.max(mEnds[mid],
+                    Math.max(computeMaxEnds(from, mid), computeMaxEnds(mid + 1, to)));
+            mMaxEnds[mid] = max;
+            return max;
+        }
+
+        /**
+         * Adds the widgets whose span overlaps [start, end] to the result
+         */
+        void findOverlapping(float start, float end, BitSet result) {
+            findOverlapping(0, mWidgets.length, start, end, result);
+        }
+
+        private void findOverlapping(int from, int to, float start, float end, BitSet result) {
+            if (from >= to) {
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            if (mMaxEnds[mid] < start) { // everything in this range ends before the span
+                return;
+            }
+            findOverlapping(from, mid, start, end, result);
+            if (mStarts[mid] > end) { // everything after mid starts after the span
+                return;
+            }
+            if (mEnds[mid] >= start) {
+                result.set(mWidgets[mid]);
+            }
+            findOverlapping(mid + 1, to, start, end, result);
+        }
+    }
+}
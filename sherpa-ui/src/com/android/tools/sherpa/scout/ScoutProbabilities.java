@@ -20,6 +20,7 @@ import java.awt.*;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.stream.IntStream;
 
 /**
  * Inference Probability tables
@@ -43,9 +44,13 @@ public class ScoutProbabilities {
     private static final int ROOT_MARGIN_DISCOUNT = 16;
     private static final int MAX_ROOT_OVERHANG = 10;
     private static final boolean SKIP_SPARSE_COLUMNS = true;
+    static final int NEIGHBOR_SLACK = MAX_DIST_FOR_CENTER_OVERLAP;
+    private static final int MIN_WIDGETS_FOR_PARALLEL = 32;
 
     float[][][] mProbability; // probability of a connection
     float[][][] mMargin; // margin needed for that connection
+    int[][] mCandidates; // widgets each widget may be centered between (root first)
+    // Binary tables are indexed by candidate (2 per candidate) not by widget
     float[][][][] mBinaryBias; // Ratio needed for binary connections (should be .5 for now)
     float[][][][] mBinaryProbability; // probability of a left_right/up_down
     int len;
@@ -56,6 +61,17 @@ public class ScoutProbabilities {
      * @param list ordered list of widgets root must be list[0]
      */
     public void computeConstraints(ScoutWidget[] list) {
+        computeConstraints(list, NEIGHBOR_SLACK);
+    }
+
+    /**
+     * This calculates a constraint tables
+     *
+     * @param list          ordered list of widgets root must be list[0]
+     * @param neighborSlack distance within which widgets are candidates for centered
+     *                      connections, infinite to evaluate every pair of widgets
+     */
+    void computeConstraints(ScoutWidget[] list, float neighborSlack) {
         if (list.length < 2) {
             throw new IllegalArgumentException("list must contain more than 1 widget");
         }
@@ -67,15 +83,46 @@ public class ScoutProbabilities {
 
         mProbability = new float[len][][];
         mMargin = new float[len][][];
+        mCandidates = new int[len][];
+        mBinaryProbability = new float[len][][][];
+        mBinaryBias = new float[len][][][];
+
+        // only widgets close enough to be seen are candidates for a centered connection
+        ScoutNeighborIndex index = new ScoutNeighborIndex(list);
+        mCandidates[0] = IntStream.range(1, len).toArray(); // root is never connected
+        mBinaryProbability[0] = new float[2][0][0];
+        mBinaryBias[0] = new float[2][0][0];
+
+        // the tables of each widget are independent
+        IntStream widgets = IntStream.range(1, len);
+        if (len >= MIN_WIDGETS_FOR_PARALLEL) {
+            widgets = widgets.parallel();
+        }
+        widgets.forEach(i -> computeWidgetConstraints(list, i, index, neighborSlack));
+
+        if (DEBUG) {
+            printTable(list);
+        }
+    }
+
+    /**
+     * This calculates the constraint tables of one widget
+     *
+     * @param list          ordered list of widgets root must be list[0]
+     * @param i             the widget to calculate the tables of
+     * @param index         index of the widgets in list
+     * @param neighborSlack distance within which widgets are candidates for centered connections
+     */
+    private void computeWidgetConstraints(ScoutWidget[] list, int i, ScoutNeighborIndex index,
+            float neighborSlack) {
+        int[] candidates = index.getCandidates(i, neighborSlack);
+        mCandidates[i] = candidates;
 
         // calculate probability for normal connections
         float[] result = new float[2]; // estimation function return 2 values probability & margin
 
-        for (int i = 1; i < len; i++) { // for all non root widgets
+        if (!list[i].isGuideline()) {
             Direction[] all = Direction.getAllDirections();
-            if (list[i].isGuideline()) {
-                continue;
-            }
             mProbability[i] = new float[all.length][];
             mMargin[i] = new float[all.length][];
             for (int dir = 0; dir < all.length; dir++) { // for all possible connections
@@ -87,7 +134,8 @@ public class ScoutProbabilities {
                 mProbability[i][dir] = new float[len * connectTypes];
                 mMargin[i][dir] = new float[len * connectTypes];
 
-                // fill in all candidate connections
+                // fill in all candidate connections, this is linear in the number of widgets
+                // so diagonal widgets the index does not return are still evaluated
                 for (int candidate = 0; candidate < mMargin[i][dir].length; candidate++) {
                     int widgetNumber = candidate / connectTypes;
                     int opposite = candidate % connectTypes;
@@ -102,39 +150,35 @@ public class ScoutProbabilities {
         }
 
         // calculate probability for "centered" connections
-        mBinaryProbability = new float[len][2][len * 2][len * 2];
-        mBinaryBias = new float[len][2][len * 2][len * 2];
+        int size = candidates.length * 2;
+        mBinaryProbability[i] = new float[2][size][size];
+        mBinaryBias[i] = new float[2][size][size];
         Direction[][] directions =
                 { { Direction.NORTH, Direction.SOUTH }, { Direction.WEST, Direction.EAST } };
-        for (int i = 1; i < len; i++) {
-            for (int horizontal = 0; horizontal < 2; horizontal++) { // vert=0 or horizantal=1
-                Direction[] sides = directions[horizontal];
-                for (int candidate1 = 0; candidate1 < len * 2; candidate1++) {
-                    for (int candidate2 = 0; candidate2 < len * 2; candidate2++) {
-
-                        // candidates are 2 per widget (left/right or above/below)
-                        int widget1Number = candidate1 / 2;
-                        int widget2Number = candidate2 / 2;
-
-                        // pick the sides to connect
-                        Direction widget1Side = sides[candidate1 & 0x1];
-                        Direction widget2Side = sides[candidate2 & 0x1];
-
-                        estimateBinaryProbability(list[i], horizontal,
-                                list[widget1Number], widget1Side,
-                                list[widget2Number], widget2Side,
-                                list, result);
-                        mBinaryProbability[i][horizontal][candidate1][candidate2] =
-                                result[RESULT_PROBABILITY];
-                        mBinaryBias[i][horizontal][candidate1][candidate2] =
-                                result[RESULT_MARGIN];
-                    }
+        for (int horizontal = 0; horizontal < 2; horizontal++) { // vert=0 or horizantal=1
+            Direction[] sides = directions[horizontal];
+            for (int candidate1 = 0; candidate1 < size; candidate1++) {
+                for (int candidate2 = 0; candidate2 < size; candidate2++) {
+
+                    // candidates are 2 per widget (left/right or above/below)
+                    int widget1Number = candidates[candidate1 / 2];
+                    int widget2Number = candidates[candidate2 / 2];
+
+                    // pick the sides to connect
+                    Direction widget1Side = sides[candidate1 & 0x1];
+                    Direction widget2Side = sides[candidate2 & 0x1];
+
+                    estimateBinaryProbability(list[i], horizontal,
+                            list[widget1Number], widget1Side,
+                            list[widget2Number], widget2Side,
+                            list, result);
+                    mBinaryProbability[i][horizontal][candidate1][candidate2] =
+                            result[RESULT_PROBABILITY];
+                    mBinaryBias[i][horizontal][candidate1][candidate2] =
+                            result[RESULT_MARGIN];
                 }
             }
         }
-        if (DEBUG) {
-            printTable(list);
-        }
     }
 
     /**
@@ -165,12 +209,12 @@ public class ScoutProbabilities {
      */
     private void pickCenterOverlap(ScoutWidget[] list) {
         // find any widget centered over the edge of another
+        // widgets closer than MAX_DIST_FOR_CENTER_OVERLAP and guidelines are all candidates
         for (int i = 0; i < list.length; i++) {
             ScoutWidget scoutWidget = list[i];
             float centerX = scoutWidget.getX() + scoutWidget.getWidth() / 2;
             float centerY = scoutWidget.getY() + scoutWidget.getHeight() / 2;
-            for (int j = 0; j < list.length; j++) {
-                if (i == j) continue;
+            for (int j : mCandidates[i]) {
                 ScoutWidget widget = list[j];
                 if (scoutWidget.isGuideline()) {
                     continue;
@@ -282,9 +326,14 @@ public class ScoutProbabilities {
             }
             // zero out probabilities of connecting to each other we are going to take care of it here
             for (int i = 0; i < widgets.length; i++) {
+                int[] candidates = mCandidates[map[i]];
                 for (int j = 0; j < widgets.length; j++) {
-                    int l = map[j] * 2;
-                    for (int k = 2; k < 2 * list.length; k++) {
+                    int candidate = Arrays.binarySearch(candidates, map[j]);
+                    if (candidate < 0) {
+                        continue;
+                    }
+                    int l = candidate * 2;
+                    for (int k = 2; k < 2 * candidates.length; k++) { // root is candidate 0
                         mBinaryProbability[map[i]][1][l][k] = -1;
                         mBinaryProbability[map[i]][1][k][l] = -1;
                         mBinaryProbability[map[i]][1][l + 1][k] = -1;
@@ -322,8 +371,9 @@ public class ScoutProbabilities {
 
             if (bestToConnect >= 0) {
                 Utils.max(mBinaryProbability[map[bestToConnect]][1], dualIndex);
-                ScoutWidget w1 = list[dualIndex[0] / 2];
-                ScoutWidget w2 = list[dualIndex[1] / 2];
+                int[] candidates = mCandidates[map[bestToConnect]];
+                ScoutWidget w1 = list[candidates[dualIndex[0] / 2]];
+                ScoutWidget w2 = list[candidates[dualIndex[1] / 2]];
                 Direction dir1 = ((dualIndex[0] & 0x1) == 0) ? Direction.WEST : Direction.EAST;
                 Direction dir2 = ((dualIndex[1] & 0x1) == 0) ? Direction.WEST : Direction.EAST;
                 widgets[bestToConnect].setCentered(0, w1, w2, dir1, dir2, 0);
@@ -440,8 +490,8 @@ public class ScoutProbabilities {
                     Utils.max(pmatrix, dualIndex);
                     int max1 = dualIndex[0];
                     int max2 = dualIndex[1];
-                    int wNo1 = max1 / 2;
-                    int wNo2 = max2 / 2;
+                    int wNo1 = mCandidates[i][max1 / 2];
+                    int wNo2 = mCandidates[i][max2 / 2];
                     Direction widget1Side = side[horizontal][max1 & 0x1];
                     Direction widget2Side = side[horizontal][max2 & 0x1];
 
@@ -870,15 +920,15 @@ public class ScoutProbabilities {
             System.out.print(dbg + ((i == len - 1) ? "\n" : ""));
         }
 
-        String str = "[";
-        for (int con = 0; con < len * 2; con++) {
-            int opposite = con & 0x1;
-            str += (con / 2 + ((opposite == 0) ? "->" : "<-") + "           ").substring(0, 10);
-        }
-
-        System.out.println("  " + str);
-
         for (int i = 1; i < len; i++) {
+            String str = "[";
+            for (int con = 0; con < mCandidates[i].length * 2; con++) {
+                int opposite = con & 0x1;
+                str += (mCandidates[i][con / 2] + ((opposite == 0) ? "->" : "<-") + "           ")
+                        .substring(0, 10);
+            }
+            System.out.println("  " + str);
+
             for (int dir = 0; dir < mBinaryProbability[i].length;
                     dir++) { // above, below, left, right
                 String tab = "";
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.sherpa.scout;
+
+import android.support.constraint.solver.widgets.ConstraintWidget;
+import android.support.constraint.solver.widgets.ConstraintWidgetContainer;
+import android.support.constraint.solver.widgets.Guideline;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ScoutNeighborIndexTest {
+
+    private static ConstraintWidgetContainer createRoot() {
+        ConstraintWidgetContainer root = new ConstraintWidgetContainer();
+        root.setDebugName("root");
+        root.setWidth(1000);
+        root.setHeight(1000);
+        return root;
+    }
+
+    private static ConstraintWidget addWidget(ConstraintWidgetContainer root, String name,
+            int x, int y, int width, int height) {
+        ConstraintWidget widget = new ConstraintWidget(x, y, width, height);
+        widget.setDebugName(name);
+        root.add(widget);
+        return widget;
+    }
+
+    private static ScoutWidget[] createList(ConstraintWidgetContainer root) {
+        List<ConstraintWidget> widgets = new ArrayList<>(root.getChildren());
+        widgets.add(0, root);
+        return ScoutWidget.create(widgets.toArray(new ConstraintWidget[widgets.size()]));
+    }
+
+    private static int indexOf(ScoutWidget[] list, String name) {
+        for (int i = 0; i < list.length; i++) {
+            if (list[i].mConstraintWidget.getDebugName().equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(name);
+    }
+
+    private static String[] getCandidateNames(ScoutWidget[] list, int[] candidates) {
+        String[] names = new String[candidates.length];
+        for (int i = 0; i < candidates.length; i++) {
+            names[i] = list[candidates[i]].mConstraintWidget.getDebugName();
+        }
+        Arrays.sort(names);
+        return names;
+    }
+
+    @Test
+    public void testCandidates() {
+        ConstraintWidgetContainer root = createRoot();
+        addWidget(root, "widget", 100, 100, 100, 50);
+        addWidget(root, "right", 300, 140, 100, 50); // overlaps vertically
+        addWidget(root, "below", 190, 400, 50, 50); // overlaps horizontally
+        addWidget(root, "nearDiagonal", 230, 170, 20, 20); // 30 right and 20 below
+        addWidget(root, "farDiagonal", 600, 600, 50, 50);
+        Guideline guideline = new Guideline();
+        guideline.setDebugName("guideline");
+        guideline.setOrientation(Guideline.VERTICAL);
+        guideline.setX(800);
+        root.add(guideline);
+        ScoutWidget[] list = createList(root);
+        ScoutNeighborIndex index = new ScoutNeighborIndex(list);
+        int widget = indexOf(list, "widget");
+
+        assertArrayEquals(new String[] { "below", "guideline", "right", "root" },
+                getCandidateNames(list, index.getCandidates(widget, 0)));
+        assertArrayEquals(new String[] { "below", "guideline", "nearDiagonal", "right", "root" },
+                getCandidateNames(list, index.getCandidates(widget, 40)));
+        assertArrayEquals(
+                new String[] { "below", "farDiagonal", "guideline", "nearDiagonal", "right", "root" },
+                getCandidateNames(list, index.getCandidates(widget, Float.POSITIVE_INFINITY)));
+    }
+
+    @Test
+    public void testCandidatesAreSorted() {
+        ConstraintWidgetContainer root = createRoot();
+        for (int i = 0; i < 10; i++) {
+            addWidget(root, "widget" + i, 900 - i * 90, 100, 80, 80);
+        }
+        ScoutWidget[] list = createList(root);
+        ScoutNeighborIndex index = new ScoutNeighborIndex(list);
+        for (int i = 1; i < list.length; i++) {
+            int[] candidates = index.getCandidates(i, 0);
+            int[] sorted = candidates.clone();
+            Arrays.sort(sorted);
+            assertArrayEquals(sorted, candidates);
+            // every other widget is on the same row
+            assertEquals(list.length - 1, candidates.length);
+        }
+    }
+
+    @Test
+    public void testSameCandidatesAsEveryPair() {
+        Random random = new Random(42);
+        ConstraintWidgetContainer root = createRoot();
+        for (int i = 0; i < 300; i++) {
+            addWidget(root, "widget" + i, random.nextInt(950), random.nextInt(950),
+                    1 + random.nextInt(50), 1 + random.nextInt(50));
+        }
+        ScoutWidget[] list = createList(root);
+        ScoutNeighborIndex index = new ScoutNeighborIndex(list);
+        float slack = 40;
+        for (int i = 1; i < list.length; i++) {
+            List<Integer> expected = new ArrayList<>();
+            for (int j = 0; j < list.length; j++) {
+                if (j != i && (list[j].isRoot()
+                        || overlaps(list[i], list[j], Direction.NORTH, Direction.SOUTH, slack)
+                        || overlaps(list[i], list[j], Direction.WEST, Direction.EAST, slack))) {
+                    expected.add(j);
+                }
+            }
+            assertEquals(expected.toString(), Arrays.toString(index.getCandidates(i, slack)));
+        }
+    }
+
+    private static boolean overlaps(ScoutWidget widget, ScoutWidget other, Direction start,
+            Direction end, float slack) {
+        return other.getLocation(start) <= widget.getLocation(end) + slack
+                && other.getLocation(end) >= widget.getLocation(start) - slack;
+    }
+}
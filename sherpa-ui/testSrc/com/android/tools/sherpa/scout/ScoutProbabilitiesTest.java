@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.sherpa.scout;
+
+import android.support.constraint.solver.widgets.ConstraintAnchor;
+import android.support.constraint.solver.widgets.ConstraintWidget;
+import android.support.constraint.solver.widgets.ConstraintWidgetContainer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the constraints inferred when centered connections are only evaluated between
+ * neighboring widgets with the constraints inferred when every pair of widgets is evaluated.
+ */
+public class ScoutProbabilitiesTest {
+    private static final ConstraintAnchor.Type[] ANCHORS = {
+            ConstraintAnchor.Type.LEFT, ConstraintAnchor.Type.TOP, ConstraintAnchor.Type.RIGHT,
+            ConstraintAnchor.Type.BOTTOM, ConstraintAnchor.Type.BASELINE
+    };
+
+    /**
+     * A layout, which is created again for each inference as inferring modifies the widgets
+     */
+    private interface Layout {
+        void addWidgets(ConstraintWidgetContainer root);
+    }
+
+    private static void addWidget(ConstraintWidgetContainer root, String name,
+            int x, int y, int width, int height) {
+        ConstraintWidget widget = new ConstraintWidget(x, y, width, height);
+        widget.setDebugName(name);
+        root.add(widget);
+    }
+
+    /**
+     * Infers the constraints of the layout and describes them, one line per connected anchor
+     */
+    private static String inferConstraints(Layout layout, float neighborSlack) {
+        ConstraintWidgetContainer root = new ConstraintWidgetContainer();
+        root.setDebugName("root");
+        root.setWidth(1080);
+        root.setHeight(1920);
+        layout.addWidgets(root);
+
+        List<ConstraintWidget> widgets = new ArrayList<>(root.getChildren());
+        widgets.add(0, root);
+        ScoutWidget[] list =
+                ScoutWidget.create(widgets.toArray(new ConstraintWidget[widgets.size()]));
+        ScoutProbabilities table = new ScoutProbabilities();
+        table.computeConstraints(list, neighborSlack);
+        table.applyConstraints(list);
+
+        StringBuilder constraints = new StringBuilder();
+        for (ConstraintWidget widget : root.getChildren()) {
+            for (ConstraintAnchor.Type type : ANCHORS) {
+                ConstraintAnchor anchor = widget.getAnchor(type);
+                if (anchor != null && anchor.isConnected()) {
+                    constraints.append(widget.getDebugName()).append('.').append(type)
+                            .append(" -> ").append(anchor.getTarget().getOwner().getDebugName())
+                            .append('.').append(anchor.getTarget().getType())
+                            .append(" margin ").append(anchor.getMargin()).append('\n');
+                }
+            }
+        }
+        return constraints.toString();
+    }
+
+    private static void assertSameConstraints(Layout layout) {
+        String expected = inferConstraints(layout, Float.POSITIVE_INFINITY);
+        assertTrue("no constraints were inferred", !expected.isEmpty());
+        assertEquals(expected, inferConstraints(layout, ScoutProbabilities.NEIGHBOR_SLACK));
+    }
+
+    @Test
+    public void testForm() {
+        assertSameConstraints(root -> {
+            for (int row = 0; row < 8; row++) {
+                int y = 64 + row * 160;
+                addWidget(root, "label" + row, 48, y + 20, 280, 60);
+                addWidget(root, "field" + row, 360, y, 672, 100);
+            }
+            addWidget(root, "cancel", 520, 1760, 240, 112);
+            addWidget(root, "ok", 792, 1760, 240, 112);
+        });
+    }
+
+    @Test
+    public void testGrid() {
+        assertSameConstraints(root -> {
+            for (int row = 0; row < 6; row++) {
+                for (int column = 0; column < 4; column++) {
+                    addWidget(root, "button" + row + "_" + column, 60 + column * 250,
+                            100 + row * 300, 210, 200);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testCenteredAndDiagonal() {
+        assertSameConstraints(root -> {
+            addWidget(root, "title", 340, 48, 400, 80);
+            addWidget(root, "image", 240, 660, 600, 600);
+            addWidget(root, "caption", 390, 1300, 300, 60);
+            addWidget(root, "topLeft", 24, 24, 120, 120);
+            addWidget(root, "bottomRight", 936, 1776, 120, 120);
+        });
+    }
+}